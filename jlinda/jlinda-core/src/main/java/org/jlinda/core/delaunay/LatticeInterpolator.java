@@ -0,0 +1,374 @@
+package org.jlinda.core.delaunay;
+
+import org.jlinda.core.Window;
+import org.jlinda.core.delaunay.TriangleInterpolator.ZData;
+
+/**
+ * Linear interpolation of a radar coded regular lattice (e.g. DEM posts) onto a tile.
+ * <p>
+ * The image of a regular lattice in radar geometry is a warped quad mesh, so instead of running a general
+ * Delaunay triangulation every quad is split into two triangles along the diagonal the Delaunay criterion would
+ * choose, and the triangles are scan converted directly into the tile. If every lattice edge is locally Delaunay
+ * the result is the Delaunay triangulation of the posts and the output is the same as that of
+ * {@link TriangleInterpolator#gridDataLinear} for pixels inside the lattice footprint.
+ * <p>
+ * Lattices with invalid posts, degenerate or folded quads (layover), or edges that are not locally Delaunay
+ * are passed to {@link TriangleInterpolator}, and so are tiles reaching beyond the lattice footprint, which the
+ * Delaunay triangulation extrapolates into up to the convex hull.
+ */
+public class LatticeInterpolator {
+
+    private static final byte DIAGONAL_02 = 0;  // split along p00-p11
+    private static final byte DIAGONAL_13 = 1;  // split along p01-p10
+
+    public static void gridDataLinear(final double[][] x_in, final double[][] y_in, final ZData[] zList,
+                                      final Window window, final double xyRatio, final int xScale,
+                                      final int yScale, final double invalidIndex, final int offset) throws Exception {
+
+        final byte[] diagonals = triangulate(x_in, y_in, xyRatio, invalidIndex);
+        if (diagonals == null || !covers(x_in, y_in, window, xScale, yScale, offset)) {
+            TriangleInterpolator.gridDataLinear(x_in, y_in, zList, window, xyRatio, xScale, yScale, invalidIndex, offset);
+            return;
+        }
+        interpolate(x_in, y_in, diagonals, xyRatio, window, xScale, yScale, offset, zList);
+    }
+
+    /**
+     * Choose the diagonal of every lattice quad
+     *
+     * @return one diagonal per quad in row major order or null if the lattice cannot be triangulated this way
+     */
+    static byte[] triangulate(final double[][] x_in, final double[][] y_in, final double xyRatio,
+                              final double invalidIndex) {
+
+        final int rows = x_in.length;
+        final int cols = rows > 0 ? x_in[0].length : 0;
+        if (rows < 2 || cols < 2) {
+            return null;
+        }
+
+        for (int r = 0; r < rows; ++r) {
+            final double[] xRow = x_in[r];
+            final double[] yRow = y_in[r];
+            for (int c = 0; c < cols; ++c) {
+                if (xRow[c] == invalidIndex || yRow[c] == invalidIndex) {
+                    return null;
+                }
+            }
+        }
+
+        final int qRows = rows - 1;
+        final int qCols = cols - 1;
+        final byte[] diagonals = new byte[qRows * qCols];
+        final double[] qx = new double[4];
+        final double[] qy = new double[4];
+        int meshOrientation = 0;
+
+        for (int r = 0; r < qRows; ++r) {
+            for (int c = 0; c < qCols; ++c) {
+                getQuad(x_in, y_in, xyRatio, r, c, qx, qy);
+
+                // quad must be strictly convex and oriented as the rest of the mesh, otherwise it folds over
+                final int orientation = convexOrientation(qx, qy);
+                if (orientation == 0) {
+                    return null;
+                }
+                if (meshOrientation == 0) {
+                    meshOrientation = orientation;
+                } else if (orientation != meshOrientation) {
+                    return null;
+                }
+
+                // p00-p11 is a Delaunay edge unless p10 lies inside the circumcircle of p00-p01-p11
+                diagonals[r * qCols + c] = inCircle(qx[0], qy[0], qx[1], qy[1], qx[2], qy[2], qx[3], qy[3]) > 0 ?
+                        DIAGONAL_13 : DIAGONAL_02;
+            }
+        }
+
+        // the edges shared by neighbouring quads must be locally Delaunay as well
+        final double[] nx = new double[4];
+        final double[] ny = new double[4];
+        for (int r = 0; r < qRows; ++r) {
+            for (int c = 0; c < qCols; ++c) {
+                final byte diag = diagonals[r * qCols + c];
+                getQuad(x_in, y_in, xyRatio, r, c, qx, qy);
+
+                if (c + 1 < qCols) {
+                    // edge p01-p11 shared with the quad on the right, where it is p00-p10
+                    final int opp = diag == DIAGONAL_02 ? 0 : 3;
+                    getQuad(x_in, y_in, xyRatio, r, c + 1, nx, ny);
+                    final int nOpp = diagonals[r * qCols + c + 1] == DIAGONAL_02 ? 2 : 1;
+                    if (inCircle(qx[1], qy[1], qx[2], qy[2], qx[opp], qy[opp], nx[nOpp], ny[nOpp]) > 0) {
+                        return null;
+                    }
+                }
+                if (r + 1 < qRows) {
+                    // edge p10-p11 shared with the quad below, where it is p00-p01
+                    final int opp = diag == DIAGONAL_02 ? 0 : 1;
+                    getQuad(x_in, y_in, xyRatio, r + 1, c, nx, ny);
+                    final int nOpp = diagonals[(r + 1) * qCols + c] == DIAGONAL_02 ? 2 : 3;
+                    if (inCircle(qx[3], qy[3], qx[2], qy[2], qx[opp], qy[opp], nx[nOpp], ny[nOpp]) > 0) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return diagonals;
+    }
+
+    /**
+     * Check that all samples of the tile lie inside the lattice footprint, whose boundary is the outer ring of
+     * the posts of a lattice accepted by {@link #triangulate}. Samples on the boundary count as outside.
+     */
+    static boolean covers(final double[][] x_in, final double[][] y_in, final Window tileWindow,
+                          final double xScale, final double yScale, final double offset) {
+
+        final int rows = x_in.length;
+        final int cols = x_in[0].length;
+        final double xLo = tileWindow.linelo + offset;
+        final double xHi = tileWindow.linelo + (tileWindow.lines() - 1) * xScale + offset;
+        final double yLo = tileWindow.pixlo + offset;
+        final double yHi = tileWindow.pixlo + (tileWindow.pixels() - 1) * yScale + offset;
+
+        // posts of the outer ring: top row, right column, bottom row and left column
+        final int ringLength = 2 * (rows - 1) + 2 * (cols - 1);
+        final double[] rx = new double[ringLength];
+        final double[] ry = new double[ringLength];
+        int k = 0;
+        for (int c = 0; c < cols - 1; ++c, ++k) {
+            rx[k] = x_in[0][c];
+            ry[k] = y_in[0][c];
+        }
+        for (int r = 0; r < rows - 1; ++r, ++k) {
+            rx[k] = x_in[r][cols - 1];
+            ry[k] = y_in[r][cols - 1];
+        }
+        for (int c = cols - 1; c > 0; --c, ++k) {
+            rx[k] = x_in[rows - 1][c];
+            ry[k] = y_in[rows - 1][c];
+        }
+        for (int r = rows - 1; r > 0; --r, ++k) {
+            rx[k] = x_in[r][0];
+            ry[k] = y_in[r][0];
+        }
+
+        // the rectangle of the samples is inside if no boundary edge touches it and one of its corners is inside
+        boolean inside = false;
+        for (int i = 0, j = ringLength - 1; i < ringLength; j = i++) {
+            if (segmentTouchesRectangle(rx[j], ry[j], rx[i], ry[i], xLo, xHi, yLo, yHi)) {
+                return false;
+            }
+            if ((ry[i] > yLo) != (ry[j] > yLo) &&
+                    xLo < rx[j] + (rx[i] - rx[j]) * (yLo - ry[j]) / (ry[i] - ry[j])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Liang-Barsky clipping of the segment a-b against the closed rectangle
+     */
+    private static boolean segmentTouchesRectangle(final double ax, final double ay, final double bx, final double by,
+                                                   final double xLo, final double xHi,
+                                                   final double yLo, final double yHi) {
+        final double dx = bx - ax;
+        final double dy = by - ay;
+        final double[] p = {-dx, dx, -dy, dy};
+        final double[] q = {ax - xLo, xHi - ax, ay - yLo, yHi - ay};
+        double t0 = 0.0;
+        double t1 = 1.0;
+        for (int k = 0; k < 4; ++k) {
+            if (p[k] == 0.0) {
+                if (q[k] < 0.0) {
+                    return false;
+                }
+            } else {
+                final double t = q[k] / p[k];
+                if (p[k] < 0.0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+                if (t0 > t1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Corners of a lattice quad in cyclic order p00, p01, p11, p10 with y scaled by xyRatio
+     */
+    private static void getQuad(final double[][] x_in, final double[][] y_in, final double xyRatio,
+                                final int r, final int c, final double[] qx, final double[] qy) {
+        qx[0] = x_in[r][c];
+        qy[0] = y_in[r][c] * xyRatio;
+        qx[1] = x_in[r][c + 1];
+        qy[1] = y_in[r][c + 1] * xyRatio;
+        qx[2] = x_in[r + 1][c + 1];
+        qy[2] = y_in[r + 1][c + 1] * xyRatio;
+        qx[3] = x_in[r + 1][c];
+        qy[3] = y_in[r + 1][c] * xyRatio;
+    }
+
+    /**
+     * @return 1 or -1 if the quad is strictly convex with that orientation, 0 otherwise
+     */
+    private static int convexOrientation(final double[] qx, final double[] qy) {
+        int orientation = 0;
+        for (int k = 0; k < 4; ++k) {
+            final int k1 = (k + 1) & 3;
+            final int k2 = (k + 2) & 3;
+            final double cross = (qx[k1] - qx[k]) * (qy[k2] - qy[k1]) - (qy[k1] - qy[k]) * (qx[k2] - qx[k1]);
+            final int sign = cross > 0 ? 1 : cross < 0 ? -1 : 0;
+            if (sign == 0 || (orientation != 0 && sign != orientation)) {
+                return 0;
+            }
+            orientation = sign;
+        }
+        return orientation;
+    }
+
+    /**
+     * Positive if d lies strictly inside the circle through a, b and c, regardless of the orientation of a-b-c
+     */
+    private static double inCircle(final double ax, final double ay, final double bx, final double by,
+                                   final double cx, final double cy, final double dx, final double dy) {
+        final double adx = ax - dx;
+        final double ady = ay - dy;
+        final double bdx = bx - dx;
+        final double bdy = by - dy;
+        final double cdx = cx - dx;
+        final double cdy = cy - dy;
+
+        final double abdet = adx * bdy - bdx * ady;
+        final double bcdet = bdx * cdy - cdx * bdy;
+        final double cadet = cdx * ady - adx * cdy;
+        final double alift = adx * adx + ady * ady;
+        final double blift = bdx * bdx + bdy * bdy;
+        final double clift = cdx * cdx + cdy * cdy;
+
+        final double det = alift * bcdet + blift * cadet + clift * abdet;
+        final double ccw = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        return ccw > 0 ? det : -det;
+    }
+
+    private static void interpolate(final double[][] x_in, final double[][] y_in, final byte[] diagonals,
+                                     final double xyRatio, final Window tileWindow,
+                                     final double xScale, final double yScale, final double offset,
+                                     final ZData[] zList) {
+
+        final int rows = x_in.length;
+        final int cols = x_in[0].length;
+        final int qCols = cols - 1;
+        final int nx = (int) tileWindow.lines();
+        final int ny = (int) tileWindow.pixels();
+        final double x_min = tileWindow.linelo;
+        final double y_min = tileWindow.pixlo;
+
+        final int numZ = zList.length;
+        final double[] a = new double[numZ];
+        final double[] b = new double[numZ];
+        final double[] c = new double[numZ];
+        final int[] vr = new int[3];
+        final int[] vc = new int[3];
+
+        for (int r = 0; r < rows - 1; ++r) {
+            for (int q = 0; q < qCols; ++q) {
+                final boolean diag02 = diagonals[r * qCols + q] == DIAGONAL_02;
+                for (int t = 0; t < 2; ++t) {
+                    // vertices of the triangle: p00-p01-p11 and p00-p11-p10, or p00-p01-p10 and p01-p11-p10
+                    if (t == 0) {
+                        vr[0] = r;      vc[0] = q;
+                        vr[1] = r;      vc[1] = q + 1;
+                        vr[2] = r + 1;  vc[2] = diag02 ? q + 1 : q;
+                    } else {
+                        vr[0] = r;      vc[0] = diag02 ? q : q + 1;
+                        vr[1] = r + 1;  vc[1] = q + 1;
+                        vr[2] = r + 1;  vc[2] = q;
+                    }
+                    rasterizeTriangle(x_in, y_in, vr, vc, xyRatio, x_min, y_min, xScale, yScale, offset,
+                                      nx, ny, zList, a, b, c);
+                }
+            }
+        }
+    }
+
+    private static void rasterizeTriangle(final double[][] x_in, final double[][] y_in,
+                                          final int[] vr, final int[] vc, final double xyRatio,
+                                          final double x_min, final double y_min,
+                                          final double xScale, final double yScale, final double offset,
+                                          final int nx, final int ny, final ZData[] zList,
+                                          final double[] a, final double[] b, final double[] c) {
+
+        // same arithmetic as TriangleInterpolator.interpolate, y goes through the scaled triangulation space
+        final double x0 = x_in[vr[0]][vc[0]], y0 = (y_in[vr[0]][vc[0]] * xyRatio) / xyRatio;
+        final double x1 = x_in[vr[1]][vc[1]], y1 = (y_in[vr[1]][vc[1]] * xyRatio) / xyRatio;
+        final double x2 = x_in[vr[2]][vc[2]], y2 = (y_in[vr[2]][vc[2]] * xyRatio) / xyRatio;
+        final int cols = x_in[0].length;
+
+        long i_min = TriangleInterpolator.coordToIndex(Math.min(Math.min(x0, x1), x2), x_min, xScale, offset);
+        long i_max = TriangleInterpolator.coordToIndex(Math.max(Math.max(x0, x1), x2), x_min, xScale, offset);
+        long j_min = TriangleInterpolator.coordToIndex(Math.min(Math.min(y0, y1), y2), y_min, yScale, offset);
+        long j_max = TriangleInterpolator.coordToIndex(Math.max(Math.max(y0, y1), y2), y_min, yScale, offset);
+
+        if (i_max < 0 || i_min >= nx || j_max < 0 || j_min >= ny) {
+            return;
+        }
+        if (i_min < 0) i_min = 0;
+        if (i_max >= nx) i_max = nx - 1;
+        if (j_min < 0) j_min = 0;
+        if (j_max >= ny) j_max = ny - 1;
+
+        // plane z = ax + by + c through the three vertices
+        final double xkj = x1 - x0;
+        final double ykj = y1 - y0;
+        final double xlj = x2 - x0;
+        final double ylj = y2 - y0;
+        final double f = 1.0 / (xkj * ylj - ykj * xlj);
+
+        for (int k = 0; k < zList.length; ++k) {
+            final ZData data = zList[k];
+            final double zj = getZ(data, vr[0], vc[0], cols);
+            final double zk = getZ(data, vr[1], vc[1], cols);
+            final double zl = getZ(data, vr[2], vc[2], cols);
+            final double zkj = zk - zj;
+            final double zlj = zl - zj;
+            a[k] = -f * (ykj * zlj - zkj * ylj);
+            b[k] = -f * (zkj * xlj - xkj * zlj);
+            c[k] = -a[k] * x1 - b[k] * y1 + zk;
+        }
+
+        // edge functions of the point in triangle test
+        final double xtd0 = x2 - x0, ytd0 = y2 - y0;
+        final double xtd1 = x0 - x1, ytd1 = y0 - y1;
+        final double xtd2 = x1 - x2, ytd2 = y1 - y2;
+
+        for (int i = (int) i_min; i <= i_max; i++) {
+            final double xp = x_min + i * xScale + offset;
+            for (int j = (int) j_min; j <= j_max; j++) {
+                final double yp = y_min + j * yScale + offset;
+
+                final boolean e0 = (xtd0 * (yp - y0)) > ((xp - x0) * ytd0);
+                final boolean e1 = (xtd1 * (yp - y1)) > ((xp - x1) * ytd1);
+                final boolean e2 = (xtd2 * (yp - y2)) > ((xp - x2) * ytd2);
+                if (e0 != e1 || e1 != e2) {
+                    continue;
+                }
+
+                for (int k = 0; k < zList.length; ++k) {
+                    zList[k].z_out[i][j] = a[k] * xp + b[k] * yp + c[k];
+                }
+            }
+        }
+    }
+
+    private static double getZ(final ZData data, final int r, final int c, final int cols) {
+        if (data.z_1d_in != null) {
+            return data.z_1d_in[r * cols + c];
+        }
+        return data.z_in[r][c];
+    }
+}
@@ -0,0 +1,200 @@
+package org.jlinda.core.geom;
+
+import org.jlinda.core.Ellipsoid;
+import org.jlinda.core.Orbit;
+import org.jlinda.core.Point;
+import org.jlinda.core.SLCImage;
+import org.jlinda.core.Window;
+
+/**
+ * DEM tile radar coded into master geometry.
+ * <p>
+ * Holds everything of the topographic phase computation that depends on the master only: the master line and
+ * pixel of every DEM post, the cartesian position of the post and of its zero height reference point, and the
+ * heights and lat/lon. It is computed once per tile and shared by all slaves of that master, for which
+ * {@link TopoPhase} then only has to evaluate the slave range times.
+ */
+public class RadarCodedDem {
+
+    private final SLCImage masterMeta;
+    private final Orbit masterOrbit;
+    private final Window tileWindow;
+    private final DemTile dem;
+
+    private final int nRows;
+    private final int nCols;
+
+    private final double[][] lines;
+    private final double[][] pixels;
+    private final double[][] elevation;
+    private final double[][] latitude;
+    private final double[][] longitude;
+    private final boolean[][] valid;
+    private final Point[][] pointOnDem;      // xyz of the DEM post
+    private final Point[][] pointOnEllips;   // xyz of the master line and pixel at zero height
+
+    private double[][] maskedLines = null;
+    private double[][] maskedPixels = null;
+    private double rngAzRatio = 0;
+
+    public RadarCodedDem(final SLCImage masterMeta, final Orbit masterOrbit, final Window tileWindow,
+                         final DemTile demTile) throws Exception {
+        this.masterMeta = masterMeta;
+        this.masterOrbit = masterOrbit;
+        this.tileWindow = tileWindow;
+        this.dem = demTile;
+
+        nRows = dem.data.length;
+        nCols = dem.data[0].length;
+
+        lines = new double[nRows][nCols];
+        pixels = new double[nRows][nCols];
+        elevation = new double[nRows][nCols];
+        latitude = new double[nRows][nCols];
+        longitude = new double[nRows][nCols];
+        valid = new boolean[nRows][nCols];
+        pointOnDem = new Point[nRows][nCols];
+        pointOnEllips = new Point[nRows][nCols];
+
+        radarCode();
+    }
+
+    private void radarCode() throws Exception {
+
+        double phi = dem.lat0;
+        for (int i = 0; i < nRows; i++) {
+
+            double lambda = dem.lon0;
+            final double[] heightArray = dem.data[i];
+
+            for (int j = 0; j < nCols; j++) {
+
+                final double height = heightArray[j];
+                elevation[i][j] = height;
+                latitude[i][j] = phi;
+                longitude[i][j] = lambda;
+
+                if (height != dem.noDataValue) {
+
+                    final double[] phi_lam_height = {phi, lambda, height};
+                    final Point sarPoint = masterOrbit.ell2lp(phi_lam_height, masterMeta);
+
+                    lines[i][j] = sarPoint.y;
+                    pixels[i][j] = sarPoint.x;
+                    valid[i][j] = true;
+
+                    pointOnDem[i][j] = Ellipsoid.ell2xyz(phi_lam_height);
+                    pointOnEllips[i][j] = masterOrbit.lp2xyz(sarPoint.y, sarPoint.x, masterMeta);
+
+                } else {
+
+                    final double[] phi_lam_height = {phi, lambda, 0};
+                    final Point sarPoint = masterOrbit.ell2lp(phi_lam_height, masterMeta);
+
+                    lines[i][j] = sarPoint.y;
+                    pixels[i][j] = sarPoint.x;
+                }
+
+                lambda += dem.longitudeDelta;
+            }
+            phi -= dem.latitudeDelta;
+        }
+    }
+
+    public SLCImage getMasterMeta() {
+        return masterMeta;
+    }
+
+    public Orbit getMasterOrbit() {
+        return masterOrbit;
+    }
+
+    public Window getTileWindow() {
+        return tileWindow;
+    }
+
+    public DemTile getDemTile() {
+        return dem;
+    }
+
+    public int getNumRows() {
+        return nRows;
+    }
+
+    public int getNumCols() {
+        return nCols;
+    }
+
+    public boolean isValid(final int i, final int j) {
+        return valid[i][j];
+    }
+
+    public Point getPointOnDem(final int i, final int j) {
+        return pointOnDem[i][j];
+    }
+
+    public Point getPointOnEllips(final int i, final int j) {
+        return pointOnEllips[i][j];
+    }
+
+    public double[][] getElevation() {
+        return elevation;
+    }
+
+    public double[][] getLatitude() {
+        return latitude;
+    }
+
+    public double[][] getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Master lines of the DEM posts, posts without height are set to invalidIndex if useInvalidIndex is set
+     */
+    public synchronized double[][] getLines(final boolean useInvalidIndex, final double invalidIndex) {
+        if (!useInvalidIndex) {
+            return lines;
+        }
+        if (maskedLines == null) {
+            maskedLines = mask(lines, invalidIndex);
+        }
+        return maskedLines;
+    }
+
+    /**
+     * Master pixels of the DEM posts, posts without height are set to invalidIndex if useInvalidIndex is set
+     */
+    public synchronized double[][] getPixels(final boolean useInvalidIndex, final double invalidIndex) {
+        if (!useInvalidIndex) {
+            return pixels;
+        }
+        if (maskedPixels == null) {
+            maskedPixels = mask(pixels, invalidIndex);
+        }
+        return maskedPixels;
+    }
+
+    private double[][] mask(final double[][] values, final double invalidIndex) {
+        final double[][] masked = new double[nRows][];
+        for (int i = 0; i < nRows; i++) {
+            masked[i] = values[i].clone();
+            for (int j = 0; j < nCols; j++) {
+                if (!valid[i][j]) {
+                    masked[i][j] = invalidIndex;
+                }
+            }
+        }
+        return masked;
+    }
+
+    /**
+     * Range-azimuth spacing ratio of the tile, needed for proper triangulation
+     */
+    public synchronized double getRngAzRatio() throws Exception {
+        if (rngAzRatio == 0) {
+            rngAzRatio = TopoPhase.computeScalingRatio(masterOrbit, masterMeta, tileWindow);
+        }
+        return rngAzRatio;
+    }
+}
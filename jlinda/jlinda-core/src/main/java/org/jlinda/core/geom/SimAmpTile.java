@@ -5,6 +5,7 @@ import org.jlinda.core.Constants;
 import org.jlinda.core.Orbit;
 import org.jlinda.core.SLCImage;
 import org.jlinda.core.Window;
+import org.jlinda.core.delaunay.LatticeInterpolator;
 import org.jlinda.core.delaunay.TriangleInterpolator;
 
 /**
@@ -48,7 +49,7 @@ public class SimAmpTile {
         double[][] griddedData = new double[(int) tileWindow.lines()][(int) tileWindow.pixels()];
         demArray = new double[(int) tileWindow.lines()][(int) tileWindow.pixels()];
 
-        TriangleInterpolator.gridDataLinear(thetaTile.getDemRadarCode_y(), thetaTile.getDemRadarCode_x(),
+        LatticeInterpolator.gridDataLinear(thetaTile.getDemRadarCode_y(), thetaTile.getDemRadarCode_x(),
                 new TriangleInterpolator.ZData[] { new TriangleInterpolator.ZData(griddedData, demArray)},
                 thetaTile.getTileWindow(), thetaTile.getRngAzRatio(),
                 masterMeta.getMlAz(), masterMeta.getMlRg(), demTile.noDataValue, offset);
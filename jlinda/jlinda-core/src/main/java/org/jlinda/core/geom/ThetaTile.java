@@ -2,6 +2,7 @@ package org.jlinda.core.geom;
 
 import org.esa.snap.core.util.SystemUtils;
 import org.jlinda.core.*;
+import org.jlinda.core.delaunay.LatticeInterpolator;
 import org.jlinda.core.delaunay.TriangleInterpolator;
 
 import java.util.logging.Logger;
@@ -193,7 +194,7 @@ public class ThetaTile {
         int offset = 0;
         thetaArray = new double[(int) tileWindow.lines()][(int) tileWindow.pixels()];
 
-        TriangleInterpolator.gridDataLinear(demRadarCode_y, demRadarCode_x,
+        LatticeInterpolator.gridDataLinear(demRadarCode_y, demRadarCode_x,
                 new TriangleInterpolator.ZData[] { new TriangleInterpolator.ZData(demRadarCode_theta, thetaArray)},
                 tileWindow, rngAzRatio, mlAz, mlRg, dem.noDataValue, offset);
     }
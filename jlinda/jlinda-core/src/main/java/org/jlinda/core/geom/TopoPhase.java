@@ -8,6 +8,7 @@ import org.esa.snap.core.util.SystemUtils;
 import org.jlinda.core.*;
 import org.jlinda.core.Point;
 import org.jlinda.core.Window;
+import org.jlinda.core.delaunay.LatticeInterpolator;
 import org.jlinda.core.delaunay.TriangleInterpolator;
 import org.jlinda.core.utils.MathUtils;
 import org.jlinda.core.utils.ProductContainer;
@@ -30,6 +31,7 @@ public class TopoPhase {
     private Window tileWindow;    // buffer/tile coordinates
 
     private DemTile dem;           // demTileData
+    private RadarCodedDem radarCodedDem; // master geometry, may be shared by several slaves
     public double[][] demPhase;
     public double[][] elevation;
     public double[][] latitude;
@@ -64,12 +66,20 @@ public class TopoPhase {
         isBiStaticStack = masterMeta.isBiStaticStack;
     }
 
+    public TopoPhase(RadarCodedDem radarCodedDem, SLCImage slaveMeta, Orbit slaveOrbit) throws Exception {
+        this(radarCodedDem.getMasterMeta(), radarCodedDem.getMasterOrbit(), slaveMeta, slaveOrbit,
+             radarCodedDem.getTileWindow(), radarCodedDem.getDemTile());
+        this.radarCodedDem = radarCodedDem;
+    }
+
     public void setMasterOrbit(Orbit masterOrbit) {
         this.masterOrbit = masterOrbit;
+        this.radarCodedDem = null;
     }
 
     public void setMasterMeta(SLCImage masterMeta) {
         this.masterMeta = masterMeta;
+        this.radarCodedDem = null;
     }
 
     public void setSlaveOrbit(Orbit slaveOrbit) {
@@ -82,6 +92,7 @@ public class TopoPhase {
 
     public void setWindow(Window window) {
         this.tileWindow = window;
+        this.radarCodedDem = null;
     }
 
     public double[][] getDemRadarCode_phase() {
@@ -108,83 +119,36 @@ public class TopoPhase {
 
         //logger.info("Converting DEM to radar system for this tile.");
 
-        demRadarCode_x = new double[nRows][nCols];
-        demRadarCode_y = new double[nRows][nCols];
+        if (radarCodedDem == null) {
+            radarCodedDem = new RadarCodedDem(masterMeta, masterOrbit, tileWindow, dem);
+        }
+
+        demRadarCode_y = radarCodedDem.getLines(useInvalidIndex, invalidIndex);
+        demRadarCode_x = radarCodedDem.getPixels(useInvalidIndex, invalidIndex);
+        demElevation = radarCodedDem.getElevation();
+        demLatitude = radarCodedDem.getLatitude();
+        demLongitude = radarCodedDem.getLongitude();
         demRadarCode_phase = new double[nRows][nCols];
-        demElevation = new double[nRows][nCols];
-        demLatitude = new double[nRows][nCols];
-        demLongitude = new double[nRows][nCols];
 
-        final int nPoints = nRows * nCols;
         final boolean onlyTopoRefPhase = true;
 
-        //logger.info("Number of points in DEM: " + nPoints);
-
         double masterMin4piCDivLam = (-4 * Math.PI * Constants.SOL) / masterMeta.getRadarWavelength();
         double slaveMin4piCDivLam = (-4 * Math.PI * Constants.SOL) / slaveMeta.getRadarWavelength();
 
-        double phi, lambda, height, line, pix, ref_phase;
-
-        final double upperLeftPhi = dem.lat0;// - dem.indexPhi0DEM * dem.latitudeDelta;
-        final double upperLeftLambda = dem.lon0;// + dem.indexLambda0DEM * dem.longitudeDelta;
-
-        Point pointOnDem;
+        double ref_phase;
         Point slaveTime;
 
-        phi = upperLeftPhi;
+        // the master geometry is shared, only the slave range times are evaluated here
         for (int i = 0; i < nRows; i++) {
-
-//            if ((i % 100) == 0) {
-//                logger.info("Radarcoding DEM line: " + i + " (" + Math.floor(.5 + (100. * (double) i / (double) (nRows))) + "%");
-//            }
-
-            lambda = upperLeftLambda;
-            double[] heightArray = dem.data[i];
-
             for (int j = 0; j < nCols; j++) {
 
-                height = heightArray[j];
-                demElevation[i][j] = height;
-                demLatitude[i][j] = phi;
-                demLongitude[i][j] = lambda;
-
-                if (height != dem.noDataValue) {
-
-                    double[] phi_lam_height = {phi, lambda, height};
-                    Point sarPoint = masterOrbit.ell2lp(phi_lam_height, masterMeta);
+                if (radarCodedDem.isValid(i, j)) {
 
-                    line = sarPoint.y;
-                    pix = sarPoint.x;
+                    slaveTime = slaveOrbit.xyz2t(radarCodedDem.getPointOnDem(i, j), slaveMeta);
 
-                    demRadarCode_y[i][j] = line;
-                    demRadarCode_x[i][j] = pix;
-
-                    pointOnDem = Ellipsoid.ell2xyz(phi_lam_height);
-                    slaveTime = slaveOrbit.xyz2t(pointOnDem, slaveMeta);
-/*
-                if (outH2PH == true) {
-
-                    // compute h2ph factor
-                    Point masterSatPos = masterOrbit.getXYZ(masterTime.y);
-                    Point slaveSatpOS = slaveOrbit.getXYZ(slaveTime.y);
-                    double B = masterSatPos.distance(slaveSatpOS);
-                    double Bpar = Constants.SOL * (masterTime.x - masterTime.y);
-                    Point rangeDistToMaster = masterSatPos.min(pointOnDem);
-                    Point rangeDistToSlave = slaveSatpOS.min(pointOnDem);
-                    // double thetaMaster = masterSatPos.angle(rangeDistToMaster);  // look angle - not needed
-                    double thetaMaster = pointOnDem.angle(rangeDistToMaster); // incidence angle
-                    double thetaSlave = pointOnDem.angle(rangeDistToSlave); // incidence angle slave
-                    double Bperp = (thetaMaster > thetaSlave) ? // sign ok
-                            Math.sqrt(MathUtils.sqr(B) - MathUtils.sqr(Bpar))
-                            : -Math.sqrt(MathUtils.sqr(B) - MathUtils.sqr(Bpar));
-
-                    h2phArray[i][j] = Bperp / (masterTime.x * Constants.SOL * Math.sin(thetaMaster));
-                }
-*/
                     // do not include flat earth phase
                     if (onlyTopoRefPhase) {
-                        Point masterXYZPos = masterOrbit.lp2xyz(line, pix, masterMeta);
-                        Point flatEarthTime = slaveOrbit.xyz2t(masterXYZPos, slaveMeta);
+                        Point flatEarthTime = slaveOrbit.xyz2t(radarCodedDem.getPointOnEllips(i, j), slaveMeta);
                         if (isBiStaticStack) {
                             ref_phase = slaveMin4piCDivLam * (flatEarthTime.x - slaveTime.x) * 0.5;
                         } else {
@@ -192,36 +156,16 @@ public class TopoPhase {
                         }
                     } else {
                         // include flatearth, ref.pha = phi_topo+phi_flatearth
-                        ref_phase = masterMin4piCDivLam * masterMeta.pix2tr(pix) - slaveMin4piCDivLam * slaveTime.x;
+                        ref_phase = masterMin4piCDivLam * masterMeta.pix2tr(demRadarCode_x[i][j]) -
+                                slaveMin4piCDivLam * slaveTime.x;
                     }
 
                     demRadarCode_phase[i][j] = ref_phase;
-
-                } else {
-
-                    double[] phi_lam_height = {phi, lambda, 0};
-                    Point sarPoint = masterOrbit.ell2lp(phi_lam_height, masterMeta);
-
-                    line = sarPoint.y;
-                    pix = sarPoint.x;
-
-                    if (useInvalidIndex) {
-                        demRadarCode_y[i][j] = invalidIndex;//line;
-                        demRadarCode_x[i][j] = invalidIndex;//pix;
-                    } else {
-                        demRadarCode_y[i][j] = line;
-                        demRadarCode_x[i][j] = pix;
-                    }
-                    demRadarCode_phase[i][j] = 0;
                 }
-
-                lambda += dem.longitudeDelta;
             }
-            phi -= dem.latitudeDelta;
         }
     }
 
-
     public void calculateScalingRatio() throws Exception {
 
 /*
@@ -256,6 +200,16 @@ public class TopoPhase {
 
 */
 
+        if (radarCodedDem != null) {
+            rngAzRatio = radarCodedDem.getRngAzRatio();
+        } else {
+            rngAzRatio = computeScalingRatio(masterOrbit, masterMeta, tileWindow);
+        }
+    }
+
+    static double computeScalingRatio(final Orbit masterOrbit, final SLCImage masterMeta, final Window tileWindow)
+            throws Exception {
+
         //Determine range-azimuth spacing ratio, needed for proper triangulation
         final long firstLine = tileWindow.linelo;
         final long lastLine = tileWindow.linehi;
@@ -271,12 +225,13 @@ public class TopoPhase {
                 / (lastPixel - firstPixel);
         final double aziSpacing = ((p1.min(p3)).norm() + (p2.min(p4)).norm()) / 2
                 / (lastLine - firstLine);
-        rngAzRatio = rangeSpacing / aziSpacing;
+        final double rngAzRatio = rangeSpacing / aziSpacing;
 
         logger.fine("Interferogram azimuth spacing: " + aziSpacing);
         logger.fine("Interferogram range spacing: " + rangeSpacing);
         logger.fine("Range-azimuth spacing ratio: " + rngAzRatio);
 
+        return rngAzRatio;
     }
 
     public void gridData(boolean includeDEM, boolean includeLatLon) throws Exception {
@@ -337,7 +292,7 @@ public class TopoPhase {
             };
         }
 
-        TriangleInterpolator.gridDataLinear(demRadarCode_y, demRadarCode_x, data,
+        LatticeInterpolator.gridDataLinear(demRadarCode_y, demRadarCode_x, data,
                 tileWindow, rngAzRatio, mlAz, mlRg, invalidIndex, offset);
     }
 
@@ -489,6 +444,50 @@ public class TopoPhase {
         }
     }
 
+    /**
+     * Radar code a DEM tile into master geometry, to be shared by the topographic phase of all slaves
+     */
+    public static RadarCodedDem radarCodeDEM(
+            final SLCImage mstMetaData, final Orbit mstOrbit, final Window tileWindow, final DemTile demTile) {
+        try {
+            return new RadarCodedDem(mstMetaData, mstOrbit, tileWindow, demTile);
+        } catch (Exception e) {
+            throw new OperatorException(e);
+        }
+    }
+
+    public static RadarCodedDem radarCodeDEM(
+            final Map<String, ProductContainer> targetMap, final Window tileWindow, final DemTile demTile) {
+
+        final ProductContainer mstContainer = targetMap.values().iterator().next();
+        return radarCodeDEM(mstContainer.sourceMaster.metaData, mstContainer.sourceMaster.orbit, tileWindow, demTile);
+    }
+
+    public static TopoPhase computeTopoPhase(
+            final ProductContainer product, final RadarCodedDem radarCodedDem, final boolean outputDEM,
+            final boolean outputLatLon) {
+
+        return computeTopoPhase(radarCodedDem, product.sourceSlave.metaData, product.sourceSlave.orbit,
+                                outputDEM, outputLatLon);
+    }
+
+    public static TopoPhase computeTopoPhase(
+            final RadarCodedDem radarCodedDem, final SLCImage slvMetaData, final Orbit slvOrbit,
+            final boolean outputDEM, final boolean outputLatLon) {
+        try {
+            final TopoPhase topoPhase = new TopoPhase(radarCodedDem, slvMetaData, slvOrbit);
+
+            topoPhase.radarCode(!outputLatLon);
+
+            topoPhase.gridData(outputDEM, outputLatLon);
+
+            return topoPhase;
+
+        } catch (Exception e) {
+            throw new OperatorException(e);
+        }
+    }
+
     private static double[] computeMaxHeight(
             final PixelPos[] corners, final Rectangle rectangle, final String tileExtensionPercent,
             final ElevationModel dem, final double demNoDataValue) throws Exception {
@@ -0,0 +1,197 @@
+package org.jlinda.core.unwrapping.snaphu;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Runs snaphu on the tiles of a tiled SNAPHU export with a pool of local processes and stitches the unwrapped
+ * tiles into the unwrapped phase file of the export, which is then ingested with SnaphuImport.
+ * <p>
+ * Usage: <code>SnaphuTileRunner exportFolder [snaphuExecutable] [numberOfProcesses]</code>
+ */
+public class SnaphuTileRunner {
+
+    private static final Logger logger = Logger.getLogger(SnaphuTileRunner.class.getName());
+
+    private static final String CONFIG_FILE = "snaphu.conf";
+    private static final String CONSOLE_FILE = "snaphu.out";
+
+    private final File exportDir;
+    private final SnaphuTiling tiling;
+    private final String snaphuExecutable;
+    private final int numProcesses;
+
+    public SnaphuTileRunner(File exportDir, String snaphuExecutable, int numProcesses) throws IOException {
+        this.exportDir = exportDir;
+        this.tiling = SnaphuTiling.load(new File(exportDir, SnaphuTiling.LAYOUT_FILE));
+        this.snaphuExecutable = snaphuExecutable;
+        this.numProcesses = Math.max(1, numProcesses);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: SnaphuTileRunner exportFolder [snaphuExecutable] [numberOfProcesses]");
+            return;
+        }
+        final String executable = args.length > 1 ? args[1] : "snaphu";
+        final int processes = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        final SnaphuTileRunner runner = new SnaphuTileRunner(new File(args[0]), executable, processes);
+        runner.unwrap();
+        runner.stitch();
+    }
+
+    /**
+     * Unwrap all tiles, running up to numProcesses snaphu processes at a time
+     */
+    public void unwrap() throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(numProcesses);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int row = 0; row < tiling.getNumTileRows(); row++) {
+                for (int col = 0; col < tiling.getNumTileCols(); col++) {
+                    final int tileRow = row, tileCol = col;
+                    results.add(executor.submit(() -> {
+                        unwrapTile(tileRow, tileCol);
+                        return null;
+                    }));
+                }
+            }
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void unwrapTile(int row, int col) throws IOException, InterruptedException {
+        final File tileDir = new File(exportDir, SnaphuTiling.getTileDirName(row, col));
+        final Rectangle tile = tiling.getTile(row, col);
+        logger.info("Unwrapping SNAPHU tile " + tileDir.getName());
+
+        final ProcessBuilder builder = new ProcessBuilder(snaphuExecutable, "-f", CONFIG_FILE,
+                tiling.getPhaseFileName(), String.valueOf(tile.width));
+        builder.directory(tileDir);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(tileDir, CONSOLE_FILE));
+
+        final int exitCode = builder.start().waitFor();
+        if (exitCode != 0) {
+            throw new IOException("snaphu failed on " + tileDir.getName() + " with exit code " + exitCode +
+                    ", see " + new File(tileDir, CONSOLE_FILE));
+        }
+    }
+
+    /**
+     * Write the cores of the unwrapped tiles to the unwrapped phase file of the export. Each tile is shifted by a
+     * multiple of 2pi to fit the tile to its left, or the tile above for the first column.
+     */
+    public void stitch() throws IOException {
+        final int numRows = tiling.getNumTileRows();
+        final int numCols = tiling.getNumTileCols();
+        final int width = tiling.getWidth();
+        final double[][] offsets = new double[numRows][numCols];
+
+        // unwrapped tiles of the previous row, to stitch the first column
+        float[] above = null;
+        try (FileChannel out = FileChannel.open(new File(exportDir, tiling.getOutFileName()).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate((long) width * tiling.getHeight() * 4);
+
+            for (int row = 0; row < numRows; row++) {
+                float[] left = null;
+                float[] firstInRow = null;
+                for (int col = 0; col < numCols; col++) {
+                    final Rectangle tile = tiling.getTile(row, col);
+                    final float[] data = readTile(row, col, tile);
+
+                    if (col > 0) {
+                        offsets[row][col] = offsets[row][col - 1] +
+                                getOverlapOffset(left, tiling.getTile(row, col - 1), data, tile);
+                    } else if (row > 0) {
+                        offsets[row][col] = offsets[row - 1][col] +
+                                getOverlapOffset(above, tiling.getTile(row - 1, col), data, tile);
+                    }
+
+                    writeCore(out, data, tile, tiling.getCore(row, col), (float) offsets[row][col], width);
+
+                    left = data;
+                    if (col == 0) {
+                        firstInRow = data;
+                    }
+                }
+                above = firstInRow;
+            }
+        }
+    }
+
+    private float[] readTile(int row, int col, Rectangle tile) throws IOException {
+        final File file = new File(new File(exportDir, SnaphuTiling.getTileDirName(row, col)), tiling.getOutFileName());
+        final ByteBuffer buffer = ByteBuffer.allocate(tile.width * tile.height * 4).order(ByteOrder.nativeOrder());
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of unwrapped tile " + file);
+                }
+            }
+        }
+        buffer.flip();
+        final float[] data = new float[tile.width * tile.height];
+        buffer.asFloatBuffer().get(data);
+        return data;
+    }
+
+    private static double getOverlapOffset(float[] reference, Rectangle referenceTile, float[] data, Rectangle tile) {
+        final Rectangle overlap = referenceTile.intersection(tile);
+        if (overlap.isEmpty()) {
+            return 0.0;
+        }
+        final float[] referenceOverlap = new float[overlap.width * overlap.height];
+        final float[] dataOverlap = new float[overlap.width * overlap.height];
+        int k = 0;
+        for (int y = overlap.y; y < overlap.y + overlap.height; y++) {
+            for (int x = overlap.x; x < overlap.x + overlap.width; x++, k++) {
+                referenceOverlap[k] = reference[(y - referenceTile.y) * referenceTile.width + x - referenceTile.x];
+                dataOverlap[k] = data[(y - tile.y) * tile.width + x - tile.x];
+            }
+        }
+        return SnaphuTiling.getPhaseOffset(referenceOverlap, dataOverlap);
+    }
+
+    private static void writeCore(FileChannel out, float[] data, Rectangle tile, Rectangle core, float offset,
+                                  int width) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(core.width * 4).order(ByteOrder.nativeOrder());
+        final FloatBuffer floats = buffer.asFloatBuffer();
+        for (int y = core.y; y < core.y + core.height; y++) {
+            final int offsetInTile = (y - tile.y) * tile.width + core.x - tile.x;
+            floats.clear();
+            for (int x = 0; x < core.width; x++) {
+                floats.put(data[offsetInTile + x] + offset);
+            }
+            buffer.clear();
+            long position = ((long) y * width + core.x) * 4;
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.jlinda.core.unwrapping.snaphu;
+
+import java.awt.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Layout of an interferogram split into overlapping tiles that are unwrapped by independent snaphu runs.
+ * <p>
+ * The image is partitioned into cores of equal size. Each tile extends its core by half the overlap on every
+ * side, so neighbouring tiles share the full overlap. After unwrapping, only the core of each tile is written
+ * back, shifted by the multiple of 2pi that fits best to the tile it is stitched to.
+ */
+public class SnaphuTiling {
+
+    public static final String LAYOUT_FILE = "snaphu_tiles.properties";
+
+    private static final double TWO_PI = 2.0 * Math.PI;
+
+    private final int width;
+    private final int height;
+    private final int numTileRows;
+    private final int numTileCols;
+    private final int rowOverlap;
+    private final int colOverlap;
+
+    private String phaseFileName;
+    private String outFileName;
+
+    public SnaphuTiling(int width, int height, int numTileRows, int numTileCols, int rowOverlap, int colOverlap) {
+        this.width = width;
+        this.height = height;
+        this.numTileRows = Math.max(1, Math.min(numTileRows, height));
+        this.numTileCols = Math.max(1, Math.min(numTileCols, width));
+        this.rowOverlap = Math.max(0, rowOverlap);
+        this.colOverlap = Math.max(0, colOverlap);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNumTileRows() {
+        return numTileRows;
+    }
+
+    public int getNumTileCols() {
+        return numTileCols;
+    }
+
+    public String getPhaseFileName() {
+        return phaseFileName;
+    }
+
+    public void setPhaseFileName(String phaseFileName) {
+        this.phaseFileName = phaseFileName;
+    }
+
+    public String getOutFileName() {
+        return outFileName;
+    }
+
+    public void setOutFileName(String outFileName) {
+        this.outFileName = outFileName;
+    }
+
+    /**
+     * Region of the image taken from this tile when stitching
+     */
+    public Rectangle getCore(int row, int col) {
+        final int x0 = (int) ((long) col * width / numTileCols);
+        final int x1 = (int) ((long) (col + 1) * width / numTileCols);
+        final int y0 = (int) ((long) row * height / numTileRows);
+        final int y1 = (int) ((long) (row + 1) * height / numTileRows);
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Region of the image written to this tile, the core extended by the overlap
+     */
+    public Rectangle getTile(int row, int col) {
+        final Rectangle core = getCore(row, col);
+        final int x0 = Math.max(0, core.x - colOverlap / 2);
+        final int x1 = Math.min(width, core.x + core.width + colOverlap - colOverlap / 2);
+        final int y0 = Math.max(0, core.y - rowOverlap / 2);
+        final int y1 = Math.min(height, core.y + core.height + rowOverlap - rowOverlap / 2);
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    public static String getTileDirName(int row, int col) {
+        return "tile_" + row + '_' + col;
+    }
+
+    /**
+     * Multiple of 2pi to add to the unwrapped phase of a tile to match a reference tile over their overlap.
+     *
+     * @param reference unwrapped phase of the reference tile in the overlap
+     * @param data      unwrapped phase of the tile in the overlap
+     * @return the phase offset
+     */
+    public static double getPhaseOffset(float[] reference, float[] data) {
+        final double[] diff = new double[reference.length];
+        int n = 0;
+        for (int i = 0; i < reference.length; i++) {
+            final double d = (double) reference[i] - data[i];
+            if (!Double.isNaN(d) && !Double.isInfinite(d)) {
+                diff[n++] = d;
+            }
+        }
+        if (n == 0) {
+            return 0.0;
+        }
+
+        Arrays.sort(diff, 0, n);
+        final double median = (n % 2 == 1) ? diff[n / 2] : 0.5 * (diff[n / 2 - 1] + diff[n / 2]);
+        return TWO_PI * Math.rint(median / TWO_PI);
+    }
+
+    public void save(File file) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("width", String.valueOf(width));
+        properties.setProperty("height", String.valueOf(height));
+        properties.setProperty("numTileRows", String.valueOf(numTileRows));
+        properties.setProperty("numTileCols", String.valueOf(numTileCols));
+        properties.setProperty("rowOverlap", String.valueOf(rowOverlap));
+        properties.setProperty("colOverlap", String.valueOf(colOverlap));
+        if (phaseFileName != null) {
+            properties.setProperty("phaseFile", phaseFileName);
+        }
+        if (outFileName != null) {
+            properties.setProperty("outFile", outFileName);
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "SNAPHU tile layout");
+        }
+    }
+
+    public static SnaphuTiling load(File file) throws IOException {
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        try {
+            final SnaphuTiling tiling = new SnaphuTiling(
+                    Integer.parseInt(properties.getProperty("width")),
+                    Integer.parseInt(properties.getProperty("height")),
+                    Integer.parseInt(properties.getProperty("numTileRows")),
+                    Integer.parseInt(properties.getProperty("numTileCols")),
+                    Integer.parseInt(properties.getProperty("rowOverlap")),
+                    Integer.parseInt(properties.getProperty("colOverlap")));
+            tiling.setPhaseFileName(properties.getProperty("phaseFile"));
+            tiling.setOutFileName(properties.getProperty("outFile"));
+            return tiling;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid SNAPHU tile layout " + file, e);
+        }
+    }
+}
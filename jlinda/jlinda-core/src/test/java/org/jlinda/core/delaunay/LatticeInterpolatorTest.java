@@ -0,0 +1,135 @@
+package org.jlinda.core.delaunay;
+
+import org.jlinda.core.Window;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class LatticeInterpolatorTest {
+
+    private static final double NODATA = -32768;
+    private static final int rows = 40;
+    private static final int cols = 30;
+    private static final double xyRatio = 0.9;
+
+    // radar coded lattice: smoothly warped and sheared, as DEM posts are in radar geometry
+    private static void createLattice(final double[][] lines, final double[][] pixels, final double[][] z) {
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                lines[r][c] = 3.1 * r + 0.4 * c + 0.5 * Math.sin(0.2 * c);
+                pixels[r][c] = 4.3 * c - 0.7 * r + 0.3 * Math.cos(0.3 * r);
+                z[r][c] = 100.0 + 10.0 * Math.sin(0.1 * r) * Math.cos(0.15 * c) + r;
+            }
+        }
+    }
+
+    private static double[][] createOutput(final Window window) {
+        final double[][] out = new double[(int) window.lines()][(int) window.pixels()];
+        for (double[] row : out) {
+            Arrays.fill(row, Double.NaN);
+        }
+        return out;
+    }
+
+    @Test
+    public void testSameAsDelaunay() throws Exception {
+        final double[][] lines = new double[rows][cols];
+        final double[][] pixels = new double[rows][cols];
+        final double[][] z = new double[rows][cols];
+        createLattice(lines, pixels, z);
+
+        Assert.assertNotNull(LatticeInterpolator.triangulate(lines, pixels, xyRatio, NODATA));
+
+        final Window window = new Window(10, 69, 10, 89);
+        Assert.assertTrue(LatticeInterpolator.covers(lines, pixels, window, 1, 1, 0));
+        final double[][] expected = createOutput(window);
+        final double[][] actual = createOutput(window);
+
+        TriangleInterpolator.gridDataLinear(lines, pixels,
+                new TriangleInterpolator.ZData[]{new TriangleInterpolator.ZData(z, expected)},
+                window, xyRatio, 1, 1, NODATA, 0);
+        LatticeInterpolator.gridDataLinear(lines, pixels,
+                new TriangleInterpolator.ZData[]{new TriangleInterpolator.ZData(z, actual)},
+                window, xyRatio, 1, 1, NODATA, 0);
+
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertArrayEquals(expected[i], actual[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void testUncoveredTileFallsBackToDelaunay() throws Exception {
+        final double[][] lines = new double[rows][cols];
+        final double[][] pixels = new double[rows][cols];
+        final double[][] z = new double[rows][cols];
+        createLattice(lines, pixels, z);
+
+        // bend the lattice so that its first row is a concave edge of the footprint
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                lines[r][c] += 8.0 * Math.sin(Math.PI * c / (cols - 1));
+            }
+        }
+        Assert.assertNotNull(LatticeInterpolator.triangulate(lines, pixels, xyRatio, NODATA));
+        Assert.assertTrue(LatticeInterpolator.covers(lines, pixels, new Window(20, 69, 10, 89), 1, 1, 0));
+
+        // the top lines of the tile are inside the convex hull but outside the footprint
+        final Window window = new Window(0, 69, 10, 89);
+        Assert.assertFalse(LatticeInterpolator.covers(lines, pixels, window, 1, 1, 0));
+
+        final double[][] expected = createOutput(window);
+        final double[][] actual = createOutput(window);
+
+        TriangleInterpolator.gridDataLinear(lines, pixels,
+                new TriangleInterpolator.ZData[]{new TriangleInterpolator.ZData(z, expected)},
+                window, xyRatio, 1, 1, NODATA, 0);
+        LatticeInterpolator.gridDataLinear(lines, pixels,
+                new TriangleInterpolator.ZData[]{new TriangleInterpolator.ZData(z, actual)},
+                window, xyRatio, 1, 1, NODATA, 0);
+
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertArrayEquals(expected[i], actual[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testLayoverFallsBackToDelaunay() throws Exception {
+        final double[][] lines = new double[rows][cols];
+        final double[][] pixels = new double[rows][cols];
+        final double[][] z = new double[rows][cols];
+        createLattice(lines, pixels, z);
+
+        // fold one column back over its neighbour
+        for (int r = 0; r < rows; r++) {
+            pixels[r][15] = pixels[r][14] - 1.0;
+        }
+        Assert.assertNull(LatticeInterpolator.triangulate(lines, pixels, xyRatio, NODATA));
+
+        final Window window = new Window(10, 69, 10, 89);
+        final double[][] expected = createOutput(window);
+        final double[][] actual = createOutput(window);
+
+        TriangleInterpolator.gridDataLinear(lines, pixels,
+                new TriangleInterpolator.ZData[]{new TriangleInterpolator.ZData(z, expected)},
+                window, xyRatio, 1, 1, NODATA, 0);
+        LatticeInterpolator.gridDataLinear(lines, pixels,
+                new TriangleInterpolator.ZData[]{new TriangleInterpolator.ZData(z, actual)},
+                window, xyRatio, 1, 1, NODATA, 0);
+
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertArrayEquals(expected[i], actual[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testInvalidPostsFallBackToDelaunay() {
+        final double[][] lines = new double[rows][cols];
+        final double[][] pixels = new double[rows][cols];
+        final double[][] z = new double[rows][cols];
+        createLattice(lines, pixels, z);
+
+        lines[5][5] = NODATA;
+        Assert.assertNull(LatticeInterpolator.triangulate(lines, pixels, xyRatio, NODATA));
+    }
+}
@@ -0,0 +1,171 @@
+package org.jlinda.core.unwrapping.snaphu;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnaphuTilingTest {
+
+    private static final int WIDTH = 157;
+    private static final int HEIGHT = 93;
+
+    @Test
+    public void testTilesCoverImage() {
+        final SnaphuTiling tiling = new SnaphuTiling(WIDTH, HEIGHT, 3, 4, 10, 12);
+
+        final int[] coreCount = new int[WIDTH * HEIGHT];
+        for (int row = 0; row < tiling.getNumTileRows(); row++) {
+            for (int col = 0; col < tiling.getNumTileCols(); col++) {
+                final Rectangle core = tiling.getCore(row, col);
+                final Rectangle tile = tiling.getTile(row, col);
+                assertTrue(tile.contains(core));
+                assertTrue(new Rectangle(0, 0, WIDTH, HEIGHT).contains(tile));
+
+                for (int y = core.y; y < core.y + core.height; y++) {
+                    for (int x = core.x; x < core.x + core.width; x++) {
+                        coreCount[y * WIDTH + x]++;
+                    }
+                }
+
+                // neighbouring tiles share the full overlap
+                if (col > 0) {
+                    assertEquals(12, tiling.getTile(row, col - 1).intersection(tile).width);
+                }
+                if (row > 0) {
+                    assertEquals(10, tiling.getTile(row - 1, col).intersection(tile).height);
+                }
+            }
+        }
+        for (int count : coreCount) {
+            assertEquals(1, count);
+        }
+    }
+
+    @Test
+    public void testPhaseOffset() {
+        final Random random = new Random(7);
+        final float[] reference = new float[200];
+        final float[] data = new float[200];
+        for (int i = 0; i < reference.length; i++) {
+            reference[i] = (float) (random.nextDouble() * 20.0);
+            data[i] = (float) (reference[i] + 3 * 2 * Math.PI + random.nextGaussian() * 0.3);
+        }
+        // outliers do not change the median
+        data[3] += 10.0f;
+        data[50] -= 25.0f;
+
+        assertEquals(-3 * 2 * Math.PI, SnaphuTiling.getPhaseOffset(reference, data), 1e-9);
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException {
+        final File file = File.createTempFile("snaphu_tiles", ".properties");
+        try {
+            final SnaphuTiling tiling = new SnaphuTiling(WIDTH, HEIGHT, 3, 4, 10, 12);
+            tiling.setPhaseFileName("Phase_ifg.snaphu.img");
+            tiling.setOutFileName("UnwPhase_ifg.snaphu.img");
+            tiling.save(file);
+
+            final SnaphuTiling loaded = SnaphuTiling.load(file);
+            assertEquals(WIDTH, loaded.getWidth());
+            assertEquals(HEIGHT, loaded.getHeight());
+            assertEquals("Phase_ifg.snaphu.img", loaded.getPhaseFileName());
+            assertEquals("UnwPhase_ifg.snaphu.img", loaded.getOutFileName());
+            for (int row = 0; row < 3; row++) {
+                for (int col = 0; col < 4; col++) {
+                    assertEquals(tiling.getTile(row, col), loaded.getTile(row, col));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStitch() throws IOException {
+        final File dir = Files.createTempDirectory("snaphu_export").toFile();
+        try {
+            final SnaphuTiling tiling = new SnaphuTiling(WIDTH, HEIGHT, 3, 4, 10, 12);
+            tiling.setPhaseFileName("Phase.snaphu.img");
+            tiling.setOutFileName("UnwPhase.snaphu.img");
+            tiling.save(new File(dir, SnaphuTiling.LAYOUT_FILE));
+
+            // every tile is unwrapped with its own unknown multiple of 2pi
+            final Random random = new Random(3);
+            double firstOffset = 0;
+            for (int row = 0; row < tiling.getNumTileRows(); row++) {
+                for (int col = 0; col < tiling.getNumTileCols(); col++) {
+                    final Rectangle tile = tiling.getTile(row, col);
+                    final double offset = 2 * Math.PI * (random.nextInt(11) - 5);
+                    if (row == 0 && col == 0) {
+                        firstOffset = offset;
+                    }
+                    final float[] data = new float[tile.width * tile.height];
+                    for (int y = 0; y < tile.height; y++) {
+                        for (int x = 0; x < tile.width; x++) {
+                            data[y * tile.width + x] = (float) (phase(tile.x + x, tile.y + y) + offset);
+                        }
+                    }
+                    final File tileDir = new File(dir, SnaphuTiling.getTileDirName(row, col));
+                    tileDir.mkdirs();
+                    writeFloats(new File(tileDir, tiling.getOutFileName()), data);
+                }
+            }
+
+            new SnaphuTileRunner(dir, "snaphu", 2).stitch();
+
+            final float[] stitched = readFloats(new File(dir, tiling.getOutFileName()), WIDTH * HEIGHT);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals(phase(x, y) + firstOffset, stitched[y * WIDTH + x], 1e-3);
+                }
+            }
+        } finally {
+            final File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    final File[] tileFiles = file.listFiles();
+                    if (tileFiles != null) {
+                        for (File tileFile : tileFiles) {
+                            tileFile.delete();
+                        }
+                    }
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private static double phase(int x, int y) {
+        return 0.05 * x + 0.002 * x * y - 0.08 * y;
+    }
+
+    private static void writeFloats(File file, float[] data) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(data.length * 4).order(ByteOrder.nativeOrder());
+        buffer.asFloatBuffer().put(data);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static float[] readFloats(File file, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.nativeOrder());
+        final float[] data = new float[length];
+        buffer.asFloatBuffer().get(data);
+        return data;
+    }
+}
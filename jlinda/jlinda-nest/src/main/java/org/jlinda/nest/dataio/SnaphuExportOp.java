@@ -86,6 +86,11 @@ public class SnaphuExportOp extends Operator {
             defaultValue = "500", label = "Tile Cost Threshold")
     private int tileCostThreshold = 500;
 
+    @Parameter(description = "Also write each tile with its own snaphu configuration, to unwrap the tiles\n" +
+            " with independent snaphu processes using SnaphuTileRunner.",
+            defaultValue = "false", label = "Export Tiles")
+    private boolean tiledExport = false;
+
     private SubsetInfo subsetInfo;
     private String formatName = "snaphu";
 
@@ -141,6 +146,9 @@ public class SnaphuExportOp extends Operator {
 
                 AbstractMetadata.addAbstractedAttribute(absTgt, "snaphu_tileCostThreshold", ProductData.TYPE_INT32, "", "Snaphu parameter");
                 AbstractMetadata.setAttribute(absTgt, "snaphu_tileCostThreshold", tileCostThreshold);
+
+                AbstractMetadata.addAbstractedAttribute(absTgt, SnaphuWriter.TILED_EXPORT, ProductData.TYPE_INT32, "", "Snaphu parameter");
+                AbstractMetadata.setAttribute(absTgt, SnaphuWriter.TILED_EXPORT, tiledExport ? 1 : 0);
             } catch (Throwable e){
                 OperatorUtils.catchOperatorException(getId() + "Metadata of input product is not in the format compatible for SNAPHU export.", e);
             }
@@ -182,7 +190,7 @@ public class SnaphuExportOp extends Operator {
     }
 
     @Override
-    public synchronized void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+    public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
         try {
             writeHeader(subsetInfo);
 
@@ -1,7 +1,6 @@
 package org.jlinda.nest.dataio;
 
 import com.bc.ceres.core.ProgressMonitor;
-import org.esa.s1tbx.commons.io.FileImageOutputStreamExtImpl;
 import org.esa.snap.core.dataio.AbstractProductWriter;
 import org.esa.snap.core.dataio.ProductReader;
 import org.esa.snap.core.dataio.ProductWriterPlugIn;
@@ -20,15 +19,23 @@ import org.jlinda.core.SLCImage;
 import org.jlinda.core.Window;
 import org.jlinda.core.unwrapping.snaphu.SnaphuConfigFile;
 import org.jlinda.core.unwrapping.snaphu.SnaphuParameters;
+import org.jlinda.core.unwrapping.snaphu.SnaphuTiling;
 
-import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.HashMap;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The SNAPHU product writer based on ENVI products writer.
+ * <p>
+ * Band data is written with positional writes, so tiles can be written concurrently. In tiled export mode every
+ * band is also written to overlapping tiles with their own snaphu configuration, to be unwrapped by independent
+ * snaphu runs with SnaphuTileRunner.
  */
 public class SnaphuWriter extends AbstractProductWriter {
 
@@ -36,13 +43,15 @@ public class SnaphuWriter extends AbstractProductWriter {
 
     private File _outputDir;
     private File _outputFile;
-    private Map _bandOutputStreams;
+    private Map<Object, FileChannel> _bandOutputChannels;
     private boolean _incremental = true;
+    private SnaphuTiling tiling;
 
     public static final String SNAPHU_HEADER_EXTENSION = ".snaphu"+EnviHeader.FILE_EXTENSION;
     public static final String SNAPHU_IMAGE_EXTENSION = ".snaphu"+DimapProductConstants.IMAGE_FILE_EXTENSION;
     private static final String SNAPHU_CONFIG_FILE = "snaphu.conf";
     private static final String UNWRAPPED_PREFIX = "Unw";
+    static final String TILED_EXPORT = "snaphu_tiledExport";
 
     private SnaphuConfigFile snaphuConfigFile = new SnaphuConfigFile();
     private final ByteOrder byteOrder = ByteOrder.nativeOrder();
@@ -81,6 +90,8 @@ public class SnaphuWriter extends AbstractProductWriter {
 
         writeUnwrappedBandHeader(sourceProduct);
 
+        tiling = createTiling(sourceProduct);
+
         // set up product writer
         sourceProduct.setProductWriter(this);
         deleteRemovedNodes();
@@ -158,14 +169,19 @@ public class SnaphuWriter extends AbstractProductWriter {
         final int sourceBandHeight = sourceBand.getRasterHeight();
         checkSourceRegionInsideBandRegion(sourceWidth, sourceBandWidth, sourceHeight, sourceBandHeight, sourceOffsetX,
                 sourceOffsetY);
-        final ImageOutputStream outputStream = getOrCreateImageOutputStream(sourceBand);
-        long outputPos = sourceOffsetY * sourceBandWidth + sourceOffsetX;
         pm.beginTask("Writing band '" + sourceBand.getName() + "'...", 1);//sourceHeight);
         try {
-            final long max = sourceHeight * sourceWidth;
-            for (int sourcePos = 0; sourcePos < max; sourcePos += sourceWidth) {
-                sourceBuffer.writeTo(sourcePos, sourceWidth, outputStream, outputPos);
-                outputPos += sourceBandWidth;
+            final int elemSize = ProductData.getElemSize(sourceBuffer.getType());
+            final ByteBuffer rowBuffer = ByteBuffer.allocate(sourceWidth * elemSize).order(byteOrder);
+
+            final FileChannel channel = getOrCreateChannel(sourceBand);
+            for (int y = 0; y < sourceHeight; y++) {
+                writeRow(channel, sourceBuffer, y * sourceWidth, sourceWidth, rowBuffer,
+                        ((long) (sourceOffsetY + y) * sourceBandWidth + sourceOffsetX) * elemSize);
+            }
+
+            if (tiling != null) {
+                writeTiles(sourceBand, sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight, sourceBuffer);
             }
             pm.worked(1);
         } finally {
@@ -173,6 +189,59 @@ public class SnaphuWriter extends AbstractProductWriter {
         }
     }
 
+    /**
+     * Writes the part of a raster inside each overlapping tile to the band file of the tile
+     */
+    private void writeTiles(Band band, int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
+                            ProductData sourceBuffer) throws IOException {
+        final Rectangle sourceRect = new Rectangle(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight);
+        final int elemSize = ProductData.getElemSize(sourceBuffer.getType());
+
+        for (int row = 0; row < tiling.getNumTileRows(); row++) {
+            for (int col = 0; col < tiling.getNumTileCols(); col++) {
+                final Rectangle tile = tiling.getTile(row, col);
+                final Rectangle region = tile.intersection(sourceRect);
+                if (region.isEmpty()) {
+                    continue;
+                }
+
+                final File tileFile = new File(new File(_outputDir, SnaphuTiling.getTileDirName(row, col)),
+                        createImageFilename(band));
+                final FileChannel channel = getOrCreateChannel(tileFile, (long) tile.width * tile.height * elemSize);
+                final ByteBuffer rowBuffer = ByteBuffer.allocate(region.width * elemSize).order(byteOrder);
+                for (int y = region.y; y < region.y + region.height; y++) {
+                    writeRow(channel, sourceBuffer, (y - sourceOffsetY) * sourceWidth + region.x - sourceOffsetX,
+                            region.width, rowBuffer,
+                            ((long) (y - tile.y) * tile.width + region.x - tile.x) * elemSize);
+                }
+            }
+        }
+    }
+
+    private static void writeRow(FileChannel channel, ProductData sourceBuffer, int sourcePos, int length,
+                                 ByteBuffer rowBuffer, long position) throws IOException {
+        rowBuffer.clear();
+        final Object elems = sourceBuffer.getElems();
+        if (elems instanceof float[]) {
+            rowBuffer.asFloatBuffer().put((float[]) elems, sourcePos, length);
+        } else if (elems instanceof double[]) {
+            rowBuffer.asDoubleBuffer().put((double[]) elems, sourcePos, length);
+        } else if (elems instanceof int[]) {
+            rowBuffer.asIntBuffer().put((int[]) elems, sourcePos, length);
+        } else if (elems instanceof short[]) {
+            rowBuffer.asShortBuffer().put((short[]) elems, sourcePos, length);
+        } else if (elems instanceof byte[]) {
+            rowBuffer.put((byte[]) elems, sourcePos, length);
+        } else {
+            throw new IOException("Unsupported data type " + sourceBuffer.getTypeString());
+        }
+        rowBuffer.clear();
+        rowBuffer.limit(length * ProductData.getElemSize(sourceBuffer.getType()));
+        while (rowBuffer.hasRemaining()) {
+            position += channel.write(rowBuffer, position);
+        }
+    }
+
     /**
      * Deletes the physically representation of the product from the hard disk.
      */
@@ -205,11 +274,11 @@ public class SnaphuWriter extends AbstractProductWriter {
      * @throws java.io.IOException on failure
      */
     public void flush() throws IOException {
-        if (_bandOutputStreams == null) {
+        if (_bandOutputChannels == null) {
             return;
         }
-        for (Object o : _bandOutputStreams.values()) {
-            ((ImageOutputStream) o).flush();
+        for (FileChannel channel : _bandOutputChannels.values()) {
+            channel.force(false);
         }
 
         // at the very end also save SnaphuConfig file
@@ -226,41 +295,58 @@ public class SnaphuWriter extends AbstractProductWriter {
      * @throws java.io.IOException on failure
      */
     public void close() throws IOException {
-        if (_bandOutputStreams == null) {
+        if (_bandOutputChannels == null) {
             return;
         }
-        for (Object o : _bandOutputStreams.values()) {
-            ((ImageOutputStream) o).close();
+        for (FileChannel channel : _bandOutputChannels.values()) {
+            channel.close();
         }
-        _bandOutputStreams.clear();
-        _bandOutputStreams = null;
+        _bandOutputChannels.clear();
+        _bandOutputChannels = null;
     }
 
     /**
-     * Returns the data output stream associated with the given <code>Band</code>. If no stream exists, one is created
+     * Returns the file channel associated with the given <code>Band</code>. If no channel exists, one is created
      * and fed into the hash map
      */
-    private ImageOutputStream getOrCreateImageOutputStream(Band band) throws IOException {
-        ImageOutputStream outputStream = getImageOutputStream(band);
-        if (outputStream == null) {
-            outputStream = createImageOutputStream(band);
-            if (_bandOutputStreams == null) {
-                _bandOutputStreams = new HashMap();
-            }
+    private synchronized FileChannel getOrCreateChannel(Band band) throws IOException {
+        FileChannel channel = getChannel(band);
+        if (channel == null) {
+            channel = openChannel(band, getValidImageFile(band));
+        }
+        return channel;
+    }
 
-            outputStream.setByteOrder(byteOrder);
-            _bandOutputStreams.put(band, outputStream);
+    /**
+     * Returns the file channel of a tile file, the file is created with the given size on first use
+     */
+    private synchronized FileChannel getOrCreateChannel(File tileFile, long fileSize) throws IOException {
+        FileChannel channel = getChannel(tileFile);
+        if (channel == null) {
+            if (!tileFile.exists() || tileFile.length() != fileSize) {
+                createPhysicalFile(tileFile, fileSize);
+            }
+            channel = openChannel(tileFile, tileFile);
         }
-        return outputStream;
+        return channel;
     }
 
-    private ImageOutputStream getImageOutputStream(Band band) {
-        if (_bandOutputStreams != null) {
-            return (ImageOutputStream) _bandOutputStreams.get(band);
+    private FileChannel getChannel(Object key) {
+        if (_bandOutputChannels != null) {
+            return _bandOutputChannels.get(key);
         }
         return null;
     }
 
+    private FileChannel openChannel(Object key, File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        if (_bandOutputChannels == null) {
+            _bandOutputChannels = new ConcurrentHashMap<>();
+        }
+        _bandOutputChannels.put(key, channel);
+        return channel;
+    }
+
     /**
      * Returns a file associated with the given <code>Band</code>. The method ensures that the file exists and have the
      * right size. Also ensures a recreate if the file not exists or the file have a different file size. A new envi
@@ -290,10 +376,6 @@ public class SnaphuWriter extends AbstractProductWriter {
                 band.getRasterHeight());
     }
 
-    private ImageOutputStream createImageOutputStream(Band band) throws IOException {
-        return new FileImageOutputStreamExtImpl(getValidImageFile(band));
-    }
-
     private static long getImageFileSize(RasterDataNode band) {
         return (long) ProductData.getElemSize(band.getDataType()) *
                 (long) band.getRasterWidth() *
@@ -480,14 +562,83 @@ public class SnaphuWriter extends AbstractProductWriter {
         }
 
         // write snaphu.conf file to the target directory
-        try {
-            BufferedWriter out = new BufferedWriter(new FileWriter(_outputDir + "/" + SNAPHU_CONFIG_FILE));
-            out.write(snaphuConfigFile.getConfigFileBuffer().toString());
-            out.close();
+        writeConfFile(snaphuConfigFile, _outputDir);
+
+        if (tiling != null) {
+            createTileConfFiles(masterMetadata, slaveMetadata, masterOrbit, slaveOrbit, dataWindow, parameters);
+        }
+    }
+
+    /**
+     * Writes a snaphu.conf for every tile, each tile is unwrapped by a single snaphu process without internal tiling
+     */
+    private void createTileConfFiles(SLCImage masterMetadata, SLCImage slaveMetadata,
+                                     Orbit masterOrbit, Orbit slaveOrbit,
+                                     Window dataWindow, SnaphuParameters parameters) throws IOException {
+
+        final SnaphuParameters tileParameters = new SnaphuParameters(parameters.outFileName, parameters.unwrapMode,
+                parameters.logFileName, parameters.phaseFileName, parameters.coherenceFileName,
+                parameters.verbosityFlag, parameters.snaphuInit);
+        tileParameters.setnTileRow(1);
+        tileParameters.setnTileCol(1);
+        tileParameters.setNumProcessors(1);
+        tileParameters.setRowOverlap(0);
+        tileParameters.setColumnOverlap(0);
+        tileParameters.setTileCostThreshold(parameters.tileCostThreshold);
+
+        for (int row = 0; row < tiling.getNumTileRows(); row++) {
+            for (int col = 0; col < tiling.getNumTileCols(); col++) {
+                final Rectangle tile = tiling.getTile(row, col);
+                final File tileDir = new File(_outputDir, SnaphuTiling.getTileDirName(row, col));
+                if (!tileDir.exists() && !tileDir.mkdirs()) {
+                    SystemUtils.LOG.severe("Unable to create folders in " + tileDir);
+                }
+
+                final Window tileWindow = new Window(dataWindow.linelo + tile.y,
+                        dataWindow.linelo + tile.y + tile.height - 1,
+                        dataWindow.pixlo + tile.x,
+                        dataWindow.pixlo + tile.x + tile.width - 1);
+
+                final SnaphuConfigFile tileConfigFile = new SnaphuConfigFile(masterMetadata, slaveMetadata,
+                        masterOrbit, slaveOrbit, tileWindow, tileParameters, tile.width);
+                try {
+                    tileConfigFile.buildConfFile();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                writeConfFile(tileConfigFile, tileDir);
+            }
+        }
+
+        tiling.setPhaseFileName(parameters.phaseFileName);
+        tiling.setOutFileName(parameters.outFileName);
+        tiling.save(new File(_outputDir, SnaphuTiling.LAYOUT_FILE));
+    }
+
+    private static void writeConfFile(SnaphuConfigFile configFile, File dir) {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(new File(dir, SNAPHU_CONFIG_FILE)))) {
+            out.write(configFile.getConfigFileBuffer().toString());
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
+
+    private static SnaphuTiling createTiling(final Product sourceProduct) {
+        final MetadataElement absRoot = AbstractMetadata.getAbstractedMetadata(sourceProduct);
+        if (absRoot == null || absRoot.getAttributeInt(TILED_EXPORT, 0) != 1) {
+            return null;
+        }
 
+        for (Band band : sourceProduct.getBands()) {
+            if (band.getUnit() != null && band.getUnit().contains(Unit.PHASE)) {
+                return new SnaphuTiling(band.getRasterWidth(), band.getRasterHeight(),
+                        absRoot.getAttributeInt("snaphu_numberOfTileRows", 10),
+                        absRoot.getAttributeInt("snaphu_numberOfTileCols", 10),
+                        absRoot.getAttributeInt("snaphu_rowOverlap", 200),
+                        absRoot.getAttributeInt("snaphu_colOverlap", 200));
+            }
+        }
+        return null;
     }
 
 }
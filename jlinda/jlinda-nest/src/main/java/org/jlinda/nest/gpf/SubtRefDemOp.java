@@ -30,6 +30,7 @@ import org.jlinda.core.Orbit;
 import org.jlinda.core.SLCImage;
 import org.jlinda.core.Window;
 import org.jlinda.core.geom.DemTile;
+import org.jlinda.core.geom.RadarCodedDem;
 import org.jlinda.core.geom.TopoPhase;
 import org.jlinda.core.utils.BandUtilsDoris;
 import org.jlinda.core.utils.CplxContainer;
@@ -488,13 +489,16 @@ public final class SubtRefDemOp extends Operator {
                 return;
             }
 
+            // radar code the DEM into master geometry once for all slaves
+            final RadarCodedDem radarCodedDem = TopoPhase.radarCodeDEM(targetMap, tileWindow, demTile);
+
             Band topoPhaseBand, targetBand_I, targetBand_Q, elevBand, latBand, lonBand;
 
             for (String ifgKey : targetMap.keySet()) {
 
                 ProductContainer product = targetMap.get(ifgKey);
 
-                TopoPhase topoPhase = TopoPhase.computeTopoPhase(product, tileWindow, demTile, outputElevationBand, false);
+                TopoPhase topoPhase = TopoPhase.computeTopoPhase(product, radarCodedDem, outputElevationBand, false);
 
                 Tile tileReal = getSourceTile(product.sourceSlave.realBand, targetRectangle);
                 Tile tileImag = getSourceTile(product.sourceSlave.imagBand, targetRectangle);
@@ -527,7 +531,7 @@ public final class SubtRefDemOp extends Operator {
                 }
 
                 if (outputLatLonBands) {
-                    TopoPhase topoPhase1 = TopoPhase.computeTopoPhase(product, tileWindow, demTile, false, true);
+                    TopoPhase topoPhase1 = TopoPhase.computeTopoPhase(product, radarCodedDem, false, true);
                     latBand = targetProduct.getBand("orthorectifiedLat");
                     Tile tileLatBand = targetTileMap.get(latBand);
                     convertToDegree(topoPhase1.latitude);
@@ -26,9 +26,6 @@ import org.esa.snap.core.gpf.Tile;
 import org.esa.snap.engine_utilities.gpf.TileIndex;
 
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -43,9 +40,13 @@ public class IDAN implements PolarimetricSpeckleFilter {
     private final PolBandUtils.PolSourceBand[] srcBandList;
     private final int filterSize;
 
+    // C11, C22 and T11, T22, T33 drive the region growing
+    private static final int[] C2_DIAGONALS = {0, 3};
+    private static final int[] T3_DIAGONALS = {0, 5, 8};
+
     private final int anSize;
     private final double sigmaV;
-    private final double sigmaVSqr;
+    private final ThreadLocal<IDANKernel> kernels;
 
     public IDAN(final PolarimetricSpeckleFilterOp op, final Product srcProduct, final Product trgProduct,
                 final PolBandUtils.MATRIX sourceProductType, final PolBandUtils.PolSourceBand[] srcBandList,
@@ -59,7 +60,15 @@ public class IDAN implements PolarimetricSpeckleFilter {
 
         this.anSize = anSize;
         sigmaV = 1.0 / Math.sqrt(numLooks);
-        sigmaVSqr = sigmaV * sigmaV;
+
+        // IDAN50 and IDAN95 thresholds of the region growing and of the re-examination of rejected pixels
+        if (sourceProductType == PolBandUtils.MATRIX.FULL ||
+                sourceProductType == PolBandUtils.MATRIX.C3 ||
+                sourceProductType == PolBandUtils.MATRIX.T3) {
+            kernels = ThreadLocal.withInitial(() -> new IDANKernel(anSize, sigmaV, 2 * sigmaV, 6 * sigmaV));
+        } else {
+            kernels = ThreadLocal.withInitial(() -> new IDANKernel(anSize, sigmaV, 4 / 3 * sigmaV, 4 * sigmaV));
+        }
     }
 
     public void computeTiles(final Map<Band, Tile> targetTiles, final Rectangle targetRectangle, final Rectangle sourceRectangle) {
@@ -78,7 +87,7 @@ public class IDAN implements PolarimetricSpeckleFilter {
     }
 
     /**
-     * Filter full polarimetric data with IDAN filter for given tile.
+     * Filter dual polarimetric data with IDAN filter for given tile.
      *
      * @param targetTiles     The current tiles to be computed for each target band.
      * @param targetRectangle The area in pixel coordinates to be computed.
@@ -96,11 +105,10 @@ public class IDAN implements PolarimetricSpeckleFilter {
         final int sx0 = sourceRectangle.x, sy0 = sourceRectangle.y;
         final int sw = sourceRectangle.width, sh = sourceRectangle.height;
 
-        final double[][] data11Real = new double[sh][sw];
-        final double[][] data12Real = new double[sh][sw];
-        final double[][] data12Imag = new double[sh][sw];
-        final double[][] data22Real = new double[sh][sw];
-        final double[][] span = new double[sh][sw];
+        final float[][] planes = new float[4][sw * sh];
+        final float[] span = new float[sw * sh];
+        final double[] values = new double[4];
+        final IDANKernel kernel = kernels.get();
 
         final TileIndex trgIndex = new TileIndex(targetTiles.get(targetProduct.getBandAt(0)));
 
@@ -114,239 +122,38 @@ public class IDAN implements PolarimetricSpeckleFilter {
             }
 
             final Tile srcTile = operator.getSourceTile(bandList.srcBands[0], sourceRectangle);
-            createC2SpanImage(srcTile, sourceProductType, sourceRectangle, dataBuffers,
-                    data11Real, data12Real, data12Imag, data22Real, span);
+            createC2SpanPlanes(srcTile, sourceProductType, sourceRectangle, dataBuffers, planes, span);
+            kernel.setSource(planes, C2_DIAGONALS, span, sw, sh);
+
+            final ProductData[] targetDataBuffers = new ProductData[4];
+            for (final Band targetBand : bandList.targetBands) {
+                final String targetBandName = targetBand.getName();
+                final ProductData dataBuffer = targetTiles.get(targetBand).getDataBuffer();
+                if (targetBandName.contains("C11"))
+                    targetDataBuffers[0] = dataBuffer;
+                else if (targetBandName.contains("C12_real"))
+                    targetDataBuffers[1] = dataBuffer;
+                else if (targetBandName.contains("C12_imag"))
+                    targetDataBuffers[2] = dataBuffer;
+                else if (targetBandName.contains("C22"))
+                    targetDataBuffers[3] = dataBuffer;
+            }
 
             for (int y = y0; y < maxY; ++y) {
                 trgIndex.calculateStride(y);
                 for (int x = x0; x < maxX; ++x) {
                     final int idx = trgIndex.getIndex(x);
 
-                    final Seed seed = getInitialSeed(x, y, sx0, sy0, sw, sh, data11Real, data22Real);
-
-                    final Pix[] anPixelList = getIDANPixels(x, y, sx0, sy0, sw, sh, data11Real, data22Real, seed);
-
-                    final double b = computeFilterScaleParam(sx0, sy0, anPixelList, span);
-
-                    for (final Band targetBand : bandList.targetBands) {
-                        final String targetBandName = targetBand.getName();
-                        final ProductData dataBuffer = targetTiles.get(targetBand).getDataBuffer();
-
-                        if (targetBandName.contains("C11")) {
-                            double value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data11Real, b);
-                            dataBuffer.setElemFloatAt(idx, (float) value);
-                        } else if (targetBandName.contains("C12_real")) {
-                            double value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data12Real, b);
-                            dataBuffer.setElemFloatAt(idx, (float) value);
-                        } else if (targetBandName.contains("C12_imag")) {
-                            double value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data12Imag, b);
-                            dataBuffer.setElemFloatAt(idx, (float) value);
-                        } else if (targetBandName.contains("C22")) {
-                            double value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data22Real, b);
-                            dataBuffer.setElemFloatAt(idx, (float) value);
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Compute the initial seed value for given pixel. The marginal median in a 3x3 neighborhood of the given pixel
-     * is computed and used as the seed value.
-     *
-     * @param xc         X coordinate of the given pixel
-     * @param yc         Y coordinate of the given pixel
-     * @param sx0        X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0        Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sw         Width of the source rectangle
-     * @param sh         Height of the source rectangle
-     * @param data11Real Data of the 1st diagonal element in covariance matrix for all pixels in source rectangle
-     * @param data22Real Data of the 2nd diagonal element in covariance matrix for all pixels in source rectangle
-     * @return seed The computed initial seed value
-     */
-    private static Seed getInitialSeed(final int xc, final int yc, final int sx0, final int sy0, final int sw,
-                                       final int sh, final double[][] data11Real, final double[][] data22Real) {
-
-        // define vector p = [d11 d22], then the seed is the marginal median of all vectors in the 3x3 window
-        final double[] d11 = new double[9];
-        final double[] d22 = new double[9];
-
-        int r, c;
-        int k = 0;
-        for (int y = yc - 1; y <= yc + 1; y++) {
-            for (int x = xc - 1; x <= xc + 1; x++) {
-                if (x >= sx0 && x < sx0 + sw && y >= sy0 && y < sy0 + sh) {
-                    r = y - sy0;
-                    c = x - sx0;
-                    d11[k] = data11Real[r][c];
-                    d22[k] = data22Real[r][c];
-                    k++;
-                }
-            }
-        }
-
-        Arrays.sort(d11, 0, k);
-        Arrays.sort(d22, 0, k);
-
-        final int med = k / 2;
-        final Seed seed = new Seed();
-        seed.value[0] = d11[med];
-        seed.value[1] = d22[med];
-        seed.calculateAbsolutes();
-        return seed;
-    }
-
-    /**
-     * Find all pixels in the adaptive neighbourhood of a given pixel.
-     *
-     * @param xc         X coordinate of the given pixel
-     * @param yc         Y coordinate of the given pixel
-     * @param sx0        X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0        Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sw         Width of the source rectangle
-     * @param sh         Height of the source rectangle
-     * @param data11Real Data of the 1st diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data22Real Data of the 2nd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param seed       The initial seed value
-     * @return anPixelList List of pixels in the adaptive neighbourhood
-     */
-    private Pix[] getIDANPixels(final int xc, final int yc, final int sx0, final int sy0, final int sw, final int sh,
-                                final double[][] data11Real, final double[][] data22Real, final Seed seed) {
-
-        // 1st run of region growing with IDAN50 threshold and initial seed, qualified pixel goes to anPixelList,
-        // non-qualified pixel goes to "background pixels" list
-        final double threshold50 = 4 / 3 * sigmaV;
-        final java.util.List<Pix> anPixelList = new ArrayList<>(anSize);
-        final Pix[] bgPixelList = regionGrowing(
-                xc, yc, sx0, sy0, sw, sh, data11Real, data22Real, seed, threshold50, anPixelList);
-
-        // update seed with the pixels in AN
-        final Seed newSeed = new Seed();
-        if (!anPixelList.isEmpty()) {
-            for (Pix pixel : anPixelList) {
-                newSeed.value[0] += data11Real[pixel.y - sy0][pixel.x - sx0];
-                newSeed.value[1] += data22Real[pixel.y - sy0][pixel.x - sx0];
-            }
-            newSeed.value[0] /= anPixelList.size();
-            newSeed.value[1] /= anPixelList.size();
-        } else {
-            newSeed.value[0] = seed.value[0];
-            newSeed.value[1] = seed.value[1];
-        }
-        newSeed.calculateAbsolutes();
-
-        // 2nd run of region growing with IDAN95 threshold, the new seed and "background pixels" i.e. pixels rejected
-        // in the 1st run of region growing are checked and added to AN
-        final double threshold95 = 4 * sigmaV;
-        reExamBackgroundPixels(sx0, sy0, data11Real, data22Real, newSeed, threshold95, anPixelList, bgPixelList);
-
-        if (anPixelList.isEmpty()) {
-            return new Pix[]{new Pix(xc, yc)};
-        }
-        return anPixelList.toArray(new Pix[anPixelList.size()]);
-    }
-
-    /**
-     * Re-exam the pixels that are rejected in the region growing process and add them to AN if qualified.
-     *
-     * @param sx0         X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0         Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param data11Real  Data of the 1st diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data22Real  Data of the 2nd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param seed        The seed value for AN
-     * @param threshold   Threshold used in searching for pixels in AN
-     * @param anPixelList List of pixels in AN
-     * @param bgPixelList List of pixels rejected in searching for AN pixels
-     */
-    private static void reExamBackgroundPixels(final int sx0, final int sy0, final double[][] data11Real,
-                                               final double[][] data22Real, final Seed seed, final double threshold,
-                                               final java.util.List<Pix> anPixelList, final Pix[] bgPixelList) {
-        int r, c;
-        for (final Pix pixel : bgPixelList) {
-            r = pixel.y - sy0;
-            c = pixel.x - sx0;
-            if (distance(data11Real[r][c], data22Real[r][c], seed) < threshold) {
-                anPixelList.add(new Pix(pixel.x, pixel.y));
-            }
-        }
-    }
-
-    /**
-     * Find pixels in the adaptive neighbourhood (AN) of a given pixel using region growing method.
-     *
-     * @param xc          X coordinate of the given pixel
-     * @param yc          Y coordinate of the given pixel
-     * @param sx0         X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0         Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sw          Width of the source rectangle
-     * @param sh          Height of the source rectangle
-     * @param data11Real  Data of the 1st diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data22Real  Data of the 2nd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param seed        The initial seed value for AN
-     * @param threshold   Threshold used in searching for pixels in AN
-     * @param anPixelList List of pixels in AN
-     * @return bgPixelList List of pixels rejected in searching for AN pixels
-     */
-    private Pix[] regionGrowing(final int xc, final int yc, final int sx0, final int sy0, final int sw, final int sh,
-                                final double[][] data11Real, final double[][] data22Real, final Seed seed,
-                                final double threshold, final java.util.List<Pix> anPixelList) {
+                    kernel.filter(x - sx0, y - sy0, values);
 
-        final int rc = yc - sy0;
-        final int cc = xc - sx0;
-        final Map<Integer, Boolean> visited = new HashMap<>(anSize + 8);
-        final java.util.List<Pix> bgPixelList = new ArrayList<>(anSize);
-
-        if (distance(data11Real[rc][cc], data22Real[rc][cc], seed) < threshold) {
-            anPixelList.add(new Pix(xc, yc));
-        } else {
-            bgPixelList.add(new Pix(xc, yc));
-        }
-        visited.put(rc * sw + cc, true);
-
-        final java.util.List<Pix> front = new ArrayList<>(anSize);
-        front.add(new Pix(xc, yc));
-        final java.util.List<Pix> newfront = new ArrayList<>(anSize);
-
-        final int width = sx0 + sw;
-        final int height = sy0 + sh;
-        int r, c;
-        Integer index;
-
-        while (anPixelList.size() < anSize && !front.isEmpty()) {
-            newfront.clear();
-
-            for (final Pix p : front) {
-
-                final int[] x = {p.x - 1, p.x, p.x + 1, p.x - 1, p.x + 1, p.x - 1, p.x, p.x + 1};
-                final int[] y = {p.y - 1, p.y - 1, p.y - 1, p.y, p.y, p.y + 1, p.y + 1, p.y + 1};
-
-                for (int i = 0; i < 8; i++) {
-
-                    if (x[i] >= sx0 && x[i] < width && y[i] >= sy0 && y[i] < height) {
-                        r = y[i] - sy0;
-                        c = x[i] - sx0;
-                        index = r * sw + c;
-                        if (visited.get(index) == null) {
-                            visited.put(index, true);
-                            final Pix newPos = new Pix(x[i], y[i]);
-                            if (distance(data11Real[r][c], data22Real[r][c], seed) < threshold) {
-                                anPixelList.add(newPos);
-                                newfront.add(newPos);
-                            } else {
-                                bgPixelList.add(newPos);
-                            }
+                    for (int i = 0; i < 4; ++i) {
+                        if (targetDataBuffers[i] != null) {
+                            targetDataBuffers[i].setElemFloatAt(idx, (float) values[i]);
                         }
                     }
                 }
-                if (anPixelList.size() > anSize) {
-                    break;
-                }
             }
-            front.clear();
-            front.addAll(newfront);
         }
-        return bgPixelList.toArray(new Pix[bgPixelList.size()]);
     }
 
     /**
@@ -373,16 +180,10 @@ public class IDAN implements PolarimetricSpeckleFilter {
         final int sw = sourceRectangle.width;
         final int sh = sourceRectangle.height;
 
-        final double[][] data11Real = new double[sh][sw];
-        final double[][] data12Real = new double[sh][sw];
-        final double[][] data12Imag = new double[sh][sw];
-        final double[][] data13Real = new double[sh][sw];
-        final double[][] data13Imag = new double[sh][sw];
-        final double[][] data22Real = new double[sh][sw];
-        final double[][] data23Real = new double[sh][sw];
-        final double[][] data23Imag = new double[sh][sw];
-        final double[][] data33Real = new double[sh][sw];
-        final double[][] span = new double[sh][sw];
+        final float[][] planes = new float[9][sw * sh];
+        final float[] span = new float[sw * sh];
+        final double[] values = new double[9];
+        final IDANKernel kernel = kernels.get();
 
         final TileIndex trgIndex = new TileIndex(targetTiles.get(targetProduct.getBandAt(0)));
 
@@ -395,9 +196,8 @@ public class IDAN implements PolarimetricSpeckleFilter {
             }
 
             final Tile srcTile = operator.getSourceTile(bandList.srcBands[0], sourceRectangle);
-            createT3SpanImage(srcTile, sourceProductType, sourceRectangle, dataBuffers,
-                    data11Real, data12Real, data12Imag, data13Real, data13Imag,
-                    data22Real, data23Real, data23Imag, data33Real, span);
+            createT3SpanPlanes(srcTile, sourceProductType, sourceRectangle, dataBuffers, planes, span);
+            kernel.setSource(planes, T3_DIAGONALS, span, sw, sh);
 
             final ProductData[] targetDataBuffers = new ProductData[9];
 
@@ -429,375 +229,14 @@ public class IDAN implements PolarimetricSpeckleFilter {
                 for (int x = x0; x < maxX; ++x) {
                     final int idx = trgIndex.getIndex(x);
 
-                    final Seed seed = getInitialSeed(x, y, sx0, sy0, sw, sh, data11Real, data22Real, data33Real);
+                    kernel.filter(x - sx0, y - sy0, values);
 
-                    final Pix[] anPixelList = getIDANPixels(x, y, sx0, sy0, sw, sh,
-                            data11Real, data22Real, data33Real, seed);
-
-                    final double b = computeFilterScaleParam(sx0, sy0, anPixelList, span);
-
-                    int i = 0;
-                    double value = 0.0;
                     for (final T3Elem elem : T3Elem.values()) {
-                        switch (elem) {
-                            case T11:
-                                value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data11Real, b);
-                                i = 0;
-                                break;
-
-                            case T12_real:
-                                value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data12Real, b);
-                                i = 1;
-                                break;
-
-                            case T12_imag:
-                                value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data12Imag, b);
-                                i = 2;
-                                break;
-
-                            case T13_real:
-                                value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data13Real, b);
-                                i = 3;
-                                break;
-
-                            case T13_imag:
-                                value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data13Imag, b);
-                                i = 4;
-                                break;
-
-                            case T22:
-                                value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data22Real, b);
-                                i = 5;
-                                break;
-
-                            case T23_real:
-                                value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data23Real, b);
-                                i = 6;
-                                break;
-
-                            case T23_imag:
-                                value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data23Imag, b);
-                                i = 7;
-                                break;
-
-                            case T33:
-                                value = getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data33Real, b);
-                                i = 8;
-                                break;
-
-                            default:
-                                break;
-                        }
-
-                        targetDataBuffers[i].setElemFloatAt(idx, (float) value);
+                        final int i = elem.ordinal();
+                        targetDataBuffers[i].setElemFloatAt(idx, (float) values[i]);
                     }
                 }
             }
         }
     }
-
-    /**
-     * Compute the initial seed value for given pixel. The marginal median in a 3x3 neighborhood of the given pixel
-     * is computed and used as the seed value.
-     *
-     * @param xc         X coordinate of the given pixel
-     * @param yc         Y coordinate of the given pixel
-     * @param sx0        X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0        Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sw         Width of the source rectangle
-     * @param sh         Height of the source rectangle
-     * @param data11Real Data of the 1st diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data22Real Data of the 2nd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data33Real Data of the 3rd diagonal element in coherency matrix for all pixels in source rectangle
-     * @return seed The computed initial seed value
-     */
-    private static Seed getInitialSeed(final int xc, final int yc, final int sx0, final int sy0, final int sw, final int sh,
-                                       final double[][] data11Real, final double[][] data22Real, final double[][] data33Real) {
-
-        // define vector p = [d11 d22 d33], then the seed is the marginal median of all vectors in the 3x3 window
-        final double[] d11 = new double[9];
-        final double[] d22 = new double[9];
-        final double[] d33 = new double[9];
-
-        int r, c;
-        int k = 0;
-        for (int y = yc - 1; y <= yc + 1; y++) {
-            for (int x = xc - 1; x <= xc + 1; x++) {
-                if (x >= sx0 && x < sx0 + sw && y >= sy0 && y < sy0 + sh) {
-                    r = y - sy0;
-                    c = x - sx0;
-                    d11[k] = data11Real[r][c];
-                    d22[k] = data22Real[r][c];
-                    d33[k] = data33Real[r][c];
-                    k++;
-                }
-            }
-        }
-
-        Arrays.sort(d11, 0, k);
-        Arrays.sort(d22, 0, k);
-        Arrays.sort(d33, 0, k);
-
-        final int med = k / 2;
-        final Seed seed = new Seed();
-        seed.value[0] = d11[med];
-        seed.value[1] = d22[med];
-        seed.value[2] = d33[med];
-        seed.calculateAbsolutes();
-        return seed;
-    }
-
-    /**
-     * Find all pixels in the adaptive neighbourhood of a given pixel.
-     *
-     * @param xc         X coordinate of the given pixel
-     * @param yc         Y coordinate of the given pixel
-     * @param sx0        X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0        Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sw         Width of the source rectangle
-     * @param sh         Height of the source rectangle
-     * @param data11Real Data of the 1st diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data22Real Data of the 2nd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data33Real Data of the 3rd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param seed       The initial seed value
-     * @return anPixelList List of pixels in the adaptive neighbourhood
-     */
-    private Pix[] getIDANPixels(final int xc, final int yc, final int sx0, final int sy0, final int sw, final int sh,
-                                final double[][] data11Real, final double[][] data22Real, final double[][] data33Real,
-                                final Seed seed) {
-
-        // 1st run of region growing with IDAN50 threshold and initial seed, qualified pixel goes to anPixelList,
-        // non-qualified pixel goes to "background pixels" list
-        final double threshold50 = 2 * sigmaV;
-        final java.util.List<Pix> anPixelList = new ArrayList<>(anSize);
-        final Pix[] bgPixelList = regionGrowing(xc, yc, sx0, sy0, sw, sh, data11Real, data22Real, data33Real,
-                seed, threshold50, anPixelList);
-
-        // update seed with the pixels in AN
-        final Seed newSeed = new Seed();
-        if (!anPixelList.isEmpty()) {
-            for (Pix pixel : anPixelList) {
-                newSeed.value[0] += data11Real[pixel.y - sy0][pixel.x - sx0];
-                newSeed.value[1] += data22Real[pixel.y - sy0][pixel.x - sx0];
-                newSeed.value[2] += data33Real[pixel.y - sy0][pixel.x - sx0];
-            }
-            newSeed.value[0] /= anPixelList.size();
-            newSeed.value[1] /= anPixelList.size();
-            newSeed.value[2] /= anPixelList.size();
-        } else {
-            newSeed.value[0] = seed.value[0];
-            newSeed.value[1] = seed.value[1];
-            newSeed.value[2] = seed.value[2];
-        }
-        newSeed.calculateAbsolutes();
-
-        // 2nd run of region growing with IDAN95 threshold, the new seed and "background pixels" i.e. pixels rejected
-        // in the 1st run of region growing are checked and added to AN
-        final double threshold95 = 6 * sigmaV;
-        reExamBackgroundPixels(sx0, sy0, data11Real, data22Real, data33Real, newSeed, threshold95,
-                anPixelList, bgPixelList);
-
-        if (anPixelList.isEmpty()) {
-            return new Pix[]{new Pix(xc, yc)};
-        }
-        return anPixelList.toArray(new Pix[anPixelList.size()]);
-    }
-
-    /**
-     * Find pixels in the adaptive neighbourhood (AN) of a given pixel using region growing method.
-     *
-     * @param xc          X coordinate of the given pixel
-     * @param yc          Y coordinate of the given pixel
-     * @param sx0         X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0         Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sw          Width of the source rectangle
-     * @param sh          Height of the source rectangle
-     * @param data11Real  Data of the 1st diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data22Real  Data of the 2nd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data33Real  Data of the 3rd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param seed        The initial seed value for AN
-     * @param threshold   Threshold used in searching for pixels in AN
-     * @param anPixelList List of pixels in AN
-     * @return bgPixelList List of pixels rejected in searching for AN pixels
-     */
-    private Pix[] regionGrowing(final int xc, final int yc, final int sx0, final int sy0, final int sw, final int sh,
-                                final double[][] data11Real, final double[][] data22Real, final double[][] data33Real,
-                                final Seed seed, final double threshold, final java.util.List<Pix> anPixelList) {
-
-        final int rc = yc - sy0;
-        final int cc = xc - sx0;
-        final Map<Integer, Boolean> visited = new HashMap<>(anSize + 8);
-        final java.util.List<Pix> bgPixelList = new ArrayList<>(anSize);
-
-        if (distance(data11Real[rc][cc], data22Real[rc][cc], data33Real[rc][cc], seed) < threshold) {
-            anPixelList.add(new Pix(xc, yc));
-        } else {
-            bgPixelList.add(new Pix(xc, yc));
-        }
-        visited.put(rc * sw + cc, true);
-
-        final java.util.List<Pix> front = new ArrayList<>(anSize);
-        front.add(new Pix(xc, yc));
-        final java.util.List<Pix> newfront = new ArrayList<>(anSize);
-
-        final int width = sx0 + sw;
-        final int height = sy0 + sh;
-        int r, c;
-        Integer index;
-
-        while (anPixelList.size() < anSize && !front.isEmpty()) {
-            newfront.clear();
-
-            for (final Pix p : front) {
-
-                final int[] x = {p.x - 1, p.x, p.x + 1, p.x - 1, p.x + 1, p.x - 1, p.x, p.x + 1};
-                final int[] y = {p.y - 1, p.y - 1, p.y - 1, p.y, p.y, p.y + 1, p.y + 1, p.y + 1};
-
-                for (int i = 0; i < 8; i++) {
-
-                    if (x[i] >= sx0 && x[i] < width && y[i] >= sy0 && y[i] < height) {
-                        r = y[i] - sy0;
-                        c = x[i] - sx0;
-                        index = r * sw + c;
-                        if (visited.get(index) == null) {
-                            visited.put(index, true);
-                            final Pix newPos = new Pix(x[i], y[i]);
-                            if (distance(data11Real[r][c], data22Real[r][c], data33Real[r][c], seed) < threshold) {
-                                anPixelList.add(newPos);
-                                newfront.add(newPos);
-                            } else {
-                                bgPixelList.add(newPos);
-                            }
-                        }
-                    }
-                }
-                if (anPixelList.size() > anSize) {
-                    break;
-                }
-            }
-            front.clear();
-            front.addAll(newfront);
-        }
-        return bgPixelList.toArray(new Pix[bgPixelList.size()]);
-    }
-
-    private final static class Pix {
-        final int x, y;
-
-        public Pix(final int xx, final int yy) {
-            x = xx;
-            y = yy;
-        }
-    }
-
-    /**
-     * Cmpute distance between vector p and a given seed vector.
-     *
-     * @param p0   Vector
-     * @param p1   Vector
-     * @param seed Vector
-     * @return Distance
-     */
-    private static double distance(final double p0, final double p1, final Seed seed) {
-        return Math.abs(p0 - seed.value[0]) / seed.absValue[0] +
-                Math.abs(p1 - seed.value[1]) / seed.absValue[1];
-    }
-
-    /**
-     * Cmpute distance between vector p and a given seed vector.
-     *
-     * @param p0   Vector
-     * @param p1   Vector
-     * @param p2   Vector
-     * @param seed Vector
-     * @return Distance
-     */
-    private static double distance(final double p0, final double p1, final double p2, final Seed seed) {
-        return Math.abs(p0 - seed.value[0]) / seed.absValue[0] +
-                Math.abs(p1 - seed.value[1]) / seed.absValue[1] +
-                Math.abs(p2 - seed.value[2]) / seed.absValue[2];
-    }
-
-    /**
-     * Re-exam the pixels that are rejected in the region growing process and add them to AN if qualified.
-     *
-     * @param sx0         X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0         Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param data11Real  Data of the 1st diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data22Real  Data of the 2nd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param data33Real  Data of the 3rd diagonal element in coherency matrix for all pixels in source rectangle
-     * @param seed        The seed value for AN
-     * @param threshold   Threshold used in searching for pixels in AN
-     * @param anPixelList List of pixels in AN
-     * @param bgPixelList List of pixels rejected in searching for AN pixels
-     */
-    private static void reExamBackgroundPixels(final int sx0, final int sy0, final double[][] data11Real,
-                                               final double[][] data22Real, final double[][] data33Real,
-                                               final Seed seed, final double threshold,
-                                               final java.util.List<Pix> anPixelList, final Pix[] bgPixelList) {
-        int r, c;
-        for (final Pix pixel : bgPixelList) {
-            r = pixel.y - sy0;
-            c = pixel.x - sx0;
-            if (distance(data11Real[r][c], data22Real[r][c], data33Real[r][c], seed) < threshold) {
-                anPixelList.add(new Pix(pixel.x, pixel.y));
-            }
-        }
-    }
-
-    /**
-     * Compute scale parameter b for MMSE filter.
-     *
-     * @param sx0         X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0         Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param anPixelList List of pixels in AN
-     * @param span        Span image in source rectangle
-     * @return The scale parameter b
-     */
-    private double computeFilterScaleParam(
-            final int sx0, final int sy0, final Pix[] anPixelList, final double[][] span) {
-
-        final double[] spanPixels = new double[anPixelList.length];
-        int k = 0;
-        for (Pix pixel : anPixelList) {
-            spanPixels[k++] = span[pixel.y - sy0][pixel.x - sx0];
-        }
-
-        return computeMMSEWeight(spanPixels, sigmaVSqr);
-    }
-
-    /**
-     * Compute MMSE filtered value for given pixel.
-     *
-     * @param x           X coordinate of the given pixel
-     * @param y           Y  coordinate of the given pixel
-     * @param sx0         X coordinate of the pixel at the upper left corner of the source rectangle
-     * @param sy0         Y coordinate of the pixel at the upper left corner of the source rectangle
-     * @param anPixelList List of pixels in AN
-     * @param data        Data in source rectangle
-     * @param b           The scale parameter
-     * @return The filtered value
-     */
-    private static double getIDANFilteredValue(final int x, final int y, final int sx0, final int sy0,
-                                               final Pix[] anPixelList, final double[][] data, final double b) {
-
-        double mean = 0.0;
-        for (final Pix pixel : anPixelList) {
-            mean += data[pixel.y - sy0][pixel.x - sx0];
-        }
-        mean /= anPixelList.length;
-
-        return mean + b * (data[y - sy0][x - sx0] - mean);
-    }
-
-    private static class Seed {
-        final double[] value = new double[3];
-        final double[] absValue = new double[3];
-
-        public void calculateAbsolutes() {
-            absValue[0] = Math.abs(value[0]);
-            absValue[1] = Math.abs(value[1]);
-            absValue[2] = Math.abs(value[2]);
-        }
-    }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.csa.rstb.polarimetric.gpf.specklefilters;
+
+import org.csa.rstb.polarimetric.gpf.support.PolarimetricSpeckleFilter;
+
+import java.util.Arrays;
+
+/**
+ * Intensity-driven adaptive neighbourhood (IDAN) filtering of the matrix elements of a source rectangle.
+ * <p>
+ * The elements and the span are held as float planes of the source rectangle and pixels are addressed by
+ * their packed index r * width + c. Visited pixels are marked with a generation stamp, so the visited map
+ * is cleared only when the stamp wraps around. The region growing fronts share one queue of packed
+ * indices, and the sums of the diagonal elements of the accepted pixels are kept while growing for the
+ * updated seed.
+ */
+public final class IDANKernel {
+
+    private static final int[] NEIGHBOUR_DX = {-1, 0, 1, -1, 1, -1, 0, 1};
+    private static final int[] NEIGHBOUR_DY = {-1, -1, -1, 0, 0, 1, 1, 1};
+
+    private final int anSize;
+    private final double sigmaVSqr;
+    private final double threshold50;
+    private final double threshold95;
+
+    private float[][] planes;
+    private int[] diagonals;
+    private float[] span;
+    private int width;
+    private int height;
+
+    private int[] visited = new int[0];
+    private int generation = 0;
+    private int[] queue = new int[0];
+    private int[] an = new int[0];
+    private int anCount;
+    private double[] anSpan = new double[0];
+    private int[] bg = new int[0];
+    private int bgCount;
+
+    private double[] seed = new double[0];
+    private double[] seedAbs = new double[0];
+    private double[] seedSum = new double[0];
+    private final double[] median = new double[9];
+
+    /**
+     * @param anSize      size of the adaptive neighbourhood
+     * @param sigmaV      speckle standard deviation, 1 / sqrt(numLooks)
+     * @param threshold50 distance threshold of the region growing
+     * @param threshold95 distance threshold of the re-examination of the rejected pixels
+     */
+    public IDANKernel(final int anSize, final double sigmaV, final double threshold50, final double threshold95) {
+        this.anSize = anSize;
+        this.sigmaVSqr = sigmaV * sigmaV;
+        this.threshold50 = threshold50;
+        this.threshold95 = threshold95;
+    }
+
+    /**
+     * Set the source rectangle
+     *
+     * @param planes    the matrix elements as [element][r * width + c]
+     * @param diagonals the elements of the diagonal, which drive the region growing
+     * @param span      the span as [r * width + c]
+     * @param width     width of the source rectangle
+     * @param height    height of the source rectangle
+     */
+    public void setSource(final float[][] planes, final int[] diagonals, final float[] span,
+                          final int width, final int height) {
+        this.planes = planes;
+        this.diagonals = diagonals;
+        this.span = span;
+        this.width = width;
+        this.height = height;
+
+        final int size = width * height;
+        if (visited.length < size) {
+            visited = new int[size];
+            queue = new int[size];
+            generation = 0;
+        }
+        if (seed.length != diagonals.length) {
+            seed = new double[diagonals.length];
+            seedAbs = new double[diagonals.length];
+            seedSum = new double[diagonals.length];
+        }
+    }
+
+    /**
+     * Filter one pixel of the source rectangle
+     *
+     * @param c      column in the source rectangle
+     * @param r      row in the source rectangle
+     * @param values the filtered elements
+     */
+    public void filter(final int c, final int r, final double[] values) {
+        getInitialSeed(c, r);
+        regionGrowing(r * width + c);
+
+        // update seed with the pixels in AN
+        if (anCount > 0) {
+            for (int d = 0; d < diagonals.length; ++d) {
+                seed[d] = seedSum[d] / anCount;
+                seedAbs[d] = Math.abs(seed[d]);
+            }
+        }
+
+        // pixels rejected by the region growing are re-examined with the updated seed
+        for (int k = 0; k < bgCount; ++k) {
+            final int p = bg[k];
+            if (distance(p) < threshold95) {
+                addAN(p);
+            }
+        }
+
+        if (anCount == 0) {
+            addAN(r * width + c);
+        }
+
+        final double b = computeFilterScaleParam();
+
+        final int center = r * width + c;
+        for (int e = 0; e < planes.length; ++e) {
+            final float[] plane = planes[e];
+            double mean = 0.0;
+            for (int k = 0; k < anCount; ++k) {
+                mean += plane[an[k]];
+            }
+            mean /= anCount;
+            values[e] = mean + b * (plane[center] - mean);
+        }
+    }
+
+    /**
+     * @return the number of pixels in the adaptive neighbourhood of the last filtered pixel
+     */
+    public int getANCount() {
+        return anCount;
+    }
+
+    /**
+     * @return the packed indices of the adaptive neighbourhood of the last filtered pixel
+     */
+    public int[] getAN() {
+        return an;
+    }
+
+    /**
+     * The marginal median of the diagonal elements in the 3x3 neighbourhood of the pixel
+     */
+    private void getInitialSeed(final int cc, final int rc) {
+        final int r0 = Math.max(rc - 1, 0), r1 = Math.min(rc + 1, height - 1);
+        final int c0 = Math.max(cc - 1, 0), c1 = Math.min(cc + 1, width - 1);
+        for (int d = 0; d < diagonals.length; ++d) {
+            final float[] plane = planes[diagonals[d]];
+            int k = 0;
+            for (int r = r0; r <= r1; ++r) {
+                final int offset = r * width;
+                for (int c = c0; c <= c1; ++c) {
+                    median[k++] = plane[offset + c];
+                }
+            }
+            Arrays.sort(median, 0, k);
+            seed[d] = median[k / 2];
+            seedAbs[d] = Math.abs(seed[d]);
+        }
+    }
+
+    /**
+     * Grow the adaptive neighbourhood from the pixel breadth first, one front at a time
+     */
+    private void regionGrowing(final int start) {
+        anCount = 0;
+        bgCount = 0;
+        Arrays.fill(seedSum, 0.0);
+
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            generation = 1;
+        }
+        final int stamp = generation;
+
+        visit(start, threshold50);
+        visited[start] = stamp;
+
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+
+        while (anCount < anSize && head < tail) {
+            final int frontEnd = tail;
+            while (head < frontEnd) {
+                final int p = queue[head++];
+                final int pr = p / width;
+                final int pc = p - pr * width;
+
+                for (int i = 0; i < 8; i++) {
+                    final int r = pr + NEIGHBOUR_DY[i];
+                    final int c = pc + NEIGHBOUR_DX[i];
+                    if (c >= 0 && c < width && r >= 0 && r < height) {
+                        final int index = r * width + c;
+                        if (visited[index] != stamp) {
+                            visited[index] = stamp;
+                            if (visit(index, threshold50)) {
+                                queue[tail++] = index;
+                            }
+                        }
+                    }
+                }
+                if (anCount > anSize) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the pixel to AN if within the threshold of the seed, else to the background pixels
+     *
+     * @return true if added to AN
+     */
+    private boolean visit(final int p, final double threshold) {
+        if (distance(p) < threshold) {
+            for (int d = 0; d < diagonals.length; ++d) {
+                seedSum[d] += planes[diagonals[d]][p];
+            }
+            addAN(p);
+            return true;
+        }
+        if (bgCount == bg.length) {
+            bg = Arrays.copyOf(bg, Math.max(2 * bg.length, anSize + 8));
+        }
+        bg[bgCount++] = p;
+        return false;
+    }
+
+    private void addAN(final int p) {
+        if (anCount == an.length) {
+            an = Arrays.copyOf(an, Math.max(2 * an.length, anSize + 8));
+        }
+        an[anCount++] = p;
+    }
+
+    private double distance(final int p) {
+        double dist = 0.0;
+        for (int d = 0; d < diagonals.length; ++d) {
+            dist += Math.abs(planes[diagonals[d]][p] - seed[d]) / seedAbs[d];
+        }
+        return dist;
+    }
+
+    /**
+     * Scale parameter b of the MMSE filter from the span of AN
+     */
+    private double computeFilterScaleParam() {
+        if (anSpan.length < anCount) {
+            anSpan = new double[an.length];
+        }
+        for (int k = 0; k < anCount; ++k) {
+            anSpan[k] = span[an[k]];
+        }
+        return PolarimetricSpeckleFilter.computeMMSEWeight(anSpan, anCount, sigmaVSqr);
+    }
+}
@@ -19,8 +19,6 @@ import org.csa.rstb.polarimetric.gpf.support.DualPolProcessor;
 import org.csa.rstb.polarimetric.gpf.PolarimetricSpeckleFilterOp;
 import org.csa.rstb.polarimetric.gpf.support.PolarimetricSpeckleFilter;
 import org.csa.rstb.polarimetric.gpf.support.QuadPolProcessor;
-import org.csa.rstb.polarimetric.gpf.specklefilters.covariance.Covariance;
-import org.csa.rstb.polarimetric.gpf.specklefilters.covariance.CovarianceMatrix;
 import org.esa.s1tbx.commons.polsar.PolBandUtils;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
@@ -41,17 +39,10 @@ public class NonLocal implements PolarimetricSpeckleFilter, DualPolProcessor, Qu
     private final Product sourceProduct;
     private final Product targetProduct;
     private final PolBandUtils.PolSourceBand[] srcBandList;
-    private final int numLooks;
-    private final int windowSize, halfWindowSize;
-	private final int patchSize, halfPatchSize;
-	private final int scaleSize;
     private final int sourceImageWidth;
     private final int sourceImageHeight;
     private final int matrixSize; // D
-    private final double gamma;
-    private final double matrixSizeTwoLog2;
-
-    private final static double TwoLog2 = 1.386294361119890572453527965990;
+    private final ThreadLocal<NonLocalKernel> kernels;
 
     public NonLocal(final PolarimetricSpeckleFilterOp op, final Product srcProduct, final Product trgProduct,
                     final PolBandUtils.MATRIX sourceProductType, final PolBandUtils.PolSourceBand[] srcBandList,
@@ -60,21 +51,15 @@ public class NonLocal implements PolarimetricSpeckleFilter, DualPolProcessor, Qu
         this.sourceProduct = srcProduct;
         this.targetProduct = trgProduct;
         this.srcBandList = srcBandList;
-		this.numLooks = numLooks;
-        this.windowSize = searchWindowSize;
-        this.halfWindowSize = searchWindowSize / 2;
-		this.patchSize = patchSize;
-		this.halfPatchSize = patchSize / 2;
-		this.scaleSize = scaleSize;
 
         sourceImageWidth = sourceProduct.getSceneRasterWidth();
         sourceImageHeight = sourceProduct.getSceneRasterHeight();
 		
-        if (patchSize >= windowSize) {
+        if (patchSize >= searchWindowSize) {
             throw new OperatorException("Patch size should always be smaller than the search window size");
         }
 
-        if (windowSize >= sourceImageWidth || windowSize >= sourceImageHeight) {
+        if (searchWindowSize >= sourceImageWidth || searchWindowSize >= sourceImageHeight) {
             throw new OperatorException("Image is too small. Please select larger image");
         }
 
@@ -90,8 +75,8 @@ public class NonLocal implements PolarimetricSpeckleFilter, DualPolProcessor, Qu
             throw new OperatorException("Number of looks should always be smaller than the covariance matrix size");
         }
 
-        gamma = Math.min((double)numLooks / (double)matrixSize, 1.0);
-        matrixSizeTwoLog2 = matrixSize * TwoLog2;
+        kernels = ThreadLocal.withInitial(
+                () -> new NonLocalKernel(matrixSize, searchWindowSize, patchSize, scaleSize, numLooks));
     }
 
 
@@ -112,6 +97,10 @@ public class NonLocal implements PolarimetricSpeckleFilter, DualPolProcessor, Qu
         final int syMax = sy0 + sh;
 
         final TileIndex trgIndex = new TileIndex(targetTiles.get(targetProduct.getBandAt(0)));
+        final NonLocalKernel kernel = kernels.get();
+        final int numElements = matrixSize * matrixSize;
+        final double[][] original = new double[numElements][sw * sh];
+        final double[][] filtered = new double[numElements][w * h];
 
         for (final PolBandUtils.PolSourceBand bandList : srcBandList) {
 
@@ -124,49 +113,21 @@ public class NonLocal implements PolarimetricSpeckleFilter, DualPolProcessor, Qu
 
             final ProductData[] targetDataBuffers = getTargetDataBuffers(bandList, targetTiles);
 
-            final Covariance[][] originalMatrix = new Covariance[sh][sw];
-            getOriginalCovarianceMatrix(sx0, sy0, sxMax, syMax, sourceTiles, dataBuffers, originalMatrix);
-
-            final Covariance[][] preEstimatedMatrix = new Covariance[sh][sw];
-            computePreEstimatedCovarianceMatrix(sx0, sy0, sxMax, syMax, originalMatrix, preEstimatedMatrix);
-
-            System.out.println("x0 = " + x0 + ", y0 = " + y0 + ", computeWeightedEstimate start");
-            if (matrixSize == 3) {
-                for (int y = y0; y < yMax; ++y) {
-                    trgIndex.calculateStride(y);
-                    System.out.println(y + " of " + yMax);
-                    for (int x = x0; x < xMax; ++x) {
-                        final double[][] weight = computeWeights(x, y, sx0, sy0, preEstimatedMatrix);
-                        final double totalWeight = getTotalWeight(weight);
-                        final Covariance sigmaNL = computeWeightedEstimate(x, y, sx0, sy0, weight, totalWeight, originalMatrix);
-                        final double enlNL = computeENL(weight, totalWeight);
-
-                        final Covariance sigmaNLBR = new CovarianceMatrix.C3();
-                        final double enlNLRB = performBiasReduction(
-                                x, y, sx0, sy0, weight, totalWeight, enlNL, originalMatrix, sigmaNL, sigmaNLBR);
+            getOriginalCovarianceMatrix(sx0, sy0, sxMax, syMax, sourceTiles, dataBuffers, original);
 
-                        saveC3(sigmaNLBR, trgIndex.getIndex(x), targetDataBuffers);
-                        //saveC3(sigmaNL, trgIndex.getIndex(x), targetDataBuffers);
-                    }
-                }
+            kernel.setSource(original, sw, sh);
+            kernel.filter(x0 - sx0, y0 - sy0, w, h, filtered);
 
-            } else if (matrixSize == 2) {
-                for (int y = y0; y < yMax; ++y) {
-                    trgIndex.calculateStride(y);
-                    for (int x = x0; x < xMax; ++x) {
-                        final double[][] weight = computeWeights(x, y, sx0, sy0, preEstimatedMatrix);
-                        final double totalWeight = getTotalWeight(weight);
-                        Covariance sigmaNL = computeWeightedEstimate(x, y, sx0, sy0, weight, totalWeight, originalMatrix);
-                        final double enlNL = computeENL(weight, totalWeight);
-
-                        final Covariance sigmaNLBR = new CovarianceMatrix.C2();
-                        final double enlNLRB = performBiasReduction(
-                                x, y, sx0, sy0, weight, totalWeight, enlNL, originalMatrix, sigmaNL, sigmaNLBR);
-                        saveC2(sigmaNLBR, trgIndex.getIndex(x), targetDataBuffers);
+            for (int y = y0; y < yMax; ++y) {
+                trgIndex.calculateStride(y);
+                final int offset = (y - y0) * w - x0;
+                for (int x = x0; x < xMax; ++x) {
+                    final int idx = trgIndex.getIndex(x);
+                    for (int e = 0; e < numElements; ++e) {
+                        targetDataBuffers[e].setElemFloatAt(idx, (float) filtered[e][offset + x]);
                     }
                 }
             }
-            System.out.println("x0 = " + x0 + ", y0 = " + y0 + ", computeWeightedEstimate finished");
         }
     }
 
@@ -220,317 +181,22 @@ public class NonLocal implements PolarimetricSpeckleFilter, DualPolProcessor, Qu
         }
     }
 
-    private static void saveC3(final Covariance sigmaNLRB, final int idx, final ProductData[] targetDataBuffers) {
-
-        final double[][] Cr = sigmaNLRB.getRealCovarianceMatrix();
-        final double[][] Ci = sigmaNLRB.getImagCovarianceMatrix();
-        targetDataBuffers[0].setElemFloatAt(idx, (float) Cr[0][0]); // C11
-        targetDataBuffers[1].setElemFloatAt(idx, (float) Cr[0][1]); // C12_real
-        targetDataBuffers[2].setElemFloatAt(idx, (float) Ci[0][1]); // C12_imag
-        targetDataBuffers[3].setElemFloatAt(idx, (float) Cr[0][2]); // C13_real
-        targetDataBuffers[4].setElemFloatAt(idx, (float) Ci[0][2]); // C13_imag
-        targetDataBuffers[5].setElemFloatAt(idx, (float) Cr[1][1]); // C22
-        targetDataBuffers[6].setElemFloatAt(idx, (float) Cr[1][2]); // C23_real
-        targetDataBuffers[7].setElemFloatAt(idx, (float) Ci[1][2]); // C23_imag
-        targetDataBuffers[8].setElemFloatAt(idx, (float) Cr[2][2]); // C33
-    }
-
-    private static void saveC2(final Covariance sigmaNLRB, final int idx, final ProductData[] targetDataBuffers) {
-
-        final double[][] Cr = sigmaNLRB.getRealCovarianceMatrix();
-        final double[][] Ci = sigmaNLRB.getImagCovarianceMatrix();
-        targetDataBuffers[0].setElemFloatAt(idx, (float) Cr[0][0]); // C11
-        targetDataBuffers[1].setElemFloatAt(idx, (float) Cr[0][1]); // C12_real
-        targetDataBuffers[2].setElemFloatAt(idx, (float) Ci[0][1]); // C12_imag
-        targetDataBuffers[3].setElemFloatAt(idx, (float) Cr[1][1]); // C22
-    }
-
-    private void computePreEstimatedCovarianceMatrix(
-            final int sx0, final int sy0, final int sxMax, final int syMax, final Covariance[][] originalMatrix,
-            final Covariance[][] preEstimatedMatrix) {
-
-        if (scaleSize > 0) {
-            performGaussianFiltering(sx0, sy0, sxMax, syMax, originalMatrix, preEstimatedMatrix);
-        } else {
-            copyOriginalMatrix(sx0, sy0, sxMax, syMax, originalMatrix, preEstimatedMatrix);
-        }
-
-        rescaleCovarianceMatrix(sx0, sy0, sxMax, syMax, preEstimatedMatrix);
-    }
-
     private void getOriginalCovarianceMatrix(final int sx0, final int sy0, final int sxMax, final int syMax,
                                              final Tile[] sourceTiles, final ProductData[] dataBuffers,
-                                             final Covariance[][] originalMatrix) {
+                                             final double[][] original) {
 
         final TileIndex srcIndex = new TileIndex(sourceTiles[0]);
+        final int sw = sxMax - sx0;
 
         for (int y = sy0; y < syMax; ++y) {
-            final int yy = y - sy0;
+            final int offset = (y - sy0) * sw - sx0;
             srcIndex.calculateStride(y);
             for (int x = sx0; x < sxMax; ++x) {
-                final int xx = x - sx0;
-                final Covariance matrix;
-                if (matrixSize == 3) {
-                    matrix = new CovarianceMatrix.C3();
-                    matrix.getCovarianceMatrix(srcIndex.getIndex(x), dataBuffers);
-                } else {
-                    matrix = new CovarianceMatrix.C2();
-                    matrix.getCovarianceMatrix(srcIndex.getIndex(x), dataBuffers);
+                final int index = srcIndex.getIndex(x);
+                for (int e = 0; e < original.length; ++e) {
+                    original[e][offset + x] = dataBuffers[e].getElemDoubleAt(index);
                 }
-                originalMatrix[yy][xx] = matrix;
             }
         }
     }
-
-    private void copyOriginalMatrix(final int sx0, final int sy0, final int sxMax, final int syMax,
-                                    final Covariance[][] originalMatrix,
-                                    final Covariance[][] preEstimatedMatrix) {
-        for (int y = sy0; y < syMax; ++y) {
-            final int yy = y - sy0;
-            for (int x = sx0; x < sxMax; ++x) {
-                final int xx = x - sx0;
-                preEstimatedMatrix[yy][xx] = originalMatrix[yy][xx].clone();
-            }
-        }
-    }
-
-    private void performGaussianFiltering(final int sx0, final int sy0, final int sxMax, final int syMax,
-                                          final Covariance[][] originalMatrix,
-                                          final Covariance[][] preEstimatedMatrix) {
-
-        final double[][] weight = new double[2*scaleSize+1][2*scaleSize+1];
-        final double sigma2 = (scaleSize + 0.5)*(scaleSize + 0.5);
-        double totalWeight = 0.0;
-        for (int i = -scaleSize; i <= scaleSize; ++i) {
-            final int ii = i + scaleSize;
-            final int i2 = i*i;
-            for (int j = -scaleSize; j <= scaleSize; ++j) {
-                final double w = Math.exp(-Math.PI*(i2 + j*j)/sigma2);
-                weight[ii][j + scaleSize] = w;
-                totalWeight += w;
-            }
-        }
-
-        for (int i = -scaleSize; i <= scaleSize; ++i) {
-            for (int j = -scaleSize; j <= scaleSize; ++j) {
-                weight[i + scaleSize][j + scaleSize] /= totalWeight;
-            }
-        }
-
-        final int sw = sxMax - sx0;
-        final int sh = syMax - sy0;
-        for (int y = sy0; y < syMax; ++y) {
-            final int yy = y - sy0;
-            for (int x = sx0; x < sxMax; ++x) {
-                final int xx = x - sx0;
-                if(matrixSize == 3) {
-                    preEstimatedMatrix[yy][xx] = new CovarianceMatrix.C3();
-                } else {
-                    preEstimatedMatrix[yy][xx] = new CovarianceMatrix.C2();
-                }
-
-                for (int i = -scaleSize; i <= scaleSize; ++i) {
-                    final int dyy = yy + i;
-                    if (dyy < 0 || dyy > sh - 1) {
-                        continue;
-                    }
-                    final int ii = i + scaleSize;
-
-                    for (int j = -scaleSize; j <= scaleSize; ++j) {
-                        final int dxx = xx + j;
-                        if (dxx < 0 || dxx > sw - 1) {
-                            continue;
-                        }
-
-                        preEstimatedMatrix[yy][xx].addWeightedCovarianceMatrix(
-                                weight[ii][j + scaleSize], originalMatrix[dyy][dxx]);
-                    }
-                }
-            }
-        }
-    }
-
-    private void rescaleCovarianceMatrix(final int sx0, final int sy0, final int sxMax, final int syMax,
-                                         final Covariance[][] preEstimatedMatrix) {
-
-        for (int y = sy0; y < syMax; ++y) {
-            final Covariance[] matrix = preEstimatedMatrix[y - sy0];
-            for (int x = sx0; x < sxMax; ++x) {
-                matrix[x - sx0].rescaleMatrix(gamma);
-            }
-        }
-    }
-
-    private double[][] computeWeights(final int xc, final int yc, final int sx0, final int sy0,
-                                      final Covariance[][] preEstimatedMatrix) {
-
-        final int xSt = Math.max(xc - halfWindowSize, 0);
-        final int ySt = Math.max(yc - halfWindowSize, 0);
-        final int xEd = Math.min(xc + halfWindowSize, sourceImageWidth - 1);
-        final int yEd = Math.min(yc + halfWindowSize, sourceImageHeight - 1);
-
-        // No normalization is needed. We want w(x,x) = 1
-        final double h = 1.0 / 3.0; // filtering parameter
-        final double[][] weight = new double[yEd - ySt + 1][xEd - xSt + 1];
-        for (int y = ySt; y <= yEd; ++y) {
-            final int yy = y - ySt;
-            for (int x = xSt; x <= xEd; ++x) {
-                final int xx = x - xSt;
-                final double delta = computeDissimilarity(xc, yc, x, y, sx0, sy0, preEstimatedMatrix);
-                if (delta < 0.0) {
-                    weight[yy][xx] = 0.0;
-                } else {
-                    weight[yy][xx] = Math.exp(-delta / h);
-                }
-            }
-        }
-
-        return weight;
-    }
-
-    private double computeDissimilarity(
-            final int xc1, final int yc1, final int xc2, final int yc2, final int sx0, final int sy0,
-            final Covariance[][] preEstimatedMatrix) {
-
-        double dissimilarity = 0.0;
-        boolean validPixel = false;
-        for (int i = 0; i < patchSize; ++i) {
-            final int y1 = yc1 - halfPatchSize + i;
-            final int y2 = yc2 - halfPatchSize + i;
-            if (y1 < 0 || y1 >= sourceImageHeight || y2 < 0 || y2 >= sourceImageHeight) {
-                continue;
-            }
-            final int dy1 = y1 - sy0;
-            final int dy2 = y2 - sy0;
-
-            for (int j = 0; j < patchSize; ++j) {
-                final int x1 = xc1 - halfPatchSize + j;
-                final int x2 = xc2 - halfPatchSize + j;
-                if (x1 < 0 || x1 >= sourceImageWidth || x2 < 0 || x2 >= sourceImageWidth) {
-                    continue;
-                }
-                final int dx1 = x1 - sx0;
-                final int dx2 = x2 - sx0;
-
-                final Covariance C12 = preEstimatedMatrix[dy1][dx1].clone();
-
-                C12.addCovarianceMatrix(preEstimatedMatrix[dy2][dx2]);
-
-                final double detC12 = C12.getDeterminant();
-                final double detC1 = preEstimatedMatrix[dy1][dx1].getDeterminant();
-                final double detC2 = preEstimatedMatrix[dy2][dx2].getDeterminant();
-
-                if (detC12*detC1*detC2 <= 0.0) {
-                    continue;
-                }
-
-                dissimilarity += -Math.log(detC1*detC2/(detC12*detC12)) - matrixSizeTwoLog2;
-                validPixel = true;
-            }
-        }
-
-        if (validPixel) {
-            return dissimilarity;
-        } else {
-            return -1.0;
-        }
-    }
-
-    private Covariance computeWeightedEstimate(
-            final int xc, final int yc, final int sx0, final int sy0, final double[][] weight, final double totalWeight,
-            final Covariance[][] originalMatrix) {
-
-        final int xSt = Math.max(xc - halfWindowSize, 0);
-        final int ySt = Math.max(yc - halfWindowSize, 0);
-        final int xEd = Math.min(xc + halfWindowSize, sourceImageWidth - 1);
-        final int yEd = Math.min(yc + halfWindowSize, sourceImageHeight - 1);
-
-        final Covariance avgC;
-        if(matrixSize == 3) {
-            avgC = new CovarianceMatrix.C3();
-        } else {
-            avgC = new CovarianceMatrix.C2();
-        }
-        for (int y = ySt; y <= yEd; ++y) {
-            final int yy = y - ySt;
-            final int i = y - sy0;
-            for (int x = xSt; x <= xEd; ++x) {
-                avgC.addWeightedCovarianceMatrix(weight[yy][x - xSt]/totalWeight, originalMatrix[i][x - sx0]);
-            }
-        }
-
-        return avgC;
-    }
-
-    private static double computeENL(final double[][] weight, final double totalWeight) {
-
-        final int cols = weight[0].length;
-
-        double sum2 = 0.0;
-        for (double[] aWeight : weight) {
-            for (int c = 0; c < cols; ++c) {
-                sum2 += aWeight[c] * aWeight[c];
-            }
-        }
-
-        return totalWeight * totalWeight / sum2;
-    }
-
-    private double performBiasReduction(
-            final int xc, final int yc, final int sx0, final int sy0, final double[][] weight, final double totalWeight,
-            final double enlNL, final Covariance[][] originalMatrix, final Covariance sigmaNL, Covariance sigmaNLBR) {
-
-        final int xSt = Math.max(xc - halfWindowSize, 0);
-        final int ySt = Math.max(yc - halfWindowSize, 0);
-        final int xEd = Math.min(xc + halfWindowSize, sourceImageWidth - 1);
-        final int yEd = Math.min(yc + halfWindowSize, sourceImageHeight - 1);
-
-        // compute weighted variance
-        final double[] diagNL = sigmaNL.getDiagonalElements();
-        final double[] varNL = new double[matrixSize];
-        for (int j = 0; j < matrixSize; ++j) {
-            varNL[j] = -diagNL[j] * diagNL[j];
-        }
-
-        for (int y = ySt; y <= yEd; ++y) {
-            final int yy = y - ySt;
-            final int i = y - sy0;
-            for (int x = xSt; x <= xEd; ++x) {
-                final int xx = x - xSt;
-                final double[] diagOri = originalMatrix[i][x - sx0].getDiagonalElements();
-                for (int j = 0; j < matrixSize; ++j) {
-                    varNL[j] += (weight[yy][xx] / totalWeight) * diagOri[j] * diagOri[j];
-                }
-            }
-        }
-
-        // compute alpha
-        double alpha = 0.0;
-        for (int j = 0; j < matrixSize; ++j) {
-            alpha = Math.max(alpha, 1.0 - diagNL[j]*diagNL[j] / (varNL[j]*numLooks));
-        }
-
-        // bias reduction
-        sigmaNLBR.addWeightedCovarianceMatrix(1 - alpha, sigmaNL);
-
-        sigmaNLBR.addWeightedCovarianceMatrix(alpha, originalMatrix[yc - sy0][xc - sx0]);
-
-        // compute ENL after bias reduction
-        return enlNL / ((1-alpha)*(1-alpha) + enlNL*(alpha*alpha + (2.0*alpha*(1-alpha))/totalWeight));
-    }
-
-    private static double getTotalWeight(final double[][] weight) {
-
-        final int cols = weight[0].length;
-
-        double totalWeight = 0.0;
-        for (double[] aWeight : weight) {
-            for (int c = 0; c < cols; ++c) {
-                totalWeight += aWeight[c];
-            }
-        }
-
-        return totalWeight;
-    }
 }
-
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.csa.rstb.polarimetric.gpf.specklefilters;
+
+import java.util.Arrays;
+
+/**
+ * Non-local filtering of the C2 or C3 matrices of a source rectangle.
+ * <p>
+ * The matrix elements are held as planes of the source rectangle in the order of the source bands,
+ * C11, C12_real, C12_imag, C22 for C2 and C11, C12_real, C12_imag, C13_real, C13_imag, C22, C23_real,
+ * C23_imag, C33 for C3, and pixels are addressed by their packed index r * width + c. The determinants
+ * of the pre-estimated matrices are computed once per pixel. The patch dissimilarities are computed one
+ * shift of the search window at a time: the dissimilarity of every pixel pair at that shift is computed
+ * once and summed over the patches with a separable box filter, and the weights are accumulated into the
+ * estimates of the target pixels straight away.
+ */
+public final class NonLocalKernel {
+
+    private final static double TwoLog2 = 1.386294361119890572453527965990;
+    private final static double filterParam = 1.0 / 3.0;
+
+    private final int matrixSize;
+    private final int numElements;
+    private final int[] diagonals;
+    private final int[] offDiagonals;
+    private final int halfWindowSize;
+    private final int patchSize, halfPatchSize;
+    private final int scaleSize;
+    private final int numLooks;
+    private final double gamma;
+    private final double matrixSizeTwoLog2;
+
+    private double[][] original;
+    private double[][] preEstimated = new double[0][];
+    private double[] det = new double[0];
+    private int width;
+    private int height;
+
+    private double[] term = new double[0];
+    private int[] count = new int[0];
+    private double[] rowTerm = new double[0];
+    private int[] rowCount = new int[0];
+    private double[] sumW = new double[0];
+    private double[][] sumWC = new double[0][];
+    private double[][] sumWD2 = new double[0][];
+
+    /**
+     * @param matrixSize       2 for C2 or 3 for C3
+     * @param searchWindowSize size of the search window
+     * @param patchSize        size of the patches
+     * @param scaleSize        half size of the Gaussian pre-filter, 0 for none
+     * @param numLooks         number of looks
+     */
+    public NonLocalKernel(final int matrixSize, final int searchWindowSize, final int patchSize,
+                          final int scaleSize, final int numLooks) {
+        this.matrixSize = matrixSize;
+        this.numElements = matrixSize * matrixSize;
+        this.diagonals = matrixSize == 3 ? new int[]{0, 5, 8} : new int[]{0, 3};
+        this.offDiagonals = matrixSize == 3 ? new int[]{1, 2, 3, 4, 6, 7} : new int[]{1, 2};
+        this.halfWindowSize = searchWindowSize / 2;
+        this.patchSize = patchSize;
+        this.halfPatchSize = patchSize / 2;
+        this.scaleSize = scaleSize;
+        this.numLooks = numLooks;
+        this.gamma = Math.min((double) numLooks / (double) matrixSize, 1.0);
+        this.matrixSizeTwoLog2 = matrixSize * TwoLog2;
+    }
+
+    /**
+     * Set the source rectangle and compute the pre-estimated matrices and their determinants.
+     * The source rectangle is expected to extend the target rectangle by the half search window and the
+     * half patch size wherever the image allows it, pixels outside of it are treated as outside the image.
+     *
+     * @param original the matrix elements as [element][r * width + c]
+     * @param width    width of the source rectangle
+     * @param height   height of the source rectangle
+     */
+    public void setSource(final double[][] original, final int width, final int height) {
+        this.original = original;
+        this.width = width;
+        this.height = height;
+
+        final int size = width * height;
+        if (det.length < size) {
+            det = new double[size];
+            preEstimated = new double[numElements][size];
+        }
+
+        if (scaleSize > 0) {
+            performGaussianFiltering();
+        } else {
+            for (int e = 0; e < numElements; ++e) {
+                System.arraycopy(original[e], 0, preEstimated[e], 0, size);
+            }
+        }
+
+        // apply to off diagonal elements only
+        for (int e : offDiagonals) {
+            final double[] plane = preEstimated[e];
+            for (int i = 0; i < size; ++i) {
+                plane[i] *= gamma;
+            }
+        }
+
+        for (int i = 0; i < size; ++i) {
+            det[i] = getDeterminant(i);
+        }
+    }
+
+    /**
+     * Filter a rectangle of the source rectangle
+     *
+     * @param x0       x of the rectangle in the source rectangle
+     * @param y0       y of the rectangle in the source rectangle
+     * @param w        width of the rectangle
+     * @param h        height of the rectangle
+     * @param filtered the filtered elements as [element][(y - y0) * w + x - x0]
+     */
+    public void filter(final int x0, final int y0, final int w, final int h, final double[][] filtered) {
+
+        final int pw = w + 2 * halfPatchSize;
+        final int ph = h + 2 * halfPatchSize;
+        allocate(w * h, pw * ph);
+
+        for (int dy = -halfWindowSize; dy <= halfWindowSize; ++dy) {
+            for (int dx = -halfWindowSize; dx <= halfWindowSize; ++dx) {
+                computeDissimilarityTerms(x0 - halfPatchSize, y0 - halfPatchSize, pw, ph, dx, dy);
+                sumPatches(w, h, pw);
+                accumulateWeights(x0, y0, w, h, dx, dy);
+            }
+        }
+
+        for (int i = 0; i < w * h; ++i) {
+            final int center = (y0 + i / w) * width + x0 + i % w;
+            final double totalWeight = sumW[i];
+
+            // compute alpha from the weighted variance
+            double alpha = 0.0;
+            for (int d = 0; d < diagonals.length; ++d) {
+                final double diagNL = sumWC[diagonals[d]][i] / totalWeight;
+                final double varNL = sumWD2[d][i] / totalWeight - diagNL * diagNL;
+                alpha = Math.max(alpha, 1.0 - diagNL * diagNL / (varNL * numLooks));
+            }
+
+            // bias reduction
+            for (int e = 0; e < numElements; ++e) {
+                filtered[e][i] = (1 - alpha) * (sumWC[e][i] / totalWeight) + alpha * original[e][center];
+            }
+        }
+    }
+
+    private void allocate(final int targetSize, final int patchAreaSize) {
+        if (term.length < patchAreaSize) {
+            term = new double[patchAreaSize];
+            count = new int[patchAreaSize];
+            rowTerm = new double[patchAreaSize];
+            rowCount = new int[patchAreaSize];
+        }
+        if (sumW.length < targetSize) {
+            sumW = new double[targetSize];
+            sumWC = new double[numElements][targetSize];
+            sumWD2 = new double[diagonals.length][targetSize];
+        }
+        Arrays.fill(sumW, 0, targetSize, 0.0);
+        for (double[] plane : sumWC) {
+            Arrays.fill(plane, 0, targetSize, 0.0);
+        }
+        for (double[] plane : sumWD2) {
+            Arrays.fill(plane, 0, targetSize, 0.0);
+        }
+    }
+
+    /**
+     * Dissimilarity of each pixel of the patch area with the pixel at the shift, which is
+     * -log(det(C1) det(C2) / det(C1 + C2)^2) - 2 D log(2) for pre-estimated matrices C1 and C2
+     */
+    private void computeDissimilarityTerms(final int px0, final int py0, final int pw, final int ph,
+                                           final int dx, final int dy) {
+        for (int v = 0; v < ph; ++v) {
+            final int y1 = py0 + v;
+            final int y2 = y1 + dy;
+            final int offset = v * pw;
+            final boolean rowValid = y1 >= 0 && y1 < height && y2 >= 0 && y2 < height;
+            for (int u = 0; u < pw; ++u) {
+                final int x1 = px0 + u;
+                final int x2 = x1 + dx;
+                term[offset + u] = 0.0;
+                count[offset + u] = 0;
+                if (!rowValid || x1 < 0 || x1 >= width || x2 < 0 || x2 >= width) {
+                    continue;
+                }
+
+                final int p1 = y1 * width + x1;
+                final int p2 = y2 * width + x2;
+                final double detC1 = det[p1];
+                final double detC2 = det[p2];
+                final double detC12 = getSumDeterminant(p1, p2);
+                if (detC12 * detC1 * detC2 <= 0.0) {
+                    continue;
+                }
+
+                term[offset + u] = -Math.log(detC1 * detC2 / (detC12 * detC12)) - matrixSizeTwoLog2;
+                count[offset + u] = 1;
+            }
+        }
+    }
+
+    /**
+     * Box filter of the terms and counts over the patches, leaving the sums of the patch centred on target
+     * pixel (x, y) at y * pw + x
+     */
+    private void sumPatches(final int w, final int h, final int pw) {
+        final int ph = h + 2 * halfPatchSize;
+        for (int v = 0; v < ph; ++v) {
+            final int offset = v * pw;
+            for (int x = 0; x < w; ++x) {
+                double sum = 0.0;
+                int n = 0;
+                for (int j = 0; j < patchSize; ++j) {
+                    sum += term[offset + x + j];
+                    n += count[offset + x + j];
+                }
+                rowTerm[offset + x] = sum;
+                rowCount[offset + x] = n;
+            }
+        }
+        for (int y = 0; y < h; ++y) {
+            final int offset = y * pw;
+            for (int x = 0; x < w; ++x) {
+                double sum = 0.0;
+                int n = 0;
+                for (int i = 0; i < patchSize; ++i) {
+                    sum += rowTerm[offset + i * pw + x];
+                    n += rowCount[offset + i * pw + x];
+                }
+                term[offset + x] = sum;
+                count[offset + x] = n;
+            }
+        }
+    }
+
+    private void accumulateWeights(final int x0, final int y0, final int w, final int h, final int dx, final int dy) {
+        final int pw = w + 2 * halfPatchSize;
+        for (int y = 0; y < h; ++y) {
+            final int y2 = y0 + y + dy;
+            if (y2 < 0 || y2 >= height) {
+                continue;
+            }
+            for (int x = 0; x < w; ++x) {
+                final int x2 = x0 + x + dx;
+                if (x2 < 0 || x2 >= width) {
+                    continue;
+                }
+
+                // pixels without any valid patch position have a zero weight
+                final double delta = count[y * pw + x] > 0 ? term[y * pw + x] : -1.0;
+                if (delta < 0.0) {
+                    continue;
+                }
+                final double weight = Math.exp(-delta / filterParam);
+
+                final int i = y * w + x;
+                final int p2 = y2 * width + x2;
+                sumW[i] += weight;
+                for (int e = 0; e < numElements; ++e) {
+                    sumWC[e][i] += weight * original[e][p2];
+                }
+                for (int d = 0; d < diagonals.length; ++d) {
+                    final double diag = original[diagonals[d]][p2];
+                    sumWD2[d][i] += weight * diag * diag;
+                }
+            }
+        }
+    }
+
+    private void performGaussianFiltering() {
+
+        final double[][] weight = new double[2 * scaleSize + 1][2 * scaleSize + 1];
+        final double sigma2 = (scaleSize + 0.5) * (scaleSize + 0.5);
+        double totalWeight = 0.0;
+        for (int i = -scaleSize; i <= scaleSize; ++i) {
+            final int ii = i + scaleSize;
+            final int i2 = i * i;
+            for (int j = -scaleSize; j <= scaleSize; ++j) {
+                final double w = Math.exp(-Math.PI * (i2 + j * j) / sigma2);
+                weight[ii][j + scaleSize] = w;
+                totalWeight += w;
+            }
+        }
+
+        for (int i = -scaleSize; i <= scaleSize; ++i) {
+            for (int j = -scaleSize; j <= scaleSize; ++j) {
+                weight[i + scaleSize][j + scaleSize] /= totalWeight;
+            }
+        }
+
+        for (int e = 0; e < numElements; ++e) {
+            final double[] src = original[e];
+            final double[] trg = preEstimated[e];
+            for (int yy = 0; yy < height; ++yy) {
+                for (int xx = 0; xx < width; ++xx) {
+                    double sum = 0.0;
+                    for (int i = -scaleSize; i <= scaleSize; ++i) {
+                        final int dyy = yy + i;
+                        if (dyy < 0 || dyy > height - 1) {
+                            continue;
+                        }
+                        final double[] wRow = weight[i + scaleSize];
+                        for (int j = -scaleSize; j <= scaleSize; ++j) {
+                            final int dxx = xx + j;
+                            if (dxx < 0 || dxx > width - 1) {
+                                continue;
+                            }
+                            sum += wRow[j + scaleSize] * src[dyy * width + dxx];
+                        }
+                    }
+                    trg[yy * width + xx] = sum;
+                }
+            }
+        }
+    }
+
+    private double getDeterminant(final int p) {
+        final double[][] c = preEstimated;
+        if (matrixSize == 2) {
+            return det2(c[0][p], c[1][p], c[2][p], c[3][p]);
+        }
+        return det3(c[0][p], c[1][p], c[2][p], c[3][p], c[4][p], c[5][p], c[6][p], c[7][p], c[8][p]);
+    }
+
+    /**
+     * Determinant of the sum of the pre-estimated matrices of two pixels
+     */
+    private double getSumDeterminant(final int p1, final int p2) {
+        final double[][] c = preEstimated;
+        if (matrixSize == 2) {
+            return det2(c[0][p1] + c[0][p2], c[1][p1] + c[1][p2], c[2][p1] + c[2][p2], c[3][p1] + c[3][p2]);
+        }
+        return det3(c[0][p1] + c[0][p2], c[1][p1] + c[1][p2], c[2][p1] + c[2][p2],
+                    c[3][p1] + c[3][p2], c[4][p1] + c[4][p2], c[5][p1] + c[5][p2],
+                    c[6][p1] + c[6][p2], c[7][p1] + c[7][p2], c[8][p1] + c[8][p2]);
+    }
+
+    private static double det2(final double Cr00, final double Cr01, final double Ci01, final double Cr11) {
+        return Math.abs(Cr00 * Cr11 - Cr01 * Cr01 - Ci01 * Ci01);
+    }
+
+    private static double det3(final double Cr00, final double Cr01, final double Ci01,
+                               final double Cr02, final double Ci02, final double Cr11,
+                               final double Cr12, final double Ci12, final double Cr22) {
+        return Math.abs(Cr00 * Cr11 * Cr22 - Cr00 * (Cr12 * Cr12 + Ci12 * Ci12) - Cr11 * (Cr02 * Cr02 + Ci02 * Ci02) -
+                Cr22 * (Cr01 * Cr01 + Ci01 * Ci01) + 2.0 * (Cr12 * (Cr01 * Cr02 + Ci01 * Ci02) + Ci12 * (Cr01 * Ci02 -
+                Ci01 * Cr02)));
+    }
+}
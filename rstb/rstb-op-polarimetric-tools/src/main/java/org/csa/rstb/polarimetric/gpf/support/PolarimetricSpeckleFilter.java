@@ -47,12 +47,19 @@ public interface PolarimetricSpeckleFilter extends DualPolProcessor, QuadPolProc
      * @throws OperatorException If an error occurs in computation of the mean value.
      */
     default double getMeanValue(final double[] neighborValues) {
+        return getMeanValue(neighborValues, neighborValues.length);
+    }
+
+    /**
+     * Get the mean of the first count values of an array.
+     */
+    static double getMeanValue(final double[] neighborValues, final int count) {
 
         double mean = 0.0;
-        for (double neighborValue : neighborValues) {
-            mean += neighborValue;
+        for (int i = 0; i < count; ++i) {
+            mean += neighborValues[i];
         }
-        mean /= neighborValues.length;
+        mean /= count;
 
         return mean;
     }
@@ -66,24 +73,43 @@ public interface PolarimetricSpeckleFilter extends DualPolProcessor, QuadPolProc
      * @throws OperatorException If an error occurs in computation of the variance.
      */
     default double getVarianceValue(final double[] neighborValues, final double mean) {
+        return getVarianceValue(neighborValues, neighborValues.length, mean);
+    }
+
+    /**
+     * Get the variance of the first count values of an array.
+     */
+    static double getVarianceValue(final double[] neighborValues, final int count, final double mean) {
 
         double var = 0.0;
-        if (neighborValues.length > 1) {
+        if (count > 1) {
 
-            for (double neighborValue : neighborValues) {
-                final double diff = neighborValue - mean;
+            for (int i = 0; i < count; ++i) {
+                final double diff = neighborValues[i] - mean;
                 var += diff * diff;
             }
-            var /= (neighborValues.length - 1);
+            var /= (count - 1);
         }
 
         return var;
     }
 
     default double computeMMSEWeight(final double[] dataArray, final double sigmaVSqr) {
+        return computeMMSEWeight(dataArray, dataArray.length, sigmaVSqr);
+    }
+
+    /**
+     * Compute the MMSE filter weight from the first count values of an array.
+     *
+     * @param dataArray The span values.
+     * @param count     The number of values used.
+     * @param sigmaVSqr The speckle variance.
+     * @return The weight.
+     */
+    static double computeMMSEWeight(final double[] dataArray, final int count, final double sigmaVSqr) {
 
-        final double meanY = getMeanValue(dataArray);
-        final double varY = getVarianceValue(dataArray, meanY);
+        final double meanY = getMeanValue(dataArray, count);
+        final double varY = getVarianceValue(dataArray, count, meanY);
         if (varY == 0.0) {
             return 0.0;
         }
@@ -95,6 +121,72 @@ public interface PolarimetricSpeckleFilter extends DualPolProcessor, QuadPolProc
         return varX / varY;
     }
 
+    /**
+     * Reads the matrix of a source pixel in the form resolved from the source product type.
+     */
+    interface MatrixReader {
+        void read(final int index, final ProductData[] dataBuffers, final double[][] Mr, final double[][] Mi);
+    }
+
+    /**
+     * Resolve how the C2 matrix of a source pixel is read, once per tile.
+     *
+     * @param sourceProductType The source product type.
+     * @return The reader of the C2 matrix.
+     * @throws OperatorException If the product type is not a compact or dual pol type.
+     */
+    default MatrixReader getC2MatrixReader(final PolBandUtils.MATRIX sourceProductType) {
+
+        if (sourceProductType == PolBandUtils.MATRIX.LCHCP ||
+                sourceProductType == PolBandUtils.MATRIX.RCHCP ||
+                sourceProductType == PolBandUtils.MATRIX.DUAL_HH_HV ||
+                sourceProductType == PolBandUtils.MATRIX.DUAL_VH_VV ||
+                sourceProductType == PolBandUtils.MATRIX.DUAL_HH_VV) {
+            final double[] Kr = new double[2];
+            final double[] Ki = new double[2];
+            return (index, dataBuffers, Cr, Ci) -> {
+                getScatterVector(index, dataBuffers, Kr, Ki);
+                computeCovarianceMatrixC2(Kr, Ki, Cr, Ci);
+            };
+        } else if (sourceProductType == PolBandUtils.MATRIX.C2) {
+            return this::getCovarianceMatrixC2;
+        }
+        throw new OperatorException("Cp or dual pol product is expected.");
+    }
+
+    /**
+     * Resolve how the T3 (or C3) matrix of a source pixel is read, once per tile.
+     *
+     * @param sourceProductType The source product type.
+     * @return The reader of the T3 (or C3) matrix.
+     * @throws OperatorException If the product type is not a quad pol type.
+     */
+    default MatrixReader getT3MatrixReader(final PolBandUtils.MATRIX sourceProductType) {
+
+        if (sourceProductType == PolBandUtils.MATRIX.FULL) {
+            final double[][] Sr = new double[2][2];
+            final double[][] Si = new double[2][2];
+            return (index, dataBuffers, Mr, Mi) -> {
+                getComplexScatterMatrix(index, dataBuffers, Sr, Si);
+                computeCoherencyMatrixT3(Sr, Si, Mr, Mi);
+            };
+        } else if (sourceProductType == PolBandUtils.MATRIX.T3) {
+            return this::getCoherencyMatrixT3;
+        } else if (sourceProductType == PolBandUtils.MATRIX.C3) {
+            return this::getCovarianceMatrixC3;
+        }
+        throw new OperatorException("Polarimetric Matrix not supported");
+    }
+
+    // The pixel value of the span image is given by the trace of the covariance or coherence matrix for the pixel.
+    static double getC2Span(final double[][] Cr) {
+        return (Cr[0][0] + Cr[1][1]) / 2.0;
+    }
+
+    static double getT3Span(final double[][] Mr) {
+        return (Mr[0][0] + Mr[1][1] + Mr[2][2]) / 4.0;
+    }
+
     /**
      * Create Span image.
      *
@@ -106,7 +198,6 @@ public interface PolarimetricSpeckleFilter extends DualPolProcessor, QuadPolProc
                                    final double[][] data11Real, final double[][] data12Real, final double[][] data12Imag,
                                    final double[][] data22Real, final double[][] span) {
 
-        // The pixel value of the span image is given by the trace of the covariance or coherence matrix for the pixel.
         final int sx0 = sourceRectangle.x;
         final int sy0 = sourceRectangle.y;
         final int sw = sourceRectangle.width;
@@ -116,57 +207,25 @@ public interface PolarimetricSpeckleFilter extends DualPolProcessor, QuadPolProc
 
         final TileIndex srcIndex = new TileIndex(srcTile);
 
+        final MatrixReader matrixReader = getC2MatrixReader(sourceProductType);
         final double[][] Cr = new double[2][2];
         final double[][] Ci = new double[2][2];
 
-        if (sourceProductType == PolBandUtils.MATRIX.LCHCP ||
-                sourceProductType == PolBandUtils.MATRIX.RCHCP ||
-                sourceProductType == PolBandUtils.MATRIX.DUAL_HH_HV ||
-                sourceProductType == PolBandUtils.MATRIX.DUAL_VH_VV ||
-                sourceProductType == PolBandUtils.MATRIX.DUAL_HH_VV) {
-
-            final double[] Kr = new double[2];
-            final double[] Ki = new double[2];
+        for (int y = sy0; y < maxY; ++y) {
+            final int j = y - sy0;
+            srcIndex.calculateStride(y);
+            for (int x = sx0; x < maxX; ++x) {
+                final int i = x - sx0;
+                final int index = srcIndex.getIndex(x);
 
-            for (int y = sy0; y < maxY; ++y) {
-                final int j = y - sy0;
-                srcIndex.calculateStride(y);
-                for (int x = sx0; x < maxX; ++x) {
-                    final int i = x - sx0;
-                    final int index = srcIndex.getIndex(x);
-
-                    getScatterVector(index, dataBuffers, Kr, Ki);
-                    computeCovarianceMatrixC2(Kr, Ki, Cr, Ci);
-
-                    data11Real[j][i] = Cr[0][0];
-                    data12Real[j][i] = Cr[0][1];
-                    data12Imag[j][i] = Ci[0][1];
-                    data22Real[j][i] = Cr[1][1];
-                    span[j][i] = (Cr[0][0] + Cr[1][1]) / 2.0;
-                }
-            }
+                matrixReader.read(index, dataBuffers, Cr, Ci);
 
-        } else if (sourceProductType == PolBandUtils.MATRIX.C2) {
-
-            for (int y = sy0; y < maxY; ++y) {
-                final int j = y - sy0;
-                srcIndex.calculateStride(y);
-                for (int x = sx0; x < maxX; ++x) {
-                    final int i = x - sx0;
-                    final int index = srcIndex.getIndex(x);
-
-                    getCovarianceMatrixC2(index, dataBuffers, Cr, Ci);
-
-                    data11Real[j][i] = Cr[0][0];
-                    data12Real[j][i] = Cr[0][1];
-                    data12Imag[j][i] = Ci[0][1];
-                    data22Real[j][i] = Cr[1][1];
-                    span[j][i] = (Cr[0][0] + Cr[1][1]) / 2.0;
-                }
+                data11Real[j][i] = Cr[0][0];
+                data12Real[j][i] = Cr[0][1];
+                data12Imag[j][i] = Ci[0][1];
+                data22Real[j][i] = Cr[1][1];
+                span[j][i] = getC2Span(Cr);
             }
-
-        } else {
-            throw new OperatorException("Cp or dual pol product is expected.");
         }
     }
 
@@ -182,7 +241,6 @@ public interface PolarimetricSpeckleFilter extends DualPolProcessor, QuadPolProc
                                    final double[][] data13Imag, final double[][] data22Real, final double[][] data23Real,
                                    final double[][] data23Imag, final double[][] data33Real, final double[][] span) {
 
-        // The pixel value of the span image is given by the trace of the covariance or coherence matrix for the pixel.
         final int sx0 = sourceRectangle.x;
         final int sy0 = sourceRectangle.y;
         final int sw = sourceRectangle.width;
@@ -192,87 +250,115 @@ public interface PolarimetricSpeckleFilter extends DualPolProcessor, QuadPolProc
 
         final TileIndex srcIndex = new TileIndex(srcTile);
 
+        final MatrixReader matrixReader = getT3MatrixReader(sourceProductType);
         final double[][] Mr = new double[3][3];
         final double[][] Mi = new double[3][3];
 
-        if (sourceProductType == PolBandUtils.MATRIX.FULL) {
+        for (int y = sy0; y < maxY; ++y) {
+            final int j = y - sy0;
+            srcIndex.calculateStride(y);
+            for (int x = sx0; x < maxX; ++x) {
+                final int i = x - sx0;
+                final int index = srcIndex.getIndex(x);
+
+                matrixReader.read(index, dataBuffers, Mr, Mi);
+
+                data11Real[j][i] = Mr[0][0];
+                data12Real[j][i] = Mr[0][1];
+                data12Imag[j][i] = Mi[0][1];
+                data13Real[j][i] = Mr[0][2];
+                data13Imag[j][i] = Mi[0][2];
+                data22Real[j][i] = Mr[1][1];
+                data23Real[j][i] = Mr[1][2];
+                data23Imag[j][i] = Mi[1][2];
+                data33Real[j][i] = Mr[2][2];
+                span[j][i] = getT3Span(Mr);
+            }
+        }
+    }
 
-            final double[][] Sr = new double[2][2];
-            final double[][] Si = new double[2][2];
+    /**
+     * Create the C2 elements and the span image as planes of the source rectangle.
+     *
+     * @param sourceRectangle The source tile rectangle.
+     * @param planes          C11, C12_real, C12_imag and C22 as [4][sw * sh].
+     * @param span            The span image as [sw * sh].
+     */
+    default void createC2SpanPlanes(final Tile srcTile, final PolBandUtils.MATRIX sourceProductType,
+                                    final Rectangle sourceRectangle, final ProductData[] dataBuffers,
+                                    final float[][] planes, final float[] span) {
 
-            for (int y = sy0; y < maxY; ++y) {
-                final int j = y - sy0;
-                srcIndex.calculateStride(y);
-                for (int x = sx0; x < maxX; ++x) {
-                    final int i = x - sx0;
-
-                    final int index = srcIndex.getIndex(x);
-                    getComplexScatterMatrix(index, dataBuffers, Sr, Si);
-                    computeCoherencyMatrixT3(Sr, Si, Mr, Mi);
-
-                    data11Real[j][i] = Mr[0][0];
-                    data12Real[j][i] = Mr[0][1];
-                    data12Imag[j][i] = Mi[0][1];
-                    data13Real[j][i] = Mr[0][2];
-                    data13Imag[j][i] = Mi[0][2];
-                    data22Real[j][i] = Mr[1][1];
-                    data23Real[j][i] = Mr[1][2];
-                    data23Imag[j][i] = Mi[1][2];
-                    data33Real[j][i] = Mr[2][2];
-                    span[j][i] = (Mr[0][0] + Mr[1][1] + Mr[2][2]) / 4.0;
-                }
-            }
+        final int sx0 = sourceRectangle.x;
+        final int sy0 = sourceRectangle.y;
+        final int sw = sourceRectangle.width;
+        final int sh = sourceRectangle.height;
+        final int maxY = sy0 + sh;
+        final int maxX = sx0 + sw;
 
-        } else if (sourceProductType == PolBandUtils.MATRIX.T3) {
+        final TileIndex srcIndex = new TileIndex(srcTile);
 
-            for (int y = sy0; y < maxY; ++y) {
-                final int j = y - sy0;
-                srcIndex.calculateStride(y);
-                for (int x = sx0; x < maxX; ++x) {
-                    final int i = x - sx0;
-
-                    final int index = srcIndex.getIndex(x);
-                    getCoherencyMatrixT3(index, dataBuffers, Mr, Mi);
-
-                    data11Real[j][i] = Mr[0][0];
-                    data12Real[j][i] = Mr[0][1];
-                    data12Imag[j][i] = Mi[0][1];
-                    data13Real[j][i] = Mr[0][2];
-                    data13Imag[j][i] = Mi[0][2];
-                    data22Real[j][i] = Mr[1][1];
-                    data23Real[j][i] = Mr[1][2];
-                    data23Imag[j][i] = Mi[1][2];
-                    data33Real[j][i] = Mr[2][2];
-                    span[j][i] = (Mr[0][0] + Mr[1][1] + Mr[2][2]) / 4.0;
-                }
+        final MatrixReader matrixReader = getC2MatrixReader(sourceProductType);
+        final double[][] Cr = new double[2][2];
+        final double[][] Ci = new double[2][2];
+
+        for (int y = sy0; y < maxY; ++y) {
+            final int offset = (y - sy0) * sw - sx0;
+            srcIndex.calculateStride(y);
+            for (int x = sx0; x < maxX; ++x) {
+                matrixReader.read(srcIndex.getIndex(x), dataBuffers, Cr, Ci);
+
+                final int i = offset + x;
+                planes[0][i] = (float) Cr[0][0];
+                planes[1][i] = (float) Cr[0][1];
+                planes[2][i] = (float) Ci[0][1];
+                planes[3][i] = (float) Cr[1][1];
+                span[i] = (float) getC2Span(Cr);
             }
+        }
+    }
 
-        } else if (sourceProductType == PolBandUtils.MATRIX.C3) {
+    /**
+     * Create the T3 (or C3) elements and the span image as planes of the source rectangle.
+     *
+     * @param sourceRectangle The source tile rectangle.
+     * @param planes          The elements in the order of T3Elem as [9][sw * sh].
+     * @param span            The span image as [sw * sh].
+     */
+    default void createT3SpanPlanes(final Tile srcTile, final PolBandUtils.MATRIX sourceProductType,
+                                    final Rectangle sourceRectangle, final ProductData[] dataBuffers,
+                                    final float[][] planes, final float[] span) {
 
-            for (int y = sy0; y < maxY; ++y) {
-                final int j = y - sy0;
-                srcIndex.calculateStride(y);
-                for (int x = sx0; x < maxX; ++x) {
-                    final int i = x - sx0;
-
-                    final int index = srcIndex.getIndex(x);
-                    getCovarianceMatrixC3(index, dataBuffers, Mr, Mi);
-
-                    data11Real[j][i] = Mr[0][0];
-                    data12Real[j][i] = Mr[0][1];
-                    data12Imag[j][i] = Mi[0][1];
-                    data13Real[j][i] = Mr[0][2];
-                    data13Imag[j][i] = Mi[0][2];
-                    data22Real[j][i] = Mr[1][1];
-                    data23Real[j][i] = Mr[1][2];
-                    data23Imag[j][i] = Mi[1][2];
-                    data33Real[j][i] = Mr[2][2];
-                    span[j][i] = (Mr[0][0] + Mr[1][1] + Mr[2][2]) / 4.0;
-                }
-            }
+        final int sx0 = sourceRectangle.x;
+        final int sy0 = sourceRectangle.y;
+        final int sw = sourceRectangle.width;
+        final int sh = sourceRectangle.height;
+        final int maxY = sy0 + sh;
+        final int maxX = sx0 + sw;
 
-        } else {
-            throw new OperatorException("Polarimetric Matrix not supported");
+        final TileIndex srcIndex = new TileIndex(srcTile);
+
+        final MatrixReader matrixReader = getT3MatrixReader(sourceProductType);
+        final double[][] Mr = new double[3][3];
+        final double[][] Mi = new double[3][3];
+
+        for (int y = sy0; y < maxY; ++y) {
+            final int offset = (y - sy0) * sw - sx0;
+            srcIndex.calculateStride(y);
+            for (int x = sx0; x < maxX; ++x) {
+                matrixReader.read(srcIndex.getIndex(x), dataBuffers, Mr, Mi);
+
+                final int i = offset + x;
+                planes[0][i] = (float) Mr[0][0];
+                planes[1][i] = (float) Mr[0][1];
+                planes[2][i] = (float) Mi[0][1];
+                planes[3][i] = (float) Mr[0][2];
+                planes[4][i] = (float) Mi[0][2];
+                planes[5][i] = (float) Mr[1][1];
+                planes[6][i] = (float) Mr[1][2];
+                planes[7][i] = (float) Mi[1][2];
+                planes[8][i] = (float) Mr[2][2];
+                span[i] = (float) getT3Span(Mr);
+            }
         }
     }
 }
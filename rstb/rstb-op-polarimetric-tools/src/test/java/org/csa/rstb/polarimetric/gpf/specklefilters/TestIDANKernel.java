@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.csa.rstb.polarimetric.gpf.specklefilters;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * IDAN kernel against the region growing of IDAN before the kernel, on synthetic quad-pol and dual-pol patches
+ */
+public class TestIDANKernel {
+
+    private static final int sw = 60;
+    private static final int sh = 50;
+    // position of the source rectangle in the image
+    private static final int sx0 = 100;
+    private static final int sy0 = 200;
+    private static final int numLooks = 1;
+
+    @Test
+    public void testT3_anSize50() {
+        compareT3(50, 1);
+    }
+
+    @Test
+    public void testT3_anSize100() {
+        compareT3(100, 2);
+    }
+
+    @Test
+    public void testC2_anSize50() {
+        compareC2(50, 3);
+    }
+
+    /**
+     * Complex scattering matrix of a patch with fields of different mean backscatter, a bright line
+     * and single look speckle, as in a RADARSAT-2 fine quad-pol SLC
+     *
+     * @return HH, HV, VV as [channel][re, im][pixel]
+     */
+    private static double[][][] createScatterMatrix(final long seed) {
+        final Random random = new Random(seed);
+        final double[][][] s = new double[3][2][sw * sh];
+        for (int r = 0; r < sh; ++r) {
+            for (int c = 0; c < sw; ++c) {
+                final int i = r * sw + c;
+                double[] sigma;
+                if (c == 37 || c == 38) {
+                    sigma = new double[]{900, 30, 700};
+                } else if (r < 20 && c < 30) {
+                    sigma = new double[]{40, 12, 35};
+                } else if (r + c < 60) {
+                    sigma = new double[]{120, 40, 90};
+                } else {
+                    sigma = new double[]{15, 3, 20};
+                }
+                for (int ch = 0; ch < 3; ++ch) {
+                    final double amplitude = Math.sqrt(sigma[ch] / 2);
+                    s[ch][0][i] = amplitude * random.nextGaussian();
+                    s[ch][1][i] = amplitude * random.nextGaussian();
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * T3 from the Pauli vector, stored as float as in a T3 product
+     */
+    private static float[][] createT3(final double[][][] s) {
+        final float[][] t = new float[9][sw * sh];
+        final double inv = 1 / Math.sqrt(2);
+        for (int i = 0; i < sw * sh; ++i) {
+            final double hhr = s[0][0][i], hhi = s[0][1][i];
+            final double hvr = s[1][0][i], hvi = s[1][1][i];
+            final double vvr = s[2][0][i], vvi = s[2][1][i];
+            final double[] kr = {(hhr + vvr) * inv, (hhr - vvr) * inv, 2 * hvr * inv};
+            final double[] ki = {(hhi + vvi) * inv, (hhi - vvi) * inv, 2 * hvi * inv};
+            t[0][i] = (float) (kr[0] * kr[0] + ki[0] * ki[0]);
+            t[1][i] = (float) (kr[0] * kr[1] + ki[0] * ki[1]);
+            t[2][i] = (float) (ki[0] * kr[1] - kr[0] * ki[1]);
+            t[3][i] = (float) (kr[0] * kr[2] + ki[0] * ki[2]);
+            t[4][i] = (float) (ki[0] * kr[2] - kr[0] * ki[2]);
+            t[5][i] = (float) (kr[1] * kr[1] + ki[1] * ki[1]);
+            t[6][i] = (float) (kr[1] * kr[2] + ki[1] * ki[2]);
+            t[7][i] = (float) (ki[1] * kr[2] - kr[1] * ki[2]);
+            t[8][i] = (float) (kr[2] * kr[2] + ki[2] * ki[2]);
+        }
+        return t;
+    }
+
+    /**
+     * C2 of HH and HV, stored as float as in a C2 product
+     */
+    private static float[][] createC2(final double[][][] s) {
+        final float[][] cm = new float[4][sw * sh];
+        for (int i = 0; i < sw * sh; ++i) {
+            final double hhr = s[0][0][i], hhi = s[0][1][i];
+            final double hvr = s[1][0][i], hvi = s[1][1][i];
+            cm[0][i] = (float) (hhr * hhr + hhi * hhi);
+            cm[1][i] = (float) (hhr * hvr + hhi * hvi);
+            cm[2][i] = (float) (hhi * hvr - hhr * hvi);
+            cm[3][i] = (float) (hvr * hvr + hvi * hvi);
+        }
+        return cm;
+    }
+
+    private void compareT3(final int anSize, final long seed) {
+        final float[][] planes = createT3(createScatterMatrix(seed));
+        final double[][][] data = toRows(planes);
+        final double[][] span = new double[sh][sw];
+        final float[] spanPlane = new float[sw * sh];
+        for (int r = 0; r < sh; ++r) {
+            for (int c = 0; c < sw; ++c) {
+                span[r][c] = (data[0][r][c] + data[5][r][c] + data[8][r][c]) / 4.0;
+                spanPlane[r * sw + c] = (float) span[r][c];
+            }
+        }
+
+        final Reference reference = new Reference(anSize, numLooks);
+        final double sigmaV = reference.sigmaV;
+        final IDANKernel kernel = new IDANKernel(anSize, sigmaV, 2 * sigmaV, 6 * sigmaV);
+        kernel.setSource(planes, new int[]{0, 5, 8}, spanPlane, sw, sh);
+
+        compare(kernel, data, span, (x, y) -> reference.getIDANPixels(x, y, sx0, sy0, sw, sh,
+                                                                      data[0], data[5], data[8],
+                                                                      reference.getInitialSeed(x, y, data[0], data[5], data[8])),
+                reference, anSize);
+    }
+
+    private void compareC2(final int anSize, final long seed) {
+        final float[][] planes = createC2(createScatterMatrix(seed));
+        final double[][][] data = toRows(planes);
+        final double[][] span = new double[sh][sw];
+        final float[] spanPlane = new float[sw * sh];
+        for (int r = 0; r < sh; ++r) {
+            for (int c = 0; c < sw; ++c) {
+                span[r][c] = (data[0][r][c] + data[3][r][c]) / 2.0;
+                spanPlane[r * sw + c] = (float) span[r][c];
+            }
+        }
+
+        final Reference reference = new Reference(anSize, numLooks);
+        final double sigmaV = reference.sigmaV;
+        final IDANKernel kernel = new IDANKernel(anSize, sigmaV, 4 / 3 * sigmaV, 4 * sigmaV);
+        kernel.setSource(planes, new int[]{0, 3}, spanPlane, sw, sh);
+
+        compare(kernel, data, span, (x, y) -> reference.getIDANPixels(x, y, sx0, sy0, sw, sh,
+                                                                      data[0], data[3],
+                                                                      reference.getInitialSeed(x, y, data[0], data[3])),
+                reference, anSize);
+    }
+
+    private interface Neighbourhood {
+        Pix[] get(int x, int y);
+    }
+
+    private static void compare(final IDANKernel kernel, final double[][][] data, final double[][] span,
+                                final Neighbourhood neighbourhood, final Reference reference, final int anSize) {
+        final double[] values = new double[data.length];
+        int numLarge = 0;
+        for (int y = sy0; y < sy0 + sh; ++y) {
+            for (int x = sx0; x < sx0 + sw; ++x) {
+                kernel.filter(x - sx0, y - sy0, values);
+
+                final Pix[] anPixelList = neighbourhood.get(x, y);
+                assertEquals(anPixelList.length, kernel.getANCount());
+                final int[] an = kernel.getAN();
+                for (int k = 0; k < anPixelList.length; ++k) {
+                    assertEquals((anPixelList[k].y - sy0) * sw + anPixelList[k].x - sx0, an[k]);
+                }
+                if (anPixelList.length >= anSize) {
+                    ++numLarge;
+                }
+
+                final double b = reference.computeFilterScaleParam(sx0, sy0, anPixelList, span);
+                for (int e = 0; e < data.length; ++e) {
+                    final double expected = Reference.getIDANFilteredValue(x, y, sx0, sy0, anPixelList, data[e], b);
+                    assertEquals(expected, values[e], 1e-5 * (Math.abs(expected) + span[y - sy0][x - sx0]));
+                }
+            }
+        }
+        // the region growing stops at anSize for a good part of the pixels
+        assertTrue(numLarge > sw * sh / 10);
+    }
+
+    private static double[][][] toRows(final float[][] planes) {
+        final double[][][] data = new double[planes.length][sh][sw];
+        for (int e = 0; e < planes.length; ++e) {
+            for (int r = 0; r < sh; ++r) {
+                for (int c = 0; c < sw; ++c) {
+                    data[e][r][c] = planes[e][r * sw + c];
+                }
+            }
+        }
+        return data;
+    }
+
+    private final static class Pix {
+        final int x, y;
+
+        Pix(final int xx, final int yy) {
+            x = xx;
+            y = yy;
+        }
+    }
+
+    private static class Seed {
+        final double[] value = new double[3];
+        final double[] absValue = new double[3];
+
+        void calculateAbsolutes() {
+            absValue[0] = Math.abs(value[0]);
+            absValue[1] = Math.abs(value[1]);
+            absValue[2] = Math.abs(value[2]);
+        }
+    }
+
+    /**
+     * The region growing and MMSE filtering of IDAN before the kernel
+     */
+    private static class Reference {
+
+        private final int anSize;
+        private final double sigmaV;
+        private final double sigmaVSqr;
+
+        Reference(final int anSize, final int numLooks) {
+            this.anSize = anSize;
+            sigmaV = 1.0 / Math.sqrt(numLooks);
+            sigmaVSqr = sigmaV * sigmaV;
+        }
+
+        Seed getInitialSeed(final int xc, final int yc, final double[][] data11Real, final double[][] data22Real) {
+            final double[] d11 = new double[9];
+            final double[] d22 = new double[9];
+            int k = 0;
+            for (int y = yc - 1; y <= yc + 1; y++) {
+                for (int x = xc - 1; x <= xc + 1; x++) {
+                    if (x >= sx0 && x < sx0 + sw && y >= sy0 && y < sy0 + sh) {
+                        d11[k] = data11Real[y - sy0][x - sx0];
+                        d22[k] = data22Real[y - sy0][x - sx0];
+                        k++;
+                    }
+                }
+            }
+            Arrays.sort(d11, 0, k);
+            Arrays.sort(d22, 0, k);
+            final Seed seed = new Seed();
+            seed.value[0] = d11[k / 2];
+            seed.value[1] = d22[k / 2];
+            seed.calculateAbsolutes();
+            return seed;
+        }
+
+        Seed getInitialSeed(final int xc, final int yc, final double[][] data11Real, final double[][] data22Real,
+                            final double[][] data33Real) {
+            final double[] d11 = new double[9];
+            final double[] d22 = new double[9];
+            final double[] d33 = new double[9];
+            int k = 0;
+            for (int y = yc - 1; y <= yc + 1; y++) {
+                for (int x = xc - 1; x <= xc + 1; x++) {
+                    if (x >= sx0 && x < sx0 + sw && y >= sy0 && y < sy0 + sh) {
+                        d11[k] = data11Real[y - sy0][x - sx0];
+                        d22[k] = data22Real[y - sy0][x - sx0];
+                        d33[k] = data33Real[y - sy0][x - sx0];
+                        k++;
+                    }
+                }
+            }
+            Arrays.sort(d11, 0, k);
+            Arrays.sort(d22, 0, k);
+            Arrays.sort(d33, 0, k);
+            final Seed seed = new Seed();
+            seed.value[0] = d11[k / 2];
+            seed.value[1] = d22[k / 2];
+            seed.value[2] = d33[k / 2];
+            seed.calculateAbsolutes();
+            return seed;
+        }
+
+        Pix[] getIDANPixels(final int xc, final int yc, final int sx0, final int sy0, final int sw, final int sh,
+                            final double[][] data11Real, final double[][] data22Real, final Seed seed) {
+            final double threshold50 = 4 / 3 * sigmaV;
+            final List<Pix> anPixelList = new ArrayList<>(anSize);
+            final Pix[] bgPixelList = regionGrowing(xc, yc, sx0, sy0, sw, sh, data11Real, data22Real, null,
+                                                    seed, threshold50, anPixelList);
+
+            final Seed newSeed = new Seed();
+            if (!anPixelList.isEmpty()) {
+                for (Pix pixel : anPixelList) {
+                    newSeed.value[0] += data11Real[pixel.y - sy0][pixel.x - sx0];
+                    newSeed.value[1] += data22Real[pixel.y - sy0][pixel.x - sx0];
+                }
+                newSeed.value[0] /= anPixelList.size();
+                newSeed.value[1] /= anPixelList.size();
+            } else {
+                newSeed.value[0] = seed.value[0];
+                newSeed.value[1] = seed.value[1];
+            }
+            newSeed.calculateAbsolutes();
+
+            final double threshold95 = 4 * sigmaV;
+            for (final Pix pixel : bgPixelList) {
+                final int r = pixel.y - sy0;
+                final int c = pixel.x - sx0;
+                if (distance(data11Real[r][c], data22Real[r][c], newSeed) < threshold95) {
+                    anPixelList.add(new Pix(pixel.x, pixel.y));
+                }
+            }
+
+            if (anPixelList.isEmpty()) {
+                return new Pix[]{new Pix(xc, yc)};
+            }
+            return anPixelList.toArray(new Pix[anPixelList.size()]);
+        }
+
+        Pix[] getIDANPixels(final int xc, final int yc, final int sx0, final int sy0, final int sw, final int sh,
+                            final double[][] data11Real, final double[][] data22Real, final double[][] data33Real,
+                            final Seed seed) {
+            final double threshold50 = 2 * sigmaV;
+            final List<Pix> anPixelList = new ArrayList<>(anSize);
+            final Pix[] bgPixelList = regionGrowing(xc, yc, sx0, sy0, sw, sh, data11Real, data22Real, data33Real,
+                                                    seed, threshold50, anPixelList);
+
+            final Seed newSeed = new Seed();
+            if (!anPixelList.isEmpty()) {
+                for (Pix pixel : anPixelList) {
+                    newSeed.value[0] += data11Real[pixel.y - sy0][pixel.x - sx0];
+                    newSeed.value[1] += data22Real[pixel.y - sy0][pixel.x - sx0];
+                    newSeed.value[2] += data33Real[pixel.y - sy0][pixel.x - sx0];
+                }
+                newSeed.value[0] /= anPixelList.size();
+                newSeed.value[1] /= anPixelList.size();
+                newSeed.value[2] /= anPixelList.size();
+            } else {
+                newSeed.value[0] = seed.value[0];
+                newSeed.value[1] = seed.value[1];
+                newSeed.value[2] = seed.value[2];
+            }
+            newSeed.calculateAbsolutes();
+
+            final double threshold95 = 6 * sigmaV;
+            for (final Pix pixel : bgPixelList) {
+                final int r = pixel.y - sy0;
+                final int c = pixel.x - sx0;
+                if (distance(data11Real[r][c], data22Real[r][c], data33Real[r][c], newSeed) < threshold95) {
+                    anPixelList.add(new Pix(pixel.x, pixel.y));
+                }
+            }
+
+            if (anPixelList.isEmpty()) {
+                return new Pix[]{new Pix(xc, yc)};
+            }
+            return anPixelList.toArray(new Pix[anPixelList.size()]);
+        }
+
+        private double distance(final double[][][] planes, final int r, final int c, final Seed seed) {
+            return planes[2] == null ? distance(planes[0][r][c], planes[1][r][c], seed) :
+                    distance(planes[0][r][c], planes[1][r][c], planes[2][r][c], seed);
+        }
+
+        private Pix[] regionGrowing(final int xc, final int yc, final int sx0, final int sy0, final int sw,
+                                    final int sh, final double[][] data11Real, final double[][] data22Real,
+                                    final double[][] data33Real, final Seed seed, final double threshold,
+                                    final List<Pix> anPixelList) {
+            final double[][][] planes = {data11Real, data22Real, data33Real};
+            final int rc = yc - sy0;
+            final int cc = xc - sx0;
+            final Map<Integer, Boolean> visited = new HashMap<>(anSize + 8);
+            final List<Pix> bgPixelList = new ArrayList<>(anSize);
+
+            if (distance(planes, rc, cc, seed) < threshold) {
+                anPixelList.add(new Pix(xc, yc));
+            } else {
+                bgPixelList.add(new Pix(xc, yc));
+            }
+            visited.put(rc * sw + cc, true);
+
+            final List<Pix> front = new ArrayList<>(anSize);
+            front.add(new Pix(xc, yc));
+            final List<Pix> newfront = new ArrayList<>(anSize);
+
+            final int width = sx0 + sw;
+            final int height = sy0 + sh;
+            int r, c;
+            Integer index;
+
+            while (anPixelList.size() < anSize && !front.isEmpty()) {
+                newfront.clear();
+
+                for (final Pix p : front) {
+
+                    final int[] x = {p.x - 1, p.x, p.x + 1, p.x - 1, p.x + 1, p.x - 1, p.x, p.x + 1};
+                    final int[] y = {p.y - 1, p.y - 1, p.y - 1, p.y, p.y, p.y + 1, p.y + 1, p.y + 1};
+
+                    for (int i = 0; i < 8; i++) {
+
+                        if (x[i] >= sx0 && x[i] < width && y[i] >= sy0 && y[i] < height) {
+                            r = y[i] - sy0;
+                            c = x[i] - sx0;
+                            index = r * sw + c;
+                            if (visited.get(index) == null) {
+                                visited.put(index, true);
+                                final Pix newPos = new Pix(x[i], y[i]);
+                                if (distance(planes, r, c, seed) < threshold) {
+                                    anPixelList.add(newPos);
+                                    newfront.add(newPos);
+                                } else {
+                                    bgPixelList.add(newPos);
+                                }
+                            }
+                        }
+                    }
+                    if (anPixelList.size() > anSize) {
+                        break;
+                    }
+                }
+                front.clear();
+                front.addAll(newfront);
+            }
+            return bgPixelList.toArray(new Pix[bgPixelList.size()]);
+        }
+
+        private static double distance(final double p0, final double p1, final Seed seed) {
+            return Math.abs(p0 - seed.value[0]) / seed.absValue[0] +
+                    Math.abs(p1 - seed.value[1]) / seed.absValue[1];
+        }
+
+        private static double distance(final double p0, final double p1, final double p2, final Seed seed) {
+            return Math.abs(p0 - seed.value[0]) / seed.absValue[0] +
+                    Math.abs(p1 - seed.value[1]) / seed.absValue[1] +
+                    Math.abs(p2 - seed.value[2]) / seed.absValue[2];
+        }
+
+        double computeFilterScaleParam(final int sx0, final int sy0, final Pix[] anPixelList, final double[][] span) {
+            final double[] spanPixels = new double[anPixelList.length];
+            int k = 0;
+            for (Pix pixel : anPixelList) {
+                spanPixels[k++] = span[pixel.y - sy0][pixel.x - sx0];
+            }
+
+            double meanY = 0.0;
+            for (double v : spanPixels) {
+                meanY += v;
+            }
+            meanY /= spanPixels.length;
+            double varY = 0.0;
+            if (spanPixels.length > 1) {
+                for (double v : spanPixels) {
+                    varY += (v - meanY) * (v - meanY);
+                }
+                varY /= (spanPixels.length - 1);
+            }
+            if (varY == 0.0) {
+                return 0.0;
+            }
+            double varX = (varY - meanY * meanY * sigmaVSqr) / (1 + sigmaVSqr);
+            if (varX < 0.0) {
+                varX = 0.0;
+            }
+            return varX / varY;
+        }
+
+        static double getIDANFilteredValue(final int x, final int y, final int sx0, final int sy0,
+                                           final Pix[] anPixelList, final double[][] data, final double b) {
+            double mean = 0.0;
+            for (final Pix pixel : anPixelList) {
+                mean += data[pixel.y - sy0][pixel.x - sx0];
+            }
+            mean /= anPixelList.length;
+            return mean + b * (data[y - sy0][x - sx0] - mean);
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.csa.rstb.polarimetric.gpf.specklefilters;
+
+import org.csa.rstb.polarimetric.gpf.specklefilters.covariance.Covariance;
+import org.csa.rstb.polarimetric.gpf.specklefilters.covariance.CovarianceMatrix;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * NonLocal kernel against the pixel by pixel non-local filter before the kernel, on synthetic
+ * quad-pol and dual-pol images
+ */
+public class TestNonLocalKernel {
+
+    private static final int imageWidth = 64;
+    private static final int imageHeight = 56;
+    private static final int numLooks = 1;
+
+    @Test
+    public void testC3_window11_patch3() {
+        compare(3, 11, 3, 1, new Rectangle(24, 20, 16, 12));
+    }
+
+    @Test
+    public void testC3_imageCorner() {
+        compare(3, 11, 3, 1, new Rectangle(0, 0, 14, 10));
+    }
+
+    @Test
+    public void testC2_window11_patch3() {
+        compare(2, 11, 3, 1, new Rectangle(imageWidth - 16, 30, 16, 12));
+    }
+
+    @Test
+    public void testC2_window7_patch5_noScale() {
+        compare(2, 7, 5, 0, new Rectangle(20, imageHeight - 12, 16, 12));
+    }
+
+    private static void compare(final int matrixSize, final int windowSize, final int patchSize,
+                                final int scaleSize, final Rectangle targetRectangle) {
+
+        final double[][] image = createCovarianceMatrix(matrixSize, 5);
+        final Rectangle sourceRectangle = getSourceRectangle(
+                targetRectangle, windowSize / 2 + patchSize / 2 + scaleSize);
+        final int sx0 = sourceRectangle.x, sy0 = sourceRectangle.y;
+        final int sw = sourceRectangle.width, sh = sourceRectangle.height;
+
+        final int numElements = matrixSize * matrixSize;
+        final double[][] original = new double[numElements][sw * sh];
+        for (int e = 0; e < numElements; ++e) {
+            for (int y = 0; y < sh; ++y) {
+                System.arraycopy(image[e], (sy0 + y) * imageWidth + sx0, original[e], y * sw, sw);
+            }
+        }
+
+        final int w = targetRectangle.width, h = targetRectangle.height;
+        final double[][] filtered = new double[numElements][w * h];
+        final NonLocalKernel kernel = new NonLocalKernel(matrixSize, windowSize, patchSize, scaleSize, numLooks);
+        kernel.setSource(original, sw, sh);
+        kernel.filter(targetRectangle.x - sx0, targetRectangle.y - sy0, w, h, filtered);
+
+        final Reference reference = new Reference(matrixSize, windowSize, patchSize, scaleSize);
+        final double[][] expected = reference.filter(original, targetRectangle, sourceRectangle);
+
+        for (int e = 0; e < numElements; ++e) {
+            for (int i = 0; i < w * h; ++i) {
+                assertEquals(expected[e][i], filtered[e][i], 1e-9 * (1.0 + Math.abs(expected[e][i])));
+            }
+        }
+    }
+
+    /**
+     * The source rectangle of PolarimetricSpeckleFilterOp for the non-local filter
+     */
+    private static Rectangle getSourceRectangle(final Rectangle rect, final int extSize) {
+        final int sx0 = Math.max(rect.x - extSize, 0);
+        final int sy0 = Math.max(rect.y - extSize, 0);
+        final int sxMax = Math.min(rect.x + rect.width - 1 + extSize, imageWidth - 1);
+        final int syMax = Math.min(rect.y + rect.height - 1 + extSize, imageHeight - 1);
+        return new Rectangle(sx0, sy0, sxMax - sx0 + 1, syMax - sy0 + 1);
+    }
+
+    /**
+     * Covariance matrices averaged over a few single look samples, in fields of different backscatter
+     *
+     * @return the elements in the order of the source bands as [element][pixel]
+     */
+    private static double[][] createCovarianceMatrix(final int matrixSize, final int numSamples) {
+        final Random random = new Random(matrixSize);
+        final double[][] c = new double[matrixSize * matrixSize][imageWidth * imageHeight];
+        final double[] kr = new double[matrixSize];
+        final double[] ki = new double[matrixSize];
+        for (int y = 0; y < imageHeight; ++y) {
+            for (int x = 0; x < imageWidth; ++x) {
+                final int i = y * imageWidth + x;
+                final double scale = 10 + 40 * (((x / 16) * 3 + (y / 16)) % 4);
+                for (int n = 0; n < numSamples; ++n) {
+                    for (int k = 0; k < matrixSize; ++k) {
+                        final double amplitude = Math.sqrt(scale / (k + 1) / 2);
+                        kr[k] = amplitude * random.nextGaussian();
+                        ki[k] = amplitude * random.nextGaussian();
+                    }
+                    int e = 0;
+                    for (int k = 0; k < matrixSize; ++k) {
+                        for (int l = k; l < matrixSize; ++l) {
+                            // k_k * conj(k_l)
+                            c[e++][i] += (kr[k] * kr[l] + ki[k] * ki[l]) / numSamples;
+                            if (l != k) {
+                                c[e++][i] += (ki[k] * kr[l] - kr[k] * ki[l]) / numSamples;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * The non-local filter as computed by NonLocal before the kernel
+     */
+    private static class Reference {
+
+        private final int halfWindowSize;
+        private final int patchSize, halfPatchSize;
+        private final int scaleSize;
+        private final int matrixSize;
+        private final double gamma;
+        private final double matrixSizeTwoLog2;
+
+        private static final double TwoLog2 = 1.386294361119890572453527965990;
+
+        Reference(final int matrixSize, final int windowSize, final int patchSize, final int scaleSize) {
+            this.matrixSize = matrixSize;
+            this.halfWindowSize = windowSize / 2;
+            this.patchSize = patchSize;
+            this.halfPatchSize = patchSize / 2;
+            this.scaleSize = scaleSize;
+            this.gamma = Math.min((double) numLooks / (double) matrixSize, 1.0);
+            this.matrixSizeTwoLog2 = matrixSize * TwoLog2;
+        }
+
+        double[][] filter(final double[][] original, final Rectangle targetRectangle, final Rectangle sourceRectangle) {
+            final int x0 = targetRectangle.x, y0 = targetRectangle.y;
+            final int w = targetRectangle.width, h = targetRectangle.height;
+            final int sx0 = sourceRectangle.x, sy0 = sourceRectangle.y;
+            final int sw = sourceRectangle.width, sh = sourceRectangle.height;
+
+            final Covariance[][] originalMatrix = new Covariance[sh][sw];
+            for (int yy = 0; yy < sh; ++yy) {
+                for (int xx = 0; xx < sw; ++xx) {
+                    originalMatrix[yy][xx] = createMatrix(original, yy * sw + xx);
+                }
+            }
+
+            final Covariance[][] preEstimatedMatrix = new Covariance[sh][sw];
+            if (scaleSize > 0) {
+                performGaussianFiltering(sx0, sy0, sx0 + sw, sy0 + sh, originalMatrix, preEstimatedMatrix);
+            } else {
+                for (int yy = 0; yy < sh; ++yy) {
+                    for (int xx = 0; xx < sw; ++xx) {
+                        preEstimatedMatrix[yy][xx] = originalMatrix[yy][xx].clone();
+                    }
+                }
+            }
+            for (int yy = 0; yy < sh; ++yy) {
+                for (int xx = 0; xx < sw; ++xx) {
+                    preEstimatedMatrix[yy][xx].rescaleMatrix(gamma);
+                }
+            }
+
+            final double[][] filtered = new double[matrixSize * matrixSize][w * h];
+            for (int y = y0; y < y0 + h; ++y) {
+                for (int x = x0; x < x0 + w; ++x) {
+                    final double[][] weight = computeWeights(x, y, sx0, sy0, preEstimatedMatrix);
+                    final double totalWeight = getTotalWeight(weight);
+                    final Covariance sigmaNL = computeWeightedEstimate(x, y, sx0, sy0, weight, totalWeight, originalMatrix);
+
+                    final Covariance sigmaNLBR = matrixSize == 3 ? new CovarianceMatrix.C3() : new CovarianceMatrix.C2();
+                    performBiasReduction(x, y, sx0, sy0, weight, totalWeight, originalMatrix, sigmaNL, sigmaNLBR);
+
+                    getElements(sigmaNLBR, (y - y0) * w + x - x0, filtered);
+                }
+            }
+            return filtered;
+        }
+
+        private Covariance createMatrix(final double[][] planes, final int i) {
+            if (matrixSize == 3) {
+                final CovarianceMatrix.C3 c3 = new CovarianceMatrix.C3();
+                c3.Cr[0][0] = planes[0][i];
+                c3.Cr[0][1] = planes[1][i];
+                c3.Ci[0][1] = planes[2][i];
+                c3.Cr[0][2] = planes[3][i];
+                c3.Ci[0][2] = planes[4][i];
+                c3.Cr[1][1] = planes[5][i];
+                c3.Cr[1][2] = planes[6][i];
+                c3.Ci[1][2] = planes[7][i];
+                c3.Cr[2][2] = planes[8][i];
+                c3.Cr[1][0] = c3.Cr[0][1];
+                c3.Ci[1][0] = -c3.Ci[0][1];
+                c3.Cr[2][0] = c3.Cr[0][2];
+                c3.Ci[2][0] = -c3.Ci[0][2];
+                c3.Cr[2][1] = c3.Cr[1][2];
+                c3.Ci[2][1] = -c3.Ci[1][2];
+                return c3;
+            }
+            final CovarianceMatrix.C2 c2 = new CovarianceMatrix.C2();
+            c2.Cr[0][0] = planes[0][i];
+            c2.Cr[0][1] = planes[1][i];
+            c2.Ci[0][1] = planes[2][i];
+            c2.Cr[1][1] = planes[3][i];
+            c2.Cr[1][0] = c2.Cr[0][1];
+            c2.Ci[1][0] = -c2.Ci[0][1];
+            return c2;
+        }
+
+        private void getElements(final Covariance matrix, final int i, final double[][] planes) {
+            final double[][] Cr = matrix.getRealCovarianceMatrix();
+            final double[][] Ci = matrix.getImagCovarianceMatrix();
+            if (matrixSize == 3) {
+                planes[0][i] = Cr[0][0];
+                planes[1][i] = Cr[0][1];
+                planes[2][i] = Ci[0][1];
+                planes[3][i] = Cr[0][2];
+                planes[4][i] = Ci[0][2];
+                planes[5][i] = Cr[1][1];
+                planes[6][i] = Cr[1][2];
+                planes[7][i] = Ci[1][2];
+                planes[8][i] = Cr[2][2];
+            } else {
+                planes[0][i] = Cr[0][0];
+                planes[1][i] = Cr[0][1];
+                planes[2][i] = Ci[0][1];
+                planes[3][i] = Cr[1][1];
+            }
+        }
+
+        private void performGaussianFiltering(final int sx0, final int sy0, final int sxMax, final int syMax,
+                                              final Covariance[][] originalMatrix,
+                                              final Covariance[][] preEstimatedMatrix) {
+
+            final double[][] weight = new double[2 * scaleSize + 1][2 * scaleSize + 1];
+            final double sigma2 = (scaleSize + 0.5) * (scaleSize + 0.5);
+            double totalWeight = 0.0;
+            for (int i = -scaleSize; i <= scaleSize; ++i) {
+                final int ii = i + scaleSize;
+                final int i2 = i * i;
+                for (int j = -scaleSize; j <= scaleSize; ++j) {
+                    final double w = Math.exp(-Math.PI * (i2 + j * j) / sigma2);
+                    weight[ii][j + scaleSize] = w;
+                    totalWeight += w;
+                }
+            }
+
+            for (int i = -scaleSize; i <= scaleSize; ++i) {
+                for (int j = -scaleSize; j <= scaleSize; ++j) {
+                    weight[i + scaleSize][j + scaleSize] /= totalWeight;
+                }
+            }
+
+            final int sw = sxMax - sx0;
+            final int sh = syMax - sy0;
+            for (int y = sy0; y < syMax; ++y) {
+                final int yy = y - sy0;
+                for (int x = sx0; x < sxMax; ++x) {
+                    final int xx = x - sx0;
+                    if (matrixSize == 3) {
+                        preEstimatedMatrix[yy][xx] = new CovarianceMatrix.C3();
+                    } else {
+                        preEstimatedMatrix[yy][xx] = new CovarianceMatrix.C2();
+                    }
+
+                    for (int i = -scaleSize; i <= scaleSize; ++i) {
+                        final int dyy = yy + i;
+                        if (dyy < 0 || dyy > sh - 1) {
+                            continue;
+                        }
+                        final int ii = i + scaleSize;
+
+                        for (int j = -scaleSize; j <= scaleSize; ++j) {
+                            final int dxx = xx + j;
+                            if (dxx < 0 || dxx > sw - 1) {
+                                continue;
+                            }
+
+                            preEstimatedMatrix[yy][xx].addWeightedCovarianceMatrix(
+                                    weight[ii][j + scaleSize], originalMatrix[dyy][dxx]);
+                        }
+                    }
+                }
+            }
+        }
+
+        private double[][] computeWeights(final int xc, final int yc, final int sx0, final int sy0,
+                                          final Covariance[][] preEstimatedMatrix) {
+
+            final int xSt = Math.max(xc - halfWindowSize, 0);
+            final int ySt = Math.max(yc - halfWindowSize, 0);
+            final int xEd = Math.min(xc + halfWindowSize, imageWidth - 1);
+            final int yEd = Math.min(yc + halfWindowSize, imageHeight - 1);
+
+            // No normalization is needed. We want w(x,x) = 1
+            final double h = 1.0 / 3.0; // filtering parameter
+            final double[][] weight = new double[yEd - ySt + 1][xEd - xSt + 1];
+            for (int y = ySt; y <= yEd; ++y) {
+                final int yy = y - ySt;
+                for (int x = xSt; x <= xEd; ++x) {
+                    final int xx = x - xSt;
+                    final double delta = computeDissimilarity(xc, yc, x, y, sx0, sy0, preEstimatedMatrix);
+                    if (delta < 0.0) {
+                        weight[yy][xx] = 0.0;
+                    } else {
+                        weight[yy][xx] = Math.exp(-delta / h);
+                    }
+                }
+            }
+
+            return weight;
+        }
+
+        private double computeDissimilarity(
+                final int xc1, final int yc1, final int xc2, final int yc2, final int sx0, final int sy0,
+                final Covariance[][] preEstimatedMatrix) {
+
+            double dissimilarity = 0.0;
+            boolean validPixel = false;
+            for (int i = 0; i < patchSize; ++i) {
+                final int y1 = yc1 - halfPatchSize + i;
+                final int y2 = yc2 - halfPatchSize + i;
+                if (y1 < 0 || y1 >= imageHeight || y2 < 0 || y2 >= imageHeight) {
+                    continue;
+                }
+                final int dy1 = y1 - sy0;
+                final int dy2 = y2 - sy0;
+
+                for (int j = 0; j < patchSize; ++j) {
+                    final int x1 = xc1 - halfPatchSize + j;
+                    final int x2 = xc2 - halfPatchSize + j;
+                    if (x1 < 0 || x1 >= imageWidth || x2 < 0 || x2 >= imageWidth) {
+                        continue;
+                    }
+                    final int dx1 = x1 - sx0;
+                    final int dx2 = x2 - sx0;
+
+                    final Covariance C12 = preEstimatedMatrix[dy1][dx1].clone();
+
+                    C12.addCovarianceMatrix(preEstimatedMatrix[dy2][dx2]);
+
+                    final double detC12 = C12.getDeterminant();
+                    final double detC1 = preEstimatedMatrix[dy1][dx1].getDeterminant();
+                    final double detC2 = preEstimatedMatrix[dy2][dx2].getDeterminant();
+
+                    if (detC12 * detC1 * detC2 <= 0.0) {
+                        continue;
+                    }
+
+                    dissimilarity += -Math.log(detC1 * detC2 / (detC12 * detC12)) - matrixSizeTwoLog2;
+                    validPixel = true;
+                }
+            }
+
+            if (validPixel) {
+                return dissimilarity;
+            } else {
+                return -1.0;
+            }
+        }
+
+        private Covariance computeWeightedEstimate(
+                final int xc, final int yc, final int sx0, final int sy0, final double[][] weight,
+                final double totalWeight, final Covariance[][] originalMatrix) {
+
+            final int xSt = Math.max(xc - halfWindowSize, 0);
+            final int ySt = Math.max(yc - halfWindowSize, 0);
+            final int xEd = Math.min(xc + halfWindowSize, imageWidth - 1);
+            final int yEd = Math.min(yc + halfWindowSize, imageHeight - 1);
+
+            final Covariance avgC;
+            if (matrixSize == 3) {
+                avgC = new CovarianceMatrix.C3();
+            } else {
+                avgC = new CovarianceMatrix.C2();
+            }
+            for (int y = ySt; y <= yEd; ++y) {
+                final int yy = y - ySt;
+                final int i = y - sy0;
+                for (int x = xSt; x <= xEd; ++x) {
+                    avgC.addWeightedCovarianceMatrix(weight[yy][x - xSt] / totalWeight, originalMatrix[i][x - sx0]);
+                }
+            }
+
+            return avgC;
+        }
+
+        private void performBiasReduction(
+                final int xc, final int yc, final int sx0, final int sy0, final double[][] weight,
+                final double totalWeight, final Covariance[][] originalMatrix, final Covariance sigmaNL,
+                final Covariance sigmaNLBR) {
+
+            final int xSt = Math.max(xc - halfWindowSize, 0);
+            final int ySt = Math.max(yc - halfWindowSize, 0);
+            final int xEd = Math.min(xc + halfWindowSize, imageWidth - 1);
+            final int yEd = Math.min(yc + halfWindowSize, imageHeight - 1);
+
+            // compute weighted variance
+            final double[] diagNL = sigmaNL.getDiagonalElements();
+            final double[] varNL = new double[matrixSize];
+            for (int j = 0; j < matrixSize; ++j) {
+                varNL[j] = -diagNL[j] * diagNL[j];
+            }
+
+            for (int y = ySt; y <= yEd; ++y) {
+                final int yy = y - ySt;
+                final int i = y - sy0;
+                for (int x = xSt; x <= xEd; ++x) {
+                    final int xx = x - xSt;
+                    final double[] diagOri = originalMatrix[i][x - sx0].getDiagonalElements();
+                    for (int j = 0; j < matrixSize; ++j) {
+                        varNL[j] += (weight[yy][xx] / totalWeight) * diagOri[j] * diagOri[j];
+                    }
+                }
+            }
+
+            // compute alpha
+            double alpha = 0.0;
+            for (int j = 0; j < matrixSize; ++j) {
+                alpha = Math.max(alpha, 1.0 - diagNL[j] * diagNL[j] / (varNL[j] * numLooks));
+            }
+
+            // bias reduction
+            sigmaNLBR.addWeightedCovarianceMatrix(1 - alpha, sigmaNL);
+
+            sigmaNLBR.addWeightedCovarianceMatrix(alpha, originalMatrix[yc - sy0][xc - sx0]);
+        }
+
+        private static double getTotalWeight(final double[][] weight) {
+
+            final int cols = weight[0].length;
+
+            double totalWeight = 0.0;
+            for (double[] aWeight : weight) {
+                for (int c = 0; c < cols; ++c) {
+                    totalWeight += aWeight[c];
+                }
+            }
+
+            return totalWeight;
+        }
+    }
+}
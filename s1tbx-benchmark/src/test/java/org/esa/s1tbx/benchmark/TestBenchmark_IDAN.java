@@ -0,0 +1,82 @@
+package org.esa.s1tbx.benchmark;
+
+import org.csa.rstb.polarimetric.gpf.specklefilters.IDANKernel;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * IDAN region growing and filtering of a quad-pol T3 tile, with the source rectangle of the operator
+ */
+public class TestBenchmark_IDAN {
+
+    private final static int tileSize = 256;
+    private final static int numTiles = 4;
+
+    @Test
+    public void testIDAN_anSize50() throws Exception {
+        idan(50);
+    }
+
+    @Test
+    public void testIDAN_anSize100() throws Exception {
+        idan(100);
+    }
+
+    private void idan(final int anSize) throws Exception {
+        // the operator extends the tile by the filter size of 2 * anSize on each side
+        final int sw = tileSize + 4 * anSize;
+        final int sh = tileSize + 4 * anSize;
+        final float[][] planes = createT3(sw, sh);
+        final float[] span = new float[sw * sh];
+        for (int i = 0; i < sw * sh; ++i) {
+            span[i] = (planes[0][i] + planes[5][i] + planes[8][i]) / 4f;
+        }
+        final double sigmaV = 1.0;
+        final double[] values = new double[9];
+
+        Benchmark b = new Benchmark("IDAN_anSize" + anSize) {
+            @Override
+            protected void execute() throws Exception {
+                final IDANKernel kernel = new IDANKernel(anSize, sigmaV, 2 * sigmaV, 6 * sigmaV);
+                for (int t = 0; t < numTiles; ++t) {
+                    kernel.setSource(planes, new int[]{0, 5, 8}, span, sw, sh);
+                    for (int y = 2 * anSize; y < 2 * anSize + tileSize; ++y) {
+                        for (int x = 2 * anSize; x < 2 * anSize + tileSize; ++x) {
+                            kernel.filter(x, y, values);
+                        }
+                    }
+                }
+            }
+        };
+        b.run();
+    }
+
+    private static float[][] createT3(final int width, final int height) {
+        final float[][] t = new float[9][width * height];
+        final Random random = new Random(1);
+        final double[] kr = new double[3];
+        final double[] ki = new double[3];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                final int i = y * width + x;
+                // fields of 64 x 64 pixels with different backscatter under single look speckle
+                final double scale = 10 + 90 * (((x / 64) * 7 + (y / 64) * 3) % 5);
+                for (int k = 0; k < 3; ++k) {
+                    kr[k] = Math.sqrt(scale / 2) * random.nextGaussian();
+                    ki[k] = Math.sqrt(scale / 2) * random.nextGaussian();
+                }
+                t[0][i] = (float) (kr[0] * kr[0] + ki[0] * ki[0]);
+                t[1][i] = (float) (kr[0] * kr[1] + ki[0] * ki[1]);
+                t[2][i] = (float) (ki[0] * kr[1] - kr[0] * ki[1]);
+                t[3][i] = (float) (kr[0] * kr[2] + ki[0] * ki[2]);
+                t[4][i] = (float) (ki[0] * kr[2] - kr[0] * ki[2]);
+                t[5][i] = (float) (kr[1] * kr[1] + ki[1] * ki[1]);
+                t[6][i] = (float) (kr[1] * kr[2] + ki[1] * ki[2]);
+                t[7][i] = (float) (ki[1] * kr[2] - kr[1] * ki[2]);
+                t[8][i] = (float) (kr[2] * kr[2] + ki[2] * ki[2]);
+            }
+        }
+        return t;
+    }
+}
@@ -0,0 +1,72 @@
+package org.esa.s1tbx.benchmark;
+
+import org.esa.s1tbx.sar.gpf.MultilookKernel;
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Block reduction of the multilook operator over an IW SLC sized band, processed in strips of rows
+ */
+public class TestBenchmark_Multilook {
+
+    private final static int width = 25000;
+    private final static int height = 16000;
+    private final static int stripHeight = 400;
+
+    @Test
+    public void testMultilook_intensity_4x1() throws Exception {
+        multilook(4, 1, ProductData.TYPE_INT16, MultilookKernel.Mode.INTENSITY);
+    }
+
+    @Test
+    public void testMultilook_intensity_10x10() throws Exception {
+        multilook(10, 10, ProductData.TYPE_INT16, MultilookKernel.Mode.INTENSITY);
+    }
+
+    @Test
+    public void testMultilook_float_4x1() throws Exception {
+        multilook(4, 1, ProductData.TYPE_FLOAT32, MultilookKernel.Mode.LINEAR);
+    }
+
+    @Test
+    public void testMultilook_float_10x10() throws Exception {
+        multilook(10, 10, ProductData.TYPE_FLOAT32, MultilookKernel.Mode.LINEAR);
+    }
+
+    @Test
+    public void testMultilook_dB_10x10() throws Exception {
+        multilook(10, 10, ProductData.TYPE_FLOAT32, MultilookKernel.Mode.DB);
+    }
+
+    private void multilook(final int nRgLooks, final int nAzLooks, final int type,
+                           final MultilookKernel.Mode mode) throws Exception {
+        final ProductData i = createStrip(type, 1);
+        final ProductData q = mode == MultilookKernel.Mode.INTENSITY ? createStrip(type, 2) : null;
+
+        final int tw = width / nRgLooks;
+        final int th = stripHeight / nAzLooks;
+        final double[] mean = new double[tw * th];
+
+        Benchmark b = new Benchmark("Multilook_" + mode + "_" + nRgLooks + "x" + nAzLooks) {
+            @Override
+            protected void execute() throws Exception {
+                final MultilookKernel kernel = new MultilookKernel(nRgLooks, nAzLooks);
+                for (int y = 0; y < height; y += stripHeight) {
+                    kernel.reduce(i, q, 0, width, tw, th, mode, mean);
+                }
+            }
+        };
+        b.run();
+    }
+
+    private static ProductData createStrip(final int type, final long seed) {
+        final ProductData data = ProductData.createInstance(type, width * stripHeight);
+        final Random random = new Random(seed);
+        for (int k = 0; k < width * stripHeight; k++) {
+            data.setElemDoubleAt(k, (int) (random.nextGaussian() * 100));
+        }
+        return data;
+    }
+}
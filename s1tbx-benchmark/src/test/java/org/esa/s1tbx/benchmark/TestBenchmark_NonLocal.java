@@ -0,0 +1,81 @@
+package org.esa.s1tbx.benchmark;
+
+import org.csa.rstb.polarimetric.gpf.specklefilters.NonLocalKernel;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Non-local filtering of quad-pol C3 and dual-pol C2 tiles with 3x3 patches and an 11x11 search window,
+ * with the source rectangle of the operator
+ */
+public class TestBenchmark_NonLocal {
+
+    private final static int tileSize = 256;
+    private final static int numTiles = 4;
+    private final static int searchWindowSize = 11;
+    private final static int patchSize = 3;
+    private final static int scaleSize = 1;
+
+    @Test
+    public void testNonLocal_C3() throws Exception {
+        nonLocal(3);
+    }
+
+    @Test
+    public void testNonLocal_C2() throws Exception {
+        nonLocal(2);
+    }
+
+    private void nonLocal(final int matrixSize) throws Exception {
+        // the operator extends the tile by the half search window, the half patch and the scale size
+        final int extSize = searchWindowSize / 2 + patchSize / 2 + scaleSize;
+        final int sw = tileSize + 2 * extSize;
+        final int sh = tileSize + 2 * extSize;
+        final double[][] original = createCovarianceMatrix(matrixSize, sw, sh);
+        final double[][] filtered = new double[matrixSize * matrixSize][tileSize * tileSize];
+
+        Benchmark b = new Benchmark("NonLocal_C" + matrixSize) {
+            @Override
+            protected void execute() throws Exception {
+                final NonLocalKernel kernel = new NonLocalKernel(matrixSize, searchWindowSize, patchSize, scaleSize, 1);
+                for (int t = 0; t < numTiles; ++t) {
+                    kernel.setSource(original, sw, sh);
+                    kernel.filter(extSize, extSize, tileSize, tileSize, filtered);
+                }
+            }
+        };
+        b.run();
+    }
+
+    private static double[][] createCovarianceMatrix(final int matrixSize, final int width, final int height) {
+        final double[][] c = new double[matrixSize * matrixSize][width * height];
+        final Random random = new Random(1);
+        final double[] kr = new double[matrixSize];
+        final double[] ki = new double[matrixSize];
+        final int numSamples = 4;
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                final int i = y * width + x;
+                // fields of 64 x 64 pixels with different backscatter under 4 look speckle
+                final double scale = 10 + 90 * (((x / 64) * 7 + (y / 64) * 3) % 5);
+                for (int n = 0; n < numSamples; ++n) {
+                    for (int k = 0; k < matrixSize; ++k) {
+                        kr[k] = Math.sqrt(scale / 2) * random.nextGaussian();
+                        ki[k] = Math.sqrt(scale / 2) * random.nextGaussian();
+                    }
+                    int e = 0;
+                    for (int k = 0; k < matrixSize; ++k) {
+                        for (int l = k; l < matrixSize; ++l) {
+                            c[e++][i] += (kr[k] * kr[l] + ki[k] * ki[l]) / numSamples;
+                            if (l != k) {
+                                c[e++][i] += (ki[k] * kr[l] - kr[k] * ki[l]) / numSamples;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return c;
+    }
+}
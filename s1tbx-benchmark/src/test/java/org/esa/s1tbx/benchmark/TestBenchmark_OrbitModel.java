@@ -0,0 +1,74 @@
+package org.esa.s1tbx.benchmark;
+
+import org.esa.s1tbx.orbits.io.sentinel1.PolynomialOrbitModel;
+import org.esa.snap.engine_utilities.datamodel.Orbits;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Orbit state vector queries of a precise orbit file sized orbit, one state vector every 10 seconds for 26 hours
+ */
+public class TestBenchmark_OrbitModel {
+
+    private final static int numVectors = 9361;
+    private final static double interval = 10.0;
+    private final static int numQueries = 2000000;
+
+    @Test
+    public void testOrbitModel_sequential() throws Exception {
+        // the zero Doppler times of the lines of a 25 second acquisition
+        final double[] times = new double[numQueries];
+        final double start = 5000.0 + 40000.0 / 86400.0;
+        for (int i = 0; i < numQueries; i++) {
+            times[i] = start + i * (25.0 / numQueries) / 86400.0;
+        }
+        orbitModel("OrbitModel_sequential", times);
+    }
+
+    @Test
+    public void testOrbitModel_random() throws Exception {
+        final double[] times = new double[numQueries];
+        final Random random = new Random(1);
+        for (int i = 0; i < numQueries; i++) {
+            times[i] = 5000.0 + random.nextDouble() * (numVectors - 1) * interval / 86400.0;
+        }
+        orbitModel("OrbitModel_random", times);
+    }
+
+    private void orbitModel(final String name, final double[] times) throws Exception {
+        final List<Orbits.OrbitVector> osvList = createCircularOrbit();
+
+        Benchmark b = new Benchmark(name) {
+            @Override
+            protected void execute() throws Exception {
+                final PolynomialOrbitModel model = new PolynomialOrbitModel(osvList, 3);
+                final double[] position = new double[3];
+                final double[] velocity = new double[3];
+                for (double utc : times) {
+                    model.getOrbitData(utc, position, velocity);
+                }
+            }
+        };
+        b.run();
+    }
+
+    private static List<Orbits.OrbitVector> createCircularOrbit() {
+        final double radius = 7071000.0;
+        final double omega = Math.sqrt(3.986004418e14 / (radius * radius * radius));
+        final double inclination = Math.toRadians(98.2);
+        final List<Orbits.OrbitVector> osvList = new ArrayList<>();
+        for (int i = 0; i < numVectors; i++) {
+            final double t = i * interval;
+            final double u = omega * t;
+            osvList.add(new Orbits.OrbitVector(5000.0 + t / 86400.0,
+                    radius * Math.cos(u), radius * Math.sin(u) * Math.cos(inclination),
+                    radius * Math.sin(u) * Math.sin(inclination),
+                    -radius * omega * Math.sin(u), radius * omega * Math.cos(u) * Math.cos(inclination),
+                    radius * omega * Math.cos(u) * Math.sin(inclination)));
+        }
+        return osvList;
+    }
+}
@@ -0,0 +1,63 @@
+package org.esa.s1tbx.benchmark;
+
+import org.esa.s1tbx.utilities.gpf.FFTOversampler;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * FFT oversampling of a 4096 x 4096 target tile of a complex image, with the source rectangle of OversamplingOp
+ */
+public class TestBenchmark_Oversampling {
+
+    private final static int tileSize = 4096;
+
+    @Test
+    public void testOversampling_2x() throws Exception {
+        oversample(2);
+    }
+
+    @Test
+    public void testOversampling_4x() throws Exception {
+        oversample(4);
+    }
+
+    private void oversample(final int ratio) throws Exception {
+        // the operator extends the source tile by half its size on each side
+        final int sourceTileSize = 2 * tileSize / ratio;
+        final int overSampledSize = ratio * sourceTileSize;
+        final int firstOverSampled = ratio * (sourceTileSize / 4);
+        final double[] data = createPointTargets(sourceTileSize);
+        final int[] azimuthSplits = new int[sourceTileSize];
+        Arrays.fill(azimuthSplits, sourceTileSize / 2);
+
+        final FFTOversampler oversampler = new FFTOversampler();
+
+        Benchmark b = new Benchmark("Oversampling_" + ratio + "x") {
+            @Override
+            protected void execute() throws Exception {
+                final double[] source = oversampler.getSourceBuffer(sourceTileSize, sourceTileSize);
+                System.arraycopy(data, 0, source, 0, data.length);
+                oversampler.oversample(sourceTileSize, sourceTileSize, overSampledSize, overSampledSize,
+                        azimuthSplits, firstOverSampled, tileSize);
+            }
+        };
+        b.run();
+    }
+
+    private static double[] createPointTargets(final int size) {
+        final double[] data = new double[2 * size * size];
+        final Random random = new Random(1);
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = random.nextGaussian();
+        }
+        // point targets on a grid of 256 pixels
+        for (int y = 128; y < size; y += 256) {
+            for (int x = 128; x < size; x += 256) {
+                data[2 * (y * size + x)] = 1000.0;
+            }
+        }
+        return data;
+    }
+}
@@ -15,6 +15,21 @@ import java.io.File;
 
 public class TestBenchmark_ReadWrite extends BaseBenchmarks {
 
+    @Test
+    public void testGRD_open() throws Exception {
+        Benchmark b = new Benchmark("GRD_open") {
+            @Override
+            protected void execute() throws Exception {
+                // product open latency: metadata, tie point grids and geocoding only
+                for (int i = 0; i < 10; ++i) {
+                    final Product srcProduct = read(grdFile);
+                    srcProduct.dispose();
+                }
+            }
+        };
+        b.run();
+    }
+
     @Test
     public void testGRD_read_write() throws Exception {
         Benchmark b = new Benchmark("GRD_read_write") {
@@ -0,0 +1,55 @@
+package org.esa.s1tbx.benchmark;
+
+import org.esa.s1tbx.insar.gpf.support.RecursiveGaussian;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Gaussian filter of the ionospheric correction, the cost should not depend on sigma
+ */
+public class TestBenchmark_RecursiveGaussian {
+
+    private final static int size = 2048;
+
+    @Test
+    public void testRecursiveGaussian_sigma10() throws Exception {
+        recursiveGaussian(10);
+    }
+
+    @Test
+    public void testRecursiveGaussian_sigma50() throws Exception {
+        recursiveGaussian(50);
+    }
+
+    @Test
+    public void testRecursiveGaussian_sigma100() throws Exception {
+        recursiveGaussian(100);
+    }
+
+    @Test
+    public void testRecursiveGaussian_sigma200() throws Exception {
+        recursiveGaussian(200);
+    }
+
+    private void recursiveGaussian(final int sigma) throws Exception {
+        final float[] source = new float[size * size];
+        final Random random = new Random(sigma);
+        for (int i = 0; i < source.length; i++) {
+            source[i] = (float) random.nextGaussian();
+        }
+        final float[] data = new float[source.length];
+
+        Benchmark b = new Benchmark("RecursiveGaussian_sigma" + sigma) {
+            @Override
+            protected void execute() throws Exception {
+                final RecursiveGaussian gaussian = new RecursiveGaussian(sigma);
+                for (int i = 0; i < 4; i++) {
+                    System.arraycopy(source, 0, data, 0, source.length);
+                    gaussian.filter(data, size, size);
+                }
+            }
+        };
+        b.run();
+    }
+}
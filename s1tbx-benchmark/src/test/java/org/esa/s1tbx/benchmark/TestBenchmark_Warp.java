@@ -0,0 +1,153 @@
+package org.esa.s1tbx.benchmark;
+
+import org.esa.s1tbx.insar.gpf.coregistration.GCPManager;
+import org.esa.s1tbx.insar.gpf.coregistration.WarpResampler;
+import org.esa.snap.core.datamodel.*;
+import org.jlinda.core.Window;
+import org.jlinda.core.coregistration.CPM;
+import org.jlinda.core.coregistration.SimpleLUT;
+import org.junit.Test;
+
+import javax.media.jai.WarpGeneralPolynomial;
+import javax.media.jai.WarpPolynomial;
+import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Warp of a stack of 10 slaves with I and Q of two polarisations each
+ */
+public class TestBenchmark_Warp {
+
+    private final static int numSlaves = 10;
+    private final static String[] bandPrefixes = {"i_VV", "q_VV", "i_VH", "q_VH"};
+    private final static int width = 4096;
+    private final static int height = 2048;
+    private final static int tileSize = 512;
+
+    @Test
+    public void testWarp_solvePerBand() throws Exception {
+        solve("Warp_solvePerBand", false);
+    }
+
+    @Test
+    public void testWarp_solvePerSlave() throws Exception {
+        solve("Warp_solvePerSlave", true);
+    }
+
+    @Test
+    public void testWarp_resampleCC6P() throws Exception {
+        resample("Warp_resampleCC6P", SimpleLUT.CC6P);
+    }
+
+    @Test
+    public void testWarp_resampleTS16P() throws Exception {
+        resample("Warp_resampleTS16P", SimpleLUT.TS16P);
+    }
+
+    private void solve(final String name, final boolean shared) throws Exception {
+        final Product product = new Product("stack", "SLC", width, height);
+        final Band mst = product.addBand("i_VV_mst", ProductData.TYPE_FLOAT32);
+        addGCPs(mst, -1);
+        final Band[][] slaveBands = new Band[numSlaves][bandPrefixes.length];
+        for (int s = 0; s < numSlaves; ++s) {
+            for (int b = 0; b < bandPrefixes.length; ++b) {
+                slaveBands[s][b] = product.addBand(bandPrefixes[b] + "_slv" + s, ProductData.TYPE_FLOAT32);
+                addGCPs(slaveBands[s][b], s);
+            }
+        }
+        final ProductNodeGroup<Placemark> masterGCPGroup = GCPManager.instance().getGcpGroup(mst);
+
+        Benchmark b = new Benchmark(name) {
+            @Override
+            protected void execute() throws Exception {
+                final Map<Integer, CPM> sharedMap = new HashMap<>();
+                for (int s = 0; s < numSlaves; ++s) {
+                    for (Band band : slaveBands[s]) {
+                        if (shared && sharedMap.containsKey(s)) {
+                            continue;
+                        }
+                        final CPM cpm = new CPM(2, 20, 1.95996398454005f, new Window(0, height, 0, width),
+                                                masterGCPGroup, GCPManager.instance().getGcpGroup(band));
+                        cpm.computeCPM();
+                        cpm.computeEstimationStats();
+                        cpm.wrapJaiWarpPolynomial();
+                        sharedMap.put(s, cpm);
+                    }
+                }
+            }
+        };
+        b.run();
+        GCPManager.instance().removeAllGcpGroups();
+    }
+
+    private void resample(final String name, final String method) throws Exception {
+        final SimpleLUT lut = new SimpleLUT(method);
+        lut.constructLUT();
+        final double[] lutArray = lut.getKernelAsArray();
+        final float[] kernel = new float[lutArray.length];
+        for (int i = 0; i < lutArray.length; ++i) {
+            kernel[i] = (float) lutArray[i];
+        }
+        final WarpResampler resampler = new WarpResampler(kernel, lut.getKernelLength());
+
+        final float[] image = new float[width * height];
+        final Random random = new Random(1);
+        for (int i = 0; i < image.length; ++i) {
+            image[i] = (float) random.nextGaussian();
+        }
+        final WarpPolynomial[] warps = new WarpPolynomial[numSlaves];
+        for (int s = 0; s < numSlaves; ++s) {
+            warps[s] = new WarpGeneralPolynomial(
+                    new float[]{3.4f + s, 1.0002f, 1e-4f, 2e-8f, -1e-8f, 3e-8f},
+                    new float[]{-1.7f - s, -1e-4f, 0.9998f, -1e-8f, 2e-8f, 1e-8f});
+        }
+
+        Benchmark b = new Benchmark(name) {
+            @Override
+            protected void execute() throws Exception {
+                for (WarpPolynomial warp : warps) {
+                    // I and Q of one polarisation
+                    for (int i = 0; i < 2; ++i) {
+                        for (int y = 0; y < height; y += tileSize) {
+                            for (int x = 0; x < width; x += tileSize) {
+                                final Rectangle targetRect = new Rectangle(x, y, tileSize, tileSize);
+                                final WarpResampler.TileWarp tileWarp = resampler.map(warp, targetRect);
+                                final Rectangle srcRect = tileWarp.getSourceRectangle(width, height);
+                                tileWarp.resample(srcRect == null ? null : crop(image, srcRect), srcRect);
+                            }
+                        }
+                    }
+                }
+            }
+        };
+        b.run();
+    }
+
+    private static float[] crop(final float[] image, final Rectangle rect) {
+        final float[] data = new float[rect.width * rect.height];
+        for (int y = 0; y < rect.height; ++y) {
+            System.arraycopy(image, (rect.y + y) * width + rect.x, data, y * rect.width, rect.width);
+        }
+        return data;
+    }
+
+    private static void addGCPs(final Band band, final int slave) {
+        final ProductNodeGroup<Placemark> gcpGroup = GCPManager.instance().getGcpGroup(band);
+        final Random random = new Random(slave);
+        int i = 0;
+        for (int y = 64; y < height; y += 128) {
+            for (int x = 64; x < width; x += 128) {
+                double px = x, py = y;
+                if (slave >= 0) {
+                    px += 3.4 + slave + 2e-4 * x + random.nextGaussian() * 0.05;
+                    py += -1.7 - slave - 1e-4 * y + random.nextGaussian() * 0.05;
+                }
+                gcpGroup.add(Placemark.createPointPlacemark(GcpDescriptor.getInstance(), "gcp_" + i, "GCP " + i,
+                                                            "", new PixelPos(px, py), null, null));
+                ++i;
+            }
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.cloud.opendata;
+
+import com.bc.ceres.core.ProgressMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.Authenticator;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads a file over several connections at once, each fetching byte ranges (chunks) of the file.
+ * Failed chunks are retried with an increasing delay, completed chunks are recorded in a journal next to the
+ * output file so that an interrupted download resumes with the missing chunks only, and the MD5 checksum is
+ * computed as the chunks complete in order instead of reading the file again afterwards.
+ */
+class ChunkedDownloader {
+
+    static final String JOURNAL_SUFFIX = ".download";
+
+    private static final int JOURNAL_MAGIC = 0x53314443; // S1DC
+    private static final int JOURNAL_HEADER_LENGTH = 4 + 8 + 4;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String urlStr;
+    private final File outFile;
+    private final long contentLength;
+    private final String contentType;
+    private final String user;
+    private final String password;
+
+    private int numConnections = 4;
+    private int chunkSize = 16 * 1024 * 1024;
+    private int maxRetries = 5;
+    private long retryDelay = 1000;
+    private int connectTimeout = 30000;
+    private int readTimeout = 60000;
+
+    // download state
+    private int numChunks;
+    private FileChannel fileChannel;
+    private RandomAccessFile journal;
+    private boolean[] completed;
+    private final Map<Integer, byte[]> pendingDigest = new HashMap<>();
+    private MessageDigest digest;
+    private int digestedChunks;
+    private volatile boolean stopped;
+
+    ChunkedDownloader(final String urlStr, final File outFile, final long contentLength, final String contentType,
+                      final String user, final String password) {
+        this.urlStr = urlStr;
+        this.outFile = outFile;
+        this.contentLength = contentLength;
+        this.contentType = contentType;
+        this.user = user;
+        this.password = password;
+    }
+
+    void setNumConnections(final int numConnections) {
+        this.numConnections = Math.max(1, numConnections);
+    }
+
+    void setChunkSize(final int chunkSize) {
+        this.chunkSize = Math.max(BUFFER_SIZE, chunkSize);
+    }
+
+    /**
+     * @param maxRetries number of further attempts of a failed chunk
+     * @param retryDelay delay before the first retry in milliseconds, doubled for every further retry
+     */
+    void setRetries(final int maxRetries, final long retryDelay) {
+        this.maxRetries = maxRetries;
+        this.retryDelay = retryDelay;
+    }
+
+    void setTimeouts(final int connectTimeout, final int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    static File getJournalFile(final File outFile) {
+        return new File(outFile.getPath() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Download the missing chunks of the file
+     *
+     * @param expectedMd5Checksum hex MD5 checksum to verify the file against, or null
+     * @param pm                  progress monitor counting chunks, cancellation leaves the download resumable
+     * @return the downloaded file and its MD5 checksum, which is not computed for a complete file found without
+     * an expected checksum
+     * @throws IOException if a chunk still fails after all retries, the download was cancelled or the checksum
+     *                     does not match
+     */
+    HTTPDownloader.EntryFileProperty download(final String expectedMd5Checksum, final ProgressMonitor pm)
+            throws IOException {
+        // a file of the full length without a journal is the result of a previous download
+        if (outFile.isFile() && outFile.length() == contentLength && !getJournalFile(outFile).exists()) {
+            if (expectedMd5Checksum == null) {
+                return new HTTPDownloader.EntryFileProperty(outFile.getAbsolutePath(), contentLength);
+            }
+            final String md5Checksum = computeChecksum(outFile);
+            if (expectedMd5Checksum.equalsIgnoreCase(md5Checksum)) {
+                return new HTTPDownloader.EntryFileProperty(outFile.getAbsolutePath(), md5Checksum, null,
+                                                            contentLength);
+            }
+        }
+
+        numChunks = (int) ((contentLength + chunkSize - 1) / chunkSize);
+        stopped = false;
+        digestedChunks = 0;
+        pendingDigest.clear();
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        if (user != null) {
+            Authenticator.setDefault(new HTTPDownloader.SeHttpAuthenticator(user, password));
+        }
+
+        pm.beginTask("Downloading", numChunks);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(numConnections, Math.max(1, numChunks)));
+        try {
+            openFiles();
+
+            final ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>();
+            for (int chunk = 0; chunk < numChunks; ++chunk) {
+                if (completed[chunk]) {
+                    pm.worked(1);
+                } else {
+                    queue.add(chunk);
+                }
+            }
+            advanceDigest();
+
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numConnections && i < queue.size(); ++i) {
+                futures.add(executor.submit(() -> {
+                    Integer chunk;
+                    while (!stopped && (chunk = queue.poll()) != null) {
+                        final byte[] data = downloadChunk(chunk);
+                        chunkCompleted(chunk, data, pm);
+                    }
+                    return null;
+                }));
+            }
+            IOException error = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    stopped = true;
+                    if (error == null) {
+                        error = e.getCause() instanceof IOException ? (IOException) e.getCause() :
+                                new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    stopped = true;
+                    Thread.currentThread().interrupt();
+                    error = new IOException("Download interrupted");
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (pm.isCanceled()) {
+                throw new IOException("Download cancelled");
+            }
+        } finally {
+            stopped = true;
+            executor.shutdownNow();
+            pm.done();
+            closeFiles();
+        }
+
+        final String md5Checksum = HTTPDownloader.bytesToHex(digest.digest());
+        getJournalFile(outFile).delete();
+        if (expectedMd5Checksum != null && !expectedMd5Checksum.equalsIgnoreCase(md5Checksum)) {
+            throw new IOException("Checksum of " + outFile.getName() + " is " + md5Checksum + " instead of " +
+                                          expectedMd5Checksum);
+        }
+        return new HTTPDownloader.EntryFileProperty(outFile.getAbsolutePath(), md5Checksum, null, contentLength);
+    }
+
+    private static String computeChecksum(final File file) throws IOException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            while (channel.read(buffer) > -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HTTPDownloader.bytesToHex(md.digest());
+    }
+
+    /**
+     * Open the output file and the journal, resuming from the journal when it belongs to the same download
+     */
+    private void openFiles() throws IOException {
+        final File journalFile = getJournalFile(outFile);
+        completed = new boolean[numChunks];
+
+        boolean resume = false;
+        if (journalFile.isFile() && outFile.isFile() && outFile.length() == contentLength &&
+                journalFile.length() == JOURNAL_HEADER_LENGTH + numChunks) {
+            try (RandomAccessFile in = new RandomAccessFile(journalFile, "r")) {
+                if (in.readInt() == JOURNAL_MAGIC && in.readLong() == contentLength && in.readInt() == chunkSize) {
+                    for (int chunk = 0; chunk < numChunks; ++chunk) {
+                        completed[chunk] = in.readByte() != 0;
+                    }
+                    resume = true;
+                }
+            }
+        }
+
+        fileChannel = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+        journal = new RandomAccessFile(journalFile, "rw");
+        if (!resume) {
+            Arrays.fill(completed, false);
+            // the file takes its full length at once so that a partial download can be resumed
+            fileChannel.truncate(0);
+            if (contentLength > 0) {
+                fileChannel.write(ByteBuffer.allocate(1), contentLength - 1);
+            }
+            journal.setLength(0);
+            journal.writeInt(JOURNAL_MAGIC);
+            journal.writeLong(contentLength);
+            journal.writeInt(chunkSize);
+            journal.write(new byte[numChunks]);
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        try {
+            if (fileChannel != null) {
+                fileChannel.close();
+            }
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Fetch one chunk, retrying failed requests and continuing truncated responses from the last byte received
+     */
+    private byte[] downloadChunk(final int chunk) throws IOException {
+        final long start = (long) chunk * chunkSize;
+        final byte[] data = new byte[(int) Math.min(chunkSize, contentLength - start)];
+
+        int received = 0;
+        int attempt = 0;
+        while (true) {
+            try {
+                received += readRange(start + received, data, received);
+                if (received == data.length) {
+                    return data;
+                }
+                throw new IOException("Incomplete response for bytes " + (start + received) + '-' +
+                                              (start + data.length - 1));
+            } catch (IOException e) {
+                if (stopped || attempt >= maxRetries) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(retryDelay << Math.min(attempt, 16));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download interrupted");
+            }
+            ++attempt;
+        }
+    }
+
+    /**
+     * Request the bytes from position up to the end of the chunk
+     *
+     * @return the number of bytes received, which is less than requested when the response is truncated
+     */
+    private int readRange(final long position, final byte[] data, final int offset) throws IOException {
+        final long last = position + data.length - offset - 1;
+        final HttpURLConnection connection = (HttpURLConnection) new URL(urlStr).openConnection();
+        try {
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestProperty(HTTPDownloader.HTTP_HEADER_ACCEPT, contentType);
+            connection.setRequestProperty("Range", "bytes=" + position + '-' + last);
+            connection.connect();
+            final int statusCode = connection.getResponseCode();
+            if (statusCode >= 400) {
+                throw new IOException("Http Connection failed with status " + statusCode + ' ' +
+                                              connection.getResponseMessage() + ' ' + connection.getURL());
+            }
+            if (statusCode != HttpURLConnection.HTTP_PARTIAL &&
+                    !(position == 0 && last == contentLength - 1)) {
+                stopped = true;
+                throw new IOException("Byte ranges are not supported by " + connection.getURL());
+            }
+
+            int received = 0;
+            try (InputStream in = connection.getInputStream()) {
+                int bytesRead;
+                while (offset + received < data.length && !stopped &&
+                        (bytesRead = in.read(data, offset + received,
+                                             Math.min(BUFFER_SIZE, data.length - offset - received))) > -1) {
+                    received += bytesRead;
+                }
+            } catch (IOException e) {
+                // keep what was received before the connection failed
+                if (received == 0) {
+                    throw e;
+                }
+            }
+            return received;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Write a chunk, record it in the journal and advance the checksum over the chunks completed in order
+     */
+    private synchronized void chunkCompleted(final int chunk, final byte[] data, final ProgressMonitor pm)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = (long) chunk * chunkSize;
+        while (buffer.hasRemaining()) {
+            position += fileChannel.write(buffer, position);
+        }
+        // the chunk is on disk before the journal records it, so that a crash cannot leave a recorded chunk unwritten
+        fileChannel.force(false);
+        journal.seek(JOURNAL_HEADER_LENGTH + chunk);
+        journal.writeByte(1);
+        journal.getFD().sync();
+        completed[chunk] = true;
+
+        // hold back chunks arriving ahead of the checksum, up to a few per connection
+        if (chunk != digestedChunks && pendingDigest.size() < 2 * numConnections) {
+            pendingDigest.put(chunk, data);
+        } else if (chunk == digestedChunks) {
+            digest.update(data);
+            ++digestedChunks;
+        }
+        advanceDigest();
+
+        pm.worked(1);
+        if (pm.isCanceled()) {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Add the completed chunks following the checksummed part of the file to the checksum, reading chunks which
+     * were not held back from the file
+     */
+    private synchronized void advanceDigest() throws IOException {
+        while (digestedChunks < numChunks && completed[digestedChunks]) {
+            byte[] data = pendingDigest.remove(digestedChunks);
+            if (data == null) {
+                final long start = (long) digestedChunks * chunkSize;
+                data = new byte[(int) Math.min(chunkSize, contentLength - start)];
+                final ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    if (fileChannel.read(buffer, start + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of " + outFile);
+                    }
+                }
+            }
+            digest.update(data);
+            ++digestedChunks;
+        }
+    }
+}
@@ -29,7 +29,7 @@ import java.security.NoSuchAlgorithmException;
 
 class HTTPDownloader {
 
-    private static final String HTTP_HEADER_ACCEPT = "Accept";
+    static final String HTTP_HEADER_ACCEPT = "Accept";
     private static final String HTTP_METHOD_PUT = "PUT";
     private static final String HTTP_METHOD_POST = "POST";
     static final String HTTP_METHOD_GET = "GET";
@@ -235,7 +235,7 @@ class HTTPDownloader {
 
     private static final char[] hexArray = "0123456789ABCDEF".toCharArray();
 
-    private static String bytesToHex(byte[] bytes) {
+    static String bytesToHex(byte[] bytes) {
         final char[] hexChars = new char[bytes.length * 2];
         for ( int j = 0; j < bytes.length; j++ ) {
             int v = bytes[j] & 0xFF;
@@ -311,7 +311,7 @@ class HTTPDownloader {
         }
     }
 
-    private static class SeHttpAuthenticator extends Authenticator {
+    static class SeHttpAuthenticator extends Authenticator {
 
         private final String user;
         private final String password;
@@ -38,6 +38,7 @@ public class OpenData {
 
     private static final String APPLICATION_XML = "application/xml";
     private static final int MAX_DOWNLOAD_TRIES = 5;
+    private static final int NUM_CONNECTIONS = 4;
 
     public OpenData(final String odataRoot, final String userName, final String password) throws IOException {
         this.odataRoot = odataRoot;
@@ -87,37 +88,23 @@ public class OpenData {
         }
     }
 
-    private void download(final String id, final String downloadURL, final Entry entry, final File outFile, final ProgressMonitor pm) {
+    private void download(final String id, final String downloadURL, final Entry entry, final File outFile, final ProgressMonitor pm)
+            throws IOException {
 
         //final String download = odataRoot+"Products('" + id + "')" + "/$value";
 
-        int tries = 1;
-        HTTPDownloader.EntryFileProperty entryFp = null;
-        while ((entryFp == null || entryFp.getSize() != entry.contentLength)) {
-
-            entryFp = HTTPDownloader.getEntryFilePropertyFromUrlString(downloadURL, outFile,
-                    entry.contentLength, entry.contentType, userName, password, pm);
-
-            if (entryFp != null && entryFp.getSize() == entry.contentLength) {
-                break;
-            } else {
-                try {
-                    Thread.sleep(3000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                if (tries > MAX_DOWNLOAD_TRIES && (entryFp == null || entryFp.getSize() != entry.contentLength)) {
-                    break;
-                }
-                tries++;
-            }
-        }
+        final ChunkedDownloader downloader = new ChunkedDownloader(downloadURL, outFile, entry.contentLength,
+                                                                   entry.contentType, userName, password);
+        downloader.setNumConnections(NUM_CONNECTIONS);
+        downloader.setRetries(MAX_DOWNLOAD_TRIES, 3000);
+        downloader.download(entry.md5Checksum, pm);
     }
 
     public static class Entry {
         public final Long contentLength;
         public final String name;
         public final String contentType;
+        public final String md5Checksum;
 
         public Entry(final ODataEntry oDataEntry) {
             final Map<String, Object> propMap = oDataEntry.getProperties();
@@ -126,6 +113,18 @@ public class OpenData {
             contentType = propMap.get("ContentType").toString();
 
             name = propMap.get("Name").toString();
+
+            String checksum = null;
+            final Object checksumProp = propMap.get("Checksum");
+            if (checksumProp instanceof Map) {
+                final Map<?, ?> checksumMap = (Map<?, ?>) checksumProp;
+                final Object algorithm = checksumMap.get("Algorithm");
+                final Object value = checksumMap.get("Value");
+                if (value != null && (algorithm == null || "MD5".equalsIgnoreCase(algorithm.toString()))) {
+                    checksum = value.toString();
+                }
+            }
+            md5Checksum = checksum;
         }
     }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.cloud.opendata;
+
+import com.bc.ceres.core.ProgressMonitor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ChunkedDownloader against a local HTTP server injecting latency, truncated responses and 503s
+ */
+public class TestChunkedDownloader {
+
+    private static final Pattern rangePattern = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final int chunkSize = 64 * 1024;
+
+    private final byte[] content = new byte[1000 * 1000 + 17];
+    private String expectedChecksum;
+
+    private HttpServer server;
+    private String url;
+    private File outFile;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    // faults injected by the server
+    private volatile int latency = 0;
+    private volatile int unavailableEvery = 0;
+    private volatile int truncateEvery = 0;
+    private volatile boolean unavailable = false;
+    private volatile long unavailableFrom = Long.MAX_VALUE;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(42).nextBytes(content);
+        expectedChecksum = HTTPDownloader.bytesToHex(MessageDigest.getInstance("MD5").digest(content));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/product.zip", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/product.zip";
+
+        outFile = File.createTempFile("product", ".zip");
+        outFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        outFile.delete();
+        ChunkedDownloader.getJournalFile(outFile).delete();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final int request = requests.incrementAndGet();
+        try {
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        long first = 0;
+        long last = content.length - 1;
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            final Matcher matcher = rangePattern.matcher(range);
+            assertTrue(range, matcher.matches());
+            first = Long.parseLong(matcher.group(1));
+            last = Math.min(Long.parseLong(matcher.group(2)), content.length - 1);
+        }
+
+        if (unavailable || first >= unavailableFrom || (unavailableEvery > 0 && request % unavailableEvery == 0)) {
+            failures.incrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+
+        final int length = (int) (last - first + 1);
+        exchange.getResponseHeaders().add("Content-Range", "bytes " + first + '-' + last + '/' + content.length);
+        exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (truncateEvery > 0 && request % truncateEvery == 0) {
+                // send part of the range and drop the connection
+                failures.incrementAndGet();
+                out.write(content, (int) first, length / 3);
+                out.flush();
+                return;
+            }
+            out.write(content, (int) first, length);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private ChunkedDownloader createDownloader() {
+        final ChunkedDownloader downloader = new ChunkedDownloader(url, outFile, content.length,
+                                                                   "application/octet-stream", null, null);
+        downloader.setNumConnections(4);
+        downloader.setChunkSize(chunkSize);
+        downloader.setRetries(4, 10);
+        downloader.setTimeouts(5000, 5000);
+        return downloader;
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        latency = 5;
+        final HTTPDownloader.EntryFileProperty entryFp = createDownloader().download(expectedChecksum,
+                                                                                       ProgressMonitor.NULL);
+
+        assertEquals(content.length, entryFp.getSize());
+        assertEquals(expectedChecksum, entryFp.getMd5Checksum());
+        assertArrayEquals(content, Files.readAllBytes(outFile.toPath()));
+        assertEquals((content.length + chunkSize - 1) / chunkSize, requests.get());
+        assertFalse(ChunkedDownloader.getJournalFile(outFile).exists());
+    }
+
+    @Test
+    public void testSingleChunk() throws Exception {
+        final ChunkedDownloader downloader = createDownloader();
+        downloader.setChunkSize(content.length);
+        final HTTPDownloader.EntryFileProperty entryFp = downloader.download(null, ProgressMonitor.NULL);
+
+        assertEquals(expectedChecksum, entryFp.getMd5Checksum());
+        assertArrayEquals(content, Files.readAllBytes(outFile.toPath()));
+    }
+
+    @Test
+    public void testRetries() throws Exception {
+        latency = 2;
+        unavailableEvery = 3;
+        truncateEvery = 5;
+        final HTTPDownloader.EntryFileProperty entryFp = createDownloader().download(expectedChecksum,
+                                                                                       ProgressMonitor.NULL);
+
+        assertTrue(failures.get() > 0);
+        assertEquals(expectedChecksum, entryFp.getMd5Checksum());
+        assertArrayEquals(content, Files.readAllBytes(outFile.toPath()));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        // the server stops serving the second half of the file
+        unavailableFrom = content.length / 2;
+        try {
+            createDownloader().download(expectedChecksum, ProgressMonitor.NULL);
+            fail("download should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(ChunkedDownloader.getJournalFile(outFile).exists());
+
+        // only the missing chunks are requested again
+        unavailableFrom = Long.MAX_VALUE;
+        requests.set(0);
+        final HTTPDownloader.EntryFileProperty entryFp = createDownloader().download(expectedChecksum,
+                                                                                       ProgressMonitor.NULL);
+        final int numChunks = (content.length + chunkSize - 1) / chunkSize;
+        assertTrue(requests.get() < numChunks);
+        assertEquals(expectedChecksum, entryFp.getMd5Checksum());
+        assertArrayEquals(content, Files.readAllBytes(outFile.toPath()));
+        assertFalse(ChunkedDownloader.getJournalFile(outFile).exists());
+    }
+
+    @Test
+    public void testCompleteFile() throws Exception {
+        createDownloader().download(expectedChecksum, ProgressMonitor.NULL);
+
+        // a complete file matching the checksum is not requested again
+        requests.set(0);
+        HTTPDownloader.EntryFileProperty entryFp = createDownloader().download(expectedChecksum, ProgressMonitor.NULL);
+        assertEquals(0, requests.get());
+        assertEquals(expectedChecksum, entryFp.getMd5Checksum());
+
+        entryFp = createDownloader().download(null, ProgressMonitor.NULL);
+        assertEquals(0, requests.get());
+        assertEquals(content.length, entryFp.getSize());
+
+        // a file of the full length not matching the checksum is downloaded again
+        final byte[] corrupt = content.clone();
+        corrupt[1000] ^= 1;
+        Files.write(outFile.toPath(), corrupt);
+        entryFp = createDownloader().download(expectedChecksum, ProgressMonitor.NULL);
+        assertTrue(requests.get() > 0);
+        assertEquals(expectedChecksum, entryFp.getMd5Checksum());
+        assertArrayEquals(content, Files.readAllBytes(outFile.toPath()));
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+        try {
+            createDownloader().download("00000000000000000000000000000000", ProgressMonitor.NULL);
+            fail("checksum should not match");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(expectedChecksum));
+        }
+    }
+
+    @Test
+    public void testUnavailable() throws Exception {
+        unavailable = true;
+        final ChunkedDownloader downloader = createDownloader();
+        downloader.setRetries(2, 1);
+        try {
+            downloader.download(null, ProgressMonitor.NULL);
+            fail("download should fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("503"));
+        }
+    }
+}
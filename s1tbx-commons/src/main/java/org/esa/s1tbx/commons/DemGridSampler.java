@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.commons;
+
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.dataop.dem.ElevationModel;
+import org.esa.snap.core.dataop.resamp.Resampling;
+
+import java.util.Arrays;
+
+/**
+ * Samples an elevation model on a regular grid in one call.
+ * <p>
+ * The DEM samples covering the grid are read once as a block, and the resampling of the DEM is applied
+ * to the block node by node, giving the elevations ElevationModel.getElevation would give for each node.
+ * Nodes without elevation get the no data value, or the undulation of a geoid if one is set. Grids that do not map separably onto the DEM raster,
+ * such as grids over a projected DEM or across the antimeridian, are sampled point by point.
+ */
+public final class DemGridSampler {
+
+    /**
+     * Undulation of the geoid above the ellipsoid, e.g. EarthGravitationalModel96.instance()::getEGM
+     */
+    public interface Geoid {
+        double getUndulation(double lat, double lon) throws Exception;
+    }
+
+    private interface NodeLocator {
+        GeoPos getGeoPos(int row, int col) throws Exception;
+    }
+
+    // spacing of the geoid lattice in degrees, a quarter of the 15' EGM96 grid
+    private static final double GEOID_SPACING = 0.0625;
+    // largest DEM block read for a grid, relative to the number of grid nodes
+    private static final int MAX_BLOCK_RATIO = 4;
+    private static final double SEPARABLE_TOLERANCE = 1e-6;
+
+    private final ElevationModel dem;
+    private final double noDataValue;
+    private Geoid geoid = null;
+    private boolean geoidCorrection = false;
+
+    /**
+     * @param dem         the elevation model
+     * @param noDataValue the value for nodes without elevation
+     */
+    public DemGridSampler(final ElevationModel dem, final double noDataValue) {
+        this.dem = dem;
+        this.noDataValue = noDataValue;
+    }
+
+    /**
+     * Set a geoid for the nodes without elevation only. These nodes then get the undulation of the geoid,
+     * interpolated bilinearly from a lattice of about 0.0625 degree spacing, and the other nodes keep the
+     * elevation of the DEM.
+     *
+     * @param geoid the geoid or null for none
+     */
+    public void setNoDataGeoidFill(final Geoid geoid) {
+        this.geoid = geoid;
+        this.geoidCorrection = false;
+    }
+
+    /**
+     * Set a geoid to convert the heights of a DEM above the geoid to heights above the ellipsoid. The
+     * undulation of the geoid, interpolated as for setNoDataGeoidFill, is added to every node with elevation
+     * and given to the nodes without elevation.
+     *
+     * @param geoid the geoid or null for none
+     */
+    public void setGeoidCorrection(final Geoid geoid) {
+        this.geoid = geoid;
+        this.geoidCorrection = true;
+    }
+
+    /**
+     * Elevations on a latitude/longitude grid. Node (r, c) is at latitude lat0 + r * latStep and
+     * longitude lon0 + c * lonStep.
+     *
+     * @param lat0    latitude of the first row
+     * @param lon0    longitude of the first column
+     * @param latStep latitude spacing, negative for rows from north to south
+     * @param lonStep longitude spacing
+     * @param rows    number of rows
+     * @param cols    number of columns
+     * @return the elevations as [rows * cols]
+     * @throws Exception from the elevation model
+     */
+    public float[] getElevations(final double lat0, final double lon0, final double latStep, final double lonStep,
+                                 final int rows, final int cols) throws Exception {
+        final float[] elevations = new float[rows * cols];
+        if (rows <= 0 || cols <= 0) {
+            return elevations;
+        }
+
+        final double[] lats = new double[rows];
+        for (int r = 0; r < rows; ++r) {
+            lats[r] = lat0 + r * latStep;
+        }
+        final double[] lons = new double[cols];
+        for (int c = 0; c < cols; ++c) {
+            lons[c] = normalizeLon(lon0 + c * lonStep);
+        }
+
+        // pixel coordinates of the rows and columns
+        final double[] pixelX = new double[cols];
+        for (int c = 0; c < cols; ++c) {
+            pixelX[c] = getIndex(lats[0], lons[c]).x;
+        }
+        final double[] pixelY = new double[rows];
+        for (int r = 0; r < rows; ++r) {
+            pixelY[r] = getIndex(lats[r], lons[0]).y;
+        }
+        final PixelPos last = getIndex(lats[rows - 1], lons[cols - 1]);
+        final boolean separable = Math.abs(last.x - pixelX[cols - 1]) < SEPARABLE_TOLERANCE &&
+                Math.abs(last.y - pixelY[rows - 1]) < SEPARABLE_TOLERANCE;
+
+        if (!separable || !sampleBlock(pixelX, pixelY, elevations)) {
+            final GeoPos geoPos = new GeoPos();
+            for (int r = 0; r < rows; ++r) {
+                for (int c = 0; c < cols; ++c) {
+                    geoPos.setLocation(lats[r], lons[c]);
+                    elevations[r * cols + c] = (float) dem.getElevation(geoPos);
+                }
+            }
+        }
+
+        if (geoid != null) {
+            final double spacing = Math.max(Math.abs(latStep), Math.abs(lonStep));
+            applyGeoid(elevations, rows, cols, spacing, (r, c) -> new GeoPos(lats[r], lons[c]));
+        }
+        return elevations;
+    }
+
+    /**
+     * Elevations at the pixels of the DEM raster. Node (r, c) is at DEM pixel (x0 + c, y0 + r).
+     *
+     * @param x0     first DEM column
+     * @param y0     first DEM row
+     * @param width  number of columns
+     * @param height number of rows
+     * @return the elevations as [height * width]
+     * @throws Exception from the elevation model
+     */
+    public float[] getElevations(final int x0, final int y0, final int width, final int height) throws Exception {
+        final float[] elevations = new float[width * height];
+        if (width <= 0 || height <= 0) {
+            return elevations;
+        }
+
+        final double[] pixelX = new double[width];
+        for (int c = 0; c < width; ++c) {
+            pixelX[c] = x0 + c;
+        }
+        final double[] pixelY = new double[height];
+        for (int r = 0; r < height; ++r) {
+            pixelY[r] = y0 + r;
+        }
+
+        if (!sampleBlock(pixelX, pixelY, elevations)) {
+            final PixelPos pix = new PixelPos();
+            for (int r = 0; r < height; ++r) {
+                for (int c = 0; c < width; ++c) {
+                    pix.setLocation(x0 + c, y0 + r);
+                    elevations[r * width + c] = (float) dem.getElevation(dem.getGeoPos(pix));
+                }
+            }
+        }
+
+        if (geoid != null) {
+            final GeoPos first = dem.getGeoPos(new PixelPos(x0, y0));
+            final GeoPos next = dem.getGeoPos(new PixelPos(x0 + 1, y0 + 1));
+            final double spacing = Math.max(Math.abs(next.lat - first.lat), Math.abs(next.lon - first.lon));
+            applyGeoid(elevations, height, width, spacing,
+                          (r, c) -> dem.getGeoPos(new PixelPos(x0 + c, y0 + r)));
+        }
+        return elevations;
+    }
+
+    private PixelPos getIndex(final double lat, final double lon) throws Exception {
+        final PixelPos pix = dem.getIndex(new GeoPos(lat, lon));
+        return pix != null ? pix : new PixelPos(Double.NaN, Double.NaN);
+    }
+
+    private static double normalizeLon(final double lon) {
+        return lon >= 180.0 ? lon - 360.0 : lon;
+    }
+
+    /**
+     * Resample the grid from one block of DEM samples
+     *
+     * @return false if the DEM cannot be read as a block for this grid
+     */
+    private boolean sampleBlock(final double[] pixelX, final double[] pixelY, final float[] elevations)
+            throws Exception {
+        if (!(dem instanceof Resampling.Raster)) {
+            return false;
+        }
+        final Resampling.Raster demRaster = (Resampling.Raster) dem;
+        final int demWidth = demRaster.getWidth();
+        final int demHeight = demRaster.getHeight();
+        final Resampling resampling = dem.getResampling();
+        final Resampling.Index index = resampling.createIndex();
+        final int rows = pixelY.length;
+        final int cols = pixelX.length;
+
+        // the columns of the kernel depend only on x and its rows only on y
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+        for (double x : pixelX) {
+            if (x >= 0 && x < demWidth) {
+                resampling.computeCornerBasedIndex(x, 0, demWidth, demHeight, index);
+                for (double i : index.i) {
+                    minX = Math.min(minX, (int) i);
+                    maxX = Math.max(maxX, (int) i);
+                }
+            }
+        }
+        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        for (double y : pixelY) {
+            if (y >= 0 && y < demHeight) {
+                resampling.computeCornerBasedIndex(0, y, demWidth, demHeight, index);
+                for (double j : index.j) {
+                    minY = Math.min(minY, (int) j);
+                    maxY = Math.max(maxY, (int) j);
+                }
+            }
+        }
+
+        final float noData = (float) noDataValue;
+        if (minX > maxX || minY > maxY) {
+            // the grid lies outside of the DEM
+            Arrays.fill(elevations, noData);
+            return true;
+        }
+
+        final int blockWidth = maxX - minX + 1;
+        final int blockHeight = maxY - minY + 1;
+        if ((long) blockWidth * blockHeight > (long) MAX_BLOCK_RATIO * rows * cols + 4096) {
+            return false;
+        }
+
+        final BlockRaster block = new BlockRaster(demWidth, demHeight, minX, minY, blockWidth, blockHeight);
+        block.read(demRaster, noDataValue);
+
+        for (int r = 0; r < rows; ++r) {
+            final double y = pixelY[r];
+            final int offset = r * cols;
+            if (!(y >= 0 && y < demHeight)) {
+                Arrays.fill(elevations, offset, offset + cols, noData);
+                continue;
+            }
+            for (int c = 0; c < cols; ++c) {
+                final double x = pixelX[c];
+                if (!(x >= 0 && x < demWidth)) {
+                    elevations[offset + c] = noData;
+                    continue;
+                }
+                resampling.computeCornerBasedIndex(x, y, demWidth, demHeight, index);
+                final double elevation = resampling.resample(block, index);
+                elevations[offset + c] = Double.isNaN(elevation) ? noData : (float) elevation;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Give the nodes without elevation the undulation of the geoid and, for a geoid correction, add it to
+     * the other nodes
+     */
+    private void applyGeoid(final float[] elevations, final int rows, final int cols, final double spacing,
+                               final NodeLocator locator) throws Exception {
+        final float noData = (float) noDataValue;
+        boolean hasNoData = false;
+        for (float elevation : elevations) {
+            if (elevation == noData) {
+                hasNoData = true;
+                break;
+            }
+        }
+        if (!hasNoData && !geoidCorrection) {
+            return;
+        }
+
+        final int step = spacing > 0 ? Math.max(1, (int) (GEOID_SPACING / spacing)) : 1;
+        final int[] latticeRows = getLattice(rows, step);
+        final int[] latticeCols = getLattice(cols, step);
+        final double[][] undulation = new double[latticeRows.length][latticeCols.length];
+        for (int i = 0; i < latticeRows.length; ++i) {
+            for (int j = 0; j < latticeCols.length; ++j) {
+                final GeoPos geoPos = locator.getGeoPos(latticeRows[i], latticeCols[j]);
+                undulation[i][j] = geoid.getUndulation(geoPos.lat, geoPos.lon);
+            }
+        }
+
+        for (int r = 0; r < rows; ++r) {
+            final int i0 = Math.min(r / step, latticeRows.length - 1);
+            final int i1 = Math.min(i0 + 1, latticeRows.length - 1);
+            final double wr = i1 == i0 ? 0 : (r - latticeRows[i0]) / (double) (latticeRows[i1] - latticeRows[i0]);
+            final int offset = r * cols;
+            for (int c = 0; c < cols; ++c) {
+                final boolean isNoData = elevations[offset + c] == noData;
+                if (!isNoData && !geoidCorrection) {
+                    continue;
+                }
+                final int j0 = Math.min(c / step, latticeCols.length - 1);
+                final int j1 = Math.min(j0 + 1, latticeCols.length - 1);
+                final double wc = j1 == j0 ? 0 :
+                        (c - latticeCols[j0]) / (double) (latticeCols[j1] - latticeCols[j0]);
+                final double top = undulation[i0][j0] + wc * (undulation[i0][j1] - undulation[i0][j0]);
+                final double bottom = undulation[i1][j0] + wc * (undulation[i1][j1] - undulation[i1][j0]);
+                final double n = top + wr * (bottom - top);
+                elevations[offset + c] = isNoData ? (float) n : (float) (elevations[offset + c] + n);
+            }
+        }
+    }
+
+    /**
+     * Every step-th node and the last node
+     */
+    private static int[] getLattice(final int size, final int step) {
+        final int n = (size - 1 + step - 1) / step + 1;
+        final int[] lattice = new int[n];
+        for (int k = 0; k < n; ++k) {
+            lattice[k] = Math.min(k * step, size - 1);
+        }
+        return lattice;
+    }
+
+    /**
+     * A block of the DEM raster addressed in DEM pixel coordinates
+     */
+    private static class BlockRaster implements Resampling.Raster {
+
+        private final int width;
+        private final int height;
+        private final int x0;
+        private final int y0;
+        private final int blockWidth;
+        private final int blockHeight;
+        private final double[][] data;
+
+        BlockRaster(final int width, final int height, final int x0, final int y0,
+                    final int blockWidth, final int blockHeight) {
+            this.width = width;
+            this.height = height;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.blockWidth = blockWidth;
+            this.blockHeight = blockHeight;
+            this.data = new double[blockHeight][blockWidth];
+        }
+
+        void read(final Resampling.Raster demRaster, final double noDataValue) throws Exception {
+            final int[] x = new int[blockWidth];
+            for (int i = 0; i < blockWidth; ++i) {
+                x[i] = x0 + i;
+            }
+            final int[] y = new int[blockHeight];
+            for (int j = 0; j < blockHeight; ++j) {
+                y[j] = y0 + j;
+            }
+            demRaster.getSamples(x, y, data);
+            for (double[] row : data) {
+                for (int i = 0; i < blockWidth; ++i) {
+                    if (row[i] == noDataValue) {
+                        row[i] = Double.NaN;
+                    }
+                }
+            }
+        }
+
+        public final int getWidth() {
+            return width;
+        }
+
+        public final int getHeight() {
+            return height;
+        }
+
+        public boolean getSamples(final int[] x, final int[] y, final double[][] samples) {
+            boolean allValid = true;
+            for (int j = 0; j < y.length; ++j) {
+                final int yy = y[j] - y0;
+                for (int i = 0; i < x.length; ++i) {
+                    final int xx = x[i] - x0;
+                    double val = Double.NaN;
+                    if (yy >= 0 && yy < blockHeight && xx >= 0 && xx < blockWidth) {
+                        val = data[yy][xx];
+                    }
+                    if (Double.isNaN(val)) {
+                        allValid = false;
+                    }
+                    samples[j][i] = val;
+                }
+            }
+            return allValid;
+        }
+    }
+}
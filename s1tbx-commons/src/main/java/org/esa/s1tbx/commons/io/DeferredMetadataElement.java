@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.commons.io;
+
+import org.esa.snap.core.datamodel.MetadataAttribute;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.ProductVisitor;
+
+/**
+ * A MetadataElement whose contents are parsed from the XML source on first access.
+ * Used for large lists such as geolocation grids, noise and calibration vectors.
+ */
+public class DeferredMetadataElement extends MetadataElement {
+
+    private final XMLMetadataStreamReader streamReader;
+    private final XMLMetadataStreamReader.StreamSource source;
+    private final String path;
+    private final int occurrence;
+    private volatile boolean loaded = false;
+    private boolean loading = false;
+
+    DeferredMetadataElement(final String name, final XMLMetadataStreamReader streamReader,
+                            final XMLMetadataStreamReader.StreamSource source,
+                            final String path, final int occurrence) {
+        super(name);
+        this.streamReader = streamReader;
+        this.source = source;
+        this.path = path;
+        this.occurrence = occurrence;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded && !loading) {
+                loading = true;
+                try {
+                    streamReader.readSubtree(source, path, occurrence, this);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Unable to load metadata " + path + ": " + e.getMessage(), e);
+                } finally {
+                    loading = false;
+                }
+                loaded = true;
+            }
+        }
+    }
+
+    @Override
+    public int getNumElements() {
+        ensureLoaded();
+        return super.getNumElements();
+    }
+
+    @Override
+    public MetadataElement getElementAt(int index) {
+        ensureLoaded();
+        return super.getElementAt(index);
+    }
+
+    @Override
+    public String[] getElementNames() {
+        ensureLoaded();
+        return super.getElementNames();
+    }
+
+    @Override
+    public MetadataElement[] getElements() {
+        ensureLoaded();
+        return super.getElements();
+    }
+
+    @Override
+    public MetadataElement getElement(String name) {
+        ensureLoaded();
+        return super.getElement(name);
+    }
+
+    @Override
+    public boolean containsElement(String name) {
+        ensureLoaded();
+        return super.containsElement(name);
+    }
+
+    @Override
+    public int getNumAttributes() {
+        ensureLoaded();
+        return super.getNumAttributes();
+    }
+
+    @Override
+    public MetadataAttribute getAttributeAt(int index) {
+        ensureLoaded();
+        return super.getAttributeAt(index);
+    }
+
+    @Override
+    public String[] getAttributeNames() {
+        ensureLoaded();
+        return super.getAttributeNames();
+    }
+
+    @Override
+    public MetadataAttribute[] getAttributes() {
+        ensureLoaded();
+        return super.getAttributes();
+    }
+
+    @Override
+    public MetadataAttribute getAttribute(String name) {
+        ensureLoaded();
+        return super.getAttribute(name);
+    }
+
+    @Override
+    public boolean containsAttribute(String name) {
+        ensureLoaded();
+        return super.containsAttribute(name);
+    }
+
+    @Override
+    public void acceptVisitor(ProductVisitor visitor) {
+        ensureLoaded();
+        super.acceptVisitor(visitor);
+    }
+
+    @Override
+    public MetadataElement createDeepClone() {
+        ensureLoaded();
+        return super.createDeepClone();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.commons.io;
+
+import org.esa.snap.core.datamodel.MetadataAttribute;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.ProductData;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams an XML file into the metadata tree without building a DOM first.
+ * The resulting MetadataElements are identical to those of AbstractMetadataIO.AddXMLMetadata.
+ * Elements named in the deferred set are skipped and replaced by a DeferredMetadataElement
+ * which parses its subtree from the source the first time it is accessed.
+ */
+public class XMLMetadataStreamReader {
+
+    /**
+     * Opens a fresh stream on the XML source. Used to load deferred elements on demand.
+     */
+    public interface StreamSource {
+        InputStream open() throws IOException;
+    }
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private final Set<String> deferredElements;
+
+    public XMLMetadataStreamReader() {
+        this(Collections.emptySet());
+    }
+
+    public XMLMetadataStreamReader(final Set<String> deferredElements) {
+        this.deferredElements = new HashSet<>(deferredElements);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Parse the XML document from source and add its root element to metadataRoot
+     *
+     * @param source       the XML source
+     * @param metadataRoot MetadataElement to place it into
+     * @throws IOException if the XML cannot be read
+     */
+    public void read(final StreamSource source, final MetadataElement metadataRoot) throws IOException {
+        try (final InputStream is = source.open()) {
+            final XMLStreamReader reader = createReader(is);
+            try {
+                if (nextStartElement(reader)) {
+                    parseElement(reader, metadataRoot, source, true);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to parse XML: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse the n-th occurrence of the element at path and add its contents to target
+     */
+    void readSubtree(final StreamSource source, final String path, final int occurrence,
+                     final MetadataElement target) throws IOException {
+        try (final InputStream is = source.open()) {
+            final XMLStreamReader reader = createReader(is);
+            try {
+                final Deque<String> pathStack = new ArrayDeque<>();
+                int found = 0;
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        final String parentPath = pathStack.isEmpty() ? "" : pathStack.peek();
+                        final String elemPath = parentPath + '/' + reader.getLocalName();
+                        if (elemPath.equals(path) && found++ == occurrence) {
+                            final MetadataElement holder = new MetadataElement("holder");
+                            parseElement(reader, holder, source, false);
+                            final MetadataElement parsed = holder.getNumElements() > 0 ? holder.getElementAt(0) : null;
+                            if (parsed != null) {
+                                for (MetadataAttribute attribute : parsed.getAttributes()) {
+                                    target.addAttribute(attribute.createDeepClone());
+                                }
+                                for (MetadataElement element : parsed.getElements()) {
+                                    target.addElement(element.createDeepClone());
+                                }
+                            }
+                            return;
+                        }
+                        pathStack.push(elemPath);
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        pathStack.pop();
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Unable to parse XML: " + e.getMessage(), e);
+        }
+        throw new IOException(path + " not found");
+    }
+
+    private static XMLStreamReader createReader(final InputStream is) throws XMLStreamException {
+        synchronized (inputFactory) {
+            return inputFactory.createXMLStreamReader(is);
+        }
+    }
+
+    private static boolean nextStartElement(final XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Consumes the element the reader is positioned on, up to and including its end tag.
+     */
+    private void parseElement(final XMLStreamReader reader, final MetadataElement metadataRoot,
+                              final StreamSource source, final boolean allowDeferral) throws XMLStreamException {
+
+        final Deque<Frame> stack = new ArrayDeque<>();
+        final Map<String, Integer> deferredOccurrences = new HashMap<>();
+        stack.push(new Frame(reader, ""));
+
+        while (!stack.isEmpty()) {
+            final int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    final Frame parent = stack.peek();
+                    final MetadataElement parentElem = parent.getElement();
+                    final String name = reader.getLocalName();
+                    if (allowDeferral && deferredElements.contains(name)) {
+                        final String path = parent.path + '/' + name;
+                        final int occurrence = deferredOccurrences.merge(path, 1, Integer::sum) - 1;
+                        parentElem.addElement(new DeferredMetadataElement(name, this, source, path, occurrence));
+                        skipElement(reader);
+                    } else {
+                        stack.push(new Frame(reader, parent.path));
+                    }
+                    break;
+                }
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE: {
+                    final Frame frame = stack.peek();
+                    if (frame.element == null) {
+                        frame.text.append(reader.getText());
+                    }
+                    break;
+                }
+                case XMLStreamConstants.END_ELEMENT: {
+                    final Frame frame = stack.pop();
+                    final MetadataElement target = stack.isEmpty() ? metadataRoot : stack.peek().element;
+                    frame.addTo(target);
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static void skipElement(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                ++depth;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                --depth;
+            }
+        }
+    }
+
+    private static void addAttribute(final MetadataElement meta, final String name, String value) {
+        final MetadataAttribute attribute = new MetadataAttribute(name, ProductData.TYPE_ASCII, 1);
+        if (value.isEmpty())
+            value = " ";
+        attribute.getData().setElems(value);
+        meta.addAttribute(attribute);
+    }
+
+    /**
+     * An open XML element. Its MetadataElement is only created once a child element is seen,
+     * until then it may still turn out to be a simple attribute of its parent.
+     */
+    private static final class Frame {
+        final String name;
+        final String path;
+        final String[] attribNames;
+        final String[] attribValues;
+        final StringBuilder text = new StringBuilder();
+        MetadataElement element = null;
+
+        Frame(final XMLStreamReader reader, final String parentPath) {
+            this.name = reader.getLocalName();
+            this.path = parentPath + '/' + name;
+            final int numAttribs = reader.getAttributeCount();
+            attribNames = new String[numAttribs];
+            attribValues = new String[numAttribs];
+            for (int i = 0; i < numAttribs; ++i) {
+                attribNames[i] = reader.getAttributeLocalName(i);
+                attribValues[i] = reader.getAttributeValue(i);
+            }
+        }
+
+        MetadataElement getElement() {
+            if (element == null) {
+                element = new MetadataElement(name);
+                text.setLength(0);
+            }
+            return element;
+        }
+
+        void addTo(final MetadataElement target) {
+            if (element == null) {
+                final String value = text.toString();
+                if (attribNames.length == 0) {
+                    if (!value.isEmpty()) {
+                        addAttribute(target, name, value);
+                    }
+                    return;
+                }
+                element = new MetadataElement(name);
+                if (!value.isEmpty()) {
+                    addAttribute(element, name, value);
+                }
+            }
+            for (int i = 0; i < attribNames.length; ++i) {
+                addAttribute(element, attribNames[i], attribValues[i]);
+            }
+            target.addElement(element);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.commons;
+
+import org.esa.snap.core.dataio.ProductIO;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.dataop.resamp.ResamplingFactory;
+import org.esa.snap.dem.dataio.FileElevationModel;
+import org.esa.snap.engine_utilities.util.TestUtils;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Grid sampling against the per point sampling of a synthetic DEM
+ */
+public class TestDemGridSampler {
+
+    static {
+        TestUtils.initTestEnvironment();
+    }
+
+    private static final int demWidth = 240;
+    private static final int demHeight = 200;
+    private static final double demSpacing = 0.001;
+    private static final double demLat = 46.0;
+    private static final double demLon = 10.0;
+    private static final double noDataValue = -32768;
+
+    private static File demFile;
+
+    @BeforeClass
+    public static void writeDem() throws Exception {
+        final Product product = new Product("dem", "DEM", demWidth, demHeight);
+        final Band band = product.addBand("elevation", ProductData.TYPE_FLOAT32);
+        final float[] data = new float[demWidth * demHeight];
+        for (int y = 0; y < demHeight; ++y) {
+            for (int x = 0; x < demWidth; ++x) {
+                // a hole without data
+                final boolean hole = x >= 100 && x < 112 && y >= 60 && y < 75;
+                data[y * demWidth + x] = hole ? (float) noDataValue :
+                        (float) (500 + 200 * Math.sin(x * 0.05) * Math.cos(y * 0.07) + 0.5 * x - 0.3 * y);
+            }
+        }
+        band.setData(ProductData.createInstance(data));
+        band.setNoDataValue(noDataValue);
+        band.setNoDataValueUsed(true);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, demWidth, demHeight,
+                                                   demLon, demLat, demSpacing, demSpacing, 0.0, 0.0));
+
+        demFile = File.createTempFile("demGridSampler", ".tif");
+        ProductIO.writeProduct(product, demFile, "GeoTIFF", false);
+    }
+
+    @AfterClass
+    public static void deleteDem() {
+        if (demFile != null) {
+            demFile.delete();
+        }
+    }
+
+    @Test
+    public void testBilinear() throws Exception {
+        compareGrid(ResamplingFactory.BILINEAR_INTERPOLATION_NAME);
+    }
+
+    @Test
+    public void testCubicConvolution() throws Exception {
+        compareGrid(ResamplingFactory.CUBIC_CONVOLUTION_NAME);
+    }
+
+    private static void compareGrid(final String resamplingMethod) throws Exception {
+        final FileElevationModel dem = new FileElevationModel(demFile, resamplingMethod, noDataValue);
+        try {
+            // finer than the DEM, over the hole and beyond the west and north edges of the DEM
+            final double latMax = demLat + 0.01;
+            final double lonMin = demLon - 0.01;
+            final double spacing = 0.00037;
+            final int rows = 300;
+            final int cols = 400;
+
+            final float[] elevations = new DemGridSampler(dem, noDataValue).getElevations(
+                    latMax, lonMin, -spacing, spacing, rows, cols);
+
+            int numNoData = 0;
+            for (int r = 0; r < rows; ++r) {
+                for (int c = 0; c < cols; ++c) {
+                    final double expected = dem.getElevation(new GeoPos(latMax - r * spacing, lonMin + c * spacing));
+                    final float elevation = elevations[r * cols + c];
+                    if (expected == noDataValue) {
+                        assertEquals(noDataValue, elevation, 0.0);
+                        ++numNoData;
+                    } else {
+                        assertEquals(expected, elevation, 1e-3);
+                    }
+                }
+            }
+            assertTrue(numNoData > 0);
+
+            // nodes without elevation take the geoid
+            final DemGridSampler sampler = new DemGridSampler(dem, noDataValue);
+            sampler.setNoDataGeoidFill((lat, lon) -> 40 + 0.5 * lat - 0.2 * lon);
+            final float[] filled = sampler.getElevations(latMax, lonMin, -spacing, spacing, rows, cols);
+            for (int r = 0; r < rows; ++r) {
+                for (int c = 0; c < cols; ++c) {
+                    final int i = r * cols + c;
+                    if (elevations[i] == (float) noDataValue) {
+                        final double lat = latMax - r * spacing;
+                        final double lon = lonMin + c * spacing;
+                        assertEquals(40 + 0.5 * lat - 0.2 * lon, filled[i], 1e-3);
+                    } else {
+                        assertEquals(elevations[i], filled[i], 0f);
+                    }
+                }
+            }
+
+            // all nodes are corrected by the geoid
+            sampler.setGeoidCorrection((lat, lon) -> 40 + 0.5 * lat - 0.2 * lon);
+            final float[] corrected = sampler.getElevations(latMax, lonMin, -spacing, spacing, rows, cols);
+            for (int r = 0; r < rows; ++r) {
+                for (int c = 0; c < cols; ++c) {
+                    final int i = r * cols + c;
+                    final double undulation = 40 + 0.5 * (latMax - r * spacing) - 0.2 * (lonMin + c * spacing);
+                    if (elevations[i] == (float) noDataValue) {
+                        assertEquals(undulation, corrected[i], 1e-3);
+                    } else {
+                        assertEquals(elevations[i] + undulation, corrected[i], 1e-3);
+                    }
+                }
+            }
+
+            // DEM pixels away from the hole
+            final int x0 = 10, y0 = 90, width = 150, height = 80;
+            final float[] pixels = new DemGridSampler(dem, noDataValue).getElevations(x0, y0, width, height);
+            for (int r = 0; r < height; ++r) {
+                for (int c = 0; c < width; ++c) {
+                    final GeoPos geoPos = dem.getGeoPos(new PixelPos(x0 + c, y0 + r));
+                    assertEquals(dem.getElevation(geoPos), pixels[r * width + c], 1e-2);
+                }
+            }
+        } finally {
+            dem.dispose();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.esa.s1tbx.commons.io;
+
+import org.esa.snap.core.datamodel.MetadataAttribute;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.dataop.downloadable.XMLSupport;
+import org.esa.snap.engine_utilities.datamodel.metadata.AbstractMetadataIO;
+import org.jdom2.Document;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class XMLMetadataStreamReaderTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<product xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n" +
+            "  <adsHeader>\n" +
+            "    <missionId>S1A</missionId>\n" +
+            "    <polarisation>VV</polarisation>\n" +
+            "    <empty></empty>\n" +
+            "  </adsHeader>\n" +
+            "  <imageAnnotation>\n" +
+            "    <imageInformation>\n" +
+            "      <slantRangeTime>5.3e-03</slantRangeTime>\n" +
+            "      <pixelValue><![CDATA[Complex]]></pixelValue>\n" +
+            "    </imageInformation>\n" +
+            "  </imageAnnotation>\n" +
+            "  <geolocationGrid>\n" +
+            "    <geolocationGridPointList count=\"2\">\n" +
+            "      <geolocationGridPoint>\n" +
+            "        <line>0</line>\n" +
+            "        <pixel>0</pixel>\n" +
+            "        <latitude>4.5e+01</latitude>\n" +
+            "      </geolocationGridPoint>\n" +
+            "      <geolocationGridPoint>\n" +
+            "        <line>0</line>\n" +
+            "        <pixel>100</pixel>\n" +
+            "        <latitude>4.6e+01</latitude>\n" +
+            "      </geolocationGridPoint>\n" +
+            "    </geolocationGridPointList>\n" +
+            "  </geolocationGrid>\n" +
+            "  <noiseVectorList count=\"1\">\n" +
+            "    <noiseVector>\n" +
+            "      <pixel count=\"3\">0 40 80</pixel>\n" +
+            "    </noiseVector>\n" +
+            "  </noiseVectorList>\n" +
+            "</product>\n";
+
+    private static InputStream openXML() {
+        return new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MetadataElement readDOM() throws Exception {
+        final Document doc = XMLSupport.LoadXML(openXML());
+        final MetadataElement root = new MetadataElement("root");
+        AbstractMetadataIO.AddXMLMetadata(doc.getRootElement(), root);
+        return root;
+    }
+
+    @Test
+    public void testSameAsDOM() throws Exception {
+        final MetadataElement expected = readDOM();
+
+        final MetadataElement root = new MetadataElement("root");
+        new XMLMetadataStreamReader().read(XMLMetadataStreamReaderTest::openXML, root);
+
+        assertSameMetadata(expected, root);
+    }
+
+    @Test
+    public void testDeferredLists() throws Exception {
+        final MetadataElement expected = readDOM();
+
+        final MetadataElement root = new MetadataElement("root");
+        new XMLMetadataStreamReader(Collections.singleton("geolocationGridPointList"))
+                .read(XMLMetadataStreamReaderTest::openXML, root);
+
+        final MetadataElement geoList = root.getElement("product").getElement("geolocationGrid")
+                .getElement("geolocationGridPointList");
+        assertTrue(geoList instanceof DeferredMetadataElement);
+        assertFalse(((DeferredMetadataElement) geoList).isLoaded());
+
+        assertSameMetadata(expected, root);
+        assertTrue(((DeferredMetadataElement) geoList).isLoaded());
+        assertEquals("2", geoList.getAttributeString("count"));
+        assertEquals(2, geoList.getNumElements());
+    }
+
+    private static void assertSameMetadata(final MetadataElement expected, final MetadataElement actual) {
+        assertEquals(expected.getName(), actual.getName());
+
+        final MetadataAttribute[] expectedAttribs = expected.getAttributes();
+        final MetadataAttribute[] actualAttribs = actual.getAttributes();
+        assertEquals(expected.getName(), expectedAttribs.length, actualAttribs.length);
+        for (int i = 0; i < expectedAttribs.length; ++i) {
+            assertEquals(expectedAttribs[i].getName(), actualAttribs[i].getName());
+            assertEquals(expectedAttribs[i].getDataType(), actualAttribs[i].getDataType());
+            assertEquals(expectedAttribs[i].getData().getElemString(), actualAttribs[i].getData().getElemString());
+        }
+
+        final MetadataElement[] expectedElems = expected.getElements();
+        final MetadataElement[] actualElems = actual.getElements();
+        assertEquals(expected.getName(), expectedElems.length, actualElems.length);
+        for (int i = 0; i < expectedElems.length; ++i) {
+            assertSameMetadata(expectedElems[i], actualElems[i]);
+        }
+    }
+}
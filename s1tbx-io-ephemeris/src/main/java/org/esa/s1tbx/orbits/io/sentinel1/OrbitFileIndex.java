@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.orbits.io.sentinel1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Index of the Sentinel-1 orbit files below an orbit folder, by mission, orbit type and validity period.
+ * <p>
+ * The index is kept in a binary file next to the orbit folder with the modification time of every directory and the
+ * mission, type, validity start and stop and relative path of every orbit file, sorted by mission, type and
+ * validity start. When the index is used, the directories are checked against their recorded modification time
+ * and only changed directories are listed again, so lookups in a large archive do not list the whole tree.
+ * <p>
+ * Usage: <code>OrbitFileIndex orbitFolder...</code> rebuilds the index of each folder.
+ */
+public final class OrbitFileIndex {
+
+    private static final Logger logger = Logger.getLogger(OrbitFileIndex.class.getName());
+
+    public static final String INDEX_SUFFIX = ".orbit_index";
+
+    private static final int MAGIC = 0x53314f49; // S1OI
+    private static final int VERSION = 1;
+
+    // directories modified this recently may still change within their time stamp resolution
+    private static final long MODIFIED_MARGIN = 2000;
+    private static final long UNTRUSTED = Long.MIN_VALUE;
+
+    private static final double SECONDS_PER_DAY = 86400.0;
+    private static final long MJD2000_EPOCH_SECONDS = 946684800L;
+
+    private static final Map<File, OrbitFileIndex> indices = new ConcurrentHashMap<>();
+
+    private final File rootFolder;
+    private final File indexFile;
+
+    // directories by path relative to the root folder, "" for the root folder
+    private Map<String, DirRecord> dirs = new HashMap<>();
+    private Entry[] entries = new Entry[0];
+    private double maxValidity = 0;
+    private int numScannedDirs = 0;
+    private boolean changed = false;
+
+    OrbitFileIndex(final File rootFolder) {
+        this.rootFolder = rootFolder;
+        this.indexFile = getIndexFile(rootFolder);
+        try {
+            if (indexFile.exists()) {
+                load();
+            }
+        } catch (IOException e) {
+            logger.warning("Unable to read orbit file index " + indexFile + ": " + e.getMessage());
+            dirs = new HashMap<>();
+            entries = new Entry[0];
+        }
+    }
+
+    /**
+     * @param rootFolder the orbit folder
+     * @return the index file, next to the folder so that writing it does not modify the indexed tree
+     */
+    static File getIndexFile(final File rootFolder) {
+        final File absolute = rootFolder.getAbsoluteFile();
+        final File parent = absolute.getParentFile();
+        return parent != null ? new File(parent, absolute.getName() + INDEX_SUFFIX) : new File(absolute, INDEX_SUFFIX);
+    }
+
+    /**
+     * @param rootFolder the orbit folder
+     * @return the shared index of the folder
+     */
+    public static OrbitFileIndex getIndex(final File rootFolder) {
+        return indices.computeIfAbsent(rootFolder.getAbsoluteFile(), OrbitFileIndex::new);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: OrbitFileIndex orbitFolder...");
+            return;
+        }
+        for (String folder : args) {
+            final OrbitFileIndex index = new OrbitFileIndex(new File(folder));
+            index.rebuild();
+            System.out.println(folder + ": " + index.getNumFiles() + " orbit files in " +
+                                       index.dirs.size() + " folders");
+        }
+    }
+
+    /**
+     * Find the orbit file valid at a given time, updating the index first if it is stale
+     *
+     * @param missionPrefix the mission such as S1A
+     * @param fileType      POEORB or RESORB
+     * @param mjd           the time in days since 2000-01-01, as ProductData.UTC.getMJD()
+     * @return the orbit file with the latest validity start including the time, or null if there is none
+     * @throws IOException if the index can not be updated
+     */
+    public synchronized File find(final String missionPrefix, final String fileType, final double mjd)
+            throws IOException {
+        update();
+
+        // first entry after the last one starting at or before the time
+        final Entry key = new Entry(missionPrefix, fileType, mjd, mjd, null);
+        int lo = 0, hi = entries.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (ORDER.compare(entries[mid], key) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo - 1; i >= 0; --i) {
+            final Entry entry = entries[i];
+            if (!entry.mission.equals(missionPrefix) || !entry.fileType.equals(fileType) ||
+                    entry.start < mjd - maxValidity) {
+                break;
+            }
+            if (mjd >= entry.start && mjd < entry.stop) {
+                final File file = new File(rootFolder, entry.path);
+                if (file.exists()) {
+                    return file;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * List the directories that changed since the index was written and save the index if any did
+     *
+     * @return the number of directories listed
+     * @throws IOException if the index can not be written
+     */
+    public synchronized int update() throws IOException {
+        numScannedDirs = 0;
+        changed = false;
+        final Map<String, DirRecord> updated = new HashMap<>();
+        final long now = System.currentTimeMillis();
+        scan(rootFolder, "", updated, now);
+
+        if (changed || updated.size() != dirs.size()) {
+            dirs = updated;
+            final List<Entry> list = new ArrayList<>();
+            for (DirRecord dir : dirs.values()) {
+                list.addAll(dir.entries);
+            }
+            setEntries(list);
+            save();
+        }
+        return numScannedDirs;
+    }
+
+    /**
+     * List all directories again
+     */
+    public synchronized void rebuild() throws IOException {
+        dirs = new HashMap<>();
+        setEntries(new ArrayList<>());
+        update();
+    }
+
+    public synchronized int getNumFiles() {
+        return entries.length;
+    }
+
+    private void setEntries(final List<Entry> list) {
+        final Entry[] sorted = list.toArray(new Entry[0]);
+        Arrays.sort(sorted, ORDER);
+        double max = 0;
+        for (Entry entry : sorted) {
+            max = Math.max(max, entry.stop - entry.start);
+        }
+        entries = sorted;
+        maxValidity = max;
+    }
+
+    private void scan(final File dir, final String relPath, final Map<String, DirRecord> updated, final long now) {
+        final long modified = dir.lastModified();
+        if (modified == 0L) {
+            // removed
+            return;
+        }
+        final DirRecord previous = dirs.get(relPath);
+        if (previous != null && previous.modified != UNTRUSTED && previous.modified == modified) {
+            updated.put(relPath, previous);
+            for (String subDir : previous.subDirs) {
+                scan(new File(dir, subDir), child(relPath, subDir), updated, now);
+            }
+            return;
+        }
+
+        ++numScannedDirs;
+        final DirRecord record = new DirRecord(now - modified < MODIFIED_MARGIN ? UNTRUSTED : modified);
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    record.subDirs.add(file.getName());
+                } else {
+                    final Entry entry = parse(file.getName(), child(relPath, file.getName()));
+                    if (entry != null) {
+                        record.entries.add(entry);
+                    }
+                }
+            }
+        }
+        if (previous == null || previous.modified != record.modified || !previous.sameContent(record)) {
+            changed = true;
+        }
+        updated.put(relPath, record);
+        for (String subDir : record.subDirs) {
+            scan(new File(dir, subDir), child(relPath, subDir), updated, now);
+        }
+    }
+
+    private static String child(final String relPath, final String name) {
+        return relPath.isEmpty() ? name : relPath + '/' + name;
+    }
+
+    /**
+     * The index entry of an orbit file name such as
+     * S1A_OPER_AUX_POEORB_OPOD_20140526T151322_V20140509T225944_20140511T005944.EOF, or null for other files
+     */
+    static Entry parse(final String name, final String relPath) {
+        final String upper = name.toUpperCase();
+        if (upper.length() < 73 || !(upper.endsWith(".EOF") || upper.endsWith(".ZIP")) ||
+                !upper.startsWith("S1") || upper.charAt(41) != 'V' || upper.charAt(57) != '_' ||
+                !upper.startsWith("_OPER_AUX_", 3)) {
+            return null;
+        }
+        final String fileType = upper.substring(13, 19);
+        if (!fileType.equals("POEORB") && !fileType.equals("RESORB")) {
+            return null;
+        }
+        try {
+            return new Entry(upper.substring(0, 3), fileType, toMJD(upper, 42), toMJD(upper, 58), relPath);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a yyyyMMddTHHmmss time in days since 2000-01-01
+     */
+    private static double toMJD(final String name, final int offset) {
+        final LocalDateTime time = LocalDateTime.of(
+                Integer.parseInt(name.substring(offset, offset + 4)),
+                Integer.parseInt(name.substring(offset + 4, offset + 6)),
+                Integer.parseInt(name.substring(offset + 6, offset + 8)),
+                Integer.parseInt(name.substring(offset + 9, offset + 11)),
+                Integer.parseInt(name.substring(offset + 11, offset + 13)),
+                Integer.parseInt(name.substring(offset + 13, offset + 15)));
+        return (time.toEpochSecond(ZoneOffset.UTC) - MJD2000_EPOCH_SECONDS) / SECONDS_PER_DAY;
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an orbit file index");
+            }
+            final int numDirs = in.readInt();
+            final Map<String, DirRecord> loaded = new HashMap<>(numDirs * 2);
+            final List<Entry> list = new ArrayList<>();
+            for (int d = 0; d < numDirs; ++d) {
+                final String relPath = in.readUTF();
+                final DirRecord record = new DirRecord(in.readLong());
+                final int numSubDirs = in.readInt();
+                for (int i = 0; i < numSubDirs; ++i) {
+                    record.subDirs.add(in.readUTF());
+                }
+                final int numEntries = in.readInt();
+                for (int i = 0; i < numEntries; ++i) {
+                    final String mission = in.readUTF();
+                    final String fileType = in.readUTF();
+                    final double start = in.readDouble();
+                    final double stop = in.readDouble();
+                    final Entry entry = new Entry(mission, fileType, start, stop, child(relPath, in.readUTF()));
+                    record.entries.add(entry);
+                    list.add(entry);
+                }
+                loaded.put(relPath, record);
+            }
+            dirs = loaded;
+            setEntries(list);
+        }
+    }
+
+    private void save() throws IOException {
+        final File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(dirs.size());
+            for (Map.Entry<String, DirRecord> dir : dirs.entrySet()) {
+                final String relPath = dir.getKey();
+                final DirRecord record = dir.getValue();
+                out.writeUTF(relPath);
+                out.writeLong(record.modified);
+                out.writeInt(record.subDirs.size());
+                for (String subDir : record.subDirs) {
+                    out.writeUTF(subDir);
+                }
+                out.writeInt(record.entries.size());
+                for (Entry entry : record.entries) {
+                    out.writeUTF(entry.mission);
+                    out.writeUTF(entry.fileType);
+                    out.writeDouble(entry.start);
+                    out.writeDouble(entry.stop);
+                    out.writeUTF(entry.path.substring(entry.path.lastIndexOf('/') + 1));
+                }
+            }
+        }
+        try {
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry, String>comparing(e -> e.mission)
+            .thenComparing(e -> e.fileType).thenComparingDouble(e -> e.start);
+
+    static final class Entry {
+        final String mission;
+        final String fileType;
+        final double start;
+        final double stop;
+        final String path;
+
+        Entry(final String mission, final String fileType, final double start, final double stop, final String path) {
+            this.mission = mission;
+            this.fileType = fileType;
+            this.start = start;
+            this.stop = stop;
+            this.path = path;
+        }
+    }
+
+    private static final class DirRecord {
+        final long modified;
+        final List<String> subDirs = new ArrayList<>();
+        final List<Entry> entries = new ArrayList<>();
+
+        DirRecord(final long modified) {
+            this.modified = modified;
+        }
+
+        boolean sameContent(final DirRecord other) {
+            if (!subDirs.equals(other.subDirs) || entries.size() != other.entries.size()) {
+                return false;
+            }
+            for (int i = 0; i < entries.size(); ++i) {
+                if (!entries.get(i).path.equals(other.entries.get(i).path)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.orbits.io.sentinel1;
+
+import org.esa.snap.core.util.SystemUtils;
+import org.esa.snap.engine_utilities.datamodel.Orbits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary copy of the fixed header and state vectors of an orbit file, written after the orbit file is parsed and
+ * memory mapped on later reads instead of parsing the XML again.
+ * The sidecars are kept in the cache folder rather than next to the orbit files, so that writing them does not
+ * modify the directories OrbitFileIndex checks for changes.
+ * The sidecar records the length and modification time of the orbit file and is ignored once they change.
+ */
+final class OrbitVectorSidecar {
+
+    static final String SUFFIX = ".osv";
+
+    private static final int MAGIC = 0x53315356; // S1SV
+    private static final int VERSION = 1;
+    private static final int NUM_HEADER_FIELDS = 5;
+    private static final int VECTOR_LENGTH = 7;
+
+    /**
+     * The fixed header as mission, file type, validity start, validity stop and version, or null without
+     * a header, and the state vectors
+     */
+    final String[] header;
+    final List<Orbits.OrbitVector> osvList;
+
+    private OrbitVectorSidecar(final String[] header, final List<Orbits.OrbitVector> osvList) {
+        this.header = header;
+        this.osvList = osvList;
+    }
+
+    /**
+     * @return the sidecar in the cache folder, named by the orbit file and a hash of the folder it is in
+     */
+    static File getSidecarFile(final File orbitFile) {
+        final File absolute = orbitFile.getAbsoluteFile();
+        final String folderHash = Integer.toHexString(String.valueOf(absolute.getParent()).hashCode());
+        return new File(getSidecarFolder(), folderHash + '_' + absolute.getName() + SUFFIX);
+    }
+
+    static File getSidecarFolder() {
+        return new File(new File(SystemUtils.getCacheDir(), "s1tbx"), "orbit_vectors");
+    }
+
+    /**
+     * @return the content of the sidecar of an orbit file, or null if there is no sidecar or it is out of date
+     */
+    static OrbitVectorSidecar read(final File orbitFile) {
+        final File file = getSidecarFile(orbitFile);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION ||
+                    buffer.getLong() != orbitFile.length() || buffer.getLong() != orbitFile.lastModified()) {
+                return null;
+            }
+
+            String[] header = null;
+            if (buffer.get() != 0) {
+                header = new String[NUM_HEADER_FIELDS];
+                for (int i = 0; i < NUM_HEADER_FIELDS; ++i) {
+                    header[i] = readString(buffer);
+                }
+            }
+
+            final int count = buffer.getInt();
+            buffer.position(align(buffer.position()));
+            final DoubleBuffer vectors = buffer.asDoubleBuffer();
+            if (vectors.remaining() != count * VECTOR_LENGTH) {
+                return null;
+            }
+            final List<Orbits.OrbitVector> osvList = new ArrayList<>(count);
+            final double[] v = new double[VECTOR_LENGTH];
+            for (int i = 0; i < count; ++i) {
+                vectors.get(v);
+                osvList.add(new Orbits.OrbitVector(v[0], v[1], v[2], v[3], v[4], v[5], v[6]));
+            }
+            return new OrbitVectorSidecar(header, osvList);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the sidecar of an orbit file
+     *
+     * @param orbitFile the parsed orbit file
+     * @param header    mission, file type, validity start, validity stop and version, or null
+     * @param osvList   the state vectors
+     */
+    static void write(final File orbitFile, final String[] header, final List<Orbits.OrbitVector> osvList)
+            throws IOException {
+        final byte[][] fields = new byte[NUM_HEADER_FIELDS][];
+        int headerLength = 4 + 4 + 8 + 8 + 1 + 4;
+        if (header != null) {
+            for (int i = 0; i < NUM_HEADER_FIELDS; ++i) {
+                fields[i] = header[i] == null ? null : header[i].getBytes(StandardCharsets.UTF_8);
+                headerLength += 4 + (fields[i] == null ? 0 : fields[i].length);
+            }
+        }
+        final int vectorStart = align(headerLength);
+        final ByteBuffer buffer = ByteBuffer.allocate(vectorStart + osvList.size() * VECTOR_LENGTH * 8);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(orbitFile.length());
+        buffer.putLong(orbitFile.lastModified());
+        buffer.put((byte) (header != null ? 1 : 0));
+        if (header != null) {
+            for (byte[] field : fields) {
+                if (field == null) {
+                    buffer.putInt(-1);
+                } else {
+                    buffer.putInt(field.length);
+                    buffer.put(field);
+                }
+            }
+        }
+        buffer.putInt(osvList.size());
+        buffer.position(vectorStart);
+        for (Orbits.OrbitVector osv : osvList) {
+            buffer.putDouble(osv.utcMJD);
+            buffer.putDouble(osv.xPos);
+            buffer.putDouble(osv.yPos);
+            buffer.putDouble(osv.zPos);
+            buffer.putDouble(osv.xVel);
+            buffer.putDouble(osv.yVel);
+            buffer.putDouble(osv.zVel);
+        }
+        buffer.flip();
+
+        final File file = getSidecarFile(orbitFile);
+        final File folder = file.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Unable to create " + folder);
+        }
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int align(final int position) {
+        return (position + 7) & ~7;
+    }
+}
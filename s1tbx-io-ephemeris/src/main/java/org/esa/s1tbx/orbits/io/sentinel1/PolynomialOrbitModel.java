@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.orbits.io.sentinel1;
+
+import Jama.Matrix;
+import org.esa.snap.engine_utilities.datamodel.Orbits;
+import org.esa.snap.engine_utilities.util.Maths;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Orbit state vectors interpolated by least squares polynomials fitted to polyDegree + 1 neighbouring vectors.
+ * <p>
+ * The polynomials of a window of vectors are fitted once, on the first query in the window, and kept for all
+ * later queries, which only select the window and evaluate the polynomials. The model is safe for concurrent
+ * readers: the coefficients of a window are immutable once published and a window fitted by two threads at
+ * the same time gets the same coefficients.
+ */
+public final class PolynomialOrbitModel {
+
+    private static final int NUM_COMPONENTS = 6;
+
+    private final int polyDegree;
+    private final int numVecPolyFit;
+    private final int numVectors;
+    private final double t0;
+    private final double tN;
+
+    // time since t0 and position and velocity of the state vectors
+    private final double[] time;
+    private final double[][] components;
+
+    // x, y, z position and velocity polynomials of the window starting at each vector
+    private final AtomicReferenceArray<double[][]> coefficients;
+
+    public PolynomialOrbitModel(final List<Orbits.OrbitVector> osvList, final int polyDegree) {
+        this.polyDegree = polyDegree;
+        this.numVecPolyFit = polyDegree + 1;
+        this.numVectors = osvList.size();
+        if (numVectors < numVecPolyFit) {
+            throw new IllegalArgumentException(
+                    numVectors + " orbit state vectors are not enough for a polynomial of degree " + polyDegree);
+        }
+        this.t0 = osvList.get(0).utcMJD;
+        this.tN = osvList.get(numVectors - 1).utcMJD;
+
+        time = new double[numVectors];
+        components = new double[NUM_COMPONENTS][numVectors];
+        for (int i = 0; i < numVectors; i++) {
+            final Orbits.OrbitVector osv = osvList.get(i);
+            time[i] = osv.utcMJD - t0;
+            components[0][i] = osv.xPos;
+            components[1][i] = osv.yPos;
+            components[2][i] = osv.zPos;
+            components[3][i] = osv.xVel;
+            components[4][i] = osv.yVel;
+            components[5][i] = osv.zVel;
+        }
+        coefficients = new AtomicReferenceArray<>(numVectors - numVecPolyFit + 1);
+    }
+
+    /**
+     * Get orbit state vector for given time.
+     *
+     * @param utc The UTC in days.
+     * @return The orbit state vector.
+     */
+    public Orbits.OrbitVector getOrbitData(final double utc) {
+        final double[] position = new double[3];
+        final double[] velocity = new double[3];
+        getOrbitData(utc, position, velocity);
+        return new Orbits.OrbitVector(utc, position[0], position[1], position[2],
+                                      velocity[0], velocity[1], velocity[2]);
+    }
+
+    /**
+     * Get orbit position and velocity for given time.
+     *
+     * @param utc      The UTC in days.
+     * @param position The x, y, z position.
+     * @param velocity The x, y, z velocity.
+     */
+    public void getOrbitData(final double utc, final double[] position, final double[] velocity) {
+        final double[][] coeff = getCoefficients(getWindowStart(utc));
+        final double normalizedTime = utc - t0;
+        position[0] = Maths.polyVal(normalizedTime, coeff[0]);
+        position[1] = Maths.polyVal(normalizedTime, coeff[1]);
+        position[2] = Maths.polyVal(normalizedTime, coeff[2]);
+        velocity[0] = Maths.polyVal(normalizedTime, coeff[3]);
+        velocity[1] = Maths.polyVal(normalizedTime, coeff[4]);
+        velocity[2] = Maths.polyVal(normalizedTime, coeff[5]);
+    }
+
+    /**
+     * The first of the vectors around the given time, or the first or last vectors before and after the orbit
+     */
+    private int getWindowStart(final double utc) {
+        final int halfNumVecPolyFit = numVecPolyFit / 2;
+        final int vecIdx = (int) ((utc - t0) / (tN - t0) * (numVectors - 1));
+        if (vecIdx <= halfNumVecPolyFit - 1) {
+            return 0;
+        } else if (vecIdx >= numVectors - halfNumVecPolyFit) {
+            return numVectors - numVecPolyFit;
+        }
+        // an odd number of vectors in the window can not be centred on the last interval
+        return Math.min(vecIdx - halfNumVecPolyFit + 1, numVectors - numVecPolyFit);
+    }
+
+    private double[][] getCoefficients(final int start) {
+        double[][] coeff = coefficients.get(start);
+        if (coeff == null) {
+            coeff = fit(start);
+            coefficients.set(start, coeff);
+        }
+        return coeff;
+    }
+
+    private double[][] fit(final int start) {
+        final double[] timeArray = new double[numVecPolyFit];
+        System.arraycopy(time, start, timeArray, 0, numVecPolyFit);
+        final Matrix A = Maths.createVandermondeMatrix(timeArray, polyDegree);
+
+        final double[][] coeff = new double[NUM_COMPONENTS][];
+        for (int c = 0; c < NUM_COMPONENTS; c++) {
+            final double[] values = new double[numVecPolyFit];
+            System.arraycopy(components[c], start, values, 0, numVecPolyFit);
+            coeff[c] = Maths.polyFit(A, values);
+        }
+        return coeff;
+    }
+}
@@ -23,6 +23,7 @@ import org.jdom2.Document;
 import org.jdom2.Element;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -50,6 +51,16 @@ public class Sentinel1OrbitFileReader {
 
     void read() throws Exception {
 
+        final OrbitVectorSidecar sidecar = OrbitVectorSidecar.read(orbitFile);
+        if (sidecar != null) {
+            final String[] header = sidecar.header;
+            if (header != null) {
+                fixedHeader = new FixedHeader(header[0], header[1], header[2], header[3], header[4]);
+            }
+            osvList = sidecar.osvList;
+            return;
+        }
+
         final Document doc;
         if (orbitFile.getName().toLowerCase().endsWith(".zip")) {
             final ZipFile productZip = new ZipFile(orbitFile, ZipFile.OPEN_READ);
@@ -75,6 +86,14 @@ public class Sentinel1OrbitFileReader {
             final Element listOfOSVs = dataBlock.getChild("List_of_OSVs");
             osvList = readOSVList(listOfOSVs);
         }
+
+        try {
+            final String[] header = fixedHeader == null ? null : new String[]{fixedHeader.mission,
+                    fixedHeader.fileType, fixedHeader.validityStart, fixedHeader.validityStop, fixedHeader.version};
+            OrbitVectorSidecar.write(orbitFile, header, osvList);
+        } catch (IOException e) {
+            SystemUtils.LOG.fine("Unable to write state vectors of " + orbitFile + ": " + e.getMessage());
+        }
     }
 
     private static FixedHeader readFixedHeader(final Element fixedHeaderElem) {
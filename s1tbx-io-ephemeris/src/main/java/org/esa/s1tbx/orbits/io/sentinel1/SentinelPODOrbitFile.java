@@ -15,7 +15,6 @@
  */
 package org.esa.s1tbx.orbits.io.sentinel1;
 
-import Jama.Matrix;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
@@ -27,13 +26,10 @@ import org.esa.snap.core.util.StringUtils;
 import org.esa.snap.core.util.SystemUtils;
 import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
 import org.esa.snap.engine_utilities.datamodel.Orbits;
-import org.esa.snap.engine_utilities.util.Maths;
 import org.esa.snap.engine_utilities.util.Settings;
 
 import java.io.*;
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -53,7 +49,7 @@ public class SentinelPODOrbitFile extends BaseOrbitFile implements OrbitFile {
 
     private final int polyDegree;
 
-    private List<Orbits.OrbitVector> osvList = new ArrayList<>();
+    private volatile PolynomialOrbitModel orbitModel;
     private String fileVersion;
 
     private static LoadingCache<File, Sentinel1OrbitFileReader> cache;
@@ -126,15 +122,18 @@ public class SentinelPODOrbitFile extends BaseOrbitFile implements OrbitFile {
         return "S1" + mission.substring(mission.length() - 1);
     }
 
-    static File getDestFolder(final String missionPrefix, final String orbitType, final int year, final int month) {
-        final String prefOrbitPath;
+    private static String getOrbitPath(final String orbitType) {
         if (orbitType.startsWith(RESTITUTED)) {
             String def = SystemUtils.getAuxDataPath().resolve("Orbits").resolve("Sentinel-1").resolve("RESORB").toString();
-            prefOrbitPath = Settings.instance().get("OrbitFiles.sentinel1RESOrbitPath", def);
+            return Settings.instance().get("OrbitFiles.sentinel1RESOrbitPath", def);
         } else {
             String def = SystemUtils.getAuxDataPath().resolve("Orbits").resolve("Sentinel-1").resolve("POEORB").toString();
-            prefOrbitPath = Settings.instance().get("OrbitFiles.sentinel1POEOrbitPath", def);
+            return Settings.instance().get("OrbitFiles.sentinel1POEOrbitPath", def);
         }
+    }
+
+    static File getDestFolder(final String missionPrefix, final String orbitType, final int year, final int month) {
+        final String prefOrbitPath = getOrbitPath(orbitType);
         final File destFolder = new File(prefOrbitPath +
                 File.separator + missionPrefix +
                 File.separator + year +
@@ -157,6 +156,16 @@ public class SentinelPODOrbitFile extends BaseOrbitFile implements OrbitFile {
 
     static File findOrbitFile(final String missionPrefix, final String orbitType,
                               final ProductData.UTC stateVectorTime, final int year, final int month) {
+        try {
+            final File orbitFile = OrbitFileIndex.getIndex(new File(getOrbitPath(orbitType))).find(
+                    missionPrefix, orbitType.startsWith(RESTITUTED) ? "RESORB" : "POEORB", stateVectorTime.getMJD());
+            if (orbitFile != null) {
+                return orbitFile;
+            }
+        } catch (IOException e) {
+            SystemUtils.LOG.warning("Unable to update the orbit file index: " + e.getMessage());
+        }
+
         final String prefix;
         if (orbitType.startsWith(RESTITUTED)) {
             prefix = missionPrefix + "_OPER_AUX_RESORB_OPOD_";
@@ -209,65 +218,18 @@ public class SentinelPODOrbitFile extends BaseOrbitFile implements OrbitFile {
      * @return The orbit state vector.
      */
     public Orbits.OrbitVector getOrbitData(final double utc) {
+        return orbitModel.getOrbitData(utc);
+    }
 
-        final int numVectors = osvList.size();
-        final double t0 = osvList.get(0).utcMJD;
-        final double tN = osvList.get(numVectors - 1).utcMJD;
-
-        final int numVecPolyFit = polyDegree + 1; //4;
-        final int halfNumVecPolyFit = numVecPolyFit / 2;
-        final int[] vectorIndices = new int[numVecPolyFit];
-
-        final int vecIdx = (int) ((utc - t0) / (tN - t0) * (numVectors - 1));
-        if (vecIdx <= halfNumVecPolyFit - 1) {
-            for (int i = 0; i < numVecPolyFit; i++) {
-                vectorIndices[i] = i;
-            }
-        } else if (vecIdx >= numVectors - halfNumVecPolyFit) {
-            for (int i = 0; i < numVecPolyFit; i++) {
-                vectorIndices[i] = numVectors - numVecPolyFit + i;
-            }
-        } else {
-            for (int i = 0; i < numVecPolyFit; i++) {
-                vectorIndices[i] = vecIdx - halfNumVecPolyFit + 1 + i;
-            }
-        }
-
-        double[] timeArray = new double[numVecPolyFit];
-        double[] xPosArray = new double[numVecPolyFit];
-        double[] yPosArray = new double[numVecPolyFit];
-        double[] zPosArray = new double[numVecPolyFit];
-        double[] xVelArray = new double[numVecPolyFit];
-        double[] yVelArray = new double[numVecPolyFit];
-        double[] zVelArray = new double[numVecPolyFit];
-
-        for (int i = 0; i < numVecPolyFit; i++) {
-            timeArray[i] = osvList.get(vectorIndices[i]).utcMJD - t0;
-            xPosArray[i] = osvList.get(vectorIndices[i]).xPos;
-            yPosArray[i] = osvList.get(vectorIndices[i]).yPos;
-            zPosArray[i] = osvList.get(vectorIndices[i]).zPos;
-            xVelArray[i] = osvList.get(vectorIndices[i]).xVel;
-            yVelArray[i] = osvList.get(vectorIndices[i]).yVel;
-            zVelArray[i] = osvList.get(vectorIndices[i]).zVel;
-        }
-
-        final Matrix A = Maths.createVandermondeMatrix(timeArray, polyDegree);
-        final double[] xPosCoeff = Maths.polyFit(A, xPosArray);
-        final double[] yPosCoeff = Maths.polyFit(A, yPosArray);
-        final double[] zPosCoeff = Maths.polyFit(A, zPosArray);
-        final double[] xVelCoeff = Maths.polyFit(A, xVelArray);
-        final double[] yVelCoeff = Maths.polyFit(A, yVelArray);
-        final double[] zVelCoeff = Maths.polyFit(A, zVelArray);
-
-        final double normalizedTime = utc - t0;
-
-        return new Orbits.OrbitVector(utc,
-                Maths.polyVal(normalizedTime, xPosCoeff),
-                Maths.polyVal(normalizedTime, yPosCoeff),
-                Maths.polyVal(normalizedTime, zPosCoeff),
-                Maths.polyVal(normalizedTime, xVelCoeff),
-                Maths.polyVal(normalizedTime, yVelCoeff),
-                Maths.polyVal(normalizedTime, zVelCoeff));
+    /**
+     * Get orbit position and velocity for given time using polynomial fitting.
+     *
+     * @param utc      The UTC in days.
+     * @param position The x, y, z position.
+     * @param velocity The x, y, z velocity.
+     */
+    public void getOrbitData(final double utc, final double[] position, final double[] velocity) {
+        orbitModel.getOrbitData(utc, position, velocity);
     }
 
     private void readOrbitFile() throws Exception {
@@ -276,7 +238,7 @@ public class SentinelPODOrbitFile extends BaseOrbitFile implements OrbitFile {
 
         checkOrbitFileValidity(orbitFileReader);
 
-        osvList = orbitFileReader.getOrbitStateVectors();
+        orbitModel = new PolynomialOrbitModel(orbitFileReader.getOrbitStateVectors(), polyDegree);
         fileVersion = orbitFileReader.getFileVersion();
     }
 
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.orbits.io.sentinel1;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Orbit file lookups in a generated directory of synthetic orbit files
+ */
+public class TestOrbitFileIndex {
+
+    private static final DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final LocalDateTime epoch = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    // an hour ago, so that the directories are trusted by the index
+    private final long past = System.currentTimeMillis() - 3600 * 1000;
+
+    private File rootFolder;
+    private final List<File> orbitFiles = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        rootFolder = Files.createTempDirectory("orbits").toFile();
+
+        for (String mission : new String[]{"S1A", "S1B"}) {
+            // daily precise orbits of 26 hours
+            LocalDateTime day = LocalDateTime.of(2019, 12, 20, 0, 0);
+            while (day.isBefore(LocalDateTime.of(2020, 3, 10, 0, 0))) {
+                orbitFiles.add(createOrbitFile(mission, "POEORB", day.minusMinutes(61).plusSeconds(1),
+                                               day.plusDays(1).plusMinutes(59).plusSeconds(1)));
+                day = day.plusDays(1);
+            }
+            // restituted orbits of 3 hours every 2 hours
+            LocalDateTime time = LocalDateTime.of(2020, 1, 30, 0, 0);
+            while (time.isBefore(LocalDateTime.of(2020, 2, 3, 0, 0))) {
+                orbitFiles.add(createOrbitFile(mission, "RESORB", time, time.plusHours(3)));
+                time = time.plusHours(2);
+            }
+        }
+        new File(rootFolder, "S1A/2020/01/readme.txt").createNewFile();
+        new File(rootFolder, "S1A/2020/01/S1A_OPER_AUX_POEORB_broken.EOF").createNewFile();
+        setTreeModified(past);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(rootFolder.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+        OrbitFileIndex.getIndexFile(rootFolder).delete();
+    }
+
+    @Test
+    public void testFind() throws IOException {
+        final OrbitFileIndex index = new OrbitFileIndex(rootFolder);
+        index.update();
+        assertEquals(orbitFiles.size(), index.getNumFiles());
+
+        final Random random = new Random(3);
+        final double start = toMJD(LocalDateTime.of(2019, 12, 15, 0, 0));
+        final double stop = toMJD(LocalDateTime.of(2020, 3, 15, 0, 0));
+        for (int i = 0; i < 2000; ++i) {
+            final String mission = random.nextBoolean() ? "S1A" : "S1B";
+            final String fileType = random.nextInt(4) == 0 ? "RESORB" : "POEORB";
+            final double mjd = start + (stop - start) * random.nextDouble();
+            checkFind(index, mission, fileType, mjd);
+        }
+
+        // validity boundaries
+        final double dayStart = toMJD(LocalDateTime.of(2020, 2, 1, 0, 0));
+        checkFind(index, "S1A", "RESORB", dayStart);
+        checkFind(index, "S1A", "POEORB", dayStart - 61.0 / 1440 + 1.0 / 86400);
+        assertNull(index.find("S1C", "POEORB", dayStart));
+    }
+
+    @Test
+    public void testPersistentIndex() throws IOException {
+        new OrbitFileIndex(rootFolder).update();
+        assertTrue(OrbitFileIndex.getIndexFile(rootFolder).exists());
+
+        // an unchanged tree is not listed again
+        final OrbitFileIndex index = new OrbitFileIndex(rootFolder);
+        assertEquals(orbitFiles.size(), index.getNumFiles());
+        assertEquals(0, index.update());
+
+        final double mjd = toMJD(LocalDateTime.of(2020, 1, 15, 12, 0));
+        final File file = index.find("S1B", "POEORB", mjd);
+        assertNotNull(file);
+        assertTrue(file.getName().startsWith("S1B_OPER_AUX_POEORB_OPOD_"));
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws IOException {
+        new OrbitFileIndex(rootFolder).update();
+        final OrbitFileIndex index = new OrbitFileIndex(rootFolder);
+
+        // a new file in a new month
+        final LocalDateTime day = LocalDateTime.of(2021, 6, 1, 0, 0);
+        final File added = createOrbitFile("S1A", "POEORB", day, day.plusDays(1));
+        setTreeModified(past + 1000);
+        assertTrue(index.update() > 0);
+        assertEquals(added, index.find("S1A", "POEORB", toMJD(day.plusHours(3))));
+
+        // only the changed directory is listed
+        final File removed = index.find("S1A", "POEORB", toMJD(LocalDateTime.of(2020, 1, 15, 12, 0)));
+        assertTrue(removed.delete());
+        removed.getParentFile().setLastModified(past + 2000);
+        assertEquals(1, index.update());
+        final File other = index.find("S1A", "POEORB", toMJD(LocalDateTime.of(2020, 1, 15, 12, 0)));
+        assertTrue(other == null || !other.equals(removed));
+
+        assertEquals(0, new OrbitFileIndex(rootFolder).update());
+    }
+
+    @Test
+    public void testParse() {
+        final OrbitFileIndex.Entry entry = OrbitFileIndex.parse(
+                "S1A_OPER_AUX_POEORB_OPOD_20140526T151322_V20140509T225944_20140511T005944.EOF", "a.EOF");
+        assertNotNull(entry);
+        assertEquals("S1A", entry.mission);
+        assertEquals("POEORB", entry.fileType);
+        assertEquals(toMJD(LocalDateTime.of(2014, 5, 9, 22, 59, 44)), entry.start, 1e-9);
+        assertEquals(toMJD(LocalDateTime.of(2014, 5, 11, 0, 59, 44)), entry.stop, 1e-9);
+
+        assertNotNull(OrbitFileIndex.parse(
+                "S1B_OPER_AUX_RESORB_OPOD_20140526T151322_V20140509T225944_20140510T015944.zip", "a.zip"));
+        assertNull(OrbitFileIndex.parse(
+                "S1A_OPER_AUX_POEORB_OPOD_20140526T151322_V20140509T225944_20140511T005944.EOF.osv", "a"));
+        assertNull(OrbitFileIndex.parse(
+                "S1A_OPER_AUX_PREORB_OPOD_20140526T151322_V20140509T225944_20140511T005944.EOF", "a"));
+        assertNull(OrbitFileIndex.parse("S1A_OPER_AUX_POEORB_broken.EOF", "a"));
+    }
+
+    private void checkFind(final OrbitFileIndex index, final String mission, final String fileType,
+                           final double mjd) throws IOException {
+        File expected = null;
+        double expectedStart = Double.NEGATIVE_INFINITY;
+        for (File file : orbitFiles) {
+            final OrbitFileIndex.Entry entry = OrbitFileIndex.parse(file.getName(), file.getName());
+            if (entry.mission.equals(mission) && entry.fileType.equals(fileType) &&
+                    mjd >= entry.start && mjd < entry.stop && entry.start > expectedStart) {
+                expected = file;
+                expectedStart = entry.start;
+            }
+        }
+        assertEquals(expected, index.find(mission, fileType, mjd));
+    }
+
+    private File createOrbitFile(final String mission, final String fileType, final LocalDateTime start,
+                                 final LocalDateTime stop) throws IOException {
+        final File folder = new File(rootFolder, mission + File.separator + start.getYear() + File.separator +
+                String.format("%02d", start.getMonthValue()));
+        folder.mkdirs();
+        final String name = mission + "_OPER_AUX_" + fileType + "_OPOD_" + stop.plusDays(20).format(format) +
+                "_V" + start.format(format) + "_" + stop.format(format) + ".EOF";
+        final File file = new File(folder, name);
+        Files.write(file.toPath(), new byte[]{'<', '/', '>'});
+        return file;
+    }
+
+    private void setTreeModified(final long time) throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(rootFolder.toPath())) {
+            paths.map(java.nio.file.Path::toFile).filter(File::isDirectory).forEach(dir -> dir.setLastModified(time));
+        }
+    }
+
+    private static double toMJD(final LocalDateTime time) {
+        return java.time.Duration.between(epoch, time).getSeconds() / 86400.0;
+    }
+}
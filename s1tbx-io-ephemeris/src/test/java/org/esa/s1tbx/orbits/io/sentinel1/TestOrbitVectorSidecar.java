@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.orbits.io.sentinel1;
+
+import org.esa.snap.engine_utilities.datamodel.Orbits;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * State vectors written to and mapped from the sidecar of an orbit file
+ */
+public class TestOrbitVectorSidecar {
+
+    private File orbitFile;
+
+    @Before
+    public void setUp() throws IOException {
+        orbitFile = File.createTempFile("S1A_OPER_AUX_POEORB_OPOD_", ".EOF");
+        Files.write(orbitFile.toPath(), "<Earth_Explorer_File/>".getBytes());
+        orbitFile.setLastModified(System.currentTimeMillis() - 60000);
+    }
+
+    @After
+    public void tearDown() {
+        OrbitVectorSidecar.getSidecarFile(orbitFile).delete();
+        orbitFile.delete();
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        assertNull(OrbitVectorSidecar.read(orbitFile));
+
+        final List<Orbits.OrbitVector> osvList = new ArrayList<>();
+        for (int i = 0; i < 9361; ++i) {
+            osvList.add(new Orbits.OrbitVector(7000.0 + i * 10.0 / 86400.0, -368251.718419 + i, -2299963.236657,
+                                               6671242.884855 - i, -2359.280562, 6854.762675 + i * 1e-3, 2228.116584));
+        }
+        final String[] header = {"Sentinel-1A", "AUX_POEORB", "UTC=2015-08-27T22:59:43", "UTC=2015-08-29T00:59:43",
+                null};
+        OrbitVectorSidecar.write(orbitFile, header, osvList);
+
+        final OrbitVectorSidecar sidecar = OrbitVectorSidecar.read(orbitFile);
+        assertNotNull(sidecar);
+        assertArrayEquals(header, sidecar.header);
+        assertEquals(osvList.size(), sidecar.osvList.size());
+        for (int i = 0; i < osvList.size(); ++i) {
+            final Orbits.OrbitVector expected = osvList.get(i);
+            final Orbits.OrbitVector osv = sidecar.osvList.get(i);
+            assertEquals(expected.utcMJD, osv.utcMJD, 0.0);
+            assertEquals(expected.xPos, osv.xPos, 0.0);
+            assertEquals(expected.yPos, osv.yPos, 0.0);
+            assertEquals(expected.zPos, osv.zPos, 0.0);
+            assertEquals(expected.xVel, osv.xVel, 0.0);
+            assertEquals(expected.yVel, osv.yVel, 0.0);
+            assertEquals(expected.zVel, osv.zVel, 0.0);
+        }
+    }
+
+    @Test
+    public void testWithoutHeader() throws IOException {
+        final List<Orbits.OrbitVector> osvList = new ArrayList<>();
+        osvList.add(new Orbits.OrbitVector(7000.0, 1, 2, 3, 4, 5, 6));
+        OrbitVectorSidecar.write(orbitFile, null, osvList);
+
+        final OrbitVectorSidecar sidecar = OrbitVectorSidecar.read(orbitFile);
+        assertNotNull(sidecar);
+        assertNull(sidecar.header);
+        assertEquals(1, sidecar.osvList.size());
+        assertEquals(6.0, sidecar.osvList.get(0).zVel, 0.0);
+    }
+
+    @Test
+    public void testOutsideOrbitFolder() throws IOException {
+        final File orbitFolder = Files.createTempDirectory("orbits").toFile();
+        final File file = new File(orbitFolder, orbitFile.getName());
+        Files.copy(orbitFile.toPath(), file.toPath());
+        try {
+            final List<Orbits.OrbitVector> osvList = new ArrayList<>();
+            osvList.add(new Orbits.OrbitVector(7000.0, 1, 2, 3, 4, 5, 6));
+            OrbitVectorSidecar.write(file, null, osvList);
+            assertNotNull(OrbitVectorSidecar.read(file));
+
+            // the orbit folder indexed by OrbitFileIndex is left as it is
+            assertArrayEquals(new String[]{file.getName()}, orbitFolder.list());
+            assertTrue(OrbitVectorSidecar.getSidecarFile(file).isFile());
+            assertNull(OrbitVectorSidecar.read(orbitFile));
+        } finally {
+            OrbitVectorSidecar.getSidecarFile(file).delete();
+            file.delete();
+            orbitFolder.delete();
+        }
+    }
+
+    @Test
+    public void testOutOfDate() throws IOException {
+        final List<Orbits.OrbitVector> osvList = new ArrayList<>();
+        osvList.add(new Orbits.OrbitVector(7000.0, 1, 2, 3, 4, 5, 6));
+        OrbitVectorSidecar.write(orbitFile, null, osvList);
+        assertNotNull(OrbitVectorSidecar.read(orbitFile));
+
+        // a new orbit file of the same name
+        Files.write(orbitFile.toPath(), "<Earth_Explorer_File></Earth_Explorer_File>".getBytes());
+        assertNull(OrbitVectorSidecar.read(orbitFile));
+
+        // a truncated sidecar
+        OrbitVectorSidecar.write(orbitFile, null, osvList);
+        final File sidecarFile = OrbitVectorSidecar.getSidecarFile(orbitFile);
+        final byte[] bytes = Files.readAllBytes(sidecarFile.toPath());
+        Files.write(sidecarFile.toPath(), java.util.Arrays.copyOf(bytes, bytes.length - 8));
+        assertNull(OrbitVectorSidecar.read(orbitFile));
+    }
+}
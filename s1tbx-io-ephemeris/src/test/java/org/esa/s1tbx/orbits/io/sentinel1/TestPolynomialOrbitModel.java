@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.orbits.io.sentinel1;
+
+import Jama.Matrix;
+import org.esa.s1tbx.commons.test.TestData;
+import org.esa.snap.engine_utilities.datamodel.Orbits;
+import org.esa.snap.engine_utilities.util.Maths;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The cached polynomials of PolynomialOrbitModel against a fit of the neighbouring vectors for every query
+ */
+public class TestPolynomialOrbitModel {
+
+    private final static File orbitFile = new File(TestData.inputSAR + "Orbits" + TestData.sep +
+            "S1A_OPER_AUX_RESORB_OPOD_20140611T152302_V20140525T151921_20140525T183641.EOF");
+
+    private static final double secondsInDay = 86400.0;
+
+    @Test
+    public void testSyntheticOrbit() {
+        final List<Orbits.OrbitVector> osvList = createCircularOrbit(5000.0, 720, 10.0);
+        for (int polyDegree : new int[]{3, 5}) {
+            checkModel(osvList, polyDegree, 7);
+        }
+    }
+
+    @Test
+    public void testEvenDegreeAtLastVector() {
+        final List<Orbits.OrbitVector> osvList = createCircularOrbit(5000.0, 720, 10.0);
+        final PolynomialOrbitModel model = new PolynomialOrbitModel(osvList, 2);
+        final Orbits.OrbitVector last = osvList.get(osvList.size() - 1);
+        final Orbits.OrbitVector beforeLast = osvList.get(osvList.size() - 2);
+
+        // the window of three vectors ends at the last vector and passes through both
+        assertEquals(beforeLast.xPos, model.getOrbitData(beforeLast.utcMJD).xPos, 1e-3);
+        assertEquals(last.xPos, model.getOrbitData(last.utcMJD).xPos, 1e-3);
+        assertEquals(last.zVel, model.getOrbitData(last.utcMJD).zVel, 1e-6);
+    }
+
+    @Test
+    public void testPODOrbitFile() throws Exception {
+        assumeTrue(orbitFile + " not found", orbitFile.exists());
+
+        final Sentinel1OrbitFileReader orbitFileReader = new Sentinel1OrbitFileReader(orbitFile);
+        orbitFileReader.read();
+        checkModel(orbitFileReader.getOrbitStateVectors(), 3, 11);
+    }
+
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        final List<Orbits.OrbitVector> osvList = createCircularOrbit(5000.0, 720, 10.0);
+        final PolynomialOrbitModel model = new PolynomialOrbitModel(osvList, 3);
+        final double t0 = osvList.get(0).utcMJD;
+        final double tN = osvList.get(osvList.size() - 1).utcMJD;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                final long seed = thread;
+                futures.add(executor.submit(() -> {
+                    final Random random = new Random(seed);
+                    final double[] position = new double[3];
+                    final double[] velocity = new double[3];
+                    for (int i = 0; i < 5000; i++) {
+                        final double utc = t0 + (tN - t0) * random.nextDouble();
+                        model.getOrbitData(utc, position, velocity);
+                        final Orbits.OrbitVector expected = getOrbitData(osvList, 3, utc);
+                        assertEquals(expected.xPos, position[0], 0.0);
+                        assertEquals(expected.yPos, position[1], 0.0);
+                        assertEquals(expected.zPos, position[2], 0.0);
+                        assertEquals(expected.xVel, velocity[0], 0.0);
+                        assertEquals(expected.yVel, velocity[1], 0.0);
+                        assertEquals(expected.zVel, velocity[2], 0.0);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void checkModel(final List<Orbits.OrbitVector> osvList, final int polyDegree, final long seed) {
+        final PolynomialOrbitModel model = new PolynomialOrbitModel(osvList, polyDegree);
+        final int numVectors = osvList.size();
+        final double t0 = osvList.get(0).utcMJD;
+        final double tN = osvList.get(numVectors - 1).utcMJD;
+        final double dt = (tN - t0) / (numVectors - 1);
+
+        final List<Double> times = new ArrayList<>();
+        for (Orbits.OrbitVector osv : osvList) {
+            times.add(osv.utcMJD);
+            times.add(osv.utcMJD + 0.37 * dt);
+        }
+        final Random random = new Random(seed);
+        for (int i = 0; i < 1000; i++) {
+            times.add(t0 + (tN - t0) * random.nextDouble());
+        }
+        // before and after the state vectors
+        times.add(t0 - 3.5 * dt);
+        times.add(tN + 2.5 * dt);
+
+        for (double utc : times) {
+            final Orbits.OrbitVector expected = getOrbitData(osvList, polyDegree, utc);
+            final Orbits.OrbitVector orbitData = model.getOrbitData(utc);
+            assertEquals(utc, orbitData.utcMJD, 0.0);
+            assertEquals(expected.xPos, orbitData.xPos, Math.abs(expected.xPos) * 1e-13);
+            assertEquals(expected.yPos, orbitData.yPos, Math.abs(expected.yPos) * 1e-13);
+            assertEquals(expected.zPos, orbitData.zPos, Math.abs(expected.zPos) * 1e-13);
+            assertEquals(expected.xVel, orbitData.xVel, Math.abs(expected.xVel) * 1e-13);
+            assertEquals(expected.yVel, orbitData.yVel, Math.abs(expected.yVel) * 1e-13);
+            assertEquals(expected.zVel, orbitData.zVel, Math.abs(expected.zVel) * 1e-13);
+        }
+    }
+
+    /**
+     * Circular orbit inclined at 98 degrees with a state vector every interval seconds
+     */
+    private static List<Orbits.OrbitVector> createCircularOrbit(final double utc0, final int numVectors,
+                                                                final double interval) {
+        final double radius = 7071000.0;
+        final double omega = Math.sqrt(3.986004418e14 / (radius * radius * radius));
+        final double inclination = Math.toRadians(98.2);
+        final List<Orbits.OrbitVector> osvList = new ArrayList<>();
+        for (int i = 0; i < numVectors; i++) {
+            final double t = i * interval;
+            final double u = omega * t;
+            final double x = radius * Math.cos(u);
+            final double y = radius * Math.sin(u) * Math.cos(inclination);
+            final double z = radius * Math.sin(u) * Math.sin(inclination);
+            final double vx = -radius * omega * Math.sin(u);
+            final double vy = radius * omega * Math.cos(u) * Math.cos(inclination);
+            final double vz = radius * omega * Math.cos(u) * Math.sin(inclination);
+            osvList.add(new Orbits.OrbitVector(utc0 + t / secondsInDay, x, y, z, vx, vy, vz));
+        }
+        return osvList;
+    }
+
+    /**
+     * Fit of the neighbouring vectors for a single query
+     */
+    private static Orbits.OrbitVector getOrbitData(final List<Orbits.OrbitVector> osvList, final int polyDegree,
+                                                   final double utc) {
+
+        final int numVectors = osvList.size();
+        final double t0 = osvList.get(0).utcMJD;
+        final double tN = osvList.get(numVectors - 1).utcMJD;
+
+        final int numVecPolyFit = polyDegree + 1;
+        final int halfNumVecPolyFit = numVecPolyFit / 2;
+        final int[] vectorIndices = new int[numVecPolyFit];
+
+        final int vecIdx = (int) ((utc - t0) / (tN - t0) * (numVectors - 1));
+        if (vecIdx <= halfNumVecPolyFit - 1) {
+            for (int i = 0; i < numVecPolyFit; i++) {
+                vectorIndices[i] = i;
+            }
+        } else if (vecIdx >= numVectors - halfNumVecPolyFit) {
+            for (int i = 0; i < numVecPolyFit; i++) {
+                vectorIndices[i] = numVectors - numVecPolyFit + i;
+            }
+        } else {
+            for (int i = 0; i < numVecPolyFit; i++) {
+                vectorIndices[i] = vecIdx - halfNumVecPolyFit + 1 + i;
+            }
+        }
+
+        final double[] timeArray = new double[numVecPolyFit];
+        final double[][] values = new double[6][numVecPolyFit];
+        for (int i = 0; i < numVecPolyFit; i++) {
+            final Orbits.OrbitVector osv = osvList.get(vectorIndices[i]);
+            timeArray[i] = osv.utcMJD - t0;
+            values[0][i] = osv.xPos;
+            values[1][i] = osv.yPos;
+            values[2][i] = osv.zPos;
+            values[3][i] = osv.xVel;
+            values[4][i] = osv.yVel;
+            values[5][i] = osv.zVel;
+        }
+
+        final Matrix A = Maths.createVandermondeMatrix(timeArray, polyDegree);
+        final double normalizedTime = utc - t0;
+        final double[] v = new double[6];
+        for (int c = 0; c < 6; c++) {
+            v[c] = Maths.polyVal(normalizedTime, Maths.polyFit(A, values[c]));
+        }
+        return new Orbits.OrbitVector(utc, v[0], v[1], v[2], v[3], v[4], v[5]);
+    }
+}
@@ -23,8 +23,6 @@ import org.esa.snap.core.datamodel.*;
 import org.esa.snap.core.util.Guardian;
 import org.esa.snap.core.util.SystemUtils;
 import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
-import ucar.ma2.Array;
-import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Group;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
@@ -39,7 +37,11 @@ import java.util.Map;
  */
 public class NetCDFReader extends SARReader {
 
+    // lines read at once between checks for cancellation
+    private static final int ROWS_PER_READ = 64;
+
     private NetcdfFile netcdfFile = null;
+    private NetCDFTileReader tileReader = null;
     private Product product = null;
     private NcVariableMap variableMap = null;
     private boolean yFlipped = false;
@@ -93,6 +95,7 @@ public class NetCDFReader extends SARReader {
         final Variable[] tiePointGridVariables = NetCDFUtils.getTiePointGridVariables(variableListMap, rasterVariables);
 
         variableMap = new NcVariableMap(rasterVariables);
+        tileReader = new NetCDFTileReader(netcdfFile);
         yFlipped = false;
 
         final NcAttributeMap globalAttributes = NcAttributeMap.create(netcdfFile);
@@ -132,6 +135,8 @@ public class NetCDFReader extends SARReader {
             product = null;
             variableMap.clear();
             variableMap = null;
+            tileReader.close();
+            tileReader = null;
             netcdfFile.close();
             netcdfFile = null;
         }
@@ -253,10 +258,10 @@ public class NetCDFReader extends SARReader {
      * {@inheritDoc}
      */
     @Override
-    protected synchronized void readBandRasterDataImpl(int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
-                                                       int sourceStepX, int sourceStepY, Band destBand, int destOffsetX,
-                                                       int destOffsetY, int destWidth, int destHeight, ProductData destBuffer,
-                                                       ProgressMonitor pm) throws IOException {
+    protected void readBandRasterDataImpl(int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
+                                          int sourceStepX, int sourceStepY, Band destBand, int destOffsetX,
+                                          int destOffsetY, int destWidth, int destHeight, ProductData destBuffer,
+                                          ProgressMonitor pm) throws IOException {
 
         Guardian.assertTrue("sourceStepX == 1 && sourceStepY == 1", sourceStepX == 1 && sourceStepY == 1);
         Guardian.assertTrue("sourceWidth == destWidth", sourceWidth == destWidth);
@@ -278,34 +283,19 @@ public class NetCDFReader extends SARReader {
             throw new IOException("Band " + destBand.getName() + " not found");
         }
         final int rank = variable.getRank();
-        final int[] origin = new int[rank];
-        final int[] shape = new int[rank];
-        for (int i = 0; i < rank; i++) {
-            shape[i] = 1;
-            origin[i] = 0;
-        }
-        shape[rank - 2] = 1;
-        shape[rank - 1] = destWidth;
-        origin[rank - 1] = sourceOffsetX;
 
         pm.beginTask("Reading data from band " + destBand.getName(), destHeight);
         try {
-            for (int y = 0; y < destHeight; y++) {
-                origin[rank - 2] = yFlipped ? y0 - y : y0 + y;
-                final Array array;
-                synchronized (netcdfFile) {
-                    array = variable.read(origin, shape);
-                }
-                System.arraycopy(array.getStorage(), 0, destBuffer.getElems(), y * destWidth, destWidth);
-                pm.worked(1);
+            for (int y = 0; y < destHeight; y += ROWS_PER_READ) {
+                final int rows = Math.min(ROWS_PER_READ, destHeight - y);
+                tileReader.readTile(variable, rank - 2, rank - 1, -1, 0,
+                                    sourceOffsetX, yFlipped ? y0 - y : y0 + y, destWidth, rows, yFlipped,
+                                    destBuffer.getElems(), y * destWidth);
+                pm.worked(rows);
                 if (pm.isCanceled()) {
                     throw new IOException("Process terminated by user."); /*I18N*/
                 }
             }
-        } catch (InvalidRangeException e) {
-            final IOException ioException = new IOException(e.getMessage());
-            ioException.initCause(e);
-            throw ioException;
         } finally {
             pm.done();
         }
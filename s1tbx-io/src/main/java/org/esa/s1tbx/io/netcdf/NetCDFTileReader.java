@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.io.netcdf;
+
+import org.esa.snap.core.util.SystemUtils;
+import org.esa.snap.runtime.Config;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads rectangular blocks of a NetCDF/HDF5 raster variable with one hyperslab call.
+ * <p>
+ * For variables storing interleaved complex samples (e.g. [lines][samples][2]) both components
+ * are read together and the component not requested is kept in a small cache until its band asks for it.
+ * <p>
+ * The NetCDF library does not support concurrent reads on one file handle, so additional read-only
+ * handles on the same file are opened on demand, up to s1tbx.readers.netcdf.maxConcurrentReads.
+ */
+public class NetCDFTileReader {
+
+    private static final int maxConcurrentReads = Config.instance().preferences().getInt(
+            "s1tbx.readers.netcdf.maxConcurrentReads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int MAX_CACHED_BLOCKS = 16;
+
+    private final NetcdfFile primaryFile;
+    private final Deque<NetcdfFile> idleFiles = new ArrayDeque<>();
+    private final Deque<NetcdfFile> extraFiles = new ArrayDeque<>();
+    private int numFilesInUse = 0;
+    private int numFilesOpen = 1;
+    private boolean closed = false;
+
+    private final Map<String, Block> blockCache = new LinkedHashMap<String, Block>(MAX_CACHED_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Block> eldest) {
+            return size() > MAX_CACHED_BLOCKS;
+        }
+    };
+
+    public NetCDFTileReader(final NetcdfFile netcdfFile) {
+        this.primaryFile = netcdfFile;
+        idleFiles.push(netcdfFile);
+    }
+
+    /**
+     * Read a rectangle of a raster variable into a destination array.
+     *
+     * @param variable       the raster variable
+     * @param rowDim         index of the line dimension
+     * @param colDim         index of the sample dimension
+     * @param componentDim   index of the last dimension holding interleaved components or -1 if none
+     * @param component      the component to return e.g. 0 for I and 1 for Q
+     * @param x              first sample
+     * @param y              first line in the file if not flipped, last line in the file if flipped
+     * @param width          number of samples
+     * @param height         number of lines
+     * @param yFlipped       true if lines are stored bottom up
+     * @param dest           destination array, must be of the variable's primitive type
+     * @throws IOException on read error
+     */
+    public void readTile(final Variable variable, final int rowDim, final int colDim,
+                         final int componentDim, final int component,
+                         final int x, final int y, final int width, final int height, final boolean yFlipped,
+                         final Object dest) throws IOException {
+        readTile(variable, rowDim, colDim, componentDim, component, x, y, width, height, yFlipped, dest, 0);
+    }
+
+    /**
+     * Read a rectangle of a raster variable into a destination array from an offset.
+     *
+     * @param destOffset     index in the destination array of the first sample
+     * @see #readTile(Variable, int, int, int, int, int, int, int, int, boolean, Object)
+     */
+    public void readTile(final Variable variable, final int rowDim, final int colDim,
+                         final int componentDim, final int component,
+                         final int x, final int y, final int width, final int height, final boolean yFlipped,
+                         final Object dest, final int destOffset) throws IOException {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        final int numComponents = componentDim >= 0 ? variable.getShape(componentDim) : 1;
+        final int firstRow = yFlipped ? y - height + 1 : y;
+
+        if (numComponents <= 1) {
+            final Object storage = readBlock(variable, rowDim, colDim, componentDim, 0, 1, firstRow, x, width, height);
+            copyRows(storage, dest, destOffset, width, height, yFlipped);
+            return;
+        }
+
+        final String key = variable.getFullName() + ':' + x + ':' + firstRow + ':' + width + ':' + height;
+        final Block block;
+        synchronized (blockCache) {
+            Block cached = blockCache.get(key);
+            if (cached == null) {
+                cached = new Block(numComponents);
+                blockCache.put(key, cached);
+            }
+            block = cached;
+        }
+
+        final Object componentData;
+        synchronized (block) {
+            if (block.components == null) {
+                final Object storage = readBlock(variable, rowDim, colDim, componentDim, 0, numComponents,
+                                                 firstRow, x, width, height);
+                block.components = deinterleave(storage, numComponents, width * height);
+            }
+            componentData = block.components[component];
+            block.consumed[component] = true;
+            if (block.isFullyConsumed()) {
+                synchronized (blockCache) {
+                    blockCache.remove(key);
+                }
+            }
+        }
+        copyRows(componentData, dest, destOffset, width, height, yFlipped);
+    }
+
+    private Object readBlock(final Variable variable, final int rowDim, final int colDim,
+                             final int componentDim, final int firstComponent, final int numComponents,
+                             final int firstRow, final int x, final int width, final int height) throws IOException {
+        final int rank = variable.getRank();
+        final int[] origin = new int[rank];
+        final int[] shape = new int[rank];
+        for (int i = 0; i < rank; i++) {
+            shape[i] = 1;
+            origin[i] = 0;
+        }
+        origin[rowDim] = firstRow;
+        shape[rowDim] = height;
+        origin[colDim] = x;
+        shape[colDim] = width;
+        if (componentDim >= 0) {
+            origin[componentDim] = firstComponent;
+            shape[componentDim] = numComponents;
+        }
+
+        final NetcdfFile file = acquireFile();
+        try {
+            final Variable fileVariable = file == primaryFile ? variable : file.findVariable(variable.getFullNameEscaped());
+            if (fileVariable == null) {
+                throw new IOException("Variable " + variable.getFullName() + " not found");
+            }
+            final Array array;
+            synchronized (file) {
+                array = fileVariable.read(origin, shape);
+            }
+            return array.getStorage();
+        } catch (InvalidRangeException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            releaseFile(file);
+        }
+    }
+
+    private NetcdfFile acquireFile() throws IOException {
+        synchronized (this) {
+            while (idleFiles.isEmpty() && numFilesOpen >= maxConcurrentReads && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for file", e);
+                }
+            }
+            if (closed) {
+                throw new IOException("Reader is closed");
+            }
+            ++numFilesInUse;
+            if (!idleFiles.isEmpty()) {
+                return idleFiles.pop();
+            }
+            ++numFilesOpen;
+        }
+        try {
+            final NetcdfFile file = NetcdfFile.open(primaryFile.getLocation());
+            synchronized (this) {
+                extraFiles.push(file);
+            }
+            return file;
+        } catch (IOException e) {
+            synchronized (this) {
+                --numFilesOpen;
+                --numFilesInUse;
+                notifyAll();
+            }
+            SystemUtils.LOG.warning("Unable to open additional handle on " + primaryFile.getLocation());
+            throw e;
+        }
+    }
+
+    private synchronized void releaseFile(final NetcdfFile file) {
+        --numFilesInUse;
+        idleFiles.push(file);
+        notifyAll();
+    }
+
+    /**
+     * Close the additional file handles. The primary file remains owned by the product reader.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            while (numFilesInUse > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        for (NetcdfFile file : extraFiles) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                SystemUtils.LOG.warning("Unable to close " + file.getLocation());
+            }
+        }
+        extraFiles.clear();
+        synchronized (blockCache) {
+            blockCache.clear();
+        }
+    }
+
+    private static void copyRows(final Object src, final Object dest, final int destOffset,
+                                 final int width, final int height, final boolean yFlipped) {
+        if (!yFlipped) {
+            System.arraycopy(src, 0, dest, destOffset, width * height);
+            return;
+        }
+        for (int row = 0; row < height; ++row) {
+            System.arraycopy(src, row * width, dest, destOffset + (height - 1 - row) * width, width);
+        }
+    }
+
+    static Object[] deinterleave(final Object storage, final int numComponents, final int numSamples) {
+        final Object[] components = new Object[numComponents];
+        if (storage instanceof short[]) {
+            final short[] src = (short[]) storage;
+            for (int c = 0; c < numComponents; ++c) {
+                final short[] dst = new short[numSamples];
+                for (int i = 0, j = c; i < numSamples; ++i, j += numComponents) {
+                    dst[i] = src[j];
+                }
+                components[c] = dst;
+            }
+        } else if (storage instanceof float[]) {
+            final float[] src = (float[]) storage;
+            for (int c = 0; c < numComponents; ++c) {
+                final float[] dst = new float[numSamples];
+                for (int i = 0, j = c; i < numSamples; ++i, j += numComponents) {
+                    dst[i] = src[j];
+                }
+                components[c] = dst;
+            }
+        } else if (storage instanceof int[]) {
+            final int[] src = (int[]) storage;
+            for (int c = 0; c < numComponents; ++c) {
+                final int[] dst = new int[numSamples];
+                for (int i = 0, j = c; i < numSamples; ++i, j += numComponents) {
+                    dst[i] = src[j];
+                }
+                components[c] = dst;
+            }
+        } else if (storage instanceof double[]) {
+            final double[] src = (double[]) storage;
+            for (int c = 0; c < numComponents; ++c) {
+                final double[] dst = new double[numSamples];
+                for (int i = 0, j = c; i < numSamples; ++i, j += numComponents) {
+                    dst[i] = src[j];
+                }
+                components[c] = dst;
+            }
+        } else if (storage instanceof byte[]) {
+            final byte[] src = (byte[]) storage;
+            for (int c = 0; c < numComponents; ++c) {
+                final byte[] dst = new byte[numSamples];
+                for (int i = 0, j = c; i < numSamples; ++i, j += numComponents) {
+                    dst[i] = src[j];
+                }
+                components[c] = dst;
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported data type " + storage.getClass().getSimpleName());
+        }
+        return components;
+    }
+
+    private static final class Block {
+        Object[] components = null;
+        final boolean[] consumed;
+
+        Block(final int numComponents) {
+            consumed = new boolean[numComponents];
+        }
+
+        boolean isFullyConsumed() {
+            for (boolean c : consumed) {
+                if (!c) return false;
+            }
+            return true;
+        }
+    }
+}
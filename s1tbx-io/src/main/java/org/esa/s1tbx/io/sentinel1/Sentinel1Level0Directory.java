@@ -35,6 +35,7 @@ import org.esa.snap.engine_utilities.gpf.ReaderUtils;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -45,6 +46,7 @@ public class Sentinel1Level0Directory extends XMLProductDirectory implements Sen
 
     private final transient Map<String, String> imgBandMetadataMap = new HashMap<>(4);
     private String acqMode = "";
+    private Map<String, Sentinel1Level0RecordTable> recordTables = Collections.emptyMap();
 
     public Sentinel1Level0Directory(final File headerFile) {
         super(headerFile);
@@ -572,6 +574,14 @@ public class Sentinel1Level0Directory extends XMLProductDirectory implements Sen
         final Sentinel1Level0Reader reader = new Sentinel1Level0Reader(getBaseDir(),
                                                                        AbstractMetadata.addOriginalProductMetadata(root));
         reader.readData();
+        recordTables = reader.getRecordTables();
+    }
+
+    /**
+     * @return the annotation and index records by data component name e.g. vv_annotation or vv_index
+     */
+    public Map<String, Sentinel1Level0RecordTable> getRecordTables() {
+        return recordTables;
     }
 
     private void addGeoCodingForLevel0Products(final Product product) {
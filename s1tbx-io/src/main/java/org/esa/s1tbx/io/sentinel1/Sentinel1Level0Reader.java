@@ -15,28 +15,26 @@
  */
 package org.esa.s1tbx.io.sentinel1;
 
-import org.esa.s1tbx.commons.io.FileImageInputStreamExtImpl;
-import org.esa.s1tbx.io.binary.BinaryFileReader;
-import org.esa.s1tbx.io.binary.IllegalBinaryFormatException;
 import org.esa.snap.core.datamodel.MetadataAttribute;
 import org.esa.snap.core.datamodel.MetadataElement;
 import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.runtime.Config;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import javax.imageio.stream.ImageInputStream;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
-import java.math.BigInteger;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * TBD
@@ -89,6 +87,10 @@ public class Sentinel1Level0Reader {
     private final String BASE_ATTRIBUTE = "base";
     private final String UNIT_ATTRIBUTE = "unit";
 
+    // add every record to the metadata instead of a summary of each data component
+    private static final boolean fullRecordMetadata =
+            Config.instance().preferences().getBoolean("s1tbx.readers.sentinel1.level0.fullRecordMetadata", false);
+
     private final class DataElement {
 
         private final String name; // content of attribute "name"
@@ -124,14 +126,17 @@ public class Sentinel1Level0Reader {
 
     private class DataComponent {
 
-        private final BinaryFileReader reader;
+        private final String name;
+        private final File file;
         private final ArrayList<DataElement> elemList;
         private final MetadataElement parentMetadataElem;
         private final long numRecords;
 
-        DataComponent(final BinaryFileReader reader, final ArrayList<DataElement> elemList, final MetadataElement parentMetadataElem, final long numRecords) {
+        DataComponent(final String name, final File file, final ArrayList<DataElement> elemList,
+                      final MetadataElement parentMetadataElem, final long numRecords) {
 
-            this.reader = reader;
+            this.name = name;
+            this.file = file;
             this.elemList = elemList;
             this.parentMetadataElem = parentMetadataElem;
             this.numRecords = numRecords;
@@ -139,6 +144,7 @@ public class Sentinel1Level0Reader {
     }
 
     private ArrayList<DataComponent> dataComponents = new ArrayList<>();
+    private final Map<String, Sentinel1Level0RecordTable> recordTables = new LinkedHashMap<>();
 
     public Sentinel1Level0Reader(final File baseDir, final MetadataElement originalProductMetadata) {
 
@@ -199,7 +205,7 @@ public class Sentinel1Level0Reader {
 
             if (dataFilename.contains(ANNOT_PREFIX) || dataFilename.contains(INDEX_PREFIX)) {
 
-                final long numRecs = createBinaryReader(baseDir, dataFilename, recordElem);
+                final long numRecs = createDataComponent(baseDir, dataFilename, componentElem.getName(), recordElem);
                 numRecsAttr.getData().setElemUInt(numRecs);
             }
 
@@ -209,41 +215,21 @@ public class Sentinel1Level0Reader {
 
     }
 
-    private long createBinaryReader(final File baseDir, final String binDataFilename, MetadataElement metadataElement) {
+    private long createDataComponent(final File baseDir, final String binDataFilename, final String componentName,
+                                     final MetadataElement metadataElement) {
 
         final File binDataFile = new File(baseDir.getAbsolutePath() + binDataFilename);
+        if (!binDataFile.exists()) {
+            System.out.println("Sentinel1Level0Reader.createDataComponent: " + binDataFile + " not found");
+            return 0;
+        }
 
-        long numRecs = 0;
-
-        try {
-            ImageInputStream imageInputStream = FileImageInputStreamExtImpl.createInputStream(binDataFile);
-
-            final BinaryFileReader binaryReader = new BinaryFileReader(imageInputStream);
-
-            // According to Product Specs, binary data is stored in Big Endian format.
-            binaryReader.setByteOrder(ByteOrder.BIG_ENDIAN);
-
-            DataComponent dataComponent = null;
-
-            final long filesize = binDataFile.length(); // bytes
-
-            if (binDataFilename.contains(ANNOT_PREFIX)) {
-
-                numRecs = filesize / getTotalNumberOfBytes(annotElemList);
-                dataComponent = new DataComponent(binaryReader, annotElemList, metadataElement, numRecs);
-
-            } else if (binDataFilename.contains(INDEX_PREFIX)) {
-
-                numRecs = filesize / getTotalNumberOfBytes(indexElemList);
-                dataComponent = new DataComponent(binaryReader, indexElemList, metadataElement, numRecs);
-            }
-
-            dataComponents.add(dataComponent);
+        final long filesize = binDataFile.length(); // bytes
+        final ArrayList<DataElement> elemList = binDataFilename.contains(ANNOT_PREFIX) ? annotElemList : indexElemList;
+        final int recordLength = getTotalNumberOfBytes(elemList);
+        final long numRecs = recordLength > 0 ? filesize / recordLength : 0;
 
-        } catch (IOException e) {
-
-            System.out.println("Sentinel1Level0Reader.createBinaryReader: IOException " + e.getMessage());
-        }
+        dataComponents.add(new DataComponent(componentName, binDataFile, elemList, metadataElement, numRecs));
 
         return numRecs;
     }
@@ -585,162 +571,95 @@ public class Sentinel1Level0Reader {
         System.out.println("End of " + listName);
     }
 
+    /**
+     * Decode the annotation and index data components into record tables and
+     * add a summary of each, or every record if configured, to the metadata.
+     */
     public void readData() {
 
-        //System.out.println("Sentinel1Level0Reader.readData: called");
-
         for (DataComponent d : dataComponents) {
+            try {
+                final Sentinel1Level0RecordTable table = readRecordTable(d);
+                recordTables.put(d.name, table);
 
-            //System.out.println("Sentinel1Level0Reader.readData: read one data component");
-            readBinaryData(d);
-        }
-    }
-
-    private byte readOneBinaryElement(final BinaryFileReader reader,
-                                      final DataElement elem,
-                                      final DataElement prevElem,
-                                      final byte prevByte,
-                                      MetadataElement parentMetadataElem) {
-
-        //System.out.println("Sentinel1Level0Reader.readOneBinaryElement: read " + elem.name + " " + elem.baseType);
-
-        byte lastByteRead = 0;
-
-        try {
-            switch (elem.baseType) {
-                case BOOLEAN_TAG_NAME:
-                case UNSIGNED_BYTE_TAG_NAME: {
-                    final int val = reader.readUB1();
-                    //System.out.println(elem.name + " = " + val + "; " + elem.baseType + " (unsigned byte); pos = " + reader.getCurrentPos());
-                    MetadataAttribute attr = new MetadataAttribute(elem.name, ProductData.TYPE_UINT8);
-                    ProductData productData = attr.getData();
-                    productData.setElemInt(val);
-                    parentMetadataElem.addAttribute(attr);
-                }
-                break;
-                case UNSIGNED_SHORT_TAG_NAME: {
-                    final int val = reader.readUB2();
-                    //System.out.println(elem.name + " = " + val + "; " + elem.baseType + " (unsigned short); pos = " + reader.getCurrentPos());
-                    MetadataAttribute attr = new MetadataAttribute(elem.name, ProductData.TYPE_UINT16);
-                    ProductData productData = attr.getData();
-                    productData.setElemInt(val);
-                    parentMetadataElem.addAttribute(attr);
-                }
-                break;
-                case UNSIGNED_INT_TAG_NAME: {
-                    final long val = getUnsignedInt(reader.readB4());
-                    //System.out.println(elem.name + " = " + val + "; " + elem.baseType + " (unsigned int); pos = " + reader.getCurrentPos());
-                    MetadataAttribute attr = new MetadataAttribute(elem.name, ProductData.TYPE_UINT32);
-                    ProductData productData = attr.getData();
-                    productData.setElemUInt(val);
-                    parentMetadataElem.addAttribute(attr);
-                }
-                break;
-                case UNSIGNED_LONG_TAG_NAME: {
-                    final byte[] bytes = new byte[8];
-                    reader.read(bytes);
-                    final BigInteger val = new BigInteger(bytes);
-                    final String valStr = String.valueOf(val);
-                    //System.out.println(elem.name + " = " + val + "; " + elem.baseType + " (unsigned long);  pos = " + reader.getCurrentPos());
-                    MetadataAttribute attr = new MetadataAttribute(elem.name, ProductData.TYPE_ASCII);
-                    ProductData productData = attr.getData();
-                    productData.setElems(valStr);
-                    parentMetadataElem.addAttribute(attr);
-                    // To get back the unsigned long value, one can get the String back and create a BigInteger with it.
-                    // Constructor of BigInteger takes a String.
-                }
-                break;
-                case DOUBLE_TAG_NAME: {
-                    final double val = (double) reader.readB8();
-                    //System.out.println(elem.name + " = " + val + "; " + elem.baseType + " (double); pos" + reader.getCurrentPos());
-                    MetadataAttribute attr = new MetadataAttribute(elem.name, ProductData.TYPE_FLOAT64);
-                    ProductData productData = attr.getData();
-                    productData.setElemDouble(val);
-                    parentMetadataElem.addAttribute(attr);
-                }
-                break;
-                case BIT_BASE_TYPE: {
-                    if (prevElem == null || elem.startBit == 0) {
-                        final byte[] oneByte = new byte[1];
-                        reader.read(oneByte);
-                        lastByteRead = oneByte[0];
-                        //System.out.println(elem.name + " = "  + Integer.toBinaryString(getInteger(lastByteRead)) + "; " + elem.baseType + " (unsigned int); pos = " + reader.getCurrentPos());
-                    } else {
-                        lastByteRead = prevByte;
-                    }
-
-                    final byte val = extract(lastByteRead, elem.startBit, elem.numBytes);
-
-                    MetadataAttribute attr = new MetadataAttribute(elem.name, ProductData.TYPE_UINT8);
-                    ProductData productData = attr.getData();
-                    productData.setElemInt(getInteger(val));
-                    parentMetadataElem.addAttribute(attr);
-                }
-                break;
-                default: {
-                    System.out.println("Sentinel1Level0Reader.readOneBinaryElement: ERROR Unknown baseType = " + elem.baseType);
+                if (fullRecordMetadata) {
+                    table.addRecordsToMetadata(d.parentMetadataElem, 0, table.getNumRecords());
+                } else {
+                    table.addSummaryToMetadata(d.parentMetadataElem);
                 }
-                break;
+            } catch (IOException e) {
+                System.out.println("Sentinel1Level0Reader.readData: IOException " + e.getMessage());
             }
-
-        } catch (IOException e) {
-
-            System.out.println("Sentinel1Level0Reader.readOneBinaryElement: IOException " + e.getMessage());
-
-        } catch (IllegalBinaryFormatException e) {
-
-            System.out.println("Sentinel1Level0Reader.readOneBinaryElement: IllegalBinaryFormatException " + e.getMessage());
         }
+    }
 
-        return lastByteRead;
+    /**
+     * @return the decoded record tables by data component name e.g. vv_annotation or vv_index
+     */
+    public Map<String, Sentinel1Level0RecordTable> getRecordTables() {
+        return Collections.unmodifiableMap(recordTables);
     }
 
-    private void readBinaryData(DataComponent dataComponent) {
+    private Sentinel1Level0RecordTable readRecordTable(final DataComponent dataComponent) throws IOException {
 
-        final BinaryFileReader reader = dataComponent.reader;
-        final ArrayList<DataElement> elemList = dataComponent.elemList;
-        final MetadataElement parentMetadataElem = dataComponent.parentMetadataElem;
+        return Sentinel1Level0RecordTable.decode(dataComponent.name, dataComponent.file,
+                                                 createRecordLayout(dataComponent.elemList),
+                                                 getTotalNumberOfBytes(dataComponent.elemList));
+    }
 
-        for (long i = 0; i < dataComponent.numRecords; i++) {
+    /**
+     * Compute the byte offset of every field occurrence in a record.
+     * Consecutive bit fields share a byte until a field starts at bit 0 again.
+     */
+    private List<Sentinel1Level0RecordTable.Field> createRecordLayout(final ArrayList<DataElement> elemList) {
 
-            final String parentName = parentMetadataElem.getName();
-            final MetadataElement recMetaElem = new MetadataElement(parentName.substring(0, parentName.length() - 1) + i);
-            parentMetadataElem.addElement(recMetaElem);
-            /*
-            try {
-                System.out.println("readBinaryData: file pos = " + reader.getCurrentPos());
-            } catch (IOException e) {
-                System.out.println("readBinaryData: file pos = ERROR " + e.getMessage());
-            }
-            */
-            DataElement prevDataElem = null;
-            byte prevByte = 0;
+        final List<Sentinel1Level0RecordTable.Field> fields = new ArrayList<>();
+        DataElement prevDataElem = null;
+        int offset = 0;
+        int bitByteOffset = 0;
 
-            for (DataElement elem : elemList) {
+        for (DataElement elem : elemList) {
 
-                for (int j = 0; j < elem.numOccurrences; j++) {
-                    prevByte = readOneBinaryElement(reader, elem, prevDataElem, prevByte, recMetaElem);
-                    prevDataElem = elem;
+            for (int j = 0; j < elem.numOccurrences; j++) {
+                if (elem.baseType.equals(BIT_BASE_TYPE)) {
+                    if (prevDataElem == null || elem.startBit == 0) {
+                        bitByteOffset = offset;
+                        offset += 1;
+                    }
+                    fields.add(new Sentinel1Level0RecordTable.Field(elem.name, Sentinel1Level0RecordTable.ColumnType.UBYTE,
+                                                                    bitByteOffset, Math.max(elem.startBit, 0), elem.numBytes));
+                } else {
+                    final Sentinel1Level0RecordTable.ColumnType type = getColumnType(elem.baseType);
+                    if (type != null) {
+                        fields.add(new Sentinel1Level0RecordTable.Field(elem.name, type, offset, -1, 0));
+                    } else {
+                        System.out.println("Sentinel1Level0Reader.createRecordLayout: ERROR Unknown baseType = " + elem.baseType);
+                    }
+                    offset += elem.numBytes;
                 }
+                prevDataElem = elem;
             }
         }
+        return fields;
     }
 
-    private static long getUnsignedInt(final int x) {
-        return x & 0x00000000ffffffffL;
-    }
-
-    private static int getInteger(final byte b) {
-        return b & 0xFF;
-    }
-
-    private static byte extract(final byte b, final int startBit, final int numBits) {
-
-        // Assume int is 32-bit, byte is 8-bit
-        int result = getInteger(b) << startBit + 24;
-        result = result >>> (32 - numBits);
-
-        return (byte) result;
+    private Sentinel1Level0RecordTable.ColumnType getColumnType(final String baseType) {
+
+        switch (baseType) {
+            case BOOLEAN_TAG_NAME:
+            case UNSIGNED_BYTE_TAG_NAME:
+                return Sentinel1Level0RecordTable.ColumnType.UBYTE;
+            case UNSIGNED_SHORT_TAG_NAME:
+                return Sentinel1Level0RecordTable.ColumnType.USHORT;
+            case UNSIGNED_INT_TAG_NAME:
+                return Sentinel1Level0RecordTable.ColumnType.UINT;
+            case UNSIGNED_LONG_TAG_NAME:
+                return Sentinel1Level0RecordTable.ColumnType.ULONG;
+            case DOUBLE_TAG_NAME:
+                return Sentinel1Level0RecordTable.ColumnType.DOUBLE;
+            default:
+                return null;
+        }
     }
 
     private static String extractPolarization(String filename) {
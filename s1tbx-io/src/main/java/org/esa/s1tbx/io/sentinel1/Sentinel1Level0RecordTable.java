@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.io.sentinel1;
+
+import org.esa.snap.core.datamodel.MetadataAttribute;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoublePredicate;
+
+/**
+ * Columnar table of the fixed size records of a Sentinel-1 Level-0 annotation or index data component.
+ * Each field of the record schema is decoded into one primitive array.
+ */
+public class Sentinel1Level0RecordTable {
+
+    public enum ColumnType {UBYTE, USHORT, UINT, ULONG, DOUBLE}
+
+    /**
+     * Position and type of one field within a record
+     */
+    static final class Field {
+        final String name;
+        final ColumnType type;
+        final int byteOffset;
+        final int startBit;     // only for bit fields, -1 otherwise
+        final int numBits;      // only for bit fields
+
+        Field(final String name, final ColumnType type, final int byteOffset, final int startBit, final int numBits) {
+            this.name = name;
+            this.type = type;
+            this.byteOffset = byteOffset;
+            this.startBit = startBit;
+            this.numBits = numBits;
+        }
+
+        boolean isBitField() {
+            return startBit >= 0;
+        }
+    }
+
+    private final String name;
+    private final Field[] fields;
+    private final Object[] columns;
+    private final int numRecords;
+
+    private Sentinel1Level0RecordTable(final String name, final Field[] fields, final Object[] columns,
+                                       final int numRecords) {
+        this.name = name;
+        this.fields = fields;
+        this.columns = columns;
+        this.numRecords = numRecords;
+    }
+
+    /**
+     * Decode all records of a binary data component. The file is memory mapped and read big endian.
+     *
+     * @param name         name of the data component
+     * @param file         the .dat file
+     * @param fieldList    record layout from the XML schema
+     * @param recordLength number of bytes per record
+     * @return the table
+     * @throws IOException if the file cannot be mapped
+     */
+    static Sentinel1Level0RecordTable decode(final String name, final File file, final List<Field> fieldList,
+                                             final int recordLength) throws IOException {
+
+        final Field[] fields = fieldList.toArray(new Field[0]);
+        final Object[] columns = new Object[fields.length];
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException(file.getName() + " is too large to map");
+            }
+            final int numRecords = recordLength > 0 ? (int) (fileSize / recordLength) : 0;
+
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+
+            for (int f = 0; f < fields.length; ++f) {
+                columns[f] = decodeColumn(buffer, fields[f], recordLength, numRecords);
+            }
+            return new Sentinel1Level0RecordTable(name, fields, columns, numRecords);
+        }
+    }
+
+    private static Object decodeColumn(final MappedByteBuffer buffer, final Field field,
+                                       final int recordLength, final int numRecords) {
+        int pos = field.byteOffset;
+        switch (field.type) {
+            case UBYTE: {
+                final byte[] col = new byte[numRecords];
+                if (field.isBitField()) {
+                    final int shift = 8 - field.startBit - field.numBits;
+                    final int mask = (1 << field.numBits) - 1;
+                    for (int r = 0; r < numRecords; ++r, pos += recordLength) {
+                        col[r] = (byte) (((buffer.get(pos) & 0xFF) >>> shift) & mask);
+                    }
+                } else {
+                    for (int r = 0; r < numRecords; ++r, pos += recordLength) {
+                        col[r] = buffer.get(pos);
+                    }
+                }
+                return col;
+            }
+            case USHORT: {
+                final short[] col = new short[numRecords];
+                for (int r = 0; r < numRecords; ++r, pos += recordLength) {
+                    col[r] = buffer.getShort(pos);
+                }
+                return col;
+            }
+            case UINT: {
+                final int[] col = new int[numRecords];
+                for (int r = 0; r < numRecords; ++r, pos += recordLength) {
+                    col[r] = buffer.getInt(pos);
+                }
+                return col;
+            }
+            case ULONG: {
+                final long[] col = new long[numRecords];
+                for (int r = 0; r < numRecords; ++r, pos += recordLength) {
+                    col[r] = buffer.getLong(pos);
+                }
+                return col;
+            }
+            default: {
+                final double[] col = new double[numRecords];
+                for (int r = 0; r < numRecords; ++r, pos += recordLength) {
+                    col[r] = buffer.getDouble(pos);
+                }
+                return col;
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    public int getNumFields() {
+        return fields.length;
+    }
+
+    public String getFieldName(final int field) {
+        return fields[field].name;
+    }
+
+    public ColumnType getColumnType(final int field) {
+        return fields[field].type;
+    }
+
+    /**
+     * @param fieldName name of the field in the schema
+     * @return index of the first field with this name or -1 if not found
+     */
+    public int getFieldIndex(final String fieldName) {
+        for (int f = 0; f < fields.length; ++f) {
+            if (fields[f].name.equals(fieldName)) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get an integer field value. Unsigned types are returned without sign extension,
+     * unsigned longs are returned as their raw 64 bits.
+     */
+    public long getLong(final int field, final int record) {
+        final Object col = columns[field];
+        switch (fields[field].type) {
+            case UBYTE:
+                return ((byte[]) col)[record] & 0xFFL;
+            case USHORT:
+                return ((short[]) col)[record] & 0xFFFFL;
+            case UINT:
+                return ((int[]) col)[record] & 0xFFFFFFFFL;
+            case ULONG:
+                return ((long[]) col)[record];
+            default:
+                return (long) ((double[]) col)[record];
+        }
+    }
+
+    public double getDouble(final int field, final int record) {
+        if (fields[field].type == ColumnType.DOUBLE) {
+            return ((double[]) columns[field])[record];
+        } else if (fields[field].type == ColumnType.ULONG) {
+            final long val = ((long[]) columns[field])[record];
+            return val >= 0 ? val : (double) (val >>> 1) * 2.0 + (val & 1);
+        }
+        return getLong(field, record);
+    }
+
+    /**
+     * Copy a whole column as doubles
+     */
+    public double[] getColumn(final int field) {
+        final double[] values = new double[numRecords];
+        for (int r = 0; r < numRecords; ++r) {
+            values[r] = getDouble(field, r);
+        }
+        return values;
+    }
+
+    /**
+     * Find the records whose field value satisfies the condition
+     *
+     * @param field     field index
+     * @param condition test on the field value
+     * @return indices of the matching records in ascending order
+     */
+    public int[] select(final int field, final DoublePredicate condition) {
+        int[] matches = new int[64];
+        int cnt = 0;
+        for (int r = 0; r < numRecords; ++r) {
+            if (condition.test(getDouble(field, r))) {
+                if (cnt == matches.length) {
+                    matches = Arrays.copyOf(matches, cnt * 2);
+                }
+                matches[cnt++] = r;
+            }
+        }
+        return Arrays.copyOf(matches, cnt);
+    }
+
+    /**
+     * Add one MetadataElement per record in the range, with the same layout as the record-by-record reader
+     *
+     * @param parent      element to add the records to
+     * @param firstRecord first record
+     * @param count       number of records
+     */
+    public void addRecordsToMetadata(final MetadataElement parent, final int firstRecord, final int count) {
+        final String parentName = parent.getName();
+        final String recordPrefix = parentName.substring(0, parentName.length() - 1);
+        final int end = Math.min(numRecords, firstRecord + count);
+        for (int r = firstRecord; r < end; ++r) {
+            final MetadataElement recElem = new MetadataElement(recordPrefix + r);
+            parent.addElement(recElem);
+            for (int f = 0; f < fields.length; ++f) {
+                recElem.addAttribute(createAttribute(f, r));
+            }
+        }
+    }
+
+    /**
+     * Add the minimum and maximum of every numeric field
+     *
+     * @param parent element to add the summary to
+     */
+    public void addSummaryToMetadata(final MetadataElement parent) {
+        final MetadataElement summaryElem = new MetadataElement("summary");
+        parent.addElement(summaryElem);
+        if (numRecords == 0) {
+            return;
+        }
+        for (int f = 0; f < fields.length; ++f) {
+            if (summaryElem.containsElement(fields[f].name)) {
+                continue;
+            }
+            double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+            for (int r = 0; r < numRecords; ++r) {
+                final double v = getDouble(f, r);
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            final MetadataElement fieldElem = new MetadataElement(fields[f].name);
+            fieldElem.setAttributeDouble("min", min);
+            fieldElem.setAttributeDouble("max", max);
+            summaryElem.addElement(fieldElem);
+        }
+    }
+
+    private MetadataAttribute createAttribute(final int field, final int record) {
+        final String fieldName = fields[field].name;
+        final MetadataAttribute attr;
+        switch (fields[field].type) {
+            case UBYTE:
+                attr = new MetadataAttribute(fieldName, ProductData.TYPE_UINT8);
+                attr.getData().setElemInt((int) getLong(field, record));
+                break;
+            case USHORT:
+                attr = new MetadataAttribute(fieldName, ProductData.TYPE_UINT16);
+                attr.getData().setElemInt((int) getLong(field, record));
+                break;
+            case UINT:
+                attr = new MetadataAttribute(fieldName, ProductData.TYPE_UINT32);
+                attr.getData().setElemUInt(getLong(field, record));
+                break;
+            case ULONG:
+                attr = new MetadataAttribute(fieldName, ProductData.TYPE_ASCII);
+                attr.getData().setElems(Long.toUnsignedString(getLong(field, record)));
+                break;
+            default:
+                attr = new MetadataAttribute(fieldName, ProductData.TYPE_FLOAT64);
+                attr.getData().setElemDouble(getDouble(field, record));
+                break;
+        }
+        return attr;
+    }
+}
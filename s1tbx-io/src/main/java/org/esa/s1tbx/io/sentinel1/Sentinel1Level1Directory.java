@@ -18,6 +18,7 @@ package org.esa.s1tbx.io.sentinel1;
 import org.esa.s1tbx.commons.io.ImageIOFile;
 import org.esa.s1tbx.commons.io.JSONProductDirectory;
 import org.esa.s1tbx.commons.io.SARReader;
+import org.esa.s1tbx.commons.io.XMLMetadataStreamReader;
 import org.esa.s1tbx.commons.io.XMLProductDirectory;
 import org.esa.s1tbx.io.geotiffxml.GeoTiffUtils;
 import org.esa.snap.core.datamodel.Band;
@@ -29,7 +30,6 @@ import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.datamodel.TiePointGeoCoding;
 import org.esa.snap.core.datamodel.TiePointGrid;
-import org.esa.snap.core.dataop.downloadable.XMLSupport;
 import org.esa.snap.core.util.SystemUtils;
 import org.esa.snap.core.util.io.FileUtils;
 import org.esa.snap.core.util.math.MathUtils;
@@ -39,8 +39,7 @@ import org.esa.snap.engine_utilities.datamodel.metadata.AbstractMetadataIO;
 import org.esa.snap.engine_utilities.eo.Constants;
 import org.esa.snap.engine_utilities.gpf.OperatorUtils;
 import org.esa.snap.engine_utilities.gpf.ReaderUtils;
-import org.jdom2.Document;
-import org.jdom2.Element;
+import org.esa.snap.runtime.Config;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
@@ -49,9 +48,18 @@ import javax.imageio.stream.ImageInputStream;
 import java.awt.Dimension;
 import java.io.*;
 import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.esa.snap.engine_utilities.datamodel.AbstractMetadata.*;
 
@@ -66,6 +74,17 @@ public class Sentinel1Level1Directory extends XMLProductDirectory implements Sen
 
     private final static Double NoDataValue = 0.0;//-9999.0;
 
+    // large annotation lists are only parsed when first accessed
+    private static final boolean lazyAnnotationLists =
+            Config.instance().preferences().getBoolean("s1tbx.readers.sentinel1.lazyAnnotationLists", false);
+    private static final String[] LAZY_LISTS = {
+            "geolocationGridPointList", "noiseVectorList", "noiseRangeVectorList", "noiseAzimuthVectorList",
+            "calibrationVectorList"
+    };
+
+    private final XMLMetadataStreamReader xmlStreamReader = new XMLMetadataStreamReader(lazyAnnotationLists ?
+            new HashSet<>(Arrays.asList(LAZY_LISTS)) : Collections.emptySet());
+
     public Sentinel1Level1Directory(final File inputFile) {
         super(inputFile);
     }
@@ -212,11 +231,96 @@ public class Sentinel1Level1Directory extends XMLProductDirectory implements Sen
         setSLC(absRoot.getAttributeString(AbstractMetadata.SAMPLE_TYPE).equals("COMPLEX"));
 
         addProductInfoJSON(origProdRoot);
+        addXMLMetadataFiles(origProdRoot);
 
         // get metadata for each band
         addBandAbstractedMetadata(absRoot, origProdRoot);
-        addCalibrationAbstractedMetadata(origProdRoot);
-        addNoiseAbstractedMetadata(origProdRoot);
+    }
+
+    /**
+     * Parse the annotation, calibration and noise files concurrently into the original product metadata
+     */
+    private void addXMLMetadataFiles(final MetadataElement origProdRoot) throws IOException {
+
+        final MetadataElement annotationElement = getOrAddElement(origProdRoot, "annotation");
+        final MetadataElement calibrationElement = getOrAddElement(origProdRoot, "calibration");
+        final MetadataElement noiseElement = getOrAddElement(origProdRoot, "noise");
+
+        final List<String> paths = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final List<MetadataElement> parents = new ArrayList<>();
+
+        final String annotFolder = getRootFolder() + "annotation";
+        final String[] annotFiles = listFiles(annotFolder);
+        if (annotFiles != null) {
+            for (String metadataFile : annotFiles) {
+                paths.add(annotFolder + '/' + metadataFile);
+                names.add(metadataFile);
+                parents.add(annotationElement);
+            }
+        }
+
+        final String calibFolder = annotFolder + '/' + "calibration";
+        final String[] calibFiles = listFiles(calibFolder);
+        if (calibFiles != null) {
+            for (String metadataFile : calibFiles) {
+                if (metadataFile.startsWith("calibration")) {
+                    paths.add(calibFolder + '/' + metadataFile);
+                    names.add(metadataFile.replace("calibration-", ""));
+                    parents.add(calibrationElement);
+                }
+            }
+            for (String metadataFile : calibFiles) {
+                if (metadataFile.startsWith("noise")) {
+                    paths.add(calibFolder + '/' + metadataFile);
+                    names.add(metadataFile.replace("noise-", ""));
+                    parents.add(noiseElement);
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        final int numThreads = Math.min(paths.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final List<Future<MetadataElement>> futures = new ArrayList<>(paths.size());
+            for (int i = 0; i < paths.size(); ++i) {
+                final String path = paths.get(i);
+                final String name = names.get(i);
+                futures.add(executor.submit(() -> readXMLMetadata(path, name)));
+            }
+            // add in listing order so the metadata tree does not depend on thread scheduling
+            for (int i = 0; i < futures.size(); ++i) {
+                parents.get(i).addElement(futures.get(i).get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to read metadata " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reading metadata interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private MetadataElement readXMLMetadata(final String path, final String name) throws IOException {
+        final MetadataElement nameElem = new MetadataElement(name);
+        xmlStreamReader.read(() -> getInputStream(path), nameElem);
+        return nameElem;
+    }
+
+    private static MetadataElement getOrAddElement(final MetadataElement parent, final String name) {
+        MetadataElement element = parent.getElement(name);
+        if (element == null) {
+            element = new MetadataElement(name);
+            parent.addElement(element);
+        }
+        return element;
     }
 
     private void addProductInfoJSON(final MetadataElement origProdRoot) {
@@ -272,11 +376,7 @@ public class Sentinel1Level1Directory extends XMLProductDirectory implements Sen
     private void addBandAbstractedMetadata(final MetadataElement absRoot,
                                            final MetadataElement origProdRoot) throws IOException {
 
-        MetadataElement annotationElement = origProdRoot.getElement("annotation");
-        if (annotationElement == null) {
-            annotationElement = new MetadataElement("annotation");
-            origProdRoot.addElement(annotationElement);
-        }
+        final MetadataElement annotationElement = getOrAddElement(origProdRoot, "annotation");
 
         // collect range and azimuth spacing
         double rangeSpacingTotal = 0;
@@ -292,14 +392,10 @@ public class Sentinel1Level1Directory extends XMLProductDirectory implements Sen
         if (filenames != null) {
             for (String metadataFile : filenames) {
 
-                final Document xmlDoc;
-                try (final InputStream is = getInputStream(annotFolder + '/' + metadataFile)) {
-                    xmlDoc = XMLSupport.LoadXML(is);
+                final MetadataElement nameElem = annotationElement.getElement(metadataFile);
+                if (nameElem == null) {
+                    throw new IOException("Unable to read annotation " + metadataFile);
                 }
-                final Element rootElement = xmlDoc.getRootElement();
-                final MetadataElement nameElem = new MetadataElement(metadataFile);
-                annotationElement.addElement(nameElem);
-                AbstractMetadataIO.AddXMLMetadata(rootElement, nameElem);
 
                 final MetadataElement prodElem = nameElem.getElement("product");
                 final MetadataElement adsHeader = prodElem.getElement("adsHeader");
@@ -436,62 +532,6 @@ public class Sentinel1Level1Directory extends XMLProductDirectory implements Sen
         return heightSum / cnt;
     }
 
-    private void addCalibrationAbstractedMetadata(final MetadataElement origProdRoot) throws IOException {
-
-        MetadataElement calibrationElement = origProdRoot.getElement("calibration");
-        if (calibrationElement == null) {
-            calibrationElement = new MetadataElement("calibration");
-            origProdRoot.addElement(calibrationElement);
-        }
-        final String calibFolder = getRootFolder() + "annotation" + '/' + "calibration";
-        final String[] filenames = listFiles(calibFolder);
-
-        if (filenames != null) {
-            for (String metadataFile : filenames) {
-                if (metadataFile.startsWith("calibration")) {
-
-                    final Document xmlDoc;
-                    try (final InputStream is = getInputStream(calibFolder + '/' + metadataFile)) {
-                        xmlDoc = XMLSupport.LoadXML(is);
-                    }
-                    final Element rootElement = xmlDoc.getRootElement();
-                    final String name = metadataFile.replace("calibration-", "");
-                    final MetadataElement nameElem = new MetadataElement(name);
-                    calibrationElement.addElement(nameElem);
-                    AbstractMetadataIO.AddXMLMetadata(rootElement, nameElem);
-                }
-            }
-        }
-    }
-
-    private void addNoiseAbstractedMetadata(final MetadataElement origProdRoot) throws IOException {
-
-        MetadataElement noiseElement = origProdRoot.getElement("noise");
-        if (noiseElement == null) {
-            noiseElement = new MetadataElement("noise");
-            origProdRoot.addElement(noiseElement);
-        }
-        final String calibFolder = getRootFolder() + "annotation" + '/' + "calibration";
-        final String[] filenames = listFiles(calibFolder);
-
-        if (filenames != null) {
-            for (String metadataFile : filenames) {
-                if (metadataFile.startsWith("noise")) {
-
-                    final Document xmlDoc;
-                    try (final InputStream is = getInputStream(calibFolder + '/' + metadataFile)) {
-                        xmlDoc = XMLSupport.LoadXML(is);
-                    }
-                    final Element rootElement = xmlDoc.getRootElement();
-                    final String name = metadataFile.replace("noise-", "");
-                    final MetadataElement nameElem = new MetadataElement(name);
-                    noiseElement.addElement(nameElem);
-                    AbstractMetadataIO.AddXMLMetadata(rootElement, nameElem);
-                }
-            }
-        }
-    }
-
     private void addOrbitStateVectors(final MetadataElement absRoot, final MetadataElement orbitList) {
         final MetadataElement orbitVectorListElem = absRoot.getElement(AbstractMetadata.orbit_state_vectors);
 
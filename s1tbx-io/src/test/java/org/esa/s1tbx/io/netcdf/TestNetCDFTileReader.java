@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.io.netcdf;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import ucar.ma2.ArrayShort;
+import ucar.ma2.DataType;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Block reads of an interleaved complex variable
+ */
+public class TestNetCDFTileReader {
+
+    private static final int numLines = 40;
+    private static final int numSamples = 30;
+    private static File file;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        file = File.createTempFile("tilereader", ".nc");
+        file.deleteOnExit();
+
+        final NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, file.getAbsolutePath());
+        final List<Dimension> dims = new ArrayList<>();
+        dims.add(writer.addDimension(null, "lines", numLines));
+        dims.add(writer.addDimension(null, "samples", numSamples));
+        dims.add(writer.addDimension(null, "iq", 2));
+        final Variable variable = writer.addVariable(null, "SBI", DataType.SHORT, dims);
+        writer.create();
+
+        final ArrayShort.D3 data = new ArrayShort.D3(numLines, numSamples, 2);
+        for (int y = 0; y < numLines; ++y) {
+            for (int x = 0; x < numSamples; ++x) {
+                data.set(y, x, 0, (short) i(x, y));
+                data.set(y, x, 1, (short) q(x, y));
+            }
+        }
+        writer.write(variable, data);
+        writer.close();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        file.delete();
+    }
+
+    private static int i(final int x, final int y) {
+        return y * 100 + x;
+    }
+
+    private static int q(final int x, final int y) {
+        return -(y * 100 + x);
+    }
+
+    @Test
+    public void testReadIQ() throws Exception {
+        try (NetcdfFile netcdfFile = NetcdfFile.open(file.getAbsolutePath())) {
+            final NetCDFTileReader tileReader = new NetCDFTileReader(netcdfFile);
+            final Variable variable = netcdfFile.findVariable("SBI");
+
+            final int x0 = 5, y0 = 7, w = 12, h = 9;
+            final short[] iData = new short[w * h];
+            final short[] qData = new short[w * h];
+            tileReader.readTile(variable, 0, 1, 2, 0, x0, y0, w, h, false, iData);
+            tileReader.readTile(variable, 0, 1, 2, 1, x0, y0, w, h, false, qData);
+
+            for (int y = 0; y < h; ++y) {
+                for (int x = 0; x < w; ++x) {
+                    assertEquals(i(x0 + x, y0 + y), iData[y * w + x]);
+                    assertEquals(q(x0 + x, y0 + y), qData[y * w + x]);
+                }
+            }
+            tileReader.close();
+        }
+    }
+
+    @Test
+    public void testReadFlipped() throws Exception {
+        try (NetcdfFile netcdfFile = NetcdfFile.open(file.getAbsolutePath())) {
+            final NetCDFTileReader tileReader = new NetCDFTileReader(netcdfFile);
+            final Variable variable = netcdfFile.findVariable("SBI");
+
+            // first requested line is the last line of the file block
+            final int x0 = 0, yStart = numLines - 1, w = numSamples, h = 10;
+            final short[] qData = new short[w * h];
+            tileReader.readTile(variable, 0, 1, 2, 1, x0, yStart, w, h, true, qData);
+
+            for (int y = 0; y < h; ++y) {
+                for (int x = 0; x < w; ++x) {
+                    assertEquals(q(x0 + x, yStart - y), qData[y * w + x]);
+                }
+            }
+            tileReader.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        try (NetcdfFile netcdfFile = NetcdfFile.open(file.getAbsolutePath())) {
+            final NetCDFTileReader tileReader = new NetCDFTileReader(netcdfFile);
+            final Variable variable = netcdfFile.findVariable("SBI");
+
+            final int tileSize = 10;
+            final List<Thread> threads = new ArrayList<>();
+            final List<Throwable> errors = new ArrayList<>();
+            for (int ty = 0; ty < numLines; ty += tileSize) {
+                for (int c = 0; c < 2; ++c) {
+                    final int y0 = ty;
+                    final int component = c;
+                    final Thread thread = new Thread(() -> {
+                        try {
+                            final short[] data = new short[numSamples * tileSize];
+                            tileReader.readTile(variable, 0, 1, 2, component, 0, y0, numSamples, tileSize, false, data);
+                            for (int y = 0; y < tileSize; ++y) {
+                                for (int x = 0; x < numSamples; ++x) {
+                                    final int expected = component == 0 ? i(x, y0 + y) : q(x, y0 + y);
+                                    assertEquals(expected, data[y * numSamples + x]);
+                                }
+                            }
+                        } catch (Throwable t) {
+                            synchronized (errors) {
+                                errors.add(t);
+                            }
+                        }
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            tileReader.close();
+            assertEquals(errors.toString(), 0, errors.size());
+        }
+    }
+}
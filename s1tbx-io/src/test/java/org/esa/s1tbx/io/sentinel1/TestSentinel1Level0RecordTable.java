@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.io.sentinel1;
+
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Decode synthetic Level-0 records
+ */
+public class TestSentinel1Level0RecordTable {
+
+    private static final int numRecords = 1000;
+    private static final int recordLength = 2 + 4 + 1 + 8 + 8;
+
+    private static List<Sentinel1Level0RecordTable.Field> createLayout() {
+        final List<Sentinel1Level0RecordTable.Field> fields = new ArrayList<>();
+        fields.add(new Sentinel1Level0RecordTable.Field("Packet Length", Sentinel1Level0RecordTable.ColumnType.USHORT, 0, -1, 0));
+        fields.add(new Sentinel1Level0RecordTable.Field("Frames", Sentinel1Level0RecordTable.ColumnType.UINT, 2, -1, 0));
+        fields.add(new Sentinel1Level0RecordTable.Field("VCID Present Flag", Sentinel1Level0RecordTable.ColumnType.UBYTE, 6, 0, 1));
+        fields.add(new Sentinel1Level0RecordTable.Field("VCID", Sentinel1Level0RecordTable.ColumnType.UBYTE, 6, 1, 6));
+        fields.add(new Sentinel1Level0RecordTable.Field("Byte Offset", Sentinel1Level0RecordTable.ColumnType.ULONG, 7, -1, 0));
+        fields.add(new Sentinel1Level0RecordTable.Field("Date Time", Sentinel1Level0RecordTable.ColumnType.DOUBLE, 15, -1, 0));
+        return fields;
+    }
+
+    private static File writeRecords() throws Exception {
+        final File file = File.createTempFile("s1-l0-annot", ".dat");
+        file.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            for (int r = 0; r < numRecords; ++r) {
+                out.writeShort(65000 + (r % 500));
+                out.writeInt(0x80000000 + r);
+                out.writeByte(((r & 1) << 7) | ((r % 64) << 1));
+                out.writeLong(r * 1000000000L);
+                out.writeDouble(7000.5 + r * 0.25);
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        final File file = writeRecords();
+        final Sentinel1Level0RecordTable table = Sentinel1Level0RecordTable.decode("vv_annotation", file,
+                                                                                   createLayout(), recordLength);
+
+        assertEquals(numRecords, table.getNumRecords());
+        assertEquals(6, table.getNumFields());
+
+        final int lengthField = table.getFieldIndex("Packet Length");
+        final int framesField = table.getFieldIndex("Frames");
+        final int flagField = table.getFieldIndex("VCID Present Flag");
+        final int vcidField = table.getFieldIndex("VCID");
+        final int offsetField = table.getFieldIndex("Byte Offset");
+        final int timeField = table.getFieldIndex("Date Time");
+
+        for (int r = 0; r < numRecords; ++r) {
+            assertEquals(65000 + (r % 500), table.getLong(lengthField, r));
+            assertEquals(0x80000000L + r, table.getLong(framesField, r));
+            assertEquals(r & 1, table.getLong(flagField, r));
+            assertEquals(r % 64, table.getLong(vcidField, r));
+            assertEquals(r * 1000000000L, table.getLong(offsetField, r));
+            assertEquals(7000.5 + r * 0.25, table.getDouble(timeField, r), 0.0);
+        }
+
+        final int[] vcidZero = table.select(vcidField, v -> v == 0);
+        assertEquals(16, vcidZero.length);
+        assertArrayEquals(new int[]{0, 64, 128}, Arrays.copyOf(vcidZero, 3));
+        assertEquals(numRecords / 2, table.select(flagField, v -> v == 1).length);
+    }
+
+    @Test
+    public void testMetadataView() throws Exception {
+        final File file = writeRecords();
+        final Sentinel1Level0RecordTable table = Sentinel1Level0RecordTable.decode("vv_annotation", file,
+                                                                                   createLayout(), recordLength);
+
+        final MetadataElement records = new MetadataElement("records");
+        table.addRecordsToMetadata(records, 10, 5);
+        assertEquals(5, records.getNumElements());
+
+        final MetadataElement rec = records.getElement("record12");
+        assertEquals(65012, rec.getAttributeInt("Packet Length"));
+        assertEquals("12000000000", rec.getAttributeString("Byte Offset"));
+        assertEquals(7003.5, rec.getAttributeDouble("Date Time"), 0.0);
+
+        final MetadataElement summary = new MetadataElement("records");
+        table.addSummaryToMetadata(summary);
+        final MetadataElement vcid = summary.getElement("summary").getElement("VCID");
+        assertEquals(0.0, vcid.getAttributeDouble("min"), 0.0);
+        assertEquals(63.0, vcid.getAttributeDouble("max"), 0.0);
+    }
+}
@@ -98,11 +98,11 @@ public class AdaptiveThresholdingOp extends Operator {
     private int sourceImageWidth;
     private int sourceImageHeight;
     private int targetWindowSize;
-    private int halfTargetWindowSize;
     private int halfGuardWindowSize;
     private int halfBackgroundWindowSize;
 
     private double t; // detector design parameter
+    private CfarDetector cfarDetector;
     private double meanPixelSpacing; // in m
 
     private final HashMap<String, String> targetBandNameToSourceBandName = new HashMap<>(2);
@@ -137,7 +137,6 @@ public class AdaptiveThresholdingOp extends Operator {
             final int guardWindowSize = (int) (guardWindowSizeInMeter / meanPixelSpacing) + 1;
             final int backgroundWindowSize = (int) (backgroundWindowSizeInMeter / meanPixelSpacing) + 1;
 
-            halfTargetWindowSize = targetWindowSize / 2;
             halfGuardWindowSize = guardWindowSize / 2;
             halfBackgroundWindowSize = (backgroundWindowSize - 1) / 2;
 
@@ -151,6 +150,7 @@ public class AdaptiveThresholdingOp extends Operator {
             addSelectedBands();
 
             t = computeDetectorDesignParameter(pfa);
+            cfarDetector = new CfarDetector(targetWindowSize, halfGuardWindowSize, halfBackgroundWindowSize, t);
 
             if (estimateBackground == null) {
                 estimateBackground = false;
@@ -322,39 +322,17 @@ public class AdaptiveThresholdingOp extends Operator {
                 backgroundThreshold = computeBackgroundThreshold(data, noDataValue);
             }
 
+            final byte[] mask = new byte[tw * th];
+            cfarDetector.detect(data, x0, y0, w, h, noDataValue, targetTileRectangle,
+                                estimateBackground, backgroundThreshold, mask);
+
             final int maxy = ty0 + th;
             final int maxx = tx0 + tw;
             for (int ty = ty0; ty < maxy; ty++) {
-                //System.out.println("ty = " + ty);
                 trgIndex.calculateStride(ty);
+                final int offset = (ty - ty0) * tw - tx0;
                 for (int tx = tx0; tx < maxx; tx++) {
-                    //System.out.println("ty = " + ty + " tx = " + tx);
-                    final double targetMean = computeTargetMean(tx, ty, data, x0, y0, w, h, noDataValue);
-                    if (noDataValue == targetMean) {
-                        trgData.setElemIntAt(trgIndex.getIndex(tx), 0);
-                        continue;
-                    }
-
-                    if (!estimateBackground) {
-                        if(targetMean < 0.005) {
-                            trgData.setElemIntAt(trgIndex.getIndex(tx), 0);
-                            continue;
-                        }
-                        backgroundThreshold = computeBackgroundThreshold(tx, ty, data, x0, y0, w, h, noDataValue);
-
-                        // DEBUG...
-                        /*
-                        double oldT = computeBackgroundThreshold(tx, ty, data, x0, y0, w, h, noDataValue);
-                        System.out.println("DEBUG: tx = " + tx + " ty = " + ty + ": backgroundThreshold = " + backgroundThreshold
-                                + " oldT = " + oldT + " targetMean = " + targetMean);
-                        */
-                        // ...DEBUG
-                    }
-                    if (targetMean > backgroundThreshold) {
-                        trgData.setElemIntAt(trgIndex.getIndex(tx), 1);
-                    } else {
-                        trgData.setElemIntAt(trgIndex.getIndex(tx), 0);
-                    }
+                    trgData.setElemIntAt(trgIndex.getIndex(tx), mask[offset + tx]);
                 }
             }
 
@@ -365,115 +343,6 @@ public class AdaptiveThresholdingOp extends Operator {
         }
     }
 
-    /**
-     * Compute the mean value for pixels in the target window.
-     *
-     * @param tx          The x coordinate of the central point of the target window.
-     * @param ty          The y coordinate of the central point of the target window.
-     * @param data        The source tile data array.
-     * @param noDataValue
-     * @return The mean value.
-     */
-    private double computeTargetMean(final int tx, final int ty, final float[] data,
-                                     final int xx0, int yy0, int width, int height, final double noDataValue) {
-
-        int index = ((ty - yy0) * width) + (tx - xx0);
-        final double v = data[index];
-        if (noDataValue == v) {
-            return noDataValue;
-        }
-
-        if (targetWindowSize == 1) {
-            return v;
-        }
-
-        final int x0 = Math.max((tx - xx0) - halfTargetWindowSize, 0);
-        final int y0 = Math.max((ty - yy0) - halfTargetWindowSize, 0);
-        final int w = Math.min((tx - xx0) + halfTargetWindowSize, width - 1) - x0 + 1;
-        final int h = Math.min((ty - yy0) + halfTargetWindowSize, height - 1) - y0 + 1;
-
-        double mean = 0.0;
-        int numPixels = 0;
-        int nodataCnt = 0;
-
-        final int maxy = y0 + h;
-        final int maxx = x0 + w;
-        for (int y = y0; y < maxy; y++) {
-            int yWidth = y * width;
-            for (int x = x0; x < maxx; x++) {
-                final double val = data[yWidth + x];
-
-                if (noDataValue == val) {
-                    nodataCnt++;
-                } else {
-                    mean += val;
-                    ++numPixels;
-                }
-            }
-        }
-
-        if(nodataCnt > (0.1 * w*h)) {
-            return noDataValue;
-        }
-        return mean / numPixels;
-    }
-
-    /**
-     * Compute the standard deviation value for pixels in the background window.
-     *
-     * @param tx          The x coordinate of the central point of the background window.
-     * @param ty          The y coordinate of the central point of the background window.
-     * @param noDataValue no data value
-     * @return The std value.
-     */
-    private double computeBackgroundThreshold(final int tx, final int ty, final float[] data,
-                                              final int xx0, int yy0, int width, int height, final double noDataValue) {
-
-        final int x0 = Math.max((tx - xx0) - halfBackgroundWindowSize, 0);
-        final int y0 = Math.max((ty - yy0) - halfBackgroundWindowSize, 0);
-        final int w = Math.min((tx - xx0) + halfBackgroundWindowSize, width - 1) - x0 + 1;
-        final int h = Math.min((ty - yy0) + halfBackgroundWindowSize, height - 1) - y0 + 1;
-
-        // Compute the mean value for pixels in the background window.
-        double sum = 0.0;
-        double val;
-        final int maxy = y0 + h;
-        final int maxx = x0 + w;
-
-        final double[] dataArray = new double[w * h];
-        int numValues = 0;
-
-        for (int y = y0; y < maxy; y++) {
-            final int yy = y - (ty - yy0);
-            final int yWidth = y * width;
-            final boolean yGtrHalfGuard = ((yy < 0) ? -yy : yy) > halfGuardWindowSize;
-            for (int x = x0; x < maxx; x++) {
-                final int xx = x - (tx - xx0);
-                if (yGtrHalfGuard || ((xx < 0) ? -xx : xx) > halfGuardWindowSize) {
-                    val = data[yWidth + x];
-                    if (noDataValue != val) {// && val < backgroundThreshold) {
-                        sum += val;
-                        dataArray[numValues] = val;
-                        numValues++;
-                    }
-                }
-            }
-        }
-        final double mean = sum / numValues;
-
-        // Compute the standard deviation value for pixels in the background window.
-        double std = 0.0;
-        double tmp;
-        for (int i=0; i < numValues; ++i) {
-            tmp = dataArray[i] - mean;
-            std += tmp * tmp;
-        }
-
-        final double backgroundSTD = Math.sqrt(std / numValues);
-
-        return mean + backgroundSTD * t;
-    }
-
     private double computeBackgroundThreshold(final float[] data, final double noDataValue) {
 
         // Compute the mean value for pixels in the background window.
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.fex.gpf.oceantools;
+
+import java.awt.Rectangle;
+
+/**
+ * Two-parameter CFAR detector of the adaptive thresholding operator.
+ * <p>
+ * A pixel is detected when the mean of its target window exceeds mean + t * std of the background window
+ * outside the guard window. All windows are clipped to the source tile and no-data pixels are left out.
+ * The window sums are taken from summed area tables of the value, the squared value and the number of valid
+ * pixels, so the cost per pixel does not depend on the window sizes. Windows with non finite values are
+ * evaluated directly, as are all windows in the reference implementation.
+ */
+public class CfarDetector {
+
+    private static final double MIN_TARGET_MEAN = 0.005;
+
+    private final int targetWindowSize;
+    private final int halfTargetWindowSize;
+    private final int halfGuardWindowSize;
+    private final int halfBackgroundWindowSize;
+    private final double t;
+
+    /**
+     * @param targetWindowSize         size of the target window in pixels
+     * @param halfGuardWindowSize      half size of the guard window in pixels
+     * @param halfBackgroundWindowSize half size of the background window in pixels
+     * @param t                        detector design parameter
+     */
+    public CfarDetector(final int targetWindowSize, final int halfGuardWindowSize,
+                        final int halfBackgroundWindowSize, final double t) {
+        this.targetWindowSize = targetWindowSize;
+        this.halfTargetWindowSize = targetWindowSize / 2;
+        this.halfGuardWindowSize = halfGuardWindowSize;
+        this.halfBackgroundWindowSize = halfBackgroundWindowSize;
+        this.t = t;
+    }
+
+    /**
+     * Detect the targets in a tile.
+     *
+     * @param data                source tile data, row major
+     * @param x0                  x coordinate of the first column of the source tile
+     * @param y0                  y coordinate of the first row of the source tile
+     * @param w                   width of the source tile
+     * @param h                   height of the source tile
+     * @param noDataValue         no data value of the source
+     * @param target              the target tile, inside the source tile
+     * @param estimateBackground  use backgroundThreshold for the whole tile instead of the background window
+     * @param backgroundThreshold the threshold for the whole tile
+     * @param mask                1 for detected pixels and 0 otherwise, row major over the target tile
+     */
+    public void detect(final float[] data, final int x0, final int y0, final int w, final int h,
+                       final double noDataValue, final Rectangle target,
+                       final boolean estimateBackground, final double backgroundThreshold, final byte[] mask) {
+
+        final SummedAreaTables tables = new SummedAreaTables(data, w, h, noDataValue);
+
+        for (int ty = target.y; ty < target.y + target.height; ty++) {
+            final int cy = ty - y0;
+            for (int tx = target.x; tx < target.x + target.width; tx++) {
+                final int cx = tx - x0;
+                final int k = (ty - target.y) * target.width + (tx - target.x);
+
+                final double targetMean = tables.hasNonFinite(cx, cy, halfTargetWindowSize) ?
+                        computeTargetMean(tx, ty, data, x0, y0, w, h, noDataValue) :
+                        computeTargetMean(cx, cy, data[cy * w + cx], tables, noDataValue);
+                if (noDataValue == targetMean) {
+                    mask[k] = 0;
+                    continue;
+                }
+
+                double threshold = backgroundThreshold;
+                if (!estimateBackground) {
+                    if (targetMean < MIN_TARGET_MEAN) {
+                        mask[k] = 0;
+                        continue;
+                    }
+                    threshold = tables.hasNonFinite(cx, cy, halfBackgroundWindowSize) ?
+                            computeBackgroundThreshold(tx, ty, data, x0, y0, w, h, noDataValue) :
+                            computeBackgroundThreshold(cx, cy, tables);
+                }
+                mask[k] = (byte) (targetMean > threshold ? 1 : 0);
+            }
+        }
+    }
+
+    /**
+     * Detect the targets in a tile by scanning the windows of every pixel. Same arguments as detect.
+     */
+    public void detectReference(final float[] data, final int x0, final int y0, final int w, final int h,
+                                final double noDataValue, final Rectangle target,
+                                final boolean estimateBackground, final double backgroundThreshold, final byte[] mask) {
+
+        for (int ty = target.y; ty < target.y + target.height; ty++) {
+            for (int tx = target.x; tx < target.x + target.width; tx++) {
+                final int k = (ty - target.y) * target.width + (tx - target.x);
+
+                final double targetMean = computeTargetMean(tx, ty, data, x0, y0, w, h, noDataValue);
+                if (noDataValue == targetMean) {
+                    mask[k] = 0;
+                    continue;
+                }
+
+                double threshold = backgroundThreshold;
+                if (!estimateBackground) {
+                    if (targetMean < MIN_TARGET_MEAN) {
+                        mask[k] = 0;
+                        continue;
+                    }
+                    threshold = computeBackgroundThreshold(tx, ty, data, x0, y0, w, h, noDataValue);
+                }
+                mask[k] = (byte) (targetMean > threshold ? 1 : 0);
+            }
+        }
+    }
+
+    private double computeTargetMean(final int cx, final int cy, final double v, final SummedAreaTables tables,
+                                     final double noDataValue) {
+        if (noDataValue == v) {
+            return noDataValue;
+        }
+        if (targetWindowSize == 1) {
+            return v;
+        }
+
+        final int xMin = Math.max(cx - halfTargetWindowSize, 0);
+        final int yMin = Math.max(cy - halfTargetWindowSize, 0);
+        final int xMax = Math.min(cx + halfTargetWindowSize, tables.width - 1) + 1;
+        final int yMax = Math.min(cy + halfTargetWindowSize, tables.height - 1) + 1;
+
+        final int numPixels = tables.count(xMin, yMin, xMax, yMax);
+        final int nodataCnt = (xMax - xMin) * (yMax - yMin) - numPixels;
+        if (nodataCnt > (0.1 * (xMax - xMin) * (yMax - yMin))) {
+            return noDataValue;
+        }
+        return tables.sum(xMin, yMin, xMax, yMax) / numPixels;
+    }
+
+    private double computeBackgroundThreshold(final int cx, final int cy, final SummedAreaTables tables) {
+
+        final int xMin = Math.max(cx - halfBackgroundWindowSize, 0);
+        final int yMin = Math.max(cy - halfBackgroundWindowSize, 0);
+        final int xMax = Math.min(cx + halfBackgroundWindowSize, tables.width - 1) + 1;
+        final int yMax = Math.min(cy + halfBackgroundWindowSize, tables.height - 1) + 1;
+
+        double sum = tables.sum(xMin, yMin, xMax, yMax);
+        double sumSq = tables.sumSq(xMin, yMin, xMax, yMax);
+        int numValues = tables.count(xMin, yMin, xMax, yMax);
+
+        // leave out the guard window
+        final int gxMin = Math.max(cx - halfGuardWindowSize, xMin);
+        final int gyMin = Math.max(cy - halfGuardWindowSize, yMin);
+        final int gxMax = Math.min(cx + halfGuardWindowSize + 1, xMax);
+        final int gyMax = Math.min(cy + halfGuardWindowSize + 1, yMax);
+        if (gxMin < gxMax && gyMin < gyMax) {
+            sum -= tables.sum(gxMin, gyMin, gxMax, gyMax);
+            sumSq -= tables.sumSq(gxMin, gyMin, gxMax, gyMax);
+            numValues -= tables.count(gxMin, gyMin, gxMax, gyMax);
+        }
+
+        final double mean = sum / numValues;
+        final double variance = Math.max(sumSq / numValues - mean * mean, 0.0);
+
+        return mean + Math.sqrt(variance) * t;
+    }
+
+    /**
+     * Compute the mean value for pixels in the target window.
+     *
+     * @param tx          The x coordinate of the central point of the target window.
+     * @param ty          The y coordinate of the central point of the target window.
+     * @param data        The source tile data array.
+     * @param noDataValue
+     * @return The mean value.
+     */
+    private double computeTargetMean(final int tx, final int ty, final float[] data,
+                                     final int xx0, int yy0, int width, int height, final double noDataValue) {
+
+        int index = ((ty - yy0) * width) + (tx - xx0);
+        final double v = data[index];
+        if (noDataValue == v) {
+            return noDataValue;
+        }
+
+        if (targetWindowSize == 1) {
+            return v;
+        }
+
+        final int x0 = Math.max((tx - xx0) - halfTargetWindowSize, 0);
+        final int y0 = Math.max((ty - yy0) - halfTargetWindowSize, 0);
+        final int w = Math.min((tx - xx0) + halfTargetWindowSize, width - 1) - x0 + 1;
+        final int h = Math.min((ty - yy0) + halfTargetWindowSize, height - 1) - y0 + 1;
+
+        double mean = 0.0;
+        int numPixels = 0;
+        int nodataCnt = 0;
+
+        final int maxy = y0 + h;
+        final int maxx = x0 + w;
+        for (int y = y0; y < maxy; y++) {
+            int yWidth = y * width;
+            for (int x = x0; x < maxx; x++) {
+                final double val = data[yWidth + x];
+
+                if (noDataValue == val) {
+                    nodataCnt++;
+                } else {
+                    mean += val;
+                    ++numPixels;
+                }
+            }
+        }
+
+        if(nodataCnt > (0.1 * w*h)) {
+            return noDataValue;
+        }
+        return mean / numPixels;
+    }
+
+    /**
+     * Compute the standard deviation value for pixels in the background window.
+     *
+     * @param tx          The x coordinate of the central point of the background window.
+     * @param ty          The y coordinate of the central point of the background window.
+     * @param noDataValue no data value
+     * @return The std value.
+     */
+    private double computeBackgroundThreshold(final int tx, final int ty, final float[] data,
+                                              final int xx0, int yy0, int width, int height, final double noDataValue) {
+
+        final int x0 = Math.max((tx - xx0) - halfBackgroundWindowSize, 0);
+        final int y0 = Math.max((ty - yy0) - halfBackgroundWindowSize, 0);
+        final int w = Math.min((tx - xx0) + halfBackgroundWindowSize, width - 1) - x0 + 1;
+        final int h = Math.min((ty - yy0) + halfBackgroundWindowSize, height - 1) - y0 + 1;
+
+        // Compute the mean value for pixels in the background window.
+        double sum = 0.0;
+        double val;
+        final int maxy = y0 + h;
+        final int maxx = x0 + w;
+
+        final double[] dataArray = new double[w * h];
+        int numValues = 0;
+
+        for (int y = y0; y < maxy; y++) {
+            final int yy = y - (ty - yy0);
+            final int yWidth = y * width;
+            final boolean yGtrHalfGuard = ((yy < 0) ? -yy : yy) > halfGuardWindowSize;
+            for (int x = x0; x < maxx; x++) {
+                final int xx = x - (tx - xx0);
+                if (yGtrHalfGuard || ((xx < 0) ? -xx : xx) > halfGuardWindowSize) {
+                    val = data[yWidth + x];
+                    if (noDataValue != val) {
+                        sum += val;
+                        dataArray[numValues] = val;
+                        numValues++;
+                    }
+                }
+            }
+        }
+        final double mean = sum / numValues;
+
+        // Compute the standard deviation value for pixels in the background window.
+        double std = 0.0;
+        double tmp;
+        for (int i=0; i < numValues; ++i) {
+            tmp = dataArray[i] - mean;
+            std += tmp * tmp;
+        }
+
+        final double backgroundSTD = Math.sqrt(std / numValues);
+
+        return mean + backgroundSTD * t;
+    }
+
+    /**
+     * Summed area tables of a tile with one extra leading row and column of zeros. Finite values that are not
+     * no-data are summed and counted, other values than no-data are counted as non finite.
+     */
+    private static class SummedAreaTables {
+        final int width;
+        final int height;
+        final int stride;
+        final double[] sum;
+        final double[] sumSq;
+        final int[] count;
+        final int[] nonFinite;
+        boolean anyNonFinite = false;
+
+        SummedAreaTables(final float[] data, final int width, final int height, final double noDataValue) {
+            this.width = width;
+            this.height = height;
+            this.stride = width + 1;
+            final int size = stride * (height + 1);
+            sum = new double[size];
+            sumSq = new double[size];
+            count = new int[size];
+            nonFinite = new int[size];
+
+            for (int y = 0; y < height; y++) {
+                double rowSum = 0, rowSumSq = 0;
+                int rowCount = 0, rowNonFinite = 0;
+                final int offset = y * width;
+                final int k = (y + 1) * stride + 1;
+                for (int x = 0; x < width; x++) {
+                    final double val = data[offset + x];
+                    if (noDataValue != val) {
+                        if (Double.isNaN(val) || Double.isInfinite(val)) {
+                            ++rowNonFinite;
+                            anyNonFinite = true;
+                        } else {
+                            rowSum += val;
+                            rowSumSq += val * val;
+                            ++rowCount;
+                        }
+                    }
+                    sum[k + x] = sum[k + x - stride] + rowSum;
+                    sumSq[k + x] = sumSq[k + x - stride] + rowSumSq;
+                    count[k + x] = count[k + x - stride] + rowCount;
+                    nonFinite[k + x] = nonFinite[k + x - stride] + rowNonFinite;
+                }
+            }
+        }
+
+        /**
+         * @return true if the window of the given half size, clipped to the tile, has a non finite value
+         */
+        boolean hasNonFinite(final int cx, final int cy, final int halfSize) {
+            if (!anyNonFinite) {
+                return false;
+            }
+            final int xMin = Math.max(cx - halfSize, 0);
+            final int yMin = Math.max(cy - halfSize, 0);
+            final int xMax = Math.min(cx + halfSize, width - 1) + 1;
+            final int yMax = Math.min(cy + halfSize, height - 1) + 1;
+            return nonFinite[yMax * stride + xMax] - nonFinite[yMin * stride + xMax] -
+                    nonFinite[yMax * stride + xMin] + nonFinite[yMin * stride + xMin] > 0;
+        }
+
+        // sums over columns [xMin, xMax) and rows [yMin, yMax)
+
+        double sum(final int xMin, final int yMin, final int xMax, final int yMax) {
+            return sum[yMax * stride + xMax] - sum[yMin * stride + xMax] -
+                    sum[yMax * stride + xMin] + sum[yMin * stride + xMin];
+        }
+
+        double sumSq(final int xMin, final int yMin, final int xMax, final int yMax) {
+            return sumSq[yMax * stride + xMax] - sumSq[yMin * stride + xMax] -
+                    sumSq[yMax * stride + xMin] + sumSq[yMin * stride + xMin];
+        }
+
+        int count(final int xMin, final int yMin, final int xMax, final int yMax) {
+            return count[yMax * stride + xMax] - count[yMin * stride + xMax] -
+                    count[yMax * stride + xMin] + count[yMin * stride + xMin];
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.fex.gpf.oceantools;
+
+/**
+ * Bounding box, pixel count and sums of the pixels of a cluster of detected pixels, in image coordinates.
+ */
+public class ClusterMoments {
+
+    public int xMin;
+    public int xMax;
+    public int yMin;
+    public int yMax;
+    public long count;
+    public double sumX;
+    public double sumY;
+    public double sumIntensity;
+
+    public ClusterMoments(final int xMin, final int xMax, final int yMin, final int yMax, final long count,
+                          final double sumX, final double sumY, final double sumIntensity) {
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        this.count = count;
+        this.sumX = sumX;
+        this.sumY = sumY;
+        this.sumIntensity = sumIntensity;
+    }
+
+    /**
+     * Add the pixels of another part of the cluster
+     */
+    public void add(final ClusterMoments other) {
+        xMin = Math.min(xMin, other.xMin);
+        xMax = Math.max(xMax, other.xMax);
+        yMin = Math.min(yMin, other.yMin);
+        yMax = Math.max(yMax, other.yMax);
+        count += other.count;
+        sumX += other.sumX;
+        sumY += other.sumY;
+        sumIntensity += other.sumIntensity;
+    }
+
+    public double getCentroidX() {
+        return sumX / count;
+    }
+
+    public double getCentroidY() {
+        return sumY / count;
+    }
+
+    public double getMeanIntensity() {
+        return sumIntensity / count;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.fex.gpf.oceantools;
+
+import java.util.Arrays;
+
+/**
+ * Two pass labeling of the 8-connected components of a binary mask with union-find.
+ * <p>
+ * The first pass assigns provisional labels from the already visited neighbours and records equivalences
+ * in a union-find forest. The second pass replaces each label by a consecutive number for its component
+ * and accumulates the bounding box, pixel count, coordinate sums and intensity sum of every component.
+ * Labels run from 1 to getNumComponents(), 0 is background.
+ */
+public class ConnectedComponents {
+
+    private final int x0;
+    private final int y0;
+    private final int width;
+    private final int height;
+    private final int[] labels;
+    private final int numComponents;
+
+    // moments of component k at index k
+    private final int[] xMin;
+    private final int[] xMax;
+    private final int[] yMin;
+    private final int[] yMax;
+    private final int[] count;
+    private final double[] sumX;
+    private final double[] sumY;
+    private final double[] sumIntensity;
+
+    /**
+     * @param mask      row major mask, non zero for pixels of a component
+     * @param intensity row major intensity summed over each component, may be null
+     * @param x0        x coordinate of the first column in the image
+     * @param y0        y coordinate of the first row in the image
+     * @param width     number of columns
+     * @param height    number of rows
+     */
+    public ConnectedComponents(final byte[] mask, final float[] intensity,
+                               final int x0, final int y0, final int width, final int height) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.width = width;
+        this.height = height;
+        this.labels = new int[width * height];
+
+        int[] parent = new int[64];
+        int next = 1;
+
+        // provisional labels from the west, north west, north and north east neighbours
+        for (int y = 0; y < height; ++y) {
+            final int offset = y * width;
+            for (int x = 0; x < width; ++x) {
+                final int i = offset + x;
+                if (mask[i] == 0) {
+                    continue;
+                }
+
+                int label = y > 0 ? labels[i - width] : 0;
+                if (label == 0) {
+                    // west and north west touch each other, north east touches neither
+                    int west = 0;
+                    if (x > 0) {
+                        west = labels[i - 1];
+                        if (west == 0 && y > 0) {
+                            west = labels[i - width - 1];
+                        }
+                    }
+                    final int northEast = (y > 0 && x < width - 1) ? labels[i - width + 1] : 0;
+                    if (west != 0) {
+                        label = west;
+                        if (northEast != 0) {
+                            union(parent, west, northEast);
+                        }
+                    } else if (northEast != 0) {
+                        label = northEast;
+                    } else {
+                        if (next == parent.length) {
+                            parent = Arrays.copyOf(parent, 2 * parent.length);
+                        }
+                        parent[next] = next;
+                        label = next++;
+                    }
+                }
+                labels[i] = label;
+            }
+        }
+
+        // consecutive numbers for the roots
+        final int[] component = new int[next];
+        int n = 0;
+        for (int label = 1; label < next; ++label) {
+            final int root = find(parent, label);
+            if (root == label) {
+                component[label] = ++n;
+            }
+        }
+        for (int label = 1; label < next; ++label) {
+            component[label] = component[find(parent, label)];
+        }
+        numComponents = n;
+
+        xMin = new int[n + 1];
+        xMax = new int[n + 1];
+        yMin = new int[n + 1];
+        yMax = new int[n + 1];
+        count = new int[n + 1];
+        sumX = new double[n + 1];
+        sumY = new double[n + 1];
+        sumIntensity = new double[n + 1];
+        Arrays.fill(xMin, Integer.MAX_VALUE);
+        Arrays.fill(yMin, Integer.MAX_VALUE);
+        Arrays.fill(xMax, Integer.MIN_VALUE);
+        Arrays.fill(yMax, Integer.MIN_VALUE);
+
+        for (int y = 0; y < height; ++y) {
+            final int offset = y * width;
+            final int iy = y0 + y;
+            for (int x = 0; x < width; ++x) {
+                final int i = offset + x;
+                if (labels[i] == 0) {
+                    continue;
+                }
+                final int k = component[labels[i]];
+                labels[i] = k;
+
+                final int ix = x0 + x;
+                if (ix < xMin[k]) {
+                    xMin[k] = ix;
+                }
+                if (ix > xMax[k]) {
+                    xMax[k] = ix;
+                }
+                if (iy < yMin[k]) {
+                    yMin[k] = iy;
+                }
+                yMax[k] = iy;
+                ++count[k];
+                sumX[k] += ix;
+                sumY[k] += iy;
+                if (intensity != null) {
+                    sumIntensity[k] += intensity[i];
+                }
+            }
+        }
+    }
+
+    private static int find(final int[] parent, int label) {
+        while (parent[label] != label) {
+            // path halving
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    private static void union(final int[] parent, final int a, final int b) {
+        final int rootA = find(parent, a);
+        final int rootB = find(parent, b);
+        // the smaller label is the root, so roots are met first in label order
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    /**
+     * @return the component of a pixel in image coordinates, 0 for background
+     */
+    public int getLabel(final int x, final int y) {
+        return labels[(y - y0) * width + x - x0];
+    }
+
+    public int getX0() {
+        return x0;
+    }
+
+    public int getY0() {
+        return y0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if the component has a pixel on the first or last row or column
+     */
+    public boolean touchesBorder(final int k) {
+        return xMin[k] == x0 || yMin[k] == y0 || xMax[k] == x0 + width - 1 || yMax[k] == y0 + height - 1;
+    }
+
+    public ClusterMoments getMoments(final int k) {
+        return new ClusterMoments(xMin[k], xMax[k], yMin[k], yMax[k], count[k], sumX[k], sumY[k], sumIntensity[k]);
+    }
+}
@@ -51,6 +51,7 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 
+import java.awt.Dimension;
 import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
@@ -94,6 +95,7 @@ public class ObjectDiscriminationOp extends Operator {
     private double azimuthSpacing = 0;
 
     private final Map<String, List<ShipRecord>> bandClusterLists = new HashMap<>();
+    private final Map<String, TileClusterMerger> bandClusterMergers = new HashMap<>();
     private File targetReportFile = null;
     private SimpleFeatureType shipFeatureType;
 
@@ -106,6 +108,7 @@ public class ObjectDiscriminationOp extends Operator {
     public static final String ATTRIB_DETECTED_LON = "Detected_lon";
     public static final String ATTRIB_DETECTED_WIDTH = "Detected_width";
     public static final String ATTRIB_DETECTED_LENGTH = "Detected_length";
+    public static final String ATTRIB_MEAN_INTENSITY = "Mean_intensity";
     public static final String ATTRIB_CORR_SHIP_LAT = "Corr_ship_lat";
     public static final String ATTRIB_CORR_SHIP_LON = "Corr_ship_lon";
     public static final String ATTRIB_AIS_MMSI = "AIS_MMSI";
@@ -205,45 +208,53 @@ public class ObjectDiscriminationOp extends Operator {
             final int ty0 = targetTileRectangle.y;
             final int tw = targetTileRectangle.width;
             final int th = targetTileRectangle.height;
-            //System.out.println("tx0 = " + tx0 + ", ty0 = " + ty0 + ", tw = " + tw + ", th = " + th);
-
-            final int x0 = Math.max(tx0 - 10, 0);
-            final int y0 = Math.max(ty0 - 10, 0);
-            final int w = Math.min(tw + 20, sourceImageWidth);
-            final int h = Math.min(th + 20, sourceImageHeight);
-            final Rectangle sourceTileRectangle = new Rectangle(x0, y0, w, h);
-            //System.out.println("x0 = " + x0 + ", y0 = " + y0 + ", w = " + w + ", h = " + h);
 
             final Band sourceBand = sourceProduct.getBand(targetBand.getName());
-            final int[][] pixelsScanned = new int[h][w];
-            final List<ShipRecord> clusterList = new ArrayList<>();
-
-            final Tile bitMaskTile = getSourceTile(sourceBand, sourceTileRectangle);
+            final Tile bitMaskTile = getSourceTile(sourceBand, targetTileRectangle);
             final ProductData bitMaskData = bitMaskTile.getDataBuffer();
+            final TileIndex srcIndex = new TileIndex(bitMaskTile);
+
+            // intensity of the band the mask was detected in
+            final Band intensityBand = sourceProduct.getBand(
+                    targetBand.getName().replace(AdaptiveThresholdingOp.SHIPMASK_NAME, ""));
+            ProductData intensityData = null;
+            TileIndex intensityIndex = null;
+            if (intensityBand != null && intensityBand != sourceBand) {
+                final Tile intensityTile = getSourceTile(intensityBand, targetTileRectangle);
+                intensityData = intensityTile.getDataBuffer();
+                intensityIndex = new TileIndex(intensityTile);
+            }
 
-            final TileIndex srcIndex = new TileIndex(bitMaskTile);    // src and trg tile are different size
-
+            final byte[] mask = new byte[tw * th];
+            final float[] intensity = intensityData != null ? new float[tw * th] : null;
             final int maxy = ty0 + th;
             final int maxx = tx0 + tw;
             for (int ty = ty0; ty < maxy; ty++) {
                 srcIndex.calculateStride(ty);
+                if (intensityIndex != null) {
+                    intensityIndex.calculateStride(ty);
+                }
+                final int offset = (ty - ty0) * tw - tx0;
                 for (int tx = tx0; tx < maxx; tx++) {
+                    if (bitMaskData.getElemIntAt(srcIndex.getIndex(tx)) == 1) {
+                        mask[offset + tx] = 1;
+                        if (intensity != null) {
+                            intensity[offset + tx] = intensityData.getElemFloatAt(intensityIndex.getIndex(tx));
+                        }
+                    }
+                }
+            }
 
-                    if (pixelsScanned[ty - y0][tx - x0] == 0) {
-
-                        if (bitMaskData.getElemIntAt(srcIndex.getIndex(tx)) == 1) {
-
-                            final List<PixelPos> clusterPixels = new ArrayList<>();
-                            clustering(tx, ty, x0, y0, w, h, bitMaskData, bitMaskTile, pixelsScanned, clusterPixels);
+            final ConnectedComponents components = new ConnectedComponents(mask, intensity, tx0, ty0, tw, th);
+            final List<ClusterMoments> clusters = getClusterMerger(targetBand.getName()).addTile(components);
 
-                            final ShipRecord record = generateRecord(x0, y0, w, h, clusterPixels);
+            final List<ShipRecord> clusterList = new ArrayList<>();
+            for (ClusterMoments cluster : clusters) {
+                final ShipRecord record = generateRecord(cluster);
 
-                            final double size = Math.sqrt(record.length * record.length + record.width * record.width);
-                            if (size >= minTargetSizeInMeter && size <= maxTargetSizeInMeter) {
-                                clusterList.add(record);
-                            }
-                        }
-                    }
+                final double size = Math.sqrt(record.length * record.length + record.width * record.width);
+                if (size >= minTargetSizeInMeter && size <= maxTargetSizeInMeter) {
+                    clusterList.add(record);
                 }
             }
 
@@ -251,14 +262,16 @@ public class ObjectDiscriminationOp extends Operator {
                 AddShipRecordsAsVectors(clusterList);
             }
 
-            List<ShipRecord> shipRecordList = bandClusterLists.get(targetBand.getName());
-            if (shipRecordList == null) {
-                shipRecordList = new ArrayList<>();
-                bandClusterLists.put(targetBand.getName(), shipRecordList);
+            synchronized (bandClusterLists) {
+                List<ShipRecord> shipRecordList = bandClusterLists.get(targetBand.getName());
+                if (shipRecordList == null) {
+                    shipRecordList = new ArrayList<>();
+                    bandClusterLists.put(targetBand.getName(), shipRecordList);
+                }
+                shipRecordList.addAll(clusterList);
             }
-            shipRecordList.addAll(clusterList);
 
-            targetTile.setRawSamples(getSourceTile(sourceBand, targetTileRectangle).getRawSamples());
+            targetTile.setRawSamples(bitMaskTile.getRawSamples());
 
             clusteringPerformed = true;
         } catch (Throwable e) {
@@ -267,83 +280,39 @@ public class ObjectDiscriminationOp extends Operator {
     }
 
     /**
-     * Find pixels detected as target in a 3x3 window centered at a given point.
+     * Clusters of a band are joined across the tiles of the target product tile grid.
      *
-     * @param xc            The x coordinate of the given point.
-     * @param yc            The y coordinate of the given point.
-     * @param x0            The x coordinate for the upper left corner point of the source rectangle.
-     * @param y0            The y coordinate for the upper left corner point of the source rectangle.
-     * @param w             The width of the source rectangle.
-     * @param h             The height of the source rectangle.
-     * @param bitMaskData   The bit maks band data.
-     * @param bitMaskTile   The bit mask band tile.
-     * @param pixelsScanned The binary array indicating which pixel in the tile has been scaned.
-     * @param clusterPixels The list of pixels in the cluster.
+     * @param bandName The name of the mask band.
+     * @return the merger of the band
      */
-    private static void clustering(final int xc, final int yc, final int x0, final int y0, final int w, final int h,
-                                   final ProductData bitMaskData, final Tile bitMaskTile,
-                                   final int[][] pixelsScanned, List<PixelPos> clusterPixels) {
-
-        pixelsScanned[yc - y0][xc - x0] = 1;
-        clusterPixels.add(new PixelPos(xc, yc));
-
-        final int[] x = {xc - 1, xc, xc + 1, xc - 1, xc + 1, xc - 1, xc, xc + 1};
-        final int[] y = {yc - 1, yc - 1, yc - 1, yc, yc, yc + 1, yc + 1, yc + 1};
-
-        for (int i = 0; i < 8; i++) {
-
-            if (x[i] >= x0 && x[i] < x0 + w && y[i] >= y0 && y[i] < y0 + h &&
-                    pixelsScanned[y[i] - y0][x[i] - x0] == 0 &&
-                    bitMaskData.getElemIntAt(bitMaskTile.getDataBufferIndex(x[i], y[i])) == 1) {
-
-                clustering(x[i], y[i], x0, y0, w, h, bitMaskData, bitMaskTile, pixelsScanned, clusterPixels);
-            }
+    private synchronized TileClusterMerger getClusterMerger(final String bandName) {
+        TileClusterMerger merger = bandClusterMergers.get(bandName);
+        if (merger == null) {
+            final Dimension tileSize = targetProduct.getPreferredTileSize();
+            merger = new TileClusterMerger(sourceImageWidth, sourceImageHeight, tileSize.width, tileSize.height);
+            bandClusterMergers.put(bandName, merger);
         }
+        return merger;
     }
 
     /**
      * Generate a ship record for the detected cluster.
      *
-     * @param x0            The x coordinate for the upper left corner point of the source rectangle.
-     * @param y0            The y coordinate for the upper left corner point of the source rectangle.
-     * @param w             The width of the source rectangle.
-     * @param h             The height of the source rectangle.
-     * @param clusterPixels The list of pixels in the cluster.
+     * @param cluster The moments of the cluster.
      * @return ShipRecord
      */
-    private ShipRecord generateRecord(final int x0, final int y0, final int w, final int h,
-                                      List<PixelPos> clusterPixels) {
-        int xMin = x0 + w - 1;
-        int xMax = x0;
-        int yMin = y0 + h - 1;
-        int yMax = y0;
-
-        for (PixelPos pixel : clusterPixels) {
-            if (pixel.x < xMin) {
-                xMin = (int) pixel.x;
-            }
-
-            if (pixel.x > xMax) {
-                xMax = (int) pixel.x;
-            }
-
-            if (pixel.y < yMin) {
-                yMin = (int) pixel.y;
-            }
-
-            if (pixel.y > yMax) {
-                yMax = (int) pixel.y;
-            }
-        }
+    private ShipRecord generateRecord(final ClusterMoments cluster) {
 
-        final double xMid = (xMin + xMax) / 2.0;
-        final double yMid = (yMin + yMax) / 2.0;
+        final double xMid = (cluster.xMin + cluster.xMax) / 2.0;
+        final double yMid = (cluster.yMin + cluster.yMax) / 2.0;
         final GeoPos geoPos = targetProduct.getSceneGeoCoding().getGeoPos(new PixelPos(xMid, yMid), null);
 
-        final double width = (xMax - xMin + 1) * rangeSpacing;
-        final double length = (yMax - yMin + 1) * azimuthSpacing;
+        final double width = (cluster.xMax - cluster.xMin + 1) * rangeSpacing;
+        final double length = (cluster.yMax - cluster.yMin + 1) * azimuthSpacing;
 
-        return new ShipRecord((int) xMid, (int) yMid, geoPos.lat, geoPos.lon, width, length);
+        final ShipRecord record = new ShipRecord((int) xMid, (int) yMid, geoPos.lat, geoPos.lon, width, length);
+        record.meanIntensity = cluster.getMeanIntensity();
+        return record;
     }
 
     /**
@@ -382,6 +351,7 @@ public class ObjectDiscriminationOp extends Operator {
                     subElem.setAttribute(ATTRIB_DETECTED_LON, String.valueOf(rec.lon));
                     subElem.setAttribute(ATTRIB_DETECTED_WIDTH, String.valueOf(rec.width));
                     subElem.setAttribute(ATTRIB_DETECTED_LENGTH, String.valueOf(rec.length));
+                    subElem.setAttribute(ATTRIB_MEAN_INTENSITY, String.valueOf(rec.meanIntensity));
                     elem.addContent(subElem);
                 }
                 root.addContent(elem);
@@ -402,6 +372,7 @@ public class ObjectDiscriminationOp extends Operator {
         attributeDescriptors.add(VectorUtils.createAttribute(ATTRIB_DETECTED_LON, Double.class));
         attributeDescriptors.add(VectorUtils.createAttribute(ATTRIB_DETECTED_WIDTH, Double.class));
         attributeDescriptors.add(VectorUtils.createAttribute(ATTRIB_DETECTED_LENGTH, Double.class));
+        attributeDescriptors.add(VectorUtils.createAttribute(ATTRIB_MEAN_INTENSITY, Double.class));
         attributeDescriptors.add(VectorUtils.createAttribute(ATTRIB_STYLE_CSS, String.class));
 
         return VectorUtils.createFeatureType(targetProduct.getSceneGeoCoding(), VECTOR_NODE_NAME, attributeDescriptors);
@@ -430,6 +401,7 @@ public class ObjectDiscriminationOp extends Operator {
             fb.add(rec.lon);
             fb.add(rec.width);
             fb.add(rec.length);
+            fb.add(rec.meanIntensity);
             fb.add(STYLE_FORMAT);
             final SimpleFeature feature =  fb.buildFeature(name);
 
@@ -445,6 +417,7 @@ public class ObjectDiscriminationOp extends Operator {
         public final double lon;
         public final double width;
         public final double length;
+        public double meanIntensity;
         public double corr_lat;
         public double corr_lon;
         public int mmsi;
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.fex.gpf.oceantools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Joins the connected components of the tiles of an image into the clusters of the whole image.
+ * <p>
+ * Components that reach a tile border with a neighbouring tile are kept as fragments in a union-find forest.
+ * When both tiles on a seam have been labeled, the fragments of 8-connected pixels across the seam are joined.
+ * Each cluster counts the seams of its fragments that are still to be stitched, and is returned once no seam
+ * is left, so every cluster is returned exactly once, by the last of its tiles to be added.
+ * Tiles may be added in any order and from several threads.
+ */
+public class TileClusterMerger {
+
+    private static final int[] DX = {-1, 0, 1, -1, 1, -1, 0, 1};
+    private static final int[] DY = {-1, -1, -1, 0, 0, 1, 1, 1};
+
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int numTilesX;
+    private final int numTilesY;
+
+    private final boolean[] complete;
+    private final TileEdges[] edges;
+
+    // union-find forest of the fragments, pending seams and moments are kept at the root
+    private int[] parent = new int[64];
+    private int[] pending = new int[64];
+    private ClusterMoments[] moments = new ClusterMoments[64];
+    private int numFragments = 0;
+
+    public TileClusterMerger(final int imageWidth, final int imageHeight, final int tileWidth, final int tileHeight) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.numTilesX = (imageWidth + tileWidth - 1) / tileWidth;
+        this.numTilesY = (imageHeight + tileHeight - 1) / tileHeight;
+        this.complete = new boolean[numTilesX * numTilesY];
+        this.edges = new TileEdges[numTilesX * numTilesY];
+    }
+
+    /**
+     * Add the components of a tile of the tile grid
+     *
+     * @param components the labeled tile
+     * @return the clusters completed by this tile
+     */
+    public synchronized List<ClusterMoments> addTile(final ConnectedComponents components) {
+        final int x0 = components.getX0();
+        final int y0 = components.getY0();
+        final int w = components.getWidth();
+        final int h = components.getHeight();
+        final int tx = x0 / tileWidth;
+        final int ty = y0 / tileHeight;
+        if (x0 % tileWidth != 0 || y0 % tileHeight != 0 ||
+                w != Math.min(tileWidth, imageWidth - x0) || h != Math.min(tileHeight, imageHeight - y0)) {
+            throw new IllegalArgumentException("Tile " + x0 + ", " + y0 + ", " + w + ", " + h +
+                    " is not on the tile grid");
+        }
+
+        final List<ClusterMoments> clusters = new ArrayList<>();
+        final int tile = ty * numTilesX + tx;
+        if (complete[tile]) {
+            return clusters;
+        }
+
+        // components on a seam become fragments, the others are complete
+        final boolean left = tx > 0, right = tx < numTilesX - 1, top = ty > 0, bottom = ty < numTilesY - 1;
+        final int[] fragment = new int[components.getNumComponents() + 1];
+        for (int k = 1; k <= components.getNumComponents(); ++k) {
+            final ClusterMoments m = components.getMoments(k);
+            if ((left && m.xMin == x0) || (right && m.xMax == x0 + w - 1) ||
+                    (top && m.yMin == y0) || (bottom && m.yMax == y0 + h - 1)) {
+                fragment[k] = addFragment(m);
+            } else {
+                fragment[k] = -1;
+                clusters.add(m);
+            }
+        }
+
+        final TileEdges tileEdges = new TileEdges(w, h);
+        for (int x = 0; x < w; ++x) {
+            tileEdges.top[x] = fragmentAt(components, fragment, x0 + x, y0);
+            tileEdges.bottom[x] = fragmentAt(components, fragment, x0 + x, y0 + h - 1);
+        }
+        for (int y = 0; y < h; ++y) {
+            tileEdges.left[y] = fragmentAt(components, fragment, x0, y0 + y);
+            tileEdges.right[y] = fragmentAt(components, fragment, x0 + w - 1, y0 + y);
+        }
+        edges[tile] = tileEdges;
+        complete[tile] = true;
+
+        final List<Integer> touched = new ArrayList<>();
+        for (int d = 0; d < DX.length; ++d) {
+            final int nx = tx + DX[d];
+            final int ny = ty + DY[d];
+            if (nx < 0 || ny < 0 || nx >= numTilesX || ny >= numTilesY) {
+                continue;
+            }
+            final int neighbour = ny * numTilesX + nx;
+            if (complete[neighbour]) {
+                stitch(tileEdges, edges[neighbour], DX[d], DY[d]);
+                // the neighbour has waited for this seam
+                for (int id : distinct(edges[neighbour].seam(-DX[d], -DY[d]))) {
+                    --pending[find(id)];
+                    touched.add(id);
+                }
+            } else {
+                for (int id : distinct(tileEdges.seam(DX[d], DY[d]))) {
+                    ++pending[find(id)];
+                }
+            }
+        }
+        for (int id : fragment) {
+            if (id >= 0) {
+                touched.add(id);
+            }
+        }
+
+        for (int id : touched) {
+            final int root = find(id);
+            if (pending[root] == 0 && moments[root] != null) {
+                clusters.add(moments[root]);
+                moments[root] = null;
+            }
+        }
+
+        releaseEdges(tx, ty);
+        return clusters;
+    }
+
+    private int addFragment(final ClusterMoments m) {
+        if (numFragments == parent.length) {
+            parent = Arrays.copyOf(parent, 2 * parent.length);
+            pending = Arrays.copyOf(pending, 2 * pending.length);
+            moments = Arrays.copyOf(moments, 2 * moments.length);
+        }
+        parent[numFragments] = numFragments;
+        moments[numFragments] = m;
+        return numFragments++;
+    }
+
+    private static int fragmentAt(final ConnectedComponents components, final int[] fragment, final int x, final int y) {
+        final int k = components.getLabel(x, y);
+        return k == 0 ? -1 : fragment[k];
+    }
+
+    /**
+     * Join the fragments of 8-connected pixels on the seam to the neighbour in direction (dx, dy)
+     */
+    private void stitch(final TileEdges tile, final TileEdges neighbour, final int dx, final int dy) {
+        if (dx != 0 && dy != 0) {
+            union(tile.seam(dx, dy)[0], neighbour.seam(-dx, -dy)[0]);
+            return;
+        }
+        final int[] a = tile.seam(dx, dy);
+        final int[] b = neighbour.seam(-dx, -dy);
+        for (int i = 0; i < a.length; ++i) {
+            if (a[i] < 0) {
+                continue;
+            }
+            for (int j = Math.max(0, i - 1); j <= Math.min(b.length - 1, i + 1); ++j) {
+                union(a[i], b[j]);
+            }
+        }
+    }
+
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private void union(final int a, final int b) {
+        if (a < 0 || b < 0) {
+            return;
+        }
+        final int rootA = find(a);
+        final int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        parent[rootB] = rootA;
+        pending[rootA] += pending[rootB];
+        moments[rootA].add(moments[rootB]);
+        moments[rootB] = null;
+    }
+
+    private static int[] distinct(final int[] ids) {
+        final int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; ++i) {
+            if (sorted[i] >= 0 && (n == 0 || sorted[i] != sorted[n - 1])) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    /**
+     * Drop the edges of this tile and its neighbours once all of their neighbours are complete
+     */
+    private void releaseEdges(final int tx, final int ty) {
+        for (int ny = Math.max(0, ty - 1); ny <= Math.min(numTilesY - 1, ty + 1); ++ny) {
+            for (int nx = Math.max(0, tx - 1); nx <= Math.min(numTilesX - 1, tx + 1); ++nx) {
+                if (edges[ny * numTilesX + nx] != null && allNeighboursComplete(nx, ny)) {
+                    edges[ny * numTilesX + nx] = null;
+                }
+            }
+        }
+    }
+
+    private boolean allNeighboursComplete(final int tx, final int ty) {
+        for (int ny = Math.max(0, ty - 1); ny <= Math.min(numTilesY - 1, ty + 1); ++ny) {
+            for (int nx = Math.max(0, tx - 1); nx <= Math.min(numTilesX - 1, tx + 1); ++nx) {
+                if (!complete[ny * numTilesX + nx]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fragments on the first and last row and column of a tile, -1 for background
+     */
+    private static class TileEdges {
+        final int[] top;
+        final int[] bottom;
+        final int[] left;
+        final int[] right;
+
+        TileEdges(final int w, final int h) {
+            top = new int[w];
+            bottom = new int[w];
+            left = new int[h];
+            right = new int[h];
+        }
+
+        /**
+         * @return the pixels facing the neighbour in direction (dx, dy), a single pixel for a corner
+         */
+        int[] seam(final int dx, final int dy) {
+            if (dx == 0) {
+                return dy < 0 ? top : bottom;
+            }
+            if (dy == 0) {
+                return dx < 0 ? left : right;
+            }
+            final int[] row = dy < 0 ? top : bottom;
+            return new int[]{dx < 0 ? row[0] : row[row.length - 1]};
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.fex.gpf.oceantools;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Detection masks of the summed area table CFAR against the reference implementation
+ */
+public class TestCfarDetector {
+
+    private static final int width = 160;
+    private static final int height = 120;
+    private static final double noDataValue = 0.0;
+
+    private final float[] data = new float[width * height];
+
+    public TestCfarDetector() {
+        final Random random = new Random(17);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // 4-look gamma distributed sea clutter with a slow trend across the image
+                double sum = 0;
+                for (int look = 0; look < 4; look++) {
+                    sum -= Math.log(1.0 - random.nextDouble());
+                }
+                data[y * width + x] = (float) ((0.02 + 0.03 * x / width) * sum / 4);
+            }
+        }
+
+        // ships of a few pixels
+        for (int i = 0; i < 25; i++) {
+            final int x = random.nextInt(width - 6);
+            final int y = random.nextInt(height - 6);
+            final int length = 2 + random.nextInt(5);
+            final int beam = 1 + random.nextInt(3);
+            final float brightness = (float) (0.5 + 2 * random.nextDouble());
+            for (int dy = 0; dy < length; dy++) {
+                for (int dx = 0; dx < beam; dx++) {
+                    data[(y + dy) * width + x + dx] = brightness;
+                }
+            }
+        }
+
+        // no-data border and land
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < 6; x++) {
+                data[y * width + x] = (float) noDataValue;
+            }
+        }
+        for (int y = 90; y < height; y++) {
+            for (int x = 120; x < width; x++) {
+                data[y * width + x] = (float) noDataValue;
+            }
+        }
+        data[40 * width + 70] = Float.NaN;
+    }
+
+    @Test
+    public void testPerPixelThreshold() {
+        final double t = 5.0;
+        checkMasks(new CfarDetector(3, 8, 20, t), false, 0);
+        checkMasks(new CfarDetector(1, 8, 20, t), false, 0);
+        checkMasks(new CfarDetector(5, 6, 30, 3.0), false, 0);
+    }
+
+    @Test
+    public void testTileThreshold() {
+        checkMasks(new CfarDetector(3, 8, 20, 5.0), true, 0.15);
+    }
+
+    private void checkMasks(final CfarDetector detector, final boolean estimateBackground,
+                            final double backgroundThreshold) {
+        // tiles inside the image and on its borders, with the background border of the operator
+        final Rectangle[] targets = {new Rectangle(40, 30, 64, 48), new Rectangle(0, 0, 50, 40),
+                new Rectangle(110, 80, 50, 40), new Rectangle(60, 20, 40, 40)};
+        int detections = 0;
+        for (Rectangle target : targets) {
+            final int border = estimateBackground ? 0 : 20;
+            final int x0 = Math.max(target.x - border, 0);
+            final int y0 = Math.max(target.y - border, 0);
+            final int w = Math.min(target.x + target.width + border, width) - x0;
+            final int h = Math.min(target.y + target.height + border, height) - y0;
+            final float[] tile = new float[w * h];
+            for (int y = 0; y < h; y++) {
+                System.arraycopy(data, (y0 + y) * width + x0, tile, y * w, w);
+            }
+
+            final byte[] expected = new byte[target.width * target.height];
+            final byte[] mask = new byte[target.width * target.height];
+            detector.detectReference(tile, x0, y0, w, h, noDataValue, target, estimateBackground,
+                                     backgroundThreshold, expected);
+            detector.detect(tile, x0, y0, w, h, noDataValue, target, estimateBackground,
+                            backgroundThreshold, mask);
+
+            assertArrayEquals(expected, mask);
+            for (byte b : mask) {
+                detections += b;
+            }
+        }
+        assertTrue(detections > 0);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.fex.gpf.oceantools;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Labeling of single tiles and clusters joined across tile seams against a flood fill of the whole image
+ */
+public class TestConnectedComponents {
+
+    private static final int width = 100;
+    private static final int height = 80;
+
+    @Test
+    public void testSpiral() {
+        final byte[] mask = new byte[width * height];
+        // rectangular spiral with a gap of one pixel between the turns, a deep union-find chain
+        final int[] dx = {1, 0, -1, 0};
+        final int[] dy = {0, 1, 0, -1};
+        int x = 2, y = 2;
+        set(mask, x, y);
+        for (int s = 0; ; ++s) {
+            final int len = s % 2 == 0 ? width - 5 - 2 * Math.max(0, s / 2 - 1) : height - 5 - 2 * (s / 2);
+            if (len <= 0) {
+                break;
+            }
+            for (int i = 0; i < len; ++i) {
+                x += dx[s % 4];
+                y += dy[s % 4];
+                set(mask, x, y);
+            }
+        }
+        checkImage(mask, 1);
+    }
+
+    @Test
+    public void testStraddlingBlobs() {
+        final byte[] mask = new byte[width * height];
+        // across a vertical seam, a horizontal seam, and the corner of four tiles
+        fill(mask, 14, 10, 8, 5);
+        fill(mask, 40, 16, 3, 9);
+        fill(mask, 57, 36, 7, 7);
+        // touching only diagonally across a tile corner
+        set(mask, 19, 19);
+        set(mask, 20, 20);
+        // isolated pixels and a blob on the image border
+        set(mask, 5, 5);
+        set(mask, 77, 3);
+        fill(mask, 90, 70, 10, 10);
+        checkImage(mask, 7);
+    }
+
+    @Test
+    public void testSeamIntensity() {
+        final byte[] mask = new byte[width * height];
+        fill(mask, 14, 10, 8, 5);
+        final float[] intensity = new float[width * height];
+        for (int i = 0; i < intensity.length; ++i) {
+            intensity[i] = i % width < 20 ? 2.5f : 4.0f;
+        }
+
+        final TileClusterMerger merger = new TileClusterMerger(width, height, 20, 20);
+        final List<ClusterMoments> clusters = new ArrayList<>();
+        for (int x0 : new int[]{0, 20}) {
+            final byte[] tileMask = new byte[20 * 20];
+            final float[] tileIntensity = new float[20 * 20];
+            for (int y = 0; y < 20; ++y) {
+                System.arraycopy(mask, y * width + x0, tileMask, y * 20, 20);
+                System.arraycopy(intensity, y * width + x0, tileIntensity, y * 20, 20);
+            }
+            clusters.addAll(merger.addTile(new ConnectedComponents(tileMask, tileIntensity, x0, 0, 20, 20)));
+        }
+
+        // 30 pixels left of the seam at 2.5 and 10 pixels right of it at 4.0
+        assertEquals(1, clusters.size());
+        assertEquals(40, clusters.get(0).count);
+        assertEquals(115.0, clusters.get(0).sumIntensity, 1e-9);
+        assertEquals(2.875, clusters.get(0).getMeanIntensity(), 1e-9);
+    }
+
+    @Test
+    public void testFullTileBlob() {
+        final byte[] mask = new byte[width * height];
+        fill(mask, 20, 20, 20, 20);
+        // a ring around the full tile, separated by one pixel
+        fill(mask, 18, 18, 24, 1);
+        fill(mask, 18, 41, 24, 1);
+        fill(mask, 18, 18, 1, 24);
+        fill(mask, 41, 18, 1, 24);
+        checkImage(mask, 2);
+
+        final byte[] full = new byte[width * height];
+        fill(full, 0, 0, width, height);
+        checkImage(full, 1);
+    }
+
+    @Test
+    public void testRandomMask() {
+        final Random random = new Random(11);
+        for (double density : new double[]{0.2, 0.45, 0.6}) {
+            final byte[] mask = new byte[width * height];
+            for (int i = 0; i < mask.length; ++i) {
+                mask[i] = (byte) (random.nextDouble() < density ? 1 : 0);
+            }
+            checkImage(mask, -1);
+        }
+    }
+
+    private static void checkImage(final byte[] mask, final int expectedCount) {
+        final float[] intensity = new float[width * height];
+        for (int i = 0; i < intensity.length; ++i) {
+            intensity[i] = (i % 7) + 0.5f;
+        }
+
+        final List<String> expected = floodFill(mask, intensity);
+        if (expectedCount >= 0) {
+            assertEquals(expectedCount, expected.size());
+        }
+
+        // the whole image as a single tile
+        final ConnectedComponents components = new ConnectedComponents(mask, intensity, 0, 0, width, height);
+        final List<String> labeled = new ArrayList<>();
+        for (int k = 1; k <= components.getNumComponents(); ++k) {
+            labeled.add(toString(components.getMoments(k)));
+        }
+        Collections.sort(labeled);
+        assertEquals(expected, labeled);
+
+        // tiles added in random order
+        final Random random = new Random(5);
+        for (int[] tileSize : new int[][]{{20, 20}, {16, 13}, {1, 80}, {100, 7}}) {
+            final TileClusterMerger merger = new TileClusterMerger(width, height, tileSize[0], tileSize[1]);
+            final List<int[]> tiles = new ArrayList<>();
+            for (int y = 0; y < height; y += tileSize[1]) {
+                for (int x = 0; x < width; x += tileSize[0]) {
+                    tiles.add(new int[]{x, y, Math.min(tileSize[0], width - x), Math.min(tileSize[1], height - y)});
+                }
+            }
+            Collections.shuffle(tiles, random);
+
+            final List<String> merged = new ArrayList<>();
+            for (int[] tile : tiles) {
+                final int w = tile[2], h = tile[3];
+                final byte[] tileMask = new byte[w * h];
+                final float[] tileIntensity = new float[w * h];
+                for (int y = 0; y < h; ++y) {
+                    System.arraycopy(mask, (tile[1] + y) * width + tile[0], tileMask, y * w, w);
+                    System.arraycopy(intensity, (tile[1] + y) * width + tile[0], tileIntensity, y * w, w);
+                }
+                final ConnectedComponents tileComponents =
+                        new ConnectedComponents(tileMask, tileIntensity, tile[0], tile[1], w, h);
+                for (ClusterMoments cluster : merger.addTile(tileComponents)) {
+                    merged.add(toString(cluster));
+                }
+            }
+            Collections.sort(merged);
+            assertEquals(expected, merged);
+        }
+    }
+
+    /**
+     * Iterative 8-neighbour flood fill of the whole image
+     */
+    private static List<String> floodFill(final byte[] mask, final float[] intensity) {
+        final boolean[] visited = new boolean[width * height];
+        final List<String> clusters = new ArrayList<>();
+        final ArrayDeque<Integer> stack = new ArrayDeque<>();
+        for (int start = 0; start < mask.length; ++start) {
+            if (mask[start] == 0 || visited[start]) {
+                continue;
+            }
+            final ClusterMoments m = new ClusterMoments(Integer.MAX_VALUE, Integer.MIN_VALUE,
+                    Integer.MAX_VALUE, Integer.MIN_VALUE, 0, 0, 0, 0);
+            visited[start] = true;
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                final int i = stack.pop();
+                final int x = i % width, y = i / width;
+                m.add(new ClusterMoments(x, x, y, y, 1, x, y, intensity[i]));
+                for (int dy = -1; dy <= 1; ++dy) {
+                    for (int dx = -1; dx <= 1; ++dx) {
+                        final int nx = x + dx, ny = y + dy;
+                        if (nx >= 0 && ny >= 0 && nx < width && ny < height) {
+                            final int j = ny * width + nx;
+                            if (mask[j] != 0 && !visited[j]) {
+                                visited[j] = true;
+                                stack.push(j);
+                            }
+                        }
+                    }
+                }
+            }
+            clusters.add(toString(m));
+        }
+        Collections.sort(clusters);
+        return clusters;
+    }
+
+    private static String toString(final ClusterMoments m) {
+        return m.xMin + "," + m.xMax + "," + m.yMin + "," + m.yMax + "," + m.count + "," +
+                (long) m.sumX + "," + (long) m.sumY + "," + Math.round(m.sumIntensity * 2);
+    }
+
+    private static void set(final byte[] mask, final int x, final int y) {
+        mask[y * width + x] = 1;
+    }
+
+    private static void fill(final byte[] mask, final int x0, final int y0, final int w, final int h) {
+        for (int y = y0; y < y0 + h; ++y) {
+            for (int x = x0; x < x0 + w; ++x) {
+                set(mask, x, y);
+            }
+        }
+    }
+}
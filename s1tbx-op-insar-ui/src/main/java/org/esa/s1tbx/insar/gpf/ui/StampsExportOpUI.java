@@ -38,6 +38,7 @@ public class StampsExportOpUI extends BaseOperatorUI {
     private final JButton targetFolderBrowseButton = new JButton("...");
     private final JRadioButton psiFormatBtn = new JRadioButton("PSI");
     private final JRadioButton sbasFormatBtn = new JRadioButton("SBAS");
+    private final JCheckBox appendToExistingCheckBox = new JCheckBox("Append new acquisitions to existing export");
 
     private static final String STAMPS_TARGET_DIR_KEY = "s1tbx.stampsTargetFolder";
 
@@ -76,6 +77,8 @@ public class StampsExportOpUI extends BaseOperatorUI {
         } else {
             psiFormatBtn.setSelected(true);
         }
+        final Boolean appendToExisting = (Boolean) paramMap.get("appendToExisting");
+        appendToExistingCheckBox.setSelected(appendToExisting != null && appendToExisting);
     }
 
     @Override
@@ -91,6 +94,7 @@ public class StampsExportOpUI extends BaseOperatorUI {
             paramMap.put("targetFolder", new File(extFileStr));
         }
         paramMap.put("psiFormat", psiFormatBtn.isSelected());
+        paramMap.put("appendToExisting", appendToExistingCheckBox.isSelected());
     }
 
     private JComponent createPanel() {
@@ -117,6 +121,10 @@ public class StampsExportOpUI extends BaseOperatorUI {
         contentPane.add(new JLabel("Format: "), gbc);
         gbc.gridx = 1;
         contentPane.add(buttonPanel, gbc);
+        gbc.gridy++;
+
+        gbc.gridx = 1;
+        contentPane.add(appendToExistingCheckBox, gbc);
 
         DialogUtils.fillPanel(contentPane, gbc);
 
@@ -18,6 +18,7 @@ package org.esa.s1tbx.insar.gpf;
 import com.bc.ceres.core.ProgressMonitor;
 import org.apache.commons.math3.util.FastMath;
 import org.esa.s1tbx.commons.Sentinel1Utils;
+import org.esa.s1tbx.insar.gpf.support.InterferogramKernel;
 import org.esa.snap.core.datamodel.*;
 import org.esa.snap.core.dataop.dem.ElevationModel;
 import org.esa.snap.core.dataop.resamp.ResamplingFactory;
@@ -44,12 +45,12 @@ import org.esa.snap.engine_utilities.gpf.TileIndex;
 import org.jblas.ComplexDouble;
 import org.jblas.ComplexDoubleMatrix;
 import org.jblas.DoubleMatrix;
-import org.jblas.MatrixFunctions;
 import org.jlinda.core.GeoPoint;
 import org.jlinda.core.Orbit;
 import org.jlinda.core.Point;
 import org.jlinda.core.SLCImage;
 import org.jlinda.core.geom.DemTile;
+import org.jlinda.core.geom.RadarCodedDem;
 import org.jlinda.core.geom.TopoPhase;
 import org.jlinda.core.utils.*;
 
@@ -719,6 +720,7 @@ public class CoherenceOp extends Operator {
                     cohy0, cohy0 + cohh - 1, cohx0, cohx0 + cohw - 1);
 
             DemTile demTile = null;
+            RadarCodedDem radarCodedDem = null;
             if (subtractTopographicPhase) {
                 demTile = TopoPhase.getDEMTile(tileWindow, targetMap, dem, demNoDataValue,
                         demSamplingLat, demSamplingLon, tileExtensionPercent);
@@ -727,6 +729,9 @@ public class CoherenceOp extends Operator {
                     throw new OperatorException("The resolution of the selected DEM is too low, " +
                             "please select DEM with higher resolution.");
                 }
+
+                // radar code the DEM into master geometry once for all slaves
+                radarCodedDem = TopoPhase.radarCodeDEM(targetMap, tileWindow, demTile);
             }
 
             for (String cohKey : targetMap.keySet()) {
@@ -735,51 +740,40 @@ public class CoherenceOp extends Operator {
 
                 final Tile mstTileReal = getSourceTile(product.sourceMaster.realBand, extRect, border);
                 final Tile mstTileImag = getSourceTile(product.sourceMaster.imagBand, extRect, border);
-                final ComplexDoubleMatrix dataMaster = TileUtilsDoris.pullComplexDoubleMatrix(mstTileReal, mstTileImag);
-
                 final Tile slvTileReal = getSourceTile(product.sourceSlave.realBand, extRect, border);
                 final Tile slvTileImag = getSourceTile(product.sourceSlave.imagBand, extRect, border);
-                final ComplexDoubleMatrix dataSlave = TileUtilsDoris.pullComplexDoubleMatrix(slvTileReal, slvTileImag);
 
-                if (subtractFlatEarthPhase) {
-                    final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
-                            cohx0, cohx0 + cohw - 1, cohw, cohy0, cohy0 + cohh - 1, cohh,
-                            0, sourceImageWidth - 1, 0, sourceImageHeight - 1, product.sourceSlave.name);
+                final InterferogramKernel kernel = InterferogramKernel.get(cohw, cohh);
+                kernel.readMaster(mstTileReal, mstTileImag);
+                kernel.readSlave(slvTileReal, slvTileImag);
 
-                    final ComplexDoubleMatrix complexReferencePhase = new ComplexDoubleMatrix(
-                            MatrixFunctions.cos(flatEarthPhase), MatrixFunctions.sin(flatEarthPhase));
-
-                    dataSlave.muli(complexReferencePhase);
+                if (subtractFlatEarthPhase) {
+                    kernel.addFlatEarthPhase(flatEarthPolyMap.get(product.sourceSlave.name).toArray(),
+                            cohx0, cohy0, 0, sourceImageWidth - 1, 0, sourceImageHeight - 1);
 
                     if (OUTPUT_PHASE) {
+                        final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
+                                cohx0, cohx0 + cohw - 1, cohw, cohy0, cohy0 + cohh - 1, cohh,
+                                0, sourceImageWidth - 1, 0, sourceImageHeight - 1, product.sourceSlave.name);
                         saveFlatEarthPhase(x0, xN, y0, yN, flatEarthPhase, product, targetTileMap);
                     }
                 }
 
                 if (subtractTopographicPhase) {
                     final TopoPhase topoPhase = TopoPhase.computeTopoPhase(
-                            product, tileWindow, demTile, false);
+                            product, radarCodedDem, false, false);
 
-                    final ComplexDoubleMatrix ComplexTopoPhase = new ComplexDoubleMatrix(
-                            MatrixFunctions.cos(new DoubleMatrix(topoPhase.demPhase)),
-                            MatrixFunctions.sin(new DoubleMatrix(topoPhase.demPhase)));
-
-                    dataSlave.muli(ComplexTopoPhase);
+                    kernel.addPhase(topoPhase.demPhase);
 
                     if (OUTPUT_PHASE) {
                         saveTopoPhase(x0, xN, y0, yN, topoPhase.demPhase, product, targetTileMap);
                     }
                 }
 
-                for (int i = 0; i < dataMaster.length; i++) {
-                    double tmp = norm(dataMaster.get(i));
-                    dataMaster.put(i, dataMaster.get(i).mul(dataSlave.get(i).conj()));
-                    dataSlave.put(i, new ComplexDouble(norm(dataSlave.get(i)), tmp));
-                }
-
-                DoubleMatrix cohMatrix = SarUtils.coherence2(dataMaster, dataSlave, cohWinAz, cohWinRg);
+                kernel.formInterferogram();
+                final float[] coherence = kernel.computeCoherence(cohWinAz, cohWinRg);
 
-                saveCoherence(cohMatrix, product, targetTileMap, targetRectangle);
+                saveCoherence(coherence, product, targetTileMap, targetRectangle);
             }
 
         } catch (Throwable e) {
@@ -845,7 +839,7 @@ public class CoherenceOp extends Operator {
         }
     }
 
-    private void saveCoherence(final DoubleMatrix cohMatrix, final ProductContainer product,
+    private void saveCoherence(final float[] coherence, final ProductContainer product,
                                final Map<Band, Tile> targetTileMap, final Rectangle targetRectangle) {
 
         final int x0 = targetRectangle.x;
@@ -874,8 +868,7 @@ public class CoherenceOp extends Operator {
                 if (srcSlvData.getElemDoubleAt(srcSlvIndex.getIndex(x)) == srcNoDataValue) {
                     coherenceData.setElemFloatAt(tgtIdx, (float) srcNoDataValue);
                 } else {
-                    final double coh = cohMatrix.get(yy, xx);
-                    coherenceData.setElemFloatAt(tgtIdx, (float) coh);
+                    coherenceData.setElemFloatAt(tgtIdx, coherence[yy * targetRectangle.width + xx]);
                 }
             }
         }
@@ -946,6 +939,7 @@ public class CoherenceOp extends Operator {
             final Orbit mstOrbit = targetMap.values().iterator().next().sourceMaster.orbit;
 
             DemTile demTile = null;
+            RadarCodedDem radarCodedDem = null;
             if (subtractTopographicPhase) {
                 demTile = TopoPhase.getDEMTile(tileWindow, mstMeta, mstOrbit, dem,
                         demNoDataValue, demSamplingLat, demSamplingLon, tileExtensionPercent);
@@ -958,6 +952,9 @@ public class CoherenceOp extends Operator {
                     throw new OperatorException("The resolution of the selected DEM is too low, " +
                             "please select DEM with higher resolution.");
                 }
+
+                // radar code the DEM into master geometry once for all slaves
+                radarCodedDem = TopoPhase.radarCodeDEM(mstMeta, mstOrbit, tileWindow, demTile);
             }
 
             final int minLine = 0;
@@ -974,52 +971,41 @@ public class CoherenceOp extends Operator {
 
                 final Tile mstTileReal = getSourceTile(product.sourceMaster.realBand, extRect, border);
                 final Tile mstTileImag = getSourceTile(product.sourceMaster.imagBand, extRect, border);
-                final ComplexDoubleMatrix dataMaster = TileUtilsDoris.pullComplexDoubleMatrix(mstTileReal, mstTileImag);
-
                 final Tile slvTileReal = getSourceTile(product.sourceSlave.realBand, extRect, border);
                 final Tile slvTileImag = getSourceTile(product.sourceSlave.imagBand, extRect, border);
-                final ComplexDoubleMatrix dataSlave = TileUtilsDoris.pullComplexDoubleMatrix(slvTileReal, slvTileImag);
+
+                final InterferogramKernel kernel = InterferogramKernel.get(cohw, cohh);
+                kernel.readMaster(mstTileReal, mstTileImag);
+                kernel.readSlave(slvTileReal, slvTileImag);
 
                 final String polynomialName = product.sourceSlave.name + '_' + (subSwathIndex - 1) + '_' + burstIndex;
                 if (subtractFlatEarthPhase) {
-                    final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
-                            cohx0, cohx0 + cohw - 1, cohw, cohy0 - firstLineIdx, cohy0 + cohh - 1 - firstLineIdx, cohh,
-                            minPixel, maxPixel, minLine, maxLine, polynomialName);
-
-                    final ComplexDoubleMatrix complexReferencePhase = new ComplexDoubleMatrix(
-                            MatrixFunctions.cos(flatEarthPhase), MatrixFunctions.sin(flatEarthPhase));
-
-                    dataSlave.muli(complexReferencePhase);
+                    kernel.addFlatEarthPhase(flatEarthPolyMap.get(polynomialName).toArray(),
+                            cohx0, cohy0 - firstLineIdx, minPixel, maxPixel, minLine, maxLine);
 
                     if (OUTPUT_PHASE) {
+                        final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
+                                cohx0, cohx0 + cohw - 1, cohw, cohy0 - firstLineIdx, cohy0 + cohh - 1 - firstLineIdx, cohh,
+                                minPixel, maxPixel, minLine, maxLine, polynomialName);
                         saveFlatEarthPhase(x0, xN, y0, yN, flatEarthPhase, product, targetTileMap);
                     }
                 }
 
                 if (subtractTopographicPhase) {
                     TopoPhase topoPhase = TopoPhase.computeTopoPhase(
-                            mstMeta, mstOrbit, slvMeta, slvOrbit, tileWindow, demTile, false);
-
-                    final ComplexDoubleMatrix ComplexTopoPhase = new ComplexDoubleMatrix(
-                            MatrixFunctions.cos(new DoubleMatrix(topoPhase.demPhase)),
-                            MatrixFunctions.sin(new DoubleMatrix(topoPhase.demPhase)));
+                            radarCodedDem, slvMeta, slvOrbit, false, false);
 
-                    dataSlave.muli(ComplexTopoPhase);
+                    kernel.addPhase(topoPhase.demPhase);
 
                     if (OUTPUT_PHASE) {
                         saveTopoPhase(x0, xN, y0, yN, topoPhase.demPhase, product, targetTileMap);
                     }
                 }
 
-                for (int i = 0; i < dataMaster.length; i++) {
-                    double tmp = norm(dataMaster.get(i));
-                    dataMaster.put(i, dataMaster.get(i).mul(dataSlave.get(i).conj()));
-                    dataSlave.put(i, new ComplexDouble(norm(dataSlave.get(i)), tmp));
-                }
-
-                DoubleMatrix cohMatrix = SarUtils.coherence2(dataMaster, dataSlave, cohWinAz, cohWinRg);
+                kernel.formInterferogram();
+                final float[] coherence = kernel.computeCoherence(cohWinAz, cohWinRg);
 
-                saveCoherence(cohMatrix, product, targetTileMap, targetRectangle);
+                saveCoherence(coherence, product, targetTileMap, targetRectangle);
             }
 
         } catch (Throwable e) {
@@ -1078,10 +1064,6 @@ public class CoherenceOp extends Operator {
         return new GeoPoint(lat / (2*cols), lon / (2*cols));
     }
 
-    private static double norm(final ComplexDouble number) {
-        return number.real() * number.real() + number.imag() * number.imag();
-    }
-
     private static double norm(final double real, final double imag) {
         return real * real + imag * imag;
     }
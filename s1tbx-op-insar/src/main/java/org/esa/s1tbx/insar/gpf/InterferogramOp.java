@@ -18,6 +18,7 @@ package org.esa.s1tbx.insar.gpf;
 import com.bc.ceres.core.ProgressMonitor;
 import org.apache.commons.math3.util.FastMath;
 import org.esa.s1tbx.commons.Sentinel1Utils;
+import org.esa.s1tbx.insar.gpf.support.InterferogramKernel;
 import org.esa.snap.core.datamodel.*;
 import org.esa.snap.core.dataop.dem.ElevationModel;
 import org.esa.snap.core.dataop.resamp.ResamplingFactory;
@@ -44,6 +45,7 @@ import org.jlinda.core.*;
 import org.jlinda.core.Point;
 import org.jlinda.core.Window;
 import org.jlinda.core.geom.DemTile;
+import org.jlinda.core.geom.RadarCodedDem;
 import org.jlinda.core.geom.TopoPhase;
 import org.jlinda.core.utils.*;
 
@@ -879,6 +881,7 @@ public class InterferogramOp extends Operator {
             final Window tileWindow = new Window(y0, yN, x0, xN);
 
             DemTile demTile = null;
+            RadarCodedDem radarCodedDem = null;
             if (subtractTopographicPhase) {
                 demTile = TopoPhase.getDEMTile(tileWindow, targetMap, dem, demNoDataValue,
                         demSamplingLat, demSamplingLon, tileExtensionPercent);
@@ -887,6 +890,9 @@ public class InterferogramOp extends Operator {
                     throw new OperatorException("The resolution of the selected DEM is too low, " +
                             "please select DEM with higher resolution.");
                 }
+
+                // radar code the DEM into master geometry once for all slaves
+                radarCodedDem = TopoPhase.radarCodeDEM(targetMap, tileWindow, demTile);
             }
 
             // parameters for coherence calculation
@@ -899,10 +905,11 @@ public class InterferogramOp extends Operator {
             final Window cohTileWindow = new Window(
                     cohy0, cohy0 + cohh - 1, cohx0, cohx0 + cohw - 1);
 
-            DemTile cohDemTile = null;
-            if (subtractTopographicPhase) {
-                cohDemTile = TopoPhase.getDEMTile(cohTileWindow, targetMap, dem, demNoDataValue,
+            RadarCodedDem cohRadarCodedDem = null;
+            if (subtractTopographicPhase && includeCoherence) {
+                final DemTile cohDemTile = TopoPhase.getDEMTile(cohTileWindow, targetMap, dem, demNoDataValue,
                         demSamplingLat, demSamplingLon, tileExtensionPercent);
+                cohRadarCodedDem = TopoPhase.radarCodeDEM(targetMap, cohTileWindow, cohDemTile);
             }
 
             for (String ifgKey : targetMap.keySet()) {
@@ -911,36 +918,30 @@ public class InterferogramOp extends Operator {
 
                 final Tile mstTileReal = getSourceTile(product.sourceMaster.realBand, targetRectangle, border);
                 final Tile mstTileImag = getSourceTile(product.sourceMaster.imagBand, targetRectangle, border);
-                final ComplexDoubleMatrix dataMaster = TileUtilsDoris.pullComplexDoubleMatrix(mstTileReal, mstTileImag);
-
                 final Tile slvTileReal = getSourceTile(product.sourceSlave.realBand, targetRectangle, border);
                 final Tile slvTileImag = getSourceTile(product.sourceSlave.imagBand, targetRectangle, border);
-                final ComplexDoubleMatrix dataSlave = TileUtilsDoris.pullComplexDoubleMatrix(slvTileReal, slvTileImag);
-
-                if (subtractFlatEarthPhase) {
-                    final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
-                            x0, xN, dataMaster.columns, y0, yN, dataMaster.rows,
-                            0, sourceImageWidth - 1, 0, sourceImageHeight - 1, product.sourceSlave.name);
 
-                    final ComplexDoubleMatrix complexReferencePhase = new ComplexDoubleMatrix(
-                            MatrixFunctions.cos(flatEarthPhase), MatrixFunctions.sin(flatEarthPhase));
+                InterferogramKernel kernel = InterferogramKernel.get(targetRectangle.width, targetRectangle.height);
+                kernel.readMaster(mstTileReal, mstTileImag);
+                kernel.readSlave(slvTileReal, slvTileImag);
 
-                    dataSlave.muli(complexReferencePhase);
+                if (subtractFlatEarthPhase) {
+                    kernel.addFlatEarthPhase(flatEarthPolyMap.get(product.sourceSlave.name).toArray(),
+                            x0, y0, 0, sourceImageWidth - 1, 0, sourceImageHeight - 1);
 
                     if (OUTPUT_PHASE) {
+                        final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
+                                x0, xN, targetRectangle.width, y0, yN, targetRectangle.height,
+                                0, sourceImageWidth - 1, 0, sourceImageHeight - 1, product.sourceSlave.name);
                         saveFlatEarthPhase(x0, xN, y0, yN, flatEarthPhase, product, targetTileMap);
                     }
                 }
 
                 if (subtractTopographicPhase) {
                     final TopoPhase topoPhase = TopoPhase.computeTopoPhase(
-                            product, tileWindow, demTile, outputElevation, false);
+                            product, radarCodedDem, outputElevation, false);
 
-                    final ComplexDoubleMatrix ComplexTopoPhase = new ComplexDoubleMatrix(
-                            MatrixFunctions.cos(new DoubleMatrix(topoPhase.demPhase)),
-                            MatrixFunctions.sin(new DoubleMatrix(topoPhase.demPhase)));
-
-                    dataSlave.muli(ComplexTopoPhase);
+                    kernel.addPhase(topoPhase.demPhase);
 
                     if (OUTPUT_PHASE) {
                         saveTopoPhase(x0, xN, y0, yN, topoPhase.demPhase, product, targetTileMap);
@@ -952,15 +953,15 @@ public class InterferogramOp extends Operator {
 
                     if (outputLatLon) {
                         final TopoPhase topoPhase1 = TopoPhase.computeTopoPhase(
-                                product, tileWindow, demTile, false, true);
+                                product, radarCodedDem, false, true);
 
                         saveLatLon(x0, xN, y0, yN, topoPhase1.latitude, topoPhase1.longitude, product, targetTileMap);
                     }
                 }
 
-                dataMaster.muli(dataSlave.conji());
+                kernel.formInterferogram();
 
-                saveInterferogram(dataMaster, product, targetTileMap, targetRectangle);
+                saveInterferogram(kernel, product, targetTileMap, targetRectangle);
 
                 // coherence calculation
                 if (includeCoherence) {
@@ -968,43 +969,27 @@ public class InterferogramOp extends Operator {
                     final Tile mstTileImag2 = getSourceTile(product.sourceMaster.imagBand, rect, border);
                     final Tile slvTileReal2 = getSourceTile(product.sourceSlave.realBand, rect, border);
                     final Tile slvTileImag2 = getSourceTile(product.sourceSlave.imagBand, rect, border);
-                    final ComplexDoubleMatrix dataMaster2 =
-                            TileUtilsDoris.pullComplexDoubleMatrix(mstTileReal2, mstTileImag2);
 
-                    final ComplexDoubleMatrix dataSlave2 =
-                            TileUtilsDoris.pullComplexDoubleMatrix(slvTileReal2, slvTileImag2);
+                    kernel = InterferogramKernel.get(cohw, cohh);
+                    kernel.readMaster(mstTileReal2, mstTileImag2);
+                    kernel.readSlave(slvTileReal2, slvTileImag2);
 
                     if (subtractFlatEarthPhase) {
-                        final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
-                                cohx0, cohx0 + cohw - 1, cohw, cohy0, cohy0 + cohh - 1, cohh,
-                                0, sourceImageWidth - 1, 0, sourceImageHeight - 1, product.sourceSlave.name);
-
-                        final ComplexDoubleMatrix complexReferencePhase = new ComplexDoubleMatrix(
-                                MatrixFunctions.cos(flatEarthPhase), MatrixFunctions.sin(flatEarthPhase));
-
-                        dataSlave2.muli(complexReferencePhase);
+                        kernel.addFlatEarthPhase(flatEarthPolyMap.get(product.sourceSlave.name).toArray(),
+                                cohx0, cohy0, 0, sourceImageWidth - 1, 0, sourceImageHeight - 1);
                     }
 
                     if (subtractTopographicPhase) {
                         final TopoPhase topoPhase = TopoPhase.computeTopoPhase(
-                                product, cohTileWindow, cohDemTile, false);
-
-                        final ComplexDoubleMatrix ComplexTopoPhase = new ComplexDoubleMatrix(
-                                MatrixFunctions.cos(new DoubleMatrix(topoPhase.demPhase)),
-                                MatrixFunctions.sin(new DoubleMatrix(topoPhase.demPhase)));
-
-                        dataSlave2.muli(ComplexTopoPhase);
-                    }
+                                product, cohRadarCodedDem, false, false);
 
-                    for (int i = 0; i < dataMaster2.length; i++) {
-                        double tmp = norm(dataMaster2.get(i));
-                        dataMaster2.put(i, dataMaster2.get(i).mul(dataSlave2.get(i).conj()));
-                        dataSlave2.put(i, new ComplexDouble(norm(dataSlave2.get(i)), tmp));
+                        kernel.addPhase(topoPhase.demPhase);
                     }
 
-                    DoubleMatrix cohMatrix = SarUtils.coherence2(dataMaster2, dataSlave2, cohWinAz, cohWinRg);
+                    kernel.formInterferogram();
+                    final float[] coherence = kernel.computeCoherence(cohWinAz, cohWinRg);
 
-                    saveCoherence(cohMatrix, product, targetTileMap, targetRectangle);
+                    saveCoherence(coherence, product, targetTileMap, targetRectangle);
                 }
             }
         } catch (Throwable e) {
@@ -1139,7 +1124,7 @@ public class InterferogramOp extends Operator {
 //        }
 //    }
 
-    private void saveInterferogram(final ComplexDoubleMatrix dataMaster, final ProductContainer product,
+    private void saveInterferogram(final InterferogramKernel kernel, final ProductContainer product,
                                    final Map<Band, Tile> targetTileMap, final Rectangle targetRectangle) {
 
         final int x0 = targetRectangle.x;
@@ -1154,8 +1139,9 @@ public class InterferogramOp extends Operator {
 
         final ProductData samplesReal = tileOutReal.getDataBuffer();
         final ProductData samplesImag = tileOutImag.getDataBuffer();
-        final DoubleMatrix dataReal = dataMaster.real();
-        final DoubleMatrix dataImag = dataMaster.imag();
+        final float[] dataReal = kernel.getInterferogramI();
+        final float[] dataImag = kernel.getInterferogramQ();
+        final int width = targetRectangle.width;
         final TileIndex tgtIndex = new TileIndex(tileOutReal);
 
         final Tile mstRealTile = getSourceTile(product.sourceMaster.realBand, targetRectangle);
@@ -1195,8 +1181,8 @@ public class InterferogramOp extends Operator {
                         samplesReal.setElemFloatAt(tgtIdx, (float) mstNoDataValue);
                         samplesImag.setElemFloatAt(tgtIdx, (float) mstNoDataValue);
                     } else {
-                        samplesReal.setElemFloatAt(tgtIdx, (float) dataReal.get(yy, xx));
-                        samplesImag.setElemFloatAt(tgtIdx, (float) dataImag.get(yy, xx));
+                        samplesReal.setElemFloatAt(tgtIdx, dataReal[yy * width + xx]);
+                        samplesImag.setElemFloatAt(tgtIdx, dataImag[yy * width + xx]);
                     }
                 }
             }
@@ -1209,14 +1195,14 @@ public class InterferogramOp extends Operator {
                 for (int x = x0; x < maxX; x++) {
                     final int tgtIdx = tgtIndex.getIndex(x);
                     final int xx = x - x0;
-                    samplesReal.setElemFloatAt(tgtIdx, (float) dataReal.get(yy, xx));
-                    samplesImag.setElemFloatAt(tgtIdx, (float) dataImag.get(yy, xx));
+                    samplesReal.setElemFloatAt(tgtIdx, dataReal[yy * width + xx]);
+                    samplesImag.setElemFloatAt(tgtIdx, dataImag[yy * width + xx]);
                 }
             }
         }
     }
 
-    private void saveCoherence(final DoubleMatrix cohMatrix, final ProductContainer product,
+    private void saveCoherence(final float[] coherence, final ProductContainer product,
                                final Map<Band, Tile> targetTileMap, final Rectangle targetRectangle) {
 
         final int x0 = targetRectangle.x;
@@ -1245,17 +1231,12 @@ public class InterferogramOp extends Operator {
                 if (srcSlvData.getElemDoubleAt(srcSlvIndex.getIndex(x)) == srcNoDataValue) {
                     coherenceData.setElemFloatAt(tgtIdx, (float) srcNoDataValue);
                 } else {
-                    final double coh = cohMatrix.get(yy, xx);
-                    coherenceData.setElemFloatAt(tgtIdx, (float) coh);
+                    coherenceData.setElemFloatAt(tgtIdx, coherence[yy * targetRectangle.width + xx]);
                 }
             }
         }
     }
 
-    private static double norm(final ComplexDouble number) {
-        return number.real() * number.real() + number.imag() * number.imag();
-    }
-
     private void computeTileStackForTOPSARProduct(
             final Map<Band, Tile> targetTileMap, final Rectangle targetRectangle, final ProgressMonitor pm)
             throws OperatorException {
@@ -1313,6 +1294,7 @@ public class InterferogramOp extends Operator {
             final Orbit mstOrbit = targetMap.values().iterator().next().sourceMaster.orbit;
 
             DemTile demTile = null;
+            RadarCodedDem radarCodedDem = null;
             if (subtractTopographicPhase) {
                 demTile = TopoPhase.getDEMTile(tileWindow, mstMeta, mstOrbit, dem,
                         demNoDataValue, demSamplingLat, demSamplingLon, tileExtensionPercent);
@@ -1325,6 +1307,9 @@ public class InterferogramOp extends Operator {
                     throw new OperatorException("The resolution of the selected DEM is too low, " +
                             "please select DEM with higher resolution.");
                 }
+
+                // radar code the DEM into master geometry once for all slaves
+                radarCodedDem = TopoPhase.radarCodeDEM(mstMeta, mstOrbit, tileWindow, demTile);
             }
 
             final int cohx0 = targetRectangle.x - (cohWinRg - 1) / 2;
@@ -1336,10 +1321,11 @@ public class InterferogramOp extends Operator {
             final Window cohTileWindow = new Window(
                     cohy0 - firstLineIdx, cohy0 + cohh - 1 - firstLineIdx, cohx0, cohx0 + cohw - 1);
 
-            DemTile cohDemTile = null;
-            if (subtractTopographicPhase) {
-                cohDemTile = TopoPhase.getDEMTile(cohTileWindow, mstMeta, mstOrbit, dem,
+            RadarCodedDem cohRadarCodedDem = null;
+            if (subtractTopographicPhase && includeCoherence) {
+                final DemTile cohDemTile = TopoPhase.getDEMTile(cohTileWindow, mstMeta, mstOrbit, dem,
                         demNoDataValue, demSamplingLat, demSamplingLon, tileExtensionPercent);
+                cohRadarCodedDem = TopoPhase.radarCodeDEM(mstMeta, mstOrbit, cohTileWindow, cohDemTile);
             }
 
             final int minLine = 0;
@@ -1357,38 +1343,33 @@ public class InterferogramOp extends Operator {
                 /// check out results from master ///
                 final Tile mstTileReal = getSourceTile(product.sourceMaster.realBand, targetRectangle, border);
                 final Tile mstTileImag = getSourceTile(product.sourceMaster.imagBand, targetRectangle, border);
-                final ComplexDoubleMatrix dataMaster = TileUtilsDoris.pullComplexDoubleMatrix(mstTileReal, mstTileImag);
 
                 /// check out results from slave ///
                 final Tile slvTileReal = getSourceTile(product.sourceSlave.realBand, targetRectangle, border);
                 final Tile slvTileImag = getSourceTile(product.sourceSlave.imagBand, targetRectangle, border);
-                final ComplexDoubleMatrix dataSlave = TileUtilsDoris.pullComplexDoubleMatrix(slvTileReal, slvTileImag);
+
+                InterferogramKernel kernel = InterferogramKernel.get(targetRectangle.width, targetRectangle.height);
+                kernel.readMaster(mstTileReal, mstTileImag);
+                kernel.readSlave(slvTileReal, slvTileImag);
 
                 final String polynomialName = product.sourceSlave.name + '_' + (subSwathIndex - 1) + '_' + burstIndex;
                 if (subtractFlatEarthPhase) {
-                    final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
-                            x0, xN, dataMaster.columns, y0 - firstLineIdx, yN - firstLineIdx, dataMaster.rows,
-                            minPixel, maxPixel, minLine, maxLine, polynomialName);
-
-                    final ComplexDoubleMatrix complexReferencePhase = new ComplexDoubleMatrix(
-                            MatrixFunctions.cos(flatEarthPhase), MatrixFunctions.sin(flatEarthPhase));
-
-                    dataSlave.muli(complexReferencePhase);
+                    kernel.addFlatEarthPhase(flatEarthPolyMap.get(polynomialName).toArray(),
+                            x0, y0 - firstLineIdx, minPixel, maxPixel, minLine, maxLine);
 
                     if (OUTPUT_PHASE) {
+                        final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
+                                x0, xN, targetRectangle.width, y0 - firstLineIdx, yN - firstLineIdx,
+                                targetRectangle.height, minPixel, maxPixel, minLine, maxLine, polynomialName);
                         saveFlatEarthPhase(x0, xN, y0, yN, flatEarthPhase, product, targetTileMap);
                     }
                 }
 
                 if (subtractTopographicPhase) {
                     TopoPhase topoPhase = TopoPhase.computeTopoPhase(
-                            mstMeta, mstOrbit, slvMeta, slvOrbit, tileWindow, demTile, outputElevation, false);
+                            radarCodedDem, slvMeta, slvOrbit, outputElevation, false);
 
-                    final ComplexDoubleMatrix ComplexTopoPhase = new ComplexDoubleMatrix(
-                            MatrixFunctions.cos(new DoubleMatrix(topoPhase.demPhase)),
-                            MatrixFunctions.sin(new DoubleMatrix(topoPhase.demPhase)));
-
-                    dataSlave.muli(ComplexTopoPhase);
+                    kernel.addPhase(topoPhase.demPhase);
 
                     if (OUTPUT_PHASE) {
                         saveTopoPhase(x0, xN, y0, yN, topoPhase.demPhase, product, targetTileMap);
@@ -1400,15 +1381,15 @@ public class InterferogramOp extends Operator {
 
                     if (outputLatLon) {
                         TopoPhase topoPhase1 = TopoPhase.computeTopoPhase(
-                                mstMeta, mstOrbit, slvMeta, slvOrbit, tileWindow, demTile, false, true);
+                                radarCodedDem, slvMeta, slvOrbit, false, true);
 
                         saveLatLon(x0, xN, y0, yN, topoPhase1.latitude, topoPhase1.longitude, product, targetTileMap);
                     }
                 }
 
-                dataMaster.muli(dataSlave.conji());
+                kernel.formInterferogram();
 
-                saveInterferogram(dataMaster, product, targetTileMap, targetRectangle);
+                saveInterferogram(kernel, product, targetTileMap, targetRectangle);
 
                 // coherence calculation
                 if (includeCoherence) {
@@ -1416,43 +1397,27 @@ public class InterferogramOp extends Operator {
                     final Tile mstTileImag2 = getSourceTile(product.sourceMaster.imagBand, rect, border);
                     final Tile slvTileReal2 = getSourceTile(product.sourceSlave.realBand, rect, border);
                     final Tile slvTileImag2 = getSourceTile(product.sourceSlave.imagBand, rect, border);
-                    final ComplexDoubleMatrix dataMaster2 =
-                            TileUtilsDoris.pullComplexDoubleMatrix(mstTileReal2, mstTileImag2);
 
-                    final ComplexDoubleMatrix dataSlave2 =
-                            TileUtilsDoris.pullComplexDoubleMatrix(slvTileReal2, slvTileImag2);
+                    kernel = InterferogramKernel.get(cohw, cohh);
+                    kernel.readMaster(mstTileReal2, mstTileImag2);
+                    kernel.readSlave(slvTileReal2, slvTileImag2);
 
                     if (subtractFlatEarthPhase) {
-                        final DoubleMatrix flatEarthPhase = computeFlatEarthPhase(
-                                cohx0, cohx0 + cohw - 1, cohw, cohy0 - firstLineIdx, cohy0 + cohh - 1 - firstLineIdx, cohh,
-                                minPixel, maxPixel, minLine, maxLine, polynomialName);
-
-                        final ComplexDoubleMatrix complexReferencePhase = new ComplexDoubleMatrix(
-                                MatrixFunctions.cos(flatEarthPhase), MatrixFunctions.sin(flatEarthPhase));
-
-                        dataSlave2.muli(complexReferencePhase);
+                        kernel.addFlatEarthPhase(flatEarthPolyMap.get(polynomialName).toArray(),
+                                cohx0, cohy0 - firstLineIdx, minPixel, maxPixel, minLine, maxLine);
                     }
 
                     if (subtractTopographicPhase) {
                         TopoPhase topoPhase = TopoPhase.computeTopoPhase(
-                                mstMeta, mstOrbit, slvMeta, slvOrbit, cohTileWindow, cohDemTile, false);
-
-                        final ComplexDoubleMatrix ComplexTopoPhase = new ComplexDoubleMatrix(
-                                MatrixFunctions.cos(new DoubleMatrix(topoPhase.demPhase)),
-                                MatrixFunctions.sin(new DoubleMatrix(topoPhase.demPhase)));
-
-                        dataSlave2.muli(ComplexTopoPhase);
-                    }
+                                cohRadarCodedDem, slvMeta, slvOrbit, false, false);
 
-                    for (int i = 0; i < dataMaster2.length; i++) {
-                        double tmp = norm(dataMaster2.get(i));
-                        dataMaster2.put(i, dataMaster2.get(i).mul(dataSlave2.get(i).conj()));
-                        dataSlave2.put(i, new ComplexDouble(norm(dataSlave2.get(i)), tmp));
+                        kernel.addPhase(topoPhase.demPhase);
                     }
 
-                    DoubleMatrix cohMatrix = SarUtils.coherence2(dataMaster2, dataSlave2, cohWinAz, cohWinRg);
+                    kernel.formInterferogram();
+                    final float[] coherence = kernel.computeCoherence(cohWinAz, cohWinRg);
 
-                    saveCoherence(cohMatrix, product, targetTileMap, targetRectangle);
+                    saveCoherence(coherence, product, targetTileMap, targetRectangle);
                 }
             }
 
@@ -61,6 +61,13 @@ public class IonosphericCorrectionOp extends Operator {
             label = "Sigma")
     private int sigma = 81;
 
+    @Parameter(description = "Estimate the ionospheric phase on blocks of this many pixels in each direction " +
+            "and interpolate it bilinearly, 1 to estimate it for every pixel",
+            interval = "[1, 100]",
+            defaultValue = "1",
+            label = "Decimation factor")
+    private int decimationFactor = 1;
+
     @Parameter(description = "Coherence threshold",
             interval = "[0, 1]",
             defaultValue = "0.6",
@@ -124,6 +131,10 @@ public class IonosphericCorrectionOp extends Operator {
             // Validate input products
             validateInputProducts();
 
+            if (decimationFactor > 1 && 2 * decimationFactor > sigma) {
+                throw new OperatorException("The decimation factor must not exceed half of sigma.");
+            }
+
             // Load metadata and source bands
             getProductMetadataAndSourceBands();
 
@@ -279,7 +290,8 @@ public class IonosphericCorrectionOp extends Operator {
         final Tile wrappedCorrectedPhaseTile = targetTileMap.get(targetBandWrappedCorrectedPhase);
 
         // Estimate ionospheric phase
-        estimateIonosphericPhase(centerFreqLow, centerFreqHigh, centerFreqFull, sigma, coherenceThreshold,
+        estimateIonosphericPhase(centerFreqLow, centerFreqHigh, centerFreqFull, sigma, decimationFactor,
+                                 coherenceThreshold,
                                  unwrappedPhaseLowTile, unwrappedPhaseHighTile, unwrappedPhaseFullTile,
                                  coherenceFullTile, ionosphericPhaseTile, wrappedIonosphericPhaseTile,
                                  wrappedOriginalPhaseTile, wrappedCorrectedPhaseTile,
@@ -287,7 +299,7 @@ public class IonosphericCorrectionOp extends Operator {
     }
 
     private static void estimateIonosphericPhase(final double centerFreqLow, final double centerFreqHigh, final double centerFreqFull,
-                                                 final int sigma, final double coherenceThreshold,
+                                                 final int sigma, final int decimationFactor, final double coherenceThreshold,
                                                  final Tile unwrappedPhaseLowTile, final Tile unwrappedPhaseHighTile,
                                                  final Tile unwrappedPhaseFullTile, final Tile coherenceFullTile,
                                                  final Tile ionosphericPhaseTile, final Tile wrappedIonosphericPhaseTile,
@@ -309,55 +321,41 @@ public class IonosphericCorrectionOp extends Operator {
 
         final TileIndex sourceIndex = new TileIndex(unwrappedPhaseFullTile);
 
-        final double[][] ionosphericPhase = new double[h][w];
-        final double[][] coherence = new double[h][w];
-        final double[][] originalPhase = new double[h][w];
+        final double scale = (centerFreqLow * centerFreqHigh)
+                / (centerFreqFull * (Math.pow(centerFreqHigh, 2) - Math.pow(centerFreqLow, 2)));
+
+        // Ionospheric phase weighted by the thresholded coherence
+        final float[] weightedPhase = new float[w * h];
+        final float[] weights = new float[w * h];
         for (int y = y0; y < yMax; y++) {
             sourceIndex.calculateStride(y);
-            final int yy = y - y0;
+            final int offset = (y - y0) * w - x0;
             for (int x = x0; x < xMax; x++) {
                 final int sourceIdx = sourceIndex.getIndex(x);
-                final int xx = x - x0;
 
                 // Get values
                 final double phaseLow = sourceBufferUnwrappedPhaseLow.getElemDoubleAt(sourceIdx);
                 final double phaseHigh = sourceBufferUnwrappedPhaseHigh.getElemDoubleAt(sourceIdx);
-                final double phaseFull = sourceBufferUnwrappedPhaseFull.getElemDoubleAt(sourceIdx);
                 final double cohFull = sourceBufferCoherenceFull.getElemDoubleAt(sourceIdx);
 
                 // Solve for ionospheric phase
-                final double ionoPhase = (centerFreqLow * centerFreqHigh)
-                        / (centerFreqFull * (Math.pow(centerFreqHigh, 2) - Math.pow(centerFreqLow, 2)))
-                        * (phaseLow * centerFreqHigh - phaseHigh * centerFreqLow);
-
-                // Store values for later use
-                ionosphericPhase[yy][xx] = ionoPhase;
-                coherence[yy][xx] = cohFull;
-                originalPhase[yy][xx] = phaseFull;
-            }
-        }
+                final double ionoPhase = scale * (phaseLow * centerFreqHigh - phaseHigh * centerFreqLow);
 
-        // Filter ionospheric phase
-        final double[][] thresholdedCoherence = new double[h][w];
-        for (int y = 0; y < thresholdedCoherence.length; y++) {
-            for (int x = 0; x < thresholdedCoherence[0].length; x++) {
-                thresholdedCoherence[y][x] = (coherence[y][x] < coherenceThreshold) ? 0.0 : coherence[y][x];
-            }
-        }
-        final double[][] filteredIonosphericPhase = filter(ionosphericPhase, thresholdedCoherence,
-                                                           sigma);
-
-        // Apply phase correction
-        final double[][] correctedPhase = new double[h][w];
-        for (int y = 0; y < filteredIonosphericPhase.length; y++) {
-            for (int x = 0; x < filteredIonosphericPhase[0].length; x++) {
-                correctedPhase[y][x] = originalPhase[y][x] - filteredIonosphericPhase[y][x];
+                // invalid samples get no weight, as the recursive filter would spread them over the whole tile
+                if (cohFull >= coherenceThreshold && !Double.isNaN(ionoPhase) && !Double.isInfinite(ionoPhase)) {
+                    weightedPhase[offset + x] = (float) (cohFull * ionoPhase);
+                    weights[offset + x] = (float) cohFull;
+                }
             }
         }
 
-        // Write result
+        // Filter ionospheric phase
         final int overlapX = Math.floorDiv((sourceRectangle.width - targetRectangle.width), 2);
         final int overlapY = Math.floorDiv((sourceRectangle.height - targetRectangle.height), 2);
+        final Rectangle region = new Rectangle(overlapX, overlapY, targetRectangle.width, targetRectangle.height);
+        final float[] filteredIonosphericPhase = filter(weightedPhase, weights, w, h, sigma, decimationFactor, region);
+
+        // Write result
         x0 = targetRectangle.x;
         y0 = targetRectangle.y;
         w = targetRectangle.width;
@@ -374,102 +372,98 @@ public class IonosphericCorrectionOp extends Operator {
 
         for (int y = y0; y < yMax; y++) {
             targetIndex.calculateStride(y);
-            final int yy = y - y0 + overlapY;
+            sourceIndex.calculateStride(y);
+            final int offset = (y - y0) * w - x0;
             for (int x = x0; x < xMax; x++) {
                 final int targetIdx = targetIndex.getIndex(x);
-                final int xx = x - x0 + overlapX;
-
-                targetBufferIonosphericPhase.setElemDoubleAt(targetIdx, filteredIonosphericPhase[yy][xx]);
-                targetBufferWrappedIonosphericPhase.setElemDoubleAt(targetIdx, wrap(filteredIonosphericPhase[yy][xx]));
-                targetBufferWrappedOriginalPhase.setElemDoubleAt(targetIdx, wrap(originalPhase[yy][xx]));
-                targetBufferWrappedCorrectedPhase.setElemDoubleAt(targetIdx, wrap(correctedPhase[yy][xx]));
+                final double ionoPhase = filteredIonosphericPhase[offset + x];
+                final double originalPhase = sourceBufferUnwrappedPhaseFull.getElemDoubleAt(sourceIndex.getIndex(x));
+
+                // Apply phase correction
+                targetBufferIonosphericPhase.setElemDoubleAt(targetIdx, ionoPhase);
+                targetBufferWrappedIonosphericPhase.setElemDoubleAt(targetIdx, wrap(ionoPhase));
+                targetBufferWrappedOriginalPhase.setElemDoubleAt(targetIdx, wrap(originalPhase));
+                targetBufferWrappedCorrectedPhase.setElemDoubleAt(targetIdx, wrap(originalPhase - ionoPhase));
             }
         }
     }
 
     /**
      * Applies a weighted Gaussian filter.
+     *
+     * @param weightedData     data multiplied by the weights, overwritten
+     * @param weights          weights, overwritten
+     * @param width            width of the buffers
+     * @param height           height of the buffers
+     * @param sigma            standard deviation of the Gaussian in pixels
+     * @param decimationFactor the filter is applied to blocks of decimationFactor x decimationFactor pixels and
+     *                         interpolated bilinearly, 1 to filter every pixel
+     * @param region           region of the buffers to return
+     * @return the filtered data in the region
      */
-    private static double[][] filter(final double[][] data, final double[][] weights, final int sigma) {
-
-        // Weight data
-        final int sizeY = data.length;
-        final int sizeX = data[0].length;
-        final double[][] weightedData = new double[sizeY][sizeX];
-        for (int y = 0; y < sizeY; y++) {
-            for (int x = 0; x < sizeX; x++) {
-                weightedData[y][x] = weights[y][x] * data[y][x];
-            }
-        }
-
-        // Apply 2D Gaussian filter
-        final double[][] filteredData = convolveWithGaussian2D(weightedData, sigma);
-        final double[][] normalization = convolveWithGaussian2D(weights, sigma);
-
-        // Normalize
-        for (int y = 0; y < sizeY; y++) {
-            for (int x = 0; x < sizeX; x++) {
-                filteredData[y][x] = filteredData[y][x] / normalization[y][x];
-            }
-        }
-
-        return filteredData;
-    }
-
-    /**
-     * Convolves data with a 2D Gaussian kernel.
-     */
-    private static double[][] convolveWithGaussian2D(final double[][] data, final int sigma) {
+    static float[] filter(final float[] weightedData, final float[] weights, final int width, final int height,
+                          final int sigma, final int decimationFactor, final Rectangle region) {
 
-        // Define output array
-        final int sizeY = data.length;
-        final int sizeX = data[0].length;
-        final double[][] result = new double[sizeY][sizeX];
+        final float[] result = new float[region.width * region.height];
 
-        // Convolve along x axis
-        for (int y = 0; y < sizeY; y++) {
-            result[y] = convolveWithGaussian1D(data[y], sigma);
-        }
+        if (decimationFactor <= 1) {
+            final RecursiveGaussian gaussian = new RecursiveGaussian(sigma);
+            gaussian.filter(weightedData, width, height);
+            gaussian.filter(weights, width, height);
 
-        // Convolve along y axis
-        final double[][] transposedResult = new double[sizeX][sizeY];
-        for (int y = 0; y < sizeY; y++) {
-            for (int x = 0; x < sizeX; x++) {
-                transposedResult[x][y] = result[y][x];
+            // Normalize
+            for (int y = 0; y < region.height; y++) {
+                final int offset = (region.y + y) * width + region.x;
+                for (int x = 0; x < region.width; x++) {
+                    result[y * region.width + x] = weightedData[offset + x] / weights[offset + x];
+                }
             }
+            return result;
         }
-        for (int x = 0; x < sizeX; x++) {
-            transposedResult[x] = convolveWithGaussian1D(transposedResult[x], sigma);
-        }
-        for (int y = 0; y < sizeY; y++) {
-            for (int x = 0; x < sizeX; x++) {
-                result[y][x] = transposedResult[x][y];
+
+        // Sum blocks of pixels
+        final int d = decimationFactor;
+        final int coarseWidth = (width + d - 1) / d;
+        final int coarseHeight = (height + d - 1) / d;
+        final float[] coarseData = new float[coarseWidth * coarseHeight];
+        final float[] coarseWeights = new float[coarseWidth * coarseHeight];
+        for (int y = 0; y < height; y++) {
+            final int coarseOffset = (y / d) * coarseWidth;
+            final int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                coarseData[coarseOffset + x / d] += weightedData[offset + x];
+                coarseWeights[coarseOffset + x / d] += weights[offset + x];
             }
         }
 
-        return result;
-    }
+        final RecursiveGaussian gaussian = new RecursiveGaussian((double) sigma / d);
+        gaussian.filter(coarseData, coarseWidth, coarseHeight);
+        gaussian.filter(coarseWeights, coarseWidth, coarseHeight);
+        for (int i = 0; i < coarseData.length; i++) {
+            coarseData[i] /= coarseWeights[i];
+        }
 
-    /**
-     * Convolves data with a 1D Gaussian kernel.
-     */
-    private static double[] convolveWithGaussian1D(final double[] data, final int sigma) {
-
-        final int size = data.length;
-        final double[] result = new double[size];
-        final int kernel_size = computeGaussianKernelSize(sigma);
-        final int halfWin = Math.floorDiv(kernel_size, 2);
-        int correctionWin = 1;
-        if (2 * halfWin == kernel_size) { // if `kernel_size` is even
-            correctionWin = 0;
+        // Interpolate between the block centres
+        final int[] x0 = new int[region.width];
+        final float[] fx = new float[region.width];
+        for (int x = 0; x < region.width; x++) {
+            final double cx = Math.min(Math.max((region.x + x - 0.5 * (d - 1)) / d, 0.0), coarseWidth - 1);
+            x0[x] = Math.min((int) cx, Math.max(coarseWidth - 2, 0));
+            fx[x] = (float) (cx - x0[x]);
         }
-        for (int y = halfWin; y < size - halfWin; y++) {
-            double sum = 0;
-            for (int r = -halfWin; r < halfWin + correctionWin; r++) {
-                final double kernelValue = Math.exp(-(r * r) / (2 * Math.pow(sigma, 2)));
-                sum += kernelValue * data[y + r];
+        final int x1Step = coarseWidth > 1 ? 1 : 0;
+        final int y1Step = coarseHeight > 1 ? coarseWidth : 0;
+        for (int y = 0; y < region.height; y++) {
+            final double cy = Math.min(Math.max((region.y + y - 0.5 * (d - 1)) / d, 0.0), coarseHeight - 1);
+            final int y0 = Math.min((int) cy, Math.max(coarseHeight - 2, 0));
+            final float fy = (float) (cy - y0);
+            for (int x = 0; x < region.width; x++) {
+                final int k = y0 * coarseWidth + x0[x];
+                final float top = coarseData[k] + fx[x] * (coarseData[k + x1Step] - coarseData[k]);
+                final float bottom = coarseData[k + y1Step] +
+                        fx[x] * (coarseData[k + y1Step + x1Step] - coarseData[k + y1Step]);
+                result[y * region.width + x] = top + fy * (bottom - top);
             }
-            result[y] = sum;
         }
         return result;
     }
@@ -16,7 +16,7 @@
 package org.esa.s1tbx.insar.gpf;
 
 import com.bc.ceres.core.ProgressMonitor;
-import org.apache.commons.math3.util.FastMath;
+import org.esa.s1tbx.insar.gpf.support.StackInterferogramKernel;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.MetadataElement;
 import org.esa.snap.core.datamodel.Product;
@@ -501,48 +501,55 @@ public class MultiMasterInSAROp extends Operator {
             // Get elevation tile
             final Tile elevationTile = getSourceTile(sourceBandElevation, sourceRectangle, border);
 
-            // Pre-compute reference phases
-            final Map<Band, double[][]> referencePhaseMap = new HashMap<>(10);
-            for (Band sourceBandI0 : complexSrcMap.keySet()) { // for each SLC
-                if (slcImageSlaveMap.get(sourceBandI0) == null) { // if it's the master
-                    referencePhaseMap.put(sourceBandI0, new double[sourceRectangle.height][sourceRectangle.width]);
-                } else { // if it's a slave
-                    final double[][] referencePhase = computeReferencePhase(elevationTile, sourceRectangle,
-                                                                            slcImageSlaveMap.get(sourceBandI0),
-                                                                            orbitSlaveMap.get(sourceBandI0));
-                    referencePhaseMap.put(sourceBandI0, referencePhase);
+            // Decode each SLC once, flattened by its reference phase
+            final List<Band> acquisitionList = new ArrayList<>(complexSrcMap.keySet());
+            final StackInterferogramKernel kernel = new StackInterferogramKernel(sourceRectangle.width,
+                                                                                 sourceRectangle.height,
+                                                                                 acquisitionList.size());
+            for (int k = 0; k < acquisitionList.size(); k++) { // for each SLC
+                final Band sourceBandI = acquisitionList.get(k);
+                final Band sourceBandQ = complexSrcMap.get(sourceBandI);
+                double[][] referencePhase = null; // none for the master
+                if (slcImageSlaveMap.get(sourceBandI) != null) { // if it's a slave
+                    referencePhase = computeReferencePhase(elevationTile, sourceRectangle,
+                                                           slcImageSlaveMap.get(sourceBandI),
+                                                           orbitSlaveMap.get(sourceBandI));
                 }
+                kernel.setAcquisition(k, getSourceTile(sourceBandI, sourceRectangle, border).getRawSamples(),
+                                      getSourceTile(sourceBandQ, sourceRectangle, border).getRawSamples(),
+                                      referencePhase);
             }
 
-            // Compute interferometric phasors and coherence
+            // Collect the interferometric pairs
+            final List<int[]> pairList = new ArrayList<>();
+            final List<Band> targetBandIfgIList = new ArrayList<>();
+            final List<Band> targetBandCoherenceList = new ArrayList<>();
             for (Band sourceBandI0 : interferogramPairMap.keySet()) {
-                final Band sourceBandQ0 = complexSrcMap.get(sourceBandI0);
-                List<Band> sourceBandI1List = interferogramPairMap.get(sourceBandI0);
-                List<Band> targetBandIfgIList = interferogramMap.get(sourceBandI0);
-                List<Band> targetBandCoherenceList = coherenceMap.get(sourceBandI0);
+                final List<Band> sourceBandI1List = interferogramPairMap.get(sourceBandI0);
+                final List<Band> ifgIList = interferogramMap.get(sourceBandI0);
+                final List<Band> cohList = coherenceMap.get(sourceBandI0);
                 Guardian.assertTrue("Interferogram mismatch",
-                                    sourceBandI1List.size() == targetBandIfgIList.size()
-                                            && sourceBandI1List.size() == targetBandCoherenceList.size());
-                for (int i = 0; i < sourceBandI1List.size(); i++) { // for each interferogram involving the current slave
-                    final Band sourceBandI1 = sourceBandI1List.get(i);
-                    final Band sourceBandQ1 = complexSrcMap.get(sourceBandI1);
-                    final Band targetBandIfgI = targetBandIfgIList.get(i);
-                    final Band targetBandIfgQ = complexInterferogramMap.get(targetBandIfgI);
-                    final Band targetBandCoherence = targetBandCoherenceList.get(i);
-                    final Tile sourceTileI0 = getSourceTile(sourceBandI0, sourceRectangle, border);
-                    final Tile sourceTileQ0 = getSourceTile(sourceBandQ0, sourceRectangle, border);
-                    final Tile sourceTileI1 = getSourceTile(sourceBandI1, sourceRectangle, border);
-                    final Tile sourceTileQ1 = getSourceTile(sourceBandQ1, sourceRectangle, border);
-                    final Tile ifgTileI = targetTileMap.get(targetBandIfgI);
-                    final Tile ifgTileQ = targetTileMap.get(targetBandIfgQ);
-                    final Tile coherenceTile = targetTileMap.get(targetBandCoherence);
-                    computeInterferogram(sourceTileI0, sourceTileQ0, sourceTileI1, sourceTileQ1,
-                                         ifgTileI, ifgTileQ, coherenceTile,
-                                         referencePhaseMap.get(sourceBandI0), referencePhaseMap.get(sourceBandI1),
-                                         cohWindowAz, cohWindowRg,
-                                         sourceRectangle, targetRectangle);
+                                    sourceBandI1List.size() == ifgIList.size()
+                                            && sourceBandI1List.size() == cohList.size());
+                for (int i = 0; i < sourceBandI1List.size(); i++) { // for each interferogram involving the current SLC
+                    pairList.add(new int[]{acquisitionList.indexOf(sourceBandI0),
+                            acquisitionList.indexOf(sourceBandI1List.get(i))});
+                    targetBandIfgIList.add(ifgIList.get(i));
+                    targetBandCoherenceList.add(cohList.get(i));
                 }
             }
+
+            // Compute interferometric phasors and coherence of all pairs
+            kernel.formInterferograms(pairList.toArray(new int[pairList.size()][]));
+            kernel.computeCoherence(cohWindowAz, cohWindowRg);
+
+            for (int p = 0; p < pairList.size(); p++) {
+                final Band targetBandIfgI = targetBandIfgIList.get(p);
+                final Band targetBandIfgQ = complexInterferogramMap.get(targetBandIfgI);
+                saveInterferogram(kernel, p, targetTileMap.get(targetBandIfgI), targetTileMap.get(targetBandIfgQ),
+                                  targetTileMap.get(targetBandCoherenceList.get(p)),
+                                  sourceRectangle, targetRectangle);
+            }
         } catch (Throwable e) {
             OperatorUtils.catchOperatorException(getId(), e);
         }
@@ -692,67 +699,23 @@ public class MultiMasterInSAROp extends Operator {
         return phase;
     }
 
-    private void computeInterferogram(final Tile sourceTileI0, final Tile sourceTileQ0,
-                                      final Tile sourceTileI1, final Tile sourceTileQ1,
-                                      final Tile ifgTileI, final Tile ifgTileQ, final Tile coherenceTile,
-                                      final double[][] referencePhase0, final double[][] referencePhase1,
-                                      final int cohWinAz, final int cohWinRg,
-                                      final Rectangle sourceRectangle, final Rectangle targetRectangle) {
-
-        int x0 = sourceRectangle.x;
-        int y0 = sourceRectangle.y;
-        int w = sourceRectangle.width;
-        int h = sourceRectangle.height;
-        int xMax = x0 + w;
-        int yMax = y0 + h;
-
-        final ProductData sourceBufferI0 = sourceTileI0.getDataBuffer();
-        final ProductData sourceBufferQ0 = sourceTileQ0.getDataBuffer();
-        final ProductData sourceBufferI1 = sourceTileI1.getDataBuffer();
-        final ProductData sourceBufferQ1 = sourceTileQ1.getDataBuffer();
-
-        final TileIndex sourceIndex = new TileIndex(sourceTileI0);
-
-        // Compute interferometric phasor and intensities
-        final double[][] ifgPhasorI = new double[h][w];
-        final double[][] ifgPhasorQ = new double[h][w];
-        final double[][] intensity0 = new double[h][w];
-        final double[][] intensity1 = new double[h][w];
-        for (int y = y0; y < yMax; y++) {
-            sourceIndex.calculateStride(y);
-            final int yy = y - y0;
-            for (int x = x0; x < xMax; x++) {
-                final int sourceIdx = sourceIndex.getIndex(x);
-                final int xx = x - x0;
-
-                // Get value of real and imaginary bands
-                final double valueI0 = sourceBufferI0.getElemDoubleAt(sourceIdx);
-                final double valueQ0 = sourceBufferQ0.getElemDoubleAt(sourceIdx);
-                final double valueI1 = sourceBufferI1.getElemDoubleAt(sourceIdx);
-                final double valueQ1 = sourceBufferQ1.getElemDoubleAt(sourceIdx);
-
-                final double[] values = computeIfgPhasorAndIntensities(valueI0, valueQ0, valueI1, valueQ1,
-                                                                       referencePhase0[yy][xx], referencePhase1[yy][xx]);
-                ifgPhasorI[yy][xx] = values[0];
-                ifgPhasorQ[yy][xx] = values[1];
-                intensity0[yy][xx] = values[2];
-                intensity1[yy][xx] = values[3];
-            }
-        }
+    private void saveInterferogram(final StackInterferogramKernel kernel, final int pair,
+                                   final Tile ifgTileI, final Tile ifgTileQ, final Tile coherenceTile,
+                                   final Rectangle sourceRectangle, final Rectangle targetRectangle) {
 
-        // Compute coherence
-        final double[][] coherence = computeCoherence(ifgPhasorI, ifgPhasorQ, intensity0, intensity1,
-                                                      cohWinAz, cohWinRg);
+        final float[] ifgPhasorI = kernel.getInterferogramI(pair);
+        final float[] ifgPhasorQ = kernel.getInterferogramQ(pair);
+        final float[] coherence = kernel.getCoherence(pair);
+        final int sourceWidth = sourceRectangle.width;
+        final int coherenceWidth = sourceWidth - cohWindowRg + 1;
 
         // Save interferometric phasor and coherence
         final int overlapX = Math.floorDiv((sourceRectangle.width - targetRectangle.width), 2);
         final int overlapY = Math.floorDiv((sourceRectangle.height - targetRectangle.height), 2);
-        x0 = targetRectangle.x;
-        y0 = targetRectangle.y;
-        w = targetRectangle.width;
-        h = targetRectangle.height;
-        xMax = x0 + w;
-        yMax = y0 + h;
+        final int x0 = targetRectangle.x;
+        final int y0 = targetRectangle.y;
+        final int xMax = x0 + targetRectangle.width;
+        final int yMax = y0 + targetRectangle.height;
 
         final ProductData targetBufferIfgI = ifgTileI.getDataBuffer();
         final ProductData targetBufferIfgQ = ifgTileQ.getDataBuffer();
@@ -761,71 +724,20 @@ public class MultiMasterInSAROp extends Operator {
         for (int y = y0; y < yMax; y++) {
             targetIndex.calculateStride(y);
             final int yy = y - y0 + overlapY;
+            // the coherence window of a pixel starts half a window before it
+            final int cohRow = (yy - Math.floorDiv(cohWindowAz, 2)) * coherenceWidth;
             for (int x = x0; x < xMax; x++) {
                 final int targetIdx = targetIndex.getIndex(x);
                 final int xx = x - x0 + overlapX;
 
-                targetBufferIfgI.setElemDoubleAt(targetIdx, ifgPhasorI[yy][xx]);
-                targetBufferIfgQ.setElemDoubleAt(targetIdx, ifgPhasorQ[yy][xx]);
-                targetBufferCoherence.setElemDoubleAt(targetIdx, coherence[yy][xx]);
+                targetBufferIfgI.setElemDoubleAt(targetIdx, ifgPhasorI[yy * sourceWidth + xx]);
+                targetBufferIfgQ.setElemDoubleAt(targetIdx, ifgPhasorQ[yy * sourceWidth + xx]);
+                targetBufferCoherence.setElemDoubleAt(targetIdx,
+                                                      coherence[cohRow + xx - Math.floorDiv(cohWindowRg, 2)]);
             }
         }
     }
 
-    private double[] computeIfgPhasorAndIntensities(final double valueI0, final double valueQ0,
-                                                    final double valueI1, final double valueQ1,
-                                                    final double referencePhase0, final double referencePhase1) {
-
-        final double ifgPhasorI = valueI0 * valueI1 + valueQ0 * valueQ1;
-        final double ifgPhasorQ = -valueI0 * valueQ1 + valueQ0 * valueI1;
-        final double angle = referencePhase0 - referencePhase1;
-        final double flattenedIfgPhasorI = ifgPhasorI * FastMath.cos(angle) + ifgPhasorQ * FastMath.sin(angle);
-        final double flattenedIfgPhasorQ = -ifgPhasorI * FastMath.sin(angle) + ifgPhasorQ * FastMath.cos(angle);
-
-        return new double[]{flattenedIfgPhasorI, flattenedIfgPhasorQ, valueI0 * valueI0 + valueQ0 * valueQ0,
-                valueI1 * valueI1 + valueQ1 * valueQ1};
-    }
-
-    private double[][] computeCoherence(final double[][] ifgPhasorI, final double[][] ifgPhasorQ,
-                                        final double[][] intensity0, final double[][] intensity1,
-                                        final int cohWinAz, int cohWinRg) {
-
-        final int sizeY = ifgPhasorI.length;
-        final int sizeX = ifgPhasorI[0].length;
-        final double[][] coherence = new double[sizeY][sizeX];
-        final int halfCohWinAz = Math.floorDiv(cohWinAz, 2);
-        final int halfCohWinRg = Math.floorDiv(cohWinRg, 2);
-        int correctionWinAz = 1;
-        int correctionWinRg = 1;
-        if (2 * halfCohWinAz == cohWinAz) { // if `cohWinAz` is even
-            correctionWinAz = 0;
-        }
-        if (2 * halfCohWinRg == cohWinRg) { // if `cohWinRg` is even
-            correctionWinRg = 0;
-        }
-
-        for (int y = halfCohWinAz; y < sizeY - halfCohWinAz; y++) {
-            for (int x = halfCohWinRg; x < sizeX - halfCohWinRg; x++) {
-                double ifgPhasorSumI = 0;
-                double ifgPhasorSumQ = 0;
-                double intensitySum0 = 0;
-                double intensitySum1 = 0;
-                for (int r = -halfCohWinAz; r < halfCohWinAz + correctionWinAz; r++) {
-                    for (int c = -halfCohWinRg; c < halfCohWinRg + correctionWinRg; c++) {
-                        ifgPhasorSumI += ifgPhasorI[y + r][x + c];
-                        ifgPhasorSumQ += ifgPhasorQ[y + r][x + c];
-                        intensitySum0 += intensity0[y + r][x + c];
-                        intensitySum1 += intensity1[y + r][x + c];
-                    }
-                }
-                coherence[y][x] = Math.sqrt((ifgPhasorSumI * ifgPhasorSumI + ifgPhasorSumQ * ifgPhasorSumQ)
-                                                    / (intensitySum0 * intensitySum1));
-            }
-        }
-
-        return coherence;
-    }
-
     /**
      * The SPI is used to register this operator in the graph processing framework
      * via the SPI configuration file
@@ -18,6 +18,7 @@ package org.esa.s1tbx.insar.gpf;
 import Jama.Matrix;
 import Jama.SingularValueDecomposition;
 import com.bc.ceres.core.ProgressMonitor;
+import org.esa.s1tbx.insar.gpf.support.PCAKernel;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
@@ -45,6 +46,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -88,12 +90,8 @@ public class PCAOp extends Operator {
     private Boolean subtractMeanImage = false;
 
     private boolean statsCalculated = false;
-    private int numOfPixels = 0;        // total number of pixel values
     private int numOfSourceBands = 0;   // number of user selected bands
-    private double[] sum = null;        // summation of pixel values for each band
-    private double[][] sumCross = null; // summation of the dot product of each band and the master band
-    private double[] mean = null;       // mean of pixel values for each band
-    private double[][] meanCross = null;// mean of the dot product of each band and the master band
+    private PCAKernel.Covariance covariance = null; // mean and covariance of all user selected bands
 
     public static final String EIGENVALUE_THRESHOLD = "Eigenvalue Threshold";
     public static final String NUMBER_EIGENVALUES = "Number of Eigenvalues";
@@ -136,34 +134,11 @@ public class PCAOp extends Operator {
             createTargetProduct();
 
             addSelectedBands();
-
-            setInitialValues();
         } catch (Throwable e) {
             throw new OperatorException(e);
         }
     }
 
-    /**
-     * Set initial values to some internal variables.
-     */
-    private void setInitialValues() {
-
-        mean = new double[numOfSourceBands];
-        meanCross = new double[numOfSourceBands][numOfSourceBands];
-        sum = new double[numOfSourceBands];
-        sumCross = new double[numOfSourceBands][numOfSourceBands];
-        for (int i = 0; i < numOfSourceBands; i++) {
-            sum[i] = 0.0;
-            mean[i] = 0.0;
-            for (int j = 0; j < numOfSourceBands; j++) {
-                sumCross[i][j] = 0.0;
-                meanCross[i][j] = 0.0;
-            }
-        }
-
-        numOfPixels = sourceProduct.getSceneRasterWidth() * sourceProduct.getSceneRasterHeight();
-    }
-
     /**
      * Create target product.
      */
@@ -300,24 +275,32 @@ public class PCAOp extends Operator {
                         getSourceTile(sourceProduct.getBand(sourceBandNames[i]), targetRectangle).getRawSamples();
             }
 
+            final ProductData[] trgData = new ProductData[numPCA];
+            final TileIndex[] targetIndex = new TileIndex[numPCA];
             for (int i = 0; i < numPCA; i++) {
+                final Tile targetTile = targetTileMap.get(targetProduct.getBand("PC" + i));
+                trgData[i] = targetTile.getDataBuffer();
+                targetIndex[i] = new TileIndex(targetTile);
+            }
 
-                final Band targetBand = targetProduct.getBand("PC" + i);
-                final Tile targetTile = targetTileMap.get(targetBand);
-                final ProductData trgData = targetTile.getDataBuffer();
-                final TileIndex targetIndex = new TileIndex(targetTile);
-                int index;
-                int k = 0;
-                for (int y = y0; y < y0 + h; y++) {
-                    targetIndex.calculateStride(y);
-                    for (int x = x0; x < x0 + w; x++) {
-                        index = targetIndex.getIndex(x);
-                        double vPCA = 0.0;
-                        for (int j = 0; j < numOfSourceBands; j++) {
-                            vPCA += bandsRawSamples[j].getElemDoubleAt(k) * eigenVectorMatrices[j][i];
+            // each source sample is unpacked once and projected onto all components
+            final float[][] block = new float[numOfSourceBands][PCAKernel.CHUNK_SIZE];
+            final double[][] vPCA = new double[numPCA][PCAKernel.CHUNK_SIZE];
+            for (int y = y0; y < y0 + h; y++) {
+                for (TileIndex index : targetIndex) {
+                    index.calculateStride(y);
+                }
+                for (int xs = x0; xs < x0 + w; xs += PCAKernel.CHUNK_SIZE) {
+                    final int length = Math.min(PCAKernel.CHUNK_SIZE, x0 + w - xs);
+                    PCAKernel.unpack(bandsRawSamples, null, (y - y0) * w + xs - x0, length, block);
+                    PCAKernel.project(block, length, eigenVectorMatrices, numPCA, vPCA);
+
+                    for (int i = 0; i < numPCA; i++) {
+                        final double[] v = vPCA[i];
+                        final double min = minPCA[i];
+                        for (int k = 0; k < length; k++) {
+                            trgData[i].setElemDoubleAt(targetIndex[i].getIndex(xs + k), v[k] - min);
                         }
-                        k++;
-                        trgData.setElemDoubleAt(index, vPCA - minPCA[i]);
                     }
                 }
             }
@@ -386,13 +369,19 @@ public class PCAOp extends Operator {
 
         final ThreadExecutor executor = new ThreadExecutor();
 
+        // partial statistics of each thread, merged once all tiles are done
+        final List<PCAKernel.Covariance> partials = Collections.synchronizedList(new ArrayList<>());
+        final ThreadLocal<PCAKernel.Covariance> threadCovariance = ThreadLocal.withInitial(() -> {
+            final PCAKernel.Covariance partial = new PCAKernel.Covariance(numOfSourceBands);
+            partials.add(partial);
+            return partial;
+        });
+
         try {
             for (final Rectangle rectangle : tileRectangles) {
 
                 ThreadRunnable worker = new ThreadRunnable() {
                     final ProductData[] bandsRawSamples = new ProductData[numOfSourceBands];
-                    final double[] tileSum = new double[numOfSourceBands];
-                    final double[][] tileSumCross = new double[numOfSourceBands][numOfSourceBands];
 
                     @Override
                     public void process() {
@@ -401,22 +390,16 @@ public class PCAOp extends Operator {
                                     getSourceTile(sourceProduct.getBand(sourceBandNames[i]), rectangle).getRawSamples();
                         }
 
-                        if (subtractMeanImage) {
-
-                            final ProductData meanBandRawSamples =
-                                    getSourceTile(sourceProduct.getBand(meanImageBandName), rectangle).getRawSamples();
-
-                            computeTileStatisticsWithMeanImageSubstract(numOfSourceBands,
-                                    bandsRawSamples, meanBandRawSamples, tileSum, tileSumCross);
-
-                        } else {
-
-                            computeTileStatisticsWithoutMeanImageSubstract(numOfSourceBands,
-                                    bandsRawSamples, tileSum, tileSumCross);
-                        }
+                        final ProductData meanBandRawSamples = subtractMeanImage ?
+                                getSourceTile(sourceProduct.getBand(meanImageBandName), rectangle).getRawSamples() : null;
 
-                        synchronized (sum) {
-                            computeImageStatistics(tileSum, tileSumCross);
+                        final PCAKernel.Covariance partial = threadCovariance.get();
+                        final float[][] block = new float[numOfSourceBands][PCAKernel.CHUNK_SIZE];
+                        final int n = bandsRawSamples[0].getNumElems();
+                        for (int k = 0; k < n; k += PCAKernel.CHUNK_SIZE) {
+                            final int length = Math.min(PCAKernel.CHUNK_SIZE, n - k);
+                            PCAKernel.unpack(bandsRawSamples, meanBandRawSamples, k, length, block);
+                            partial.accumulate(block, length);
                         }
                     }
                 };
@@ -426,7 +409,10 @@ public class PCAOp extends Operator {
             }
             executor.complete();
 
-            completeStatistics();
+            covariance = PCAKernel.Covariance.merge(partials);
+            if (covariance == null) {
+                covariance = new PCAKernel.Covariance(numOfSourceBands);
+            }
 
         } catch (Throwable e) {
             throw new OperatorException(e);
@@ -459,14 +445,18 @@ public class PCAOp extends Operator {
 
                         Arrays.fill(tileMinPCA, Double.MAX_VALUE);
 
-                        for (int i = 0; i < numPCA; i++) {
-                            for (int k = 0; k < n; k++) {
-                                double vPCA = 0.0;
-                                for (int j = 0; j < numOfSourceBands; j++) {
-                                    vPCA += bandsRawSamples[j].getElemDoubleAt(k) * eigenVectorMatrices[j][i];
+                        final float[][] block = new float[numOfSourceBands][PCAKernel.CHUNK_SIZE];
+                        final double[][] vPCA = new double[numPCA][PCAKernel.CHUNK_SIZE];
+                        for (int k = 0; k < n; k += PCAKernel.CHUNK_SIZE) {
+                            final int length = Math.min(PCAKernel.CHUNK_SIZE, n - k);
+                            PCAKernel.unpack(bandsRawSamples, null, k, length, block);
+                            PCAKernel.project(block, length, eigenVectorMatrices, numPCA, vPCA);
+                            for (int i = 0; i < numPCA; i++) {
+                                final double[] v = vPCA[i];
+                                for (int p = 0; p < length; p++) {
+                                    if (v[p] < tileMinPCA[i])
+                                        tileMinPCA[i] = v[p];
                                 }
-                                if (vPCA < tileMinPCA[i])
-                                    tileMinPCA[i] = vPCA;
                             }
                         }
 
@@ -489,125 +479,6 @@ public class PCAOp extends Operator {
         }
     }
 
-    /**
-     * Compute summation and cross-summation for all bands for a given tile.
-     *
-     * @param numOfSourceBands numnber of bands
-     * @param bandsRawSamples  The raw data for all bands for the given tile.
-     * @param tileSum          The summation for all bands for the given tile.
-     * @param tileSumCross     The cross-summation for all bands for the given tile.
-     */
-    private static void computeTileStatisticsWithoutMeanImageSubstract(final int numOfSourceBands,
-                                                                       final ProductData[] bandsRawSamples, final double[] tileSum, final double[][] tileSumCross) {
-
-        Arrays.fill(tileSum, 0.0);
-        final int n = bandsRawSamples[0].getNumElems();
-
-        double vi, vj;
-        for (int i = 0; i < numOfSourceBands; i++) {
-            Arrays.fill(tileSumCross[i], 0.0);
-
-            for (int j = 0; j <= i; j++) {
-
-                //System.out.println("i = " + i + ", j = " + j);
-                if (j < i) {
-
-                    for (int k = 0; k < n; k++) {
-                        vi = bandsRawSamples[i].getElemDoubleAt(k);
-                        vj = bandsRawSamples[j].getElemDoubleAt(k);
-                        tileSumCross[i][j] += vi * vj;
-                    }
-
-                } else { // j == i
-
-                    for (int k = 0; k < n; k++) {
-                        vi = bandsRawSamples[i].getElemDoubleAt(k);
-                        tileSum[i] += vi;
-                        tileSumCross[i][j] += vi * vi;
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Compute summation and cross-summation for all bands for a given tile with mean image substracted.
-     *
-     * @param numOfSourceBands   numnber of bands
-     * @param bandsRawSamples    The raw data for all bands for the given tile.
-     * @param meanBandRawSamples The raw data for the band of mean image for the given tile.
-     * @param tileSum            The summation for all bands for the given tile.
-     * @param tileSumCross       The cross-summation for all bands for the given tile.
-     */
-    private static void computeTileStatisticsWithMeanImageSubstract(
-            final int numOfSourceBands,
-            final ProductData[] bandsRawSamples, final ProductData meanBandRawSamples,
-            final double[] tileSum, final double[][] tileSumCross) {
-
-        Arrays.fill(tileSum, 0.0);
-        final int n = bandsRawSamples[0].getNumElems();
-
-        double vi, vj, vm;
-        for (int i = 0; i < numOfSourceBands; i++) {
-            Arrays.fill(tileSumCross[i], 0.0);
-
-            for (int j = 0; j <= i; j++) {
-
-                //System.out.println("i = " + i + ", j = " + j);
-                if (j < i) {
-
-                    for (int k = 0; k < n; k++) {
-                        vm = meanBandRawSamples.getElemDoubleAt(k);
-                        vi = bandsRawSamples[i].getElemDoubleAt(k) - vm;
-                        vj = bandsRawSamples[j].getElemDoubleAt(k) - vm;
-                        tileSumCross[i][j] += vi * vj;
-                    }
-
-                } else { // j == i
-
-                    for (int k = 0; k < n; k++) {
-                        vm = meanBandRawSamples.getElemDoubleAt(k);
-                        vi = bandsRawSamples[i].getElemDoubleAt(k) - vm;
-                        tileSum[i] += vi;
-                        tileSumCross[i][j] += vi * vi;
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Compute summation and cross-summation for the whole image.
-     *
-     * @param tileSum      The summation computed for each tile.
-     * @param tileSumCross The cross-summation computed for each tile.
-     */
-    private void computeImageStatistics(final double[] tileSum, final double[][] tileSumCross) {
-
-        for (int i = 0; i < numOfSourceBands; i++) {
-            for (int j = 0; j <= i; j++) {
-                if (j < i) {
-                    sumCross[i][j] += tileSumCross[i][j];
-                } else { // j == i
-                    sum[i] += tileSum[i];
-                    sumCross[i][j] += tileSumCross[i][j];
-                }
-            }
-        }
-    }
-
-    private void completeStatistics() {
-        for (int i = 0; i < numOfSourceBands; i++) {
-            mean[i] = sum[i] / numOfPixels;
-            for (int j = 0; j <= i; j++) {
-                meanCross[i][j] = sumCross[i][j] / numOfPixels;
-                if (j != i) {
-                    meanCross[j][i] = meanCross[i][j];
-                }
-            }
-        }
-    }
-
     /////////////
     // Min
 
@@ -645,12 +516,7 @@ public class PCAOp extends Operator {
         eigenVectorMatrices = new double[numOfSourceBands][numOfSourceBands];
         eigenValues = new double[numOfSourceBands];
 
-        final double[][] cov = new double[numOfSourceBands][numOfSourceBands];
-        for (int i = 0; i < numOfSourceBands; i++) {
-            for (int j = 0; j < numOfSourceBands; j++) {
-                cov[i][j] = meanCross[i][j] - mean[i] * mean[j];
-            }
-        }
+        final double[][] cov = covariance.getCovariance();
 
         final Matrix Cov = new Matrix(cov);
         final SingularValueDecomposition Svd = Cov.svd(); // Cov = USV'
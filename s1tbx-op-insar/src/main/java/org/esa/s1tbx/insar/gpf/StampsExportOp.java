@@ -38,9 +38,18 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Export products into format suitable for import to StaMPS.
@@ -66,16 +75,24 @@ public class StampsExportOp extends Operator {
     @Parameter(description = "Format for PSI or SBAS", defaultValue = "true")
     private Boolean psiFormat = true;
 
+    @Parameter(description = "Only write the images, interferograms and geo/DEM files not already exported to the target folder",
+            defaultValue = "false", label = "Append to existing export")
+    private Boolean appendToExisting = false;
+
     private static final String formatName = "Gamma";
 
     private static final String[] folder = {"rslc", "diff0", "geo", "dem"};
     private static final String[] ext = {".rslc", ".diff", "_dem.rdc", "_dem"};
     private enum FOLDERS {RSLC, DIFF, GEO, DEM}
 
+    // files completely written by previous exports, one folder/name per line
+    private static final String EXPORTED_FILES_LIST = "exported_files.txt";
+
     private final DateFormat rawDateFormat = ProductData.UTC.createDateFormat("ddMMMyyyy");
     private final DateFormat dateFormat = ProductData.UTC.createDateFormat("yyyyMMdd");
 
     private final HashMap<Band, WriterInfo> tgtBandToInfoMap = new HashMap<>();
+    private final Set<String> exportedFiles = new HashSet<>();
     private ProjectedDEM projectedDEM;
     private WriterInfo projectedDEMInfo;
     private boolean projectedDEMWritten = false;
@@ -201,10 +218,20 @@ public class StampsExportOp extends Operator {
                 }
             }
 
-            String projectedDEMName = "projected" + ext[FOLDERS.DEM.ordinal()];
-            projectedDEM = new ProjectedDEM(projectedDEMName, sourceProduct[0]);
-            projectedDEMInfo = new WriterInfo(
-                    folder[FOLDERS.DEM.ordinal()], projectedDEMName, projectedDEM.getTargetProduct());
+            if (appendToExisting) {
+                readExportedFiles();
+                tgtBandToInfoMap.values().removeIf(this::isExported);
+                SystemUtils.LOG.info("StampsExportOp: appending " + tgtBandToInfoMap.size() + " files to " + targetFolder);
+            }
+
+            final String projectedDEMName = "projected" + ext[FOLDERS.DEM.ordinal()];
+            if (appendToExisting && isExported(folder[FOLDERS.DEM.ordinal()], projectedDEMName)) {
+                projectedDEMWritten = true;
+            } else {
+                projectedDEM = new ProjectedDEM(projectedDEMName, sourceProduct[0]);
+                projectedDEMInfo = new WriterInfo(
+                        folder[FOLDERS.DEM.ordinal()], projectedDEMName, projectedDEM.getTargetProduct());
+            }
 
             if (!includesElevation) {
                 throw new OperatorException(
@@ -220,6 +247,39 @@ public class StampsExportOp extends Operator {
         }
     }
 
+    private void readExportedFiles() throws IOException {
+        final Path listFile = targetFolder.toPath().resolve(EXPORTED_FILES_LIST);
+        if (Files.exists(listFile)) {
+            exportedFiles.addAll(Files.readAllLines(listFile, StandardCharsets.UTF_8));
+        }
+    }
+
+    private boolean isExported(final WriterInfo info) {
+        return isExported(info.folderName, info.targetBandName);
+    }
+
+    /**
+     * A file is exported if a previous export completed it and its header is still in the target folder
+     */
+    private boolean isExported(final String folderName, final String targetBandName) {
+        return exportedFiles.contains(folderName + '/' + targetBandName) &&
+                targetFolder.toPath().resolve(folderName).resolve(targetBandName + ".par").toFile().exists();
+    }
+
+    private void addExportedFiles(final List<WriterInfo> infos) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        for (WriterInfo info : infos) {
+            final String name = info.folderName + '/' + info.targetBandName;
+            if (exportedFiles.add(name)) {
+                lines.add(name);
+            }
+        }
+        if (!lines.isEmpty()) {
+            Files.write(targetFolder.toPath().resolve(EXPORTED_FILES_LIST), lines, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
     private String convertFormat(String rawDate) {
         try {
             final ProductData.UTC utc = ProductData.UTC.parse(rawDate, rawDateFormat);
@@ -258,6 +318,7 @@ public class StampsExportOp extends Operator {
                 final ProductData rawSamples = sourceTile.getRawSamples();
                 info.productWriter.writeBandRasterData(targetBand,
                         trgRect.x, trgRect.y, trgRect.width, trgRect.height, rawSamples, ProgressMonitor.NULL);
+                info.pixelsWritten.addAndGet((long) trgRect.width * trgRect.height);
             } catch (Exception e) {
                 if (e instanceof OperatorException) {
                     throw (OperatorException) e;
@@ -286,6 +347,7 @@ public class StampsExportOp extends Operator {
             final ProductData rawSamples = elevationBand.getData();
             projectedDEMInfo.productWriter.writeBandRasterData(elevationBand,
                     trgRect.x, trgRect.y, trgRect.width, trgRect.height, rawSamples, ProgressMonitor.NULL);
+            projectedDEMInfo.pixelsWritten.addAndGet((long) trgRect.width * trgRect.height);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -380,15 +442,35 @@ public class StampsExportOp extends Operator {
 
     @Override
     public void dispose() {
+        final List<WriterInfo> completed = new ArrayList<>();
         try {
-            for (WriterInfo info : tgtBandToInfoMap.values()) {
+            for (Map.Entry<Band, WriterInfo> entry : tgtBandToInfoMap.entrySet()) {
+                final WriterInfo info = entry.getValue();
                 if (info != null) {
                     if (info.productWriter != null) {
                         info.productWriter.close();
                         info.productWriter = null;
                     }
+                    final Band band = entry.getKey();
+                    if (info.pixelsWritten.get() >= (long) band.getRasterWidth() * band.getRasterHeight()) {
+                        completed.add(info);
+                    }
                 }
             }
+            if (projectedDEMInfo != null) {
+                if (projectedDEMInfo.productWriter != null) {
+                    projectedDEMInfo.productWriter.close();
+                    projectedDEMInfo.productWriter = null;
+                }
+                if (projectedDEMInfo.pixelsWritten.get() > 0) {
+                    completed.add(projectedDEMInfo);
+                }
+            }
+
+            // record completed files for the next export in append mode
+            if (targetFolder != null && targetFolder.exists()) {
+                addExportedFiles(completed);
+            }
         } catch (IOException ignore) {
         }
         super.dispose();
@@ -397,6 +479,7 @@ public class StampsExportOp extends Operator {
     private static class WriterInfo {
         ProductWriter productWriter;
         boolean written = false;
+        final AtomicLong pixelsWritten = new AtomicLong();
 
         final String folderName;
         final String targetBandName;
@@ -16,6 +16,7 @@
 package org.esa.s1tbx.insar.gpf.coregistration;
 
 import com.bc.ceres.core.ProgressMonitor;
+import org.esa.s1tbx.commons.DemGridSampler;
 import org.esa.s1tbx.commons.OrbitStateVectors;
 import org.esa.s1tbx.commons.SARGeocoding;
 import org.esa.s1tbx.insar.gpf.support.SARPosition;
@@ -47,6 +48,7 @@ import org.esa.snap.engine_utilities.gpf.OperatorUtils;
 import org.esa.snap.engine_utilities.gpf.ReaderUtils;
 import org.esa.snap.engine_utilities.gpf.StackUtils;
 import org.esa.snap.engine_utilities.gpf.TileIndex;
+import org.jlinda.core.delaunay.LatticeInterpolator;
 import org.jlinda.core.delaunay.TriangleInterpolator;
 
 import java.awt.*;
@@ -515,6 +517,12 @@ public final class DEMAssistedCoregistrationOp extends Operator {
             // get its lat/lon and its azimuth/range indices in target image;
             final int numLines = latMinIdx - latMaxIdx;
             final int numPixels = lonMaxIdx - lonMinIdx;
+
+            // elevations of the DEM points, corrected elevation for 0 where there is no data
+            final DemGridSampler demSampler = new DemGridSampler(dem, demNoDataValue);
+            demSampler.setNoDataGeoidFill((latitude, longitude) -> egm.getEGM(latitude, longitude));
+            final float[] elevations = demSampler.getElevations(lonMinIdx, latMaxIdx, numPixels, numLines);
+
             final double[][] masterAz = new double[numLines][numPixels];
             final double[][] masterRg = new double[numLines][numPixels];
             final double[][] slaveAz = new double[numLines][numPixels];
@@ -559,11 +567,7 @@ public final class DEMAssistedCoregistrationOp extends Operator {
                     GeoPos gp = dem.getGeoPos(pix);
                     lat[l][p] = gp.lat;
                     lon[l][p] = gp.lon;
-                    Double alt = dem.getElevation(gp);
-
-                    if (alt.equals(demNoDataValue)) { // get corrected elevation for 0
-                        alt = (double)egm.getEGM(gp.lat, gp.lon);
-                    }
+                    final double alt = elevations[l * numPixels + p];
 
                     GeoUtils.geo2xyzWGS84(gp.lat, gp.lon, alt, posData.earthPoint);
                     if(mstSARPosition.getPosition(posData)) {
@@ -588,7 +592,7 @@ public final class DEMAssistedCoregistrationOp extends Operator {
                 return null;
             }
 
-            // Compute azimuth/range offsets for pixels in target tile using Delaunay interpolation
+            // Compute azimuth/range offsets for pixels in target tile by interpolating the DEM lattice
             final org.jlinda.core.Window tileWindow = new org.jlinda.core.Window(y0, y0 + h - 1, x0, x0 + w - 1);
 
             final double rgAzRatio = mstMetadata.rangeSpacing / mstMetadata.azimuthSpacing;
@@ -611,7 +615,7 @@ public final class DEMAssistedCoregistrationOp extends Operator {
                     new TriangleInterpolator.ZData(lon, lonArray)
             };
 
-            TriangleInterpolator.gridDataLinear(masterAz, masterRg, dataList,
+            LatticeInterpolator.gridDataLinear(masterAz, masterRg, dataList,
                                                 tileWindow, rgAzRatio, 1, 1, invalidIndex, 0);
 
             boolean allElementsAreNull = true;
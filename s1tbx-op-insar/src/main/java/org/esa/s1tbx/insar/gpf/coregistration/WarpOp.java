@@ -50,6 +50,7 @@ import org.jlinda.core.coregistration.SimpleLUT;
 import javax.media.jai.Interpolation;
 import javax.media.jai.InterpolationTable;
 import javax.media.jai.RenderedOp;
+import javax.media.jai.WarpPolynomial;
 import java.awt.*;
 import java.awt.image.RenderedImage;
 import java.io.File;
@@ -125,6 +126,7 @@ public class WarpOp extends Operator {
 
     private Interpolation interp;
     private InterpolationTable interpTable;
+    private WarpResampler warpResampler;
 
     @Parameter(description = "Show the Residuals file in a text viewer", defaultValue = "false", label = "Show Residuals")
     private Boolean openResidualsFile = false;
@@ -141,6 +143,7 @@ public class WarpOp extends Operator {
     private final Map<Band, Band> sourceRasterMap = new HashMap<>(10);
     private final Map<Band, Band> complexSrcMap = new HashMap<>(10);
     private final Map<Band, PolynomialModel> warpDataMap = new HashMap<>(10);
+    private final Map<String, PolynomialModel> sharedWarpMap = new HashMap<>(10);
 
     private String processedSlaveBand;
     private String[] masterBandNames;
@@ -451,15 +454,24 @@ public class WarpOp extends Operator {
             if (srcBand == null)
                 return;
 
-            Band realSrcBand;
-            if (srcBand.getName().startsWith(DEMOD_PHASE_PREFIX)) {
-                realSrcBand = demodPhaseMap.get(srcBand);
-            } else {
-                // get real part, assuming srcBand is imaginary
-                realSrcBand = complexSrcMap.get(srcBand);
-                // if srcBand was the real part (and hence not found in map)
-                if (realSrcBand == null)
-                    realSrcBand = srcBand;
+            final PolynomialModel warpData = getBandWarpData(srcBand);
+            if (!warpData.isValid())
+                return;
+
+            final WarpPolynomial warp = warpData.getJAIWarp();
+            if (warpResampler != null && warp != null && !srcBand.getName().startsWith(DEMOD_PHASE_PREFIX)) {
+                final WarpResampler.TileWarp tileWarp = warpResampler.map(warp, targetRectangle);
+                final Rectangle sourceRectangle = tileWarp.getSourceRectangle(srcBand.getRasterWidth(),
+                                                                              srcBand.getRasterHeight());
+                float[] srcData = null;
+                if (sourceRectangle != null) {
+                    srcData = WarpResampler.toFloat(getSourceTile(srcBand, sourceRectangle).getRawSamples());
+                }
+                if (pm.isCanceled())
+                    return;
+
+                targetTile.setRawSamples(ProductData.createInstance(tileWarp.resample(srcData, sourceRectangle)));
+                return;
             }
 
             // create source image
@@ -468,10 +480,6 @@ public class WarpOp extends Operator {
             if (pm.isCanceled())
                 return;
 
-            final PolynomialModel warpData = warpDataMap.get(realSrcBand);
-            if (!warpData.isValid())
-                return;
-
             final RenderedImage srcImage = sourceRaster.getRasterDataNode().getSourceImage();
 
             // get warped image (demodulation bands can be interpolated linearly)
@@ -496,6 +504,23 @@ public class WarpOp extends Operator {
         }
     }
 
+    /**
+     * Warp of a source band. Imaginary and demodulation phase bands use the warp of their real band.
+     */
+    PolynomialModel getBandWarpData(final Band srcBand) {
+        Band realSrcBand;
+        if (srcBand.getName().startsWith(DEMOD_PHASE_PREFIX)) {
+            realSrcBand = demodPhaseMap.get(srcBand);
+        } else {
+            // get real part, assuming srcBand is imaginary
+            realSrcBand = complexSrcMap.get(srcBand);
+            // if srcBand was the real part (and hence not found in map)
+            if (realSrcBand == null)
+                realSrcBand = srcBand;
+        }
+        return warpDataMap.get(realSrcBand);
+    }
+
     private synchronized void createDEM() {
 
         final Resampling resampling = ResamplingFactory.createResampling(ResamplingFactory.BILINEAR_INTERPOLATION_NAME);
@@ -568,10 +593,23 @@ public class WarpOp extends Operator {
                 }
             }
 
+            // bands of a slave product with the same GCPs share one warp
+            final String warpKey = getWarpKey(StackUtils.getSlaveProductName(sourceProduct, srcBand, null),
+                                              slaveGCPGroup);
+            final PolynomialModel sharedWarpData = sharedWarpMap.get(warpKey);
+            if (sharedWarpData != null) {
+                warpDataMap.put(srcBand, sharedWarpData);
+                if (sharedWarpData.isValid()) {
+                    addSlaveGCPs(sharedWarpData, inSAROptimized ? srcBand.getName() : targetBand.getName());
+                }
+                continue;
+            }
+
             if (inSAROptimized) {
                 final CPM cpm = new CPM(warpPolynomialOrder, maxIterations, cpmWtestCriticalValue,
                                         masterWindow, masterGCPGroup, slaveGCPGroup);
                 warpDataMap.put(srcBand, cpm);
+                sharedWarpMap.put(warpKey, cpm);
 
                 final int nodeCount = slaveGCPGroup.getNodeCount();
                 if (nodeCount < 3) {
@@ -633,6 +671,7 @@ public class WarpOp extends Operator {
 
                 final WarpData warpData = new WarpData(slaveGCPGroup);
                 warpDataMap.put(srcBand, warpData);
+                sharedWarpMap.put(warpKey, warpData);
 
                 if (slaveGCPGroup.getNodeCount() < 3) {
                     warpData.setInValid();
@@ -676,6 +715,28 @@ public class WarpOp extends Operator {
         warpDataAvailable = true;
     }
 
+    /**
+     * Key of the warp of a slave band. The warp depends only on the master and slave GCPs, so the bands of a
+     * slave product that carry the same GCPs, I and Q and the polarisations, are solved once.
+     *
+     * @param slaveProductName name of the slave product of the band or null
+     * @param slaveGCPGroup    the slave GCPs of the band
+     * @return the key
+     */
+    static String getWarpKey(final String slaveProductName, final ProductNodeGroup<Placemark> slaveGCPGroup) {
+        final StringBuilder key = new StringBuilder();
+        key.append(slaveProductName);
+        final int numGCPs = slaveGCPGroup.getNodeCount();
+        for (int i = 0; i < numGCPs; ++i) {
+            final Placemark sPin = slaveGCPGroup.get(i);
+            final PixelPos pos = sPin.getPixelPos();
+            key.append('|').append(sPin.getName());
+            key.append(':').append(Double.doubleToLongBits(pos.x));
+            key.append(',').append(Double.doubleToLongBits(pos.y));
+        }
+        return key.toString();
+    }
+
     private void writeWarpDataToMetadata() {
         final MetadataElement absRoot = AbstractMetadata.getAbstractedMetadata(targetProduct);
         final Set<Band> bandSet = warpDataMap.keySet();
@@ -739,11 +800,14 @@ public class WarpOp extends Operator {
         }
 
         // construct interpolation table for JAI resampling
-        final int subsampleBits = 7;
+        final int subsampleBits = WarpResampler.SUBSAMPLE_BITS;
         final int precisionBits = 32;
         int padding = kernelLength / 2 - 1;
 
         interpTable = new InterpolationTable(padding, kernelLength, subsampleBits, precisionBits, lutArrayFloats);
+
+        // resample tiles directly with the fixed point table, JAI is kept for the demodulation phase
+        warpResampler = new WarpResampler(lutArrayFloats, kernelLength);
     }
 
     public static File getResidualsFile(final Product sourceProduct) {
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.coregistration;
+
+import org.esa.snap.core.datamodel.ProductData;
+
+import javax.media.jai.WarpPolynomial;
+import java.awt.*;
+
+/**
+ * Resampling of a slave tile through a warp polynomial with a kernel lookup table.
+ * <p>
+ * The inverse warp is evaluated only on a coarse grid of nodes over the target tile and refined bilinearly
+ * in between, which for the low order coregistration polynomials is far below the 1/128 pixel resolution of
+ * the table. Source positions are held in fixed point with SUBSAMPLE_BITS fractional bits: the integer part
+ * selects the first kernel tap and the fraction the row of precomputed weights, so no weight is evaluated per
+ * sample. The kernel is applied separably, along the row and then down the column. As for the JAI warp,
+ * target pixels whose kernel footprint leaves the source image are set to zero.
+ */
+public final class WarpResampler {
+
+    /**
+     * Fractional bits of the source positions, the table holds 1 << SUBSAMPLE_BITS kernel phases
+     */
+    public static final int SUBSAMPLE_BITS = 7;
+
+    /**
+     * Spacing of the grid on which the warp polynomial is evaluated
+     */
+    public static final int GRID_STEP = 16;
+
+    private static final int NUM_PHASES = 1 << SUBSAMPLE_BITS;
+    private static final int PHASE_MASK = NUM_PHASES - 1;
+
+    private final float[] kernel;
+    private final int kernelLength;
+    private final int padding;
+
+    /**
+     * @param kernel       weights as [phase][tap] for 1 << SUBSAMPLE_BITS phases
+     * @param kernelLength number of taps
+     */
+    public WarpResampler(final float[] kernel, final int kernelLength) {
+        if (kernel.length != NUM_PHASES * kernelLength) {
+            throw new IllegalArgumentException("Kernel table must have " + NUM_PHASES + " phases of "
+                                                       + kernelLength + " taps");
+        }
+        this.kernel = kernel;
+        this.kernelLength = kernelLength;
+        this.padding = kernelLength / 2 - 1;
+    }
+
+    public int getKernelLength() {
+        return kernelLength;
+    }
+
+    public int getPadding() {
+        return padding;
+    }
+
+    /**
+     * Evaluate the inverse warp on the grid nodes of a target tile
+     *
+     * @param warp       the warp from target to source pixel positions
+     * @param targetRect the target tile
+     * @return the mapping of the tile
+     */
+    public TileWarp map(final WarpPolynomial warp, final Rectangle targetRect) {
+        return new TileWarp(warp, targetRect);
+    }
+
+    /**
+     * Source position of a target pixel, with the pixel centre conventions of the JAI warp
+     *
+     * @param warp the warp polynomial
+     * @param x    target pixel x
+     * @param y    target pixel y
+     * @return source position as {x, y}
+     */
+    public static double[] mapPixel(final WarpPolynomial warp, final double x, final double y) {
+        final double px = (x + 0.5) * warp.getPreScaleX();
+        final double py = (y + 0.5) * warp.getPreScaleY();
+        return new double[]{
+                evaluate(warp.getXCoeffs(), warp.getDegree(), px, py) * warp.getPostScaleX() - 0.5,
+                evaluate(warp.getYCoeffs(), warp.getDegree(), px, py) * warp.getPostScaleY() - 0.5};
+    }
+
+    /**
+     * Evaluate a polynomial with terms ordered 1, x, y, x^2, xy, y^2, x^3, ...
+     */
+    static double evaluate(final float[] coeffs, final int degree, final double x, final double y) {
+        final double[] xPow = new double[degree + 1];
+        final double[] yPow = new double[degree + 1];
+        xPow[0] = yPow[0] = 1.0;
+        for (int n = 1; n <= degree; ++n) {
+            xPow[n] = xPow[n - 1] * x;
+            yPow[n] = yPow[n - 1] * y;
+        }
+        double sum = 0.0;
+        int k = 0;
+        for (int n = 0; n <= degree; ++n) {
+            for (int i = 0; i <= n; ++i) {
+                sum += coeffs[k++] * xPow[n - i] * yPow[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Convert source samples to float
+     */
+    public static float[] toFloat(final ProductData samples) {
+        final Object elems = samples.getElems();
+        if (elems instanceof float[]) {
+            return (float[]) elems;
+        }
+        final int numElems = samples.getNumElems();
+        final float[] data = new float[numElems];
+        for (int i = 0; i < numElems; ++i) {
+            data[i] = (float) samples.getElemDoubleAt(i);
+        }
+        return data;
+    }
+
+    /**
+     * Inverse warp of one target tile, evaluated on the grid nodes
+     */
+    public final class TileWarp {
+
+        private final Rectangle targetRect;
+        private final int[] nodeX;
+        private final int[] nodeY;
+        private final double[][] nodeSrcX;
+        private final double[][] nodeSrcY;
+        private double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        private double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+
+        private TileWarp(final WarpPolynomial warp, final Rectangle targetRect) {
+            this.targetRect = targetRect;
+            nodeX = createNodes(targetRect.x, targetRect.width);
+            nodeY = createNodes(targetRect.y, targetRect.height);
+            nodeSrcX = new double[nodeY.length][nodeX.length];
+            nodeSrcY = new double[nodeY.length][nodeX.length];
+            for (int j = 0; j < nodeY.length; ++j) {
+                for (int i = 0; i < nodeX.length; ++i) {
+                    final double[] pos = mapPixel(warp, nodeX[i], nodeY[j]);
+                    nodeSrcX[j][i] = pos[0];
+                    nodeSrcY[j][i] = pos[1];
+                    minX = Math.min(minX, pos[0]);
+                    maxX = Math.max(maxX, pos[0]);
+                    minY = Math.min(minY, pos[1]);
+                    maxY = Math.max(maxY, pos[1]);
+                }
+            }
+        }
+
+        private int[] createNodes(final int start, final int length) {
+            final int numNodes = (length - 1 + GRID_STEP - 1) / GRID_STEP + 1;
+            final int[] nodes = new int[Math.max(numNodes, 1)];
+            for (int i = 0; i < nodes.length; ++i) {
+                nodes[i] = start + Math.min(i * GRID_STEP, length - 1);
+            }
+            return nodes;
+        }
+
+        /**
+         * Source rectangle covering the kernel footprints of the tile
+         *
+         * @param srcWidth  source image width
+         * @param srcHeight source image height
+         * @return the rectangle within the source image or null if the tile maps outside of it
+         */
+        public Rectangle getSourceRectangle(final int srcWidth, final int srcHeight) {
+            if (!(minX < srcWidth + kernelLength && maxX > -kernelLength &&
+                    minY < srcHeight + kernelLength && maxY > -kernelLength)) {
+                return null;
+            }
+            // one pixel margin for the rounding of the bilinear refinement
+            final int x0 = (int) Math.floor(Math.max(minX, -kernelLength)) - padding - 1;
+            final int y0 = (int) Math.floor(Math.max(minY, -kernelLength)) - padding - 1;
+            final int x1 = (int) Math.floor(Math.min(maxX, srcWidth + kernelLength)) - padding + kernelLength + 1;
+            final int y1 = (int) Math.floor(Math.min(maxY, srcHeight + kernelLength)) - padding + kernelLength + 1;
+            final Rectangle rect = new Rectangle(x0, y0, x1 - x0, y1 - y0).intersection(
+                    new Rectangle(0, 0, srcWidth, srcHeight));
+            return rect.isEmpty() ? null : rect;
+        }
+
+        /**
+         * Resample the tile
+         *
+         * @param src     source samples of srcRect
+         * @param srcRect rectangle of the source samples as returned by getSourceRectangle, or null
+         * @return the target samples of the tile
+         */
+        public float[] resample(final float[] src, final Rectangle srcRect) {
+            final int w = targetRect.width;
+            final int h = targetRect.height;
+            final float[] out = new float[w * h];
+            if (srcRect == null || srcRect.width < kernelLength || srcRect.height < kernelLength) {
+                return out;
+            }
+
+            final int srcStride = srcRect.width;
+            // integer positions whose footprint lies within the source rectangle
+            final int minIX = srcRect.x + padding;
+            final int maxIX = srcRect.x + srcRect.width - kernelLength + padding;
+            final int minIY = srcRect.y + padding;
+            final int maxIY = srcRect.y + srcRect.height - kernelLength + padding;
+            final double lo = Integer.MIN_VALUE / (double) NUM_PHASES;
+            final double hi = Integer.MAX_VALUE / (double) NUM_PHASES;
+
+            final double[] rowSrcX = new double[nodeX.length];
+            final double[] rowSrcY = new double[nodeX.length];
+            final float[] hsum = new float[kernelLength];
+
+            int j = 0;
+            for (int y = 0; y < h; ++y) {
+                final int ty = targetRect.y + y;
+                while (j < nodeY.length - 2 && ty > nodeY[j + 1]) {
+                    ++j;
+                }
+                final int j1 = Math.min(j + 1, nodeY.length - 1);
+                final double wy = nodeY[j1] == nodeY[j] ? 0.0 : (ty - nodeY[j]) / (double) (nodeY[j1] - nodeY[j]);
+                for (int i = 0; i < nodeX.length; ++i) {
+                    rowSrcX[i] = nodeSrcX[j][i] + wy * (nodeSrcX[j1][i] - nodeSrcX[j][i]);
+                    rowSrcY[i] = nodeSrcY[j][i] + wy * (nodeSrcY[j1][i] - nodeSrcY[j][i]);
+                }
+
+                int i = 0;
+                final int outRow = y * w;
+                for (int x = 0; x < w; ++x) {
+                    final int tx = targetRect.x + x;
+                    while (i < nodeX.length - 2 && tx > nodeX[i + 1]) {
+                        ++i;
+                    }
+                    final int i1 = Math.min(i + 1, nodeX.length - 1);
+                    final double wx = nodeX[i1] == nodeX[i] ? 0.0 : (tx - nodeX[i]) / (double) (nodeX[i1] - nodeX[i]);
+                    final double sx = (rowSrcX[i] + wx * (rowSrcX[i1] - rowSrcX[i])) * NUM_PHASES;
+                    final double sy = (rowSrcY[i] + wx * (rowSrcY[i1] - rowSrcY[i])) * NUM_PHASES;
+                    if (!(sx > lo && sx < hi && sy > lo && sy < hi)) {
+                        continue;
+                    }
+
+                    final int fx = (int) Math.floor(sx);
+                    final int fy = (int) Math.floor(sy);
+                    final int ix = fx >> SUBSAMPLE_BITS;
+                    final int iy = fy >> SUBSAMPLE_BITS;
+                    if (ix < minIX || ix > maxIX || iy < minIY || iy > maxIY) {
+                        continue;
+                    }
+
+                    final int kx = (fx & PHASE_MASK) * kernelLength;
+                    final int ky = (fy & PHASE_MASK) * kernelLength;
+                    int srcIdx = (iy - padding - srcRect.y) * srcStride + ix - padding - srcRect.x;
+                    for (int r = 0; r < kernelLength; ++r) {
+                        float s = 0;
+                        for (int c = 0; c < kernelLength; ++c) {
+                            s += src[srcIdx + c] * kernel[kx + c];
+                        }
+                        hsum[r] = s;
+                        srcIdx += srcStride;
+                    }
+                    float v = 0;
+                    for (int r = 0; r < kernelLength; ++r) {
+                        v += hsum[r] * kernel[ky + r];
+                    }
+                    out[outRow + x] = v;
+                }
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.support;
+
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_2D;
+import org.apache.commons.math3.util.FastMath;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.engine_utilities.gpf.TileIndex;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Goldstein phase filter of FFT windows sliding with a step of a quarter window.
+ * <p>
+ * Each thread keeps its own 2D FFT plan and float work buffers. The smoothed power spectrum is computed
+ * with summed area tables and applied to the spectrum in place. Windows that reach beyond the tile being
+ * computed are kept in a bounded cache, so the neighbouring tiles that need the same window do not filter
+ * it again.
+ */
+public class GoldsteinFilter {
+
+    private static final Block EMPTY = new Block(null, null);
+    private static final Block IN_WORKSPACE = new Block(null, null);
+
+    private final int fftSize;
+    private final int halfFFTSize;
+    private final double alpha;
+    private final int halfWindowSize;
+    private final float[] weights;
+    private final int maxCachedBlocks;
+
+    private final ThreadLocal<Workspace> workspace;
+    private final Map<Key, Block> cache;
+
+    /**
+     * @param fftSize        size of the FFT window
+     * @param alpha          adaptive filter exponent
+     * @param halfWindowSize half size of the power spectrum smoothing window
+     * @param cacheSizeMB    memory allowed for windows shared between tiles
+     */
+    public GoldsteinFilter(final int fftSize, final double alpha, final int halfWindowSize, final int cacheSizeMB) {
+        this.fftSize = fftSize;
+        this.halfFFTSize = fftSize / 2;
+        this.alpha = alpha;
+        this.halfWindowSize = halfWindowSize;
+
+        // triangular weight of the overlapping windows
+        weights = new float[fftSize];
+        for (int i = 0; i < fftSize; ++i) {
+            weights[i] = (float) (1 - Math.abs(i - halfFFTSize + 0.5) / halfFFTSize);
+        }
+
+        final long blockBytes = (long) fftSize * fftSize * 9;
+        maxCachedBlocks = (int) Math.max(0, cacheSizeMB * 1024L * 1024L / blockBytes);
+        cache = new LinkedHashMap<Key, Block>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Block> eldest) {
+                return size() > maxCachedBlocks;
+            }
+        };
+
+        workspace = ThreadLocal.withInitial(() -> new Workspace(fftSize));
+    }
+
+    /**
+     * Filter the window with upper left corner (x, y) and add its weighted contribution to the filtered tile.
+     *
+     * @param bandName      name of the band, identifies the window in the cache
+     * @param x             x coordinate of the upper left pixel of the window
+     * @param y             y coordinate of the upper left pixel of the window
+     * @param iBandData     source data of the I band
+     * @param qBandData     source data of the Q band
+     * @param srcIndex      index of the source tile
+     * @param noDataValue   no data value of the source
+     * @param x0            x coordinate of the upper left pixel of the target tile
+     * @param y0            y coordinate of the upper left pixel of the target tile
+     * @param w             width of the target tile
+     * @param h             height of the target tile
+     * @param iBandFiltered filtered I of the target tile
+     * @param qBandFiltered filtered Q of the target tile
+     */
+    public void filterWindow(final String bandName, final int x, final int y,
+                             final ProductData iBandData, final ProductData qBandData, final TileIndex srcIndex,
+                             final double noDataValue,
+                             final int x0, final int y0, final int w, final int h,
+                             final float[] iBandFiltered, final float[] qBandFiltered) {
+
+        // only windows reaching into a neighbouring tile can be used again
+        final boolean shared = maxCachedBlocks > 0 &&
+                (x < x0 || y < y0 || x + fftSize > x0 + w || y + fftSize > y0 + h);
+
+        Block block = null;
+        Key key = null;
+        if (shared) {
+            key = new Key(bandName, x, y);
+            synchronized (cache) {
+                block = cache.get(key);
+            }
+        }
+
+        if (block == null) {
+            block = filter(x, y, iBandData, qBandData, srcIndex, noDataValue, shared);
+            if (shared) {
+                synchronized (cache) {
+                    cache.put(key, block);
+                }
+            }
+        }
+
+        if (block != EMPTY) {
+            final Workspace ws = workspace.get();
+            final boolean[] mask = block.mask != null ? block.mask : ws.mask;
+            final float[] data = block.data != null ? block.data : ws.data;
+            addWeighted(x, y, data, mask, x0, y0, w, h, iBandFiltered, qBandFiltered);
+        }
+    }
+
+    boolean isCached(final String bandName, final int x, final int y) {
+        synchronized (cache) {
+            return cache.containsKey(new Key(bandName, x, y));
+        }
+    }
+
+    private Block filter(final int x, final int y,
+                         final ProductData iBandData, final ProductData qBandData, final TileIndex srcIndex,
+                         final double noDataValue, final boolean keep) {
+
+        final Workspace ws = workspace.get();
+        final float[] data = ws.data;
+        final boolean[] mask = ws.mask;
+
+        // interleave with Q as real and I as imaginary part
+        boolean allNoData = true;
+        for (int r = 0; r < fftSize; ++r) {
+            srcIndex.calculateStride(y + r);
+            final int offset = r * fftSize;
+            for (int c = 0; c < fftSize; ++c) {
+                final int index = srcIndex.getIndex(x + c);
+                final float i = iBandData.getElemFloatAt(index);
+                data[2 * (offset + c)] = qBandData.getElemFloatAt(index);
+                data[2 * (offset + c) + 1] = i;
+                mask[offset + c] = i != noDataValue;
+                if (mask[offset + c]) {
+                    allNoData = false;
+                }
+            }
+        }
+        if (allNoData) {
+            return EMPTY;
+        }
+
+        ws.fft.complexForward(data);
+
+        applySpectralWeights(ws, noDataValue);
+
+        ws.fft.complexInverse(data, false);
+
+        if (keep) {
+            return new Block(data.clone(), mask.clone());
+        }
+        return IN_WORKSPACE;
+    }
+
+    /**
+     * Multiply the spectrum with its smoothed magnitude raised to the power alpha
+     */
+    private void applySpectralWeights(final Workspace ws, final double noDataValue) {
+
+        final float[] data = ws.data;
+        final double[] sumTable = ws.sumTable;
+        final int[] countTable = ws.countTable;
+        final int stride = fftSize + 1;
+
+        // summed area tables of the power spectrum and of its valid samples
+        for (int r = 0; r < fftSize; ++r) {
+            double rowSum = 0;
+            int rowCount = 0;
+            final int offset = r * fftSize;
+            final int t = (r + 1) * stride;
+            for (int c = 0; c < fftSize; ++c) {
+                final int k = 2 * (offset + c);
+                final double pwr = Math.sqrt((double) data[k] * data[k] + (double) data[k + 1] * data[k + 1]);
+                if (pwr != noDataValue) {
+                    rowSum += pwr;
+                    ++rowCount;
+                }
+                sumTable[t + c + 1] = sumTable[t - stride + c + 1] + rowSum;
+                countTable[t + c + 1] = countTable[t - stride + c + 1] + rowCount;
+            }
+        }
+
+        for (int r = 0; r < fftSize; ++r) {
+            final int jMin = Math.max(0, r - halfWindowSize);
+            final int jMax = Math.min(fftSize - 1, r + halfWindowSize) + 1;
+            final int offset = r * fftSize;
+            for (int c = 0; c < fftSize; ++c) {
+                final int iMin = Math.max(0, c - halfWindowSize);
+                final int iMax = Math.min(fftSize - 1, c + halfWindowSize) + 1;
+
+                final int count = countTable[jMax * stride + iMax] - countTable[jMin * stride + iMax] -
+                        countTable[jMax * stride + iMin] + countTable[jMin * stride + iMin];
+                float weight = 0;
+                if (count != 0) {
+                    final double sum = sumTable[jMax * stride + iMax] - sumTable[jMin * stride + iMax] -
+                            sumTable[jMax * stride + iMin] + sumTable[jMin * stride + iMin];
+                    weight = (float) (alpha == 1.0 ? sum / count : FastMath.pow(sum / count, alpha));
+                }
+
+                final int k = 2 * (offset + c);
+                data[k] *= weight;
+                data[k + 1] *= weight;
+            }
+        }
+    }
+
+    private void addWeighted(final int x, final int y, final float[] data, final boolean[] mask,
+                             final int x0, final int y0, final int w, final int h,
+                             final float[] iBandFiltered, final float[] qBandFiltered) {
+
+        final int xSt = FastMath.max(x, x0);
+        final int ySt = FastMath.max(y, y0);
+        final int xEd = FastMath.min(x + fftSize, x0 + w);
+        final int yEd = FastMath.min(y + fftSize, y0 + h);
+        for (int yy = ySt; yy < yEd; yy++) {
+            final int yi = yy - y;
+            final int yw = (yy - y0) * w;
+            final float weightY = weights[yi];
+            for (int xx = xSt; xx < xEd; xx++) {
+                final int idx = yi * fftSize + xx - x;
+                if (!mask[idx]) {
+                    continue;
+                }
+
+                final float weight = weights[xx - x] * weightY;
+                final int k = yw + (xx - x0);
+                iBandFiltered[k] += data[2 * idx + 1] * weight;
+                qBandFiltered[k] += data[2 * idx] * weight;
+            }
+        }
+    }
+
+    private static class Workspace {
+        final FloatFFT_2D fft;
+        final float[] data;
+        final boolean[] mask;
+        final double[] sumTable;
+        final int[] countTable;
+
+        Workspace(final int fftSize) {
+            fft = new FloatFFT_2D(fftSize, fftSize);
+            data = new float[2 * fftSize * fftSize];
+            mask = new boolean[fftSize * fftSize];
+            sumTable = new double[(fftSize + 1) * (fftSize + 1)];
+            countTable = new int[(fftSize + 1) * (fftSize + 1)];
+        }
+    }
+
+    /**
+     * Filtered window, data and mask are null if the result is still in the work buffers of the thread
+     */
+    private static class Block {
+        final float[] data;
+        final boolean[] mask;
+
+        Block(final float[] data, final boolean[] mask) {
+            this.data = data;
+            this.mask = mask;
+        }
+    }
+
+    private static class Key {
+        final String bandName;
+        final int x;
+        final int y;
+
+        Key(final String bandName, final int x, final int y) {
+            this.bandName = bandName;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return x == key.x && y == key.y && bandName.equals(key.bandName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bandName, x, y);
+        }
+    }
+}
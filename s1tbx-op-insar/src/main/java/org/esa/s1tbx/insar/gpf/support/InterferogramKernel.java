@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.support;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.Tile;
+import org.jlinda.core.utils.PolyUtils;
+
+import java.util.Arrays;
+
+/**
+ * Forms the interferogram of one master-slave pair over a tile on float I/Q buffers.
+ * <p>
+ * The reference phases (flat earth polynomial and topographic phase) are summed into one phase per pixel
+ * and applied with a single phasor, and the coherence is estimated with box sums, so no complex
+ * matrices are created per pair. Buffers are kept per thread and reused for every pair and tile;
+ * arrays returned by the getters are only valid until the next call on the same thread.
+ */
+public class InterferogramKernel {
+
+    private static final ThreadLocal<InterferogramKernel> threadKernel =
+            ThreadLocal.withInitial(InterferogramKernel::new);
+
+    private int width;
+    private int height;
+
+    private float[] mstI = new float[0];
+    private float[] mstQ = new float[0];
+    private float[] slvI = new float[0];
+    private float[] slvQ = new float[0];
+    private float[] ifgI = new float[0];
+    private float[] ifgQ = new float[0];
+    private double[] phase = new double[0];
+    private float[] coherence = new float[0];
+    private double[] colSums = new double[0];
+    private double[] rowCoeffs = new double[0];
+    private boolean hasPhase = false;
+
+    private InterferogramKernel() {
+    }
+
+    /**
+     * Get the kernel of the current thread, sized for a tile
+     */
+    public static InterferogramKernel get(final int width, final int height) {
+        final InterferogramKernel kernel = threadKernel.get();
+        kernel.resize(width, height);
+        return kernel;
+    }
+
+    private void resize(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        final int size = width * height;
+        if (mstI.length < size) {
+            mstI = new float[size];
+            mstQ = new float[size];
+            slvI = new float[size];
+            slvQ = new float[size];
+            ifgI = new float[size];
+            ifgQ = new float[size];
+            phase = new double[size];
+            coherence = new float[size];
+        }
+        hasPhase = false;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float[] getMasterI() {
+        return mstI;
+    }
+
+    public float[] getMasterQ() {
+        return mstQ;
+    }
+
+    public float[] getSlaveI() {
+        return slvI;
+    }
+
+    public float[] getSlaveQ() {
+        return slvQ;
+    }
+
+    public float[] getInterferogramI() {
+        return ifgI;
+    }
+
+    public float[] getInterferogramQ() {
+        return ifgQ;
+    }
+
+    /**
+     * @return the reference phase, valid after a phase has been added
+     */
+    public double[] getPhase() {
+        return phase;
+    }
+
+    public void readMaster(final Tile tileI, final Tile tileQ) {
+        readSamples(tileI, mstI);
+        readSamples(tileQ, mstQ);
+    }
+
+    public void readSlave(final Tile tileI, final Tile tileQ) {
+        readSamples(tileI, slvI);
+        readSamples(tileQ, slvQ);
+    }
+
+    private void readSamples(final Tile tile, final float[] dest) {
+        final ProductData samples = tile.getRawSamples();
+        final int size = width * height;
+        final Object elems = samples.getElems();
+        if (elems instanceof float[]) {
+            System.arraycopy(elems, 0, dest, 0, size);
+        } else {
+            for (int i = 0; i < size; ++i) {
+                dest[i] = samples.getElemFloatAt(i);
+            }
+        }
+    }
+
+    /**
+     * Add a 2D polynomial in normalized azimuth and range to the reference phase.
+     * Coefficients are ordered by degree as in PolyUtils.polyval with azimuth as first variable.
+     *
+     * @param coeffs       polynomial coefficients
+     * @param degree       polynomial degree
+     * @param azimuthFirst normalized azimuth of the first row
+     * @param azimuthStep  normalized azimuth increment per row
+     * @param rangeFirst   normalized range of the first column
+     * @param rangeStep    normalized range increment per column
+     */
+    public void addPolynomialPhase(final double[] coeffs, final int degree,
+                                   final double azimuthFirst, final double azimuthStep,
+                                   final double rangeFirst, final double rangeStep) {
+        initPhase();
+        if (rowCoeffs.length < degree + 1) {
+            rowCoeffs = new double[degree + 1];
+        }
+
+        for (int y = 0; y < height; ++y) {
+            final double az = azimuthFirst + y * azimuthStep;
+
+            // collapse the azimuth terms: rowCoeffs[q] multiplies range^q
+            for (int q = 0; q <= degree; ++q) {
+                double sum = 0;
+                double azPow = 1;
+                for (int n = q; n <= degree; ++n) {
+                    sum += coeffs[n * (n + 1) / 2 + q] * azPow;
+                    azPow *= az;
+                }
+                rowCoeffs[q] = sum;
+            }
+
+            final int offset = y * width;
+            for (int x = 0; x < width; ++x) {
+                final double rg = rangeFirst + x * rangeStep;
+                double value = rowCoeffs[degree];
+                for (int q = degree - 1; q >= 0; --q) {
+                    value = value * rg + rowCoeffs[q];
+                }
+                phase[offset + x] += value;
+            }
+        }
+    }
+
+    /**
+     * Add a flat earth polynomial to the reference phase. The polynomial is defined on line and pixel
+     * normalized to the range [-2, 2] over [minLine, maxLine] and [minPixel, maxPixel].
+     *
+     * @param coeffs   polynomial coefficients
+     * @param xMin     pixel of the first column of the tile
+     * @param yMin     line of the first row of the tile
+     * @param minPixel first pixel of the normalization interval
+     * @param maxPixel last pixel of the normalization interval
+     * @param minLine  first line of the normalization interval
+     * @param maxLine  last line of the normalization interval
+     */
+    public void addFlatEarthPhase(final double[] coeffs, final int xMin, final int yMin,
+                                  final int minPixel, final int maxPixel, final int minLine, final int maxLine) {
+
+        final double rangeScale = 0.25 * (maxPixel - minPixel);
+        final double azimuthScale = 0.25 * (maxLine - minLine);
+        addPolynomialPhase(coeffs, PolyUtils.degreeFromCoefficients(coeffs.length),
+                (yMin - 0.5 * (minLine + maxLine)) / azimuthScale, 1.0 / azimuthScale,
+                (xMin - 0.5 * (minPixel + maxPixel)) / rangeScale, 1.0 / rangeScale);
+    }
+
+    /**
+     * Add a phase grid, e.g. the topographic phase, to the reference phase
+     *
+     * @param values phase with the dimensions of the tile
+     */
+    public void addPhase(final double[][] values) {
+        initPhase();
+        for (int y = 0; y < height; ++y) {
+            final double[] row = values[y];
+            final int offset = y * width;
+            for (int x = 0; x < width; ++x) {
+                phase[offset + x] += row[x];
+            }
+        }
+    }
+
+    private void initPhase() {
+        if (!hasPhase) {
+            Arrays.fill(phase, 0, width * height, 0.0);
+            hasPhase = true;
+        }
+    }
+
+    /**
+     * Form master * conj(slave * exp(i * phase))
+     */
+    public void formInterferogram() {
+        final int size = width * height;
+        if (hasPhase) {
+            for (int i = 0; i < size; ++i) {
+                final double c = Math.cos(phase[i]);
+                final double s = Math.sin(phase[i]);
+                final double sr = slvI[i] * c - slvQ[i] * s;
+                final double si = slvI[i] * s + slvQ[i] * c;
+                final double mr = mstI[i];
+                final double mi = mstQ[i];
+                ifgI[i] = (float) (mr * sr + mi * si);
+                ifgQ[i] = (float) (mi * sr - mr * si);
+            }
+        } else {
+            for (int i = 0; i < size; ++i) {
+                final double sr = slvI[i];
+                final double si = slvQ[i];
+                final double mr = mstI[i];
+                final double mi = mstQ[i];
+                ifgI[i] = (float) (mr * sr + mi * si);
+                ifgQ[i] = (float) (mi * sr - mr * si);
+            }
+        }
+    }
+
+    /**
+     * Estimate the coherence of the interferogram with a moving window. The output has
+     * (width - winRg + 1) columns and (height - winAz + 1) rows, as SarUtils.coherence2.
+     *
+     * @param winAz window size in azimuth
+     * @param winRg window size in range
+     * @return the coherence
+     */
+    public float[] computeCoherence(final int winAz, final int winRg) {
+        final int outWidth = width - winRg + 1;
+        final int outHeight = height - winAz + 1;
+        if (outWidth <= 0 || outHeight <= 0) {
+            return coherence;
+        }
+
+        // column sums over winAz rows of ifg I, ifg Q, slave power and master power
+        if (colSums.length < 4 * width) {
+            colSums = new double[4 * width];
+        }
+        Arrays.fill(colSums, 0, 4 * width, 0.0);
+        for (int y = 0; y < winAz; ++y) {
+            addRow(y, 1.0);
+        }
+
+        for (int oy = 0; oy < outHeight; ++oy) {
+            if (oy > 0) {
+                addRow(oy - 1, -1.0);
+                addRow(oy + winAz - 1, 1.0);
+            }
+
+            double sumI = 0, sumQ = 0, powS = 0, powM = 0;
+            for (int x = 0; x < winRg; ++x) {
+                sumI += colSums[4 * x];
+                sumQ += colSums[4 * x + 1];
+                powS += colSums[4 * x + 2];
+                powM += colSums[4 * x + 3];
+            }
+
+            final int offset = oy * outWidth;
+            for (int ox = 0; ox < outWidth; ++ox) {
+                if (ox > 0) {
+                    final int out = 4 * (ox - 1);
+                    final int in = 4 * (ox + winRg - 1);
+                    sumI += colSums[in] - colSums[out];
+                    sumQ += colSums[in + 1] - colSums[out + 1];
+                    powS += colSums[in + 2] - colSums[out + 2];
+                    powM += colSums[in + 3] - colSums[out + 3];
+                }
+                final double product = powS * powM;
+                coherence[offset + ox] = product > 0.0 ? (float) (Math.hypot(sumI, sumQ) / Math.sqrt(product)) : 0f;
+            }
+        }
+        return coherence;
+    }
+
+    private void addRow(final int y, final double sign) {
+        final int offset = y * width;
+        for (int x = 0; x < width; ++x) {
+            final int i = offset + x;
+            final int c = 4 * x;
+            colSums[c] += sign * ifgI[i];
+            colSums[c + 1] += sign * ifgQ[i];
+            colSums[c + 2] += sign * ((double) slvI[i] * slvI[i] + (double) slvQ[i] * slvQ[i]);
+            colSums[c + 3] += sign * ((double) mstI[i] * mstI[i] + (double) mstQ[i] * mstQ[i]);
+        }
+    }
+
+    /**
+     * Load a pair from float arrays, for callers that do not work on tiles
+     */
+    public void setData(final float[] masterI, final float[] masterQ, final float[] slaveI, final float[] slaveQ) {
+        final int size = width * height;
+        System.arraycopy(masterI, 0, mstI, 0, size);
+        System.arraycopy(masterQ, 0, mstQ, 0, size);
+        System.arraycopy(slaveI, 0, slvI, 0, size);
+        System.arraycopy(slaveQ, 0, slvQ, 0, size);
+    }
+}
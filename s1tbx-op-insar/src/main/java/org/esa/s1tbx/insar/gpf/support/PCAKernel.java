@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.support;
+
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pixel blocks for principal component analysis of a band stack.
+ * <p>
+ * The samples of all bands for a chunk of consecutive pixels are unpacked once into a block of
+ * float[bands][CHUNK_SIZE], small enough to stay in cache. The covariance of the bands is accumulated from
+ * the blocks in one pass: each block is centred on its own mean and merged into the running mean and
+ * co-moments with the pairwise update of Chan et al., which avoids the cancellation of sums of squares.
+ * Projection multiplies a block by the eigenvector matrix band by band, so each sample is read once for all
+ * components.
+ */
+public final class PCAKernel {
+
+    /**
+     * Number of pixels of a block
+     */
+    public static final int CHUNK_SIZE = 512;
+
+    private PCAKernel() {
+    }
+
+    /**
+     * Unpack the samples of consecutive pixels of all bands into a block
+     *
+     * @param samples     the band samples
+     * @param meanSamples samples of a mean image subtracted from every band, or null
+     * @param offset      buffer index of the first pixel
+     * @param length      number of pixels, at most the length of the block rows
+     * @param block       block of [bands][pixels]
+     */
+    public static void unpack(final ProductData[] samples, final ProductData meanSamples,
+                              final int offset, final int length, final float[][] block) {
+
+        for (int b = 0; b < samples.length; ++b) {
+            final float[] row = block[b];
+            final Object elems = samples[b].getElems();
+            if (elems instanceof float[]) {
+                System.arraycopy(elems, offset, row, 0, length);
+            } else if (elems instanceof short[]) {
+                final short[] data = (short[]) elems;
+                if (samples[b].isUnsigned()) {
+                    for (int p = 0; p < length; ++p) {
+                        row[p] = data[offset + p] & 0xFFFF;
+                    }
+                } else {
+                    for (int p = 0; p < length; ++p) {
+                        row[p] = data[offset + p];
+                    }
+                }
+            } else {
+                for (int p = 0; p < length; ++p) {
+                    row[p] = (float) samples[b].getElemDoubleAt(offset + p);
+                }
+            }
+
+            if (meanSamples != null) {
+                for (int p = 0; p < length; ++p) {
+                    row[p] = (float) (row[p] - meanSamples.getElemDoubleAt(offset + p));
+                }
+            }
+        }
+    }
+
+    /**
+     * Project a block onto the leading eigenvectors
+     *
+     * @param block         block of [bands][pixels]
+     * @param length        number of pixels
+     * @param eigenVectors  eigenvectors as columns of a [bands][bands] matrix
+     * @param numComponents number of leading eigenvectors
+     * @param out           projections as [components][pixels]
+     */
+    public static void project(final float[][] block, final int length, final double[][] eigenVectors,
+                               final int numComponents, final double[][] out) {
+
+        final int numBands = block.length;
+        for (int c = 0; c < numComponents; ++c) {
+            final double[] acc = out[c];
+            for (int p = 0; p < length; ++p) {
+                acc[p] = 0.0;
+            }
+            for (int b = 0; b < numBands; ++b) {
+                final double w = eigenVectors[b][c];
+                final float[] row = block[b];
+                for (int p = 0; p < length; ++p) {
+                    acc[p] += row[p] * w;
+                }
+            }
+        }
+    }
+
+    /**
+     * Running mean and co-moments of the bands. An instance is not thread safe, partial results of several
+     * threads are combined with merge.
+     */
+    public static final class Covariance {
+
+        private final int numBands;
+        private long count;
+        private final double[] mean;
+        private final double[][] comoment; // lower triangle
+
+        // block statistics
+        private final double[] blockMean;
+        private final double[][] blockComoment;
+        private final double[][] centred;
+
+        public Covariance(final int numBands) {
+            this.numBands = numBands;
+            mean = new double[numBands];
+            comoment = new double[numBands][];
+            blockMean = new double[numBands];
+            blockComoment = new double[numBands][];
+            for (int i = 0; i < numBands; ++i) {
+                comoment[i] = new double[i + 1];
+                blockComoment[i] = new double[i + 1];
+            }
+            centred = new double[numBands][CHUNK_SIZE];
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double[] getMean() {
+            return mean.clone();
+        }
+
+        /**
+         * @return the population covariance matrix
+         */
+        public double[][] getCovariance() {
+            final double[][] cov = new double[numBands][numBands];
+            for (int i = 0; i < numBands; ++i) {
+                for (int j = 0; j <= i; ++j) {
+                    cov[i][j] = cov[j][i] = count > 0 ? comoment[i][j] / count : 0.0;
+                }
+            }
+            return cov;
+        }
+
+        /**
+         * Add the pixels of a block
+         *
+         * @param block  block of [bands][pixels]
+         * @param length number of pixels, at most CHUNK_SIZE
+         */
+        public void accumulate(final float[][] block, final int length) {
+            if (length <= 0) {
+                return;
+            }
+            for (int b = 0; b < numBands; ++b) {
+                final float[] row = block[b];
+                double s = 0.0;
+                for (int p = 0; p < length; ++p) {
+                    s += row[p];
+                }
+                final double m = s / length;
+                final double[] c = centred[b];
+                for (int p = 0; p < length; ++p) {
+                    c[p] = row[p] - m;
+                }
+                blockMean[b] = m;
+            }
+            for (int i = 0; i < numBands; ++i) {
+                final double[] ci = centred[i];
+                final double[] bc = blockComoment[i];
+                for (int j = 0; j <= i; ++j) {
+                    final double[] cj = centred[j];
+                    double s = 0.0;
+                    for (int p = 0; p < length; ++p) {
+                        s += ci[p] * cj[p];
+                    }
+                    bc[j] = s;
+                }
+            }
+            merge(length, blockMean, blockComoment);
+        }
+
+        /**
+         * Add the pixels of another accumulator
+         */
+        public void merge(final Covariance other) {
+            if (other.numBands != numBands) {
+                throw new IllegalArgumentException("Number of bands differs");
+            }
+            merge(other.count, other.mean, other.comoment);
+        }
+
+        private void merge(final long n2, final double[] mean2, final double[][] comoment2) {
+            if (n2 == 0) {
+                return;
+            }
+            final long n1 = count;
+            final long n = n1 + n2;
+            final double f = (double) n1 * n2 / n;
+            final double[] delta = new double[numBands];
+            for (int b = 0; b < numBands; ++b) {
+                delta[b] = mean2[b] - mean[b];
+            }
+            for (int i = 0; i < numBands; ++i) {
+                final double[] cm = comoment[i];
+                final double[] cm2 = comoment2[i];
+                for (int j = 0; j <= i; ++j) {
+                    cm[j] += cm2[j] + delta[i] * delta[j] * f;
+                }
+            }
+            for (int b = 0; b < numBands; ++b) {
+                mean[b] += delta[b] * n2 / n;
+            }
+            count = n;
+        }
+
+        /**
+         * Merge partial results pairwise
+         *
+         * @param partials accumulators of the same number of bands, combined in place
+         * @return the accumulator holding all pixels
+         */
+        public static Covariance merge(final List<Covariance> partials) {
+            List<Covariance> level = new ArrayList<>(partials);
+            while (level.size() > 1) {
+                final List<Covariance> next = new ArrayList<>((level.size() + 1) / 2);
+                for (int i = 0; i + 1 < level.size(); i += 2) {
+                    level.get(i).merge(level.get(i + 1));
+                    next.add(level.get(i));
+                }
+                if (level.size() % 2 == 1) {
+                    next.add(level.get(level.size() - 1));
+                }
+                level = next;
+            }
+            return level.isEmpty() ? null : level.get(0);
+        }
+    }
+}
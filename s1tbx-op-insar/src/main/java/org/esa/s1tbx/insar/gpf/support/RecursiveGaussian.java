@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.support;
+
+import java.util.Arrays;
+
+/**
+ * Recursive Gaussian filter of Deriche (1993).
+ * <p>
+ * The Gaussian is approximated by a sum of two damped cosines, evaluated by a causal and an anti-causal fourth
+ * order recursion that are added. The cost per pixel does not depend on sigma. The filter has unit gain and
+ * samples outside the buffer are taken as zero, which the recursions reproduce exactly by starting from a
+ * zero state. Rows are filtered one at a time and columns in strips of neighbouring columns, so the buffer
+ * is read sequentially. The recursion runs in double precision.
+ */
+public class RecursiveGaussian {
+
+    // Deriche's fit of the Gaussian with sigma 1
+    private static final double A0 = 1.68, A1 = 3.735, B0 = 1.783, W0 = 0.6318;
+    private static final double C0 = -0.6803, C1 = -0.2598, B1 = 1.723, W1 = 1.997;
+
+    private static final int STRIP_WIDTH = 16;
+    private static final int ORDER = 4;
+
+    private final double sigma;
+
+    // causal numerator, anti-causal numerator and common denominator
+    private final double[] n = new double[ORDER];
+    private final double[] m = new double[ORDER + 1];
+    private final double[] d = new double[ORDER + 1];
+
+    /**
+     * @param sigma standard deviation of the Gaussian in pixels, at least 0.5
+     */
+    public RecursiveGaussian(final double sigma) {
+        if (sigma < 0.5) {
+            throw new IllegalArgumentException("Sigma of the recursive Gaussian must be at least 0.5");
+        }
+        this.sigma = sigma;
+
+        // h(k) = sum of alpha * pole^k over two pairs of complex conjugate poles
+        final double[] poleRe = new double[ORDER], poleIm = new double[ORDER];
+        final double[] alphaRe = new double[ORDER], alphaIm = new double[ORDER];
+        setPole(0, A0, A1, B0, W0, poleRe, poleIm, alphaRe, alphaIm);
+        setPole(2, C0, C1, B1, W1, poleRe, poleIm, alphaRe, alphaIm);
+
+        // denominator prod(1 - p z^-1)
+        final double[] denRe = {1, 0, 0, 0, 0}, denIm = new double[ORDER + 1];
+        for (int k = 0; k < ORDER; ++k) {
+            multiplyByFactor(denRe, denIm, poleRe[k], poleIm[k]);
+        }
+
+        // numerators sum(alpha * prod_{j != k}(1 - p_j z^-1)) and sum(alpha * p * z * prod_{j != k}(1 - p_j z))
+        for (int k = 0; k < ORDER; ++k) {
+            final double[] re = {1, 0, 0, 0, 0}, im = new double[ORDER + 1];
+            for (int j = 0; j < ORDER; ++j) {
+                if (j != k) {
+                    multiplyByFactor(re, im, poleRe[j], poleIm[j]);
+                }
+            }
+            final double apRe = alphaRe[k] * poleRe[k] - alphaIm[k] * poleIm[k];
+            final double apIm = alphaRe[k] * poleIm[k] + alphaIm[k] * poleRe[k];
+            for (int i = 0; i < ORDER; ++i) {
+                n[i] += alphaRe[k] * re[i] - alphaIm[k] * im[i];
+                m[i + 1] += apRe * re[i] - apIm * im[i];
+            }
+        }
+        for (int i = 0; i <= ORDER; ++i) {
+            d[i] = denRe[i];
+        }
+
+        // unit gain
+        double sumN = 0, sumM = 0, sumD = 0;
+        for (int i = 0; i <= ORDER; ++i) {
+            sumN += i < ORDER ? n[i] : 0;
+            sumM += m[i];
+            sumD += d[i];
+        }
+        final double gain = sumD / (sumN + sumM);
+        for (int i = 0; i <= ORDER; ++i) {
+            if (i < ORDER) {
+                n[i] *= gain;
+            }
+            m[i] *= gain;
+        }
+    }
+
+    private void setPole(final int k, final double a, final double b, final double damping, final double omega,
+                         final double[] poleRe, final double[] poleIm, final double[] alphaRe, final double[] alphaIm) {
+        // a cos(omega x) + b sin(omega x) = Re((a - ib) exp(i omega x))
+        final double r = Math.exp(-damping / sigma);
+        final double phi = omega / sigma;
+        poleRe[k] = r * Math.cos(phi);
+        poleIm[k] = r * Math.sin(phi);
+        poleRe[k + 1] = poleRe[k];
+        poleIm[k + 1] = -poleIm[k];
+        alphaRe[k] = alphaRe[k + 1] = a / 2;
+        alphaIm[k] = -b / 2;
+        alphaIm[k + 1] = b / 2;
+    }
+
+    /**
+     * Multiply a polynomial in place by (1 - p x)
+     */
+    private static void multiplyByFactor(final double[] re, final double[] im, final double pRe, final double pIm) {
+        for (int i = re.length - 1; i > 0; --i) {
+            re[i] -= pRe * re[i - 1] - pIm * im[i - 1];
+            im[i] -= pRe * im[i - 1] + pIm * re[i - 1];
+        }
+    }
+
+    public double getSigma() {
+        return sigma;
+    }
+
+    /**
+     * Filter a row major buffer in place along both axes
+     *
+     * @param data   the buffer
+     * @param width  number of columns
+     * @param height number of rows
+     */
+    public void filter(final float[] data, final int width, final int height) {
+        filterRows(data, width, height);
+        filterColumns(data, width, height);
+    }
+
+    /**
+     * Filter every row of a row major buffer in place
+     */
+    public void filterRows(final float[] data, final int width, final int height) {
+        final Workspace ws = new Workspace(width, 1);
+        for (int y = 0; y < height; ++y) {
+            final int offset = y * width;
+            for (int x = 0; x < width; ++x) {
+                ws.in[ORDER + x] = data[offset + x];
+            }
+            filterLanes(ws, width, 1);
+            for (int x = 0; x < width; ++x) {
+                data[offset + x] = (float) ws.causal[ORDER + x];
+            }
+        }
+    }
+
+    /**
+     * Filter every column of a row major buffer in place
+     */
+    public void filterColumns(final float[] data, final int width, final int height) {
+        final Workspace ws = new Workspace(height, Math.min(STRIP_WIDTH, width));
+        for (int x0 = 0; x0 < width; x0 += STRIP_WIDTH) {
+            final int lanes = Math.min(STRIP_WIDTH, width - x0);
+            for (int y = 0; y < height; ++y) {
+                final int offset = (ORDER + y) * lanes;
+                for (int i = 0; i < lanes; ++i) {
+                    ws.in[offset + i] = data[y * width + x0 + i];
+                }
+            }
+            filterLanes(ws, height, lanes);
+            for (int y = 0; y < height; ++y) {
+                final int offset = (ORDER + y) * lanes;
+                for (int i = 0; i < lanes; ++i) {
+                    data[y * width + x0 + i] = (float) ws.causal[offset + i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Filter interleaved sequences of the given length. Element i of lane l is at (ORDER + i) * lanes + l,
+     * the ORDER elements before and after each sequence are zero. The result is left in the causal buffer.
+     */
+    private void filterLanes(final Workspace ws, final int length, final int lanes) {
+        final double[] in = ws.in;
+        final double[] causal = ws.causal;
+        final double[] antiCausal = ws.antiCausal;
+
+        // a narrower last strip ends inside the previous one
+        final int end = (ORDER + length) * lanes;
+        Arrays.fill(in, end, end + ORDER * lanes, 0);
+        Arrays.fill(antiCausal, end, end + ORDER * lanes, 0);
+
+        for (int i = ORDER; i < ORDER + length; ++i) {
+            final int k = i * lanes;
+            for (int l = k; l < k + lanes; ++l) {
+                causal[l] = n[0] * in[l] + n[1] * in[l - lanes] + n[2] * in[l - 2 * lanes] + n[3] * in[l - 3 * lanes]
+                        - d[1] * causal[l - lanes] - d[2] * causal[l - 2 * lanes]
+                        - d[3] * causal[l - 3 * lanes] - d[4] * causal[l - 4 * lanes];
+            }
+        }
+        for (int i = ORDER + length - 1; i >= ORDER; --i) {
+            final int k = i * lanes;
+            for (int l = k; l < k + lanes; ++l) {
+                antiCausal[l] = m[1] * in[l + lanes] + m[2] * in[l + 2 * lanes] + m[3] * in[l + 3 * lanes]
+                        + m[4] * in[l + 4 * lanes]
+                        - d[1] * antiCausal[l + lanes] - d[2] * antiCausal[l + 2 * lanes]
+                        - d[3] * antiCausal[l + 3 * lanes] - d[4] * antiCausal[l + 4 * lanes];
+            }
+        }
+        for (int l = ORDER * lanes; l < (ORDER + length) * lanes; ++l) {
+            causal[l] += antiCausal[l];
+        }
+    }
+
+    private static class Workspace {
+        final double[] in;
+        final double[] causal;
+        final double[] antiCausal;
+
+        Workspace(final int length, final int lanes) {
+            final int size = (length + 2 * ORDER) * lanes;
+            in = new double[size];
+            causal = new double[size];
+            antiCausal = new double[size];
+        }
+    }
+}
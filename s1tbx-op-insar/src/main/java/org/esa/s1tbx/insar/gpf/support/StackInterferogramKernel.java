@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.support;
+
+import org.apache.commons.math3.util.FastMath;
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.util.Arrays;
+
+/**
+ * Forms the interferograms of many pairs of a stack over a tile.
+ * <p>
+ * Each acquisition is decoded once into a phasor flattened by its own reference phase,
+ * s * exp(-i * phase), and its intensity. The interferogram of a pair is then the product of the
+ * first phasor with the conjugate of the second, which equals the pair interferogram flattened by the
+ * difference of the reference phases. The coherence of all pairs is estimated in one pass over the
+ * tile: the window sums of the intensities are shared by all pairs of an acquisition. Window sums are
+ * formed from column sums without subtracting samples leaving the window, so windows of zeros give
+ * exactly zero sums.
+ */
+public class StackInterferogramKernel {
+
+    private final int width;
+    private final int height;
+
+    private final float[][] phasorI;
+    private final float[][] phasorQ;
+    private final float[][] intensity;
+
+    private int[][] pairs = new int[0][];
+    private float[][] ifgI = new float[0][];
+    private float[][] ifgQ = new float[0][];
+    private float[][] coherence = new float[0][];
+
+    /**
+     * @param width           tile width
+     * @param height          tile height
+     * @param numAcquisitions number of acquisitions of the stack
+     */
+    public StackInterferogramKernel(final int width, final int height, final int numAcquisitions) {
+        this.width = width;
+        this.height = height;
+        phasorI = new float[numAcquisitions][];
+        phasorQ = new float[numAcquisitions][];
+        intensity = new float[numAcquisitions][];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Decode the samples of an acquisition
+     *
+     * @param index          acquisition index
+     * @param samplesI       I samples of the tile
+     * @param samplesQ       Q samples of the tile
+     * @param referencePhase reference phase as [height][width], or null for none
+     */
+    public void setAcquisition(final int index, final ProductData samplesI, final ProductData samplesQ,
+                               final double[][] referencePhase) {
+        final int size = width * height;
+        final float[] pI = new float[size];
+        final float[] pQ = new float[size];
+        final float[] pow = new float[size];
+
+        for (int y = 0; y < height; ++y) {
+            final double[] phaseRow = referencePhase != null ? referencePhase[y] : null;
+            final int offset = y * width;
+            for (int x = 0; x < width; ++x) {
+                final int i = offset + x;
+                final double valueI = samplesI.getElemDoubleAt(i);
+                final double valueQ = samplesQ.getElemDoubleAt(i);
+                if (phaseRow != null) {
+                    final double cos = FastMath.cos(phaseRow[x]);
+                    final double sin = FastMath.sin(phaseRow[x]);
+                    pI[i] = (float) (valueI * cos + valueQ * sin);
+                    pQ[i] = (float) (valueQ * cos - valueI * sin);
+                } else {
+                    pI[i] = (float) valueI;
+                    pQ[i] = (float) valueQ;
+                }
+                pow[i] = (float) (valueI * valueI + valueQ * valueQ);
+            }
+        }
+        phasorI[index] = pI;
+        phasorQ[index] = pQ;
+        intensity[index] = pow;
+    }
+
+    public float[] getPhasorI(final int index) {
+        return phasorI[index];
+    }
+
+    public float[] getPhasorQ(final int index) {
+        return phasorQ[index];
+    }
+
+    public float[] getIntensity(final int index) {
+        return intensity[index];
+    }
+
+    /**
+     * Form the interferograms of pairs of acquisitions
+     *
+     * @param pairs acquisition indices as {first, second} per pair
+     */
+    public void formInterferograms(final int[][] pairs) {
+        this.pairs = pairs;
+        final int size = width * height;
+        ifgI = new float[pairs.length][size];
+        ifgQ = new float[pairs.length][size];
+        coherence = new float[pairs.length][];
+
+        for (int p = 0; p < pairs.length; ++p) {
+            final float[] i0 = phasorI[pairs[p][0]];
+            final float[] q0 = phasorQ[pairs[p][0]];
+            final float[] i1 = phasorI[pairs[p][1]];
+            final float[] q1 = phasorQ[pairs[p][1]];
+            final float[] outI = ifgI[p];
+            final float[] outQ = ifgQ[p];
+            for (int i = 0; i < size; ++i) {
+                outI[i] = (float) ((double) i0[i] * i1[i] + (double) q0[i] * q1[i]);
+                outQ[i] = (float) ((double) q0[i] * i1[i] - (double) i0[i] * q1[i]);
+            }
+        }
+    }
+
+    public float[] getInterferogramI(final int pair) {
+        return ifgI[pair];
+    }
+
+    public float[] getInterferogramQ(final int pair) {
+        return ifgQ[pair];
+    }
+
+    /**
+     * Estimate the coherence of all pairs with a moving window. The outputs have
+     * (width - winRg + 1) columns and (height - winAz + 1) rows, element (y, x) is the estimate over the
+     * window with its first row at y and its first column at x.
+     *
+     * @param winAz window size in azimuth
+     * @param winRg window size in range
+     */
+    public void computeCoherence(final int winAz, final int winRg) {
+        final int outWidth = width - winRg + 1;
+        final int outHeight = height - winAz + 1;
+        final int numPairs = pairs.length;
+        if (outWidth <= 0 || outHeight <= 0) {
+            return;
+        }
+
+        // acquisitions used by the pairs
+        final int numAcquisitions = intensity.length;
+        final int[] acqSlot = new int[numAcquisitions];
+        Arrays.fill(acqSlot, -1);
+        int numUsed = 0;
+        for (int[] pair : pairs) {
+            for (int a : pair) {
+                if (acqSlot[a] < 0) {
+                    acqSlot[a] = numUsed++;
+                }
+            }
+        }
+        final int[] usedAcq = new int[numUsed];
+        for (int a = 0; a < numAcquisitions; ++a) {
+            if (acqSlot[a] >= 0) {
+                usedAcq[acqSlot[a]] = a;
+            }
+        }
+
+        for (int p = 0; p < numPairs; ++p) {
+            coherence[p] = new float[outWidth * outHeight];
+        }
+
+        // column sums over the window rows: I and Q of each pair, then the intensity of each acquisition
+        final int stride = 2 * numPairs + numUsed;
+        final double[] colSums = new double[stride * width];
+        final double[] sums = new double[stride];
+
+        for (int oy = 0; oy < outHeight; ++oy) {
+            Arrays.fill(colSums, 0.0);
+            for (int r = oy; r < oy + winAz; ++r) {
+                final int offset = r * width;
+                for (int p = 0; p < numPairs; ++p) {
+                    final float[] rowI = ifgI[p];
+                    final float[] rowQ = ifgQ[p];
+                    for (int x = 0; x < width; ++x) {
+                        final int c = x * stride + 2 * p;
+                        colSums[c] += rowI[offset + x];
+                        colSums[c + 1] += rowQ[offset + x];
+                    }
+                }
+                for (int u = 0; u < numUsed; ++u) {
+                    final float[] pow = intensity[usedAcq[u]];
+                    final int k = 2 * numPairs + u;
+                    for (int x = 0; x < width; ++x) {
+                        colSums[x * stride + k] += pow[offset + x];
+                    }
+                }
+            }
+
+            final int outRow = oy * outWidth;
+            for (int ox = 0; ox < outWidth; ++ox) {
+                Arrays.fill(sums, 0.0);
+                for (int x = ox; x < ox + winRg; ++x) {
+                    final int c = x * stride;
+                    for (int k = 0; k < stride; ++k) {
+                        sums[k] += colSums[c + k];
+                    }
+                }
+                for (int p = 0; p < numPairs; ++p) {
+                    final double sumI = sums[2 * p];
+                    final double sumQ = sums[2 * p + 1];
+                    final double pow0 = sums[2 * numPairs + acqSlot[pairs[p][0]]];
+                    final double pow1 = sums[2 * numPairs + acqSlot[pairs[p][1]]];
+                    coherence[p][outRow + ox] = (float) Math.sqrt((sumI * sumI + sumQ * sumQ) / (pow0 * pow1));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the coherence of a pair, valid after computeCoherence
+     */
+    public float[] getCoherence(final int pair) {
+        return coherence[pair];
+    }
+}
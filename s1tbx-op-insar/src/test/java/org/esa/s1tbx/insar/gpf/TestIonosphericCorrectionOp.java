@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf;
+
+import org.esa.s1tbx.insar.gpf.support.RecursiveGaussian;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Recursive Gaussian filtering of synthetic ionospheric phase screens against the direct kernel
+ */
+public class TestIonosphericCorrectionOp {
+
+    private static final int targetSize = 64;
+
+    @Test
+    public void testImpulseResponse() {
+        final int size = 301;
+        final float[] data = new float[size * size];
+        data[(size / 2) * size + size / 2] = 1;
+
+        new RecursiveGaussian(20).filter(data, size, size);
+
+        double sum = 0, variance = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final double v = data[y * size + x];
+                sum += v;
+                variance += v * (x - size / 2) * (x - size / 2);
+            }
+        }
+        assertEquals(1.0, sum, 1e-3);
+        assertEquals(400.0, variance / sum, 8.0);
+    }
+
+    @Test
+    public void testFilter() {
+        checkFilter(10, 1, 2e-3);
+        checkFilter(25, 1, 2e-3);
+    }
+
+    @Test
+    public void testDecimatedFilter() {
+        checkFilter(20, 2, 5e-3);
+        checkFilter(40, 4, 5e-3);
+    }
+
+    private static void checkFilter(final int sigma, final int decimationFactor, final double tolerance) {
+        final int border = 4 * sigma;
+        final int size = targetSize + 2 * border;
+
+        final double[][] phase = new double[size][size];
+        final double[][] weights = new double[size][size];
+        createPhaseScreen(phase, weights, sigma);
+
+        final double[][] expected = filterDirect(phase, weights, sigma);
+
+        final float[] weightedData = new float[size * size];
+        final float[] weightData = new float[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                weightedData[y * size + x] = (float) (weights[y][x] * phase[y][x]);
+                weightData[y * size + x] = (float) weights[y][x];
+            }
+        }
+        final float[] filtered = IonosphericCorrectionOp.filter(weightedData, weightData, size, size, sigma,
+                decimationFactor, new Rectangle(border, border, targetSize, targetSize));
+
+        for (int y = 0; y < targetSize; y++) {
+            for (int x = 0; x < targetSize; x++) {
+                assertEquals(expected[y + border][x + border], filtered[y * targetSize + x], tolerance);
+            }
+        }
+    }
+
+    /**
+     * Smooth screen of a few radians with noise, weighted by a coherence with low coherence patches
+     */
+    private static void createPhaseScreen(final double[][] phase, final double[][] weights, final int sigma) {
+        final Random random = new Random(sigma);
+        final int size = phase.length;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                phase[y][x] = 3.0 * Math.sin(2 * Math.PI * x / (15.0 * sigma)) +
+                        2.0 * Math.cos(2 * Math.PI * y / (11.0 * sigma)) +
+                        1.5 * (x - size / 2.0) * (y - size / 2.0) / (size * size) +
+                        0.5 * random.nextGaussian();
+
+                final double coherence = 0.3 + 0.7 * random.nextDouble();
+                final boolean patch = ((x / sigma) + (y / sigma)) % 5 == 0;
+                weights[y][x] = (coherence < 0.6 || patch) ? 0.0 : coherence;
+            }
+        }
+    }
+
+    private static double[][] filterDirect(final double[][] data, final double[][] weights, final int sigma) {
+        final int size = data.length;
+        final double[][] weightedData = new double[size][size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                weightedData[y][x] = weights[y][x] * data[y][x];
+            }
+        }
+
+        final double[][] filteredData = convolveWithGaussian2D(weightedData, sigma);
+        final double[][] normalization = convolveWithGaussian2D(weights, sigma);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                filteredData[y][x] /= normalization[y][x];
+            }
+        }
+        return filteredData;
+    }
+
+    private static double[][] convolveWithGaussian2D(final double[][] data, final int sigma) {
+        final int size = data.length;
+        final double[][] result = new double[size][];
+        for (int y = 0; y < size; y++) {
+            result[y] = convolveWithGaussian1D(data[y], sigma);
+        }
+
+        final double[] column = new double[size];
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                column[y] = result[y][x];
+            }
+            final double[] filteredColumn = convolveWithGaussian1D(column, sigma);
+            for (int y = 0; y < size; y++) {
+                result[y][x] = filteredColumn[y];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Truncated kernel of 8 sigma + 1 taps, as used before the recursive filter
+     */
+    private static double[] convolveWithGaussian1D(final double[] data, final int sigma) {
+        final int size = data.length;
+        final double[] result = new double[size];
+        final int halfWin = 4 * sigma;
+        for (int i = halfWin; i < size - halfWin; i++) {
+            double sum = 0;
+            for (int r = -halfWin; r <= halfWin; r++) {
+                sum += Math.exp(-(r * r) / (2.0 * sigma * sigma)) * data[i + r];
+            }
+            result[i] = sum;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.ProductIO;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.datamodel.TiePointGeoCoding;
+import org.esa.snap.core.datamodel.TiePointGrid;
+import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.core.gpf.internal.OperatorExecutor;
+import org.esa.snap.core.util.ProductUtils;
+import org.esa.snap.core.util.io.FileUtils;
+import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
+import org.esa.snap.engine_utilities.datamodel.Unit;
+import org.esa.snap.engine_utilities.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Append mode of the StaMPS export on a synthetic stack and interferogram product
+ */
+public class TestStampsExportOp {
+
+    static {
+        TestUtils.initTestEnvironment();
+    }
+
+    private final static OperatorSpi spi = new StampsExportOp.Spi();
+
+    private static final int width = 600;
+    private static final int height = 20;
+    private static final String masterDate = "03Jan2020";
+    private static final String[] slaveDates = {"15Jan2020", "27Jan2020", "08Feb2020"};
+
+    // scene centre and orbit of a right looking ascending pass
+    private static final double lat0 = 45.0;
+    private static final double lon0 = 10.0;
+    private static final double orbitRadius = 7078000.0;
+    private static final double orbitLon = lon0 - 3.5;
+    private static final double velocity = 7500.0;
+    private static final double prf = 1652.4;
+    private static final double rangeSpacing = 7.8;
+
+    private File targetFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeTrue("Gamma writer not found", ProductIO.getProductWriter("Gamma") != null);
+
+        targetFolder = Files.createTempDirectory("stamps").toFile();
+
+        // the projected DEM needs SRTM tiles, it is given as exported by a previous export
+        final Path demFolder = targetFolder.toPath().resolve("dem");
+        Files.createDirectories(demFolder);
+        Files.write(demFolder.resolve("projected_dem.par"), "title: projected_dem\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(demFolder.resolve("projected_dem"), new byte[4 * 16]);
+        Files.write(targetFolder.toPath().resolve("exported_files.txt"), "dem/projected_dem\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() {
+        if (targetFolder != null) {
+            FileUtils.deleteTree(targetFolder);
+        }
+    }
+
+    @Test
+    public void testAppendSlave() throws Exception {
+        export(2);
+
+        final List<String> exported = readExportedFiles();
+        for (String name : new String[]{"rslc/20200103.rslc", "rslc/20200115.rslc", "rslc/20200127.rslc",
+                "diff0/20200103_20200115.diff", "diff0/20200103_20200127.diff",
+                "geo/elevation_dem.rdc", "geo/20200103.lat", "geo/20200103.lon", "dem/projected_dem"}) {
+            assertTrue(name + " not recorded", exported.contains(name));
+        }
+
+        // date the files back so that any rewrite shows
+        final Map<Path, Long> previous = new HashMap<>();
+        for (Path file : listFiles()) {
+            if (!file.getFileName().toString().equals("exported_files.txt")) {
+                final File f = file.toFile();
+                assertTrue(f.setLastModified(f.lastModified() - 3600 * 1000L));
+                previous.put(file, f.lastModified());
+            }
+        }
+
+        export(3);
+
+        for (Map.Entry<Path, Long> entry : previous.entrySet()) {
+            assertEquals(entry.getKey() + " written again", (long) entry.getValue(), entry.getKey().toFile().lastModified());
+        }
+
+        final List<Path> written = listFiles();
+        written.removeAll(previous.keySet());
+        for (Path file : written) {
+            final String name = targetFolder.toPath().relativize(file).toString().replace(File.separatorChar, '/');
+            assertTrue(name + " written", name.equals("exported_files.txt") ||
+                    name.startsWith("rslc/20200208.") || name.startsWith("diff0/20200103_20200208."));
+        }
+        for (String name : new String[]{"rslc/20200208.rslc", "rslc/20200208.rslc.par",
+                "diff0/20200103_20200208.diff", "diff0/20200103_20200208.diff.par", "diff0/20200103_20200208.base"}) {
+            assertTrue(name + " not written", new File(targetFolder, name).exists());
+        }
+
+        final List<String> appended = readExportedFiles();
+        assertTrue(appended.contains("rslc/20200208.rslc"));
+        assertTrue(appended.contains("diff0/20200103_20200208.diff"));
+        assertEquals(exported.size() + 2, appended.size());
+    }
+
+    @Test
+    public void testAbortedExportIsExportedAgain() throws Exception {
+        final String name = "rslc/20200115.rslc";
+        final File imageFile = new File(targetFolder, name);
+
+        // compute the first tile only, as an export interrupted after the first tile
+        final StampsExportOp op = createOperator(2);
+        try {
+            final RenderedImage image = op.getTargetProduct().getBand("i_20200115.rslc").getSourceImage();
+            assertTrue(image.getNumXTiles() > 1);
+            image.getTile(0, 0);
+        } finally {
+            op.dispose();
+        }
+
+        assertTrue(new File(targetFolder, name + ".par").exists());
+        assertEquals(0.0f, readLastSample(imageFile), 0.0f);
+        assertFalse(readExportedFiles().contains(name));
+
+        export(2);
+
+        assertTrue(readExportedFiles().contains(name));
+        assertEquals(getSample(width * height - 1), readLastSample(imageFile), 0.0f);
+    }
+
+    private void export(final int numSlaves) throws Exception {
+        final StampsExportOp op = createOperator(numSlaves);
+        try {
+            OperatorExecutor.create(op).execute(ProgressMonitor.NULL);
+        } finally {
+            op.dispose();
+        }
+    }
+
+    private StampsExportOp createOperator(final int numSlaves) throws Exception {
+        final StampsExportOp op = (StampsExportOp) spi.createOperator();
+        op.setSourceProducts(createStack(numSlaves), createInterferograms(numSlaves));
+        op.setParameter("targetFolder", targetFolder);
+        op.setParameter("appendToExisting", true);
+        return op;
+    }
+
+    private List<String> readExportedFiles() throws IOException {
+        return Files.readAllLines(targetFolder.toPath().resolve("exported_files.txt"), StandardCharsets.UTF_8);
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(targetFolder.toPath())) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    /**
+     * I part of the last sample of a complex image written by the Gamma writer
+     */
+    private static float readLastSample(final File imageFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(imageFile, "r")) {
+            file.seek(8L * (width * height - 1));
+            return file.readFloat();
+        }
+    }
+
+    private static float getSample(final int index) {
+        return 1.0f + index % 97;
+    }
+
+    private static Product createStack(final int numSlaves) throws Exception {
+        final Product product = createProduct("stack", numSlaves);
+        addComplexBand(product, "VV_mst_" + masterDate);
+        for (int i = 0; i < numSlaves; ++i) {
+            addComplexBand(product, "VV_slv" + (i + 1) + '_' + slaveDates[i]);
+        }
+        return product;
+    }
+
+    private static Product createInterferograms(final int numSlaves) throws Exception {
+        final Product product = createProduct("ifg", numSlaves);
+        for (int i = 0; i < numSlaves; ++i) {
+            addComplexBand(product, "ifg_VV_" + masterDate + '_' + slaveDates[i]);
+        }
+        addBand(product, "elevation", Unit.METERS, 250.0f);
+        addBand(product, "orthorectifiedLat", Unit.DEGREES, (float) lat0);
+        addBand(product, "orthorectifiedLon", Unit.DEGREES, (float) lon0);
+        return product;
+    }
+
+    private static void addComplexBand(final Product product, final String suffix) {
+        addBand(product, "i_" + suffix, Unit.REAL, 0.0f);
+        addBand(product, "q_" + suffix, Unit.IMAGINARY, -100.0f);
+    }
+
+    private static void addBand(final Product product, final String name, final String unit, final float offset) {
+        final float[] data = new float[width * height];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = offset + getSample(i);
+        }
+        final Band band = new Band(name, ProductData.TYPE_FLOAT32, width, height);
+        band.setUnit(unit);
+        band.setData(ProductData.createInstance(data));
+        product.addBand(band);
+    }
+
+    private static Product createProduct(final String name, final int numSlaves) throws Exception {
+        final Product product = new Product(name, "SLC", width, height);
+        product.setPreferredTileSize(256, height);
+
+        final ProductData.UTC firstLineTime = getFirstLineTime(masterDate);
+        product.setStartTime(firstLineTime);
+        product.setEndTime(new ProductData.UTC(firstLineTime.getMJD() + (height - 1) / prf / 86400.0));
+
+        final float latFirst = (float) (lat0 - 0.0004), latLast = (float) (lat0 + 0.0004);
+        final float lonNear = (float) (lon0 - 0.035), lonFar = (float) (lon0 + 0.035);
+        final float latMid = (float) lat0, lonMid = (float) lon0;
+        final TiePointGrid latGrid = new TiePointGrid("latitude", 3, 3, 0.5, 0.5,
+                (width - 1) / 2.0, (height - 1) / 2.0, new float[]{
+                latFirst, latFirst, latFirst, latMid, latMid, latMid, latLast, latLast, latLast});
+        final TiePointGrid lonGrid = new TiePointGrid("longitude", 3, 3, 0.5, 0.5,
+                (width - 1) / 2.0, (height - 1) / 2.0, new float[]{
+                lonNear, lonMid, lonFar, lonNear, lonMid, lonFar, lonNear, lonMid, lonFar});
+        product.addTiePointGrid(latGrid);
+        product.addTiePointGrid(lonGrid);
+        product.setSceneGeoCoding(new TiePointGeoCoding(latGrid, lonGrid));
+
+        final MetadataElement absRoot = AbstractMetadata.addAbstractedMetadataHeader(product.getMetadataRoot());
+        setAbstractedMetadata(absRoot, name, masterDate, orbitRadius);
+
+        final MetadataElement slaveRoot = AbstractMetadata.getSlaveMetadata(product.getMetadataRoot());
+        for (int i = 0; i < numSlaves; ++i) {
+            final MetadataElement slaveAbsRoot = AbstractMetadata.addAbstractedMetadataHeader(new MetadataElement("root"));
+            setAbstractedMetadata(slaveAbsRoot, name, slaveDates[i], orbitRadius + 150.0 * (i + 1));
+
+            final MetadataElement slaveMetadata = new MetadataElement(name + '_' + slaveDates[i]);
+            slaveRoot.addElement(slaveMetadata);
+            ProductUtils.copyMetadata(slaveAbsRoot, slaveMetadata);
+        }
+        return product;
+    }
+
+    private static ProductData.UTC getFirstLineTime(final String date) throws Exception {
+        return ProductData.UTC.parse(date + " 10:00:00", "ddMMMyyyy HH:mm:ss");
+    }
+
+    private static void setAbstractedMetadata(final MetadataElement absRoot, final String name, final String date,
+                                              final double radius) throws Exception {
+        final ProductData.UTC firstLineTime = getFirstLineTime(date);
+
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.PRODUCT, name + '_' + date);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.PRODUCT_TYPE, "SLC");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.MISSION, "ENVISAT");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.ACQUISITION_MODE, "IS2");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.PASS, "ASCENDING");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.SAMPLE_TYPE, "COMPLEX");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.REL_ORBIT, 351);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.ABS_ORBIT, 40000);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.coregistered_stack, 1);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.srgr_flag, 0);
+
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_line_time, firstLineTime);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.last_line_time,
+                new ProductData.UTC(firstLineTime.getMJD() + (height - 1) / prf / 86400.0));
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.line_time_interval, 1.0 / prf);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.pulse_repetition_frequency, prf);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.radar_frequency, 5331.004);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.range_sampling_rate, 19.20768);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.range_bandwidth, 16.0);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.azimuth_bandwidth, 1316.0);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.range_spacing, rangeSpacing);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.azimuth_spacing, 4.0);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.range_looks, 1);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.azimuth_looks, 1);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.num_samples_per_line, width);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.num_output_lines, height);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.subset_offset_x, 0);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.subset_offset_y, 0);
+
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_near_lat, lat0 - 0.0004);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_far_lat, lat0 - 0.0004);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.last_near_lat, lat0 + 0.0004);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.last_far_lat, lat0 + 0.0004);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_near_long, lon0 - 0.035);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_far_long, lon0 + 0.035);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.last_near_long, lon0 - 0.035);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.last_far_long, lon0 + 0.035);
+
+        // circular orbit in the meridian plane west of the scene, over the scene centre at the first line
+        final double[] target = getXYZ(lat0, lon0);
+        final double u0 = Math.atan2(target[2], Math.hypot(target[0], target[1]));
+        final double omega = velocity / radius;
+        final double cosLon = Math.cos(Math.toRadians(orbitLon));
+        final double sinLon = Math.sin(Math.toRadians(orbitLon));
+
+        final double[] sat = {radius * Math.cos(u0) * cosLon, radius * Math.cos(u0) * sinLon, radius * Math.sin(u0)};
+        final double slantRange = Math.sqrt((sat[0] - target[0]) * (sat[0] - target[0]) +
+                (sat[1] - target[1]) * (sat[1] - target[1]) + (sat[2] - target[2]) * (sat[2] - target[2]));
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.slant_range_to_first_pixel,
+                slantRange - width / 2.0 * rangeSpacing);
+
+        final MetadataElement orbitVectorListElem = absRoot.getElement(AbstractMetadata.orbit_state_vectors);
+        for (int i = 0; i < 10; ++i) {
+            final double dt = (i - 4) * 10.0;
+            final double u = u0 + omega * dt;
+
+            final MetadataElement orbitVectorElem = new MetadataElement(AbstractMetadata.orbit_vector + (i + 1));
+            orbitVectorElem.setAttributeUTC(AbstractMetadata.orbit_vector_time,
+                    new ProductData.UTC(firstLineTime.getMJD() + dt / 86400.0));
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_x_pos, radius * Math.cos(u) * cosLon);
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_y_pos, radius * Math.cos(u) * sinLon);
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_z_pos, radius * Math.sin(u));
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_x_vel, -velocity * Math.sin(u) * cosLon);
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_y_vel, -velocity * Math.sin(u) * sinLon);
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_z_vel, velocity * Math.cos(u));
+            orbitVectorListElem.addElement(orbitVectorElem);
+        }
+
+        // zero Doppler
+        final MetadataElement dopplerListElem = new MetadataElement(AbstractMetadata.dop_coef_list + ".1");
+        absRoot.getElement(AbstractMetadata.dop_coefficients).addElement(dopplerListElem);
+        dopplerListElem.setAttributeUTC(AbstractMetadata.dop_coef_time, firstLineTime);
+        AbstractMetadata.addAbstractedAttribute(dopplerListElem, AbstractMetadata.slant_range_time,
+                ProductData.TYPE_FLOAT64, "ns", "Slant Range Time");
+        AbstractMetadata.setAttribute(dopplerListElem, AbstractMetadata.slant_range_time, 0.0);
+        final MetadataElement coefElem = new MetadataElement(AbstractMetadata.coefficient + ".1");
+        dopplerListElem.addElement(coefElem);
+        AbstractMetadata.addAbstractedAttribute(coefElem, AbstractMetadata.dop_coef,
+                ProductData.TYPE_FLOAT64, "", "Doppler Centroid Coefficient");
+        AbstractMetadata.setAttribute(coefElem, AbstractMetadata.dop_coef, 0.0);
+    }
+
+    /**
+     * WGS84 geodetic latitude and longitude on the ellipsoid to earth centred coordinates
+     */
+    private static double[] getXYZ(final double lat, final double lon) {
+        final double a = 6378137.0;
+        final double e2 = 6.69437999014e-3;
+        final double phi = Math.toRadians(lat);
+        final double lambda = Math.toRadians(lon);
+        final double n = a / Math.sqrt(1.0 - e2 * Math.sin(phi) * Math.sin(phi));
+        return new double[]{n * Math.cos(phi) * Math.cos(lambda), n * Math.cos(phi) * Math.sin(lambda),
+                n * (1.0 - e2) * Math.sin(phi)};
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.coregistration;
+
+import org.esa.snap.core.datamodel.*;
+import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
+import org.esa.snap.engine_utilities.datamodel.Unit;
+import org.esa.snap.engine_utilities.util.TestUtils;
+import org.jlinda.core.Window;
+import org.jlinda.core.coregistration.CPM;
+import org.jlinda.core.coregistration.PolynomialModel;
+import org.junit.Test;
+
+import javax.media.jai.WarpPolynomial;
+import java.awt.Rectangle;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Warp solves shared by the bands of a slave product
+ */
+public class TestWarpOp {
+
+    static {
+        TestUtils.initTestEnvironment();
+    }
+
+    private final static OperatorSpi spi = new WarpOp.Spi();
+
+    private static final int width = 1000;
+    private static final int height = 800;
+
+    private static void addGCPs(final Band band, final boolean slave, final double offsetX, final double offsetY,
+                                final long seed) {
+        final ProductNodeGroup<Placemark> gcpGroup = GCPManager.instance().getGcpGroup(band);
+        final Random random = new Random(seed);
+        int i = 0;
+        for (int y = 50; y < height; y += 100) {
+            for (int x = 50; x < width; x += 100) {
+                double px = x, py = y;
+                if (slave) {
+                    px += offsetX + 2e-4 * x + 1e-7 * x * y + random.nextGaussian() * 0.05;
+                    py += offsetY - 1e-4 * y + random.nextGaussian() * 0.05;
+                }
+                gcpGroup.add(Placemark.createPointPlacemark(GcpDescriptor.getInstance(), "gcp_" + i, "GCP " + i,
+                                                            "", new PixelPos(px, py), null, null));
+                ++i;
+            }
+        }
+    }
+
+    private static CPM solve(final ProductNodeGroup<Placemark> masterGCPGroup,
+                             final ProductNodeGroup<Placemark> slaveGCPGroup) {
+        final CPM cpm = new CPM(2, 20, 1.95996398454005f, new Window(0, height, 0, width),
+                                masterGCPGroup, slaveGCPGroup);
+        cpm.computeCPM();
+        cpm.computeEstimationStats();
+        cpm.wrapJaiWarpPolynomial();
+        return cpm;
+    }
+
+    private static void addComplexBands(final Product product, final String suffix) {
+        final float[] data = new float[width * height];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = 1f + i % 17;
+        }
+        final Band bandI = product.addBand("i_" + suffix, ProductData.TYPE_FLOAT32);
+        bandI.setUnit(Unit.REAL);
+        bandI.setData(ProductData.createInstance(data));
+        final Band bandQ = product.addBand("q_" + suffix, ProductData.TYPE_FLOAT32);
+        bandQ.setUnit(Unit.IMAGINARY);
+        bandQ.setData(ProductData.createInstance(data.clone()));
+    }
+
+    private static void assertSameWarp(final CPM expected, final PolynomialModel warpData) {
+        assertTrue(warpData.isValid());
+        assertArrayEquals(expected.getJAIWarp().getXCoeffs(), warpData.getJAIWarp().getXCoeffs(), 0f);
+        assertArrayEquals(expected.getJAIWarp().getYCoeffs(), warpData.getJAIWarp().getYCoeffs(), 0f);
+    }
+
+    @Test
+    public void testSharedWarp() {
+        final Product product = new Product("stack", "SLC", width, height);
+        final Band mst = product.addBand("i_VV_mst_01Jan2020", ProductData.TYPE_FLOAT32);
+        final Band slvI = product.addBand("i_VV_slv1_13Jan2020", ProductData.TYPE_FLOAT32);
+        final Band slvQ = product.addBand("q_VV_slv1_13Jan2020", ProductData.TYPE_FLOAT32);
+        final Band slvVH = product.addBand("i_VH_slv1_13Jan2020", ProductData.TYPE_FLOAT32);
+        final Band slv2 = product.addBand("i_VV_slv2_25Jan2020", ProductData.TYPE_FLOAT32);
+
+        addGCPs(mst, false, 0, 0, 0);
+        addGCPs(slvI, true, 3.4, -1.7, 1);
+        addGCPs(slvQ, true, 3.4, -1.7, 1);
+        addGCPs(slvVH, true, 3.4, -1.7, 2);
+        addGCPs(slv2, true, -5.2, 8.3, 3);
+
+        final GCPManager gcpManager = GCPManager.instance();
+        final String keyI = WarpOp.getWarpKey("slv1", gcpManager.getGcpGroup(slvI));
+        assertEquals(keyI, WarpOp.getWarpKey("slv1", gcpManager.getGcpGroup(slvQ)));
+        assertNotEquals(keyI, WarpOp.getWarpKey("slv1", gcpManager.getGcpGroup(slvVH)));
+        assertNotEquals(keyI, WarpOp.getWarpKey("slv2", gcpManager.getGcpGroup(slvQ)));
+        assertNotEquals(keyI, WarpOp.getWarpKey("slv2", gcpManager.getGcpGroup(slv2)));
+
+        // the warp solved for I is exactly the warp a separate solve for Q would give
+        final ProductNodeGroup<Placemark> masterGCPGroup = gcpManager.getGcpGroup(mst);
+        final CPM shared = solve(masterGCPGroup, gcpManager.getGcpGroup(slvI));
+        final CPM separate = solve(masterGCPGroup, gcpManager.getGcpGroup(slvQ));
+        final WarpPolynomial sharedWarp = shared.getJAIWarp();
+        final WarpPolynomial separateWarp = separate.getJAIWarp();
+        assertArrayEquals(separateWarp.getXCoeffs(), sharedWarp.getXCoeffs(), 0f);
+        assertArrayEquals(separateWarp.getYCoeffs(), sharedWarp.getYCoeffs(), 0f);
+        assertEquals(separate.getNumObservations(), shared.getNumObservations());
+        assertEquals(separate.getRMSMean(), shared.getRMSMean(), 0.0);
+
+        // and it recovers the offset of the slave
+        final double[] pos = WarpResampler.mapPixel(sharedWarp, 500, 400);
+        assertEquals(500 + 3.4 + 0.1 + 0.02, pos[0], 0.05);
+        assertEquals(400 - 1.7 - 0.04, pos[1], 0.05);
+
+        gcpManager.removeAllGcpGroups();
+    }
+
+    @Test
+    public void testSharedWarpInOperator() {
+        final Product product = new Product("stack", "SLC", width, height);
+        addComplexBands(product, "VV_mst_01Jan2020");
+        addComplexBands(product, "VH_mst_01Jan2020");
+        addComplexBands(product, "VV_slv1_13Jan2020");
+        addComplexBands(product, "VH_slv1_13Jan2020");
+        addComplexBands(product, "VV_slv2_25Jan2020");
+
+        final MetadataElement absRoot = AbstractMetadata.addAbstractedMetadataHeader(product.getMetadataRoot());
+        absRoot.setAttributeString("processed_slave", "i_VV_slv1_13Jan2020");
+        final MetadataElement slaveRoot = AbstractMetadata.getSlaveMetadata(product.getMetadataRoot());
+        slaveRoot.setAttributeString(AbstractMetadata.MASTER_BANDS,
+                "i_VV_mst_01Jan2020 q_VV_mst_01Jan2020 i_VH_mst_01Jan2020 q_VH_mst_01Jan2020");
+        final MetadataElement slave1 = new MetadataElement("stack_13Jan2020");
+        slave1.setAttributeString(AbstractMetadata.SLAVE_BANDS,
+                "i_VV_slv1_13Jan2020 q_VV_slv1_13Jan2020 i_VH_slv1_13Jan2020 q_VH_slv1_13Jan2020");
+        slaveRoot.addElement(slave1);
+        final MetadataElement slave2 = new MetadataElement("stack_25Jan2020");
+        slave2.setAttributeString(AbstractMetadata.SLAVE_BANDS, "i_VV_slv2_25Jan2020 q_VV_slv2_25Jan2020");
+        slaveRoot.addElement(slave2);
+
+        // both polarisations of a slave carry the GCPs found on one of them, the Q bands carry none
+        final Band mst = product.getBand("i_VV_mst_01Jan2020");
+        addGCPs(mst, false, 0, 0, 0);
+        addGCPs(product.getBand("i_VV_slv1_13Jan2020"), true, 3.4, -1.7, 1);
+        addGCPs(product.getBand("i_VH_slv1_13Jan2020"), true, 3.4, -1.7, 1);
+        addGCPs(product.getBand("i_VV_slv2_25Jan2020"), true, -5.2, 8.3, 3);
+
+        final GCPManager gcpManager = GCPManager.instance();
+        try {
+            final ProductNodeGroup<Placemark> masterGCPGroup = gcpManager.getGcpGroup(mst);
+            final CPM separate1VV = solve(masterGCPGroup, gcpManager.getGcpGroup(product.getBand("i_VV_slv1_13Jan2020")));
+            final CPM separate1VH = solve(masterGCPGroup, gcpManager.getGcpGroup(product.getBand("i_VH_slv1_13Jan2020")));
+            final CPM separate2 = solve(masterGCPGroup, gcpManager.getGcpGroup(product.getBand("i_VV_slv2_25Jan2020")));
+
+            final WarpOp op = (WarpOp) spi.createOperator();
+            op.setSourceProduct(product);
+            final Product targetProduct = op.getTargetProduct();
+
+            // the warps are solved with the first tile
+            targetProduct.getBand("i_VH_slv1_13Jan2020").getSourceImage().getData(new Rectangle(0, 0, 64, 64));
+
+            final PolynomialModel warp1 = op.getBandWarpData(product.getBand("i_VV_slv1_13Jan2020"));
+            for (String name : new String[]{"i_VV_slv1_13Jan2020", "q_VV_slv1_13Jan2020",
+                    "i_VH_slv1_13Jan2020", "q_VH_slv1_13Jan2020"}) {
+                final PolynomialModel warpData = op.getBandWarpData(product.getBand(name));
+                assertSame(name, warp1, warpData);
+                assertSameWarp(separate1VV, warpData);
+                assertSameWarp(separate1VH, warpData);
+            }
+
+            final PolynomialModel warp2 = op.getBandWarpData(product.getBand("i_VV_slv2_25Jan2020"));
+            assertNotSame(warp1, warp2);
+            for (String name : new String[]{"i_VV_slv2_25Jan2020", "q_VV_slv2_25Jan2020"}) {
+                final PolynomialModel warpData = op.getBandWarpData(product.getBand(name));
+                assertSame(name, warp2, warpData);
+                assertSameWarp(separate2, warpData);
+            }
+        } finally {
+            gcpManager.removeAllGcpGroups();
+        }
+    }
+}
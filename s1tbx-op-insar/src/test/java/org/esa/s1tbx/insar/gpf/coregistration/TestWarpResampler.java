@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.coregistration;
+
+import org.esa.s1tbx.insar.gpf.support.JAIFunctions;
+import org.jlinda.core.coregistration.SimpleLUT;
+import org.junit.Test;
+
+import javax.media.jai.InterpolationTable;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TiledImage;
+import javax.media.jai.WarpGeneralPolynomial;
+import javax.media.jai.WarpPolynomial;
+import java.awt.*;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tile resampling through a warp polynomial with a fixed point kernel table
+ */
+public class TestWarpResampler {
+
+    private static final int width = 300;
+    private static final int height = 260;
+    private static final int numPhases = 1 << WarpResampler.SUBSAMPLE_BITS;
+
+    // a coregistration like warp: offset, scaling and a small quadratic term
+    private static final WarpPolynomial warp = new WarpGeneralPolynomial(
+            new float[]{3.37f, 1.0002f, 0.0011f, 2e-6f, -1e-6f, 3e-6f},
+            new float[]{-2.71f, -0.0013f, 0.9997f, -1e-6f, 2e-6f, 1e-6f});
+
+    private static float[] createLinearKernel() {
+        final float[] kernel = new float[numPhases * 2];
+        for (int p = 0; p < numPhases; ++p) {
+            kernel[2 * p] = 1f - p / (float) numPhases;
+            kernel[2 * p + 1] = p / (float) numPhases;
+        }
+        return kernel;
+    }
+
+    private static float[] createCubicKernel() {
+        final float[] kernel = new float[numPhases * 4];
+        for (int p = 0; p < numPhases; ++p) {
+            final double f = p / (double) numPhases;
+            for (int k = 0; k < 4; ++k) {
+                kernel[4 * p + k] = (float) cubic(Math.abs(k - 1 - f));
+            }
+        }
+        return kernel;
+    }
+
+    // cubic convolution with a = -0.5
+    private static double cubic(final double d) {
+        if (d < 1.0) {
+            return 1.5 * d * d * d - 2.5 * d * d + 1.0;
+        } else if (d < 2.0) {
+            return -0.5 * d * d * d + 2.5 * d * d - 4.0 * d + 2.0;
+        }
+        return 0.0;
+    }
+
+    private static float[] createImage(final boolean alongX) {
+        final float[] image = new float[width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image[y * width + x] = alongX ? x + 1 : y + 1;
+            }
+        }
+        return image;
+    }
+
+    private static float wave(final double x, final double y) {
+        return (float) (Math.sin(x * 0.21) * Math.cos(y * 0.17));
+    }
+
+    private static float[] crop(final float[] image, final Rectangle rect) {
+        final float[] data = new float[rect.width * rect.height];
+        for (int y = 0; y < rect.height; ++y) {
+            System.arraycopy(image, (rect.y + y) * width + rect.x, data, y * rect.width, rect.width);
+        }
+        return data;
+    }
+
+    private static float[] resample(final WarpResampler resampler, final float[] image, final Rectangle targetRect) {
+        final WarpResampler.TileWarp tileWarp = resampler.map(warp, targetRect);
+        final Rectangle srcRect = tileWarp.getSourceRectangle(width, height);
+        return tileWarp.resample(srcRect == null ? null : crop(image, srcRect), srcRect);
+    }
+
+    @Test
+    public void testPositions() {
+        // a ramp interpolated linearly returns the source position of each pixel
+        final WarpResampler resampler = new WarpResampler(createLinearKernel(), 2);
+        final float[] imageX = createImage(true);
+        final float[] imageY = createImage(false);
+
+        final Rectangle targetRect = new Rectangle(40, 30, 150, 101);
+        final float[] outX = resample(resampler, imageX, targetRect);
+        final float[] outY = resample(resampler, imageY, targetRect);
+        for (int y = 0; y < targetRect.height; ++y) {
+            for (int x = 0; x < targetRect.width; ++x) {
+                final double[] pos = WarpResampler.mapPixel(warp, targetRect.x + x, targetRect.y + y);
+                final int i = y * targetRect.width + x;
+                assertEquals(pos[0] + 1, outX[i], 1.0 / numPhases + 1e-3);
+                assertEquals(pos[1] + 1, outY[i], 1.0 / numPhases + 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testCubic() {
+        final WarpResampler resampler = new WarpResampler(createCubicKernel(), 4);
+        final float[] image = new float[width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image[y * width + x] = wave(x, y);
+            }
+        }
+
+        final Rectangle targetRect = new Rectangle(64, 64, 128, 128);
+        final float[] out = resample(resampler, image, targetRect);
+        for (int y = 0; y < targetRect.height; ++y) {
+            for (int x = 0; x < targetRect.width; ++x) {
+                final double[] pos = WarpResampler.mapPixel(warp, targetRect.x + x, targetRect.y + y);
+                assertEquals(wave(pos[0], pos[1]), out[y * targetRect.width + x], 5e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testSourceRectangle() {
+        // resampling from the source rectangle of the tile matches resampling from the whole image
+        final WarpResampler resampler = new WarpResampler(createCubicKernel(), 4);
+        final float[] image = createImage(true);
+        final Rectangle fullRect = new Rectangle(0, 0, width, height);
+
+        for (Rectangle targetRect : new Rectangle[]{new Rectangle(0, 0, 64, 64), new Rectangle(100, 80, 77, 33),
+                new Rectangle(236, 196, 64, 64), new Rectangle(0, 0, width, height)}) {
+            final WarpResampler.TileWarp tileWarp = resampler.map(warp, targetRect);
+            final Rectangle srcRect = tileWarp.getSourceRectangle(width, height);
+            assertTrue(fullRect.contains(srcRect));
+            assertArrayEquals(tileWarp.resample(image, fullRect), tileWarp.resample(crop(image, srcRect), srcRect), 0f);
+        }
+    }
+
+    @Test
+    public void testBorder() {
+        // footprints leaving the image are set to zero, the warp moves the image by about (3.4, -2.7)
+        final WarpResampler resampler = new WarpResampler(createCubicKernel(), 4);
+        final float[] image = createImage(true);
+
+        final Rectangle targetRect = new Rectangle(0, 0, 32, 32);
+        final float[] out = resample(resampler, image, targetRect);
+        for (int y = 0; y < targetRect.height; ++y) {
+            for (int x = 0; x < targetRect.width; ++x) {
+                final double[] pos = WarpResampler.mapPixel(warp, x, y);
+                final int ix = (int) Math.floor(pos[0]);
+                final int iy = (int) Math.floor(pos[1]);
+                final boolean inside = ix >= 1 && ix <= width - 3 && iy >= 1 && iy <= height - 3;
+                if (inside) {
+                    assertTrue(out[y * targetRect.width + x] > 0f);
+                } else {
+                    assertEquals(0f, out[y * targetRect.width + x], 0f);
+                }
+            }
+        }
+
+        // a tile mapped outside of the image
+        final WarpPolynomial outside = new WarpGeneralPolynomial(new float[]{5000f, 1f, 0f},
+                                                                 new float[]{0f, 0f, 1f});
+        final WarpResampler.TileWarp tileWarp = resampler.map(outside, targetRect);
+        assertNull(tileWarp.getSourceRectangle(width, height));
+        assertArrayEquals(new float[32 * 32], tileWarp.resample(null, null), 0f);
+    }
+
+    @Test
+    public void testIntegerShift() {
+        final WarpResampler resampler = new WarpResampler(createLinearKernel(), 2);
+        final float[] image = new float[width * height];
+        for (int i = 0; i < image.length; ++i) {
+            image[i] = i % 977;
+        }
+        final WarpPolynomial shift = new WarpGeneralPolynomial(new float[]{7f, 1f, 0f}, new float[]{-4f, 0f, 1f});
+
+        final Rectangle targetRect = new Rectangle(10, 10, 100, 100);
+        final WarpResampler.TileWarp tileWarp = resampler.map(shift, targetRect);
+        final Rectangle srcRect = tileWarp.getSourceRectangle(width, height);
+        final float[] out = tileWarp.resample(crop(image, srcRect), srcRect);
+        for (int y = 0; y < targetRect.height; ++y) {
+            for (int x = 0; x < targetRect.width; ++x) {
+                final int src = (targetRect.y + y - 4) * width + targetRect.x + x + 7;
+                assertEquals(image[src], out[y * targetRect.width + x], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void testJAIWarpCC4P() {
+        compareWithJAIWarp(SimpleLUT.CC4P);
+    }
+
+    @Test
+    public void testJAIWarpCC6P() {
+        compareWithJAIWarp(SimpleLUT.CC6P);
+    }
+
+    @Test
+    public void testJAIWarpTS8P() {
+        compareWithJAIWarp(SimpleLUT.TS8P);
+    }
+
+    /**
+     * Compare with the JAI warp through the same table, as WarpOp builds it. The image varies slowly, so the
+     * rare source positions that fall into another kernel phase than in the float positions of JAI stay within
+     * the tolerance, while a half pixel difference in the pixel centre convention would not.
+     */
+    private static void compareWithJAIWarp(final String method) {
+        final SimpleLUT lut = new SimpleLUT(method);
+        lut.constructLUT();
+        final int kernelLength = lut.getKernelLength();
+        final double[] lutArrayDoubles = lut.getKernelAsArray();
+        final float[] lutArrayFloats = new float[lutArrayDoubles.length];
+        for (int i = 0; i < lutArrayDoubles.length; ++i) {
+            lutArrayFloats[i] = (float) lutArrayDoubles[i];
+        }
+        final InterpolationTable interpTable = new InterpolationTable(kernelLength / 2 - 1, kernelLength,
+                WarpResampler.SUBSAMPLE_BITS, 32, lutArrayFloats);
+        final WarpResampler resampler = new WarpResampler(lutArrayFloats, kernelLength);
+
+        final float[] image = new float[width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image[y * width + x] = (float) (2.0 + Math.sin(0.006 * x + 0.3) * Math.cos(0.005 * y));
+            }
+        }
+        final SampleModel sampleModel = new BandedSampleModel(DataBuffer.TYPE_FLOAT, width, height, 1);
+        final TiledImage srcImage = new TiledImage(0, 0, width, height, 0, 0, sampleModel,
+                PlanarImage.createColorModel(sampleModel));
+        srcImage.setData(Raster.createWritableRaster(sampleModel, new DataBufferFloat(image, image.length), null));
+        final RenderedImage warpedImage = JAIFunctions.createWarpImage(warp, srcImage, null, interpTable);
+
+        for (Rectangle targetRect : new Rectangle[]{new Rectangle(0, 0, 64, 64), new Rectangle(100, 80, 77, 33),
+                new Rectangle(236, 196, 64, 64), new Rectangle(0, 200, 300, 60)}) {
+            final float[] expected = warpedImage.getData(targetRect).getSamples(
+                    targetRect.x, targetRect.y, targetRect.width, targetRect.height, 0, (float[]) null);
+            final float[] out = resample(resampler, image, targetRect);
+
+            int numBorder = 0;
+            for (int i = 0; i < out.length; ++i) {
+                // the image is positive, so zero is only set where the kernel footprint leaves the image
+                if (expected[i] == 0f) {
+                    assertEquals(0f, out[i], 0f);
+                    ++numBorder;
+                } else {
+                    assertEquals(expected[i], out[i], 1e-4);
+                }
+            }
+            if (targetRect.x == 0 && targetRect.y == 0) {
+                assertTrue(numBorder > 0);
+            }
+        }
+    }
+}
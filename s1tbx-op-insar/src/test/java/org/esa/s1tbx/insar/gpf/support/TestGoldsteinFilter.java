@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.support;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+import org.apache.commons.math3.util.FastMath;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.core.gpf.internal.TileImpl;
+import org.esa.snap.engine_utilities.gpf.TileIndex;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.Raster;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * GoldsteinFilter against the sliding window filtering of GoldsteinFilterOp before the filter, on a synthetic
+ * interferogram, and tiles computed with and without windows from the cache
+ */
+public class TestGoldsteinFilter {
+
+    private static final int width = 203;
+    private static final int height = 171;
+    private static final String bandName = "i_ifg";
+    private static final double noDataValue = 0.0;
+
+    private final float[] iData = new float[width * height];
+    private final float[] qData = new float[width * height];
+
+    public TestGoldsteinFilter() {
+        final Random random = new Random(42);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                final int i = y * width + x;
+                // fringes of increasing frequency with phase noise
+                final double phase = 0.002 * x * x + 0.05 * y + 0.0003 * x * y + 0.6 * random.nextGaussian();
+                final double amplitude = 50.0 + 20.0 * Math.sin(0.07 * x) * Math.cos(0.05 * y);
+                iData[i] = (float) (amplitude * Math.sin(phase));
+                qData[i] = (float) (amplitude * Math.cos(phase));
+            }
+        }
+
+        // no data in a corner, including windows without any valid sample
+        for (int y = 0; y < 45; ++y) {
+            for (int x = 0; x < 40; ++x) {
+                iData[y * width + x] = (float) noDataValue;
+                qData[y * width + x] = (float) noDataValue;
+            }
+        }
+    }
+
+    @Test
+    public void testFFT32() {
+        compare(32, 1.0, 3, 64, 48);
+    }
+
+    @Test
+    public void testFFT32OddTiles() {
+        compare(32, 0.5, 5, 77, 53);
+    }
+
+    @Test
+    public void testFFT64() {
+        compare(64, 1.0, 3, 128, 96);
+    }
+
+    @Test
+    public void testFFT64OddTiles() {
+        compare(64, 0.7, 7, 101, 67);
+    }
+
+    @Test
+    public void testCacheHitAndEviction() {
+        final int fftSize = 64;
+        final double alpha = 0.8;
+        final int halfWindowSize = 1;
+        final Rectangle left = new Rectangle(16, 48, 96, 96);
+        final Rectangle right = new Rectangle(112, 48, 91, 96);
+
+        // window of the left tile reaching into the right tile, on the grid of both tiles
+        final int sharedX = 80, sharedY = 16;
+
+        final float[][] cold = computeTile(new GoldsteinFilter(fftSize, alpha, halfWindowSize, 0),
+                bandName, fftSize, right);
+
+        final GoldsteinFilter hitFilter = new GoldsteinFilter(fftSize, alpha, halfWindowSize, 16);
+        computeTile(hitFilter, bandName, fftSize, left);
+        assertTrue(hitFilter.isCached(bandName, sharedX, sharedY));
+        final float[][] hit = computeTile(hitFilter, bandName, fftSize, right);
+
+        assertArrayEquals(cold[0], hit[0], 0.0f);
+        assertArrayEquals(cold[1], hit[1], 0.0f);
+
+        // a cache of one MB holds 28 windows of 64 x 64
+        final GoldsteinFilter evictFilter = new GoldsteinFilter(fftSize, alpha, halfWindowSize, 1);
+        computeTile(evictFilter, bandName, fftSize, left);
+        assertTrue(evictFilter.isCached(bandName, sharedX, sharedY));
+        for (int y = 0; y + fftSize <= height; y += fftSize) {
+            for (int x = 0; x + fftSize <= width; x += fftSize) {
+                computeTile(evictFilter, "q_ifg", fftSize, new Rectangle(x, y, fftSize, fftSize));
+            }
+        }
+        assertFalse(evictFilter.isCached(bandName, sharedX, sharedY));
+        final float[][] evicted = computeTile(evictFilter, bandName, fftSize, right);
+
+        assertArrayEquals(cold[0], evicted[0], 0.0f);
+        assertArrayEquals(cold[1], evicted[1], 0.0f);
+    }
+
+    private void compare(final int fftSize, final double alpha, final int windowSize,
+                         final int tileWidth, final int tileHeight) {
+        final int halfWindowSize = windowSize / 2;
+        final GoldsteinFilter filter = new GoldsteinFilter(fftSize, alpha, halfWindowSize, 16);
+
+        for (int y0 = 0; y0 < height; y0 += tileHeight) {
+            for (int x0 = 0; x0 < width; x0 += tileWidth) {
+                final Rectangle targetRectangle = new Rectangle(x0, y0,
+                        Math.min(tileWidth, width - x0), Math.min(tileHeight, height - y0));
+
+                final float[][] filtered = computeTile(filter, bandName, fftSize, targetRectangle);
+                final double[][] expected = new Reference(fftSize, alpha, halfWindowSize).computeTile(targetRectangle);
+
+                double scale = 0.0;
+                for (int k = 0; k < expected[0].length; ++k) {
+                    scale = Math.max(scale, Math.abs(expected[0][k]) + Math.abs(expected[1][k]));
+                }
+                // single against double precision FFT
+                final double delta = 1e-5 * scale;
+                for (int k = 0; k < expected[0].length; ++k) {
+                    assertEquals(expected[0][k], filtered[0][k], delta);
+                    assertEquals(expected[1][k], filtered[1][k], delta);
+                }
+            }
+        }
+    }
+
+    /**
+     * The tile loop of GoldsteinFilterOp.computeTileStack
+     */
+    private float[][] computeTile(final GoldsteinFilter filter, final String name, final int fftSize,
+                                  final Rectangle targetRectangle) {
+        final int x0 = targetRectangle.x;
+        final int y0 = targetRectangle.y;
+        final int w = targetRectangle.width;
+        final int h = targetRectangle.height;
+        final float[] iBandFiltered = new float[w * h];
+        final float[] qBandFiltered = new float[w * h];
+        if (w < fftSize || h < fftSize) {
+            return new float[][]{iBandFiltered, qBandFiltered};
+        }
+
+        final Rectangle sourceRectangle = getSourceRectangle(fftSize, x0, y0, w, h);
+        final int sx0 = sourceRectangle.x;
+        final int sy0 = sourceRectangle.y;
+        final int sw = sourceRectangle.width;
+        final int sh = sourceRectangle.height;
+
+        final Tile iBandRaster = createSourceTile(iData, sourceRectangle);
+        final Tile qBandRaster = createSourceTile(qData, sourceRectangle);
+        final ProductData iBandData = iBandRaster.getDataBuffer();
+        final ProductData qBandData = qBandRaster.getDataBuffer();
+        final TileIndex srcIndex = new TileIndex(iBandRaster);
+
+        final int stepSize = fftSize / 4;
+        final int syMax = FastMath.min(sy0 + sh - fftSize, height - fftSize);
+        final int sxMax = FastMath.min(sx0 + sw - fftSize, width - fftSize);
+        for (int y = sy0; y <= syMax; y += stepSize) {
+            for (int x = sx0; x <= sxMax; x += stepSize) {
+                filter.filterWindow(name, x, y, iBandData, qBandData, srcIndex, noDataValue,
+                        x0, y0, w, h, iBandFiltered, qBandFiltered);
+            }
+        }
+        return new float[][]{iBandFiltered, qBandFiltered};
+    }
+
+    private static Rectangle getSourceRectangle(final int fftSize, final int x0, final int y0, final int w, final int h) {
+        final int FFTSize3_4 = fftSize * 3 / 4;
+        final int sx0 = FastMath.max(x0 - FFTSize3_4, 0);
+        final int sy0 = FastMath.max(y0 - FFTSize3_4, 0);
+        final int sxMax = FastMath.min(x0 + w - 1 + FFTSize3_4, width - 1);
+        final int syMax = FastMath.min(y0 + h - 1 + FFTSize3_4, height - 1);
+        return new Rectangle(sx0, sy0, sxMax - sx0 + 1, syMax - sy0 + 1);
+    }
+
+    private static Tile createSourceTile(final float[] data, final Rectangle rectangle) {
+        final float[] samples = new float[rectangle.width * rectangle.height];
+        for (int y = 0; y < rectangle.height; ++y) {
+            System.arraycopy(data, (rectangle.y + y) * width + rectangle.x, samples, y * rectangle.width,
+                    rectangle.width);
+        }
+        final Raster raster = Raster.createWritableRaster(
+                new BandedSampleModel(DataBuffer.TYPE_FLOAT, rectangle.width, rectangle.height, 1),
+                new DataBufferFloat(samples, samples.length), new Point(rectangle.x, rectangle.y));
+        return new TileImpl(new Band(bandName, ProductData.TYPE_FLOAT32, width, height), raster);
+    }
+
+    /**
+     * The sliding window filtering of GoldsteinFilterOp before the filter
+     */
+    private class Reference {
+        private final int FFTSize;
+        private final int halfFFTSize;
+        private final double alpha;
+        private final int halfWindowSize;
+
+        Reference(final int fftSize, final double alpha, final int halfWindowSize) {
+            this.FFTSize = fftSize;
+            this.halfFFTSize = fftSize / 2;
+            this.alpha = alpha;
+            this.halfWindowSize = halfWindowSize;
+        }
+
+        double[][] computeTile(final Rectangle targetRectangle) {
+            final int x0 = targetRectangle.x;
+            final int y0 = targetRectangle.y;
+            final int w = targetRectangle.width;
+            final int h = targetRectangle.height;
+            final double[] iBandFiltered = new double[w * h];
+            final double[] qBandFiltered = new double[w * h];
+            if (w < FFTSize || h < FFTSize) {
+                return new double[][]{iBandFiltered, qBandFiltered};
+            }
+
+            final Rectangle sourceTileRectangle = getSourceRectangle(FFTSize, x0, y0, w, h);
+            final int sx0 = sourceTileRectangle.x;
+            final int sy0 = sourceTileRectangle.y;
+            final int sw = sourceTileRectangle.width;
+            final int sh = sourceTileRectangle.height;
+
+            final boolean[][] mask = new boolean[FFTSize][FFTSize];
+            final double[][] I = new double[FFTSize][FFTSize];
+            final double[][] Q = new double[FFTSize][FFTSize];
+            final double[][] specI = new double[FFTSize][FFTSize];
+            final double[][] specQ = new double[FFTSize][FFTSize];
+            final double[][] pwrSpec = new double[FFTSize][FFTSize];
+            final double[][] fltSpec = new double[FFTSize][FFTSize];
+            final int colMax = I[0].length;
+
+            final int stepSize = FFTSize / 4;
+            final int syMax = FastMath.min(sy0 + sh - FFTSize, height - FFTSize);
+            final int sxMax = FastMath.min(sx0 + sw - FFTSize, width - FFTSize);
+            for (int y = sy0; y <= syMax; y += stepSize) {
+                for (int x = sx0; x <= sxMax; x += stepSize) {
+
+                    getComplexImagettes(x, y, I, Q, mask);
+
+                    // check for no data value
+                    boolean allNoData = true;
+                    for (double[] aI : I) {
+                        for (int c = 0; c < colMax; ++c) {
+                            if (aI[c] != noDataValue) {
+                                allNoData = false;
+                                break;
+                            }
+                        }
+                        if (!allNoData)
+                            break;
+                    }
+                    if (allNoData) {
+                        continue;
+                    }
+
+                    perform2DFFT(I, Q, specI, specQ);
+
+                    getPowerSpectrum(specI, specQ, pwrSpec);
+
+                    getFilteredPowerSpectrum(pwrSpec, fltSpec);
+
+                    performInverse2DFFT(specI, specQ, fltSpec, I, Q);
+
+                    updateFilteredBands(x0, y0, w, h, x, y, I, Q, mask, iBandFiltered, qBandFiltered);
+                }
+            }
+            return new double[][]{iBandFiltered, qBandFiltered};
+        }
+
+        private void getComplexImagettes(final int x, final int y, final double[][] I, final double[][] Q,
+                                         final boolean[][] mask) {
+            final int maxY = y + FFTSize;
+            final int maxX = x + FFTSize;
+            for (int yy = y; yy < maxY; yy++) {
+                final int yidx = yy - y;
+                for (int xx = x; xx < maxX; xx++) {
+                    I[yidx][xx - x] = iData[yy * width + xx];
+                    Q[yidx][xx - x] = qData[yy * width + xx];
+                    mask[yidx][xx - x] = I[yidx][xx - x] != noDataValue;
+                }
+            }
+        }
+
+        private void perform2DFFT(final double[][] I, final double[][] Q,
+                                  final double[][] specI, final double[][] specQ) {
+
+            final int rowMax = I.length;
+            final int colMax = I[0].length;
+
+            // perform 1-D FFT to each row
+            final int rowFFTSize = colMax;
+            final int colFFTSize = rowMax;
+            final DoubleFFT_1D row_fft = new DoubleFFT_1D(rowFFTSize);
+            final double[][] complexDataI = new double[colFFTSize][rowFFTSize];
+            final double[][] complexDataQ = new double[colFFTSize][rowFFTSize];
+            final double[] rowArray = new double[2 * rowFFTSize];
+            for (int r = 0; r < rowMax; r++) {
+                int k = 0;
+                for (int c = 0; c < colMax; c++) {
+                    rowArray[k++] = Q[r][c];
+                    rowArray[k++] = I[r][c];
+                }
+                row_fft.complexForward(rowArray);
+                for (int c = 0; c < rowFFTSize; c++) {
+                    complexDataQ[r][c] = rowArray[c + c];
+                    complexDataI[r][c] = rowArray[c + c + 1];
+                }
+            }
+
+            // perform 1-D FFT to each column
+            final DoubleFFT_1D col_fft = new DoubleFFT_1D(colFFTSize);
+            final double[] colArray = new double[2 * colFFTSize];
+            for (int c = 0; c < colMax; c++) {
+                int k = 0;
+                for (int r = 0; r < rowMax; r++) {
+                    colArray[k++] = complexDataQ[r][c];
+                    colArray[k++] = complexDataI[r][c];
+                }
+                col_fft.complexForward(colArray);
+                for (int r = 0; r < colFFTSize; r++) {
+                    specQ[r][c] = colArray[r + r];
+                    specI[r][c] = colArray[r + r + 1];
+                }
+            }
+        }
+
+        private void getPowerSpectrum(final double[][] specI, final double[][] specQ, final double[][] pwrSpec) {
+
+            final int rowMax = specI.length;
+            final int colMax = specI[0].length;
+
+            for (int r = 0; r < rowMax; r++) {
+                for (int c = 0; c < colMax; c++) {
+                    pwrSpec[r][c] = Math.sqrt(specI[r][c] * specI[r][c] + specQ[r][c] * specQ[r][c]);
+                }
+            }
+        }
+
+        private void getFilteredPowerSpectrum(final double[][] pwrSpec, final double[][] fltSpec) {
+
+            final int rowMax = pwrSpec.length;
+            final int colMax = pwrSpec[0].length;
+
+            for (int r = 0; r < rowMax; r++) {
+                final int jMin = Math.max(0, r - halfWindowSize);
+                final int jMax = Math.min(rowMax - 1, r + halfWindowSize);
+                for (int c = 0; c < colMax; c++) {
+                    double sum = 0;
+                    int k = 0;
+                    final int iMin = Math.max(0, c - halfWindowSize);
+                    final int iMax = Math.min(colMax - 1, c + halfWindowSize);
+                    for (int j = jMin; j <= jMax; j++) {
+                        for (int i = iMin; i <= iMax; i++) {
+                            if (pwrSpec[j][i] != noDataValue) {
+                                sum += pwrSpec[j][i];
+                                k++;
+                            }
+                        }
+                    }
+                    if (k != 0) {
+                        fltSpec[r][c] = FastMath.pow(sum / k, alpha);
+                    } else {
+                        fltSpec[r][c] = 0;
+                    }
+                }
+            }
+        }
+
+        private void performInverse2DFFT(final double[][] specI, final double[][] specQ, final double[][] fltSpec,
+                                         final double[][] I, final double[][] Q) {
+
+            final int rowMax = I.length;
+            final int colMax = I[0].length;
+
+            final int rowFFTSize = colMax;
+            final int colFFTSize = rowMax;
+            final double[][] complexDataI = new double[colFFTSize][rowFFTSize];
+            final double[][] complexDataQ = new double[colFFTSize][rowFFTSize];
+
+            // perform 1-D FFT to each column
+            final DoubleFFT_1D col_fft = new DoubleFFT_1D(colFFTSize);
+            final double[] colArray = new double[2 * colFFTSize];
+            for (int c = 0; c < colMax; c++) {
+                int k = 0;
+                for (int r = 0; r < rowMax; r++) {
+                    colArray[k++] = specQ[r][c] * fltSpec[r][c];
+                    colArray[k++] = specI[r][c] * fltSpec[r][c];
+                }
+                col_fft.complexInverse(colArray, false);
+                for (int r = 0; r < colFFTSize; r++) {
+                    complexDataQ[r][c] = colArray[r + r];
+                    complexDataI[r][c] = colArray[r + r + 1];
+                }
+            }
+
+            // perform 1-D FFT to each row
+            final DoubleFFT_1D row_fft = new DoubleFFT_1D(rowFFTSize);
+            final double[] rowArray = new double[2 * rowFFTSize];
+            for (int r = 0; r < rowMax; r++) {
+                int k = 0;
+                for (int c = 0; c < colMax; c++) {
+                    rowArray[k++] = complexDataQ[r][c];
+                    rowArray[k++] = complexDataI[r][c];
+                }
+                row_fft.complexInverse(rowArray, false);
+                for (int c = 0; c < rowFFTSize; c++) {
+                    Q[r][c] = rowArray[c + c];
+                    I[r][c] = rowArray[c + c + 1];
+                }
+            }
+        }
+
+        private void updateFilteredBands(final int x0, final int y0, final int w, final int h,
+                                         final int x, final int y, final double[][] I, final double[][] Q,
+                                         final boolean[][] mask,
+                                         final double[] iBandFiltered, final double[] qBandFiltered) {
+
+            final int xSt = FastMath.max(x, x0);
+            final int ySt = FastMath.max(y, y0);
+            final int xEd = FastMath.min(x + FFTSize, x0 + w);
+            final int yEd = FastMath.min(y + FFTSize, y0 + h);
+            for (int yy = ySt; yy < yEd; yy++) {
+                final int yi = yy - y;
+                final int yw = (yy - y0) * w;
+                final double weightY = (1 - Math.abs(yy - y - halfFFTSize + 0.5) / halfFFTSize);
+                for (int xx = xSt; xx < xEd; xx++) {
+
+                    if (!mask[yi][xx - x]) {
+                        continue;
+                    }
+
+                    final double weight = (1 - Math.abs(xx - x - halfFFTSize + 0.5) / halfFFTSize) * weightY;
+
+                    final int k = yw + (xx - x0);
+                    iBandFiltered[k] += I[yi][xx - x] * weight;
+                    qBandFiltered[k] += Q[yi][xx - x] * weight;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.support;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Interferogram and coherence of the kernel against a direct evaluation
+ */
+public class TestInterferogramKernel {
+
+    private static final int width = 37;
+    private static final int height = 29;
+
+    // degree 2 flat earth polynomial
+    private static final double[] coeffs = {0.3, -1.2, 2.5, 0.05, -0.4, 0.7};
+    private static final int xMin = 100, yMin = 40;
+    private static final int minPixel = 0, maxPixel = 999, minLine = 0, maxLine = 499;
+
+    private final float[] mstI = new float[width * height];
+    private final float[] mstQ = new float[width * height];
+    private final float[] slvI = new float[width * height];
+    private final float[] slvQ = new float[width * height];
+    private final double[][] topoPhase = new double[height][width];
+
+    public TestInterferogramKernel() {
+        final Random random = new Random(42);
+        for (int i = 0; i < width * height; ++i) {
+            mstI[i] = (float) random.nextGaussian() * 100f;
+            mstQ[i] = (float) random.nextGaussian() * 100f;
+            slvI[i] = 0.8f * mstI[i] + (float) random.nextGaussian() * 40f;
+            slvQ[i] = 0.8f * mstQ[i] + (float) random.nextGaussian() * 40f;
+        }
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                topoPhase[y][x] = 0.01 * x * y - 0.3 * y;
+            }
+        }
+    }
+
+    private static double flatEarthPhase(final int x, final int y) {
+        final double az = (y - 0.5 * (minLine + maxLine)) / (0.25 * (maxLine - minLine));
+        final double rg = (x - 0.5 * (minPixel + maxPixel)) / (0.25 * (maxPixel - minPixel));
+        return coeffs[0] + coeffs[1] * az + coeffs[2] * rg +
+                coeffs[3] * az * az + coeffs[4] * az * rg + coeffs[5] * rg * rg;
+    }
+
+    private double[][] expectedInterferogram() {
+        final double[][] ifg = new double[2][width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                final int i = y * width + x;
+                final double phase = flatEarthPhase(xMin + x, yMin + y) + topoPhase[y][x];
+                final double sr = slvI[i] * Math.cos(phase) - slvQ[i] * Math.sin(phase);
+                final double si = slvI[i] * Math.sin(phase) + slvQ[i] * Math.cos(phase);
+                ifg[0][i] = mstI[i] * sr + mstQ[i] * si;
+                ifg[1][i] = mstQ[i] * sr - mstI[i] * si;
+            }
+        }
+        return ifg;
+    }
+
+    private InterferogramKernel createKernel() {
+        final InterferogramKernel kernel = InterferogramKernel.get(width, height);
+        kernel.setData(mstI, mstQ, slvI, slvQ);
+        kernel.addFlatEarthPhase(coeffs, xMin, yMin, minPixel, maxPixel, minLine, maxLine);
+        kernel.addPhase(topoPhase);
+        kernel.formInterferogram();
+        return kernel;
+    }
+
+    @Test
+    public void testInterferogram() {
+        final InterferogramKernel kernel = createKernel();
+        final double[][] expected = expectedInterferogram();
+
+        final float[] ifgI = kernel.getInterferogramI();
+        final float[] ifgQ = kernel.getInterferogramQ();
+        for (int i = 0; i < width * height; ++i) {
+            final double tolerance = 1e-5 * (Math.abs(expected[0][i]) + Math.abs(expected[1][i]) + 1);
+            assertEquals(expected[0][i], ifgI[i], tolerance);
+            assertEquals(expected[1][i], ifgQ[i], tolerance);
+        }
+    }
+
+    @Test
+    public void testCoherence() {
+        final int winAz = 5, winRg = 7;
+        final InterferogramKernel kernel = createKernel();
+        final double[][] ifg = expectedInterferogram();
+
+        final float[] coherence = kernel.computeCoherence(winAz, winRg);
+        final int outWidth = width - winRg + 1;
+        final int outHeight = height - winAz + 1;
+        for (int oy = 0; oy < outHeight; ++oy) {
+            for (int ox = 0; ox < outWidth; ++ox) {
+                double sumI = 0, sumQ = 0, powM = 0, powS = 0;
+                for (int y = oy; y < oy + winAz; ++y) {
+                    for (int x = ox; x < ox + winRg; ++x) {
+                        final int i = y * width + x;
+                        sumI += ifg[0][i];
+                        sumQ += ifg[1][i];
+                        powM += mstI[i] * mstI[i] + mstQ[i] * mstQ[i];
+                        powS += slvI[i] * slvI[i] + slvQ[i] * slvQ[i];
+                    }
+                }
+                final double expected = Math.hypot(sumI, sumQ) / Math.sqrt(powM * powS);
+                assertEquals(expected, coherence[oy * outWidth + ox], 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testNoPhase() {
+        final InterferogramKernel kernel = InterferogramKernel.get(width, height);
+        kernel.setData(mstI, mstQ, slvI, slvQ);
+        kernel.formInterferogram();
+
+        final float[] ifgI = kernel.getInterferogramI();
+        final float[] ifgQ = kernel.getInterferogramQ();
+        for (int i = 0; i < width * height; ++i) {
+            final double re = mstI[i] * (double) slvI[i] + mstQ[i] * (double) slvQ[i];
+            final double im = mstQ[i] * (double) slvI[i] - mstI[i] * (double) slvQ[i];
+            assertEquals(re, ifgI[i], 1e-5 * (Math.abs(re) + 1));
+            assertEquals(im, ifgQ[i], 1e-5 * (Math.abs(im) + 1));
+        }
+    }
+}
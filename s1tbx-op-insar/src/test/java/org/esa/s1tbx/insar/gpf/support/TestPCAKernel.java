@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.support;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Block statistics and projection of PCAKernel against the per pixel sums and projection PCAOp used before,
+ * on a synthetic stack of 50 correlated bands
+ */
+public class TestPCAKernel {
+
+    private static final int numBands = 50;
+    private static final int width = 520;
+    private static final int height = 400;
+    private static final int tileSize = 256;
+
+    @Test
+    public void testCovariance() throws Exception {
+        final float[][] stack = createCorrelatedStack(numBands, width, height, 1000.0, 11);
+        checkCovariance(stack, null);
+    }
+
+    @Test
+    public void testCovarianceWithMeanImage() throws Exception {
+        final float[][] stack = createCorrelatedStack(numBands, width, height, 1000.0, 13);
+        final float[] meanImage = new float[width * height];
+        for (int k = 0; k < meanImage.length; k++) {
+            double sum = 0;
+            for (float[] band : stack) {
+                sum += band[k];
+            }
+            meanImage[k] = (float) (sum / numBands);
+        }
+        checkCovariance(stack, meanImage);
+    }
+
+    @Test
+    public void testLargeOffset() {
+        // small variations on a large offset, where sums of squares lose the covariance
+        final float[][] stack = createCorrelatedStack(3, width, height, 1.0e5, 17);
+        final int n = width * height;
+
+        final PCAKernel.Covariance covariance = new PCAKernel.Covariance(3);
+        final ProductData[] samples = new ProductData[3];
+        for (int b = 0; b < 3; b++) {
+            samples[b] = createFloatData(stack[b]);
+        }
+        final float[][] block = new float[3][PCAKernel.CHUNK_SIZE];
+        for (int k = 0; k < n; k += PCAKernel.CHUNK_SIZE) {
+            final int length = Math.min(PCAKernel.CHUNK_SIZE, n - k);
+            PCAKernel.unpack(samples, null, k, length, block);
+            covariance.accumulate(block, length);
+        }
+
+        // two pass covariance
+        final double[] mean = new double[3];
+        for (int b = 0; b < 3; b++) {
+            for (float v : stack[b]) {
+                mean[b] += v;
+            }
+            mean[b] /= n;
+        }
+        final double[][] cov = covariance.getCovariance();
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                double expected = 0;
+                for (int k = 0; k < n; k++) {
+                    expected += (stack[i][k] - mean[i]) * (stack[j][k] - mean[j]);
+                }
+                expected /= n;
+                assertEquals(expected, cov[i][j], Math.abs(expected) * 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testProjection() {
+        final float[][] stack = createCorrelatedStack(numBands, width, height, 1000.0, 19);
+        final double[][] eigenVectors = createOrthonormalMatrix(numBands, 23);
+        final ProductData[] samples = new ProductData[numBands];
+        for (int b = 0; b < numBands; b++) {
+            samples[b] = createFloatData(stack[b]);
+        }
+
+        for (int numPCA : new int[]{1, 5, numBands}) {
+            final int n = width * height;
+            final float[][] block = new float[numBands][PCAKernel.CHUNK_SIZE];
+            final double[][] vPCA = new double[numPCA][PCAKernel.CHUNK_SIZE];
+            final double[] minPCA = new double[numPCA];
+            java.util.Arrays.fill(minPCA, Double.MAX_VALUE);
+            for (int k = 0; k < n; k += PCAKernel.CHUNK_SIZE) {
+                final int length = Math.min(PCAKernel.CHUNK_SIZE, n - k);
+                PCAKernel.unpack(samples, null, k, length, block);
+                PCAKernel.project(block, length, eigenVectors, numPCA, vPCA);
+
+                for (int i = 0; i < numPCA; i++) {
+                    for (int p = 0; p < length; p++) {
+                        // the per pixel projection of PCAOp
+                        double expected = 0.0;
+                        for (int j = 0; j < numBands; j++) {
+                            expected += samples[j].getElemDoubleAt(k + p) * eigenVectors[j][i];
+                        }
+                        assertEquals(expected, vPCA[i][p], 0.0);
+                        minPCA[i] = Math.min(minPCA[i], vPCA[i][p]);
+                    }
+                }
+            }
+            for (int i = 0; i < numPCA; i++) {
+                assertEquals(referenceMin(samples, eigenVectors, i), minPCA[i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testUnpack() {
+        final int n = 1000;
+        final Random random = new Random(29);
+        final int[] types = {ProductData.TYPE_INT16, ProductData.TYPE_UINT16, ProductData.TYPE_INT32,
+                ProductData.TYPE_FLOAT32, ProductData.TYPE_FLOAT64};
+        final ProductData[] samples = new ProductData[types.length];
+        for (int b = 0; b < types.length; b++) {
+            samples[b] = ProductData.createInstance(types[b], n);
+            for (int k = 0; k < n; k++) {
+                samples[b].setElemDoubleAt(k, types[b] == ProductData.TYPE_UINT16 ?
+                        random.nextInt(65536) : random.nextInt(65536) - 32768);
+            }
+        }
+        final ProductData meanImage = ProductData.createInstance(ProductData.TYPE_FLOAT32, n);
+        for (int k = 0; k < n; k++) {
+            meanImage.setElemDoubleAt(k, random.nextInt(100));
+        }
+
+        final float[][] block = new float[types.length][PCAKernel.CHUNK_SIZE];
+        for (ProductData mean : new ProductData[]{null, meanImage}) {
+            for (int k = 0; k < n; k += PCAKernel.CHUNK_SIZE) {
+                final int length = Math.min(PCAKernel.CHUNK_SIZE, n - k);
+                PCAKernel.unpack(samples, mean, k, length, block);
+                for (int b = 0; b < types.length; b++) {
+                    for (int p = 0; p < length; p++) {
+                        final double expected = samples[b].getElemDoubleAt(k + p) -
+                                (mean == null ? 0.0 : mean.getElemDoubleAt(k + p));
+                        assertEquals(expected, block[b][p], 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void checkCovariance(final float[][] stack, final float[] meanImage) throws Exception {
+        final int bands = stack.length;
+        final List<Rectangle> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                tiles.add(new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+            }
+        }
+
+        // sums and cross sums of PCAOp
+        final double[] sum = new double[bands];
+        final double[][] sumCross = new double[bands][bands];
+        for (Rectangle tile : tiles) {
+            final ProductData[] samples = getTileSamples(stack, tile);
+            final ProductData meanSamples = meanImage != null ? getTileSamples(new float[][]{meanImage}, tile)[0] : null;
+            final int n = samples[0].getNumElems();
+            for (int i = 0; i < bands; i++) {
+                for (int j = 0; j <= i; j++) {
+                    for (int k = 0; k < n; k++) {
+                        final double vm = meanSamples != null ? meanSamples.getElemDoubleAt(k) : 0.0;
+                        final double vi = samples[i].getElemDoubleAt(k) - vm;
+                        final double vj = samples[j].getElemDoubleAt(k) - vm;
+                        if (j == i) {
+                            sum[i] += vi;
+                        }
+                        sumCross[i][j] += vi * vj;
+                    }
+                }
+            }
+        }
+        final int numOfPixels = width * height;
+
+        // per thread partials as in PCAOp
+        final List<PCAKernel.Covariance> partials = Collections.synchronizedList(new ArrayList<>());
+        final ThreadLocal<PCAKernel.Covariance> threadCovariance = ThreadLocal.withInitial(() -> {
+            final PCAKernel.Covariance partial = new PCAKernel.Covariance(bands);
+            partials.add(partial);
+            return partial;
+        });
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (Rectangle tile : tiles) {
+                futures.add(executor.submit(() -> {
+                    final ProductData[] samples = getTileSamples(stack, tile);
+                    final ProductData meanSamples =
+                            meanImage != null ? getTileSamples(new float[][]{meanImage}, tile)[0] : null;
+                    final float[][] block = new float[bands][PCAKernel.CHUNK_SIZE];
+                    final int n = samples[0].getNumElems();
+                    for (int k = 0; k < n; k += PCAKernel.CHUNK_SIZE) {
+                        final int length = Math.min(PCAKernel.CHUNK_SIZE, n - k);
+                        PCAKernel.unpack(samples, meanSamples, k, length, block);
+                        threadCovariance.get().accumulate(block, length);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        final PCAKernel.Covariance covariance = PCAKernel.Covariance.merge(partials);
+        assertEquals(numOfPixels, covariance.getCount());
+
+        final double[] mean = covariance.getMean();
+        final double[][] cov = covariance.getCovariance();
+        double scale = 0;
+        for (int i = 0; i < bands; i++) {
+            scale = Math.max(scale, cov[i][i]);
+        }
+        for (int i = 0; i < bands; i++) {
+            final double expectedMean = sum[i] / numOfPixels;
+            assertEquals(expectedMean, mean[i], Math.abs(expectedMean) * 1e-12 + 1e-9);
+            for (int j = 0; j < bands; j++) {
+                final double meanCross = (i >= j ? sumCross[i][j] : sumCross[j][i]) / numOfPixels;
+                final double expected = meanCross - (sum[i] / numOfPixels) * (sum[j] / numOfPixels);
+                assertEquals(expected, cov[i][j], scale * 1e-9);
+            }
+        }
+    }
+
+    private static double referenceMin(final ProductData[] samples, final double[][] eigenVectors, final int i) {
+        double min = Double.MAX_VALUE;
+        final int n = samples[0].getNumElems();
+        for (int k = 0; k < n; k++) {
+            double vPCA = 0.0;
+            for (int j = 0; j < samples.length; j++) {
+                vPCA += samples[j].getElemDoubleAt(k) * eigenVectors[j][i];
+            }
+            if (vPCA < min)
+                min = vPCA;
+        }
+        return min;
+    }
+
+    private static ProductData[] getTileSamples(final float[][] stack, final Rectangle tile) {
+        final ProductData[] samples = new ProductData[stack.length];
+        for (int b = 0; b < stack.length; b++) {
+            final float[] data = new float[tile.width * tile.height];
+            for (int y = 0; y < tile.height; y++) {
+                System.arraycopy(stack[b], (tile.y + y) * width + tile.x, data, y * tile.width, tile.width);
+            }
+            samples[b] = createFloatData(data);
+        }
+        return samples;
+    }
+
+    private static ProductData createFloatData(final float[] data) {
+        final ProductData productData = ProductData.createInstance(ProductData.TYPE_FLOAT32, 0);
+        productData.setElems(data);
+        return productData;
+    }
+
+    /**
+     * Bands mixing a few smooth latent images of different strength, plus noise and a band dependent offset
+     */
+    private static float[][] createCorrelatedStack(final int bands, final int w, final int h, final double offset,
+                                                   final long seed) {
+        final Random random = new Random(seed);
+        final int numFactors = 4;
+        final double[] factorStd = {40.0, 20.0, 10.0, 5.0};
+        final double[][] loadings = new double[bands][numFactors];
+        final double[] offsets = new double[bands];
+        for (int b = 0; b < bands; b++) {
+            for (int f = 0; f < numFactors; f++) {
+                loadings[b][f] = random.nextGaussian();
+            }
+            offsets[b] = offset * (1.0 + 0.1 * random.nextDouble());
+        }
+        final double[][] phases = new double[numFactors][2];
+        for (int f = 0; f < numFactors; f++) {
+            phases[f][0] = random.nextDouble() * 2 * Math.PI;
+            phases[f][1] = random.nextDouble() * 2 * Math.PI;
+        }
+
+        final float[][] stack = new float[bands][w * h];
+        final double[] factors = new double[numFactors];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                for (int f = 0; f < numFactors; f++) {
+                    factors[f] = factorStd[f] * (Math.sin(x * (f + 1) * 0.013 + phases[f][0]) +
+                            Math.cos(y * (f + 2) * 0.011 + phases[f][1]) + 0.5 * random.nextGaussian());
+                }
+                for (int b = 0; b < bands; b++) {
+                    double v = offsets[b] + random.nextGaussian();
+                    for (int f = 0; f < numFactors; f++) {
+                        v += loadings[b][f] * factors[f];
+                    }
+                    stack[b][y * w + x] = (float) v;
+                }
+            }
+        }
+        return stack;
+    }
+
+    private static double[][] createOrthonormalMatrix(final int n, final long seed) {
+        final Random random = new Random(seed);
+        final double[][] columns = new double[n][n];
+        for (int c = 0; c < n; c++) {
+            for (int r = 0; r < n; r++) {
+                columns[c][r] = random.nextGaussian();
+            }
+            for (int p = 0; p < c; p++) {
+                double dot = 0;
+                for (int r = 0; r < n; r++) {
+                    dot += columns[c][r] * columns[p][r];
+                }
+                for (int r = 0; r < n; r++) {
+                    columns[c][r] -= dot * columns[p][r];
+                }
+            }
+            double norm = 0;
+            for (int r = 0; r < n; r++) {
+                norm += columns[c][r] * columns[c][r];
+            }
+            norm = Math.sqrt(norm);
+            for (int r = 0; r < n; r++) {
+                columns[c][r] /= norm;
+            }
+        }
+        final double[][] matrix = new double[n][n];
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n; c++) {
+                matrix[r][c] = columns[c][r];
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.insar.gpf.support;
+
+import org.apache.commons.math3.util.FastMath;
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pairs of a 6 date stack against the per pair computation of MultiMasterInSAROp
+ */
+public class TestStackInterferogramKernel {
+
+    private static final int width = 52;
+    private static final int height = 44;
+    private static final int numDates = 6;
+
+    // small baseline network, every date connected to the next two or three
+    private static final int[][] pairs = {{0, 1}, {0, 2}, {0, 3}, {1, 2}, {1, 3}, {2, 3}, {2, 4},
+            {3, 4}, {3, 5}, {4, 5}};
+
+    private final float[][] valuesI = new float[numDates][width * height];
+    private final float[][] valuesQ = new float[numDates][width * height];
+    private final double[][][] referencePhase = new double[numDates][][];
+
+    public TestStackInterferogramKernel() {
+        final Random random = new Random(7);
+        final float[] commonI = new float[width * height];
+        final float[] commonQ = new float[width * height];
+        for (int i = 0; i < width * height; ++i) {
+            commonI[i] = (float) random.nextGaussian() * 100f;
+            commonQ[i] = (float) random.nextGaussian() * 100f;
+        }
+        for (int d = 0; d < numDates; ++d) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    final int i = y * width + x;
+                    // a zero border as produced by the border extender
+                    if (x < 10 || y >= height - 4) {
+                        continue;
+                    }
+                    valuesI[d][i] = commonI[i] + (float) random.nextGaussian() * 20f * (d + 1);
+                    valuesQ[d][i] = commonQ[i] + (float) random.nextGaussian() * 20f * (d + 1);
+                }
+            }
+            // the first date is the master without reference phase
+            if (d > 0) {
+                referencePhase[d] = new double[height][width];
+                for (int y = 0; y < height; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        referencePhase[d][y][x] = -4000.0 * d + 0.37 * d * x - 0.11 * y + 1e-3 * x * y;
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPairs() {
+        final StackInterferogramKernel kernel = new StackInterferogramKernel(width, height, numDates);
+        for (int d = 0; d < numDates; ++d) {
+            kernel.setAcquisition(d, ProductData.createInstance(valuesI[d]), ProductData.createInstance(valuesQ[d]),
+                                  referencePhase[d]);
+        }
+        kernel.formInterferograms(pairs);
+
+        for (int winAz : new int[]{10, 5}) {
+            for (int winRg : new int[]{10, 3}) {
+                kernel.computeCoherence(winAz, winRg);
+                final int halfAz = Math.floorDiv(winAz, 2);
+                final int halfRg = Math.floorDiv(winRg, 2);
+                final int cohWidth = width - winRg + 1;
+
+                for (int p = 0; p < pairs.length; ++p) {
+                    final double[][][] expected = computeInterferogram(pairs[p][0], pairs[p][1], winAz, winRg);
+                    final float[] ifgI = kernel.getInterferogramI(p);
+                    final float[] ifgQ = kernel.getInterferogramQ(p);
+                    final float[] coherence = kernel.getCoherence(p);
+                    int numNaN = 0;
+                    for (int y = halfAz; y < height - halfAz; ++y) {
+                        for (int x = halfRg; x < width - halfRg; ++x) {
+                            final int i = y * width + x;
+                            // relative to the magnitude of the interferogram
+                            final double tolerance = 1e-6 * (1 + expected[3][y][x]);
+                            assertEquals(expected[0][y][x], ifgI[i], tolerance);
+                            assertEquals(expected[1][y][x], ifgQ[i], tolerance);
+                            final float coh = coherence[(y - halfAz) * cohWidth + x - halfRg];
+                            if (Double.isNaN(expected[2][y][x])) {
+                                assertTrue(Float.isNaN(coh));
+                                ++numNaN;
+                            } else {
+                                assertEquals(expected[2][y][x], coh, 1e-6);
+                            }
+                        }
+                    }
+                    // windows entirely within the zero border
+                    assertTrue(numNaN > 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * The computation of one pair as in MultiMasterInSAROp before the stack kernel
+     */
+    private double[][][] computeInterferogram(final int d0, final int d1, final int cohWinAz, final int cohWinRg) {
+        final double[][] ifgPhasorI = new double[height][width];
+        final double[][] ifgPhasorQ = new double[height][width];
+        final double[][] intensity0 = new double[height][width];
+        final double[][] intensity1 = new double[height][width];
+        final double[][] magnitude = new double[height][width];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                final int i = y * width + x;
+                final double valueI0 = valuesI[d0][i];
+                final double valueQ0 = valuesQ[d0][i];
+                final double valueI1 = valuesI[d1][i];
+                final double valueQ1 = valuesQ[d1][i];
+                final double referencePhase0 = referencePhase[d0] == null ? 0 : referencePhase[d0][y][x];
+                final double referencePhase1 = referencePhase[d1] == null ? 0 : referencePhase[d1][y][x];
+
+                final double phasorI = valueI0 * valueI1 + valueQ0 * valueQ1;
+                final double phasorQ = -valueI0 * valueQ1 + valueQ0 * valueI1;
+                final double angle = referencePhase0 - referencePhase1;
+                ifgPhasorI[y][x] = phasorI * FastMath.cos(angle) + phasorQ * FastMath.sin(angle);
+                ifgPhasorQ[y][x] = -phasorI * FastMath.sin(angle) + phasorQ * FastMath.cos(angle);
+                intensity0[y][x] = valueI0 * valueI0 + valueQ0 * valueQ0;
+                intensity1[y][x] = valueI1 * valueI1 + valueQ1 * valueQ1;
+                magnitude[y][x] = Math.sqrt(intensity0[y][x] * intensity1[y][x]);
+            }
+        }
+
+        final double[][] coherence = new double[height][width];
+        final int halfCohWinAz = Math.floorDiv(cohWinAz, 2);
+        final int halfCohWinRg = Math.floorDiv(cohWinRg, 2);
+        final int correctionWinAz = 2 * halfCohWinAz == cohWinAz ? 0 : 1;
+        final int correctionWinRg = 2 * halfCohWinRg == cohWinRg ? 0 : 1;
+        for (int y = halfCohWinAz; y < height - halfCohWinAz; y++) {
+            for (int x = halfCohWinRg; x < width - halfCohWinRg; x++) {
+                double ifgPhasorSumI = 0;
+                double ifgPhasorSumQ = 0;
+                double intensitySum0 = 0;
+                double intensitySum1 = 0;
+                for (int r = -halfCohWinAz; r < halfCohWinAz + correctionWinAz; r++) {
+                    for (int c = -halfCohWinRg; c < halfCohWinRg + correctionWinRg; c++) {
+                        ifgPhasorSumI += ifgPhasorI[y + r][x + c];
+                        ifgPhasorSumQ += ifgPhasorQ[y + r][x + c];
+                        intensitySum0 += intensity0[y + r][x + c];
+                        intensitySum1 += intensity1[y + r][x + c];
+                    }
+                }
+                coherence[y][x] = Math.sqrt((ifgPhasorSumI * ifgPhasorSumI + ifgPhasorSumQ * ifgPhasorSumQ)
+                                                    / (intensitySum0 * intensitySum1));
+            }
+        }
+        return new double[][][]{ifgPhasorI, ifgPhasorQ, coherence, magnitude};
+    }
+}
@@ -45,6 +45,7 @@ public class TerrainFlatteningOpUI extends BaseOperatorUI {
     private static final String externalDEMStr = "External DEM";
     private final JCheckBox externalDEMApplyEGMCheckBox = new JCheckBox("External DEM Apply EGM");
     private final JCheckBox outputSimulatedImageCheckBox = new JCheckBox("Output Simulated Image");
+    private final JCheckBox stripProcessingCheckBox = new JCheckBox("Compute in Azimuth Strips");
 
     private final JComboBox<String> demResamplingMethod = new JComboBox<>(ResamplingFactory.resamplingNames);
     private final JTextField externalDEMFile = new JTextField("");
@@ -57,6 +58,7 @@ public class TerrainFlatteningOpUI extends BaseOperatorUI {
     private Double extNoDataValue = 0.0;
     private Boolean externalDEMApplyEGM = false;
     private Boolean outputSimulatedImage = false;
+    private Boolean stripProcessing = false;
 
     private final DialogUtils.TextAreaKeyListener textAreaKeyListener = new DialogUtils.TextAreaKeyListener();
 
@@ -106,6 +108,12 @@ public class TerrainFlatteningOpUI extends BaseOperatorUI {
             }
         });
 
+        stripProcessingCheckBox.addItemListener(new ItemListener() {
+            public void itemStateChanged(ItemEvent e) {
+                stripProcessing = (e.getStateChange() == ItemEvent.SELECTED);
+            }
+        });
+
         return new JScrollPane(panel);
     }
 
@@ -137,6 +145,12 @@ public class TerrainFlatteningOpUI extends BaseOperatorUI {
         externalDEMApplyEGMCheckBox.setSelected(externalDEMApplyEGM);
         outputSimulatedImageCheckBox.setSelected(outputSimulatedImage);
 
+        final Boolean stripProcessingParam = (Boolean) paramMap.get("stripProcessing");
+        if (stripProcessingParam != null) {
+            stripProcessing = stripProcessingParam;
+        }
+        stripProcessingCheckBox.setSelected(stripProcessing);
+
         additionalOverlap.setText(String.valueOf(paramMap.get("additionalOverlap")));
         oversamplingMultiple.setText(String.valueOf(paramMap.get("oversamplingMultiple")));
     }
@@ -163,6 +177,7 @@ public class TerrainFlatteningOpUI extends BaseOperatorUI {
 
         paramMap.put("externalDEMApplyEGM", externalDEMApplyEGM);
         paramMap.put("outputSimulatedImage", outputSimulatedImage);
+        paramMap.put("stripProcessing", stripProcessing);
 
         final String additionalOverlapStr = additionalOverlap.getText();
         if (additionalOverlapStr != null && !additionalOverlapStr.isEmpty()) {
@@ -200,6 +215,8 @@ public class TerrainFlatteningOpUI extends BaseOperatorUI {
         gbc.gridy++;
         contentPane.add(outputSimulatedImageCheckBox, gbc);
         gbc.gridy++;
+        contentPane.add(stripProcessingCheckBox, gbc);
+        gbc.gridy++;
         DialogUtils.addComponent(contentPane, gbc, "Additional Overlap Percentage[0,1]:", additionalOverlap);
         gbc.gridy++;
         DialogUtils.addComponent(contentPane, gbc, "Oversampling Multiple:", oversamplingMultiple);
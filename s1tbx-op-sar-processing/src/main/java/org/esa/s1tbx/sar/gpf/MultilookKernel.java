@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.sar.gpf;
+
+import org.apache.commons.math3.util.FastMath;
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.util.Arrays;
+
+/**
+ * Box decimation of a source tile into the mean of non overlapping blocks of nRgLooks x nAzLooks pixels.
+ * <p>
+ * The source rows are read once, in order. Each row is converted to linear values with a fast path for the
+ * primitive array of the buffer type and its columns are summed into one accumulator per output pixel.
+ * Quantised dB samples are converted with a lookup table and intensity is formed from I and Q in the same pass.
+ */
+public final class MultilookKernel {
+
+    public enum Mode {
+        /** mean of the samples */
+        LINEAR,
+        /** mean in linear scale of samples in dB, returned in dB */
+        DB,
+        /** mean of i * i + q * q */
+        INTENSITY
+    }
+
+    private static final double DB_TO_LN = Math.log(10.0) / 10.0;
+
+    private final int nRgLooks;
+    private final int nAzLooks;
+
+    public MultilookKernel(final int nRgLooks, final int nAzLooks) {
+        if (nRgLooks < 1 || nAzLooks < 1) {
+            throw new IllegalArgumentException("Number of looks must be at least 1");
+        }
+        this.nRgLooks = nRgLooks;
+        this.nAzLooks = nAzLooks;
+    }
+
+    /**
+     * Reduce the blocks of a source tile
+     *
+     * @param src1   the source samples, i samples for Mode.INTENSITY
+     * @param src2   the q samples for Mode.INTENSITY, otherwise not used
+     * @param offset buffer index of the first sample of the first block
+     * @param stride scanline stride of the source buffers
+     * @param tw     number of output columns
+     * @param th     number of output rows
+     * @param mode   the sample conversion
+     * @param mean   row major output of tw * th block means
+     */
+    public void reduce(final ProductData src1, final ProductData src2, final int offset, final int stride,
+                       final int tw, final int th, final Mode mode, final double[] mean) {
+
+        if (mode == Mode.INTENSITY && src2 == null) {
+            throw new IllegalArgumentException("Intensity requires i and q samples");
+        }
+        final int w = tw * nRgLooks;
+        final double[] row = new double[w];
+        final double[] acc = new double[tw];
+        final double norm = 1.0 / (nRgLooks * nAzLooks);
+
+        for (int ty = 0; ty < th; ++ty) {
+            Arrays.fill(acc, 0.0);
+            for (int az = 0; az < nAzLooks; ++az) {
+                final int index = offset + (ty * nAzLooks + az) * stride;
+                if (mode == Mode.INTENSITY) {
+                    loadIntensity(src1, src2, index, w, row);
+                } else {
+                    load(src1, index, w, mode == Mode.DB, row);
+                }
+                accumulate(row, acc, tw);
+            }
+
+            final int k = ty * tw;
+            if (mode == Mode.DB) {
+                for (int tx = 0; tx < tw; ++tx) {
+                    mean[k + tx] = 10.0 * Math.log10(acc[tx] * norm);
+                }
+            } else {
+                for (int tx = 0; tx < tw; ++tx) {
+                    mean[k + tx] = acc[tx] * norm;
+                }
+            }
+        }
+    }
+
+    private void accumulate(final double[] row, final double[] acc, final int tw) {
+        if (nRgLooks == 1) {
+            for (int tx = 0; tx < tw; ++tx) {
+                acc[tx] += row[tx];
+            }
+            return;
+        }
+        int x = 0;
+        for (int tx = 0; tx < tw; ++tx) {
+            double sum = 0.0;
+            final int end = x + nRgLooks;
+            for (; x < end; ++x) {
+                sum += row[x];
+            }
+            acc[tx] += sum;
+        }
+    }
+
+    /**
+     * Convert a row of samples to linear values
+     */
+    private static void load(final ProductData data, final int index, final int w, final boolean isdB,
+                             final double[] row) {
+        switch (data.getType()) {
+            case ProductData.TYPE_FLOAT32: {
+                final float[] a = (float[]) data.getElems();
+                if (isdB) {
+                    for (int x = 0; x < w; ++x) {
+                        row[x] = FastMath.exp(a[index + x] * DB_TO_LN);
+                    }
+                } else {
+                    for (int x = 0; x < w; ++x) {
+                        row[x] = a[index + x];
+                    }
+                }
+                return;
+            }
+            case ProductData.TYPE_FLOAT64: {
+                final double[] a = (double[]) data.getElems();
+                if (isdB) {
+                    for (int x = 0; x < w; ++x) {
+                        row[x] = FastMath.exp(a[index + x] * DB_TO_LN);
+                    }
+                } else {
+                    System.arraycopy(a, index, row, 0, w);
+                }
+                return;
+            }
+            case ProductData.TYPE_INT16: {
+                final short[] a = (short[]) data.getElems();
+                if (isdB) {
+                    final double[] table = DBTable.LINEAR;
+                    for (int x = 0; x < w; ++x) {
+                        row[x] = table[a[index + x] - DBTable.MIN];
+                    }
+                } else {
+                    for (int x = 0; x < w; ++x) {
+                        row[x] = a[index + x];
+                    }
+                }
+                return;
+            }
+            case ProductData.TYPE_UINT16: {
+                final short[] a = (short[]) data.getElems();
+                if (isdB) {
+                    final double[] table = DBTable.LINEAR;
+                    for (int x = 0; x < w; ++x) {
+                        row[x] = table[(a[index + x] & 0xFFFF) - DBTable.MIN];
+                    }
+                } else {
+                    for (int x = 0; x < w; ++x) {
+                        row[x] = a[index + x] & 0xFFFF;
+                    }
+                }
+                return;
+            }
+            case ProductData.TYPE_INT32: {
+                final int[] a = (int[]) data.getElems();
+                if (isdB) {
+                    for (int x = 0; x < w; ++x) {
+                        row[x] = DBTable.toLinear(a[index + x]);
+                    }
+                } else {
+                    for (int x = 0; x < w; ++x) {
+                        row[x] = a[index + x];
+                    }
+                }
+                return;
+            }
+            default:
+                for (int x = 0; x < w; ++x) {
+                    final double v = data.getElemDoubleAt(index + x);
+                    row[x] = isdB ? FastMath.exp(v * DB_TO_LN) : v;
+                }
+        }
+    }
+
+    /**
+     * Form a row of intensity from i and q samples
+     */
+    private static void loadIntensity(final ProductData iData, final ProductData qData, final int index, final int w,
+                                      final double[] row) {
+        final int type = iData.getType();
+        if (type == qData.getType()) {
+            switch (type) {
+                case ProductData.TYPE_FLOAT32: {
+                    final float[] i = (float[]) iData.getElems();
+                    final float[] q = (float[]) qData.getElems();
+                    for (int x = 0; x < w; ++x) {
+                        final double vi = i[index + x];
+                        final double vq = q[index + x];
+                        row[x] = vi * vi + vq * vq;
+                    }
+                    return;
+                }
+                case ProductData.TYPE_INT16: {
+                    final short[] i = (short[]) iData.getElems();
+                    final short[] q = (short[]) qData.getElems();
+                    for (int x = 0; x < w; ++x) {
+                        final double vi = i[index + x];
+                        final double vq = q[index + x];
+                        row[x] = vi * vi + vq * vq;
+                    }
+                    return;
+                }
+                case ProductData.TYPE_INT32: {
+                    final int[] i = (int[]) iData.getElems();
+                    final int[] q = (int[]) qData.getElems();
+                    for (int x = 0; x < w; ++x) {
+                        final double vi = i[index + x];
+                        final double vq = q[index + x];
+                        row[x] = vi * vi + vq * vq;
+                    }
+                    return;
+                }
+                case ProductData.TYPE_FLOAT64: {
+                    final double[] i = (double[]) iData.getElems();
+                    final double[] q = (double[]) qData.getElems();
+                    for (int x = 0; x < w; ++x) {
+                        final double vi = i[index + x];
+                        final double vq = q[index + x];
+                        row[x] = vi * vi + vq * vq;
+                    }
+                    return;
+                }
+            }
+        }
+        for (int x = 0; x < w; ++x) {
+            final double vi = iData.getElemDoubleAt(index + x);
+            final double vq = qData.getElemDoubleAt(index + x);
+            row[x] = vi * vi + vq * vq;
+        }
+    }
+
+    /**
+     * Linear values of the integer dB values of 16 bit samples, created on first use
+     */
+    private static final class DBTable {
+        static final int MIN = Short.MIN_VALUE;
+        static final int MAX = 0xFFFF;
+        static final double[] LINEAR = new double[MAX - MIN + 1];
+
+        static {
+            for (int v = MIN; v <= MAX; ++v) {
+                LINEAR[v - MIN] = FastMath.pow(10, v / 10.0);
+            }
+        }
+
+        static double toLinear(final int v) {
+            return v >= MIN && v <= MAX ? LINEAR[v - MIN] : FastMath.pow(10, v / 10.0);
+        }
+    }
+}
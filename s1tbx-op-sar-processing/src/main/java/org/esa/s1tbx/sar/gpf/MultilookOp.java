@@ -97,6 +97,7 @@ public final class MultilookOp extends Operator {
     private double rangeSpacing;
     private double azimuthSpacing;
     private boolean isPolsar = false;
+    private MultilookKernel kernel;
 
     private final HashMap<String, String[]> targetBandNameToSourceBandName = new HashMap<>();
     private static final String PRODUCT_SUFFIX = "_ML";
@@ -138,7 +139,8 @@ public final class MultilookOp extends Operator {
                 getDerivedParameters(sourceProduct, param);
                 setNumAzimuthLooks(param.nAzLooks);
             }
-            
+            kernel = new MultilookKernel(nRgLooks, nAzLooks);
+
             createTargetProduct();
 
         } catch (Throwable e) {
@@ -206,7 +208,6 @@ public final class MultilookOp extends Operator {
             final boolean isdB = bandUnit == Unit.UnitType.INTENSITY_DB || bandUnit == Unit.UnitType.AMPLITUDE_DB;
             final boolean isComplex = outputIntensity && (bandUnit == Unit.UnitType.REAL || bandUnit == Unit.UnitType.IMAGINARY);
 
-            double meanValue;
             final int maxy = ty0 + th;
             final int maxx = tx0 + tw;
             if (nRgLooks == 1 && nAzLooks == 1) {
@@ -230,12 +231,19 @@ public final class MultilookOp extends Operator {
                     }
                 }
             } else {
+                final MultilookKernel.Mode mode = isdB ? MultilookKernel.Mode.DB :
+                        (isComplex && !isPolsar ? MultilookKernel.Mode.INTENSITY : MultilookKernel.Mode.LINEAR);
+                final int srcStride = sourceRaster1.getScanlineStride();
+                final int srcOffset = sourceRaster1.getScanlineOffset() +
+                        (y0 - sourceRaster1.getMinY()) * srcStride + (x0 - sourceRaster1.getMinX());
+                final double[] meanValues = new double[tw * th];
+                kernel.reduce(srcData1, srcData2, srcOffset, srcStride, tw, th, mode, meanValues);
+
                 for (int ty = ty0; ty < maxy; ty++) {
                     trgIndex.calculateStride(ty);
+                    final int k = (ty - ty0) * tw - tx0;
                     for (int tx = tx0; tx < maxx; tx++) {
-                        meanValue = getMeanValue(
-                                tx, ty, srcData1, srcData2, srcIndex, nRgLooks, nAzLooks, isdB, isComplex, isPolsar);
-                        trgData.setElemDoubleAt(trgIndex.getIndex(tx), meanValue);
+                        trgData.setElemDoubleAt(trgIndex.getIndex(tx), meanValues[k + tx]);
                     }
                 }
             }
@@ -391,64 +399,6 @@ public final class MultilookOp extends Operator {
         }
     }
 
-    /**
-     * Compute the mean value of pixels of the source image in the sliding window.
-     *
-     * @param tx       The x coordinate of a pixel in the current target tile.
-     * @param ty       The y coordinate of a pixel in the current target tile.
-     * @param srcData1 The product data for i band in case of complex product.
-     * @param srcData2 The product data for q band in case of complex product.
-     * @param nRgLooks number of range looks
-     * @param nAzLooks number of azimuth looks
-     * @return The mean value.
-     */
-    private static double getMeanValue(final int tx, final int ty,
-                                       final ProductData srcData1, final ProductData srcData2,
-                                       final TileIndex srcIndex,
-                                       final int nRgLooks, final int nAzLooks,
-                                       final boolean isdB, final boolean isComplex, final boolean isPolsar) {
-
-        final int xStart = tx * nRgLooks;
-        final int yStart = ty * nAzLooks;
-        final int xEnd = xStart + nRgLooks;
-        final int yEnd = yStart + nAzLooks;
-
-        double meanValue = 0.0;
-        int offset;
-        if (isdB) {
-            for (int y = yStart; y < yEnd; y++) {
-                offset = srcIndex.calculateStride(y);
-                for (int x = xStart; x < xEnd; x++) {
-                    meanValue += FastMath.pow(10, srcData1.getElemDoubleAt(x - offset) / 10.0); // dB to linear
-                }
-            }
-
-            meanValue /= (nRgLooks * nAzLooks);
-            return 10.0 * Math.log10(meanValue); // linear to dB
-        } else if (isComplex && !isPolsar) { // COMPLEX
-            double i, q;
-            int index;
-            for (int y = yStart; y < yEnd; y++) {
-                offset = srcIndex.calculateStride(y);
-                for (int x = xStart; x < xEnd; x++) {
-                    index = x - offset;
-                    i = srcData1.getElemDoubleAt(index);
-                    q = srcData2.getElemDoubleAt(index);
-                    meanValue += i * i + q * q;
-                }
-            }
-        } else {
-            for (int y = yStart; y < yEnd; y++) {
-                offset = srcIndex.calculateStride(y);
-                for (int x = xStart; x < xEnd; x++) {
-                    meanValue += srcData1.getElemDoubleAt(x - offset);
-                }
-            }
-        }
-
-        return meanValue / (nRgLooks * nAzLooks);
-    }
-
     /**
      * Compute number of azimuth looks and the mean ground pixel spacings for given number of range looks.
      *
@@ -17,6 +17,7 @@ package org.esa.s1tbx.sar.gpf.geometric;
 
 import com.bc.ceres.core.ProgressMonitor;
 import org.apache.commons.math3.util.FastMath;
+import org.esa.s1tbx.commons.DemGridSampler;
 import org.esa.s1tbx.commons.OrbitStateVectors;
 import org.esa.s1tbx.commons.SARGeocoding;
 import org.esa.s1tbx.insar.gpf.support.SARPosition;
@@ -576,7 +577,14 @@ public final class SARSimulationOp extends Operator {
                 final int nLat = (int) ((latMax - latMin) / delLat) + 1;
                 final int nLon = (int) ((lonMax - lonMin) / delLon) + 1;
 
-                final double[][] tileDEM = new double[nLat + 1][nLon + 1];
+                // the grid of the tile with one more row and column for the neighbours
+                final int gridWidth = nLon + 1;
+                float[] tileDEM = null;
+                if (!saveZeroHeightSimulation) {
+                    tileDEM = new DemGridSampler(dem, demNoDataValue).getElevations(
+                            latMin, lonMin, delLat, delLon, nLat + 1, gridWidth);
+                }
+                final float demNoData = (float) demNoDataValue;
                 final double[][] neighbourDEM = new double[3][3];
                 Double alt;
 
@@ -607,12 +615,11 @@ public final class SARSimulationOp extends Operator {
                         if (saveZeroHeightSimulation) {
                             alt = 1.0;
                         } else {
-                            geoPos.setLocation(lat, lon);
-                            alt = dem.getElevation(geoPos);
-                            if (alt.equals(demNoDataValue))
+                            final float elevation = tileDEM[i * gridWidth + j];
+                            if (elevation == demNoData)
                                 continue;
+                            alt = (double) elevation;
                         }
-                        tileDEM[i][j] = alt;
 
                         GeoUtils.geo2xyzWGS84(lat, lon, alt, posData.earthPoint);
                         if (!sarPosition.getPosition(posData))
@@ -628,19 +635,9 @@ public final class SARSimulationOp extends Operator {
                         for (int ii = Math.max(0, i - 1); ii <= i + 1; ++ii) {
                             ii = Math.min(nLat, ii);
                             int c = 0;
-                            double neighbourLat = latMin + ii * delLat;
                             for (int jj = Math.max(0, j - 1); jj <= j + 1; ++jj) {
                                 jj = Math.min(nLon, jj);
-                                neighbourDEM[r][c] = tileDEM[ii][jj];
-                                if (neighbourDEM[r][c] == 0) {
-                                    if (saveZeroHeightSimulation) {
-                                        neighbourDEM[r][c] = 1;
-                                    } else {
-                                        geoPos.setLocation(neighbourLat, lonMin + jj * delLon);
-                                        neighbourDEM[r][c] = dem.getElevation(geoPos);
-                                    }
-                                    tileDEM[ii][jj] = neighbourDEM[r][c];
-                                }
+                                neighbourDEM[r][c] = saveZeroHeightSimulation ? 1 : tileDEM[ii * gridWidth + jj];
                                 ++c;
                             }
                             ++r;
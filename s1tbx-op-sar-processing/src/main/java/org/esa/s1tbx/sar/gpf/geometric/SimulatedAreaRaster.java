@@ -0,0 +1,641 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.sar.gpf.geometric;
+
+import org.apache.commons.math3.util.FastMath;
+import org.esa.snap.core.dataop.resamp.Resampling;
+import org.esa.snap.engine_utilities.datamodel.PosVector;
+import org.esa.snap.engine_utilities.eo.Constants;
+import org.esa.snap.engine_utilities.eo.GeoUtils;
+import org.esa.snap.engine_utilities.util.Maths;
+
+import java.awt.*;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The simulated illuminated area of terrain flattening, computed in azimuth strips of the whole image width.
+ * <p>
+ * The DEM facets lie on one lattice for the whole image, oversampling a DEM grid anchored at (latMax, lonMin).
+ * A strip computes the facets of the lattice rows whose facets fall within its lines once, and scatters their
+ * illuminated area into a raster of the strip. Lattice rows are added beyond the geocoded latitude extent of
+ * the strip for as long as their facets still fall within the strip, so no tile overlap has to be estimated.
+ * A strip is computed on the tile thread that first reads it, the tile scheduling of GPF computing strips in
+ * parallel. A strip is kept until all tiles over it have been read, and at most maxStrips strips are kept,
+ * the least recently read being released first.
+ */
+public final class SimulatedAreaRaster {
+
+    /**
+     * The imaging geometry of the source product
+     */
+    public interface Geometry {
+
+        /**
+         * @param earthPoint   the earth point
+         * @param sensorPos    the sensor position at zero Doppler time
+         * @param azimuthRange the azimuth and range index of the earth point
+         * @return false if the earth point has no zero Doppler time
+         */
+        boolean getPosition(PosVector earthPoint, PosVector sensorPos, double[] azimuthRange);
+
+        /**
+         * @param y0        first image line
+         * @param y1        last image line + 1
+         * @param latMinMax the minimum and maximum latitude of the lines at zero height
+         */
+        void getLatitudeExtent(int y0, int y1, double[] latMinMax);
+    }
+
+    /**
+     * Elevations of a latitude/longitude grid, as DemGridSampler.getElevations
+     */
+    public interface Elevations {
+        float[] getElevations(double lat0, double lon0, double latStep, double lonStep, int rows, int cols)
+                throws Exception;
+    }
+
+    // lattice rows added at a time beyond the geocoded extent of a strip
+    private static final int EXTENSION_ROWS = 16;
+    // lattice rows computed from one block of DEM rows
+    private static final int CHUNK_ROWS = 128;
+    // DEM rows beyond the facets for the resampling kernel
+    private static final int HALO = 3;
+
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private final int maxStrips;
+    private final double latMax;
+    private final double lonMin;
+    private final double demResolution;
+    private final int demRows;
+    private final int demCols;
+    private final double delta;
+    private final double ratio;
+    private final int nLat;
+    private final int nLon;
+    private final Resampling resampling;
+    private final double demNoDataValue;
+    private final boolean outputSigma0;
+    private final boolean detectShadow;
+    private final boolean orbitOnWest;
+    private final Geometry geometry;
+    private final Elevations elevations;
+
+    private final Map<Integer, Strip> strips;
+    private final ThreadLocal<RowBuffers> rowBuffers;
+
+    /**
+     * @param width              image width
+     * @param height             image height
+     * @param stripHeight        lines of a strip
+     * @param maxStrips          strips kept at most
+     * @param latMax             latitude of the first DEM row
+     * @param lonMin             longitude of the first DEM column
+     * @param demResolution      DEM spacing in degrees
+     * @param demRows            DEM rows
+     * @param demCols            DEM columns
+     * @param overSamplingFactor facets per DEM spacing
+     * @param resampling         DEM resampling
+     * @param demNoDataValue     DEM no data value
+     * @param outputSigma0       compute the sigma0 area as well
+     * @param detectShadow       drop shadowed facets
+     * @param orbitOnWest        near range is to the west of far range
+     * @param geometry           the imaging geometry
+     * @param elevations         the DEM
+     */
+    public SimulatedAreaRaster(final int width, final int height, final int stripHeight, final int maxStrips,
+                               final double latMax, final double lonMin, final double demResolution,
+                               final int demRows, final int demCols, final double overSamplingFactor,
+                               final Resampling resampling, final double demNoDataValue,
+                               final boolean outputSigma0, final boolean detectShadow, final boolean orbitOnWest,
+                               final Geometry geometry, final Elevations elevations) {
+        this.width = width;
+        this.height = height;
+        this.stripHeight = stripHeight;
+        this.maxStrips = maxStrips;
+        this.latMax = latMax;
+        this.lonMin = lonMin;
+        this.demResolution = demResolution;
+        this.demRows = demRows;
+        this.demCols = demCols;
+        this.delta = demResolution / overSamplingFactor;
+        this.ratio = delta / demResolution;
+        this.nLat = (int) (overSamplingFactor * demRows);
+        this.nLon = (int) (overSamplingFactor * demCols);
+        this.resampling = resampling;
+        this.demNoDataValue = demNoDataValue;
+        this.outputSigma0 = outputSigma0;
+        this.detectShadow = detectShadow;
+        this.orbitOnWest = orbitOnWest;
+        this.geometry = geometry;
+        this.elevations = elevations;
+        this.rowBuffers = ThreadLocal.withInitial(() -> new RowBuffers(nLon, outputSigma0));
+        this.strips = new LinkedHashMap<Integer, Strip>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, Strip> eldest) {
+                return size() > SimulatedAreaRaster.this.maxStrips;
+            }
+        };
+    }
+
+    /**
+     * Read the simulated area of a tile
+     *
+     * @param rect       the tile
+     * @param gamma0Area the area for gamma0 as [height][width]
+     * @param sigma0Area the area for sigma0 as [height][width], if computed
+     * @throws Exception from the DEM
+     */
+    public void getReferenceArea(final Rectangle rect, final double[][] gamma0Area, final double[][] sigma0Area)
+            throws Exception {
+        final int firstStrip = rect.y / stripHeight;
+        final int lastStrip = (rect.y + rect.height - 1) / stripHeight;
+        for (int s = firstStrip; s <= lastStrip; ++s) {
+            final Strip strip = getStrip(s);
+            strip.compute();
+
+            final int ys = Math.max(rect.y, strip.y0);
+            final int ye = Math.min(rect.y + rect.height, strip.y1);
+            for (int y = ys; y < ye; ++y) {
+                final int offset = (y - strip.y0) * width;
+                final double[] gamma0Row = gamma0Area[y - rect.y];
+                final double[] sigma0Row = outputSigma0 ? sigma0Area[y - rect.y] : null;
+                for (int x = rect.x; x < rect.x + rect.width; ++x) {
+                    gamma0Row[x - rect.x] = strip.area.gamma0[offset + x];
+                    if (sigma0Row != null) {
+                        sigma0Row[x - rect.x] = strip.area.sigma0[offset + x];
+                    }
+                }
+            }
+
+            if (strip.consume(new Rectangle(rect.x, ys, rect.width, ye - ys))) {
+                synchronized (strips) {
+                    strips.remove(s, strip);
+                }
+            }
+        }
+    }
+
+    private Strip getStrip(final int index) {
+        synchronized (strips) {
+            Strip strip = strips.get(index);
+            if (strip == null) {
+                strip = new Strip(index);
+                strips.put(index, strip);
+            }
+            return strip;
+        }
+    }
+
+    /**
+     * Release all strips
+     */
+    public void dispose() {
+        synchronized (strips) {
+            strips.clear();
+        }
+    }
+
+    int getNumStrips() {
+        synchronized (strips) {
+            return strips.size();
+        }
+    }
+
+    private final class Strip {
+
+        final int y0;
+        final int y1;
+        private AreaBuffer area;
+        private boolean computed = false;
+        // the tiles of the image do not overlap, so a tile read again adds no pixels
+        private final Set<Rectangle> readRects = new HashSet<>();
+        private long readPixels = 0;
+
+        Strip(final int index) {
+            this.y0 = index * stripHeight;
+            this.y1 = Math.min(y0 + stripHeight, height);
+        }
+
+        synchronized void compute() throws Exception {
+            if (computed) {
+                return;
+            }
+            area = new AreaBuffer(y0, y1);
+
+            final double[] latMinMax = new double[2];
+            geometry.getLatitudeExtent(y0, y1, latMinMax);
+            int kFirst = Math.max(1, (int) Math.floor((latMax - latMinMax[1]) / delta) - EXTENSION_ROWS);
+            int kLast = Math.min(nLat, (int) Math.ceil((latMax - latMinMax[0]) / delta) + EXTENSION_ROWS);
+            kFirst = Math.min(kFirst, nLat);
+            kLast = Math.max(kLast, kFirst);
+
+            final boolean[] outerHits = computeChunks(area, kFirst, kLast);
+            boolean firstHit = outerHits[0], lastHit = outerHits[1];
+
+            // extend the lattice rows while the outermost rows still fall within the strip
+            while (firstHit && kFirst > 1) {
+                final int k0 = Math.max(1, kFirst - EXTENSION_ROWS);
+                firstHit = computeRows(area, k0, kFirst)[0];
+                kFirst = k0;
+            }
+            while (lastHit && kLast < nLat) {
+                final int k1 = Math.min(nLat, kLast + EXTENSION_ROWS);
+                final boolean[] hits = computeRows(area, kLast, k1);
+                lastHit = hits[hits.length - 1];
+                kLast = k1;
+            }
+            computed = true;
+        }
+
+        /**
+         * @param rect the lines of a tile within the strip
+         * @return true once all pixels of the strip have been read
+         */
+        synchronized boolean consume(final Rectangle rect) {
+            if (readRects.add(rect)) {
+                readPixels += (long) rect.width * rect.height;
+            }
+            return readPixels >= (long) (y1 - y0) * width;
+        }
+    }
+
+    /**
+     * Area scattered into the lines [y0, y1) of the image
+     */
+    private final class AreaBuffer {
+        final int y0;
+        final int y1;
+        final float[] gamma0;
+        final float[] sigma0;
+
+        AreaBuffer(final int y0, final int y1) {
+            this.y0 = y0;
+            this.y1 = y1;
+            gamma0 = new float[(y1 - y0) * width];
+            sigma0 = outputSigma0 ? new float[(y1 - y0) * width] : null;
+        }
+    }
+
+    /**
+     * Compute the lattice rows [kFirst, kLast) in blocks of CHUNK_ROWS
+     *
+     * @return whether the first and whether the last lattice row fall within the lines of the strip
+     */
+    private boolean[] computeChunks(final AreaBuffer area, final int kFirst, final int kLast) throws Exception {
+        if (kFirst >= kLast) {
+            return new boolean[]{false, false};
+        }
+        boolean firstHit = false, lastHit = false;
+        for (int k0 = kFirst; k0 < kLast; k0 += CHUNK_ROWS) {
+            final boolean[] hits = computeRows(area, k0, Math.min(k0 + CHUNK_ROWS, kLast));
+            if (k0 == kFirst) {
+                firstHit = hits[0];
+            }
+            lastHit = hits[hits.length - 1];
+        }
+        return new boolean[]{firstHit, lastHit};
+    }
+
+    /**
+     * Per thread buffers of a lattice row
+     */
+    private static final class RowBuffers {
+        final int[] azimuthInt;
+        final float[] azimuthFrac;
+        final int[] rangeInt;
+        final float[] rangeFrac;
+        final float[] gamma0Area;
+        final float[] sigma0Area;
+        final double[] elevationAngle;
+        final boolean[] savePixel;
+        final PosVector sensorPos = new PosVector();
+        final double[] azimuthRange = new double[2];
+        final double[] areas = new double[2];
+
+        RowBuffers(final int nLon, final boolean outputSigma0) {
+            azimuthInt = new int[nLon];
+            azimuthFrac = new float[nLon];
+            rangeInt = new int[nLon];
+            rangeFrac = new float[nLon];
+            gamma0Area = new float[nLon];
+            sigma0Area = outputSigma0 ? new float[nLon] : null;
+            elevationAngle = new double[nLon];
+            savePixel = new boolean[nLon];
+        }
+    }
+
+    /**
+     * Compute the facets of lattice rows [k0, k1) and scatter their area
+     *
+     * @return for each row, whether any of its facets falls within the lines of the area
+     */
+    private boolean[] computeRows(final AreaBuffer area, final int k0, final int k1) throws Exception {
+        final boolean[] hits = new boolean[k1 - k0];
+        if (k0 >= k1) {
+            return hits;
+        }
+        final int y0 = area.y0;
+        final int y1 = area.y1;
+
+        final int r0 = Math.max(0, (int) Math.floor((k0 - 1) * ratio) - HALO);
+        final int r1 = Math.min(demRows, (int) Math.floor(k1 * ratio) + HALO + 1);
+        final int windowRows = r1 - r0;
+        final float[] dem = elevations.getElevations(latMax - r0 * demResolution, lonMin,
+                                                     -demResolution, demResolution, windowRows, demCols);
+        final WindowRaster raster = new WindowRaster(dem, demCols, windowRows, demNoDataValue);
+        final Resampling.Index index = resampling.createIndex();
+
+        final RowBuffers buf = rowBuffers.get();
+        for (int k = k0; k < k1; ++k) {
+            final double lat = latMax - k * delta;
+            final double iRatio = k * ratio - r0;
+            final GeoUtils.Geo2xyzWGS84 geo2xyzWGS84 = new GeoUtils.Geo2xyzWGS84(lat);
+            final TerrainFlatteningOp.LocalGeometry localGeometry = new TerrainFlatteningOp.LocalGeometry(lat, delta);
+            boolean hit = false;
+
+            for (int j = 0; j < nLon; j++) {
+                buf.savePixel[j] = false;
+                final double lon = lonMin + j * delta;
+                final double jRatio = j * ratio;
+                resampling.computeCornerBasedIndex(jRatio, iRatio, demCols, windowRows, index);
+                final double alt00 = resampling.resample(raster, index);
+                if (Double.isNaN(alt00) || alt00 == demNoDataValue)
+                    continue;
+
+                final PosVector earthPoint = geo2xyzWGS84.getXYZ(lon, alt00);
+                if (!geometry.getPosition(earthPoint, buf.sensorPos, buf.azimuthRange))
+                    continue;
+                final double azimuthIndex = buf.azimuthRange[0];
+                final double rangeIndex = buf.azimuthRange[1];
+                if (!(azimuthIndex >= y0 - 1 && azimuthIndex <= y1))
+                    continue;
+                hit = true;
+                if (!(rangeIndex >= -1 && rangeIndex <= width))
+                    continue;
+
+                resampling.computeCornerBasedIndex(jRatio, iRatio - ratio, demCols, windowRows, index);
+                final double alt01 = resampling.resample(raster, index);
+
+                resampling.computeCornerBasedIndex(jRatio + ratio, iRatio, demCols, windowRows, index);
+                final double alt10 = resampling.resample(raster, index);
+
+                resampling.computeCornerBasedIndex(jRatio + ratio, iRatio - ratio, demCols, windowRows, index);
+                final double alt11 = resampling.resample(raster, index);
+
+                localGeometry.setLon(lon, alt00, alt01, alt10, alt11);
+
+                if (!computeIlluminatedArea(localGeometry, earthPoint, buf.sensorPos, demNoDataValue,
+                                            outputSigma0, buf.areas)) {
+                    continue;
+                }
+
+                if (detectShadow) {
+                    buf.elevationAngle[j] = computeElevationAngle(earthPoint, buf.sensorPos);
+                }
+                buf.azimuthInt[j] = (int) azimuthIndex;
+                buf.azimuthFrac[j] = (float) (azimuthIndex - buf.azimuthInt[j]);
+                buf.rangeInt[j] = (int) rangeIndex;
+                buf.rangeFrac[j] = (float) (rangeIndex - buf.rangeInt[j]);
+                buf.gamma0Area[j] = (float) buf.areas[0];
+                if (outputSigma0) {
+                    buf.sigma0Area[j] = (float) buf.areas[1];
+                }
+                buf.savePixel[j] = rangeIndex > -1 && rangeIndex < width && azimuthIndex > y0 - 1 && azimuthIndex < y1;
+            }
+            hits[k - k0] = hit;
+
+            // traverse from near range to far range to detect shadowing area
+            double maxElevAngle = 0.0;
+            final int first = orbitOnWest ? 0 : nLon - 1;
+            final int step = orbitOnWest ? 1 : -1;
+            for (int jj = first; jj >= 0 && jj < nLon; jj += step) {
+                if (buf.savePixel[jj]) {
+                    if (detectShadow) {
+                        if (buf.elevationAngle[jj] < maxElevAngle)
+                            continue;
+                        maxElevAngle = buf.elevationAngle[jj];
+                    }
+                    scatter(area, buf.azimuthInt[jj], buf.azimuthFrac[jj], buf.rangeInt[jj], buf.rangeFrac[jj],
+                            buf.gamma0Area[jj], outputSigma0 ? buf.sigma0Area[jj] : 0);
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Distribute the area of a facet to the 4 adjacent pixels using bi-linear distribution.
+     */
+    private void scatter(final AreaBuffer area, final int ia0, final double wa, final int ir0, final double wr,
+                         final double gamma0Area, final double sigma0Area) {
+        final int ia1 = ia0 + 1;
+        final int ir1 = ir0 + 1;
+        final double wac = 1 - wa;
+        final double wrc = 1 - wr;
+        final float[] gamma0 = area.gamma0;
+        final float[] sigma0 = area.sigma0;
+
+        if (ir0 >= 0 && ir0 < width) {
+            if (ia0 >= area.y0 && ia0 < area.y1) {
+                final int i = (ia0 - area.y0) * width + ir0;
+                gamma0[i] += wrc * wac * gamma0Area;
+                if (outputSigma0) {
+                    sigma0[i] += wrc * wac * sigma0Area;
+                }
+            }
+            if (ia1 >= area.y0 && ia1 < area.y1) {
+                final int i = (ia1 - area.y0) * width + ir0;
+                gamma0[i] += wrc * wa * gamma0Area;
+                if (outputSigma0) {
+                    sigma0[i] += wrc * wa * sigma0Area;
+                }
+            }
+        }
+
+        if (ir1 >= 0 && ir1 < width) {
+            if (ia0 >= area.y0 && ia0 < area.y1) {
+                final int i = (ia0 - area.y0) * width + ir1;
+                gamma0[i] += wr * wac * gamma0Area;
+                if (outputSigma0) {
+                    sigma0[i] += wr * wac * sigma0Area;
+                }
+            }
+            if (ia1 >= area.y0 && ia1 < area.y1) {
+                final int i = (ia1 - area.y0) * width + ir1;
+                gamma0[i] += wr * wa * gamma0Area;
+                if (outputSigma0) {
+                    sigma0[i] += wr * wa * sigma0Area;
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute local illuminated area for given point.
+     *
+     * @param lg             Local geometry information.
+     * @param earthPoint     The facet position.
+     * @param sensorPos      The sensor position at zero Doppler time of the facet.
+     * @param demNoDataValue Invalid DEM value.
+     * @param computeSigma0  Compute the area for sigma0 as well.
+     * @param areas          The area for gamma0 and for sigma0.
+     * @return False if a corner of the facet has no elevation.
+     */
+    static boolean computeIlluminatedArea(final TerrainFlatteningOp.LocalGeometry lg, final PosVector earthPoint,
+                                          final PosVector sensorPos, final double demNoDataValue,
+                                          final boolean computeSigma0, final double[] areas) {
+
+        if (demNoDataValue == lg.t00Height || demNoDataValue == lg.t01Height ||
+                demNoDataValue == lg.t10Height || demNoDataValue == lg.t11Height) {
+            return false;
+        }
+
+        final PosVector t00 = lg.t00geo2xyzWGS84.getXYZ(lg.t00Lon, lg.t00Height);
+        final PosVector t01 = lg.t01geo2xyzWGS84.getXYZ(lg.t01Lon, lg.t01Height);
+        final PosVector t10 = lg.t00geo2xyzWGS84.getXYZ(lg.t10Lon, lg.t10Height);
+        final PosVector t11 = lg.t01geo2xyzWGS84.getXYZ(lg.t11Lon, lg.t11Height);
+
+        // compute slant range direction
+        final PosVector s = new PosVector(
+                sensorPos.x - earthPoint.x,
+                sensorPos.y - earthPoint.y,
+                sensorPos.z - earthPoint.z);
+
+        Maths.normalizeVector(s);
+
+        // project points t00, t01, t10 and t11 to the plane that perpendicular to slant range
+        final double t00s = Maths.innerProduct(t00, s);
+        final double t01s = Maths.innerProduct(t01, s);
+        final double t10s = Maths.innerProduct(t10, s);
+        final double t11s = Maths.innerProduct(t11, s);
+
+        final double[] p00 = {t00.x - t00s * s.x, t00.y - t00s * s.y, t00.z - t00s * s.z};
+        final double[] p01 = {t01.x - t01s * s.x, t01.y - t01s * s.y, t01.z - t01s * s.z};
+        final double[] p10 = {t10.x - t10s * s.x, t10.y - t10s * s.y, t10.z - t10s * s.z};
+        final double[] p11 = {t11.x - t11s * s.x, t11.y - t11s * s.y, t11.z - t11s * s.z};
+
+        // compute distances between projected points
+        final double p00p01 = distance(p00, p01);
+        final double p00p10 = distance(p00, p10);
+        final double p11p01 = distance(p11, p01);
+        final double p11p10 = distance(p11, p10);
+        final double p10p01 = distance(p10, p01);
+
+        // compute semi-perimeters of two triangles: p00-p01-p10 and p11-p01-p10
+        final double h1 = 0.5 * (p00p01 + p00p10 + p10p01);
+        final double h2 = 0.5 * (p11p01 + p11p10 + p10p01);
+
+        // compute the illuminated area
+        areas[0] = Math.sqrt(h1 * (h1 - p00p01) * (h1 - p00p10) * (h1 - p10p01)) +
+                Math.sqrt(h2 * (h2 - p11p01) * (h2 - p11p10) * (h2 - p10p01));
+
+        if (computeSigma0) {
+            final double[] T00 = {t00.x, t00.y, t00.z};
+            final double[] T01 = {t01.x, t01.y, t01.z};
+            final double[] T10 = {t10.x, t10.y, t10.z};
+            final double[] T11 = {t11.x, t11.y, t11.z};
+
+            // compute distances between projected points
+            final double T00T01 = distance(T00, T01);
+            final double T00T10 = distance(T00, T10);
+            final double T11T01 = distance(T11, T01);
+            final double T11T10 = distance(T11, T10);
+            final double T10T01 = distance(T10, T01);
+
+            // compute semi-perimeters of two triangles: T00-T01-T10 and T11-T01-T10
+            final double hh1 = 0.5 * (T00T01 + T00T10 + T10T01);
+            final double hh2 = 0.5 * (T11T01 + T11T10 + T10T01);
+
+            // compute the illuminated area
+            areas[1] = Math.sqrt(hh1 * (hh1 - T00T01) * (hh1 - T00T10) * (hh1 - T10T01)) +
+                    Math.sqrt(hh2 * (hh2 - T11T01) * (hh2 - T11T10) * (hh2 - T10T01));
+        }
+        return true;
+    }
+
+    private static double distance(final double[] p1, final double[] p2) {
+        return Math.sqrt((p1[0] - p2[0]) * (p1[0] - p2[0]) +
+                (p1[1] - p2[1]) * (p1[1] - p2[1]) +
+                (p1[2] - p2[2]) * (p1[2] - p2[2]));
+    }
+
+    /**
+     * Compute elevation angle (in degree).
+     *
+     * @param earthPoint The coordinate for target on earth surface.
+     * @param sensorPos  The coordinate for satellite position.
+     * @return The elevation angle in degree.
+     */
+    static double computeElevationAngle(final PosVector earthPoint, final PosVector sensorPos) {
+
+        final double xDiff = sensorPos.x - earthPoint.x;
+        final double yDiff = sensorPos.y - earthPoint.y;
+        final double zDiff = sensorPos.z - earthPoint.z;
+        final double slantRange = Math.sqrt(xDiff * xDiff + yDiff * yDiff + zDiff * zDiff);
+        final double H2 = sensorPos.x * sensorPos.x + sensorPos.y * sensorPos.y + sensorPos.z * sensorPos.z;
+        final double R2 = earthPoint.x * earthPoint.x + earthPoint.y * earthPoint.y + earthPoint.z * earthPoint.z;
+
+        return FastMath.acos((slantRange * slantRange + H2 - R2) / (2 * slantRange * Math.sqrt(H2))) * Constants.RTOD;
+    }
+
+    /**
+     * DEM rows of the lattice as a resampling raster
+     */
+    private static class WindowRaster implements Resampling.Raster {
+
+        private final float[] data;
+        private final int width;
+        private final int height;
+        private final float noDataValue;
+
+        WindowRaster(final float[] data, final int width, final int height, final double demNoDataValue) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            this.noDataValue = (float) demNoDataValue;
+        }
+
+        public final int getWidth() {
+            return width;
+        }
+
+        public final int getHeight() {
+            return height;
+        }
+
+        public boolean getSamples(final int[] x, final int[] y, final double[][] samples) {
+            boolean allValid = true;
+            for (int i = 0; i < y.length; ++i) {
+                final int offset = y[i] * width;
+                for (int j = 0; j < x.length; ++j) {
+                    final float sample = data[offset + x[j]];
+                    if (sample == noDataValue) {
+                        samples[i][j] = Double.NaN;
+                        allValid = false;
+                    } else {
+                        samples[i][j] = sample;
+                    }
+                }
+            }
+            return allValid;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.esa.s1tbx.sar.gpf.geometric;
 import com.bc.ceres.core.ProgressMonitor;
 import org.apache.commons.math3.util.FastMath;
 import org.esa.s1tbx.calibration.gpf.CalibrationOp;
+import org.esa.s1tbx.commons.DemGridSampler;
 import org.esa.s1tbx.commons.OrbitStateVectors;
 import org.esa.s1tbx.commons.SARGeocoding;
 import org.esa.s1tbx.commons.SARUtils;
@@ -105,6 +106,10 @@ public final class TerrainFlatteningOp extends Operator {
             defaultValue = "1.0")
     private Double oversamplingMultiple = 1.0;
 
+    @Parameter(description = "Simulate the illuminated area once per azimuth strip of the image instead of per tile",
+            defaultValue = "false", label = "Compute in Azimuth Strips")
+    private Boolean stripProcessing = false;
+
     private Product newSourceProduct = null;
     private ElevationModel dem = null;
     private FileElevationModel fileElevationModel = null;
@@ -126,6 +131,7 @@ public final class TerrainFlatteningOp extends Operator {
     private double wavelength = 0.0; // in m
     private double demNoDataValue = 0; // no data value for DEM
     private double overSamplingFactor = 1.0;
+    private double demResolution = 0.0; // in degrees
     private OrbitStateVectors orbit = null;
     private Resampling selectedResampling = null;
     private Double noDataValue = 0.0;
@@ -144,6 +150,7 @@ public final class TerrainFlatteningOp extends Operator {
     private boolean detectShadow = true;
     private double threshold = 0.05;
     private boolean invalidSource = false;
+    private SimulatedAreaRaster simulatedAreaRaster = null;
 
     private static final String PRODUCT_SUFFIX = "_TF";
 
@@ -207,6 +214,9 @@ public final class TerrainFlatteningOp extends Operator {
             if(oversamplingMultiple == null) {
                 oversamplingMultiple = 1.0;
             }
+            if(stripProcessing == null) {
+                stripProcessing = false;
+            }
 
             getMetadata();
 
@@ -242,6 +252,9 @@ public final class TerrainFlatteningOp extends Operator {
         if (fileElevationModel != null) {
             fileElevationModel.dispose();
         }
+        if (simulatedAreaRaster != null) {
+            simulatedAreaRaster.dispose();
+        }
     }
 
     /**
@@ -478,22 +491,26 @@ public final class TerrainFlatteningOp extends Operator {
             final int h = targetRectangle.height;
             //System.out.println("x0 = " + x0 + ", y0 = " + y0 + ", w = " + w + ", h = " + h);
 
-            final OverlapPercentage tileOverlapPercentage = computeTileOverlapPercentage(x0, y0, w, h, pm);
-            if(tileOverlapPercentage == null) {
-                return;
-            }
-
             final double[][] gamma0ReferenceArea = new double[h][w];
             double[][] sigma0ReferenceArea = null;
             if (outputSigma0) {
                 sigma0ReferenceArea = new double[h][w];
             }
 
-            final boolean validSimulation = generateSimulatedImage(
-                    x0, y0, w, h, tileOverlapPercentage, gamma0ReferenceArea, sigma0ReferenceArea, pm);
+            if (stripProcessing) {
+                getSimulatedAreaRaster().getReferenceArea(targetRectangle, gamma0ReferenceArea, sigma0ReferenceArea);
+            } else {
+                final OverlapPercentage tileOverlapPercentage = computeTileOverlapPercentage(x0, y0, w, h, pm);
+                if (tileOverlapPercentage == null) {
+                    return;
+                }
+
+                final boolean validSimulation = generateSimulatedImage(
+                        x0, y0, w, h, tileOverlapPercentage, gamma0ReferenceArea, sigma0ReferenceArea, pm);
 
-            if (!validSimulation) {
-                return;
+                if (!validSimulation) {
+                    return;
+                }
             }
 
             if (isPolSar) {
@@ -540,18 +557,6 @@ public final class TerrainFlatteningOp extends Operator {
             final double[] latLonMinMax = new double[4];
             computeImageGeoBoundary(xmin, xmax, ymin, ymax, latLonMinMax);
 
-            double demResolution;
-            if (externalDEMFile == null) {
-                demResolution = (double) dem.getDescriptor().getTileWidthInDegrees() /
-                        (double) dem.getDescriptor().getTileWidth();
-
-            } else {
-                FileElevationModel filedem = (FileElevationModel)dem;
-                demResolution = filedem.getPixelWidthInDegrees();
-                final double minSpacing = Math.min(rangeSpacing, azimuthSpacing);
-                overSamplingFactor = Math.ceil(filedem.getPixelWidthInMeters() / minSpacing) * oversamplingMultiple;
-            }
-
             final double extralat = 20 * demResolution;
             final double extralon = 20 * demResolution;
             final double latMin = latLonMinMax[0] - extralat;
@@ -562,15 +567,9 @@ public final class TerrainFlatteningOp extends Operator {
             final int rows = (int) Math.round((latMax - latMin) / demResolution);
             final int cols = (int) Math.round((lonMax - lonMin) / demResolution);
 
-            final double[][] height = new double[rows][cols];
-            for (int i = 0; i < rows; ++i) {
-                final double lat = latMax - i * demResolution;
-                for (int j = 0; j < cols; ++j) {
-                    final double lon = lonMin + j * demResolution;
-                    height[i][j] = dem.getElevation(new GeoPos(lat, lon));
-                }
-            }
-            final ResamplingRaster resamplingRaster = new ResamplingRaster(demNoDataValue, height);
+            final float[] height = new DemGridSampler(dem, demNoDataValue).getElevations(
+                    latMax, lonMin, -demResolution, demResolution, rows, cols);
+            final ResamplingRaster resamplingRaster = new ResamplingRaster(demNoDataValue, height, cols, rows);
             final Resampling.Index resamplingIndex = selectedResampling.createIndex();
 
             final double delta = demResolution / overSamplingFactor;
@@ -673,6 +672,101 @@ public final class TerrainFlatteningOp extends Operator {
         return true;
     }
 
+    /**
+     * Compute the DEM spacing in degrees, and the oversampling factor for an external DEM.
+     */
+    private void computeDEMResolution() {
+        if (externalDEMFile == null) {
+            demResolution = (double) dem.getDescriptor().getTileWidthInDegrees() /
+                    (double) dem.getDescriptor().getTileWidth();
+        } else {
+            final FileElevationModel filedem = (FileElevationModel) dem;
+            final double minSpacing = Math.min(rangeSpacing, azimuthSpacing);
+            overSamplingFactor = Math.ceil(filedem.getPixelWidthInMeters() / minSpacing) * oversamplingMultiple;
+            demResolution = filedem.getPixelWidthInDegrees();
+        }
+    }
+
+    /**
+     * Create the simulated area of the whole image, computed in azimuth strips of the target tile height.
+     */
+    private synchronized SimulatedAreaRaster getSimulatedAreaRaster() {
+        if (simulatedAreaRaster != null) {
+            return simulatedAreaRaster;
+        }
+
+        final double[] latLonMinMax = new double[4];
+        computeImageGeoBoundary(0, sourceImageWidth, 0, sourceImageHeight, latLonMinMax);
+
+        final double extralat = 20 * demResolution;
+        final double extralon = 20 * demResolution + additionalOverlap * (latLonMinMax[3] - latLonMinMax[2]);
+        final double latMin = latLonMinMax[0] - extralat;
+        final double latMax = latLonMinMax[1] + extralat;
+        final double lonMin = latLonMinMax[2] - extralon;
+        final double lonMax = latLonMinMax[3] + extralon;
+
+        final int rows = (int) Math.round((latMax - latMin) / demResolution);
+        final int cols = (int) Math.round((lonMax - lonMin) / demResolution);
+
+        final Dimension tileSize = targetProduct.getPreferredTileSize();
+        final int stripHeight = tileSize != null ? tileSize.height : 512;
+        final int tileWidth = tileSize != null ? tileSize.width : 512;
+
+        // keep the strips of the tile rows computed at once by the tile threads
+        final int tilesPerRow = (sourceImageWidth + tileWidth - 1) / tileWidth;
+        final int maxStrips = Runtime.getRuntime().availableProcessors() / tilesPerRow + 2;
+
+        simulatedAreaRaster = new SimulatedAreaRaster(
+                sourceImageWidth, sourceImageHeight, stripHeight, maxStrips, latMax, lonMin, demResolution, rows, cols,
+                overSamplingFactor, selectedResampling, demNoDataValue, outputSigma0, detectShadow, orbitOnWest,
+                new ImageGeometry(), new DemGridSampler(dem, demNoDataValue)::getElevations);
+        return simulatedAreaRaster;
+    }
+
+    /**
+     * The imaging geometry of the source product for the simulated area raster
+     */
+    private class ImageGeometry implements SimulatedAreaRaster.Geometry {
+
+        @Override
+        public boolean getPosition(final PosVector earthPoint, final PosVector sensorPos, final double[] azimuthRange) {
+
+            final double zeroDopplerTime = SARGeocoding.getZeroDopplerTime(
+                    lineTimeInterval, wavelength, earthPoint, orbit);
+
+            if (zeroDopplerTime == SARGeocoding.NonValidZeroDopplerTime) {
+                return false;
+            }
+
+            final double slantRange = SARGeocoding.computeSlantRange(zeroDopplerTime, orbit, earthPoint, sensorPos);
+
+            double rangeIndex;
+            if (!srgrFlag) {
+                rangeIndex = (slantRange - nearEdgeSlantRange) / rangeSpacing;
+            } else {
+                rangeIndex = SARGeocoding.computeRangeIndex(
+                        srgrFlag, sourceImageWidth, firstLineUTC, lastLineUTC, rangeSpacing,
+                        zeroDopplerTime, slantRange, nearEdgeSlantRange, srgrConvParams);
+            }
+
+            if (!nearRangeOnLeft) {
+                rangeIndex = sourceImageWidth - 1 - rangeIndex;
+            }
+
+            azimuthRange[0] = (zeroDopplerTime - firstLineUTC) / lineTimeInterval;
+            azimuthRange[1] = rangeIndex;
+            return true;
+        }
+
+        @Override
+        public void getLatitudeExtent(final int y0, final int y1, final double[] latMinMax) {
+            final double[] latLonMinMax = new double[4];
+            computeImageGeoBoundary(0, sourceImageWidth, y0, y1, latLonMinMax);
+            latMinMax[0] = latLonMinMax[0];
+            latMinMax[1] = latLonMinMax[1];
+        }
+    }
+
     private void computeImageGeoBoundary(final int xmin, final int xmax, final int ymin, final int ymax,
                                          double[] latLonMinMax) {
 
@@ -964,6 +1058,7 @@ public final class TerrainFlatteningOp extends Operator {
                 dem = DEMFactory.createElevationModel(demName, demResamplingMethod);
                 demNoDataValue = dem.getDescriptor().getNoDataValue();
             }
+            computeDEMResolution();
         } catch (Throwable t) {
             t.printStackTrace();
         }
@@ -1202,15 +1297,7 @@ public final class TerrainFlatteningOp extends Operator {
      * @return The elevation angle in degree.
      */
     private static double computeElevationAngle(final PosVector earthPoint, final PosVector sensorPos) {
-
-        final double xDiff = sensorPos.x - earthPoint.x;
-        final double yDiff = sensorPos.y - earthPoint.y;
-        final double zDiff = sensorPos.z - earthPoint.z;
-        final double slantRange = Math.sqrt(xDiff * xDiff + yDiff * yDiff + zDiff * zDiff);
-        final double H2 = sensorPos.x * sensorPos.x + sensorPos.y * sensorPos.y + sensorPos.z * sensorPos.z;
-        final double R2 = earthPoint.x * earthPoint.x + earthPoint.y * earthPoint.y + earthPoint.z * earthPoint.z;
-
-        return FastMath.acos((slantRange * slantRange + H2 - R2) / (2 * slantRange * Math.sqrt(H2))) * Constants.RTOD;
+        return SimulatedAreaRaster.computeElevationAngle(earthPoint, sensorPos);
     }
 
     /**
@@ -1221,11 +1308,12 @@ public final class TerrainFlatteningOp extends Operator {
      * @return True if computed local illuminated area != nodatavalue.
      */
     private boolean computeIlluminatedArea(
-            final LocalGeometry lg, final PositionData posData, final Double demNoDataValue, final double noDataValue,
+            final LocalGeometry lg, final PositionData posData, final double demNoDataValue, final double noDataValue,
             final int j, final double[] gamma0Area, final double[] sigma0Area) {
 
-        if (demNoDataValue.equals(lg.t00Height) || demNoDataValue.equals(lg.t01Height) ||
-                demNoDataValue.equals(lg.t10Height) || demNoDataValue.equals(lg.t11Height)) {
+        final double[] areas = new double[2];
+        if (!SimulatedAreaRaster.computeIlluminatedArea(
+                lg, posData.earthPoint, posData.sensorPos, demNoDataValue, outputSigma0, areas)) {
             gamma0Area[j] = noDataValue;
             if(outputSigma0) {
                 sigma0Area[j] = noDataValue;
@@ -1233,76 +1321,13 @@ public final class TerrainFlatteningOp extends Operator {
             return false;
         }
 
-        final PosVector t00 = lg.t00geo2xyzWGS84.getXYZ(lg.t00Lon, lg.t00Height);
-        final PosVector t01 = lg.t01geo2xyzWGS84.getXYZ(lg.t01Lon, lg.t01Height);
-        final PosVector t10 = lg.t00geo2xyzWGS84.getXYZ(lg.t10Lon, lg.t10Height);
-        final PosVector t11 = lg.t01geo2xyzWGS84.getXYZ(lg.t11Lon, lg.t11Height);
-
-        // compute slant range direction
-        final PosVector s = new PosVector(
-                posData.sensorPos.x - posData.earthPoint.x,
-                posData.sensorPos.y - posData.earthPoint.y,
-                posData.sensorPos.z - posData.earthPoint.z);
-
-        Maths.normalizeVector(s);
-
-        // project points t00, t01, t10 and t11 to the plane that perpendicular to slant range
-        final double t00s = Maths.innerProduct(t00, s);
-        final double t01s = Maths.innerProduct(t01, s);
-        final double t10s = Maths.innerProduct(t10, s);
-        final double t11s = Maths.innerProduct(t11, s);
-
-        final double[] p00 = {t00.x - t00s * s.x, t00.y - t00s * s.y, t00.z - t00s * s.z};
-        final double[] p01 = {t01.x - t01s * s.x, t01.y - t01s * s.y, t01.z - t01s * s.z};
-        final double[] p10 = {t10.x - t10s * s.x, t10.y - t10s * s.y, t10.z - t10s * s.z};
-        final double[] p11 = {t11.x - t11s * s.x, t11.y - t11s * s.y, t11.z - t11s * s.z};
-
-        // compute distances between projected points
-        final double p00p01 = distance(p00, p01);
-        final double p00p10 = distance(p00, p10);
-        final double p11p01 = distance(p11, p01);
-        final double p11p10 = distance(p11, p10);
-        final double p10p01 = distance(p10, p01);
-
-        // compute semi-perimeters of two triangles: p00-p01-p10 and p11-p01-p10
-        final double h1 = 0.5 * (p00p01 + p00p10 + p10p01);
-        final double h2 = 0.5 * (p11p01 + p11p10 + p10p01);
-
-        // compute the illuminated area
-        gamma0Area[j] =  Math.sqrt(h1 * (h1 - p00p01) * (h1 - p00p10) * (h1 - p10p01)) +
-                Math.sqrt(h2 * (h2 - p11p01) * (h2 - p11p10) * (h2 - p10p01));
-
+        gamma0Area[j] = areas[0];
         if(outputSigma0) {
-            final double[] T00 = {t00.x, t00.y, t00.z};
-            final double[] T01 = {t01.x, t01.y, t01.z};
-            final double[] T10 = {t10.x, t10.y, t10.z};
-            final double[] T11 = {t11.x, t11.y, t11.z};
-
-            // compute distances between projected points
-            final double T00T01 = distance(T00, T01);
-            final double T00T10 = distance(T00, T10);
-            final double T11T01 = distance(T11, T01);
-            final double T11T10 = distance(T11, T10);
-            final double T10T01 = distance(T10, T01);
-
-            // compute semi-perimeters of two triangles: T00-T01-T10 and T11-T01-T10
-            final double hh1 = 0.5 * (T00T01 + T00T10 + T10T01);
-            final double hh2 = 0.5 * (T11T01 + T11T10 + T10T01);
-
-            // compute the illuminated area
-            sigma0Area[j] = Math.sqrt(hh1 * (hh1 - T00T01) * (hh1 - T00T10) * (hh1 - T10T01)) +
-                    Math.sqrt(hh2 * (hh2 - T11T01) * (hh2 - T11T10) * (hh2 - T10T01));
+            sigma0Area[j] = areas[1];
         }
         return true;
     }
 
-    private static double distance(final double[] p1, final double[] p2) {
-        return Math.sqrt((p1[0] - p2[0]) * (p1[0] - p2[0]) +
-                (p1[1] - p2[1]) * (p1[1] - p2[1]) +
-                (p1[2] - p2[2]) * (p1[2] - p2[2]));
-    }
-
-
     public static class LocalGeometry {
         final double t00Lat;
         double t00Lon;
@@ -1405,20 +1430,24 @@ public final class TerrainFlatteningOp extends Operator {
 
     private static class ResamplingRaster implements Resampling.Raster {
 
-        private final double[][] data;
-        private final double noDataValue;
+        private final float[] data;
+        private final int width;
+        private final int height;
+        private final float noDataValue;
 
-        public ResamplingRaster(final double demNoDataValue, final double[][] data) {
+        public ResamplingRaster(final double demNoDataValue, final float[] data, final int width, final int height) {
             this.data = data;
-            this.noDataValue = demNoDataValue;
+            this.width = width;
+            this.height = height;
+            this.noDataValue = (float) demNoDataValue;
         }
 
         public final int getWidth() {
-            return data[0].length;
+            return width;
         }
 
         public final int getHeight() {
-            return data.length;
+            return height;
         }
 
         public boolean getSamples(final int[] x, final int[] y, final double[][] samples) throws Exception {
@@ -1428,10 +1457,12 @@ public final class TerrainFlatteningOp extends Operator {
                 double val;
                 int i = 0;
                 while (i < y.length) {
+                    final int offset = y[i] * width;
                     int j = 0;
                     while (j < x.length) {
-                        val = data[y[i]][x[j]];
-                        if (noDataValue == val) {
+                        final float sample = data[offset + x[j]];
+                        val = sample;
+                        if (noDataValue == sample) {
                             val = Double.NaN;
                             allValid = false;
                         }
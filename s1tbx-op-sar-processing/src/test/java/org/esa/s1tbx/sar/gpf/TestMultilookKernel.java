@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.sar.gpf;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Block means of the multilook kernel against a per pixel mean of each block
+ */
+public class TestMultilookKernel {
+
+    // a sub region of a larger buffer, as in a source tile
+    private static final int stride = 53;
+    private static final int rows = 47;
+    private static final int offset = 2 * stride + 3;
+
+    private static final int[][] looks = {{1, 1}, {4, 1}, {1, 5}, {3, 3}, {10, 10}};
+
+    @Test
+    public void testLinear() {
+        for (int type : new int[]{ProductData.TYPE_FLOAT32, ProductData.TYPE_FLOAT64, ProductData.TYPE_INT16,
+                ProductData.TYPE_UINT16, ProductData.TYPE_INT32, ProductData.TYPE_UINT8}) {
+            final ProductData data = createData(type, 0, type == ProductData.TYPE_UINT8 ? 250 : 30000, 1);
+            checkBlocks(data, null, MultilookKernel.Mode.LINEAR);
+        }
+    }
+
+    @Test
+    public void testDB() {
+        for (int type : new int[]{ProductData.TYPE_FLOAT32, ProductData.TYPE_FLOAT64, ProductData.TYPE_INT16,
+                ProductData.TYPE_UINT16, ProductData.TYPE_INT32, ProductData.TYPE_INT8}) {
+            final double min = type == ProductData.TYPE_UINT16 ? 0 : -30;
+            final ProductData data = createData(type, min, min + 40, 2);
+            checkBlocks(data, null, MultilookKernel.Mode.DB);
+        }
+    }
+
+    @Test
+    public void testIntensity() {
+        for (int type : new int[]{ProductData.TYPE_FLOAT32, ProductData.TYPE_FLOAT64, ProductData.TYPE_INT16,
+                ProductData.TYPE_INT32}) {
+            final ProductData i = createData(type, -32768, 32767, 3);
+            final ProductData q = createData(type, -32768, 32767, 4);
+            checkBlocks(i, q, MultilookKernel.Mode.INTENSITY);
+        }
+        // i and q of different types
+        checkBlocks(createData(ProductData.TYPE_INT16, -500, 500, 5), createData(ProductData.TYPE_FLOAT32, -500, 500, 6),
+                    MultilookKernel.Mode.INTENSITY);
+    }
+
+    private static ProductData createData(final int type, final double min, final double max, final long seed) {
+        final ProductData data = ProductData.createInstance(type, stride * rows);
+        final Random random = new Random(seed);
+        for (int k = 0; k < stride * rows; ++k) {
+            data.setElemDoubleAt(k, min + (max - min) * random.nextDouble());
+        }
+        return data;
+    }
+
+    private static void checkBlocks(final ProductData src1, final ProductData src2, final MultilookKernel.Mode mode) {
+        for (int[] look : looks) {
+            final int nRgLooks = look[0];
+            final int nAzLooks = look[1];
+            final int tw = (stride - 3) / nRgLooks;
+            final int th = (rows - 2) / nAzLooks;
+
+            final double[] mean = new double[tw * th];
+            new MultilookKernel(nRgLooks, nAzLooks).reduce(src1, src2, offset, stride, tw, th, mode, mean);
+
+            for (int ty = 0; ty < th; ++ty) {
+                for (int tx = 0; tx < tw; ++tx) {
+                    final double expected = getMeanValue(tx, ty, src1, src2, nRgLooks, nAzLooks, mode);
+                    assertEquals(expected, mean[ty * tw + tx], Math.abs(expected) * 1e-12);
+                }
+            }
+        }
+    }
+
+    private static double getMeanValue(final int tx, final int ty, final ProductData src1, final ProductData src2,
+                                       final int nRgLooks, final int nAzLooks, final MultilookKernel.Mode mode) {
+        double sum = 0.0;
+        for (int y = ty * nAzLooks; y < (ty + 1) * nAzLooks; ++y) {
+            for (int x = tx * nRgLooks; x < (tx + 1) * nRgLooks; ++x) {
+                final int index = offset + y * stride + x;
+                final double v = src1.getElemDoubleAt(index);
+                if (mode == MultilookKernel.Mode.DB) {
+                    sum += Math.pow(10, v / 10.0);
+                } else if (mode == MultilookKernel.Mode.INTENSITY) {
+                    final double q = src2.getElemDoubleAt(index);
+                    sum += v * v + q * q;
+                } else {
+                    sum += v;
+                }
+            }
+        }
+        final double mean = sum / (nRgLooks * nAzLooks);
+        return mode == MultilookKernel.Mode.DB ? 10.0 * Math.log10(mean) : mean;
+    }
+}
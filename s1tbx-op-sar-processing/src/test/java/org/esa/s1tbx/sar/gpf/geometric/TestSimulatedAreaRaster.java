@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.sar.gpf.geometric;
+
+import org.esa.snap.core.dataio.ProductIO;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.datamodel.TiePointGeoCoding;
+import org.esa.snap.core.datamodel.TiePointGrid;
+import org.esa.snap.core.dataop.resamp.ResamplingFactory;
+import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
+import org.esa.snap.engine_utilities.datamodel.PosVector;
+import org.esa.snap.engine_utilities.datamodel.Unit;
+import org.esa.snap.engine_utilities.eo.GeoUtils;
+import org.esa.snap.engine_utilities.gpf.OperatorUtils;
+import org.esa.snap.engine_utilities.util.TestUtils;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Terrain flattening in azimuth strips against the per tile simulation, over a Gaussian hill imaged from a
+ * straight orbit
+ */
+public class TestSimulatedAreaRaster {
+
+    static {
+        TestUtils.initTestEnvironment();
+    }
+    private final static OperatorSpi spi = new TerrainFlatteningOp.Spi();
+
+    private static final int width = 200;
+    private static final int height = 150;
+    private static final int tileSize = 64;
+    private static final double pixelSpacing = 20.0;
+    private static final double velocity = 7000.0;
+    private static final double lineTimeInterval = pixelSpacing / velocity;
+
+    private static final double lat0 = 46.0;
+    private static final double lon0 = 10.0;
+    private static final double hillHeight = 250.0;
+    private static final double hillSigma = 800.0;
+
+    private static final double latMax = 46.06;
+    private static final double lonMin = 9.88;
+    private static final double demResolution = 0.0003;
+    private static final int demRows = 400;
+    private static final int demCols = 800;
+    private static final double overSamplingFactor = 2.0;
+    private static final double demNoDataValue = -32768.0;
+
+    private static File demFile;
+
+    private final PosVector origin = new PosVector();
+    private final PosVector east = new PosVector();
+    private final PosVector north = new PosVector();
+    private final PosVector up = new PosVector();
+    private final PosVector sensor0 = new PosVector();
+    private final double nearRange;
+
+    public TestSimulatedAreaRaster() {
+        GeoUtils.geo2xyzWGS84(lat0, lon0, 0.0, origin);
+        final PosVector p = new PosVector();
+        GeoUtils.geo2xyzWGS84(lat0, lon0 + 1e-4, 0.0, p);
+        unit(p, east);
+        GeoUtils.geo2xyzWGS84(lat0 + 1e-4, lon0, 0.0, p);
+        unit(p, north);
+        GeoUtils.geo2xyzWGS84(lat0, lon0, 1.0, p);
+        unit(p, up);
+
+        // 700 km up, 400 km west, looking east, with the origin on line 75
+        set(sensor0, origin.x + 700e3 * up.x - 400e3 * east.x - 1500 * north.x,
+            origin.y + 700e3 * up.y - 400e3 * east.y - 1500 * north.y,
+            origin.z + 700e3 * up.z - 400e3 * east.z - 1500 * north.z);
+        final PosVector sensorPos = new PosVector();
+        getSensorPosition(origin, sensorPos);
+        nearRange = distance(origin, sensorPos) - 100 * pixelSpacing;
+    }
+
+    @BeforeClass
+    public static void writeDem() throws Exception {
+        final Product product = new Product("dem", "DEM", demCols, demRows);
+        final Band band = product.addBand("elevation", ProductData.TYPE_FLOAT32);
+        band.setData(ProductData.createInstance(getElevations(latMax, lonMin, -demResolution, demResolution,
+                                                              demRows, demCols)));
+        band.setNoDataValue(demNoDataValue);
+        band.setNoDataValueUsed(true);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, demCols, demRows,
+                                                   lonMin, latMax, demResolution, demResolution, 0.0, 0.0));
+
+        demFile = File.createTempFile("hill", ".tif");
+        ProductIO.writeProduct(product, demFile, "GeoTIFF", false);
+    }
+
+    @AfterClass
+    public static void deleteDem() {
+        if (demFile != null) {
+            demFile.delete();
+        }
+    }
+
+    private void unit(final PosVector p, final PosVector u) {
+        final double dx = p.x - origin.x, dy = p.y - origin.y, dz = p.z - origin.z;
+        final double norm = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        set(u, dx / norm, dy / norm, dz / norm);
+    }
+
+    private static void set(final PosVector p, final double x, final double y, final double z) {
+        p.x = x;
+        p.y = y;
+        p.z = z;
+    }
+
+    private static double distance(final PosVector p, final PosVector q) {
+        final double dx = p.x - q.x, dy = p.y - q.y, dz = p.z - q.z;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * @return the zero Doppler time in seconds from the first line
+     */
+    private double getSensorPosition(final PosVector earthPoint, final PosVector sensorPos) {
+        final double t = ((earthPoint.x - sensor0.x) * north.x + (earthPoint.y - sensor0.y) * north.y +
+                (earthPoint.z - sensor0.z) * north.z) / velocity;
+        set(sensorPos, sensor0.x + t * velocity * north.x,
+            sensor0.y + t * velocity * north.y,
+            sensor0.z + t * velocity * north.z);
+        return t;
+    }
+
+    private final SimulatedAreaRaster.Geometry geometry = new SimulatedAreaRaster.Geometry() {
+
+        @Override
+        public boolean getPosition(final PosVector earthPoint, final PosVector sensorPos, final double[] azimuthRange) {
+            final double t = getSensorPosition(earthPoint, sensorPos);
+            azimuthRange[0] = t / lineTimeInterval;
+            azimuthRange[1] = (distance(earthPoint, sensorPos) - nearRange) / pixelSpacing;
+            return true;
+        }
+
+        @Override
+        public void getLatitudeExtent(final int y0, final int y1, final double[] latMinMax) {
+            // lines are north of the origin by (y - 75) * 20 m
+            latMinMax[0] = lat0 + (y0 - 75) * pixelSpacing / 111000.0;
+            latMinMax[1] = lat0 + (y1 - 75) * pixelSpacing / 111000.0;
+        }
+    };
+
+    private static double hill(final double lat, final double lon) {
+        final double dy = (lat - lat0) * 111000.0;
+        final double dx = (lon - lon0) * 111000.0 * Math.cos(Math.toRadians(lat0));
+        return hillHeight * Math.exp(-(dx * dx + dy * dy) / (2 * hillSigma * hillSigma));
+    }
+
+    private static float[] getElevations(final double lat, final double lon, final double latStep,
+                                         final double lonStep, final int rows, final int cols) {
+        final float[] elevations = new float[rows * cols];
+        for (int r = 0; r < rows; ++r) {
+            for (int c = 0; c < cols; ++c) {
+                elevations[r * cols + c] = (float) hill(lat + r * latStep, lon + c * lonStep);
+            }
+        }
+        return elevations;
+    }
+
+    @Test
+    public void testStripsAgainstTiles() throws Exception {
+        final double[] expected = computeSimulatedImage(false);
+        final double[] actual = computeSimulatedImage(true);
+
+        // the facet lattice of a tile is anchored at the tile and that of a strip at the image, so pixels differ
+        // by the sampling of the facets. With fine facets this is small for a single pixel and smaller for a tile.
+        double sumExpected = 0;
+        int numValid = 0;
+        for (double value : expected) {
+            if (value > 0) {
+                sumExpected += value;
+                ++numValid;
+            }
+        }
+        assertTrue(numValid > width * height / 2);
+        final double meanExpected = sumExpected / numValid;
+
+        for (int y0 = 0; y0 < height; y0 += tileSize) {
+            for (int x0 = 0; x0 < width; x0 += tileSize) {
+                double tileExpected = 0, tileActual = 0;
+                for (int y = y0; y < Math.min(y0 + tileSize, height); ++y) {
+                    for (int x = x0; x < Math.min(x0 + tileSize, width); ++x) {
+                        final int i = y * width + x;
+                        assertEquals("pixel " + x + ", " + y, expected[i], actual[i], 0.02 * meanExpected);
+                        tileExpected += expected[i];
+                        tileActual += actual[i];
+                    }
+                }
+                assertTrue(tileExpected > 0);
+                assertEquals(tileExpected, tileActual, 0.002 * tileExpected);
+            }
+        }
+    }
+
+    private SimulatedAreaRaster createRaster(final int maxStrips, final SimulatedAreaRaster.Elevations elevations) {
+        return new SimulatedAreaRaster(
+                width, height, 50, maxStrips, latMax, lonMin, demResolution, demRows, demCols, overSamplingFactor,
+                ResamplingFactory.createResampling(ResamplingFactory.BILINEAR_INTERPOLATION_NAME), demNoDataValue,
+                true, true, true, geometry, elevations);
+    }
+
+    private static double[][] readTile(final SimulatedAreaRaster raster, final Rectangle rect) throws Exception {
+        final double[][] gamma0 = new double[rect.height][rect.width];
+        final double[][] sigma0 = new double[rect.height][rect.width];
+        raster.getReferenceArea(rect, gamma0, sigma0);
+        return gamma0;
+    }
+
+    @Test
+    public void testStripsReleased() throws Exception {
+        final SimulatedAreaRaster raster = createRaster(3, TestSimulatedAreaRaster::getElevations);
+
+        double maxArea = 0;
+        for (int y0 = 0; y0 < height; y0 += tileSize) {
+            for (int x0 = 0; x0 < width; x0 += tileSize) {
+                final int w = Math.min(tileSize, width - x0);
+                final int h = Math.min(tileSize, height - y0);
+                final double[][] gamma0 = readTile(raster, new Rectangle(x0, y0, w, h));
+                for (double[] row : gamma0) {
+                    for (double area : row) {
+                        maxArea = Math.max(maxArea, area);
+                    }
+                }
+            }
+        }
+        assertTrue(maxArea > 0);
+
+        // all strips are released once read
+        assertEquals(0, raster.getNumStrips());
+    }
+
+    @Test
+    public void testPartialRead() throws Exception {
+        final int[] numDemReads = new int[1];
+        final SimulatedAreaRaster raster = createRaster(2, (lat, lon, latStep, lonStep, rows, cols) -> {
+            ++numDemReads[0];
+            return getElevations(lat, lon, latStep, lonStep, rows, cols);
+        });
+
+        // a tile read again does not count as the rest of the strip
+        final Rectangle left = new Rectangle(0, 0, width / 2, 50);
+        final double[][] first = readTile(raster, left);
+        final int demReads = numDemReads[0];
+        final double[][] second = readTile(raster, left);
+        assertEquals(1, raster.getNumStrips());
+        assertEquals(demReads, numDemReads[0]);
+        for (int y = 0; y < left.height; ++y) {
+            assertTrue(Arrays.equals(first[y], second[y]));
+        }
+
+        // the strip is released once the rest of it has been read
+        readTile(raster, new Rectangle(width / 2, 0, width - width / 2, 50));
+        assertEquals(0, raster.getNumStrips());
+
+        // strips read in part are kept up to the limit and released on dispose
+        for (int y0 = 0; y0 < height; y0 += 50) {
+            readTile(raster, new Rectangle(0, y0, width / 2, 50));
+            assertTrue(raster.getNumStrips() <= 2);
+        }
+        assertEquals(2, raster.getNumStrips());
+        raster.dispose();
+        assertEquals(0, raster.getNumStrips());
+    }
+
+    private double[] computeSimulatedImage(final boolean stripProcessing) throws Exception {
+        final TerrainFlatteningOp op = (TerrainFlatteningOp) spi.createOperator();
+        op.setSourceProduct(createProduct());
+        op.setParameter("demName", "External DEM");
+        op.setParameter("externalDEMFile", demFile);
+        op.setParameter("externalDEMNoDataValue", demNoDataValue);
+        op.setParameter("outputSimulatedImage", true);
+        op.setParameter("stripProcessing", stripProcessing);
+        // facets of an eighth of the DEM spacing
+        op.setParameter("oversamplingMultiple", 4.0);
+
+        final Product targetProduct = op.getTargetProduct();
+        final Band band = targetProduct.getBand("simulatedImage");
+        return band.getSourceImage().getData().getPixels(0, 0, width, height, (double[]) null);
+    }
+
+    /**
+     * Calibrated product of the straight orbit, with the geocoding of the ellipsoid
+     */
+    private Product createProduct() throws Exception {
+        final Product product = new Product("hill", "SLC", width, height);
+        product.setPreferredTileSize(tileSize, tileSize);
+
+        final ProductData.UTC firstLineTime = ProductData.UTC.parse("03Jan2020 10:00:00", "ddMMMyyyy HH:mm:ss");
+        final ProductData.UTC lastLineTime = new ProductData.UTC(
+                firstLineTime.getMJD() + (height - 1) * lineTimeInterval / 86400.0);
+        product.setStartTime(firstLineTime);
+        product.setEndTime(lastLineTime);
+
+        final float[] beta0 = new float[width * height];
+        Arrays.fill(beta0, 1.0f);
+        final Band band = new Band("Beta0_VV", ProductData.TYPE_FLOAT32, width, height);
+        band.setUnit(Unit.INTENSITY);
+        band.setData(ProductData.createInstance(beta0));
+        product.addBand(band);
+
+        // tie points of the ground points at zero height, in the plane tangent at the origin
+        final int gridWidth = 11, gridHeight = 11;
+        final double subSamplingX = (width - 1) / (gridWidth - 1.0);
+        final double subSamplingY = (height - 1) / (gridHeight - 1.0);
+        final float[] lats = new float[gridWidth * gridHeight];
+        final float[] lons = new float[gridWidth * gridHeight];
+        final float[] incidenceAngles = new float[gridWidth * gridHeight];
+        final double[] xyz = new double[3];
+        final GeoPos geoPos = new GeoPos();
+        for (int r = 0; r < gridHeight; ++r) {
+            for (int c = 0; c < gridWidth; ++c) {
+                final double y = r * subSamplingY;
+                final double x = c * subSamplingX;
+                final double sensorEast = -400e3;
+                final double sensorUp = 700e3;
+                final double slantRange = nearRange + x * pixelSpacing;
+                final double groundEast = sensorEast + Math.sqrt(slantRange * slantRange - sensorUp * sensorUp);
+                final double groundNorth = (y - 75) * pixelSpacing;
+
+                xyz[0] = origin.x + groundEast * east.x + groundNorth * north.x;
+                xyz[1] = origin.y + groundEast * east.y + groundNorth * north.y;
+                xyz[2] = origin.z + groundEast * east.z + groundNorth * north.z;
+                GeoUtils.xyz2geo(xyz, geoPos);
+
+                final int i = r * gridWidth + c;
+                lats[i] = (float) geoPos.lat;
+                lons[i] = (float) geoPos.lon;
+                incidenceAngles[i] = (float) Math.toDegrees(Math.acos(sensorUp / slantRange));
+            }
+        }
+        final TiePointGrid latGrid = new TiePointGrid(OperatorUtils.TPG_LATITUDE, gridWidth, gridHeight,
+                                                      0.5, 0.5, subSamplingX, subSamplingY, lats);
+        final TiePointGrid lonGrid = new TiePointGrid(OperatorUtils.TPG_LONGITUDE, gridWidth, gridHeight,
+                                                      0.5, 0.5, subSamplingX, subSamplingY, lons);
+        product.addTiePointGrid(latGrid);
+        product.addTiePointGrid(lonGrid);
+        product.addTiePointGrid(new TiePointGrid(OperatorUtils.TPG_INCIDENT_ANGLE, gridWidth, gridHeight,
+                                                 0.5, 0.5, subSamplingX, subSamplingY, incidenceAngles));
+        product.setSceneGeoCoding(new TiePointGeoCoding(latGrid, lonGrid));
+
+        final MetadataElement absRoot = AbstractMetadata.addAbstractedMetadataHeader(product.getMetadataRoot());
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.PRODUCT, "hill");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.PRODUCT_TYPE, "SLC");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.MISSION, "ENVISAT");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.PASS, "ASCENDING");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.antenna_pointing, "right");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.SAMPLE_TYPE, "COMPLEX");
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.srgr_flag, 0);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.abs_calibration_flag, 1);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.radar_frequency, 5331.004);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.range_spacing, pixelSpacing);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.azimuth_spacing, pixelSpacing);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.range_looks, 1);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.azimuth_looks, 1);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.num_samples_per_line, width);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.num_output_lines, height);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_line_time, firstLineTime);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.last_line_time, lastLineTime);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.line_time_interval, lineTimeInterval);
+        AbstractMetadata.setAttribute(absRoot, AbstractMetadata.slant_range_to_first_pixel, nearRange);
+
+        // the straight orbit of the geometry, the first line at time 0
+        final MetadataElement orbitVectorListElem = absRoot.getElement(AbstractMetadata.orbit_state_vectors);
+        for (int i = 0; i < 10; ++i) {
+            final double dt = (i - 4) * 10.0;
+            final MetadataElement orbitVectorElem = new MetadataElement(AbstractMetadata.orbit_vector + (i + 1));
+            orbitVectorElem.setAttributeUTC(AbstractMetadata.orbit_vector_time,
+                    new ProductData.UTC(firstLineTime.getMJD() + dt / 86400.0));
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_x_pos, sensor0.x + dt * velocity * north.x);
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_y_pos, sensor0.y + dt * velocity * north.y);
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_z_pos, sensor0.z + dt * velocity * north.z);
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_x_vel, velocity * north.x);
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_y_vel, velocity * north.y);
+            orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_z_vel, velocity * north.z);
+            orbitVectorListElem.addElement(orbitVectorElem);
+        }
+        return product;
+    }
+}
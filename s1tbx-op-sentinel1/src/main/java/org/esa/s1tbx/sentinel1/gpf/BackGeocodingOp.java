@@ -46,6 +46,7 @@ import org.esa.snap.engine_utilities.datamodel.Unit;
 import org.esa.snap.engine_utilities.eo.Constants;
 import org.esa.snap.engine_utilities.eo.GeoUtils;
 import org.esa.snap.engine_utilities.gpf.*;
+import org.jlinda.core.delaunay.LatticeInterpolator;
 import org.jlinda.core.delaunay.TriangleInterpolator;
 
 import java.awt.*;
@@ -958,7 +959,7 @@ public final class BackGeocodingOp extends Operator {
                 return false;
             }
 
-            // Compute azimuth/range offsets for pixels in target tile using Delaunay interpolation
+            // Compute azimuth/range offsets for pixels in target tile by interpolating the DEM lattice
             final org.jlinda.core.Window tileWindow = new org.jlinda.core.Window(y0, y0 + h - 1, x0, x0 + w - 1);
 
             //final double rgAzRatio = computeRangeAzimuthSpacingRatio(w, h, latLonMinMax);
@@ -982,7 +983,7 @@ public final class BackGeocodingOp extends Operator {
                     new TriangleInterpolator.ZData(lon, lonArray)
             };
 
-            TriangleInterpolator.gridDataLinear(masterAz, masterRg, dataList,
+            LatticeInterpolator.gridDataLinear(masterAz, masterRg, dataList,
                     tileWindow, rgAzRatio, 1, 1, invalidIndex, 0);
 
             boolean allElementsAreNull = true;
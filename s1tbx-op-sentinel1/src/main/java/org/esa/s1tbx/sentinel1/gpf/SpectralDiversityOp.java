@@ -1046,10 +1046,10 @@ public class SpectralDiversityOp extends Operator {
                     List<CplxContainer> complexImages = this.complexImages.get(imagesKey);
                     SystemUtils.LOG.fine("Estimating azimuth offset for: " + imagesKey);
 
-                    // estimate shift for each overlap
+                    // estimate shift for each block stack of every overlap
                     status.beginTask("Azimuth shift: ESD for overlap blocks (" + imagesKey + ")...", numOverlaps * numBlocksPerOverlap);
+                    final ThreadExecutor executor = new ThreadExecutor();
                     for (int i = 0; i < numOverlaps; i++) {
-                        final ThreadExecutor executor = new ThreadExecutor();
                         SystemUtils.LOG.info("Estimating azimuth offset for blocks in overlap: " +
                                                      (i + 1) + "/" + numOverlaps);
                         final Rectangle overlapInBurstOneRectangle = new Rectangle();
@@ -1075,13 +1075,12 @@ public class SpectralDiversityOp extends Operator {
                             final Rectangle blockRectangle1 = new Rectangle(x0, y0BurstOne, w, h);
                             final Rectangle blockRectangle2 = new Rectangle(x0, y0BurstTwo, w, h);
 
-                            // apply ESD for pairs in this block stack
+                            // apply ESD for pairs in this block stack, each worker writes its own entry
                             final ThreadRunnable worker = new ThreadRunnable() {
                                 @Override
                                 public void process() {
-                                    ShiftData[] azimuthShiftsPerBlock = applyESDToBlockStack(
-                                            swath,
-                                            polarization,
+                                    shiftAllBlocks[overlapIndex][blockIndex] = applyESDToBlockStack(
+                                            complexImages,
                                             overlapIndex,
                                             blockIndex,
                                             blockRectangle1,
@@ -1089,16 +1088,13 @@ public class SpectralDiversityOp extends Operator {
                                             spectralSeparation,
                                             searchBoundary,
                                             usePeriodogram);
-                                    synchronized (shiftAllBlocks) {
-                                        shiftAllBlocks[overlapIndex][blockIndex] = azimuthShiftsPerBlock;
-                                    }
                                 }
                             };
                             executor.execute(worker);
                             status.worked(1);
                         }
-                        executor.complete();
                     }
+                    executor.complete();
                     status.done();
 
                     // compute average offset for images of this polarization
@@ -1270,9 +1266,11 @@ public class SpectralDiversityOp extends Operator {
      * Estimate azimuth offset of a block in the second image with respect to the same block in the first one using the
      * ESD approach. This method is applied to all the pairs of images (blocks) according to the arcs in the integration
      * network.
+     * <p>
+     * The blocks of every image are read once. Arcs are processed in the order of their last image, so the blocks of an
+     * image are released after its last arc and only the images within the temporal baseline are kept in memory.
      *
-     * @param swath              swath name.
-     * @param polarization       polarization name.
+     * @param complexImages      images of the block stack, indexed by the nodes of the arcs.
      * @param overlapIndex       index of this overlap.
      * @param blockIndex         index of this block in the overlap.
      * @param blockRectangle1    rectangle for this block in the first burst.
@@ -1282,47 +1280,62 @@ public class SpectralDiversityOp extends Operator {
      * @param usePeriodogram     flag to indicate the ESD estimation method: Periodogram (true) | Average (false).
      * @return an array of ShiftData objects describing the offsets for all the image (block) pairs
      */
-    private ShiftData[] applyESDToBlockStack(String swath, String polarization, int overlapIndex, int blockIndex, Rectangle blockRectangle1, Rectangle blockRectangle2, double[] spectralSeparation, double searchBoundary, boolean usePeriodogram) {
+    private ShiftData[] applyESDToBlockStack(List<CplxContainer> complexImages, int overlapIndex, int blockIndex,
+                                             Rectangle blockRectangle1, Rectangle blockRectangle2,
+                                             double[] spectralSeparation, double searchBoundary,
+                                             boolean usePeriodogram) {
         ShiftData[] azimuthShifts = new ShiftData[arcs.length];
         final int w = blockRectangle1.width;
         final int h = blockRectangle1.height;
 
         try {
-            for (int i = 0; i < arcs.length; i++) {  // for each pair
-                final int arcIndex = i;
+            // Chop spectralSeparation to fit the block
+            final double[] blockSpectralSeparation = chopSpectralSeparation(blockIndex, w, h, spectralSeparation);
 
-                checkForCancellation();
+            // process arcs ordered by their last image and find the last arc of each image
+            final Integer[] arcOrder = new Integer[arcs.length];
+            for (int i = 0; i < arcs.length; i++) {
+                arcOrder[i] = i;
+            }
+            Arrays.sort(arcOrder, Comparator.comparingInt((Integer i) -> Math.max(arcs[i][0], arcs[i][1]))
+                    .thenComparingInt(i -> Math.min(arcs[i][0], arcs[i][1])));
 
-                // get images and bands for this arc
-                String imagesKey = polarization.toUpperCase() + "_" + swath.toUpperCase();
-                List<CplxContainer> complexImages = this.complexImages.get(imagesKey);
-                CplxContainer image1 = complexImages.get(arcs[i][0]);
-                CplxContainer image2 = complexImages.get(arcs[i][1]);
+            final int[] lastArc = new int[complexImages.size()];
+            for (int k = 0; k < arcOrder.length; k++) {
+                lastArc[arcs[arcOrder[k]][0]] = k;
+                lastArc[arcs[arcOrder[k]][1]] = k;
+            }
 
-                final Band mBandI = image1.realBand;
-                final Band mBandQ = image1.imagBand;
-                final Band sBandI = image2.realBand;
-                final Band sBandQ = image2.imagBand;
+            // I and Q of the block in the first and second burst for each image
+            final BlockData[] blocks = new BlockData[complexImages.size()];
 
-                try {
+            for (int k = 0; k < arcOrder.length; k++) {  // for each pair
+                final int arcIndex = arcOrder[k];
+                final int node1 = arcs[arcIndex][0];
+                final int node2 = arcs[arcIndex][1];
 
-                    // Chop spectralSeparation to fit the block
-                    double[] blockSpectralSeparation = chopSpectralSeparation(blockIndex,
-                                                                              w, h,
-                                                                              spectralSeparation);
+                checkForCancellation();
 
-                    // Transform 2D coherence to 1D coherence only for the block
-                    final double[] blockCoherence = ravel(computeCoherence(blockRectangle1,
-                                                                           mBandI, mBandQ, sBandI, sBandQ,
-                                                                           cohWin));
+                try {
+                    if (blocks[node1] == null) {
+                        blocks[node1] = readBlock(complexImages.get(node1), blockRectangle1, blockRectangle2);
+                    }
+                    if (blocks[node2] == null) {
+                        blocks[node2] = readBlock(complexImages.get(node2), blockRectangle1, blockRectangle2);
+                    }
+                    final BlockData block1 = blocks[node1];
+                    final BlockData block2 = blocks[node2];
+
+                    // coherence only for the block
+                    final double[] blockCoherence = computeCoherence(block1.i1, block1.q1, block2.i1, block2.q1,
+                                                                     w, h, cohWin);
 
                     // Transform coherence into weights
                     final double[] blockWeight = getBlockWeight(blockCoherence, weightFunction);
                     double avgBlockWeight = getAverageBlockWeight(blockWeight);
 
                     // Calculate ESD phase
-                    final double[] esdPhase = estimateESDPhase(mBandI, mBandQ, sBandI, sBandQ,
-                                                               blockRectangle2, blockRectangle1);
+                    final double[] esdPhase = estimateESDPhase(block1, block2);
 
                     // Estimate the shift
                     double azShift;
@@ -1347,6 +1360,14 @@ public class SpectralDiversityOp extends Operator {
                 } catch (Throwable e) {
                     OperatorUtils.catchOperatorException("estimateOffset", e);
                 }
+
+                // release blocks not needed by the remaining arcs
+                if (lastArc[node1] == k) {
+                    blocks[node1] = null;
+                }
+                if (lastArc[node2] == k) {
+                    blocks[node2] = null;
+                }
             }
 
         } catch (Throwable e) {
@@ -1356,6 +1377,25 @@ public class SpectralDiversityOp extends Operator {
         return azimuthShifts;
     }
 
+    /**
+     * I and Q of one image over a block in the first and second burst of an overlap
+     */
+    private static class BlockData {
+        final float[] i1, q1, i2, q2;
+
+        BlockData(final float[] i1, final float[] q1, final float[] i2, final float[] q2) {
+            this.i1 = i1;
+            this.q1 = q1;
+            this.i2 = i2;
+            this.q2 = q2;
+        }
+    }
+
+    private BlockData readBlock(final CplxContainer image, final Rectangle rectangle1, final Rectangle rectangle2) {
+        return new BlockData(getSourceData(image.realBand, rectangle1), getSourceData(image.imagBand, rectangle1),
+                             getSourceData(image.realBand, rectangle2), getSourceData(image.imagBand, rectangle2));
+    }
+
     /**
      * Gets the canonical id from a complex image container.
      *
@@ -1543,20 +1583,6 @@ public class SpectralDiversityOp extends Operator {
         return choppedSpectralSeparation;
     }
 
-    private static double[] ravel(double[][] matrix) {
-        int height = matrix.length;
-        int width = matrix[0].length;
-        final double[] vector = new double[height * width];
-
-        for (int i = 0; i < vector.length; i++) {
-            final int r = i / width;
-            final int c = i - r * width;
-            vector[i] = matrix[r][c];
-        }
-
-        return vector;
-    }
-
     private static double[] getBlockCoherence(final int blockIndex, final int blockWidth, final int blockHeight,
                                               final double[][] coherence) {
 
@@ -1859,43 +1885,31 @@ public class SpectralDiversityOp extends Operator {
      * \phi_\textup{ESD} = \arg{\left \{ (m_i \cdot s^*_i) (m_{i+1} \cdot s^*_{i+1})^* \right \}}
      * </code>
      *
-     * @param mBandI            The band with the real part of the master image.
-     * @param mBandQ            The band with the imaginary part of the master image.
-     * @param sBandI            The band with the real part of the slave image.
-     * @param sBandQ            The band with the imaginary part of the slave image.
-     * @param backwardRectangle First burst rectangle.
-     * @param forwardRectangle  Second burst rectangle.
+     * @param master The block of the master image in the first and second burst.
+     * @param slave  The block of the slave image in the first and second burst.
      * @return ESD phase.
      */
-    private double[] estimateESDPhase(final Band mBandI, final Band mBandQ, final Band sBandI, final Band sBandQ,
-                                      final Rectangle backwardRectangle, final Rectangle forwardRectangle) {
-
-        final double[] mIBackArray = getSourceData(mBandI, backwardRectangle);
-        final double[] mQBackArray = getSourceData(mBandQ, backwardRectangle);
-        final double[] sIBackArray = getSourceData(sBandI, backwardRectangle);
-        final double[] sQBackArray = getSourceData(sBandQ, backwardRectangle);
-
-        final double[] mIForArray = getSourceData(mBandI, forwardRectangle);
-        final double[] mQForArray = getSourceData(mBandQ, forwardRectangle);
-        final double[] sIForArray = getSourceData(sBandI, forwardRectangle);
-        final double[] sQForArray = getSourceData(sBandQ, forwardRectangle);
-
-        final int arrayLength = mIBackArray.length;
-        final double[] backIntReal = new double[arrayLength];
-        final double[] backIntImag = new double[arrayLength];
-        complexArrayMultiplication(mIBackArray, mQBackArray, sIBackArray, sQBackArray, backIntReal, backIntImag);
-
-        final double[] forIntReal = new double[arrayLength];
-        final double[] forIntImag = new double[arrayLength];
-        complexArrayMultiplication(mIForArray, mQForArray, sIForArray, sQForArray, forIntReal, forIntImag);
-
-        final double[] diffIntReal = new double[arrayLength];
-        final double[] diffIntImag = new double[arrayLength];
-        complexArrayMultiplication(forIntReal, forIntImag, backIntReal, backIntImag, diffIntReal, diffIntImag);
+    private static double[] estimateESDPhase(final BlockData master, final BlockData slave) {
 
+        final int arrayLength = master.i1.length;
         final double[] phase = new double[arrayLength];
         for (int i = 0; i < arrayLength; i++) {
-            phase[i] = Math.atan2(diffIntImag[i], diffIntReal[i]);
+            // interferogram in the first burst
+            final double mI1 = master.i1[i], mQ1 = master.q1[i];
+            final double sI1 = slave.i1[i], sQ1 = slave.q1[i];
+            final double intReal1 = mI1 * sI1 + mQ1 * sQ1;
+            final double intImag1 = mQ1 * sI1 - mI1 * sQ1;
+
+            // interferogram in the second burst
+            final double mI2 = master.i2[i], mQ2 = master.q2[i];
+            final double sI2 = slave.i2[i], sQ2 = slave.q2[i];
+            final double intReal2 = mI2 * sI2 + mQ2 * sQ2;
+            final double intImag2 = mQ2 * sI2 - mI2 * sQ2;
+
+            // first * conj(second)
+            final double diffIntReal = intReal1 * intReal2 + intImag1 * intImag2;
+            final double diffIntImag = intImag1 * intReal2 - intReal1 * intImag2;
+            phase[i] = Math.atan2(diffIntImag, diffIntReal);
         }
 
         return phase;
@@ -2099,47 +2113,25 @@ public class SpectralDiversityOp extends Operator {
         return azShift;
     }
 
-    private double[] getSourceData(final Band srcBand, final Rectangle rectangle) {
+    private float[] getSourceData(final Band srcBand, final Rectangle rectangle) {
 
-        final int dataType = srcBand.getDataType();
         final Tile srcTile = getSourceTile(srcBand, rectangle);
-
-        double[] dataArray;
-        if (dataType == ProductData.TYPE_INT16) {
-            final short[] dataArrayShort = (short[]) srcTile.getDataBuffer().getElems();
-            dataArray = new double[dataArrayShort.length];
-            for (int i = 0; i < dataArrayShort.length; i++) {
-                dataArray[i] = (double) dataArrayShort[i];
-            }
-        } else if (dataType == ProductData.TYPE_FLOAT32) {
-            final float[] dataArrayFloat = (float[]) srcTile.getDataBuffer().getElems();
-            dataArray = new double[dataArrayFloat.length];
-            for (int i = 0; i < dataArrayFloat.length; i++) {
-                dataArray[i] = (double) dataArrayFloat[i];
+        final ProductData srcData = srcTile.getDataBuffer();
+        final TileIndex srcIndex = new TileIndex(srcTile);
+
+        final float[] dataArray = new float[rectangle.width * rectangle.height];
+        final int xMax = rectangle.x + rectangle.width;
+        final int yMax = rectangle.y + rectangle.height;
+        int k = 0;
+        for (int y = rectangle.y; y < yMax; ++y) {
+            srcIndex.calculateStride(y);
+            for (int x = rectangle.x; x < xMax; ++x) {
+                dataArray[k++] = srcData.getElemFloatAt(srcIndex.getIndex(x));
             }
-        } else {
-            dataArray = (double[]) srcTile.getDataBuffer().getElems();
         }
-
         return dataArray;
     }
 
-    private static void complexArrayMultiplication(final double[] realArray1, final double[] imagArray1,
-                                                   final double[] realArray2, final double[] imagArray2,
-                                                   final double[] realOutput, final double[] imagOutput) {
-
-        final int arrayLength = realArray1.length;
-        if (imagArray1.length != arrayLength || realArray2.length != arrayLength || imagArray2.length != arrayLength ||
-                realOutput.length != arrayLength || imagOutput.length != arrayLength) {
-            throw new OperatorException("Arrays of the same length are expected.");
-        }
-
-        for (int i = 0; i < arrayLength; i++) {
-            realOutput[i] = realArray1[i] * realArray2[i] + imagArray1[i] * imagArray2[i];
-            imagOutput[i] = imagArray1[i] * realArray2[i] - realArray1[i] * imagArray2[i];
-        }
-    }
-
     private Band getBand(final String suffix, final String prefix, final String swathIndexStr, final String polarization) {
 
         final String[] bandNames = sourceProduct.getBandNames();
@@ -2188,82 +2180,78 @@ public class SpectralDiversityOp extends Operator {
         }
     }
 
-    private double[][] computeCoherence(final Rectangle rectangle, final Band mBandI, final Band mBandQ,
-                                        final Band sBandI, final Band sBandQ, final int cohWin) {
+    /**
+     * Coherence of a block over a window of cohWin x cohWin pixels truncated at the block border. The window sums are
+     * taken from summed area tables, so the cost does not depend on the window size.
+     *
+     * @return coherence of the block in row major order
+     */
+    private static double[] computeCoherence(final float[] mI, final float[] mQ, final float[] sI, final float[] sQ,
+                                             final int w, final int h, final int cohWin) {
 
-        final int x0 = rectangle.x;
-        final int y0 = rectangle.y;
-        final int w = rectangle.width;
-        final int h = rectangle.height;
-        final int xMax = x0 + w;
-        final int yMax = y0 + h;
         final int halfWindowSize = cohWin / 2;
-        final double[][] coherence = new double[h][w];
-
-        final Tile mstTileI = getSourceTile(mBandI, rectangle);
-        final Tile mstTileQ = getSourceTile(mBandQ, rectangle);
-        final ProductData mstDataBufferI = mstTileI.getDataBuffer();
-        final ProductData mstDataBufferQ = mstTileQ.getDataBuffer();
-
-        final Tile slvTileI = getSourceTile(sBandI, rectangle);
-        final Tile slvTileQ = getSourceTile(sBandQ, rectangle);
-        final ProductData slvDataBufferI = slvTileI.getDataBuffer();
-        final ProductData slvDataBufferQ = slvTileQ.getDataBuffer();
-
-        final TileIndex srcIndex = new TileIndex(mstTileI);
+        final int stride = w + 1;
+        final int tableSize = stride * (h + 1);
+        final double[] cohRealTable = new double[tableSize];
+        final double[] cohImagTable = new double[tableSize];
+        final double[] mstPowerTable = new double[tableSize];
+        final double[] slvPowerTable = new double[tableSize];
+
+        // pixels with power, so that windows without any power are detected exactly
+        final int[] mstValidTable = new int[tableSize];
+        final int[] slvValidTable = new int[tableSize];
+
+        for (int yy = 0; yy < h; ++yy) {
+            double cohRealRow = 0.0, cohImagRow = 0.0, mstPowerRow = 0.0, slvPowerRow = 0.0;
+            int mstValidRow = 0, slvValidRow = 0;
+            final int t = (yy + 1) * stride;
+            for (int xx = 0; xx < w; ++xx) {
+                final int i = yy * w + xx;
+                final double mstPower = (double) mI[i] * mI[i] + (double) mQ[i] * mQ[i];
+                final double slvPower = (double) sI[i] * sI[i] + (double) sQ[i] * sQ[i];
+
+                cohRealRow += (double) mI[i] * sI[i] + (double) mQ[i] * sQ[i];
+                cohImagRow += (double) mQ[i] * sI[i] - (double) mI[i] * sQ[i];
+                mstPowerRow += mstPower;
+                slvPowerRow += slvPower;
+                if (mstPower != 0.0) {
+                    ++mstValidRow;
+                }
+                if (slvPower != 0.0) {
+                    ++slvValidRow;
+                }
 
-        final double[][] cohReal = new double[h][w];
-        final double[][] cohImag = new double[h][w];
-        final double[][] mstPower = new double[h][w];
-        final double[][] slvPower = new double[h][w];
-        for (int y = y0; y < yMax; ++y) {
-            srcIndex.calculateStride(y);
-            final int yy = y - y0;
-            for (int x = x0; x < xMax; ++x) {
-                final int srcIdx = srcIndex.getIndex(x);
-                final int xx = x - x0;
-
-                final float mI = mstDataBufferI.getElemFloatAt(srcIdx);
-                final float mQ = mstDataBufferQ.getElemFloatAt(srcIdx);
-                final float sI = slvDataBufferI.getElemFloatAt(srcIdx);
-                final float sQ = slvDataBufferQ.getElemFloatAt(srcIdx);
-
-                cohReal[yy][xx] = mI * sI + mQ * sQ;
-                cohImag[yy][xx] = mQ * sI - mI * sQ;
-                mstPower[yy][xx] = mI * mI + mQ * mQ;
-                slvPower[yy][xx] = sI * sI + sQ * sQ;
+                final int k = t + xx + 1;
+                cohRealTable[k] = cohRealTable[k - stride] + cohRealRow;
+                cohImagTable[k] = cohImagTable[k - stride] + cohImagRow;
+                mstPowerTable[k] = mstPowerTable[k - stride] + mstPowerRow;
+                slvPowerTable[k] = slvPowerTable[k - stride] + slvPowerRow;
+                mstValidTable[k] = mstValidTable[k - stride] + mstValidRow;
+                slvValidTable[k] = slvValidTable[k - stride] + slvValidRow;
             }
         }
 
-        for (int y = y0; y < yMax; ++y) {
-            final int yy = y - y0;
-            for (int x = x0; x < xMax; ++x) {
-                final int xx = x - x0;
-
-                final int rowSt = Math.max(yy - halfWindowSize, 0);
-                final int rowEd = Math.min(yy + halfWindowSize, h - 1);
+        final double[] coherence = new double[w * h];
+        for (int yy = 0; yy < h; ++yy) {
+            final int rowSt = Math.max(yy - halfWindowSize, 0) * stride;
+            final int rowEd = (Math.min(yy + halfWindowSize, h - 1) + 1) * stride;
+            for (int xx = 0; xx < w; ++xx) {
                 final int colSt = Math.max(xx - halfWindowSize, 0);
-                final int colEd = Math.min(xx + halfWindowSize, w - 1);
-
-                double cohRealSum = 0.0f, cohImagSum = 0.0f, mstPowerSum = 0.0f, slvPowerSum = 0.0f;
-                int count = 0;
-                for (int r = rowSt; r <= rowEd; r++) {
-                    for (int c = colSt; c <= colEd; c++) {
-                        cohRealSum += cohReal[r][c];
-                        cohImagSum += cohImag[r][c];
-                        mstPowerSum += mstPower[r][c];
-                        slvPowerSum += slvPower[r][c];
-                        count++;
-                    }
+                final int colEd = Math.min(xx + halfWindowSize, w - 1) + 1;
+
+                final int a = rowEd + colEd, b = rowSt + colEd, c = rowEd + colSt, d = rowSt + colSt;
+                if (mstValidTable[a] - mstValidTable[b] - mstValidTable[c] + mstValidTable[d] == 0 ||
+                        slvValidTable[a] - slvValidTable[b] - slvValidTable[c] + slvValidTable[d] == 0) {
+                    continue;
                 }
 
-                if (count > 0 && mstPowerSum != 0.0 && slvPowerSum != 0.0) {
-                    final double cohRealMean = cohRealSum / (double) count;
-                    final double cohImagMean = cohImagSum / (double) count;
-                    final double mstPowerMean = mstPowerSum / (double) count;
-                    final double slvPowerMean = slvPowerSum / (double) count;
-                    coherence[yy][xx] = Math.sqrt((cohRealMean * cohRealMean + cohImagMean * cohImagMean) /
-                                                          (mstPowerMean * slvPowerMean));
+                final double cohRealSum = cohRealTable[a] - cohRealTable[b] - cohRealTable[c] + cohRealTable[d];
+                final double cohImagSum = cohImagTable[a] - cohImagTable[b] - cohImagTable[c] + cohImagTable[d];
+                final double mstPowerSum = mstPowerTable[a] - mstPowerTable[b] - mstPowerTable[c] + mstPowerTable[d];
+                final double slvPowerSum = slvPowerTable[a] - slvPowerTable[b] - slvPowerTable[c] + slvPowerTable[d];
+                final double product = mstPowerSum * slvPowerSum;
+                if (product > 0.0) {
+                    coherence[yy * w + xx] = Math.sqrt((cohRealSum * cohRealSum + cohImagSum * cohImagSum) / product);
                 }
             }
         }
@@ -15,30 +15,18 @@
  */
 package org.esa.s1tbx.sentinel1.gpf.util;
 
-import org.apache.commons.math3.analysis.MultivariateMatrixFunction;
-import org.apache.commons.math3.analysis.MultivariateVectorFunction;
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.optim.ConvergenceChecker;
-import org.apache.commons.math3.optim.InitialGuess;
 import org.apache.commons.math3.optim.MaxEval;
 import org.apache.commons.math3.optim.PointValuePair;
-import org.apache.commons.math3.optim.PointVectorValuePair;
-import org.apache.commons.math3.optim.SimplePointChecker;
 import org.apache.commons.math3.optim.linear.LinearConstraint;
 import org.apache.commons.math3.optim.linear.LinearConstraintSet;
 import org.apache.commons.math3.optim.linear.LinearObjectiveFunction;
 import org.apache.commons.math3.optim.linear.Relationship;
 import org.apache.commons.math3.optim.linear.SimplexSolver;
 import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
-import org.apache.commons.math3.optim.nonlinear.vector.ModelFunction;
-import org.apache.commons.math3.optim.nonlinear.vector.ModelFunctionJacobian;
-import org.apache.commons.math3.optim.nonlinear.vector.Target;
-import org.apache.commons.math3.optim.nonlinear.vector.Weight;
-import org.apache.commons.math3.optim.nonlinear.vector.jacobian.LevenbergMarquardtOptimizer;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.util.MathArrays;
+import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.util.SystemUtils;
 
 
@@ -56,6 +44,9 @@ public class ArcDataIntegration {
 
     public static boolean referenceNodeIsLast = false;
 
+    // smallest pivot of the LDL' decomposition relative to the diagonal of the normal matrix
+    private static final double RELATIVE_PIVOT_TOLERANCE = 1e-12;
+
     /**
      * Integrates arc data to node data using weighted least squares (L2 norm).
      *     This function integrates arc `data` by finding `point_data` (the returned
@@ -82,62 +73,168 @@ public class ArcDataIntegration {
                 .flatMapToInt(Arrays::stream)
                 .max()
                 .getAsInt() + 1;
-        int noOfArcs = arcs.length;
         SystemUtils.LOG.fine("Number of nodes: " + noOfNodes);
-        SystemUtils.LOG.fine("Number of arcs: " + noOfArcs);
+        SystemUtils.LOG.fine("Number of arcs: " + arcs.length);
+        checkConnected(arcs, noOfNodes);
 
-        // A: coefficients matrix
-        double[][] incidenceMatrix = new double[noOfArcs][noOfNodes];
-        int[] sourceNodes = getColumnVector(arcs, 0);  // get column and set to zero reference node occurrences
-        int[] targetNodes = getColumnVector(arcs, 1);  // get column and set to zero reference node occurrences
-        setValues(incidenceMatrix, repeat(-1.0, noOfArcs), null, sourceNodes);  // source nodes
-        setValues(incidenceMatrix, repeat(1.0, noOfArcs), null, targetNodes);  // target nodes
+        return solveWeightedLeastSquares(arcs, data, weights, noOfNodes);
+    }
 
-        // remove reference node column
-        if (!referenceNodeIsLast) {
-            // remove first column
-            shiftColumnsLeft(incidenceMatrix, 1);
+    /**
+     * Solves the weighted least squares problem of {@link #integrateArcsL2} with the normal equations.
+     *     The normal matrix A' * diag(weights) * A is the weighted Laplacian of the graph without the reference node.
+     *     It only has non-zero elements within the largest index distance of the arcs, so it is factorized as a
+     *     banded LDL' decomposition. For a network of images sorted by date with a limited temporal baseline this is
+     *     linear in the number of images.
+     *     A pivot that is small relative to the diagonal of the normal matrix, e.g. for arcs with weights close to
+     *     zero holding the network together, is rejected with OperatorException.
+     *
+     * @param arcs every row should contain two indices corresponding to the end nodes of a specific arc.
+     * @param data data to be integrated.
+     * @param weights quality of arc data.
+     * @param noOfNodes number of nodes in the graph.
+     * @return an array with the integrated node data.
+     */
+    static double[] solveWeightedLeastSquares(int[][] arcs, double[] data, double[] weights, int noOfNodes) {
+
+        final int noOfUnknowns = noOfNodes - 1;
+        final int referenceNode = referenceNodeIsLast ? noOfNodes - 1 : 0;
+        final int indexOffset = referenceNodeIsLast ? 0 : 1;
+
+        // bandwidth of the normal matrix
+        int bandwidth = 0;
+        for (int[] arc : arcs) {
+            if (arc[0] != referenceNode && arc[1] != referenceNode) {
+                bandwidth = Math.max(bandwidth, Math.abs(arc[1] - arc[0]));
+            }
         }
-        dropLastColumn(incidenceMatrix);
 
-        // problem
-        ModelFunction problem = new ModelFunction(new MultivariateVectorFunction() {
-            RealMatrix jacobian = new Array2DRowRealMatrix(incidenceMatrix);
+        // lower band of the normal matrix: band[i][d] = N(i, i - d)
+        final double[][] band = new double[noOfUnknowns][bandwidth + 1];
+        final double[] rhs = new double[noOfUnknowns];
+        for (int k = 0; k < arcs.length; k++) {
+            final int source = arcs[k][0] - indexOffset;
+            final int target = arcs[k][1] - indexOffset;
+            final boolean hasSource = arcs[k][0] != referenceNode;
+            final boolean hasTarget = arcs[k][1] != referenceNode;
+            final double w = weights[k];
+
+            if (hasSource) {
+                band[source][0] += w;
+                rhs[source] -= w * data[k];
+            }
+            if (hasTarget) {
+                band[target][0] += w;
+                rhs[target] += w * data[k];
+            }
+            if (hasSource && hasTarget) {
+                band[Math.max(source, target)][Math.abs(target - source)] -= w;
+            }
+        }
 
-            public double[] value(double[] params) {
-                double[] values = jacobian.operate(params);
+        // LDL' decomposition in place: band[i][0] holds D(i), band[i][d] holds L(i, i - d)
+        for (int i = 0; i < noOfUnknowns; i++) {
+            final int jMin = Math.max(0, i - bandwidth);
+            for (int j = jMin; j <= i; j++) {
+                double sum = band[i][i - j];
+                for (int k = jMin; k < j; k++) {
+                    if (j - k <= bandwidth) {
+                        sum -= band[i][i - k] * band[k][0] * band[j][j - k];
+                    }
+                }
+                if (j < i) {
+                    band[i][i - j] = sum / band[j][0];
+                } else {
+                    // band[i][0] still holds the diagonal of the normal matrix
+                    if (!(sum > RELATIVE_PIVOT_TOLERANCE * Math.abs(band[i][0]))) {
+                        throw new OperatorException("Near singular network at image " + (i + indexOffset) +
+                                ", check the arc weights.");
+                    }
+                    band[i][0] = sum;
+                }
+            }
+        }
 
-                return values;
+        // forward substitution, scaling and back substitution
+        final double[] x = rhs;
+        for (int i = 0; i < noOfUnknowns; i++) {
+            for (int j = Math.max(0, i - bandwidth); j < i; j++) {
+                x[i] -= band[i][i - j] * x[j];
             }
-        });
+        }
+        for (int i = 0; i < noOfUnknowns; i++) {
+            x[i] /= band[i][0];
+        }
+        for (int i = noOfUnknowns - 1; i >= 0; i--) {
+            for (int j = i + 1; j <= Math.min(noOfUnknowns - 1, i + bandwidth); j++) {
+                x[i] -= band[j][j - i] * x[j];
+            }
+        }
+
+        final double[] nodeData = new double[noOfNodes];
+        System.arraycopy(x, 0, nodeData, indexOffset, noOfUnknowns);  // reference node is 0
+        return nodeData;
+    }
 
-        ModelFunctionJacobian problemJacobian =  new ModelFunctionJacobian(new MultivariateMatrixFunction() {
-            double[][] jacobian = incidenceMatrix;
+    /**
+     * The node data of the parts of a graph that is not connected are not related, so the integration needs a
+     * connected graph.
+     */
+    private static void checkConnected(int[][] arcs, int noOfNodes) {
+        if (!GraphUtils.isConnectedGraph(arcs, noOfNodes)) {
+            throw new OperatorException("The network of images is not connected.");
+        }
+    }
+
+    /**
+     * Approximates the L1 integration of {@link #integrateArcsL1} with iteratively reweighted least squares.
+     *     Each iteration solves the sparse weighted least squares problem with the arc weights divided by the
+     *     absolute residuals of the previous solution, so it scales like the L2 integration instead of a dense
+     *     linear program.
+     *
+     * @param arcs every row should contain two indices corresponding to the end nodes of a specific arc.
+     * @param data data to be integrated.
+     * @param weights quality of arc data.
+     * @return an array with the integrated node data.
+     */
+    public static double[] integrateArcsL1Reweighted(int[][] arcs, double[] data, double[] weights) {
+        final int maxIterations = 200;
+        final double tolerance = 1e-12;
 
-            public double[][] value(double[] params) {
-                return jacobian;
+        int noOfNodes = Arrays.stream(arcs)
+                .flatMapToInt(Arrays::stream)
+                .max()
+                .getAsInt() + 1;
+        checkConnected(arcs, noOfNodes);
+
+        double scale = 0;
+        for (double value : data) {
+            scale = Math.max(scale, Math.abs(value));
+        }
+        final double minResidual = Math.max(scale * 1e-9, Double.MIN_NORMAL);
+
+        final double[] absWeights = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            absWeights[i] = Math.abs(weights[i]);
+        }
+
+        double[] nodeData = solveWeightedLeastSquares(arcs, data, absWeights, noOfNodes);
+        final double[] iterationWeights = new double[weights.length];
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            for (int i = 0; i < arcs.length; i++) {
+                final double residual = nodeData[arcs[i][1]] - nodeData[arcs[i][0]] - data[i];
+                iterationWeights[i] = absWeights[i] / Math.max(Math.abs(residual), minResidual);
             }
-        });
-
-        // optimization
-        ConvergenceChecker<PointVectorValuePair> checker = new SimplePointChecker(0.00001, -1.0);
-        LevenbergMarquardtOptimizer optimizer = new LevenbergMarquardtOptimizer(checker);
-        int maxIterations = 10000;
-        PointVectorValuePair solution = optimizer.optimize(new MaxEval(maxIterations),
-                                                           problem,
-                                                           problemJacobian,
-                                                           new Target(data),
-                                                           new Weight(weights),
-                                                           new InitialGuess(new double[noOfNodes - 1]));
+            final double[] newNodeData = solveWeightedLeastSquares(arcs, data, iterationWeights, noOfNodes);
 
-        // return solution
-        double[] nodeData;
-        if (referenceNodeIsLast) {
-            nodeData = Arrays.copyOf(solution.getPoint(), noOfNodes);
-            nodeData[noOfNodes - 1] = 0;  // add reference node back (last)
-        } else {
-            nodeData = new double[noOfNodes];
-            System.arraycopy(solution.getPoint(), 0, nodeData, 1, noOfNodes - 1);  // reference node (first) is 0
+            double change = 0;
+            for (int i = 0; i < noOfNodes; i++) {
+                change = Math.max(change, Math.abs(newNodeData[i] - nodeData[i]));
+            }
+            nodeData = newNodeData;
+            if (change <= tolerance * Math.max(scale, 1.0)) {
+                break;
+            }
         }
 
         return nodeData;
@@ -252,10 +349,13 @@ public class ArcDataIntegration {
     /**
      * Integrates arc data to node data using L1 and L2 norms. Steps are the following:
      * <p><ol>
-     * <li>Integrate arc data using L1 to get a first approximation of node data.</li>
+     * <li>Integrate arc data using L1 (iteratively reweighted least squares) to get a first approximation of node data.</li>
      * <li>Removal of outlier arcs, i.e. those with a large difference between the input arc data and the results from L1.</li>
      * <li>Integrate arc data using L2 to the (sub)set of arcs.</li>
      * </ol>
+     * Both steps use the banded least squares solver, so stacks of many images do not go through the dense linear
+     * program of {@link #integrateArcsL1}. Where the L1 solution is not unique the first approximation, and thus the
+     * arcs flagged as outliers, may differ from those of the linear program.
      * @param arcs every row should contain two indices corresponding to the end nodes of a specific arc.
      * @param data data to be integrated.
      * @param weights quality of arc data.
@@ -265,7 +365,7 @@ public class ArcDataIntegration {
         double[] nodeData;
 
         // L1
-        nodeData = integrateArcsL1(arcs, data, weights);
+        nodeData = integrateArcsL1Reweighted(arcs, data, weights);
 
         // remove outliers
         List<Integer> nonOutlierIndices = flagNonOutlierArcs(arcs, data, nodeData);
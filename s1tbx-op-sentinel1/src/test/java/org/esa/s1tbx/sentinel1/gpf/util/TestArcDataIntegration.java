@@ -16,9 +16,13 @@
 package org.esa.s1tbx.sentinel1.gpf.util;
 
 import org.apache.commons.math3.optim.PointValuePair;
+import org.esa.snap.core.gpf.OperatorException;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * Unit test for ArcDataIntegration.
@@ -123,6 +127,112 @@ public class TestArcDataIntegration {
         assertDoubleArrays(SOLUTION_L2_WEIGHTS1, nodes, TOLERANCE);
     }
 
+    /**
+     * Test arc integration using iteratively reweighted least squares for the L1 norm.
+     */
+    @Test
+    public void testIntegrateArcsL1Reweighted() {
+        double[] nodes;
+
+        ArcDataIntegration.referenceNodeIsLast = true;
+
+        nodes = ArcDataIntegration.integrateArcsL1Reweighted(ARCS, ARC_DATA_L1, WEIGHTS1);
+        assertDoubleArrays(SOLUTION_L1_WEIGHTS1, nodes, TOLERANCE);
+    }
+
+    /**
+     * Test arc integration using L1 and L2 norms on a network of images with outlier arcs.
+     */
+    @Test
+    public void testIntegrateArcsL1AndL2_network() {
+        final int noOfNodes = 30;
+        final int maxDistance = 4;
+        final double[] nodeData = new double[noOfNodes];
+        for (int i = 0; i < noOfNodes; i++) {
+            nodeData[i] = 0.01 * Math.cos(0.3 * i);
+        }
+
+        final List<int[]> arcList = new ArrayList<>();
+        for (int i = 0; i < noOfNodes; i++) {
+            for (int j = i + 1; j <= Math.min(i + maxDistance, noOfNodes - 1); j++) {
+                arcList.add(new int[]{i, j});
+            }
+        }
+        final int[][] arcs = arcList.toArray(new int[0][]);
+        final double[] data = new double[arcs.length];
+        final double[] weights = new double[arcs.length];
+        for (int i = 0; i < arcs.length; i++) {
+            data[i] = nodeData[arcs[i][1]] - nodeData[arcs[i][0]] + 1e-5 * Math.sin(1.7 * i);
+            weights[i] = 1.0;
+        }
+        // gross errors on a few arcs
+        data[7] += 0.5;
+        data[40] -= 0.3;
+        data[81] += 0.2;
+
+        ArcDataIntegration.referenceNodeIsLast = false;
+        final double[] nodes = ArcDataIntegration.integrateArcsL1AndL2(arcs, data, weights);
+        final double[] expected = new double[noOfNodes];
+        for (int i = 0; i < noOfNodes; i++) {
+            expected[i] = nodeData[i] - nodeData[0];
+        }
+        assertDoubleArrays(expected, nodes, 1e-4);
+    }
+
+    /**
+     * Test that a network of two unconnected parts is rejected.
+     */
+    @Test(expected = OperatorException.class)
+    public void testIntegrateArcsL2_disconnected() {
+        final int[][] arcs = {{0, 1}, {1, 2}, {3, 4}, {4, 5}};
+        ArcDataIntegration.referenceNodeIsLast = false;
+        ArcDataIntegration.integrateArcsL2(arcs, new double[]{1, 2, 3, 4}, new double[]{1, 1, 1, 1});
+    }
+
+    /**
+     * Test arc integration using L2 norm on a network of images connected within a temporal baseline.
+     */
+    @Test
+    public void testIntegrateArcsL2_network() {
+        final int noOfNodes = 20;
+        final int maxDistance = 3;
+        final double[] nodeData = new double[noOfNodes];
+        for (int i = 0; i < noOfNodes; i++) {
+            nodeData[i] = Math.sin(0.7 * i) + 0.01 * i * i;
+        }
+
+        final List<int[]> arcList = new ArrayList<>();
+        for (int i = 0; i < noOfNodes; i++) {
+            for (int j = i + 1; j <= Math.min(i + maxDistance, noOfNodes - 1); j++) {
+                arcList.add(new int[]{i, j});
+            }
+        }
+        final int[][] arcs = arcList.toArray(new int[0][]);
+        final double[] data = new double[arcs.length];
+        final double[] weights = new double[arcs.length];
+        for (int i = 0; i < arcs.length; i++) {
+            data[i] = nodeData[arcs[i][1]] - nodeData[arcs[i][0]];
+            weights[i] = 1.0 + (i % 3);
+        }
+
+        // reference node first
+        ArcDataIntegration.referenceNodeIsLast = false;
+        double[] nodes = ArcDataIntegration.integrateArcsL2(arcs, data, weights);
+        double[] expected = new double[noOfNodes];
+        for (int i = 0; i < noOfNodes; i++) {
+            expected[i] = nodeData[i] - nodeData[0];
+        }
+        assertDoubleArrays(expected, nodes, TOLERANCE);
+
+        // reference node last
+        ArcDataIntegration.referenceNodeIsLast = true;
+        nodes = ArcDataIntegration.integrateArcsL2(arcs, data, weights);
+        for (int i = 0; i < noOfNodes; i++) {
+            expected[i] = nodeData[i] - nodeData[noOfNodes - 1];
+        }
+        assertDoubleArrays(expected, nodes, TOLERANCE);
+    }
+
     /**
      * Test some array operations.
      */
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.utilities.gpf;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Oversampling of a complex source rectangle by zero padding of its 2-D spectrum.
+ * <p>
+ * The rows are transformed in range, the columns of the range spectrum are transformed in azimuth, zero
+ * padded around their Doppler centroid and transformed back, and the rows are zero padded and transformed
+ * back. Complex samples are kept interleaved in contiguous arrays: the source rows, the columns and the
+ * output rows. The transpositions between rows and columns are done in cache sized blocks, and the zero
+ * padding of the rows is applied while transposing the columns back, for the requested output rows only.
+ * A pass is skipped when it cannot change the samples: the azimuth pass when the height is not changed,
+ * and the range pass when the width is not changed and all columns share the same Doppler split.
+ * <p>
+ * FFT plans are cached by size and the buffers grow to the largest rectangle seen, so OversamplingOp keeps
+ * one oversampler per thread. To bound what a thread holds between tiles, releaseBuffers drops the buffers
+ * larger than the retained length once the oversampled rows have been consumed.
+ */
+public final class FFTOversampler {
+
+    private static final int BLOCK_SIZE = 32;
+
+    // 2M doubles, 16 MB per buffer: the complex samples of a 1024 x 1024 rectangle
+    private static final int DEFAULT_MAX_RETAINED_LENGTH = 2 * 1024 * 1024;
+
+    private final int maxRetainedLength;
+
+    private final Map<Integer, DoubleFFT_1D> plans = new HashMap<>();
+
+    private double[] source = new double[0];
+    private double[] columns = new double[0];
+    private double[] rows = new double[0];
+
+    public FFTOversampler() {
+        this(DEFAULT_MAX_RETAINED_LENGTH);
+    }
+
+    /**
+     * @param maxRetainedLength the length of the largest buffer kept by releaseBuffers
+     */
+    public FFTOversampler(final int maxRetainedLength) {
+        this.maxRetainedLength = maxRetainedLength;
+    }
+
+    /**
+     * Get the buffer to fill with the source rectangle before calling oversample
+     *
+     * @param width  width of the source rectangle
+     * @param height height of the source rectangle
+     * @return the buffer for the complex samples as [2 * (y * width + x)] real and [2 * (y * width + x) + 1]
+     * imaginary parts
+     */
+    public double[] getSourceBuffer(final int width, final int height) {
+        if (source.length < 2 * width * height) {
+            source = new double[2 * width * height];
+        }
+        return source;
+    }
+
+    /**
+     * Oversample the source rectangle in the source buffer. The source buffer is overwritten.
+     *
+     * @param width             width of the source rectangle
+     * @param height            height of the source rectangle
+     * @param overSampledWidth  width of the oversampled rectangle
+     * @param overSampledHeight height of the oversampled rectangle
+     * @param azimuthSplits     for each column of the range spectrum, the index of the azimuth spectrum
+     *                          at which the zeros are inserted
+     * @param firstRow          first oversampled row to return
+     * @param numRows           number of oversampled rows to return
+     * @return the oversampled rows, row r at [2 * (r * overSampledWidth + x)], in the buffer of the
+     * oversampler. The samples are scaled by width * height / (overSampledWidth * overSampledHeight).
+     */
+    public double[] oversample(final int width, final int height,
+                               final int overSampledWidth, final int overSampledHeight,
+                               final int[] azimuthSplits, final int firstRow, final int numRows) {
+
+        final boolean rangePass = overSampledWidth != width || !isConstant(azimuthSplits, width);
+        final boolean azimuthPass = overSampledHeight != height;
+
+        if (rows.length < 2 * overSampledWidth * numRows) {
+            rows = new double[2 * overSampledWidth * numRows];
+        }
+
+        if (rangePass) {
+            final DoubleFFT_1D rowFFT = getPlan(width);
+            for (int y = 0; y < height; ++y) {
+                rowFFT.complexForward(source, 2 * y * width);
+            }
+        }
+
+        if (azimuthPass) {
+            if (columns.length < 2 * overSampledHeight * width) {
+                columns = new double[2 * overSampledHeight * width];
+            }
+            transposeToColumns(width, height, overSampledHeight);
+
+            final DoubleFFT_1D colFFT = getPlan(height);
+            final DoubleFFT_1D overSampledColFFT = getPlan(overSampledHeight);
+            final int numZeros = overSampledHeight - height;
+            for (int x = 0; x < width; ++x) {
+                final int offset = 2 * x * overSampledHeight;
+                colFFT.complexForward(columns, offset);
+
+                // insert the zeros at the split of the spectrum in place
+                final int d = azimuthSplits[x];
+                System.arraycopy(columns, offset + 2 * d, columns, offset + 2 * (d + numZeros), 2 * (height - d));
+                Arrays.fill(columns, offset + 2 * d, offset + 2 * (d + numZeros), 0.0);
+
+                overSampledColFFT.complexInverse(columns, offset, true);
+            }
+            transposeToRows(columns, 2, 2 * overSampledHeight, width, overSampledWidth, firstRow, numRows);
+        } else {
+            transposeToRows(source, 2 * width, 2, width, overSampledWidth, firstRow, numRows);
+        }
+
+        if (rangePass) {
+            final DoubleFFT_1D overSampledRowFFT = getPlan(overSampledWidth);
+            for (int r = 0; r < numRows; ++r) {
+                overSampledRowFFT.complexInverse(rows, 2 * r * overSampledWidth, true);
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Drop the buffers larger than the retained length. The rows returned by oversample must not be used
+     * afterwards.
+     */
+    public void releaseBuffers() {
+        if (source.length > maxRetainedLength) {
+            source = new double[0];
+        }
+        if (columns.length > maxRetainedLength) {
+            columns = new double[0];
+        }
+        if (rows.length > maxRetainedLength) {
+            rows = new double[0];
+        }
+    }
+
+    /**
+     * @return the total length of the buffers held
+     */
+    long getBufferLength() {
+        return (long) source.length + columns.length + rows.length;
+    }
+
+    private DoubleFFT_1D getPlan(final int size) {
+        return plans.computeIfAbsent(size, DoubleFFT_1D::new);
+    }
+
+    private static boolean isConstant(final int[] values, final int length) {
+        for (int i = 1; i < length; ++i) {
+            if (values[i] != values[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the source rows into the first height samples of the columns
+     */
+    private void transposeToColumns(final int width, final int height, final int overSampledHeight) {
+        for (int y0 = 0; y0 < height; y0 += BLOCK_SIZE) {
+            final int yMax = Math.min(y0 + BLOCK_SIZE, height);
+            for (int x0 = 0; x0 < width; x0 += BLOCK_SIZE) {
+                final int xMax = Math.min(x0 + BLOCK_SIZE, width);
+                for (int x = x0; x < xMax; ++x) {
+                    int k = 2 * (x * overSampledHeight + y0);
+                    for (int y = y0; y < yMax; ++y) {
+                        final int s = 2 * (y * width + x);
+                        columns[k++] = source[s];
+                        columns[k++] = source[s + 1];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy rows firstRow to firstRow + numRows of the data into the output rows, inserting the zeros of the
+     * range padding after the first half of the range spectrum
+     *
+     * @param data      the samples
+     * @param rowStride distance between two rows of the data
+     * @param colStride distance between two columns of the data
+     */
+    private void transposeToRows(final double[] data, final int rowStride, final int colStride,
+                                 final int width, final int overSampledWidth, final int firstRow, final int numRows) {
+        final int firstHalf = width / 2;
+        final int numZeros = overSampledWidth - width;
+        for (int r = 0; r < numRows; ++r) {
+            final int offset = 2 * r * overSampledWidth;
+            Arrays.fill(rows, offset + 2 * firstHalf, offset + 2 * (firstHalf + numZeros), 0.0);
+        }
+
+        for (int r0 = 0; r0 < numRows; r0 += BLOCK_SIZE) {
+            final int rMax = Math.min(r0 + BLOCK_SIZE, numRows);
+            for (int x0 = 0; x0 < width; x0 += BLOCK_SIZE) {
+                final int xMax = Math.min(x0 + BLOCK_SIZE, width);
+                for (int r = r0; r < rMax; ++r) {
+                    final int offset = 2 * r * overSampledWidth;
+                    final int s0 = (firstRow + r) * rowStride;
+                    for (int x = x0; x < xMax; ++x) {
+                        final int k = offset + 2 * (x < firstHalf ? x : x + numZeros);
+                        final int s = s0 + x * colStride;
+                        rows[k] = data[s];
+                        rows[k + 1] = data[s + 1];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2021 by SkyWatch Space Applications Inc. http://www.skywatch.com
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.esa.s1tbx.utilities.gpf;
+
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FFTOversampler against the oversampling of OversamplingOp before the oversampler, on synthetic point targets
+ */
+public class TestFFTOversampler {
+
+    private static final int sw = 48;
+    private static final int sh = 40;
+    private static final int[][] targets = {{12, 10}, {30, 25}, {41, 33}};
+
+    @Test
+    public void testRatio2() {
+        compare(2, 2, createDopplerSplits(), 0, 2 * sh);
+    }
+
+    @Test
+    public void testRatio4() {
+        compare(4, 4, createDopplerSplits(), 10, 100);
+    }
+
+    @Test
+    public void testRangeRatio1() {
+        compare(1, 2, createConstantSplits(), 5, 60);
+    }
+
+    @Test
+    public void testRangeRatio1WithDoppler() {
+        compare(1, 2, createDopplerSplits(), 5, 60);
+    }
+
+    @Test
+    public void testAzimuthRatio1() {
+        compare(2, 1, createDopplerSplits(), 0, sh);
+    }
+
+    @Test
+    public void testReleaseBuffers() {
+        final int osw = 2 * sw, osh = 2 * sh;
+        final int[] splits = createDopplerSplits();
+        final double[] data = createPointTargets();
+        final double[] expected = oversample(data, 2, 2, splits, 0, osh);
+
+        // the source buffer is retained, the columns and rows are larger and dropped
+        final FFTOversampler oversampler = new FFTOversampler(2 * sw * sh);
+        for (int i = 0; i < 2; ++i) {
+            System.arraycopy(data, 0, oversampler.getSourceBuffer(sw, sh), 0, 2 * sw * sh);
+            final double[] rows = oversampler.oversample(sw, sh, osw, osh, splits, 0, osh);
+            for (int k = 0; k < 2 * osw * osh; ++k) {
+                assertEquals(expected[k], rows[k], 1e-9);
+            }
+            assertEquals(2 * sw * sh + 2 * osh * sw + 2 * osw * osh, oversampler.getBufferLength());
+
+            oversampler.releaseBuffers();
+            assertEquals(2 * sw * sh, oversampler.getBufferLength());
+        }
+    }
+
+    @Test
+    public void testPeakAndPSLR() {
+        final int ratio = 2;
+        final int osw = ratio * sw, osh = ratio * sh;
+        final int[] splits = createConstantSplits();
+
+        final FFTOversampler oversampler = new FFTOversampler();
+        System.arraycopy(createPointTargets(), 0, oversampler.getSourceBuffer(sw, sh), 0, 2 * sw * sh);
+        final double[] rows = oversampler.oversample(sw, sh, osw, osh, splits, 0, osh);
+        final double[] expected = oversample(createPointTargets(), ratio, ratio, splits, 0, osh);
+
+        for (int[] target : targets) {
+            final int px = ratio * target[0];
+            final int py = ratio * target[1];
+            // the peak within half a source pixel of the target is on the oversampled position of the target
+            int maxX = px, maxY = py;
+            for (int y = py - ratio / 2; y <= py + ratio / 2; ++y) {
+                for (int x = px - ratio / 2; x <= px + ratio / 2; ++x) {
+                    if (magnitude(rows, osw, x, y) > magnitude(rows, osw, maxX, maxY)) {
+                        maxX = x;
+                        maxY = y;
+                    }
+                }
+            }
+            assertEquals(px, maxX);
+            assertEquals(py, maxY);
+
+            final double rangePSLR = getPSLR(rows, osw, px, py, ratio, 1, 0);
+            final double azimuthPSLR = getPSLR(rows, osw, px, py, ratio, 0, 1);
+            // the side lobes of the sinc response are 13.26 dB below the peak
+            assertTrue("range PSLR " + rangePSLR, rangePSLR < -12.5 && rangePSLR > -14.0);
+            assertTrue("azimuth PSLR " + azimuthPSLR, azimuthPSLR < -12.5 && azimuthPSLR > -14.0);
+            assertEquals(getPSLR(expected, osw, px, py, ratio, 1, 0), rangePSLR, 1e-6);
+            assertEquals(getPSLR(expected, osw, px, py, ratio, 0, 1), azimuthPSLR, 1e-6);
+        }
+    }
+
+    private static void compare(final int widthRatio, final int heightRatio, final int[] splits,
+                                final int firstRow, final int numRows) {
+        final int osw = widthRatio * sw;
+        final int osh = heightRatio * sh;
+        final double[] data = createPointTargets();
+
+        final FFTOversampler oversampler = new FFTOversampler();
+        // reuse the oversampler as the operator does across tiles
+        for (int i = 0; i < 2; ++i) {
+            System.arraycopy(data, 0, oversampler.getSourceBuffer(sw, sh), 0, 2 * sw * sh);
+            final double[] rows = oversampler.oversample(sw, sh, osw, osh, splits, firstRow, numRows);
+            final double[] expected = oversample(data, widthRatio, heightRatio, splits, firstRow, numRows);
+
+            for (int k = 0; k < 2 * osw * numRows; ++k) {
+                assertEquals(expected[k], rows[k], 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Range line of the peak for dx = 1, azimuth column for dy = 1. The main lobe extends to the first
+     * nulls at ratio samples from the peak.
+     */
+    private static double getPSLR(final double[] rows, final int osw, final int px, final int py, final int ratio,
+                                  final int dx, final int dy) {
+        final double peak = magnitude(rows, osw, px, py);
+        double sideLobe = 0.0;
+        for (int k = ratio; k <= 8 * ratio; ++k) {
+            sideLobe = Math.max(sideLobe, magnitude(rows, osw, px + k * dx, py + k * dy));
+            sideLobe = Math.max(sideLobe, magnitude(rows, osw, px - k * dx, py - k * dy));
+        }
+        return 20.0 * Math.log10(sideLobe / peak);
+    }
+
+    /**
+     * Magnitude of a sample of the full oversampled rectangle, which is periodic
+     */
+    private static double magnitude(final double[] rows, final int osw, final int x, final int y) {
+        final int osh = rows.length / (2 * osw);
+        final int k = 2 * (Math.floorMod(y, osh) * osw + Math.floorMod(x, osw));
+        return Math.sqrt(rows[k] * rows[k] + rows[k + 1] * rows[k + 1]);
+    }
+
+    /**
+     * Point targets of different phase on a weak clutter
+     */
+    private static double[] createPointTargets() {
+        final double[] data = new double[2 * sw * sh];
+        for (int i = 0; i < sw * sh; ++i) {
+            data[2 * i] = 1e-3 * Math.cos(0.7 * i);
+            data[2 * i + 1] = 1e-3 * Math.sin(1.3 * i);
+        }
+        double phase = 0.3;
+        for (int[] target : targets) {
+            final int k = 2 * (target[1] * sw + target[0]);
+            data[k] = 100.0 * Math.cos(phase);
+            data[k + 1] = 100.0 * Math.sin(phase);
+            phase += 1.9;
+        }
+        return data;
+    }
+
+    private static int[] createConstantSplits() {
+        final int[] splits = new int[sw];
+        Arrays.fill(splits, sh / 2);
+        return splits;
+    }
+
+    /**
+     * Splits of a Doppler centroid varying across the range spectrum
+     */
+    private static int[] createDopplerSplits() {
+        final int[] splits = new int[sw];
+        for (int x = 0; x < sw; ++x) {
+            final int idxFdc = (int) (0.2 * sh * Math.sin(0.1 * x) + 0.5);
+            splits[x] = (idxFdc + sh / 2) % sh;
+        }
+        return splits;
+    }
+
+    /**
+     * The oversampling of OversamplingOp.computeOverSampledTileForComplexImage before the oversampler
+     */
+    private static double[] oversample(final double[] data, final int widthRatio, final int heightRatio,
+                                       final int[] splits, final int ySt, final int targetTileHeight) {
+        final int sourceTileWidth = sw;
+        final int sourceTileHeight = sh;
+        final int overSampledSourceTileWidth = widthRatio * sw;
+        final int overSampledSourceTileHeight = heightRatio * sh;
+
+        final double[][] tmpI = new double[overSampledSourceTileHeight][sourceTileWidth];
+        final double[][] tmpQ = new double[overSampledSourceTileHeight][sourceTileWidth];
+
+        final double[] rowArray = new double[sourceTileWidth * 2];
+
+        // perform 1-D FFT on each row
+        final DoubleFFT_1D src_row_fft = new DoubleFFT_1D(sourceTileWidth);
+        for (int y = 0; y < sourceTileHeight; y++) {
+            System.arraycopy(data, 2 * y * sourceTileWidth, rowArray, 0, 2 * sourceTileWidth);
+            src_row_fft.complexForward(rowArray);
+            for (int x = 0; x < sourceTileWidth; x++) {
+                tmpI[y][x] = rowArray[2 * x];
+                tmpQ[y][x] = rowArray[2 * x + 1];
+            }
+        }
+
+        final double[] colArray = new double[2 * sourceTileHeight];
+        final double[] zeroPaddedColSpec = new double[2 * overSampledSourceTileHeight];
+
+        // perform 1-D FFT, zero padding and IFFT on each column
+        final DoubleFFT_1D src_col_fft = new DoubleFFT_1D(sourceTileHeight);
+        final DoubleFFT_1D tgt_col_fft = new DoubleFFT_1D(overSampledSourceTileHeight);
+        for (int x = 0; x < sourceTileWidth; x++) {
+            int k = 0;
+            for (int y = 0; y < sourceTileHeight; ++y) {
+                colArray[k++] = tmpI[y][x];
+                colArray[k++] = tmpQ[y][x];
+            }
+            src_col_fft.complexForward(colArray);
+
+            final int d = splits[x];
+            Arrays.fill(zeroPaddedColSpec, 0.0);
+            System.arraycopy(colArray, 0, zeroPaddedColSpec, 0, d * 2);
+            System.arraycopy(colArray, d * 2, zeroPaddedColSpec,
+                    2 * (overSampledSourceTileHeight - sourceTileHeight + d), (sourceTileHeight - d) * 2);
+
+            tgt_col_fft.complexInverse(zeroPaddedColSpec, true);
+            k = 0;
+            for (int y = 0; y < overSampledSourceTileHeight; ++y) {
+                tmpI[y][x] = zeroPaddedColSpec[k++];
+                tmpQ[y][x] = zeroPaddedColSpec[k++];
+            }
+        }
+
+        final double[] tgtRow = new double[overSampledSourceTileWidth * 2];
+        final double[] rows = new double[2 * overSampledSourceTileWidth * targetTileHeight];
+
+        // zero padding and perform 1-D IFFT on each row
+        final DoubleFFT_1D tgt_row_fft = new DoubleFFT_1D(overSampledSourceTileWidth);
+        for (int y = 0; y < targetTileHeight; y++) {
+            Arrays.fill(tgtRow, 0.0);
+            final int firstHalfSourceTileWidth = (int) (sourceTileWidth / 2 + 0.5);
+            int k = 0;
+            for (int x = 0; x < firstHalfSourceTileWidth; ++x) {
+                tgtRow[k++] = tmpI[y + ySt][x];
+                tgtRow[k++] = tmpQ[y + ySt][x];
+            }
+            final int secondHalfSourceTileWidth = sourceTileWidth - firstHalfSourceTileWidth;
+            k = 2 * (overSampledSourceTileWidth - secondHalfSourceTileWidth);
+            for (int x = firstHalfSourceTileWidth; x < sourceTileWidth; ++x) {
+                tgtRow[k++] = tmpI[y + ySt][x];
+                tgtRow[k++] = tmpQ[y + ySt][x];
+            }
+
+            tgt_row_fft.complexInverse(tgtRow, true);
+            System.arraycopy(tgtRow, 0, rows, 2 * y * overSampledSourceTileWidth, 2 * overSampledSourceTileWidth);
+        }
+        return rows;
+    }
+}
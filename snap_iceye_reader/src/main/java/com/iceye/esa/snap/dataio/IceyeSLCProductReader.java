@@ -5,6 +5,7 @@ import com.iceye.esa.snap.dataio.util.IceyeXConstants;
 import org.esa.s1tbx.commons.io.SARReader;
 import org.esa.s1tbx.commons.product.Missions;
 import org.esa.s1tbx.io.netcdf.NetCDFReader;
+import org.esa.s1tbx.io.netcdf.NetCDFTileReader;
 import org.esa.s1tbx.io.netcdf.NetCDFUtils;
 import org.esa.s1tbx.io.netcdf.NetcdfConstants;
 import org.esa.snap.core.dataio.IllegalFileFormatException;
@@ -16,7 +17,6 @@ import org.esa.snap.engine_utilities.datamodel.Unit;
 import org.esa.snap.engine_utilities.eo.Constants;
 import org.esa.snap.engine_utilities.gpf.OperatorUtils;
 import org.esa.snap.engine_utilities.gpf.ReaderUtils;
-import ucar.ma2.Array;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
 
@@ -37,6 +37,7 @@ public class IceyeSLCProductReader extends SARReader {
     private final Map<Band, Variable> bandMap = new HashMap<>(10);
     private final DateFormat standardDateFormat = ProductData.UTC.createDateFormat("yyyy-MM-dd'T'HH:mm:ss");
     private NetcdfFile netcdfFile = null;
+    private NetCDFTileReader tileReader = null;
     private Product product = null;
     private boolean isComplex = false;
 
@@ -193,6 +194,7 @@ public class IceyeSLCProductReader extends SARReader {
                         "be interpreted as remote sensing bands.");  /*I18N*/
             }
             this.netcdfFile = tempNetcdfFile;
+            this.tileReader = new NetCDFTileReader(tempNetcdfFile);
 
             final String productType = this.netcdfFile.getRootGroup().findVariable(IceyeXConstants.PRODUCT_TYPE).readScalarString();
             final int rasterWidth = this.netcdfFile.getRootGroup().findVariable(IceyeXConstants.NUM_SAMPLES_PER_LINE).readScalarInt();
@@ -233,6 +235,8 @@ public class IceyeSLCProductReader extends SARReader {
     public void close() throws IOException {
         if (product != null) {
             product = null;
+            tileReader.close();
+            tileReader = null;
             netcdfFile.close();
             netcdfFile = null;
         }
@@ -643,23 +647,12 @@ public class IceyeSLCProductReader extends SARReader {
         destHeight = Math.min(destHeight, sceneHeight - sourceOffsetY);
         sourceWidth = Math.min(sourceWidth, sceneWidth - sourceOffsetX);
         destWidth = Math.min(destWidth, sceneWidth - destOffsetX);
-        final int[] origin = {sourceOffsetY, sourceOffsetX};
-        final int[] shape = {1, sourceWidth};
-        pm.beginTask("Reading util from band " + destBand.getName(), destHeight);
+        pm.beginTask("Reading util from band " + destBand.getName(), 1);
         try {
-            for (int y = 0; y < destHeight; y++) {
-                origin[0] = sourceOffsetY + y;
-                final Array array;
-                synchronized (netcdfFile) {
-                    array = variable.read(origin, shape);
-                }
-                System.arraycopy(array.getStorage(), 0, destBuffer.getElems(), y * destWidth, destWidth);
-                pm.worked(1);
-            }
-        } catch (Exception e) {
-            final IOException ioException = new IOException(e);
-            ioException.initCause(e);
-            throw ioException;
+            tileReader.readTile(variable, 0, 1, -1, 0,
+                                sourceOffsetX, sourceOffsetY, Math.min(sourceWidth, destWidth), destHeight, false,
+                                destBuffer.getElems());
+            pm.worked(1);
         } finally {
             pm.done();
         }